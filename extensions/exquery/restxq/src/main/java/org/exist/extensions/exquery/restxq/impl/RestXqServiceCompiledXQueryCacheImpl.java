@@ -26,12 +26,13 @@ SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
  */
 package org.exist.extensions.exquery.restxq.impl;
 
+import java.lang.ref.SoftReference;
 import java.net.URI;
-import java.util.ArrayDeque;
-import java.util.Deque;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import net.jcip.annotations.ThreadSafe;
 import org.exist.extensions.exquery.restxq.RestXqServiceCompiledXQueryCache;
 import org.exist.storage.DBBroker;
 import org.exist.xquery.CompiledXQuery;
@@ -39,35 +40,55 @@ import org.exquery.restxq.RestXqService;
 import org.exquery.restxq.RestXqServiceException;
 
 /**
+ * Pools the compiled XQuery modules of the RESTXQ Resource Functions by their location.
+ *
+ * Each module has its own lock-free pool, so borrowing and returning queries of different,
+ * or even the same, modules do not contend for a lock. At most {@link #getMaxInstances()}
+ * compiled queries are kept for each module, any further returned query is discarded. The
+ * pooled queries are only softly referenced, so the garbage collector can reclaim them
+ * when memory runs short; they are compiled again when needed.
  *
  * @author Adam Retter <adam.retter@googlemail.com>
  */
+@ThreadSafe
 public class RestXqServiceCompiledXQueryCacheImpl implements RestXqServiceCompiledXQueryCache {
     
+    public final static int DEFAULT_MAX_INSTANCES = 8;
+    public final static int DEFAULT_WARM_UP_INSTANCES = 2;
+    
     private final static RestXqServiceCompiledXQueryCacheImpl instance = new RestXqServiceCompiledXQueryCacheImpl();
     
-    //TODO could introduce a MAX stack size, i.e. you can only have N compiled main.xqy's in the cache
-    private final Map<URI, Deque<CompiledXQuery>> cache = new HashMap<>();
-    private final ReentrantReadWriteLock cacheLock = new ReentrantReadWriteLock();
+    private final ConcurrentMap<URI, ModulePool> cache = new ConcurrentHashMap<>();
+    
+    private volatile int maxInstances = DEFAULT_MAX_INSTANCES;
+    private volatile int warmUpInstances = DEFAULT_WARM_UP_INSTANCES;
     
     public static RestXqServiceCompiledXQueryCacheImpl getInstance() {
         return instance;
     }
+    
+    /**
+     * @param maxInstances the maximum number of compiled queries kept for each module
+     * @param warmUpInstances the number of compiled queries to prepare when a module is registered
+     */
+    public void configure(final int maxInstances, final int warmUpInstances) {
+        this.maxInstances = Math.max(0, maxInstances);
+        this.warmUpInstances = Math.max(0, Math.min(warmUpInstances, this.maxInstances));
+    }
+    
+    public int getMaxInstances() {
+        return maxInstances;
+    }
+    
+    public int getWarmUpInstances() {
+        return warmUpInstances;
+    }
 
     @Override
     public CompiledXQuery getCompiledQuery(final DBBroker broker, final URI xqueryLocation) throws RestXqServiceException {
         
-        CompiledXQuery xquery = null;
-        cacheLock.writeLock().lock();
-        try {
-            final Deque<CompiledXQuery> queries = cache.get(xqueryLocation);
-            
-            if(queries != null && !queries.isEmpty()) {
-                xquery = queries.pop();
-            }
-        } finally {
-            cacheLock.writeLock().unlock();
-        }
+        final ModulePool queries = cache.get(xqueryLocation);
+        CompiledXQuery xquery = queries != null ? queries.poll() : null;
         
         if(xquery == null) {
             xquery = XQueryCompiler.compile(broker, xqueryLocation);
@@ -83,45 +104,63 @@ public class RestXqServiceCompiledXQueryCacheImpl implements RestXqServiceCompil
     
     @Override
     public void returnCompiledQuery(final URI xqueryLocation, final CompiledXQuery xquery) {
-        cacheLock.writeLock().lock();
-        try {
-            Deque<CompiledXQuery> queries = cache.get(xqueryLocation);
-            if(queries == null) {
-                queries = new ArrayDeque<>();
-            }
-            
-            //reset the query and context
-            xquery.reset();
-            xquery.getContext().reset();
-            
-            queries.push(xquery);
-            
-            cache.put(xqueryLocation, queries);
-            
-        } finally {
-            cacheLock.writeLock().unlock();
-        }
+        //reset the query and context
+        xquery.reset();
+        xquery.getContext().reset();
+        
+        cache.computeIfAbsent(xqueryLocation, location -> new ModulePool()).offer(xquery, maxInstances);
+    }
+    
+    /**
+     * Returns the number of compiled queries available for a module.
+     *
+     * @param xqueryLocation the location of the module
+     * @return the number of pooled queries, including any reclaimed by the garbage collector
+     *     which have not been noticed yet
+     */
+    public int getPooledInstances(final URI xqueryLocation) {
+        final ModulePool queries = cache.get(xqueryLocation);
+        return queries != null ? queries.size() : 0;
     }
     
     @Override
     public void removeService(final RestXqService service) {
-        cacheLock.writeLock().lock();
-        try {        
-            cache.remove(service.getResourceFunction().getXQueryLocation());
-        } finally {
-            cacheLock.writeLock().unlock();
-        }
+        cache.remove(service.getResourceFunction().getXQueryLocation());
     }
     
     @Override
     public void removeServices(final Iterable<RestXqService> services) {
-        cacheLock.writeLock().lock();
-        try {
-            for(final RestXqService service : services) {
-                cache.remove(service.getResourceFunction().getXQueryLocation());
+        for(final RestXqService service : services) {
+            cache.remove(service.getResourceFunction().getXQueryLocation());
+        }
+    }
+    
+    private static final class ModulePool {
+        private final ConcurrentLinkedDeque<SoftReference<CompiledXQuery>> queries = new ConcurrentLinkedDeque<>();
+        private final AtomicInteger size = new AtomicInteger();
+        
+        private CompiledXQuery poll() {
+            SoftReference<CompiledXQuery> ref;
+            while((ref = queries.pollFirst()) != null) {
+                size.decrementAndGet();
+                final CompiledXQuery xquery = ref.get();
+                if(xquery != null) {
+                    return xquery;
+                }
             }
-        } finally {
-            cacheLock.writeLock().unlock();
+            return null;
+        }
+        
+        private void offer(final CompiledXQuery xquery, final int maxInstances) {
+            if(size.incrementAndGet() > maxInstances) {
+                size.decrementAndGet();
+                return;
+            }
+            queries.offerFirst(new SoftReference<>(xquery));
+        }
+        
+        private int size() {
+            return size.get();
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,128 @@
+/*
+Copyright (c) 2012, Adam Retter
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of Adam Retter Consulting nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL Adam Retter BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.exist.extensions.exquery.restxq.impl;
+
+import java.net.URI;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.exist.EXistException;
+import org.exist.storage.BrokerPool;
+import org.exist.storage.DBBroker;
+import org.exist.xquery.CompiledXQuery;
+import org.exquery.restxq.RestXqService;
+import org.exquery.restxq.RestXqServiceRegistryListener;
+
+/**
+ * Compiles the XQuery module of a newly registered Resource Function in the
+ * background, until the compiled query cache holds
+ * {@link RestXqServiceCompiledXQueryCacheImpl#getWarmUpInstances()} instances
+ * of it, so the first requests after a deployment or a restart do not have to
+ * compile the module.
+ */
+class RestXqServiceCompiledXQueryCacheWarmUpListener implements RestXqServiceRegistryListener {
+
+    private final static Logger LOG = LogManager.getLogger(RestXqServiceCompiledXQueryCacheWarmUpListener.class);
+
+    private final static long OPERATIONAL_WAIT = 100;
+
+    private final BrokerPool pool;
+    private final RestXqServiceCompiledXQueryCacheImpl cache;
+    private final Set<URI> pending = ConcurrentHashMap.newKeySet();
+    private final ThreadPoolExecutor executor;
+
+    public RestXqServiceCompiledXQueryCacheWarmUpListener(final BrokerPool pool, final RestXqServiceCompiledXQueryCacheImpl cache) {
+        this.pool = pool;
+        this.cache = cache;
+        this.executor = new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), runnable -> {
+            final Thread thread = new Thread(runnable, "restxq-warm-up");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    @Override
+    public void registered(final RestXqService service) {
+        if(cache.getWarmUpInstances() == 0) {
+            return;
+        }
+
+        //a module usually declares several Resource Functions, warm it up only once
+        final URI xqueryLocation = service.getResourceFunction().getXQueryLocation();
+        if(pending.add(xqueryLocation)) {
+            try {
+                executor.execute(() -> warmUp(xqueryLocation));
+            } catch(final RejectedExecutionException e) {
+                pending.remove(xqueryLocation);
+            }
+        }
+    }
+
+    @Override
+    public void deregistered(final RestXqService service) {
+        //nothing to do, the cache cleanup listener discards the compiled queries
+    }
+
+    private void warmUp(final URI xqueryLocation) {
+        try {
+            //modules registered during startup are compiled once the database is ready
+            while(!pool.isOperational()) {
+                if(pool.isShuttingDown() || pool.isShutDown()) {
+                    return;
+                }
+                Thread.sleep(OPERATIONAL_WAIT);
+            }
+
+            try(final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
+                final int warmUpInstances = cache.getWarmUpInstances();
+                int compiled = 0;
+                while(compiled < warmUpInstances && cache.getPooledInstances(xqueryLocation) < warmUpInstances) {
+                    final CompiledXQuery xquery = XQueryCompiler.compile(broker, xqueryLocation);
+                    cache.returnCompiledQuery(xqueryLocation, xquery);
+                    compiled++;
+                }
+
+                if(LOG.isDebugEnabled() && compiled > 0) {
+                    LOG.debug("Compiled " + compiled + " instances of RESTXQ module: " + xqueryLocation);
+                }
+            }
+        } catch(final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch(final EXistException | RestXqServiceCompilationException e) {
+            LOG.warn("Unable to warm up RESTXQ module: " + xqueryLocation + ": " + e.getMessage());
+        } finally {
+            pending.remove(xqueryLocation);
+        }
+    }
+}
@@ -42,6 +42,8 @@ public final class RestXqServiceRegistryManager {
     
     private static RestXqServiceRegistryImpl registry = null;
     
+    private static volatile RestXqServiceRouteIndex routeIndex = null;
+    
     
     public static synchronized RestXqServiceRegistry getRegistry(final BrokerPool pool) {
         
@@ -55,6 +57,13 @@ public final class RestXqServiceRegistryManager {
             //add compiled cache cleanup listener
             registry.addListener(new RestXqServiceCompiledXQueryCacheCleanupListener());
             
+            //add compiled cache warm up listener
+            registry.addListener(new RestXqServiceCompiledXQueryCacheWarmUpListener(pool, RestXqServiceCompiledXQueryCacheImpl.getInstance()));
+            
+            //add route index listener, which must see every registration
+            final RestXqServiceRouteIndex index = new RestXqServiceRouteIndex(registry);
+            registry.addListener(index);
+            
             //add persistence listener
             final RestXqServiceRegistryPersistence persistence = new RestXqServiceRegistryPersistence(pool, registry);
             
@@ -64,9 +73,26 @@ public final class RestXqServiceRegistryManager {
             //NOTE: must load registry before listening for registered events
             registry.addListener(persistence);
             
+            routeIndex = index;
+            
             LOG.info("RESTXQ is ready.");
         }
         
         return registry;
     }
-}
\ No newline at end of file
+    
+    /**
+     * Gets the index used to find the service for a request.
+     *
+     * @param pool the broker pool, used to initialise the registry
+     * @return the route index of the registry
+     */
+    public static RestXqServiceRouteIndex getRouteIndex(final BrokerPool pool) {
+        final RestXqServiceRouteIndex index = routeIndex;
+        if(index != null) {
+            return index;
+        }
+        getRegistry(pool);
+        return routeIndex;
+    }
+}
@@ -0,0 +1,277 @@
+/*
+Copyright (c) 2012, Adam Retter
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of Adam Retter Consulting nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL Adam Retter BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.exist.extensions.exquery.restxq.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import net.jcip.annotations.GuardedBy;
+import net.jcip.annotations.ThreadSafe;
+import org.exquery.http.AcceptHeader;
+import org.exquery.http.HttpHeader;
+import org.exquery.http.HttpMethod;
+import org.exquery.http.HttpRequest;
+import org.exquery.restxq.RestXqService;
+import org.exquery.restxq.RestXqServiceRegistry;
+import org.exquery.restxq.RestXqServiceRegistryListener;
+import org.exquery.restxq.annotation.PathAnnotation;
+
+/**
+ * Index of the registered RESTXQ Services by the segments of their path templates.
+ *
+ * The registry tests every Resource Function registered for the HTTP Method of a request.
+ * Instead the index walks a trie of the request path segments, where a segment of a template
+ * is either matched literally or, if it contains a template parameter, matches any
+ * non-empty segment. Only the services found there, and those without a path annotation,
+ * are tested, so the cost of a request does not grow with the number of Resource Functions.
+ *
+ * The candidates are tested in the same order as by the registry, and the service is chosen
+ * in the same way, so the index finds the same service.
+ *
+ * The index is kept up-to-date as a listener of the registry. It is rebuilt when services are
+ * registered or deregistered, which is rare, so that requests can read it without locking.
+ */
+@ThreadSafe
+public class RestXqServiceRouteIndex implements RestXqServiceRegistryListener {
+
+    private final RestXqServiceRegistry registry;
+
+    @GuardedBy("this") private final Map<RestXqService, Long> services = new LinkedHashMap<>();
+    @GuardedBy("this") private long registrations = 0;
+
+    private volatile Routes routes = new Routes();
+
+    /**
+     * @param registry the registry, used for requests whose path cannot be indexed
+     */
+    public RestXqServiceRouteIndex(final RestXqServiceRegistry registry) {
+        this.registry = registry;
+    }
+
+    @Override
+    public synchronized void registered(final RestXqService service) {
+        //a service registered again is ordered like a new one, as in the registry
+        services.remove(service);
+        services.put(service, registrations++);
+        routes = build();
+    }
+
+    @Override
+    public synchronized void deregistered(final RestXqService service) {
+        if(services.remove(service) != null) {
+            routes = build();
+        }
+    }
+
+    /**
+     * Finds the service for a request.
+     *
+     * @param request the HTTP request
+     * @return the service, or null if no Resource Function can service the request
+     */
+    public RestXqService findService(final HttpRequest request) {
+        final String path = request.getPath();
+        if(path == null || path.isEmpty() || path.charAt(0) != '/') {
+            //paths are always absolute, but let the registry decide anything else
+            return registry.findService(request);
+        }
+
+        final HttpMethod method = request.getMethod();
+        final Routes current = routes;
+
+        final List<Route> candidates = new ArrayList<>();
+        current.anyPath.addTo(method, candidates);
+        current.root.collect(path, 1, method, candidates);
+        if(candidates.isEmpty()) {
+            return null;
+        }
+        Collections.sort(candidates);
+
+        final String accept = request.getHeader(HttpHeader.ACCEPT.getHeaderName());
+        final AcceptHeader acceptHeader = accept != null ? new AcceptHeader(accept) : null;
+
+        RestXqService found = null;
+        for(final Route candidate : candidates) {
+            final RestXqService service = candidate.service;
+            if(service.canService(request)) {
+                if(acceptHeader == null || found == null) {
+                    found = service;
+                } else if(service.maxProducesQualityFactor(acceptHeader) > found.maxProducesQualityFactor(acceptHeader)) {
+                    found = service;
+                }
+            }
+        }
+        return found;
+    }
+
+    @GuardedBy("this")
+    private Routes build() {
+        final Routes built = new Routes();
+        for(final Map.Entry<RestXqService, Long> entry : services.entrySet()) {
+            final RestXqService service = entry.getKey();
+            final Route route = new Route(service, entry.getValue());
+
+            final String[] segments = getTemplateSegments(service);
+            Node node;
+            if(segments == null) {
+                node = built.anyPath;
+            } else {
+                node = built.root;
+                for(final String segment : segments) {
+                    node = node.child(segment);
+                }
+            }
+            for(final HttpMethod method : service.getServicedMethods()) {
+                node.add(method, route);
+            }
+        }
+        return built;
+    }
+
+    /**
+     * Splits the path template of a service into its segments.
+     *
+     * @return the segments, where a segment containing a template parameter is null,
+     *     or null if the service has no path template or it cannot be indexed
+     */
+    private static String[] getTemplateSegments(final RestXqService service) {
+        final PathAnnotation pathAnnotation = service.getResourceFunction().getPathAnnotation();
+        if(pathAnnotation == null || pathAnnotation.getLiterals() == null || pathAnnotation.getLiterals().length == 0) {
+            return null;
+        }
+
+        String template = pathAnnotation.getLiterals()[0].getValue();
+        if(template == null) {
+            return null;
+        }
+        if(template.startsWith("/")) {
+            template = template.substring(1);
+        }
+        if(template.isEmpty()) {
+            return null;
+        }
+
+        final String[] segments = template.split("/", -1);
+        for(int i = 0; i < segments.length; i++) {
+            if(segments[i].isEmpty()) {
+                //not a valid template, always test the service
+                return null;
+            }
+            if(segments[i].indexOf('{') > -1) {
+                segments[i] = null;
+            }
+        }
+        return segments;
+    }
+
+    private static final class Routes {
+        private final Node root = new Node();
+        private final Node anyPath = new Node();
+    }
+
+    private static final class Node {
+        private final Map<String, Node> literals = new HashMap<>();
+        private Node parameter = null;
+        private final Map<HttpMethod, List<Route>> methods = new EnumMap<>(HttpMethod.class);
+
+        /**
+         * @param segment the literal segment, or null for a segment with a template parameter
+         */
+        private Node child(final String segment) {
+            if(segment == null) {
+                if(parameter == null) {
+                    parameter = new Node();
+                }
+                return parameter;
+            }
+            return literals.computeIfAbsent(segment, s -> new Node());
+        }
+
+        private void add(final HttpMethod method, final Route route) {
+            methods.computeIfAbsent(method, m -> new ArrayList<>()).add(route);
+        }
+
+        private void addTo(final HttpMethod method, final List<Route> candidates) {
+            final List<Route> routes = methods.get(method);
+            if(routes != null) {
+                candidates.addAll(routes);
+            }
+        }
+
+        /**
+         * Collects the routes of the nodes matching the segments of the path from the given offset.
+         */
+        private void collect(final String path, final int offset, final HttpMethod method, final List<Route> candidates) {
+            final int end = path.indexOf('/', offset);
+            final String segment = end == -1 ? path.substring(offset) : path.substring(offset, end);
+            if(segment.isEmpty()) {
+                //a template segment never matches an empty segment
+                return;
+            }
+
+            final Node literal = literals.get(segment);
+            if(literal != null) {
+                literal.collectChild(path, end, method, candidates);
+            }
+            if(parameter != null) {
+                parameter.collectChild(path, end, method, candidates);
+            }
+        }
+
+        private void collectChild(final String path, final int end, final HttpMethod method, final List<Route> candidates) {
+            if(end == -1) {
+                addTo(method, candidates);
+            } else {
+                collect(path, end + 1, method, candidates);
+            }
+        }
+    }
+
+    private static final class Route implements Comparable<Route> {
+        private final RestXqService service;
+        private final long registration;
+
+        private Route(final RestXqService service, final long registration) {
+            this.service = service;
+            this.registration = registration;
+        }
+
+        /**
+         * Orders the routes like the registry, which keeps the services sorted and appends
+         * a newly registered service after those which compare equal.
+         */
+        @Override
+        public int compareTo(final Route other) {
+            final int cmp = service.compareTo(other.service);
+            return cmp != 0 ? cmp : Long.compare(registration, other.registration);
+        }
+    }
+}
@@ -44,7 +44,6 @@ import org.exist.util.Configuration;
 import org.exquery.http.HttpRequest;
 import org.exquery.restxq.RestXqService;
 import org.exquery.restxq.RestXqServiceException;
-import org.exquery.restxq.RestXqServiceRegistry;
 
 /**
  *
@@ -54,8 +53,8 @@ public class RestXqServlet extends AbstractExistHttpServlet {
 
     private final Logger log = LogManager.getLogger(getClass());
 
-    private RestXqServiceRegistry getRegistry() {
-        return RestXqServiceRegistryManager.getRegistry(getPool());
+    private RestXqServiceRouteIndex getRouteIndex() {
+        return RestXqServiceRegistryManager.getRouteIndex(getPool());
     }
 
     @Override
@@ -70,33 +69,35 @@ public class RestXqServlet extends AbstractExistHttpServlet {
             return;
         }
 
-        try(final DBBroker broker = getPool().get(Optional.of(user))) {
-            final Configuration configuration = broker.getConfiguration();
+        final Configuration configuration = getPool().getConfiguration();
 
-            final HttpRequest requestAdapter = new HttpServletRequestAdapter(
-                request,
-                    () -> (String)configuration.getProperty(Configuration.BINARY_CACHE_CLASS_PROPERTY));
+        final HttpRequest requestAdapter = new HttpServletRequestAdapter(
+            request,
+                () -> (String)configuration.getProperty(Configuration.BINARY_CACHE_CLASS_PROPERTY));
 
-            final RestXqService service = getRegistry().findService(requestAdapter);
-            if(service != null) {
-                
-                if(log.isTraceEnabled()) {
-                    log.trace("Received " + requestAdapter.getMethod().name() + " request for \"" + requestAdapter.getPath() + "\" and found Resource Function \"" + service.getResourceFunction().getFunctionSignature() + "\" in  module \"" + service.getResourceFunction().getXQueryLocation() + "\"");
-                }
-                
-                service.service(
-                    requestAdapter,
-                    new HttpServletResponseAdapter(response),
-                    new ResourceFunctionExecutorImpl(getPool(), request.getContextPath() + request.getServletPath(), request.getRequestURI()),
-                    new RestXqServiceSerializerImpl(getPool())
-                );
-            } else {
-                if(log.isTraceEnabled()) {
-                    log.trace("Received " + requestAdapter.getMethod().name() + " request for \"" + requestAdapter.getPath() + "\" but no suitable Resource Function found!");
-                }
-                
-                super.service(request, response);
+        //find the service before acquiring a broker, which is only needed to run it
+        final RestXqService service = getRouteIndex().findService(requestAdapter);
+        if(service == null) {
+            if(log.isTraceEnabled()) {
+                log.trace("Received " + requestAdapter.getMethod().name() + " request for \"" + requestAdapter.getPath() + "\" but no suitable Resource Function found!");
             }
+
+            super.service(request, response);
+            return;
+        }
+
+        if(log.isTraceEnabled()) {
+            log.trace("Received " + requestAdapter.getMethod().name() + " request for \"" + requestAdapter.getPath() + "\" and found Resource Function \"" + service.getResourceFunction().getFunctionSignature() + "\" in  module \"" + service.getResourceFunction().getXQueryLocation() + "\"");
+        }
+
+        //the broker runs the function and serializes its result as the authenticated user
+        try(final DBBroker broker = getPool().get(Optional.of(user))) {
+            service.service(
+                requestAdapter,
+                new HttpServletResponseAdapter(response),
+                new ResourceFunctionExecutorImpl(broker.getBrokerPool(), request.getContextPath() + request.getServletPath(), request.getRequestURI()),
+                new RestXqServiceSerializerImpl(broker.getBrokerPool())
+            );
         } catch(final EXistException e) {
             getLog().error(e.getMessage(), e);
             throw new ServletException(e.getMessage(), e);
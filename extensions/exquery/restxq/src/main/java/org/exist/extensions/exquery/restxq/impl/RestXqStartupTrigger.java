@@ -28,6 +28,8 @@ package org.exist.extensions.exquery.restxq.impl;
 
 import java.util.List;
 import java.util.Map;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 import org.exist.storage.DBBroker;
 import org.exist.storage.StartupTrigger;
 
@@ -36,12 +38,40 @@ import org.exist.storage.StartupTrigger;
  * where the user account will be SYSTEM and has read access to
  * all queries
  *
+ * The parameters "max-compiled-queries" and "warm-up-compiled-queries"
+ * configure the number of compiled queries which are kept for each
+ * XQuery module, and which are prepared when a module is registered.
+ *
  * @author Adam Retter <adam.retter@googlemail.com>
  */
 public class RestXqStartupTrigger implements StartupTrigger {
     
+    private final static Logger LOG = LogManager.getLogger(RestXqStartupTrigger.class);
+    
+    public final static String MAX_COMPILED_QUERIES_PARAM = "max-compiled-queries";
+    public final static String WARM_UP_COMPILED_QUERIES_PARAM = "warm-up-compiled-queries";
+    
     @Override
     public void execute(final DBBroker broker, final Map<String, List<?>> params) {
+        //must be configured before the registry is loaded, which warms up the cache
+        RestXqServiceCompiledXQueryCacheImpl.getInstance().configure(
+                getIntParameter(params, MAX_COMPILED_QUERIES_PARAM, RestXqServiceCompiledXQueryCacheImpl.DEFAULT_MAX_INSTANCES),
+                getIntParameter(params, WARM_UP_COMPILED_QUERIES_PARAM, RestXqServiceCompiledXQueryCacheImpl.DEFAULT_WARM_UP_INSTANCES));
+        
         RestXqServiceRegistryManager.getRegistry(broker.getBrokerPool());
     }
+    
+    private int getIntParameter(final Map<String, List<?>> params, final String name, final int defaultValue) {
+        if(params != null) {
+            final List<?> values = params.get(name);
+            if(values != null && !values.isEmpty()) {
+                try {
+                    return Integer.parseInt(values.get(0).toString().trim());
+                } catch(final NumberFormatException e) {
+                    LOG.warn("Invalid value for RESTXQ parameter '" + name + "': " + values.get(0));
+                }
+            }
+        }
+        return defaultValue;
+    }
 }
\ No newline at end of file
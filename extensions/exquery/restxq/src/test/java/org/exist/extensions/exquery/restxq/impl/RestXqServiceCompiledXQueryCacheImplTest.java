@@ -0,0 +1,117 @@
+/*
+Copyright (c) 2012, Adam Retter
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of Adam Retter Consulting nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL Adam Retter BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.exist.extensions.exquery.restxq.impl;
+
+import java.net.URI;
+import org.exist.xquery.CompiledXQuery;
+import org.exist.xquery.XQueryContext;
+import org.exist.xquery.XQueryWatchDog;
+import org.exquery.restxq.ResourceFunction;
+import org.exquery.restxq.RestXqService;
+import org.junit.After;
+import org.junit.Test;
+
+import static org.easymock.EasyMock.*;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for RestXqServiceCompiledXQueryCacheImpl
+ */
+public class RestXqServiceCompiledXQueryCacheImplTest {
+
+    private final URI location = URI.create("/db/apps/test/test.xqm");
+    private final RestXqServiceCompiledXQueryCacheImpl cache = RestXqServiceCompiledXQueryCacheImpl.getInstance();
+
+    @After
+    public void cleanup() {
+        cache.removeService(service(location));
+        cache.configure(RestXqServiceCompiledXQueryCacheImpl.DEFAULT_MAX_INSTANCES, RestXqServiceCompiledXQueryCacheImpl.DEFAULT_WARM_UP_INSTANCES);
+    }
+
+    @Test
+    public void borrowPooled() throws Exception {
+        final CompiledXQuery first = compiledXQuery();
+        final CompiledXQuery second = compiledXQuery();
+        cache.returnCompiledQuery(location, first);
+        cache.returnCompiledQuery(location, second);
+        assertEquals(2, cache.getPooledInstances(location));
+
+        //the most recently returned query is reused first
+        assertSame(second, cache.getCompiledQuery(null, location));
+        assertSame(first, cache.getCompiledQuery(null, location));
+        assertEquals(0, cache.getPooledInstances(location));
+    }
+
+    @Test
+    public void maxInstances() throws Exception {
+        cache.configure(3, 1);
+        for(int i = 0; i < 10; i++) {
+            cache.returnCompiledQuery(location, compiledXQuery());
+        }
+        assertEquals(3, cache.getPooledInstances(location));
+
+        cache.getCompiledQuery(null, location);
+        assertEquals(2, cache.getPooledInstances(location));
+        cache.returnCompiledQuery(location, compiledXQuery());
+        assertEquals(3, cache.getPooledInstances(location));
+    }
+
+    @Test
+    public void removeService() throws Exception {
+        cache.returnCompiledQuery(location, compiledXQuery());
+        assertEquals(1, cache.getPooledInstances(location));
+
+        cache.removeService(service(location));
+        assertEquals(0, cache.getPooledInstances(location));
+    }
+
+    @Test
+    public void warmUpLimitedByMaxInstances() {
+        cache.configure(2, 5);
+        assertEquals(2, cache.getMaxInstances());
+        assertEquals(2, cache.getWarmUpInstances());
+    }
+
+    private RestXqService service(final URI xqueryLocation) {
+        final ResourceFunction resourceFunction = createNiceMock(ResourceFunction.class);
+        expect(resourceFunction.getXQueryLocation()).andReturn(xqueryLocation).anyTimes();
+        final RestXqService service = createNiceMock(RestXqService.class);
+        expect(service.getResourceFunction()).andReturn(resourceFunction).anyTimes();
+        replay(resourceFunction, service);
+        return service;
+    }
+
+    private CompiledXQuery compiledXQuery() {
+        final XQueryWatchDog watchDog = createNiceMock(XQueryWatchDog.class);
+        final XQueryContext context = createNiceMock(XQueryContext.class);
+        expect(context.getWatchDog()).andReturn(watchDog).anyTimes();
+        final CompiledXQuery xquery = createNiceMock(CompiledXQuery.class);
+        expect(xquery.getContext()).andReturn(context).anyTimes();
+        replay(watchDog, context, xquery);
+        return xquery;
+    }
+}
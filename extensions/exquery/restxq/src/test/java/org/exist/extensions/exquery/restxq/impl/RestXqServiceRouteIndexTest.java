@@ -0,0 +1,164 @@
+/*
+Copyright (c) 2012, Adam Retter
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright
+      notice, this list of conditions and the following disclaimer in the
+      documentation and/or other materials provided with the distribution.
+    * Neither the name of Adam Retter Consulting nor the
+      names of its contributors may be used to endorse or promote products
+      derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL Adam Retter BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.exist.extensions.exquery.restxq.impl;
+
+import java.util.EnumSet;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+import org.exquery.http.HttpMethod;
+import org.exquery.http.HttpRequest;
+import org.exquery.restxq.ResourceFunction;
+import org.exquery.restxq.RestXqService;
+import org.exquery.restxq.RestXqServiceRegistry;
+import org.exquery.restxq.annotation.PathAnnotation;
+import org.exquery.xquery.Literal;
+import org.junit.Test;
+
+import static org.easymock.EasyMock.*;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for RestXqServiceRouteIndex
+ */
+public class RestXqServiceRouteIndexTest {
+
+    private final AtomicInteger tested = new AtomicInteger();
+
+    @Test
+    public void literalAndParameterSegments() {
+        final RestXqServiceRouteIndex index = new RestXqServiceRouteIndex(createNiceMock(RestXqServiceRegistry.class));
+        final RestXqService orders = service("/shop/orders", HttpMethod.GET);
+        final RestXqService order = service("/shop/orders/{$id}", HttpMethod.GET);
+        final RestXqService item = service("shop/orders/{$id}/items/{$item}", HttpMethod.GET);
+        index.registered(orders);
+        index.registered(order);
+        index.registered(item);
+        for(int i = 0; i < 100; i++) {
+            index.registered(service("/other/" + i, HttpMethod.GET));
+        }
+
+        assertSame(orders, index.findService(request(HttpMethod.GET, "/shop/orders")));
+        assertSame(order, index.findService(request(HttpMethod.GET, "/shop/orders/123")));
+        assertSame(item, index.findService(request(HttpMethod.GET, "/shop/orders/123/items/4")));
+
+        //only the services on the matching branch are tested
+        tested.set(0);
+        assertNull(index.findService(request(HttpMethod.GET, "/shop/orders/123/items")));
+        assertNull(index.findService(request(HttpMethod.GET, "/shop/orders/")));
+        assertNull(index.findService(request(HttpMethod.GET, "/shop//orders")));
+        assertNull(index.findService(request(HttpMethod.GET, "/unknown")));
+        assertEquals(0, tested.get());
+
+        assertSame(order, index.findService(request(HttpMethod.GET, "/shop/orders/123")));
+        assertEquals(1, tested.get());
+    }
+
+    @Test
+    public void methods() {
+        final RestXqServiceRouteIndex index = new RestXqServiceRouteIndex(createNiceMock(RestXqServiceRegistry.class));
+        final RestXqService get = service("/a/{$b}", HttpMethod.GET, HttpMethod.HEAD);
+        final RestXqService post = service("/a/{$b}", HttpMethod.POST);
+        index.registered(get);
+        index.registered(post);
+
+        assertSame(get, index.findService(request(HttpMethod.GET, "/a/1")));
+        assertSame(get, index.findService(request(HttpMethod.HEAD, "/a/1")));
+        assertSame(post, index.findService(request(HttpMethod.POST, "/a/1")));
+        assertNull(index.findService(request(HttpMethod.PUT, "/a/1")));
+    }
+
+    @Test
+    public void withoutPath() {
+        final RestXqServiceRouteIndex index = new RestXqServiceRouteIndex(createNiceMock(RestXqServiceRegistry.class));
+        final RestXqService any = service(null, HttpMethod.GET);
+        index.registered(any);
+
+        assertSame(any, index.findService(request(HttpMethod.GET, "/a/1")));
+        assertSame(any, index.findService(request(HttpMethod.GET, "/")));
+    }
+
+    @Test
+    public void deregistered() {
+        final RestXqServiceRouteIndex index = new RestXqServiceRouteIndex(createNiceMock(RestXqServiceRegistry.class));
+        final RestXqService literal = service("/a/b", HttpMethod.GET);
+        final RestXqService parameter = service("/a/{$b}", HttpMethod.GET);
+        index.registered(literal);
+        index.registered(parameter);
+
+        //without an Accept header the registry chooses the last matching service
+        assertSame(parameter, index.findService(request(HttpMethod.GET, "/a/b")));
+
+        index.deregistered(parameter);
+        assertSame(literal, index.findService(request(HttpMethod.GET, "/a/b")));
+        assertNull(index.findService(request(HttpMethod.GET, "/a/c")));
+
+        index.deregistered(literal);
+        assertNull(index.findService(request(HttpMethod.GET, "/a/b")));
+    }
+
+    private HttpRequest request(final HttpMethod method, final String path) {
+        final HttpRequest request = createNiceMock(HttpRequest.class);
+        expect(request.getMethod()).andReturn(method).anyTimes();
+        expect(request.getPath()).andReturn(path).anyTimes();
+        replay(request);
+        return request;
+    }
+
+    /**
+     * Creates a service which can service requests whose path matches the template.
+     */
+    private RestXqService service(final String template, final HttpMethod... methods) {
+        final ResourceFunction resourceFunction = createNiceMock(ResourceFunction.class);
+        final PathAnnotation pathAnnotation;
+        final Pattern pattern;
+        if(template != null) {
+            final Literal literal = createNiceMock(Literal.class);
+            expect(literal.getValue()).andReturn(template).anyTimes();
+            pathAnnotation = createNiceMock(PathAnnotation.class);
+            expect(pathAnnotation.getLiterals()).andReturn(new Literal[] { literal }).anyTimes();
+            replay(literal, pathAnnotation);
+            pattern = Pattern.compile((template.startsWith("/") ? "" : "/") + template.replaceAll("\\{\\$[^}]+\\}", "[^/]+"));
+        } else {
+            pathAnnotation = null;
+            pattern = Pattern.compile(".*");
+        }
+        expect(resourceFunction.getPathAnnotation()).andReturn(pathAnnotation).anyTimes();
+        replay(resourceFunction);
+
+        final EnumSet<HttpMethod> servicedMethods = EnumSet.of(methods[0], methods);
+        final RestXqService service = createNiceMock(RestXqService.class);
+        expect(service.getResourceFunction()).andReturn(resourceFunction).anyTimes();
+        expect(service.getServicedMethods()).andReturn(servicedMethods).anyTimes();
+        expect(service.canService(anyObject(HttpRequest.class))).andAnswer(() -> {
+            tested.incrementAndGet();
+            final HttpRequest request = (HttpRequest)getCurrentArguments()[0];
+            return servicedMethods.contains(request.getMethod()) && pattern.matcher(request.getPath()).matches();
+        }).anyTimes();
+        replay(service);
+        return service;
+    }
+}
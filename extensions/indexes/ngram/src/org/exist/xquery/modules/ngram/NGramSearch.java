@@ -51,7 +51,7 @@ import org.exist.xquery.value.*;
 
 public class NGramSearch extends Function implements Optimizable {
 
-    private static final String INTERVAL_QUALIFIER_PATTERN = "\\{([0-9]+),([0-9]+)\\}";
+    private static final Pattern INTERVAL_QUALIFIER_PATTERN = Pattern.compile("\\{([0-9]+),([0-9]+)\\}");
 
     private static final String SEARCH_DESCRIPTION = "Searches the given $queryString in the index "
         + "defined on the input node set $nodes. "
@@ -347,8 +347,7 @@ public class NGramSearch extends Function implements Optimizable {
                     else if (qualifier.equals("+"))
                         wildcard = new Wildcard(1, Integer.MAX_VALUE);
                     else {
-                        Pattern p = Pattern.compile(INTERVAL_QUALIFIER_PATTERN);
-                        Matcher m = p.matcher(qualifier);
+                        Matcher m = INTERVAL_QUALIFIER_PATTERN.matcher(qualifier);
                         if (!m.matches()) // Should not happen
                             throw new XPathException(
                         		this,
@@ -422,7 +421,7 @@ public class NGramSearch extends Function implements Optimizable {
                                 throw new XPathException(
                                     "err:FTDY0020: query string violates wildcard syntax: Unmatched qualifier start { in query string; marked by <-- HERE in \""
                                         + query.substring(0, i + 2) + " <-- HERE " + query.substring(i + 2) + "\"");
-                            if (!query.substring(i + 1, wildcardEnd + 1).matches(INTERVAL_QUALIFIER_PATTERN))
+                            if (!INTERVAL_QUALIFIER_PATTERN.matcher(query.substring(i + 1, wildcardEnd + 1)).matches())
                                 throw new XPathException(
                                     "err:FTDY0020: query string violates wildcard qualifier syntax;  marked by <-- HERE in \""
                                         + query.substring(0, wildcardEnd + 1) + " <-- HERE "
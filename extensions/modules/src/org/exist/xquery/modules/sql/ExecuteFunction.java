@@ -204,7 +204,6 @@ public class ExecuteFunction extends BasicFunction
                 // iterate through the result set building an XML document
                 rs = stmt.getResultSet();
                 ResultSetMetaData rsmd     = rs.getMetaData();
-                int               iColumns = rsmd.getColumnCount();
 
                 builder.startDocument();
 
@@ -212,88 +211,7 @@ public class ExecuteFunction extends BasicFunction
                 builder.addAttribute( new QName( "count", null, null ), String.valueOf( -1 ) );
 
                 while( rs.next() ) {
-                    builder.startElement( new QName( "row", SQLModule.NAMESPACE_URI, SQLModule.PREFIX ), null );
-                    builder.addAttribute( new QName( "index", null, null ), String.valueOf( rs.getRow() ) );
-
-                    // get each tuple in the row
-                    for( int i = 0; i < iColumns; i++ ) {
-                        String columnName = rsmd.getColumnLabel( i + 1 );
-
-                        if( columnName != null ) {
-
-                            String colElement = "field";
-
-                            if(makeNodeFromColumnName && columnName.length() > 0 ) {
-                                // use column names as the XML node
-
-                                /**
-                                 * Spaces in column names are replaced with
-                                 * underscore's
-                                 */
-                                colElement = SQLUtils.escapeXmlAttr( columnName.replace( ' ', '_' ) );
-                            }
-
-                            builder.startElement( new QName( colElement, SQLModule.NAMESPACE_URI, SQLModule.PREFIX ), null );
-
-                            if(!makeNodeFromColumnName || columnName.length() <= 0) {
-                                String name;
-
-                                if( columnName.length() > 0 ) {
-                                    name = SQLUtils.escapeXmlAttr( columnName );
-                                } else {
-                                    name = "Column: " + String.valueOf( i + 1 );
-                                }
-
-                                builder.addAttribute( new QName( "name", null, null ), name );
-                            }
-
-                            builder.addAttribute( new QName( TYPE_ATTRIBUTE_NAME, SQLModule.NAMESPACE_URI, SQLModule.PREFIX ), rsmd.getColumnTypeName( i + 1 ) );
-                            builder.addAttribute( new QName( TYPE_ATTRIBUTE_NAME, Namespaces.SCHEMA_NS, "xs" ), Type.getTypeName( SQLUtils.sqlTypeToXMLType( rsmd.getColumnType( i + 1 ) ) ) );
-
-                            //get the content
-                            if(rsmd.getColumnType(i+1) == Types.SQLXML) {
-                                //parse sqlxml value
-                                try {
-                                    final SQLXML sqlXml = rs.getSQLXML(i+1);
-                                    
-                                    if(rs.wasNull()) {
-                                        // Add a null indicator attribute if the value was SQL Null
-                                        builder.addAttribute( new QName( "null", SQLModule.NAMESPACE_URI, SQLModule.PREFIX ), "true" );
-                                    } else {
-
-                                        SAXParserFactory factory = SAXParserFactory.newInstance();
-                                        factory.setNamespaceAware(true);
-                                        InputSource src = new InputSource(sqlXml.getCharacterStream());
-                                        SAXParser parser = factory.newSAXParser();
-                                        XMLReader xr = parser.getXMLReader();
-
-                                        SAXAdapter adapter = new AppendingSAXAdapter(builder);
-                                        xr.setContentHandler(adapter);
-                                        xr.setProperty(Namespaces.SAX_LEXICAL_HANDLER, adapter);
-                                        xr.parse(src);
-                                    }
-                                } catch(Exception e) {
-                                    throw new XPathException("Could not parse column of type SQLXML: " + e.getMessage(), e);
-                                }
-                            } else {
-                                //otherwise assume string value
-                                final String colValue = rs.getString(i + 1);
-                                
-                                if(rs.wasNull()) {
-                                    // Add a null indicator attribute if the value was SQL Null
-                                    builder.addAttribute( new QName( "null", SQLModule.NAMESPACE_URI, SQLModule.PREFIX ), "true" );
-                                } else {
-                                    if(colValue != null) {
-                                        builder.characters( colValue );
-                                    }
-                                }
-                            }
-
-                            builder.endElement();
-                        }
-                    }
-
-                    builder.endElement();
+                    addRow( builder, rs, rsmd, makeNodeFromColumnName );
                     iRow++;
                 }
 
@@ -325,108 +243,216 @@ public class ExecuteFunction extends BasicFunction
         catch( SQLException sqle ) {
             LOG.error( "sql:execute() Caught SQLException \"" + sqle.getMessage() + "\" for SQL: \"" + sql + "\"", sqle );
 
-            //return details about the SQLException
-            MemTreeBuilder builder = context.getDocumentBuilder();
-
-            builder.startDocument();
-            builder.startElement( new QName( "exception", SQLModule.NAMESPACE_URI, SQLModule.PREFIX ), null );
+            final Element parametersElement = stmt instanceof PreparedStatement && !args[2].isEmpty() ? (Element)args[2].itemAt( 0 ) : null;
+            return( exceptionToXML( context.getDocumentBuilder(), sqle, sql, parametersElement, getLine(), getColumn() ) );
+        }
+        finally {
 
-            boolean recoverable = false;
+            // close any record set or statement
+            if( rs != null ) {
 
-            if( sqle instanceof SQLRecoverableException ) {
-                recoverable = true;
+                try {
+                    rs.close();
+                }
+                catch( SQLException se ) {
+                    LOG.warn( "Unable to cleanup JDBC results", se );
+                }
+                rs   = null;
             }
-            builder.addAttribute( new QName( "recoverable", null, null ), String.valueOf( recoverable ) );
-
 
-            builder.startElement( new QName( "state", SQLModule.NAMESPACE_URI, SQLModule.PREFIX ), null );
-            builder.characters( sqle.getSQLState() );
-            builder.endElement();
+            if(!preparedStmt && stmt != null ) {
 
-            builder.startElement( new QName( "message", SQLModule.NAMESPACE_URI, SQLModule.PREFIX ), null );
-            
-            String state = sqle.getMessage();
-            
-            if( state != null ) {
-            	builder.characters( state );
+                try {
+                    stmt.close();
+                }
+                catch( SQLException se ) {
+                    LOG.warn( "Unable to cleanup JDBC results", se );
+                }
+                stmt = null;
             }
             
-            builder.endElement();
-
-            builder.startElement( new QName( "stack-trace", SQLModule.NAMESPACE_URI, SQLModule.PREFIX ), null );
-            ByteArrayOutputStream bufStackTrace = new ByteArrayOutputStream();
-            sqle.printStackTrace( new PrintStream( bufStackTrace ) );
-            builder.characters( new String( bufStackTrace.toByteArray() ) );
-            builder.endElement();
+        }
+    }
+    
+    /**
+     * Adds a sql:row element for the current row of a result set.
+     *
+     * @param  builder                 The builder to add the row to
+     * @param  rs                      The result set, positioned on the row
+     * @param  rsmd                    The meta data of the result set
+     * @param  makeNodeFromColumnName  Whether the elements should be named after the columns
+     */
+    static void addRow( MemTreeBuilder builder, ResultSet rs, ResultSetMetaData rsmd, boolean makeNodeFromColumnName ) throws SQLException, XPathException
+    {
+        builder.startElement( new QName( "row", SQLModule.NAMESPACE_URI, SQLModule.PREFIX ), null );
+        builder.addAttribute( new QName( "index", null, null ), String.valueOf( rs.getRow() ) );
 
-            builder.startElement( new QName( "sql", SQLModule.NAMESPACE_URI, SQLModule.PREFIX ), null );
-            builder.characters( sql );
-            builder.endElement();
+        // get each tuple in the row
+        for( int i = 0; i < rsmd.getColumnCount(); i++ ) {
+            String columnName = rsmd.getColumnLabel( i + 1 );
 
-            if( stmt instanceof PreparedStatement ) {
-                Element parametersElement = (Element)args[2].itemAt( 0 );
+            if( columnName != null ) {
 
-                if( parametersElement.getNamespaceURI().equals( SQLModule.NAMESPACE_URI ) && parametersElement.getLocalName().equals( PARAMETERS_ELEMENT_NAME ) ) {
-                    NodeList paramElements = parametersElement.getElementsByTagNameNS( SQLModule.NAMESPACE_URI, PARAM_ELEMENT_NAME );
+                String colElement = "field";
 
-                    builder.startElement( new QName( PARAMETERS_ELEMENT_NAME, SQLModule.NAMESPACE_URI, SQLModule.PREFIX ), null );
+                if(makeNodeFromColumnName && columnName.length() > 0 ) {
+                    // use column names as the XML node
 
-                    for( int i = 0; i < paramElements.getLength(); i++ ) {
-                        Element param = ( (Element)paramElements.item( i ) );
-                        String  value = param.getFirstChild().getNodeValue();
-                        String  type  = param.getAttributeNS( SQLModule.NAMESPACE_URI, TYPE_ATTRIBUTE_NAME );
+                    /**
+                     * Spaces in column names are replaced with
+                     * underscore's
+                     */
+                    colElement = SQLUtils.escapeXmlAttr( columnName.replace( ' ', '_' ) );
+                }
 
-                        builder.startElement( new QName( PARAM_ELEMENT_NAME, SQLModule.NAMESPACE_URI, SQLModule.PREFIX ), null );
+                builder.startElement( new QName( colElement, SQLModule.NAMESPACE_URI, SQLModule.PREFIX ), null );
 
-                        builder.addAttribute( new QName( TYPE_ATTRIBUTE_NAME, SQLModule.NAMESPACE_URI, SQLModule.PREFIX ), type );
-                        builder.characters( value );
+                if(!makeNodeFromColumnName || columnName.length() <= 0) {
+                    String name;
 
-                        builder.endElement();
+                    if( columnName.length() > 0 ) {
+                        name = SQLUtils.escapeXmlAttr( columnName );
+                    } else {
+                        name = "Column: " + String.valueOf( i + 1 );
                     }
 
-                    builder.endElement();
+                    builder.addAttribute( new QName( "name", null, null ), name );
+                }
+
+                builder.addAttribute( new QName( TYPE_ATTRIBUTE_NAME, SQLModule.NAMESPACE_URI, SQLModule.PREFIX ), rsmd.getColumnTypeName( i + 1 ) );
+                builder.addAttribute( new QName( TYPE_ATTRIBUTE_NAME, Namespaces.SCHEMA_NS, "xs" ), Type.getTypeName( SQLUtils.sqlTypeToXMLType( rsmd.getColumnType( i + 1 ) ) ) );
+
+                //get the content
+                if(rsmd.getColumnType(i+1) == Types.SQLXML) {
+                    //parse sqlxml value
+                    try {
+                        final SQLXML sqlXml = rs.getSQLXML(i+1);
+                        
+                        if(rs.wasNull()) {
+                            // Add a null indicator attribute if the value was SQL Null
+                            builder.addAttribute( new QName( "null", SQLModule.NAMESPACE_URI, SQLModule.PREFIX ), "true" );
+                        } else {
+
+                            SAXParserFactory factory = SAXParserFactory.newInstance();
+                            factory.setNamespaceAware(true);
+                            InputSource src = new InputSource(sqlXml.getCharacterStream());
+                            SAXParser parser = factory.newSAXParser();
+                            XMLReader xr = parser.getXMLReader();
+
+                            SAXAdapter adapter = new AppendingSAXAdapter(builder);
+                            xr.setContentHandler(adapter);
+                            xr.setProperty(Namespaces.SAX_LEXICAL_HANDLER, adapter);
+                            xr.parse(src);
+                        }
+                    } catch(Exception e) {
+                        throw new XPathException("Could not parse column of type SQLXML: " + e.getMessage(), e);
+                    }
+                } else {
+                    //otherwise assume string value
+                    final String colValue = rs.getString(i + 1);
+                    
+                    if(rs.wasNull()) {
+                        // Add a null indicator attribute if the value was SQL Null
+                        builder.addAttribute( new QName( "null", SQLModule.NAMESPACE_URI, SQLModule.PREFIX ), "true" );
+                    } else {
+                        if(colValue != null) {
+                            builder.characters( colValue );
+                        }
+                    }
                 }
+
+                builder.endElement();
             }
+        }
 
-            builder.startElement( new QName( "xquery", SQLModule.NAMESPACE_URI, SQLModule.PREFIX ), null );
-            builder.addAttribute( new QName( "line", null, null ), String.valueOf( getLine() ) );
-            builder.addAttribute( new QName( "column", null, null ), String.valueOf( getColumn() ) );
-            builder.endElement();
+        builder.endElement();
+    }
 
-            builder.endElement();
-            builder.endDocument();
+    /**
+     * Builds a sql:exception element describing a SQLException.
+     *
+     * @param  builder            The builder to build the element with
+     * @param  sqle               The exception
+     * @param  sql                The SQL statement which caused the exception
+     * @param  parametersElement  The parameters of a prepared statement, or null
+     * @param  line               The line of the calling expression
+     * @param  column             The column of the calling expression
+     *
+     * @return  The sql:exception element
+     */
+    static NodeValue exceptionToXML( MemTreeBuilder builder, SQLException sqle, String sql, Element parametersElement, int line, int column )
+    {
+        builder.startDocument();
+        builder.startElement( new QName( "exception", SQLModule.NAMESPACE_URI, SQLModule.PREFIX ), null );
+
+        boolean recoverable = false;
 
-            return( (NodeValue)builder.getDocument().getDocumentElement() );
+        if( sqle instanceof SQLRecoverableException ) {
+            recoverable = true;
         }
-        finally {
+        builder.addAttribute( new QName( "recoverable", null, null ), String.valueOf( recoverable ) );
 
-            // close any record set or statement
-            if( rs != null ) {
 
-                try {
-                    rs.close();
-                }
-                catch( SQLException se ) {
-                    LOG.warn( "Unable to cleanup JDBC results", se );
-                }
-                rs   = null;
-            }
+        builder.startElement( new QName( "state", SQLModule.NAMESPACE_URI, SQLModule.PREFIX ), null );
+        builder.characters( sqle.getSQLState() );
+        builder.endElement();
 
-            if(!preparedStmt && stmt != null ) {
+        builder.startElement( new QName( "message", SQLModule.NAMESPACE_URI, SQLModule.PREFIX ), null );
+        
+        String state = sqle.getMessage();
+        
+        if( state != null ) {
+        	builder.characters( state );
+        }
+        
+        builder.endElement();
 
-                try {
-                    stmt.close();
-                }
-                catch( SQLException se ) {
-                    LOG.warn( "Unable to cleanup JDBC results", se );
+        builder.startElement( new QName( "stack-trace", SQLModule.NAMESPACE_URI, SQLModule.PREFIX ), null );
+        ByteArrayOutputStream bufStackTrace = new ByteArrayOutputStream();
+        sqle.printStackTrace( new PrintStream( bufStackTrace ) );
+        builder.characters( new String( bufStackTrace.toByteArray() ) );
+        builder.endElement();
+
+        builder.startElement( new QName( "sql", SQLModule.NAMESPACE_URI, SQLModule.PREFIX ), null );
+        builder.characters( sql );
+        builder.endElement();
+
+        if( parametersElement != null ) {
+
+            if( parametersElement.getNamespaceURI().equals( SQLModule.NAMESPACE_URI ) && parametersElement.getLocalName().equals( PARAMETERS_ELEMENT_NAME ) ) {
+                NodeList paramElements = parametersElement.getElementsByTagNameNS( SQLModule.NAMESPACE_URI, PARAM_ELEMENT_NAME );
+
+                builder.startElement( new QName( PARAMETERS_ELEMENT_NAME, SQLModule.NAMESPACE_URI, SQLModule.PREFIX ), null );
+
+                for( int i = 0; i < paramElements.getLength(); i++ ) {
+                    Element param = ( (Element)paramElements.item( i ) );
+                    String  value = param.getFirstChild().getNodeValue();
+                    String  type  = param.getAttributeNS( SQLModule.NAMESPACE_URI, TYPE_ATTRIBUTE_NAME );
+
+                    builder.startElement( new QName( PARAM_ELEMENT_NAME, SQLModule.NAMESPACE_URI, SQLModule.PREFIX ), null );
+
+                    builder.addAttribute( new QName( TYPE_ATTRIBUTE_NAME, SQLModule.NAMESPACE_URI, SQLModule.PREFIX ), type );
+                    builder.characters( value );
+
+                    builder.endElement();
                 }
-                stmt = null;
+
+                builder.endElement();
             }
-            
         }
+
+        builder.startElement( new QName( "xquery", SQLModule.NAMESPACE_URI, SQLModule.PREFIX ), null );
+        builder.addAttribute( new QName( "line", null, null ), String.valueOf( line ) );
+        builder.addAttribute( new QName( "column", null, null ), String.valueOf( column ) );
+        builder.endElement();
+
+        builder.endElement();
+        builder.endDocument();
+
+        return( (NodeValue)builder.getDocument().getDocumentElement() );
     }
-    
-    private void setParametersOnPreparedStatement( Statement stmt, Element parametersElement ) throws SQLException, XPathException
+
+    static void setParametersOnPreparedStatement( Statement stmt, Element parametersElement ) throws SQLException, XPathException
     {
         if (parametersElement.getNamespaceURI().equals(SQLModule.NAMESPACE_URI) && parametersElement.getLocalName().equals(PARAMETERS_ELEMENT_NAME)) {
             NodeList paramElements = parametersElement.getElementsByTagNameNS(SQLModule.NAMESPACE_URI, PARAM_ELEMENT_NAME);
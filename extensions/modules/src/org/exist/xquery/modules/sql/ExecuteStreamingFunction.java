@@ -0,0 +1,172 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2015 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.xquery.modules.sql;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.exist.dom.QName;
+import org.exist.dom.memtree.MemTreeBuilder;
+import org.exist.xquery.BasicFunction;
+import org.exist.xquery.Cardinality;
+import org.exist.xquery.ErrorCodes;
+import org.exist.xquery.FunctionSignature;
+import org.exist.xquery.XPathException;
+import org.exist.xquery.XQueryContext;
+import org.exist.xquery.value.BooleanValue;
+import org.exist.xquery.value.FunctionParameterSequenceType;
+import org.exist.xquery.value.FunctionReturnSequenceType;
+import org.exist.xquery.value.IntegerValue;
+import org.exist.xquery.value.NodeValue;
+import org.exist.xquery.value.Sequence;
+import org.exist.xquery.value.SequenceType;
+import org.exist.xquery.value.Type;
+import org.w3c.dom.Element;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Executes a SQL statement and returns the rows of its result as a sequence of sql:row
+ * elements, which are read from the database while the sequence is iterated rather than
+ * being built into one sql:result document up front.
+ *
+ * @see ResultSetSequence
+ */
+public class ExecuteStreamingFunction extends BasicFunction {
+
+    private static final Logger LOG = LogManager.getLogger(ExecuteStreamingFunction.class);
+
+    private static final String MAKE_NODE_DESCRIPTION = "The flag that indicates whether the xml nodes should be formed from the column names (in this mode a space in a Column Name will be replaced by an underscore!)";
+    private static final String FETCH_SIZE_DESCRIPTION = "The number of rows the JDBC driver should fetch from the database at a time, or 0 to use the default of the driver";
+
+    public final static FunctionSignature[] signatures = {
+        new FunctionSignature(
+            new QName("execute-streaming", SQLModule.NAMESPACE_URI, SQLModule.PREFIX),
+            "Executes a SQL statement against a SQL db using the connection indicated by the connection handle. "
+                + "Unlike sql:execute, the rows are returned as a sequence of sql:row elements which are read from "
+                + "the database as they are needed, so a query which uses only the first rows does not read the whole result. "
+                + "The result set is closed when the query finishes, so the rows must be used by the query itself. "
+                + "A statement which performs updates returns a single sql:result element with an updateCount attribute.",
+            new SequenceType[] {
+                new FunctionParameterSequenceType("connection-handle", Type.LONG, Cardinality.EXACTLY_ONE, "The connection handle"),
+                new FunctionParameterSequenceType("sql-statement", Type.STRING, Cardinality.EXACTLY_ONE, "The SQL statement"),
+                new FunctionParameterSequenceType("make-node-from-column-name", Type.BOOLEAN, Cardinality.EXACTLY_ONE, MAKE_NODE_DESCRIPTION),
+                new FunctionParameterSequenceType("fetch-size", Type.INTEGER, Cardinality.EXACTLY_ONE, FETCH_SIZE_DESCRIPTION)
+            },
+            new FunctionReturnSequenceType(Type.ELEMENT, Cardinality.ZERO_OR_MORE, "the rows of the result")
+        ),
+        new FunctionSignature(
+            new QName("execute-streaming", SQLModule.NAMESPACE_URI, SQLModule.PREFIX),
+            "Executes a prepared SQL statement against a SQL db. The rows are returned as a sequence of sql:row "
+                + "elements which are read from the database as they are needed. The result set is closed when the query finishes.",
+            new SequenceType[] {
+                new FunctionParameterSequenceType("connection-handle", Type.LONG, Cardinality.EXACTLY_ONE, "The connection handle"),
+                new FunctionParameterSequenceType("statement-handle", Type.INTEGER, Cardinality.EXACTLY_ONE, "The prepared statement handle"),
+                new FunctionParameterSequenceType("parameters", Type.ELEMENT, Cardinality.ZERO_OR_ONE, "Parameters for the prepared statement. e.g. <sql:parameters><sql:param sql:type=\"varchar\">value</sql:param></sql:parameters>"),
+                new FunctionParameterSequenceType("make-node-from-column-name", Type.BOOLEAN, Cardinality.EXACTLY_ONE, MAKE_NODE_DESCRIPTION),
+                new FunctionParameterSequenceType("fetch-size", Type.INTEGER, Cardinality.EXACTLY_ONE, FETCH_SIZE_DESCRIPTION)
+            },
+            new FunctionReturnSequenceType(Type.ELEMENT, Cardinality.ZERO_OR_MORE, "the rows of the result")
+        )
+    };
+
+    public ExecuteStreamingFunction(final XQueryContext context, final FunctionSignature signature) {
+        super(context, signature);
+    }
+
+    @Override
+    public Sequence eval(final Sequence[] args, final Sequence contextSequence) throws XPathException {
+        if (args[0].isEmpty()) {
+            return Sequence.EMPTY_SEQUENCE;
+        }
+
+        final long connectionUID = ((IntegerValue) args[0].itemAt(0)).getLong();
+        final Connection con = SQLModule.retrieveConnection(context, connectionUID);
+        if (con == null) {
+            return Sequence.EMPTY_SEQUENCE;
+        }
+
+        final boolean prepared = args.length == 5;
+        final boolean makeNodeFromColumnName = ((BooleanValue) args[args.length - 2].itemAt(0)).effectiveBooleanValue();
+        final int fetchSize = ((IntegerValue) args[args.length - 1].itemAt(0)).getInt();
+        if (fetchSize < 0) {
+            throw new XPathException(this, ErrorCodes.ERROR, "The fetch size must not be negative: " + fetchSize);
+        }
+
+        String sql = null;
+        Statement stmt = null;
+        Element parametersElement = null;
+        boolean resultOpen = false;
+        try {
+            final boolean executeResult;
+            if (prepared) {
+                final long statementUID = ((IntegerValue) args[1].itemAt(0)).getLong();
+                final PreparedStatementWithSQL stmtWithSQL = SQLModule.retrievePreparedStatement(context, statementUID);
+                if (stmtWithSQL == null) {
+                    throw new XPathException(this, ErrorCodes.ERROR, "No prepared statement with the handle " + statementUID);
+                }
+                sql = stmtWithSQL.getSql();
+                stmt = stmtWithSQL.getStmt();
+                if (!args[2].isEmpty()) {
+                    parametersElement = (Element) args[2].itemAt(0);
+                    ExecuteFunction.setParametersOnPreparedStatement(stmt, parametersElement);
+                }
+                stmt.setFetchSize(fetchSize);
+                executeResult = ((PreparedStatement) stmt).execute();
+            } else {
+                sql = args[1].getStringValue();
+                stmt = con.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+                stmt.setFetchSize(fetchSize);
+                executeResult = stmt.execute(sql);
+            }
+
+            if (!executeResult) {
+                final MemTreeBuilder builder = new MemTreeBuilder(context);
+                builder.startDocument();
+                builder.startElement(new QName("result", SQLModule.NAMESPACE_URI, SQLModule.PREFIX), null);
+                builder.addAttribute(new QName("updateCount", null, null), String.valueOf(stmt.getUpdateCount()));
+                builder.endElement();
+                builder.endDocument();
+                return (NodeValue) builder.getDocument().getDocumentElement();
+            }
+
+            final ResultSetSequence rows = new ResultSetSequence(context, stmt, !prepared, makeNodeFromColumnName,
+                    sql, parametersElement, getLine(), getColumn());
+            SQLModule.storeStreamedResult(context, rows);
+            resultOpen = true;
+            return rows;
+
+        } catch (final SQLException sqle) {
+            LOG.error("sql:execute-streaming() Caught SQLException \"" + sqle.getMessage() + "\" for SQL: \"" + sql + "\"", sqle);
+            return ExecuteFunction.exceptionToXML(new MemTreeBuilder(context), sqle, sql, parametersElement, getLine(), getColumn());
+        } finally {
+            if (!resultOpen && !prepared && stmt != null) {
+                try {
+                    stmt.close();
+                } catch (final SQLException se) {
+                    LOG.warn("Unable to cleanup JDBC results", se);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2015 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.xquery.modules.sql;
+
+import org.exist.dom.QName;
+import org.exist.xquery.BasicFunction;
+import org.exist.xquery.Cardinality;
+import org.exist.xquery.ErrorCodes;
+import org.exist.xquery.FunctionSignature;
+import org.exist.xquery.XPathException;
+import org.exist.xquery.XQueryContext;
+import org.exist.xquery.value.FunctionParameterSequenceType;
+import org.exist.xquery.value.FunctionReturnSequenceType;
+import org.exist.xquery.value.IntegerValue;
+import org.exist.xquery.value.Sequence;
+import org.exist.xquery.value.SequenceType;
+import org.exist.xquery.value.Type;
+
+import java.sql.SQLException;
+
+/**
+ * Borrows a connection from one of the connection pools configured for the SQL module.
+ *
+ * @see SQLConnectionPool
+ */
+public class GetPooledConnectionFunction extends BasicFunction {
+
+    public final static FunctionSignature[] signatures = {
+        new FunctionSignature(
+            new QName("get-pooled-connection", SQLModule.NAMESPACE_URI, SQLModule.PREFIX),
+            "Borrows a connection from a connection pool configured in conf.xml. The connection is returned "
+                + "to the pool when the query finishes.",
+            new SequenceType[] {
+                new FunctionParameterSequenceType("pool-name", Type.STRING, Cardinality.EXACTLY_ONE, "The name of the connection pool")
+            },
+            new FunctionReturnSequenceType(Type.LONG, Cardinality.ZERO_OR_ONE, "an xs:long representing the connection handle"))
+    };
+
+    public GetPooledConnectionFunction(final XQueryContext context, final FunctionSignature signature) {
+        super(context, signature);
+    }
+
+    @Override
+    public Sequence eval(final Sequence[] args, final Sequence contextSequence) throws XPathException {
+        if (args[0].isEmpty()) {
+            return Sequence.EMPTY_SEQUENCE;
+        }
+
+        final String poolName = args[0].getStringValue();
+        final SQLConnectionPool pool = SQLConnectionPool.get(poolName);
+        if (pool == null) {
+            throw new XPathException(this, ErrorCodes.ERROR, "No SQL connection pool named '" + poolName + "' is configured");
+        }
+
+        try {
+            return new IntegerValue(SQLModule.storeConnection(context, pool.getConnection()));
+        } catch (final SQLException e) {
+            throw new XPathException(this, e.getMessage(), e);
+        }
+    }
+}
@@ -0,0 +1,267 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2015 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.xquery.modules.sql;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.exist.dom.memtree.MemTreeBuilder;
+import org.exist.dom.persistent.NodeSet;
+import org.exist.xquery.ErrorCodes;
+import org.exist.xquery.XPathException;
+import org.exist.xquery.XQueryContext;
+import org.exist.xquery.value.AbstractSequence;
+import org.exist.xquery.value.Item;
+import org.exist.xquery.value.MemoryNodeSet;
+import org.exist.xquery.value.NodeValue;
+import org.exist.xquery.value.Sequence;
+import org.exist.xquery.value.SequenceIterator;
+import org.exist.xquery.value.Type;
+import org.exist.xquery.value.ValueSequence;
+import org.w3c.dom.Element;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A sequence of sql:row elements which are read from a JDBC result set as they are
+ * needed, so that a query which uses only the first rows of a large result does not
+ * read the whole result.
+ *
+ * Rows which have been read are retained, so the sequence can be used more than once:
+ * operations like {@link #getItemCount()} or a second {@link #iterate()} see the same
+ * rows as the first traversal. If reading a row fails, the sequence ends with a
+ * sql:exception element describing the error.
+ *
+ * The result set is closed when the last row has been read, or by {@link #close()}
+ * when the query finishes. Rows which have not been read by then are discarded, and
+ * iterating the sequence afterwards raises an error instead of returning a truncated result.
+ */
+class ResultSetSequence extends AbstractSequence {
+
+    private static final Logger LOG = LogManager.getLogger(ResultSetSequence.class);
+
+    private final XQueryContext context;
+    private final ResultSet rs;
+    private final ResultSetMetaData rsmd;
+    private final Statement stmt;
+    private final boolean closeStatement;
+    private final boolean makeNodeFromColumnName;
+    private final String sql;
+    private final Element parametersElement;
+    private final int line;
+    private final int column;
+
+    /** the rows which have been read so far */
+    private final List<Item> rows = new ArrayList<>();
+    /** true if all the rows of the result set have been read */
+    private boolean complete = false;
+    private boolean closed = false;
+
+    /**
+     * @param context the context of the calling query
+     * @param stmt the statement which produced the result set
+     * @param closeStatement true if the statement should be closed with the result set
+     * @param makeNodeFromColumnName whether the elements should be named after the columns
+     * @param sql the SQL of the statement, reported with errors
+     * @param parametersElement the parameters of a prepared statement, or null
+     * @param line the line of the calling expression
+     * @param column the column of the calling expression
+     */
+    ResultSetSequence(final XQueryContext context, final Statement stmt, final boolean closeStatement,
+            final boolean makeNodeFromColumnName, final String sql, final Element parametersElement,
+            final int line, final int column) throws SQLException {
+        this.context = context;
+        this.stmt = stmt;
+        this.closeStatement = closeStatement;
+        this.rs = stmt.getResultSet();
+        this.rsmd = rs.getMetaData();
+        this.makeNodeFromColumnName = makeNodeFromColumnName;
+        this.sql = sql;
+        this.parametersElement = parametersElement;
+        this.line = line;
+        this.column = column;
+    }
+
+    /**
+     * Reads the next row of the result set.
+     *
+     * @return the row, or null if there are no more rows
+     */
+    private Item readRow() {
+        try {
+            if (rs.next()) {
+                final MemTreeBuilder builder = new MemTreeBuilder(context);
+                builder.startDocument();
+                ExecuteFunction.addRow(builder, rs, rsmd, makeNodeFromColumnName);
+                builder.endDocument();
+                return (NodeValue) builder.getDocument().getDocumentElement();
+            }
+            complete = true;
+            close();
+            return null;
+        } catch (final SQLException | XPathException e) {
+            LOG.error("sql:execute-streaming() Caught exception \"" + e.getMessage() + "\" for SQL: \"" + sql + "\"", e);
+            complete = true;
+            close();
+            final SQLException sqle = e instanceof SQLException ? (SQLException) e : new SQLException(e.getMessage(), e);
+            return ExecuteFunction.exceptionToXML(new MemTreeBuilder(context), sqle, sql, parametersElement, line, column);
+        }
+    }
+
+    /**
+     * Reads rows until at least the given number of rows has been read or the result set is closed.
+     */
+    private void fill(final int count) {
+        while (rows.size() < count && !closed) {
+            final Item row = readRow();
+            if (row != null) {
+                rows.add(row);
+            }
+        }
+    }
+
+    private void checkComplete() throws XPathException {
+        if (closed && !complete) {
+            throw new XPathException(line, column, ErrorCodes.ERROR,
+                    "The result of sql:execute-streaming() was closed before all of its rows were read; " +
+                    "it can only be used while the query which executed it is running");
+        }
+    }
+
+    /**
+     * Closes the result set, and the statement if it is not a prepared statement of the query.
+     * Rows which have not been read yet are discarded.
+     */
+    void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            rs.close();
+        } catch (final SQLException e) {
+            LOG.warn("Unable to cleanup JDBC results", e);
+        }
+        if (closeStatement) {
+            try {
+                stmt.close();
+            } catch (final SQLException e) {
+                LOG.warn("Unable to cleanup JDBC results", e);
+            }
+        }
+    }
+
+    @Override
+    public SequenceIterator iterate() throws XPathException {
+        checkComplete();
+        return new SequenceIterator() {
+            private int position = 0;
+
+            @Override
+            public boolean hasNext() {
+                fill(position + 1);
+                return position < rows.size();
+            }
+
+            @Override
+            public Item nextItem() {
+                return hasNext() ? rows.get(position++) : null;
+            }
+        };
+    }
+
+    @Override
+    public SequenceIterator unorderedIterator() throws XPathException {
+        return iterate();
+    }
+
+    @Override
+    public int getItemType() {
+        return Type.ELEMENT;
+    }
+
+    @Override
+    public int getItemCount() {
+        fill(Integer.MAX_VALUE);
+        return rows.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        fill(1);
+        return rows.isEmpty();
+    }
+
+    @Override
+    public boolean hasOne() {
+        fill(2);
+        return rows.size() == 1;
+    }
+
+    @Override
+    public boolean hasMany() {
+        fill(2);
+        return rows.size() > 1;
+    }
+
+    @Override
+    public Item itemAt(final int pos) {
+        fill(pos + 1);
+        return pos < rows.size() ? rows.get(pos) : null;
+    }
+
+    @Override
+    public void add(final Item item) throws XPathException {
+        throw new XPathException("Internal error: adding to an immutable sequence");
+    }
+
+    @Override
+    public void addAll(final Sequence other) throws XPathException {
+        throw new XPathException("Internal error: adding to an immutable sequence");
+    }
+
+    @Override
+    public NodeSet toNodeSet() throws XPathException {
+        return toValueSequence().toNodeSet();
+    }
+
+    @Override
+    public MemoryNodeSet toMemNodeSet() throws XPathException {
+        return toValueSequence().toMemNodeSet();
+    }
+
+    private ValueSequence toValueSequence() throws XPathException {
+        fill(Integer.MAX_VALUE);
+        checkComplete();
+        final ValueSequence seq = new ValueSequence(rows.size());
+        for (final Item row : rows) {
+            seq.add(row);
+        }
+        return seq;
+    }
+
+    @Override
+    public void removeDuplicates() {
+    }
+}
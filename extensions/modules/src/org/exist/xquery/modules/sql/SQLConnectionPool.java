@@ -0,0 +1,323 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2015 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.xquery.modules.sql;
+
+import org.apache.commons.pool.BasePoolableObjectFactory;
+import org.apache.commons.pool.impl.GenericObjectPool;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A named pool of JDBC connections, configured by a parameter of the SQL module in conf.xml:
+ *
+ * <pre>
+ * &lt;module uri="http://exist-db.org/xquery/sql" class="org.exist.xquery.modules.sql.SQLModule"&gt;
+ *     &lt;parameter name="pools"&gt;
+ *         &lt;pool name="reports" driver="org.postgresql.Driver" url="jdbc:postgresql://localhost/reports"
+ *             user="reports" password="secret" max-size="10" validation-query="SELECT 1"/&gt;
+ *     &lt;/parameter&gt;
+ * &lt;/module&gt;
+ * </pre>
+ *
+ * Besides the connection details, a pool accepts the attributes max-size (the maximum number
+ * of open connections, default 8), max-wait (milliseconds to wait for a free connection, default
+ * 30000), validation-query (a statement used to check a connection before it is handed out; if
+ * not set, {@link Connection#isValid(int)} is used) and max-idle-time (seconds after which an idle
+ * connection is closed, default 600).
+ *
+ * Connections are obtained by sql:get-pooled-connection($name). Closing a pooled connection,
+ * which the module does when the query finishes, returns it to the pool.
+ */
+public class SQLConnectionPool {
+
+    private static final Logger LOG = LogManager.getLogger(SQLConnectionPool.class);
+
+    public static final String POOLS_PARAMETER = "pools";
+    public static final String POOL_ELEMENT = "pool";
+
+    public static final int DEFAULT_MAX_SIZE = 8;
+    public static final long DEFAULT_MAX_WAIT = 30000;
+    public static final long DEFAULT_MAX_IDLE_TIME = 600;
+
+    /** seconds allowed for validating a connection */
+    private static final int VALIDATION_TIMEOUT = 5;
+
+    private static final Map<String, SQLConnectionPool> pools = new ConcurrentHashMap<>();
+
+    private final String name;
+    private final Properties config;
+    private final GenericObjectPool<Connection> pool;
+
+    private SQLConnectionPool(final Properties config) {
+        this.name = config.getProperty("name");
+        this.config = config;
+        this.pool = new GenericObjectPool<>(new ConnectionFactory(config));
+
+        final int maxSize = getInt(config, "max-size", DEFAULT_MAX_SIZE);
+        final long maxIdleTime = getLong(config, "max-idle-time", DEFAULT_MAX_IDLE_TIME) * 1000;
+        pool.setMaxActive(maxSize);
+        pool.setMaxIdle(maxSize);
+        pool.setMaxWait(getLong(config, "max-wait", DEFAULT_MAX_WAIT));
+        pool.setWhenExhaustedAction(GenericObjectPool.WHEN_EXHAUSTED_BLOCK);
+        pool.setTestOnBorrow(true);
+        if (maxIdleTime > 0) {
+            pool.setMinEvictableIdleTimeMillis(maxIdleTime);
+            pool.setTimeBetweenEvictionRunsMillis(Math.max(1000, maxIdleTime / 4));
+        }
+    }
+
+    /**
+     * Creates the pools defined by the parameters of the module. A pool which already exists
+     * with the same configuration is kept, so its connections stay open.
+     *
+     * @param parameters the parameters of the module
+     */
+    @SuppressWarnings("unchecked")
+    static void configure(final Map<String, List<? extends Object>> parameters) {
+        final List<? extends Object> values = parameters.get(POOLS_PARAMETER);
+        if (values == null) {
+            return;
+        }
+        for (final Object value : values) {
+            if (!(value instanceof Map)) {
+                continue;
+            }
+            final List<Properties> poolConfigs = ((Map<String, List<Properties>>) value).get(POOL_ELEMENT);
+            if (poolConfigs == null) {
+                continue;
+            }
+            for (final Properties poolConfig : poolConfigs) {
+                final String name = poolConfig.getProperty("name");
+                if (name == null || poolConfig.getProperty("url") == null) {
+                    LOG.error("SQL connection pool requires the attributes name and url: " + poolConfig);
+                    continue;
+                }
+                pools.compute(name, (key, existing) -> {
+                    if (existing != null) {
+                        if (existing.config.equals(poolConfig)) {
+                            return existing;
+                        }
+                        existing.close();
+                    }
+                    LOG.info("Configured SQL connection pool '" + name + "' for " + poolConfig.getProperty("url"));
+                    return new SQLConnectionPool(poolConfig);
+                });
+            }
+        }
+    }
+
+    /**
+     * @param name the name of the pool
+     * @return the pool, or null if no pool of that name is configured
+     */
+    public static SQLConnectionPool get(final String name) {
+        return pools.get(name);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Borrows a connection from the pool, waiting for one to become available
+     * if the maximum number of connections is in use.
+     *
+     * @return a connection which is returned to the pool when it is closed
+     * @throws SQLException if no connection could be obtained
+     */
+    public Connection getConnection() throws SQLException {
+        final Connection connection;
+        try {
+            connection = pool.borrowObject();
+        } catch (final SQLException e) {
+            throw e;
+        } catch (final Exception e) {
+            throw new SQLException("Unable to get a connection from pool '" + name + "': " + e.getMessage(), e);
+        }
+        return (Connection) Proxy.newProxyInstance(SQLConnectionPool.class.getClassLoader(),
+                new Class<?>[] { Connection.class }, new PooledConnectionHandler(connection));
+    }
+
+    public int getNumActive() {
+        return pool.getNumActive();
+    }
+
+    public int getNumIdle() {
+        return pool.getNumIdle();
+    }
+
+    private void close() {
+        try {
+            pool.close();
+        } catch (final Exception e) {
+            LOG.warn("Unable to close SQL connection pool '" + name + "': " + e.getMessage(), e);
+        }
+    }
+
+    private void release(final Connection connection) {
+        try {
+            if (connection.isClosed()) {
+                pool.invalidateObject(connection);
+            } else {
+                pool.returnObject(connection);
+            }
+        } catch (final Exception e) {
+            LOG.warn("Unable to return connection to pool '" + name + "': " + e.getMessage(), e);
+        }
+    }
+
+    private static int getInt(final Properties config, final String key, final int defaultValue) {
+        return (int) getLong(config, key, defaultValue);
+    }
+
+    private static long getLong(final Properties config, final String key, final long defaultValue) {
+        final String value = config.getProperty(key);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (final NumberFormatException e) {
+            LOG.warn("Invalid value for " + key + " of SQL connection pool '" + config.getProperty("name") + "': " + value);
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Opens, validates and closes the physical connections of a pool.
+     */
+    private static class ConnectionFactory extends BasePoolableObjectFactory<Connection> {
+        private final String driver;
+        private final String url;
+        private final Properties connectionProperties = new Properties();
+        private final String validationQuery;
+        private boolean driverLoaded = false;
+
+        private ConnectionFactory(final Properties config) {
+            this.driver = config.getProperty("driver");
+            this.url = config.getProperty("url");
+            this.validationQuery = config.getProperty("validation-query");
+            if (config.getProperty("user") != null) {
+                connectionProperties.setProperty("user", config.getProperty("user"));
+            }
+            if (config.getProperty("password") != null) {
+                connectionProperties.setProperty("password", config.getProperty("password"));
+            }
+        }
+
+        @Override
+        public Connection makeObject() throws Exception {
+            if (driver != null && !driverLoaded) {
+                Class.forName(driver);
+                driverLoaded = true;
+            }
+            return DriverManager.getConnection(url, connectionProperties);
+        }
+
+        @Override
+        public void destroyObject(final Connection connection) throws Exception {
+            connection.close();
+        }
+
+        @Override
+        public boolean validateObject(final Connection connection) {
+            try {
+                if (connection.isClosed()) {
+                    return false;
+                }
+                if (validationQuery != null) {
+                    try (final Statement stmt = connection.createStatement()) {
+                        stmt.setQueryTimeout(VALIDATION_TIMEOUT);
+                        stmt.execute(validationQuery);
+                    }
+                    return true;
+                }
+                return connection.isValid(VALIDATION_TIMEOUT);
+            } catch (final SQLException | AbstractMethodError e) {
+                // AbstractMethodError: the driver does not implement JDBC 4
+                return false;
+            }
+        }
+
+        @Override
+        public void passivateObject(final Connection connection) throws Exception {
+            // do not leak an open transaction or settings to the next user
+            if (!connection.getAutoCommit()) {
+                connection.rollback();
+                connection.setAutoCommit(true);
+            }
+            connection.clearWarnings();
+        }
+    }
+
+    /**
+     * Returns the connection to the pool when it is closed.
+     */
+    private class PooledConnectionHandler implements InvocationHandler {
+        private final Connection connection;
+        private boolean closed = false;
+
+        private PooledConnectionHandler(final Connection connection) {
+            this.connection = connection;
+        }
+
+        @Override
+        public synchronized Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    if (!closed) {
+                        closed = true;
+                        release(connection);
+                    }
+                    return null;
+                case "isClosed":
+                    return closed || connection.isClosed();
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "Pooled connection from '" + name + "': " + connection;
+                default:
+                    if (closed) {
+                        throw new SQLException("Connection has been returned to pool '" + name + "'");
+                    }
+                    try {
+                        return method.invoke(connection, args);
+                    } catch (final InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+            }
+        }
+    }
+}
@@ -64,14 +64,19 @@ public class SQLModule extends AbstractInternalModule {
         new FunctionDef(GetJNDIConnectionFunction.signatures[1], GetJNDIConnectionFunction.class),
         new FunctionDef(ExecuteFunction.signatures[0], ExecuteFunction.class),
         new FunctionDef(ExecuteFunction.signatures[1], ExecuteFunction.class),
-        new FunctionDef(PrepareFunction.signatures[0], PrepareFunction.class)
+        new FunctionDef(PrepareFunction.signatures[0], PrepareFunction.class),
+        new FunctionDef(GetPooledConnectionFunction.signatures[0], GetPooledConnectionFunction.class),
+        new FunctionDef(ExecuteStreamingFunction.signatures[0], ExecuteStreamingFunction.class),
+        new FunctionDef(ExecuteStreamingFunction.signatures[1], ExecuteStreamingFunction.class)
     };
     private static final long currentUID = System.currentTimeMillis();
     public final static String CONNECTIONS_CONTEXTVAR = "_eXist_sql_connections";
     public final static String PREPARED_STATEMENTS_CONTEXTVAR = "_eXist_sql_prepared_statements";
+    public final static String STREAMED_RESULTS_CONTEXTVAR = "_eXist_sql_streamed_results";
 
     public SQLModule(Map<String, List<? extends Object>> parameters) {
         super(functions, parameters);
+        SQLConnectionPool.configure(parameters);
     }
 
     @Override
@@ -142,6 +147,18 @@ public class SQLModule extends AbstractInternalModule {
         return ModuleUtils.storeObjectInContextMap(context, SQLModule.PREPARED_STATEMENTS_CONTEXTVAR, stmt);
     }
 
+    /**
+     * Stores the result of sql:execute-streaming in the Context of an XQuery, so that it is closed when the query finishes.
+     *
+     * @param   context  The Context of the XQuery to store the result in
+     * @param   result   The streamed result
+     *
+     * @return  A unique ID representing the result
+     */
+    static synchronized long storeStreamedResult(XQueryContext context, ResultSetSequence result) {
+        return ModuleUtils.storeObjectInContextMap(context, SQLModule.STREAMED_RESULTS_CONTEXTVAR, result);
+    }
+
     /**
      * Resets the Module Context and closes any DB connections for the XQueryContext.
      *
@@ -152,6 +169,9 @@ public class SQLModule extends AbstractInternalModule {
         // reset the module context
         super.reset(xqueryContext);
 
+        // close any results which are still being streamed
+        closeAllStreamedResults(xqueryContext);
+
         // close any open PreparedStatements
         closeAllPreparedStatements(xqueryContext);
 
@@ -191,6 +211,30 @@ public class SQLModule extends AbstractInternalModule {
         //ModuleUtils.storeContextMap(xqueryContext, SQLModule.CONNECTIONS_CONTEXTVAR, connections);
     }
 
+    /**
+     * Closes the result sets of all the streamed results for the specified XQueryContext.
+     *
+     * @param  xqueryContext  The context to close streamed results for
+     */
+    private static void closeAllStreamedResults(XQueryContext xqueryContext) {
+        ModuleUtils.modifyContextMap(xqueryContext, SQLModule.STREAMED_RESULTS_CONTEXTVAR, new ContextMapEntryModifier<ResultSetSequence>(){
+
+            @Override
+            public void modify(Map<Long, ResultSetSequence> map) {
+                super.modify(map);
+
+                //empty the map
+                map.clear();
+            }
+
+            @Override
+            public void modify(Entry<Long, ResultSetSequence> entry) {
+                // rows which have not been read are discarded rather than read only to be thrown away
+                entry.getValue().close();
+            }
+        });
+    }
+
     /**
      * Closes all the open DB PreparedStatements for the specified XQueryContext.
      *
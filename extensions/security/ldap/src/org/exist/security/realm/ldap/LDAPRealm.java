@@ -29,6 +29,10 @@ import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import javax.naming.NamingEnumeration;
 import javax.naming.NamingException;
 import javax.naming.directory.Attribute;
@@ -79,6 +83,14 @@ public class LDAPRealm extends AbstractRealm {
     @ConfigurationFieldAsElement("context")
     protected LdapContextFactory ldapContextFactory;
 
+    /** maximum number of background refreshes of cached searches waiting to be run */
+    private static final int MAX_QUEUED_REFRESHES = 1000;
+
+    private ExecutorService searchRefreshExecutor = null;
+    private volatile LDAPSearchCache<SearchResult> accountSearchCache = null;
+    private volatile LDAPSearchCache<String> primaryGroupSearchCache = null;
+    private volatile LDAPSearchCache<List<String>> groupMembershipSearchCache = null;
+
     public LDAPRealm(SecurityManagerImpl sm, Configuration config) {
         super(sm, config);
     }
@@ -107,6 +119,47 @@ public class LDAPRealm extends AbstractRealm {
         super.start(broker);
     }
 
+    @Override
+    public void stop(final DBBroker broker) throws EXistException {
+        synchronized(this) {
+            //cached searches are no longer refreshed in the background
+            if(searchRefreshExecutor != null) {
+                searchRefreshExecutor.shutdownNow();
+            }
+        }
+        super.stop(broker);
+    }
+
+    /**
+     * Creates the caches of the searches for accounts, primary groups and group memberships,
+     * which avoid repeating the same searches against the directory server, e.g. when many
+     * users log in at the same time. If default search credentials are configured, entries
+     * which are about to expire are refreshed in the background using pooled connections.
+     */
+    private synchronized void ensureSearchCaches() {
+        if(groupMembershipSearchCache != null) {
+            return;
+        }
+
+        final LdapContextFactory ctxFactory = ensureContextFactory();
+        final long ttl = TimeUnit.SECONDS.toMillis(ctxFactory.getCacheTtl());
+        final int size = ctxFactory.getCacheSize();
+
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(MAX_QUEUED_REFRESHES), runnable -> {
+                    final Thread thread = new Thread(runnable, "ldap-search-refresh");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        executor.allowCoreThreadTimeOut(true);
+        searchRefreshExecutor = executor;
+
+        final LDAPSearchCache.ContextSupplier refreshContext = ctxFactory.hasSearchCredentials() ? ctxFactory::getSearchLdapContext : null;
+        accountSearchCache = new LDAPSearchCache<>("account", size, ttl, this::searchAccountByAccountName, executor, refreshContext);
+        primaryGroupSearchCache = new LDAPSearchCache<>("primary group", size, ttl, this::searchGroupBySID, executor, refreshContext);
+        groupMembershipSearchCache = new LDAPSearchCache<>("group membership", size, ttl, this::searchGroupnamesForUserDistinguishedName, executor, refreshContext);
+    }
+
     private String ensureCase(final String username) {
     	if(username == null){
             return null;
@@ -158,9 +211,7 @@ public class LDAPRealm extends AbstractRealm {
         
         final List<Group> memberOf_groups = new ArrayList<>();
         
-        final LDAPSearchContext search = ensureContextFactory().getSearch();
-        final String userDistinguishedName = (String)ldapUser.getAttributes().get(search.getSearchAccount().getSearchAttribute(LDAPSearchAttributeKey.DN)).get();
-        final List<String> memberOf_groupNames = findGroupnamesForUserDistinguishedName(ctx, userDistinguishedName);
+        final List<String> memberOf_groupNames = findGroupnamesForUserDistinguishedName(ctx, getUserDistinguishedName(ldapUser));
         for(final String memberOf_groupName : memberOf_groupNames) {
             memberOf_groups.add(getGroup(ctx, broker, memberOf_groupName));
         }
@@ -181,6 +232,11 @@ public class LDAPRealm extends AbstractRealm {
         return memberOf_groups;
     }
     
+    private String getUserDistinguishedName(final SearchResult ldapUser) throws NamingException {
+        final LDAPSearchContext search = ensureContextFactory().getSearch();
+        return (String)ldapUser.getAttributes().get(search.getSearchAccount().getSearchAttribute(LDAPSearchAttributeKey.DN)).get();
+    }
+
     private List<SimpleEntry<AXSchemaType, String>> getMetadataForLdapUser(final SearchResult ldapUser) throws NamingException {
         
         final List<SimpleEntry<AXSchemaType, String>> metadata = new ArrayList<SimpleEntry<AXSchemaType, String>>();
@@ -218,10 +274,17 @@ public class LDAPRealm extends AbstractRealm {
         
         try {
             final LdapContext ctx = getContext(invokingUser);
+
+            //an explicit refresh must not use cached search results
+            ensureSearchCaches();
+            accountSearchCache.remove(account.getName());
+
             final SearchResult ldapUser = findAccountByAccountName(ctx, account.getName());
             if(ldapUser == null) {
                 throw new AuthenticationException(AuthenticationException.ACCOUNT_NOT_FOUND, "Could not find the account in the LDAP");
             }
+            groupMembershipSearchCache.remove(getUserDistinguishedName(ldapUser));
+            primaryGroupSearchCache.remove(getPrimaryGroupSID(ldapUser));
         
             return executeAsSystemUser(ctx, new Unit<Account>(){
                 @Override
@@ -434,8 +497,7 @@ public class LDAPRealm extends AbstractRealm {
             ctx = ctxFactory.getLdapContext(invokingUser.getUsername(), ((AuthenticatedLdapSubjectAccreditedImpl) invokingUser).getAuthenticatedCredentials(), null);
         } else {
             //use the default credentials for lookup
-            LDAPSearchContext searchCtx = ctxFactory.getSearch();
-            ctx = ctxFactory.getLdapContext(searchCtx.getDefaultUsername(), searchCtx.getDefaultPassword(), null);
+            ctx = ctxFactory.getSearchLdapContext();
         }
         return ctx;
     }
@@ -714,12 +776,17 @@ public class LDAPRealm extends AbstractRealm {
         return true;
     }
     
-    private SearchResult findAccountByAccountName(final DirContext ctx, final String accountName) throws NamingException {
+    private SearchResult findAccountByAccountName(final LdapContext ctx, final String accountName) throws NamingException {
 
         if(!checkAccountRestrictionList(accountName)) {
             return null;
         }
-        
+
+        ensureSearchCaches();
+        return accountSearchCache.get(ctx, accountName);
+    }
+
+    private SearchResult searchAccountByAccountName(final DirContext ctx, final String accountName) throws NamingException {
         final String userName = removeDomainPostfix(accountName);
 
         final LDAPSearchContext search = ensureContextFactory().getSearch();
@@ -744,7 +811,12 @@ public class LDAPRealm extends AbstractRealm {
         return searchResult;
     }
 
-    private String findGroupBySID(final DirContext ctx, final String sid) throws NamingException {
+    private String findGroupBySID(final LdapContext ctx, final String sid) throws NamingException {
+        ensureSearchCaches();
+        return primaryGroupSearchCache.get(ctx, sid);
+    }
+
+    private String searchGroupBySID(final DirContext ctx, final String sid) throws NamingException {
         
         final LDAPSearchContext search = ensureContextFactory().getSearch();
         final SearchAttribute sa = new SearchAttribute(search.getSearchGroup().getSearchAttribute(LDAPSearchAttributeKey.OBJECT_SID), sid);
@@ -1024,34 +1096,42 @@ public class LDAPRealm extends AbstractRealm {
     
     private List<String> findGroupnamesForUserDistinguishedName(final LdapContext ctx, final String userDistinguishedName) {
 
-        final List<String> groupnames = new ArrayList<String>();
-
         try {
-            final LDAPSearchContext search = ensureContextFactory().getSearch();
-            final SearchAttribute sa = new SearchAttribute(search.getSearchGroup().getSearchAttribute(LDAPSearchAttributeKey.MEMBER), userDistinguishedName);
-            final String searchFilter = buildSearchFilter(search.getSearchGroup().getSearchFilterPrefix(), sa);
-
-            final SearchControls searchControls = new SearchControls();
-            searchControls.setSearchScope(SearchControls.SUBTREE_SCOPE);
-            searchControls.setReturningAttributes(new String[] { search.getSearchGroup().getSearchAttribute(LDAPSearchAttributeKey.NAME) });
-
-
-            final NamingEnumeration<SearchResult> results = ctx.search(search.getAbsoluteBase(), searchFilter, searchControls);
-
-            while(results.hasMoreElements()) {
-                final SearchResult searchResult = (SearchResult) results.nextElement();
-                final String groupname = ensureCase(addDomainPostfix((String)searchResult.getAttributes().get(search.getSearchGroup().getSearchAttribute(LDAPSearchAttributeKey.NAME)).get()));
-                if(checkGroupRestrictionList(groupname)) {
-                    groupnames.add(groupname);
-                }
-            }
+            ensureSearchCaches();
+            final List<String> groupnames = groupMembershipSearchCache.get(ctx, userDistinguishedName);
+            return groupnames == null ? new ArrayList<>() : new ArrayList<>(groupnames);
         } catch(final NamingException ne) {
             LOG.error(new AuthenticationException(AuthenticationException.UNNOWN_EXCEPTION, ne.getMessage()));
+            return new ArrayList<>();
         } finally {
             if(ctx != null) {
                 LdapUtils.closeContext(ctx);
             }
         }
+    }
+
+    private List<String> searchGroupnamesForUserDistinguishedName(final DirContext ctx, final String userDistinguishedName) throws NamingException {
+
+        final List<String> groupnames = new ArrayList<String>();
+
+        final LDAPSearchContext search = ensureContextFactory().getSearch();
+        final SearchAttribute sa = new SearchAttribute(search.getSearchGroup().getSearchAttribute(LDAPSearchAttributeKey.MEMBER), userDistinguishedName);
+        final String searchFilter = buildSearchFilter(search.getSearchGroup().getSearchFilterPrefix(), sa);
+
+        final SearchControls searchControls = new SearchControls();
+        searchControls.setSearchScope(SearchControls.SUBTREE_SCOPE);
+        searchControls.setReturningAttributes(new String[] { search.getSearchGroup().getSearchAttribute(LDAPSearchAttributeKey.NAME) });
+
+
+        final NamingEnumeration<SearchResult> results = ctx.search(search.getAbsoluteBase(), searchFilter, searchControls);
+
+        while(results.hasMoreElements()) {
+            final SearchResult searchResult = (SearchResult) results.nextElement();
+            final String groupname = ensureCase(addDomainPostfix((String)searchResult.getAttributes().get(search.getSearchGroup().getSearchAttribute(LDAPSearchAttributeKey.NAME)).get()));
+            if(checkGroupRestrictionList(groupname)) {
+                groupnames.add(groupname);
+            }
+        }
 
         return groupnames;
     }
@@ -0,0 +1,203 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2015 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.security.realm.ldap;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import javax.naming.NamingException;
+import javax.naming.ldap.LdapContext;
+
+import net.jcip.annotations.GuardedBy;
+import net.jcip.annotations.ThreadSafe;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.exist.util.LRUMap;
+
+/**
+ * Caches the results of an LDAP search by a key, e.g. the groups of a user by
+ * the distinguished name of the user.
+ *
+ * An entry is valid for a fixed time. When an entry is used after three quarters
+ * of that time have passed, it is returned and a new search is started in the
+ * background, so frequently used entries are refreshed before they expire and
+ * the caller does not have to wait for the directory server. Searches which
+ * find nothing are not cached.
+ *
+ * @param <V> the type of the search result
+ */
+@ThreadSafe
+class LDAPSearchCache<V> {
+
+    private final static Logger LOG = LogManager.getLogger(LDAPSearchCache.class);
+
+    @FunctionalInterface
+    interface Search<V> {
+        V search(LdapContext ctx, String key) throws NamingException;
+    }
+
+    @FunctionalInterface
+    interface ContextSupplier {
+        LdapContext get() throws NamingException;
+    }
+
+    private final String name;
+    private final int maxSize;
+    private final long ttl;
+    private final Search<V> search;
+    private final Executor refreshExecutor;
+    private final ContextSupplier refreshContext;
+
+    @GuardedBy("this") private final LRUMap<String, Entry<V>> entries;
+
+    /**
+     * @param name the name of the cache, used for logging
+     * @param maxSize the maximum number of entries, 0 disables the cache
+     * @param ttl the time in milliseconds for which an entry is valid
+     * @param search performs the search for a key
+     * @param refreshExecutor runs the background refreshes
+     * @param refreshContext supplies the contexts for the background refreshes, or null
+     *                       if entries should not be refreshed in the background
+     */
+    LDAPSearchCache(final String name, final int maxSize, final long ttl, final Search<V> search,
+            final Executor refreshExecutor, final ContextSupplier refreshContext) {
+        this.name = name;
+        this.maxSize = maxSize;
+        this.ttl = ttl;
+        this.search = search;
+        this.refreshExecutor = refreshExecutor;
+        this.refreshContext = refreshContext;
+        this.entries = new LRUMap<>(64, maxSize);
+    }
+
+    boolean isEnabled() {
+        return maxSize > 0 && ttl > 0;
+    }
+
+    /**
+     * Returns the cached result for the key, or searches the directory using the given context.
+     *
+     * @param ctx the context to search with if the key is not cached
+     * @param key the key
+     * @return the result of the search, or null if nothing was found
+     * @throws NamingException if the search fails
+     */
+    V get(final LdapContext ctx, final String key) throws NamingException {
+        if (!isEnabled()) {
+            return search.search(ctx, key);
+        }
+
+        final long now = System.currentTimeMillis();
+        V cached = null;
+        boolean refresh = false;
+        synchronized (this) {
+            final Entry<V> entry = entries.get(key);
+            if (entry != null) {
+                if (entry.expires > now) {
+                    cached = entry.value;
+                    if (!entry.refreshing && refreshContext != null && entry.expires - now < ttl / 4) {
+                        entry.refreshing = true;
+                        refresh = true;
+                    }
+                } else {
+                    entries.remove(key);
+                }
+            }
+        }
+
+        if (cached != null) {
+            if (refresh) {
+                scheduleRefresh(key);
+            }
+            return cached;
+        }
+
+        final V value = search.search(ctx, key);
+        put(key, value);
+        return value;
+    }
+
+    synchronized void remove(final String key) {
+        entries.remove(key);
+    }
+
+    synchronized void clear() {
+        entries.clear();
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+
+    private void put(final String key, final V value) {
+        synchronized (this) {
+            if (value == null) {
+                entries.remove(key);
+            } else {
+                entries.put(key, new Entry<>(value, System.currentTimeMillis() + ttl));
+            }
+        }
+    }
+
+    private void scheduleRefresh(final String key) {
+        try {
+            refreshExecutor.execute(() -> refresh(key));
+        } catch (final RejectedExecutionException e) {
+            // the refresh queue is full, the entry will be searched again when it expires
+            synchronized (this) {
+                final Entry<V> entry = entries.get(key);
+                if (entry != null) {
+                    entry.refreshing = false;
+                }
+            }
+        }
+    }
+
+    private void refresh(final String key) {
+        LdapContext ctx = null;
+        try {
+            ctx = refreshContext.get();
+            put(key, search.search(ctx, key));
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Refreshed " + name + " for '" + key + "'.");
+            }
+        } catch (final NamingException | RuntimeException e) {
+            LOG.warn("Could not refresh " + name + " for '" + key + "': " + e.getMessage());
+            synchronized (this) {
+                final Entry<V> entry = entries.get(key);
+                if (entry != null) {
+                    entry.refreshing = false;
+                }
+            }
+        } finally {
+            LdapUtils.closeContext(ctx);
+        }
+    }
+
+    private static final class Entry<V> {
+        private final V value;
+        private final long expires;
+        private boolean refreshing = false;
+
+        private Entry(final V value, final long expires) {
+            this.value = value;
+            this.expires = expires;
+        }
+    }
+}
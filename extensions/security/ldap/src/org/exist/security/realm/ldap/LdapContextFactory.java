@@ -71,8 +71,27 @@ public class LdapContextFactory implements Configurable {
 
     protected String systemPassword = null;
 
+    /**
+     * Pool the connections of the contexts bound with the search account, see
+     * {@link #getSearchLdapContext()}. The size of the pool is configured with the
+     * com.sun.jndi.ldap.connect.pool.* system properties of the JVM.
+     */
+    @ConfigurationFieldAsElement("pool-connections")
     private boolean usePooling = true;
 
+    /**
+     * Time in seconds for which the results of searches for accounts and groups are cached,
+     * 0 disables the caches.
+     */
+    @ConfigurationFieldAsElement("cache-ttl")
+    private int cacheTtl = 300;
+
+    /**
+     * Maximum number of cached results for each kind of search.
+     */
+    @ConfigurationFieldAsElement("cache-size")
+    private int cacheSize = 1000;
+
     private Configuration configuration = null;
 
     @ConfigurationFieldAsElement("search")
@@ -91,12 +110,36 @@ public class LdapContextFactory implements Configurable {
     public LdapContext getSystemLdapContext() throws NamingException {
             return getLdapContext(systemUsername, systemPassword);
     }
+
+    /**
+     * Returns a context bound with the default username and password of the search
+     * configuration. Unlike the contexts bound with the credentials of a user, these
+     * contexts share a pool of connections, so searches do not have to open and bind
+     * a new connection every time.
+     *
+     * @return the context, which must be closed to return its connection to the pool
+     * @throws NamingException if the connection cannot be established
+     */
+    public LdapContext getSearchLdapContext() throws NamingException {
+        return getLdapContext(search.getDefaultUsername(), search.getDefaultPassword(), null, usePooling);
+    }
+
+    /**
+     * @return true if a default username and password are configured for searches
+     */
+    public boolean hasSearchCredentials() {
+        return search != null && search.getDefaultUsername() != null && !StringUtils.isBlank(search.getDefaultPassword());
+    }
     
     public LdapContext getLdapContext(final String username, final String password) throws NamingException {
         return getLdapContext(username, password, null);
     }
         
-    public LdapContext getLdapContext(String username, final String password, final Map<String, Object>additionalEnv) throws NamingException {
+    public LdapContext getLdapContext(final String username, final String password, final Map<String, Object>additionalEnv) throws NamingException {
+        return getLdapContext(username, password, additionalEnv, usePooling && username != null && username.equals(systemUsername));
+    }
+
+    private LdapContext getLdapContext(String username, final String password, final Map<String, Object>additionalEnv, final boolean pooled) throws NamingException {
         
         if (url == null) {
             throw new IllegalStateException("An LDAP URL must be specified of the form ldap://<hostname>:<port>");
@@ -134,8 +177,8 @@ public class LdapContextFactory implements Configurable {
         // the following is helpful in debugging errors
         //env.put("com.sun.jndi.ldap.trace.ber", System.err);
 
-        // Only pool connections for system contexts
-        if (usePooling && username != null && username.equals(systemUsername)) {
+        // Only pool connections for system and search contexts, binds with the credentials of a user are not reused
+        if (pooled) {
             // Enable connection pooling
             env.put(SUN_CONNECTION_POOLING_PROPERTY, "true");
         }
@@ -145,7 +188,7 @@ public class LdapContextFactory implements Configurable {
         }
 
         if (LOG.isDebugEnabled()) {
-            LOG.debug("Initializing LDAP context using URL [" + url + "] and username [" + username + "] " + "with pooling [" + (usePooling ? "enabled" : "disabled") + "]");
+            LOG.debug("Initializing LDAP context using URL [" + url + "] and username [" + username + "] " + "with pooling [" + (pooled ? "enabled" : "disabled") + "]");
         }
 
         return new InitialLdapContext(env, null);
@@ -163,6 +206,14 @@ public class LdapContextFactory implements Configurable {
         return domain;
     }
 
+    public int getCacheTtl() {
+        return cacheTtl;
+    }
+
+    public int getCacheSize() {
+        return cacheSize;
+    }
+
     // configurable methods
     @Override
     public boolean isConfigured() {
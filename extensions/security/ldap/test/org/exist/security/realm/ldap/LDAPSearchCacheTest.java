@@ -0,0 +1,100 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2015 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.security.realm.ldap;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LDAPSearchCacheTest {
+
+    @Test
+    public void cacheAndExpire() throws Exception {
+        final AtomicInteger searches = new AtomicInteger();
+        final LDAPSearchCache<String> cache = new LDAPSearchCache<>("test", 10, 200,
+                (ctx, key) -> key + searches.incrementAndGet(), Runnable::run, null);
+
+        assertEquals("a1", cache.get(null, "a"));
+        assertEquals("a1", cache.get(null, "a"));
+        assertEquals("b2", cache.get(null, "b"));
+
+        Thread.sleep(300);
+        assertEquals("a3", cache.get(null, "a"));
+    }
+
+    @Test
+    public void notFoundIsNotCached() throws Exception {
+        final AtomicInteger searches = new AtomicInteger();
+        final LDAPSearchCache<String> cache = new LDAPSearchCache<>("test", 10, 60000,
+                (ctx, key) -> { searches.incrementAndGet(); return null; }, Runnable::run, null);
+
+        assertNull(cache.get(null, "a"));
+        assertNull(cache.get(null, "a"));
+        assertEquals(2, searches.get());
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void bounded() throws Exception {
+        final LDAPSearchCache<String> cache = new LDAPSearchCache<>("test", 10, 60000,
+                (ctx, key) -> key, Runnable::run, null);
+        for (int i = 0; i < 20; i++) {
+            cache.get(null, "key" + i);
+        }
+        assertEquals(10, cache.size());
+    }
+
+    @Test
+    public void refreshInBackground() throws Exception {
+        final AtomicInteger searches = new AtomicInteger();
+        final CountDownLatch refreshed = new CountDownLatch(1);
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            final LDAPSearchCache<String> cache = new LDAPSearchCache<>("test", 10, 400,
+                    (ctx, key) -> {
+                        final int n = searches.incrementAndGet();
+                        if (n > 1) {
+                            refreshed.countDown();
+                        }
+                        return key + n;
+                    }, executor, () -> null);
+
+            assertEquals("a1", cache.get(null, "a"));
+
+            // within the last quarter of the lifetime the cached value is returned and refreshed
+            Thread.sleep(320);
+            assertEquals("a1", cache.get(null, "a"));
+            assertTrue(refreshed.await(5, TimeUnit.SECONDS));
+
+            // the refreshed entry is valid for the full lifetime again
+            Thread.sleep(200);
+            assertEquals("a2", cache.get(null, "a"));
+            assertEquals(2, searches.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -48,6 +48,7 @@ import org.exist.storage.index.CollectionStore;
 import org.exist.storage.io.VariableByteInput;
 import org.exist.storage.serializers.ChainOfReceiversFactory;
 import org.exist.storage.serializers.EXistOutputKeys;
+import org.exist.storage.serializers.Serializer;
 import org.exist.util.FileUtils;
 import org.exist.util.LockException;
 import org.exist.util.UTF8;
@@ -499,6 +500,8 @@ public class SystemExport {
                 final OutputStream os = output.newEntry(Backup.encode(URIUtils.urlDecodeUtf8(doc.getFileURI())));
                 if (doc.getResourceType() == DocumentImpl.BINARY_FILE) {
                     broker.readBinaryResource((BinaryDocument) doc, os);
+                } else if (chainFactory == null && streamXML(doc, os)) {
+                    os.flush();
                 } else {
                     final Writer writer = new BufferedWriter(new OutputStreamWriter(os, UTF_8));
                     try {
@@ -610,6 +613,22 @@ public class SystemExport {
      * @param doc      the document to serialize
      * @param receiver the output handler
      */
+    /**
+     * Writes the document directly from the stored node records, if the document
+     * has no doctype and the serializer supports it.
+     *
+     * @return true if the document has been written, false if it has to be written through {@link #writeXML(DocumentImpl, Receiver)}
+     */
+    private boolean streamXML(DocumentImpl doc, OutputStream os) throws IOException, SAXException {
+        if (doc.getDoctype() != null) {
+            return false;
+        }
+        final Serializer serializer = broker.getSerializer();
+        serializer.reset();
+        serializer.setProperties(defaultOutputProperties);
+        return serializer.streamDocument(doc, os);
+    }
+
     private void writeXML(DocumentImpl doc, Receiver receiver) {
         try {
             XMLStreamReader reader;
@@ -105,6 +105,7 @@ public class CollectionCache extends LRUCache<Collection> implements BrokerPoolS
                                 pool.getConfigurationManager().invalidate(cached.getURI(), null);
                             }
                             names.remove(cached.getURI().getRawCollectionPath());
+                            invalidateDocumentSets(cached);
                             cached.sync(true);
                             map.remove(cached.getKey());
                             removed = true;
@@ -137,6 +138,18 @@ public class CollectionCache extends LRUCache<Collection> implements BrokerPoolS
         if(pool.getConfigurationManager() != null) {
             pool.getConfigurationManager().invalidate(item.getURI(), null);
         }
+        invalidateDocumentSets(item);
+    }
+
+    /**
+     * Cached document sets refer to the documents of the collection object, which
+     * must not be used once another object has been loaded for the collection.
+     */
+    private void invalidateDocumentSets(final Collection collection) {
+        // might be null during db initialization
+        if(pool.getDocumentSetCache() != null) {
+            pool.getDocumentSetCache().invalidate(collection.getURI().getRawCollectionPath());
+        }
     }
 
     /**
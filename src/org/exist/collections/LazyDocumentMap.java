@@ -0,0 +1,317 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2015 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.collections;
+
+import net.jcip.annotations.GuardedBy;
+import org.exist.dom.persistent.DocumentImpl;
+import org.exist.storage.BrokerPool;
+import org.exist.storage.index.CollectionStore;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.*;
+
+/**
+ * The documents of a {@link MutableCollection} which contains too many documents to
+ * keep all of them in memory. Documents are read from collections.dbx on demand, either
+ * by name or page by page in the order of their names when iterating.
+ *
+ * Every document is represented by a single {@link DocumentImpl} object as long as it is
+ * referenced from somewhere else, as the document's update lock is part of that object.
+ * Documents added to or removed from the map may not yet have been written to or removed
+ * from collections.dbx, so these changes are kept in memory until the store has caught up.
+ */
+final class LazyDocumentMap extends AbstractMap<String, DocumentImpl> {
+
+    /**
+     * Number of documents read from the store in one go while iterating.
+     */
+    private static final int PAGE_SIZE = 256;
+
+    /**
+     * Number of in-memory changes after which the changes are checked against the store.
+     */
+    private static final int PRUNE_THRESHOLD = 256;
+
+    private final BrokerPool pool;
+    private final CollectionStore store;
+    private final Collection collection;
+
+    // documents added which might not yet have been written to the store
+    @GuardedBy("this") private final Map<String, DocumentImpl> added = new TreeMap<>();
+    // names of documents removed which might not yet have been removed from the store
+    @GuardedBy("this") private final Set<String> removed = new HashSet<>();
+    // documents read from the store and still referenced elsewhere
+    @GuardedBy("this") private final Map<String, DocumentReference> loaded = new HashMap<>();
+    private final ReferenceQueue<DocumentImpl> queue = new ReferenceQueue<>();
+
+    @GuardedBy("this") private int size;
+    @GuardedBy("this") private int nextPrune = PRUNE_THRESHOLD;
+
+    LazyDocumentMap(final BrokerPool pool, final CollectionStore store, final Collection collection, final int size) {
+        this.pool = pool;
+        this.store = store;
+        this.collection = collection;
+        this.size = size;
+    }
+
+    @Override
+    public synchronized int size() {
+        return size;
+    }
+
+    @Override
+    public boolean containsKey(final Object key) {
+        return get(key) != null;
+    }
+
+    @Override
+    public DocumentImpl get(final Object key) {
+        if (!(key instanceof String)) {
+            return null;
+        }
+        final String name = (String) key;
+        synchronized (this) {
+            if (removed.contains(name)) {
+                return null;
+            }
+            final DocumentImpl doc = getCached(name);
+            if (doc != null) {
+                return doc;
+            }
+        }
+        final DocumentImpl doc = store.getDocument(pool, collection, name);
+        return doc == null ? null : register(name, doc);
+    }
+
+    @Override
+    public DocumentImpl put(final String name, final DocumentImpl doc) {
+        final DocumentImpl previous = get(name);
+        synchronized (this) {
+            removed.remove(name);
+            loaded.remove(name);
+            added.put(name, doc);
+            if (previous == null) {
+                size++;
+            }
+            pruneIfNeeded();
+        }
+        return previous;
+    }
+
+    @Override
+    public DocumentImpl remove(final Object key) {
+        final DocumentImpl previous = get(key);
+        if (previous == null) {
+            return null;
+        }
+        final String name = (String) key;
+        synchronized (this) {
+            added.remove(name);
+            loaded.remove(name);
+            removed.add(name);
+            size--;
+            pruneIfNeeded();
+        }
+        return previous;
+    }
+
+    @Override
+    public Set<Entry<String, DocumentImpl>> entrySet() {
+        return new AbstractSet<Entry<String, DocumentImpl>>() {
+            @Override
+            public Iterator<Entry<String, DocumentImpl>> iterator() {
+                return new EntryIterator();
+            }
+
+            @Override
+            public int size() {
+                return LazyDocumentMap.this.size();
+            }
+        };
+    }
+
+    /**
+     * Returns the documents currently held in memory.
+     */
+    synchronized List<DocumentImpl> getLoadedDocuments() {
+        expungeStaleReferences();
+        final List<DocumentImpl> docs = new ArrayList<>(added.values());
+        for (final DocumentReference ref : loaded.values()) {
+            final DocumentImpl doc = ref.get();
+            if (doc != null) {
+                docs.add(doc);
+            }
+        }
+        return docs;
+    }
+
+    @GuardedBy("this")
+    private DocumentImpl getCached(final String name) {
+        expungeStaleReferences();
+        final DocumentImpl doc = added.get(name);
+        if (doc != null) {
+            return doc;
+        }
+        final DocumentReference ref = loaded.get(name);
+        return ref == null ? null : ref.get();
+    }
+
+    /**
+     * Registers a document read from the store. If the document is already
+     * in memory, the existing object is returned instead.
+     *
+     * @return the document object to use, or null if the document has been removed in the meantime
+     */
+    private synchronized DocumentImpl register(final String name, final DocumentImpl doc) {
+        if (removed.contains(name)) {
+            return null;
+        }
+        final DocumentImpl cached = getCached(name);
+        if (cached != null) {
+            return cached;
+        }
+        loaded.put(name, new DocumentReference(name, doc, queue));
+        return doc;
+    }
+
+    /**
+     * Drops the in-memory changes which have meanwhile been written to the store.
+     */
+    @GuardedBy("this")
+    private void pruneIfNeeded() {
+        if (added.size() + removed.size() < nextPrune) {
+            return;
+        }
+        for (final Iterator<Entry<String, DocumentImpl>> i = added.entrySet().iterator(); i.hasNext(); ) {
+            final Entry<String, DocumentImpl> entry = i.next();
+            if (store.getDocumentId(collection.getId(), entry.getKey()) == entry.getValue().getDocId()) {
+                i.remove();
+                loaded.put(entry.getKey(), new DocumentReference(entry.getKey(), entry.getValue(), queue));
+            }
+        }
+        removed.removeIf(name -> store.getDocumentId(collection.getId(), name) == DocumentImpl.UNKNOWN_DOCUMENT_ID);
+        nextPrune = Math.max(PRUNE_THRESHOLD, 2 * (added.size() + removed.size()));
+    }
+
+    @GuardedBy("this")
+    private void expungeStaleReferences() {
+        DocumentReference ref;
+        while ((ref = (DocumentReference) queue.poll()) != null) {
+            if (loaded.get(ref.name) == ref) {
+                loaded.remove(ref.name);
+            }
+        }
+    }
+
+    private static final class DocumentReference extends WeakReference<DocumentImpl> {
+        private final String name;
+
+        DocumentReference(final String name, final DocumentImpl doc, final ReferenceQueue<DocumentImpl> queue) {
+            super(doc, queue);
+            this.name = name;
+        }
+    }
+
+    /**
+     * Merges the documents read page by page from the store with
+     * the documents added in memory, in the order of their names.
+     */
+    private final class EntryIterator implements Iterator<Entry<String, DocumentImpl>> {
+        private final Iterator<Entry<String, DocumentImpl>> pending;
+        private Entry<String, DocumentImpl> nextPending = null;
+        private Entry<String, DocumentImpl> nextStored = null;
+        private Entry<String, DocumentImpl> next = null;
+        private Iterator<DocumentImpl> page = Collections.emptyIterator();
+        private String lastName = "";
+        private boolean exhausted = false;
+
+        private EntryIterator() {
+            synchronized (LazyDocumentMap.this) {
+                pending = new ArrayList<>(added.entrySet()).iterator();
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (next == null) {
+                next = advance();
+            }
+            return next != null;
+        }
+
+        @Override
+        public Entry<String, DocumentImpl> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            final Entry<String, DocumentImpl> entry = next;
+            next = null;
+            return entry;
+        }
+
+        private Entry<String, DocumentImpl> advance() {
+            if (nextPending == null && pending.hasNext()) {
+                nextPending = pending.next();
+            }
+            if (nextStored == null) {
+                nextStored = readNext();
+            }
+            if (nextPending == null && nextStored == null) {
+                return null;
+            }
+            final Entry<String, DocumentImpl> entry;
+            if (nextStored == null || (nextPending != null && nextPending.getKey().compareTo(nextStored.getKey()) <= 0)) {
+                if (nextStored != null && nextPending.getKey().equals(nextStored.getKey())) {
+                    nextStored = null;
+                }
+                entry = nextPending;
+                nextPending = null;
+            } else {
+                entry = nextStored;
+                nextStored = null;
+            }
+            return entry;
+        }
+
+        private Entry<String, DocumentImpl> readNext() {
+            while (true) {
+                if (!page.hasNext()) {
+                    if (exhausted) {
+                        return null;
+                    }
+                    final List<DocumentImpl> docs = store.getDocuments(pool, collection, lastName, PAGE_SIZE);
+                    if (docs.isEmpty()) {
+                        exhausted = true;
+                        return null;
+                    }
+                    page = docs.iterator();
+                }
+                final DocumentImpl stored = page.next();
+                final String name = stored.getFileURI().getRawCollectionPath();
+                lastName = name;
+                final DocumentImpl doc = register(name, stored);
+                if (doc != null) {
+                    return new SimpleImmutableEntry<>(name, doc);
+                }
+            }
+        }
+    }
+}
@@ -49,6 +49,7 @@ import org.exist.security.PermissionFactory;
 import org.exist.security.Subject;
 import org.exist.storage.*;
 import org.exist.storage.index.BFile;
+import org.exist.storage.index.CollectionStore;
 import org.exist.storage.io.VariableByteInput;
 import org.exist.storage.io.VariableByteOutputStream;
 import org.exist.storage.lock.*;
@@ -84,12 +85,21 @@ public class MutableCollection implements Collection {
     private static final int DOCUMENT_SIZE = 450;
     private static final int POOL_PARSER_THRESHOLD = 500;
 
+    /**
+     * Collections containing at least this number of documents when they are read from disk
+     * do not keep all their documents in memory, but read them from collections.dbx on demand.
+     * A value &lt;= 0 disables lazy loading.
+     */
+    public static final String LAZY_LOAD_THRESHOLD_ATTRIBUTE = "lazyLoadThreshold";
+    public static final String PROPERTY_LAZY_LOAD_THRESHOLD = "db-connection.lazy-load-threshold";
+
     private int collectionId = UNKNOWN_COLLECTION_ID;
     private XmldbURI path;
     private final Lock lock;
-    @GuardedBy("lock") private final Map<String, DocumentImpl> documents = new TreeMap<>();
+    @GuardedBy("lock") private Map<String, DocumentImpl> documents = new TreeMap<>();
     @GuardedBy("lock") private ObjectHashSet<XmldbURI> subCollections = new ObjectHashSet<>(19);
     private long address = BFile.UNKNOWN_ADDRESS;  // Storage address of the collection in the BFile
+    private boolean documentNamesIncomplete = false;
     private long created = 0;
     private volatile boolean collectionConfigEnabled = true;
     private boolean triggersEnabled = true;
@@ -574,7 +584,7 @@ public class MutableCollection implements Collection {
         try {
             getLock().acquire(LockMode.READ_LOCK);
             try {
-                for (final DocumentImpl doc : documents.values()) {
+                for (final DocumentImpl doc : isLazy() ? ((LazyDocumentMap) documents).getLoadedDocuments() : documents.values()) {
                     if (doc.isLockedForWrite()) {
                         return false;
                     }
@@ -616,6 +626,9 @@ public class MutableCollection implements Collection {
         try {
             getLock().acquire(LockMode.READ_LOCK);
             try {
+                if (isLazy()) {
+                    return SHALLOW_SIZE + ((LazyDocumentMap) documents).getLoadedDocuments().size() * DOCUMENT_SIZE;
+                }
                 return SHALLOW_SIZE + documents.size() * DOCUMENT_SIZE;
             } finally {
                 getLock().release(LockMode.READ_LOCK);
@@ -857,10 +870,60 @@ public class MutableCollection implements Collection {
         if(!getPermissionsNoLock().validate(broker.getCurrentSubject(), Permission.READ)) {
             throw new PermissionDeniedException("Permission denied to read collection: " + path);
         }
-        
+
+        if(isLazy()) {
+            return readableDocuments(broker);
+        }
         return getDocuments(broker, new DefaultDocumentSet()).getDocumentIterator();
     }
 
+    /**
+     * Streams the documents of a lazily loaded collection in the order of their names,
+     * skipping those the current user may not read.
+     */
+    private Iterator<DocumentImpl> readableDocuments(final DBBroker broker) {
+        final Iterator<DocumentImpl> docs = documents.values().iterator();
+        return new Iterator<DocumentImpl>() {
+            private DocumentImpl next = null;
+
+            @Override
+            public boolean hasNext() {
+                while (next == null && docs.hasNext()) {
+                    final DocumentImpl doc = docs.next();
+                    if (doc.getPermissions().validate(broker.getCurrentSubject(), Permission.READ)) {
+                        next = doc;
+                    }
+                }
+                return next != null;
+            }
+
+            @Override
+            public DocumentImpl next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                final DocumentImpl doc = next;
+                next = null;
+                return doc;
+            }
+        };
+    }
+
+    /**
+     * @return true if the documents of this collection are read from disk on demand
+     */
+    boolean isLazy() {
+        return documents instanceof LazyDocumentMap;
+    }
+
+    /**
+     * @return true if the collection was loaded completely because its document
+     *     name keys need to be rebuilt before it can be loaded on demand
+     */
+    public boolean hasIncompleteDocumentNames() {
+        return documentNamesIncomplete;
+    }
+
     @Override
     public Iterator<DocumentImpl> iteratorNoLock(final DBBroker broker) throws PermissionDeniedException {
         if(!getPermissionsNoLock().validate(broker.getCurrentSubject(), Permission.READ)) {
@@ -934,6 +997,10 @@ public class MutableCollection implements Collection {
 
             final Collection col = this;
 
+            if (loadLazily(broker)) {
+                return;
+            }
+
             broker.getCollectionResources(new InternalAccess() {
                 @Override
                 public void addDocument(final DocumentImpl doc) throws EXistException {
@@ -957,6 +1024,34 @@ public class MutableCollection implements Collection {
         }
     }
 
+    /**
+     * Switches to reading the documents from disk on demand if the collection
+     * contains at least the configured number of documents. If the document
+     * name keys of the collection are incomplete, the documents are loaded
+     * completely and {@link #hasIncompleteDocumentNames()} returns true.
+     *
+     * @return true if the documents will be read on demand
+     */
+    private boolean loadLazily(final DBBroker broker) {
+        final int threshold = broker.getConfiguration().getInteger(PROPERTY_LAZY_LOAD_THRESHOLD);
+        if (threshold <= 0 || !(broker instanceof NativeBroker) || broker.getBrokerPool().isReadOnly()) {
+            return false;
+        }
+        final CollectionStore store = (CollectionStore) ((NativeBroker) broker).getStorage(NativeBroker.COLLECTIONS_DBX_ID);
+        final int count = store.getDocumentCount(collectionId);
+        if (count < threshold) {
+            return false;
+        }
+        if (store.getDocumentNameCount(collectionId) != count) {
+            // written while lazy loading was disabled or by an older version. The store
+            // is only read locked here, so the caller rebuilds the names afterwards
+            documentNamesIncomplete = true;
+            return false;
+        }
+        documents = new LazyDocumentMap(broker.getBrokerPool(), store, this, count);
+        return true;
+    }
+
     @Override
     public void removeCollection(final DBBroker broker, final XmldbURI name)
             throws LockException, PermissionDeniedException {
@@ -1107,6 +1202,7 @@ public class MutableCollection implements Collection {
 
             trigger.afterDeleteDocument(broker, transaction, doc.getURI());
 
+            broker.getBrokerPool().getNotificationService().notifyUpdate(doc, UpdateListener.REMOVE);
         } finally {
             broker.getBrokerPool().getProcessMonitor().endJob();
             doc.getUpdateLock().release(LockMode.WRITE_LOCK);
@@ -1715,6 +1811,7 @@ public class MutableCollection implements Collection {
         } finally {
             blob.getUpdateLock().release(LockMode.READ_LOCK);
         }
+        broker.getBrokerPool().getNotificationService().notifyUpdate(blob, (oldDoc == null ? UpdateListener.ADD : UpdateListener.UPDATE));
         return blob;
     }
 
@@ -1964,6 +2061,11 @@ public class MutableCollection implements Collection {
         buf.append( getURI() );
         buf.append("[");
 
+        if (isLazy()) {
+            buf.append(documents.size()).append(" documents]");
+            return buf.toString();
+        }
+
         try {
             for (final Iterator<String> i = copyOfDocNames().iterator(); i.hasNext(); ) {
                 buf.append(i.next());
@@ -368,7 +368,8 @@ public class DocumentImpl extends NodeImpl<DocumentImpl> implements Resource, Do
      */
     public final synchronized Lock getUpdateLock() {
         if(updateLock == null) {
-            updateLock = new MultiReadReentrantLock(fileURI);
+            // the id does not change when the document is renamed or moved
+            updateLock = new MultiReadReentrantLock(docId);
         }
         return updateLock;
     }
@@ -32,6 +32,7 @@ import org.exist.storage.Signatures;
 import org.exist.storage.dom.INodeIterator;
 import org.exist.util.pool.NodePool;
 import org.exist.xquery.Constants;
+import org.exist.xquery.QueryResourceUsage;
 import org.w3c.dom.DOMException;
 import org.w3c.dom.Node;
 
@@ -140,6 +141,7 @@ public abstract class StoredNode<T extends StoredNode> extends NodeImpl<T> imple
      * @param doc
      */
     public static StoredNode deserialize(final byte[] data, final int start, final int len, final DocumentImpl doc, boolean pooled) {
+        QueryResourceUsage.nodeMaterialized();
         final short type = Signatures.getType(data[start]);
         switch(type) {
             case Node.TEXT_NODE:
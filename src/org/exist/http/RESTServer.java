@@ -32,11 +32,14 @@ import java.io.StringWriter;
 import java.io.Writer;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.Field;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Properties;
+import java.util.TreeSet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.xml.XMLConstants;
@@ -76,6 +79,7 @@ import org.exist.source.Source;
 import org.exist.source.StringSource;
 import org.exist.source.URLSource;
 import org.exist.storage.BrokerPool;
+import org.exist.storage.CompressedDocumentCache;
 import org.exist.storage.DBBroker;
 import org.exist.storage.XQueryPool;
 import org.exist.storage.lock.Lock.LockMode;
@@ -332,40 +336,17 @@ public class RESTServer {
         }
         if ((option = getParameter(request, Wrap)) != null) {
             wrap = "yes".equals(option);
-            outputProperties.setProperty("_wrap", option);
         }
         if ((option = getParameter(request, Cache)) != null) {
             cache = "yes".equals(option);
         }
-        if ((option = getParameter(request, Indent)) != null) {
-            outputProperties.setProperty(OutputKeys.INDENT, option);
-        }
         if ((option = getParameter(request, Source)) != null && !safeMode) {
             source = "yes".equals(option);
         }
-        if ((option = getParameter(request, Session)) != null) {
-            outputProperties.setProperty(Serializer.PROPERTY_SESSION_ID, option);
-        }
-        String stylesheet;
-        if ((stylesheet = getParameter(request, XSL)) != null) {
-            if ("no".equals(stylesheet)) {
-                outputProperties.setProperty(EXistOutputKeys.PROCESS_XSL_PI, "no");
-                outputProperties.remove(EXistOutputKeys.STYLESHEET);
-                stylesheet = null;
-            } else {
-                outputProperties.setProperty(EXistOutputKeys.STYLESHEET, stylesheet);
-            }
-        } else {
-            outputProperties.setProperty(EXistOutputKeys.PROCESS_XSL_PI, "yes");
-        }
+        final String stylesheet = setSerializationParameters(request, outputProperties);
         LOG.debug("stylesheet = " + stylesheet);
         LOG.debug("query = " + query);
-        String encoding;
-        if ((encoding = getParameter(request, Encoding)) != null) {
-            outputProperties.setProperty(OutputKeys.ENCODING, encoding);
-        } else {
-            encoding = "UTF-8";
-        }
+        final String encoding = outputProperties.getProperty(OutputKeys.ENCODING);
 
         final String mimeType = outputProperties.getProperty(OutputKeys.MEDIA_TYPE);
 
@@ -541,13 +522,8 @@ public class RESTServer {
         }
 
         final Properties outputProperties = new Properties(defaultOutputKeysProperties);
-
-        String encoding;
-        if ((encoding = getParameter(request, Encoding)) != null) {
-            outputProperties.setProperty(OutputKeys.ENCODING, encoding);
-        } else {
-            encoding = "UTF-8";
-        }
+        final String stylesheet = setSerializationParameters(request, outputProperties);
+        final String encoding = outputProperties.getProperty(OutputKeys.ENCODING);
 
         DocumentImpl resource = null;
         try {
@@ -567,6 +543,30 @@ public class RESTServer {
                 // must be set so
                 response.addHeader("Content-Length", Long.toString(resource.getContentLength()));
                 setCreatedAndLastModifiedHeaders(response, metadata.getCreated(), metadata.getLastModified());
+                if (resource.getResourceType() == DocumentImpl.BINARY_FILE) {
+                    response.setHeader("ETag", ResourceDelivery.createETag(resource, resource.getContentLength(), null));
+                    response.setHeader("Accept-Ranges", "bytes");
+                } else {
+                    // the same entity tag as for a GET request with the same parameters
+                    final Serializer serializer = broker.getSerializer();
+                    serializer.reset();
+                    try {
+                        serializer.setProperties(outputProperties);
+                    } catch (final SAXException e) {
+                        throw new BadRequestException("Invalid serialization parameters: " + e.getMessage());
+                    }
+                    final String variant = serializationVariant(resource, serializer, stylesheet,
+                            metadata.getMimeType(), encoding, outputProperties);
+                    if (variant != null) {
+                        final CompressedDocumentCache compressedCache = broker.getBrokerPool().getCompressedDocumentCache();
+                        final boolean compress = acceptsCompressed(compressedCache, resource, request);
+                        if (compressedCache.isEnabled()) {
+                            response.setHeader("Vary", "Accept-Encoding");
+                        }
+                        response.setHeader("ETag", ResourceDelivery.createETag(resource, resource.getContentLength(),
+                                compress ? variant + ";gzip" : variant));
+                    }
+                }
             } else {
                 final Collection col = broker.getCollection(pathUri);
                 //no resource or collection
@@ -1298,7 +1298,21 @@ public class RESTServer {
                 compilationTime = 0;
             }
 
+            // results kept in a session are never cached
+            ResponseCacheHandler cacheHandler = null;
+            boolean success = false;
             try {
+                if (!cache && sessionIdParam == null) {
+                    cacheHandler = ResponseCacheHandler.create(broker, source, compiled.getContext(), request, response);
+                }
+                if (cacheHandler != null && cacheHandler.sendCached()) {
+                    return;
+                }
+                final HttpServletResponse queryResponse = cacheHandler == null ? response : cacheHandler.begin();
+                if (cacheHandler != null) {
+                    compiled.getContext().declareVariable(ResponseModule.PREFIX + ":response", new HttpResponseWrapper(queryResponse));
+                }
+
                 final long executeStart = System.currentTimeMillis();
                 final Sequence resultSequence = xquery.execute(broker, compiled, null, outputProperties);
                 final long executionTime = System.currentTimeMillis() - executeStart;
@@ -1315,10 +1329,12 @@ public class RESTServer {
                     }
                 }
 
-                writeResults(response, broker, resultSequence, howmany, start, typed, outputProperties, wrap, compilationTime, executionTime);
+                writeResults(queryResponse, broker, resultSequence, howmany, start, typed, outputProperties, wrap, compilationTime, executionTime);
+                success = true;
 
             } finally {
                 pool.returnCompiledXQuery(source, compiled);
+                endResponseCaching(cacheHandler, success);
             }
 
         } catch (final IOException e) {
@@ -1501,14 +1517,39 @@ public class RESTServer {
         boolean wrap = outputProperties.getProperty("_wrap") != null
                 && "yes".equals(outputProperties.getProperty("_wrap"));
 
+        ResponseCacheHandler cacheHandler = null;
+        boolean success = false;
         try {
+            cacheHandler = ResponseCacheHandler.create(broker, source, context, request, response);
+            if (cacheHandler != null && cacheHandler.sendCached()) {
+                return;
+            }
+            final HttpServletResponse queryResponse = cacheHandler == null ? response : cacheHandler.begin();
+            if (cacheHandler != null) {
+                context.declareVariable(ResponseModule.PREFIX + ":response", new HttpResponseWrapper(queryResponse));
+            }
+
             final long executeStart = System.currentTimeMillis();
             final Sequence result = xquery.execute(broker, compiled, null, outputProperties);
-            writeResults(response, broker, result, -1, 1, false, outputProperties, wrap, compilationTime, System.currentTimeMillis() - executeStart);
+            writeResults(queryResponse, broker, result, -1, 1, false, outputProperties, wrap, compilationTime, System.currentTimeMillis() - executeStart);
+            success = true;
 
+        } catch (final IOException e) {
+            throw new BadRequestException(e.getMessage(), e);
         } finally {
             context.runCleanupTasks();
             pool.returnCompiledXQuery(source, compiled);
+            endResponseCaching(cacheHandler, success);
+        }
+    }
+
+    private void endResponseCaching(final ResponseCacheHandler cacheHandler, final boolean success) {
+        if (cacheHandler != null) {
+            try {
+                cacheHandler.end(success);
+            } catch (final IOException e) {
+                LOG.warn("Failed to send response: " + e.getMessage(), e);
+            }
         }
     }
 
@@ -1624,42 +1665,50 @@ public class RESTServer {
         final long lastModified = metadata.getLastModified();
         setCreatedAndLastModifiedHeaders(response, metadata.getCreated(), lastModified);
 
-
-        /**
-         * HTTP 1.1 RFC 2616 Section 14.25 *
-         */
-        //handle If-Modified-Since request header
-        try {
-            final long ifModifiedSince = request.getDateHeader("If-Modified-Since");
-            if (ifModifiedSince > -1) {
-
-                /*
-                 a) A date which is later than the server's
-                 current time is invalid.
-                 */
-                if (ifModifiedSince <= System.currentTimeMillis()) {
-
-                    /*
-                     b) If the variant has been modified since the If-Modified-Since
-                     date, the response is exactly the same as for a normal GET.
-                     */
-                    if (lastModified <= ifModifiedSince) {
-
-                        /*
-                         c) If the variant has not been modified since a valid If-
-                         Modified-Since date, the server SHOULD return a 304 (Not
-                         Modified) response.
-                         */
-                        response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
-                        return;
-                    }
+        final boolean binary = resource.getResourceType() == DocumentImpl.BINARY_FILE;
+        final CompressedDocumentCache compressedCache = broker.getBrokerPool().getCompressedDocumentCache();
+        final Serializer serializer = binary ? null : broker.getSerializer();
+        String variant = null;
+        boolean compress = false;
+        String etag = null;
+        if (binary) {
+            etag = ResourceDelivery.createETag(resource, resource.getContentLength(), null);
+            response.setHeader("Accept-Ranges", "bytes");
+        } else {
+            serializer.reset();
+            try {
+                serializer.setProperties(outputProperties);
+            } catch (final SAXException e) {
+                throw new BadRequestException("Invalid serialization parameters: " + e.getMessage());
+            }
+            variant = serializationVariant(resource, serializer, stylesheet,
+                    asMimeType != null ? asMimeType : metadata.getMimeType(), encoding, outputProperties);
+            if (variant != null) {
+                compress = acceptsCompressed(compressedCache, resource, request);
+                if (compressedCache.isEnabled()) {
+                    response.setHeader("Vary", "Accept-Encoding");
                 }
+                etag = ResourceDelivery.createETag(resource, resource.getContentLength(),
+                        compress ? variant + ";gzip" : variant);
             }
-        } catch (final IllegalArgumentException iae) {
-            LOG.warn("Illegal If-Modified-Since HTTP Header sent on request, ignoring. " + iae.getMessage(), iae);
         }
 
-        if (resource.getResourceType() == DocumentImpl.BINARY_FILE) {
+        final String ifNoneMatch = etag == null ? null : request.getHeader("If-None-Match");
+        if (etag != null) {
+            response.setHeader("ETag", etag);
+            if (ifNoneMatch != null && ResponseCacheHandler.matchesETag(ifNoneMatch, etag)) {
+                response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+                return;
+            }
+        }
+
+        // If-Modified-Since has to be ignored if If-None-Match is present, see RFC 7232, section 3.3
+        if (ifNoneMatch == null && isNotModifiedSince(request, lastModified)) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+
+        if (binary) {
             // binary resource
 
             if (asMimeType == null) { // wasn't a mime-type specified?
@@ -1672,21 +1721,43 @@ public class RESTServer {
                 response.setContentType(asMimeType);
             }
 
-            // As HttpServletResponse.setContentLength is limited to integers,
-            // (see http://bugs.sun.com/bugdatabase/view_bug.do?bug_id=4187336)
-            // next sentence:
-            //	response.setContentLength(resource.getContentLength());
-            // must be set so
-            response.addHeader("Content-Length", Long.toString(resource.getContentLength()));
-            final OutputStream os = response.getOutputStream();
-            broker.readBinaryResource((BinaryDocument) resource, os);
-            os.flush();
+            try (final FileChannel channel = FileChannel.open(broker.getBinaryFile((BinaryDocument) resource),
+                    StandardOpenOption.READ)) {
+                final long length = channel.size();
+                ResourceDelivery.Range range = ResourceDelivery.parseRange(request.getHeader("Range"), length);
+                if (range != null && !isRangeValid(request, etag, lastModified)) {
+                    range = null;
+                }
+                if (range == ResourceDelivery.Range.UNSATISFIABLE) {
+                    response.setHeader("Content-Range", "bytes */" + length);
+                    response.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+                    return;
+                }
+
+                final long start;
+                final long count;
+                if (range != null) {
+                    start = range.getStart();
+                    count = range.getLength();
+                    response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+                    response.setHeader("Content-Range", "bytes " + range.getStart() + "-" + range.getEnd() + "/" + length);
+                } else {
+                    start = 0;
+                    count = length;
+                }
+
+                // As HttpServletResponse.setContentLength is limited to integers,
+                // (see http://bugs.sun.com/bugdatabase/view_bug.do?bug_id=4187336)
+                // next sentence:
+                //	response.setContentLength(resource.getContentLength());
+                // must be set so
+                response.addHeader("Content-Length", Long.toString(count));
+                ResourceDelivery.send(channel, start, count, response.getOutputStream());
+            }
         } else {
             // xml resource
 
             SAXSerializer sax = null;
-            final Serializer serializer = broker.getSerializer();
-            serializer.reset();
 
             //setup the http context
             final HttpContext httpContext = serializer.new HttpContext();
@@ -1735,14 +1806,37 @@ public class RESTServer {
                     outputProperties.setProperty("omit-xml-declaration", "no");
                 }
 
-                final OutputStreamWriter writer = new OutputStreamWriter(response.getOutputStream(), encoding);
-                sax.setOutput(writer, outputProperties);
-                serializer.setSAXHandlers(sax, sax);
-
-                serializer.toSAX(resource);
+                if (compress) {
+                    // the document is read locked, so the cached file cannot become outdated meanwhile
+                    FileChannel channel = compressedCache.open(resource, variant);
+                    if (channel == null) {
+                        final SAXSerializer saxSerializer = sax;
+                        final String mimeType = asMimeType;
+                        compressedCache.store(resource, variant, os -> {
+                            try {
+                                serializeDocument(resource, serializer, saxSerializer, outputProperties, encoding, mimeType, os);
+                            } catch (final SAXException e) {
+                                throw new IOException(e.getMessage(), e);
+                            }
+                        });
+                        channel = compressedCache.open(resource, variant);
+                    }
+                    if (channel != null) {
+                        try {
+                            final long length = channel.size();
+                            response.setHeader("Content-Encoding", "gzip");
+                            response.addHeader("Content-Length", Long.toString(length));
+                            ResourceDelivery.send(channel, 0, length, response.getOutputStream());
+                        } finally {
+                            channel.close();
+                        }
+                        return;
+                    }
+                    // evicted right away by larger files: send it uncompressed
+                    response.setHeader("ETag", ResourceDelivery.createETag(resource, resource.getContentLength(), variant));
+                }
 
-                writer.flush();
-                writer.close();
+                serializeDocument(resource, serializer, sax, outputProperties, encoding, asMimeType, response.getOutputStream());
             } catch (final SAXException saxe) {
                 LOG.warn(saxe);
                 throw new BadRequestException("Error while serializing XML: " + saxe.getMessage());
@@ -1757,6 +1851,156 @@ public class RESTServer {
         }
     }
 
+    private void serializeDocument(final DocumentImpl resource, final Serializer serializer, final SAXSerializer sax,
+            final Properties outputProperties, final String encoding, final String mimeType, final OutputStream os)
+            throws IOException, SAXException {
+        // plain XML is written directly from the stored node records if possible
+        if (!serializer.isStylesheetApplied() && !mimeType.equals(MimeType.HTML_TYPE.getName())
+                && "UTF-8".equalsIgnoreCase(encoding)
+                && serializer.streamDocument(resource, os)) {
+            os.close();
+            return;
+        }
+
+        final Writer writer = SerializerPool.getInstance().borrowWriter(os, encoding);
+        try {
+            sax.setOutput(writer, outputProperties);
+            serializer.setSAXHandlers(sax, sax);
+
+            serializer.toSAX(resource);
+
+            writer.flush();
+            writer.close();
+        } finally {
+            SerializerPool.getInstance().returnWriter(writer);
+        }
+    }
+
+    /**
+     * Sets the serialization parameters given by the request, so a GET and a HEAD request
+     * with the same parameters describe the same representation of a document.
+     *
+     * @return the stylesheet to be applied, or null
+     */
+    private String setSerializationParameters(final HttpServletRequest request, final Properties outputProperties) {
+        String option;
+        if ((option = getParameter(request, Wrap)) != null) {
+            outputProperties.setProperty("_wrap", option);
+        }
+        if ((option = getParameter(request, Indent)) != null) {
+            outputProperties.setProperty(OutputKeys.INDENT, option);
+        }
+        if ((option = getParameter(request, Session)) != null) {
+            outputProperties.setProperty(Serializer.PROPERTY_SESSION_ID, option);
+        }
+        String stylesheet;
+        if ((stylesheet = getParameter(request, XSL)) != null) {
+            if ("no".equals(stylesheet)) {
+                outputProperties.setProperty(EXistOutputKeys.PROCESS_XSL_PI, "no");
+                outputProperties.remove(EXistOutputKeys.STYLESHEET);
+                stylesheet = null;
+            } else {
+                outputProperties.setProperty(EXistOutputKeys.STYLESHEET, stylesheet);
+            }
+        } else {
+            outputProperties.setProperty(EXistOutputKeys.PROCESS_XSL_PI, "yes");
+        }
+        if ((option = getParameter(request, Encoding)) != null) {
+            outputProperties.setProperty(OutputKeys.ENCODING, option);
+        }
+        return stylesheet;
+    }
+
+    /**
+     * Checks if the compressed serialization of a document is sent to the client.
+     */
+    private static boolean acceptsCompressed(final CompressedDocumentCache compressedCache, final DocumentImpl resource,
+            final HttpServletRequest request) {
+        return compressedCache.accepts(resource) && ResourceDelivery.acceptsEncoding(request, "gzip");
+    }
+
+    /**
+     * Describes how a document is serialized, to distinguish the entity tags
+     * and cached files of the different serializations.
+     *
+     * @return the description, or null if the serialization may change without the
+     *      document being modified, i.e. if a stylesheet is applied or XIncludes
+     *      are expanded
+     */
+    private static String serializationVariant(final DocumentImpl resource, final Serializer serializer,
+            final String stylesheet, final String mimeType, final String encoding, final Properties outputProperties) {
+        if (stylesheet != null || serializer.getProperty(EXistOutputKeys.STYLESHEET, null) != null
+                || serializer.hasXSLPi(resource) != null || serializer.expandsXIncludes(resource)) {
+            return null;
+        }
+        final StringBuilder variant = new StringBuilder(mimeType).append(';').append(encoding);
+        for (final String name : new TreeSet<>(outputProperties.stringPropertyNames())) {
+            variant.append(';').append(name).append('=').append(outputProperties.getProperty(name));
+        }
+        return variant.toString();
+    }
+
+    /**
+     * HTTP 1.1 RFC 2616 Section 14.25
+     *
+     * @return true if the request has a valid If-Modified-Since header and the
+     * resource has not been modified since
+     */
+    private boolean isNotModifiedSince(final HttpServletRequest request, final long lastModified) {
+        //handle If-Modified-Since request header
+        try {
+            final long ifModifiedSince = request.getDateHeader("If-Modified-Since");
+            if (ifModifiedSince > -1) {
+
+                /*
+                 a) A date which is later than the server's
+                 current time is invalid.
+                 */
+                if (ifModifiedSince <= System.currentTimeMillis()) {
+
+                    /*
+                     b) If the variant has been modified since the If-Modified-Since
+                     date, the response is exactly the same as for a normal GET.
+                     */
+                    if (lastModified <= ifModifiedSince) {
+
+                        /*
+                         c) If the variant has not been modified since a valid If-
+                         Modified-Since date, the server SHOULD return a 304 (Not
+                         Modified) response.
+                         */
+                        return true;
+                    }
+                }
+            }
+        } catch (final IllegalArgumentException iae) {
+            LOG.warn("Illegal If-Modified-Since HTTP Header sent on request, ignoring. " + iae.getMessage(), iae);
+        }
+        return false;
+    }
+
+    /**
+     * Checks the If-Range header of a range request, see RFC 7233, section 3.2.
+     *
+     * @return true if the range should be sent, false if the complete resource should be sent
+     */
+    private boolean isRangeValid(final HttpServletRequest request, final String etag, final long lastModified) {
+        final String ifRange = request.getHeader("If-Range");
+        if (ifRange == null) {
+            return true;
+        }
+        if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+            // requires a strong comparison, so weak tags never match
+            return ifRange.equals(etag);
+        }
+        try {
+            final long date = request.getDateHeader("If-Range");
+            return date > -1 && lastModified <= date;
+        } catch (final IllegalArgumentException iae) {
+            return false;
+        }
+    }
+
     /**
      * @param response
      * @param encoding
@@ -2066,14 +2310,13 @@ public class RESTServer {
             if (wrap) {
                 outputProperties.setProperty("method", "xml");
             }
-            final Writer writer = new OutputStreamWriter(response.getOutputStream(), encoding);
-            final XQuerySerializer serializer = new XQuerySerializer(broker, outputProperties, writer);
+            final OutputStream os = response.getOutputStream();
+            final XQuerySerializer serializer = new XQuerySerializer(broker, outputProperties, os);
 
             //Marshaller.marshall(broker, results, start, howmany, serializer.getContentHandler());
             serializer.serialize(results, start, howmany, wrap, typed, compilationTime, executionTime);
 
-            writer.flush();
-            writer.close();
+            os.close();
 
         } catch (final SAXException e) {
             LOG.warn(e);
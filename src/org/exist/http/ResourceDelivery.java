@@ -0,0 +1,257 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2015 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.http;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.exist.dom.persistent.DocumentImpl;
+
+import javax.servlet.http.HttpServletRequest;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Helpers for delivering stored resources over HTTP: entity tags, byte ranges,
+ * content coding negotiation and sending files without copying them through
+ * the Java heap.
+ */
+public final class ResourceDelivery {
+
+    private final static Logger LOG = LogManager.getLogger(ResourceDelivery.class);
+
+    /**
+     * Smaller files are copied into the response, as mapping them costs more than copying.
+     */
+    private static final long MIN_MAPPED_SIZE = 64 * 1024;
+
+    private static final boolean JETTY_OUTPUT = isJettyAvailable();
+
+    private ResourceDelivery() {
+    }
+
+    private static boolean isJettyAvailable() {
+        try {
+            Class.forName("org.eclipse.jetty.server.HttpOutput", false, ResourceDelivery.class.getClassLoader());
+            return true;
+        } catch (final ClassNotFoundException | LinkageError e) {
+            return false;
+        }
+    }
+
+    /**
+     * Creates a strong entity tag for a stored document. The tag changes whenever the
+     * document is stored again, as this changes its last-modified time.
+     *
+     * @param doc the document
+     * @param length the length of the content
+     * @param variant describes the representation if the document can be sent in different
+     *                ways, e.g. the serialization parameters, or null
+     * @return the quoted entity tag
+     */
+    public static String createETag(final DocumentImpl doc, final long length, final String variant) {
+        final StringBuilder etag = new StringBuilder(48);
+        etag.append('"');
+        etag.append(Integer.toHexString(doc.getDocId()));
+        etag.append('-').append(Long.toHexString(doc.getMetadata().getLastModified()));
+        etag.append('-').append(Long.toHexString(length));
+        if (variant != null) {
+            etag.append('-').append(Integer.toHexString(variant.hashCode()));
+        }
+        etag.append('"');
+        return etag.toString();
+    }
+
+    /**
+     * Checks if the client accepts the given content coding, see RFC 7231, section 5.3.4.
+     *
+     * @param request the request
+     * @param coding the content coding, e.g. "gzip"
+     * @return true if the Accept-Encoding header lists the coding or "*" with a non-zero quality
+     */
+    public static boolean acceptsEncoding(final HttpServletRequest request, final String coding) {
+        final String header = request.getHeader("Accept-Encoding");
+        if (header == null) {
+            return false;
+        }
+        boolean accepted = false;
+        for (final String element : header.split(",")) {
+            final String[] params = element.split(";");
+            final String name = params[0].trim();
+            final boolean matches = name.equalsIgnoreCase(coding);
+            if (!matches && !"*".equals(name)) {
+                continue;
+            }
+            boolean zeroQuality = false;
+            for (int i = 1; i < params.length; i++) {
+                final String param = params[i].trim();
+                if (param.startsWith("q=") || param.startsWith("Q=")) {
+                    try {
+                        zeroQuality = Float.parseFloat(param.substring(2)) <= 0;
+                    } catch (final NumberFormatException e) {
+                        zeroQuality = true;
+                    }
+                }
+            }
+            if (matches) {
+                // an explicit entry overrides "*"
+                return !zeroQuality;
+            }
+            accepted = !zeroQuality;
+        }
+        return accepted;
+    }
+
+    /**
+     * Parses the value of a Range header, see RFC 7233. Only a single byte range is supported,
+     * a request for multiple ranges is answered with the complete content, which the RFC allows.
+     *
+     * @param header the value of the Range header, or null
+     * @param length the length of the content
+     * @return the requested range, {@link Range#UNSATISFIABLE} if the range does not overlap the
+     *      content, or null if the complete content should be sent
+     */
+    public static Range parseRange(final String header, final long length) {
+        if (header == null || !header.startsWith("bytes=") || header.indexOf(',') > -1) {
+            return null;
+        }
+        final String spec = header.substring("bytes=".length()).trim();
+        final int dash = spec.indexOf('-');
+        if (dash < 0) {
+            return null;
+        }
+        try {
+            final String first = spec.substring(0, dash).trim();
+            final String last = spec.substring(dash + 1).trim();
+            if (first.isEmpty()) {
+                // suffix range: the last n bytes
+                final long suffix = Long.parseLong(last);
+                if (suffix < 0) {
+                    return null;
+                }
+                if (suffix == 0 || length == 0) {
+                    return Range.UNSATISFIABLE;
+                }
+                return new Range(Math.max(0, length - suffix), length - 1);
+            }
+            final long start = Long.parseLong(first);
+            final long end = last.isEmpty() ? Long.MAX_VALUE : Long.parseLong(last);
+            if (start < 0 || end < start) {
+                return null;
+            }
+            if (start >= length) {
+                return Range.UNSATISFIABLE;
+            }
+            return new Range(start, Math.min(end, length - 1));
+        } catch (final NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Writes a part of a file to an output stream. If the stream belongs to a Jetty response,
+     * the file is mapped into memory and handed to Jetty, which writes it to the socket without
+     * copying it. Otherwise the bytes are transferred through a channel, so no byte array
+     * has to be allocated for them.
+     *
+     * @param channel the file
+     * @param position the position of the first byte to send
+     * @param count the number of bytes to send
+     * @param os the output stream, which is closed if the content is handed to Jetty
+     * @throws IOException if the file cannot be read or the stream cannot be written
+     */
+    public static void send(final FileChannel channel, final long position, final long count, final OutputStream os)
+            throws IOException {
+        if (JETTY_OUTPUT && count >= MIN_MAPPED_SIZE && count <= Integer.MAX_VALUE
+                && JettyOutput.send(channel, position, count, os)) {
+            return;
+        }
+        final WritableByteChannel target = os instanceof WritableByteChannel ?
+            (WritableByteChannel) os : Channels.newChannel(os);
+        long pos = position;
+        final long end = position + count;
+        while (pos < end) {
+            final long transferred = channel.transferTo(pos, end - pos, target);
+            if (transferred <= 0) {
+                throw new IOException("Unexpected end of file at position " + pos);
+            }
+            pos += transferred;
+        }
+        os.flush();
+    }
+
+    /**
+     * Isolates the references to Jetty, so the class is only loaded if it is available.
+     */
+    private static final class JettyOutput {
+
+        private static boolean send(final FileChannel channel, final long position, final long count,
+                final OutputStream os) throws IOException {
+            if (!(os instanceof org.eclipse.jetty.server.HttpOutput)) {
+                return false;
+            }
+            if (LOG.isTraceEnabled()) {
+                LOG.trace("Sending " + count + " bytes from mapped file");
+            }
+            ((org.eclipse.jetty.server.HttpOutput) os).sendContent(
+                channel.map(FileChannel.MapMode.READ_ONLY, position, count));
+            return true;
+        }
+    }
+
+    /**
+     * A byte range of the content.
+     */
+    public static final class Range {
+
+        /**
+         * Returned by {@link #parseRange(String, long)} if the range is not satisfiable.
+         */
+        public static final Range UNSATISFIABLE = new Range(-1, -1);
+
+        private final long start;
+        private final long end;
+
+        private Range(final long start, final long end) {
+            this.start = start;
+            this.end = end;
+        }
+
+        /**
+         * @return the position of the first byte
+         */
+        public long getStart() {
+            return start;
+        }
+
+        /**
+         * @return the position of the last byte
+         */
+        public long getEnd() {
+            return end;
+        }
+
+        public long getLength() {
+            return end - start + 1;
+        }
+    }
+}
@@ -0,0 +1,557 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2015 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.http;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.exist.http.servlets.XQueryServlet;
+import org.exist.security.MessageDigester;
+import org.exist.security.Subject;
+import org.exist.source.Source;
+import org.exist.storage.DBBroker;
+import org.exist.storage.ResponseCache;
+import org.exist.storage.ResponseCache.CachedResponse;
+import org.exist.storage.ResponseCache.PendingResponse;
+import org.exist.xmldb.XmldbURI;
+import org.exist.xquery.Option;
+import org.exist.xquery.XPathException;
+import org.exist.xquery.XQueryContext;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+import javax.servlet.http.HttpSession;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+/**
+ * Serves the response of an XQuery called via HTTP from the {@link ResponseCache}, or
+ * captures the response while the query is executed and adds it to the cache. Also
+ * handles the ETag and If-None-Match headers for cached responses.
+ *
+ * Usage:
+ * <pre>
+ * final ResponseCacheHandler handler = ResponseCacheHandler.create(broker, source, context, request, response);
+ * if (handler != null &amp;&amp; handler.sendCached()) {
+ *     return;
+ * }
+ * final HttpServletResponse out = handler == null ? response : handler.begin();
+ * boolean success = false;
+ * try {
+ *     // execute the query and write the results to out
+ *     success = true;
+ * } finally {
+ *     if (handler != null) {
+ *         handler.end(success);
+ *     }
+ * }
+ * </pre>
+ *
+ * Only GET requests are cached. The key of a response is built from the query source,
+ * the request URI and parameters, the user and its groups and the request headers listed
+ * by the caching policy. Responses which set a cookie, create a session or have a status
+ * other than 200 are not cached.
+ */
+public class ResponseCacheHandler {
+
+    private final static Logger LOG = LogManager.getLogger(ResponseCacheHandler.class);
+
+    private final ResponseCache cache;
+    private final DBBroker broker;
+    private final Source source;
+    private final ResponseCache.Policy policy;
+    private final String key;
+    private final HttpServletRequest request;
+    private final HttpServletResponse response;
+
+    private CapturingResponseWrapper capture = null;
+    private Set<XmldbURI> accessedCollections = null;
+    private Set<XmldbURI> previousTracking = null;
+    private PendingResponse pending = null;
+
+    private ResponseCacheHandler(final ResponseCache cache, final DBBroker broker, final Source source,
+            final ResponseCache.Policy policy, final HttpServletRequest request, final HttpServletResponse response) {
+        this.cache = cache;
+        this.broker = broker;
+        this.source = source;
+        this.policy = policy;
+        this.request = request;
+        this.response = response;
+        this.key = createKey(source, request, broker.getCurrentSubject(), policy);
+    }
+
+    /**
+     * Creates a handler if the response of the query may be cached. Caching is enabled
+     * by the option exist:response-cache of the query or, if the query does not declare
+     * the option, by the request attribute {@link XQueryServlet#ATTR_RESPONSE_CACHE}, which
+     * may be set by the URL rewriting controller.
+     *
+     * @param broker the broker executing the query
+     * @param source the source of the query
+     * @param context the context of the compiled query
+     * @param request the HTTP request
+     * @param response the HTTP response
+     * @return the handler, or null if the response is not to be cached
+     * @throws XPathException if the caching policy is invalid
+     */
+    public static ResponseCacheHandler create(final DBBroker broker, final Source source, final XQueryContext context,
+            final HttpServletRequest request, final HttpServletResponse response) throws XPathException {
+        final ResponseCache cache = broker.getBrokerPool().getResponseCache();
+        if (cache == null || !cache.isEnabled() || !"GET".equalsIgnoreCase(request.getMethod())) {
+            return null;
+        }
+        final String contents;
+        final Option option = context.getOption(Option.RESPONSE_CACHE_QNAME);
+        if (option != null) {
+            contents = option.getContents();
+        } else {
+            final Object attribute = request.getAttribute(XQueryServlet.ATTR_RESPONSE_CACHE);
+            if (attribute == null) {
+                return null;
+            }
+            contents = attribute.toString();
+        }
+        final ResponseCache.Policy policy;
+        try {
+            policy = ResponseCache.Policy.parse(contents);
+        } catch (final IllegalArgumentException e) {
+            throw new XPathException(e.getMessage());
+        }
+        if (policy == null) {
+            return null;
+        }
+        return new ResponseCacheHandler(cache, broker, source, policy, request, response);
+    }
+
+    /**
+     * Sends the cached response if there is one. If the request has an If-None-Match header
+     * matching the ETag of the cached response, only the status 304 (not modified) is sent.
+     *
+     * @return true if the response has been sent
+     * @throws IOException if the response cannot be written
+     */
+    public boolean sendCached() throws IOException {
+        final CachedResponse cached = cache.get(broker, key);
+        if (cached == null) {
+            return false;
+        }
+        setHeaders(response, cached.getHeaders());
+        send(cached.getContent(), cached.getContentType(), cached.getETag());
+        return true;
+    }
+
+    /**
+     * Starts capturing the response and recording the collections read by the query.
+     *
+     * @return the response to be passed to the query and written to
+     */
+    public HttpServletResponse begin() {
+        pending = cache.begin();
+        accessedCollections = new HashSet<>();
+        previousTracking = broker.trackCollectionAccess(accessedCollections);
+        capture = new CapturingResponseWrapper(response, (int) Math.min(Integer.MAX_VALUE, cache.getMaxEntrySize()));
+        return capture;
+    }
+
+    /**
+     * Stops capturing the response. If the query succeeded and the response may be cached,
+     * it is added to the cache and sent with an ETag. Otherwise the captured data is sent
+     * as it is.
+     *
+     * @param success true if the query has been executed and its results have been written
+     * @throws IOException if the response cannot be written
+     */
+    public void end(final boolean success) throws IOException {
+        broker.trackCollectionAccess(previousTracking);
+        if (previousTracking != null) {
+            previousTracking.addAll(accessedCollections);
+        }
+        if (capture == null) {
+            return;
+        }
+        final HttpSession session = request.getSession(false);
+        if (!success || !capture.isCacheable() || (session != null && session.isNew())) {
+            cache.cancel(pending);
+            capture.release();
+            return;
+        }
+
+        final byte[] content = capture.getData();
+        final String etag = createETag(content);
+        final List<String[]> headers = capture.getCapturedHeaders();
+        final Set<XmldbURI> dependencies = new HashSet<>(accessedCollections);
+        dependencies.addAll(policy.getCollections());
+        final String contentType = response.getContentType();
+        final CachedResponse cached = new CachedResponse(content, contentType, etag, headers, dependencies, source,
+                policy.getMaxAge());
+        if (cache.put(key, cached, pending) && LOG.isDebugEnabled()) {
+            LOG.debug("Cached response of " + source.path() + " for " + request.getRequestURI() + ": "
+                + content.length + " bytes, depends on " + dependencies);
+        }
+        send(content, contentType, etag);
+    }
+
+    private void send(final byte[] content, final String contentType, final String etag) throws IOException {
+        response.setHeader("ETag", etag);
+        if (matchesETag(request.getHeader("If-None-Match"), etag)) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+        if (contentType != null) {
+            response.setContentType(contentType);
+        }
+        response.setContentLength(content.length);
+        final OutputStream os = response.getOutputStream();
+        os.write(content);
+        os.flush();
+    }
+
+    /**
+     * Checks if the value of an If-None-Match header matches an entity tag.
+     * Weak comparison is used as required for If-None-Match.
+     *
+     * @param ifNoneMatch the value of the header, may be null
+     * @param etag the entity tag of the current representation
+     * @return true if the header matches
+     */
+    public static boolean matchesETag(final String ifNoneMatch, final String etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        final String opaqueTag = etag.startsWith("W/") ? etag.substring(2) : etag;
+        for (String tag : ifNoneMatch.split(",")) {
+            tag = tag.trim();
+            if ("*".equals(tag)) {
+                return true;
+            }
+            if (tag.startsWith("W/")) {
+                tag = tag.substring(2);
+            }
+            if (tag.equals(opaqueTag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Creates a strong entity tag from the content.
+     */
+    private static String createETag(final byte[] content) {
+        try {
+            final MessageDigest md = MessageDigest.getInstance("MD5");
+            return '"' + MessageDigester.byteArrayToHex(md.digest(content)) + '"';
+        } catch (final NoSuchAlgorithmException e) {
+            return '"' + Integer.toHexString(Arrays.hashCode(content)) + '-' + content.length + '"';
+        }
+    }
+
+    private static String createKey(final Source source, final HttpServletRequest request, final Subject subject,
+            final ResponseCache.Policy policy) {
+        final StringBuilder key = new StringBuilder();
+        // every part is prefixed by its length, so different requests cannot produce the same key
+        appendKey(key, source.type());
+        appendKey(key, String.valueOf(source.getKey()));
+        appendKey(key, request.getRequestURI());
+        final Map<String, String[]> parameters = new TreeMap<>(request.getParameterMap());
+        for (final Map.Entry<String, String[]> parameter : parameters.entrySet()) {
+            appendKey(key, parameter.getKey());
+            key.append(parameter.getValue().length).append('|');
+            for (final String value : parameter.getValue()) {
+                appendKey(key, value);
+            }
+        }
+        key.append('#');
+        appendKey(key, subject == null ? "" : subject.getName());
+        if (subject != null) {
+            final String[] groups = subject.getGroups().clone();
+            Arrays.sort(groups);
+            for (final String group : groups) {
+                appendKey(key, group);
+            }
+        }
+        for (final String header : policy.getVary()) {
+            key.append('#');
+            appendKey(key, header);
+            for (final Enumeration<String> values = request.getHeaders(header); values != null && values.hasMoreElements(); ) {
+                appendKey(key, values.nextElement());
+            }
+        }
+        return key.toString();
+    }
+
+    private static void appendKey(final StringBuilder key, final String part) {
+        key.append(part.length()).append(':').append(part);
+    }
+
+    private static void setHeaders(final HttpServletResponse response, final List<String[]> headers) {
+        final Set<String> names = new HashSet<>();
+        for (final String[] header : headers) {
+            if (names.add(header[0].toLowerCase())) {
+                response.setHeader(header[0], header[1]);
+            } else {
+                response.addHeader(header[0], header[1]);
+            }
+        }
+    }
+
+    /**
+     * Buffers the content written to the response and records the headers set, so they
+     * can be cached. Headers are passed on to the wrapped response immediately. If the
+     * content exceeds the given limit, the buffered content is written to the wrapped
+     * response and the response is no longer cacheable.
+     */
+    private static class CapturingResponseWrapper extends HttpServletResponseWrapper {
+
+        private final int maxSize;
+        private final Map<String, String> headerNames = new LinkedHashMap<>();
+        private final CapturingOutputStream sos = new CapturingOutputStream();
+        private PrintWriter writer = null;
+        private boolean cacheable = true;
+
+        CapturingResponseWrapper(final HttpServletResponse response, final int maxSize) {
+            super(response);
+            this.maxSize = maxSize;
+        }
+
+        boolean isCacheable() {
+            return cacheable;
+        }
+
+        byte[] getData() throws IOException {
+            if (writer != null) {
+                writer.flush();
+            }
+            return sos.buffer.toByteArray();
+        }
+
+        List<String[]> getCapturedHeaders() {
+            final List<String[]> headers = new ArrayList<>();
+            for (final String name : headerNames.values()) {
+                final HttpServletResponse response = (HttpServletResponse) getResponse();
+                for (final String value : response.getHeaders(name)) {
+                    headers.add(new String[] { name, value });
+                }
+            }
+            return headers;
+        }
+
+        /**
+         * Writes the buffered content to the wrapped response and stops buffering.
+         */
+        void release() throws IOException {
+            if (writer != null) {
+                writer.flush();
+            }
+            uncacheable();
+        }
+
+        private void uncacheable() throws IOException {
+            cacheable = false;
+            if (sos.buffer != null) {
+                final byte[] data = sos.buffer.toByteArray();
+                sos.buffer = null;
+                if (data.length > 0) {
+                    super.getOutputStream().write(data);
+                }
+            }
+        }
+
+        private void recordHeader(final String name) {
+            if ("Content-Type".equalsIgnoreCase(name) || "Content-Length".equalsIgnoreCase(name)) {
+                return;
+            }
+            headerNames.put(name.toLowerCase(), name);
+        }
+
+        @Override
+        public ServletOutputStream getOutputStream() throws IOException {
+            if (writer != null) {
+                throw new IllegalStateException("getWriter() has already been called");
+            }
+            return sos;
+        }
+
+        @Override
+        public PrintWriter getWriter() throws IOException {
+            if (writer == null) {
+                writer = new PrintWriter(new OutputStreamWriter(sos, getCharacterEncoding()));
+            }
+            return writer;
+        }
+
+        @Override
+        public void setHeader(final String name, final String value) {
+            super.setHeader(name, value);
+            recordHeader(name);
+        }
+
+        @Override
+        public void addHeader(final String name, final String value) {
+            super.addHeader(name, value);
+            recordHeader(name);
+        }
+
+        @Override
+        public void setDateHeader(final String name, final long date) {
+            super.setDateHeader(name, date);
+            recordHeader(name);
+        }
+
+        @Override
+        public void addDateHeader(final String name, final long date) {
+            super.addDateHeader(name, date);
+            recordHeader(name);
+        }
+
+        @Override
+        public void setIntHeader(final String name, final int value) {
+            super.setIntHeader(name, value);
+            recordHeader(name);
+        }
+
+        @Override
+        public void addIntHeader(final String name, final int value) {
+            super.addIntHeader(name, value);
+            recordHeader(name);
+        }
+
+        @Override
+        public void addCookie(final Cookie cookie) {
+            super.addCookie(cookie);
+            cacheable = false;
+        }
+
+        @Override
+        public void setStatus(final int sc) {
+            super.setStatus(sc);
+            if (sc != HttpServletResponse.SC_OK) {
+                cacheable = false;
+            }
+        }
+
+        @Override
+        public void sendError(final int sc, final String msg) throws IOException {
+            uncacheable();
+            super.sendError(sc, msg);
+        }
+
+        @Override
+        public void sendError(final int sc) throws IOException {
+            uncacheable();
+            super.sendError(sc);
+        }
+
+        @Override
+        public void sendRedirect(final String location) throws IOException {
+            uncacheable();
+            super.sendRedirect(location);
+        }
+
+        @Override
+        public void setContentLength(final int len) {
+            if (sos.buffer == null) {
+                super.setContentLength(len);
+            }
+        }
+
+        @Override
+        public void setContentLengthLong(final long len) {
+            if (sos.buffer == null) {
+                super.setContentLengthLong(len);
+            }
+        }
+
+        @Override
+        public void flushBuffer() throws IOException {
+            if (sos.buffer == null) {
+                super.flushBuffer();
+            }
+        }
+
+        @Override
+        public void resetBuffer() {
+            if (sos.buffer != null) {
+                sos.buffer.reset();
+            } else {
+                super.resetBuffer();
+            }
+        }
+
+        private class CapturingOutputStream extends ServletOutputStream {
+
+            private ByteArrayOutputStream buffer = new ByteArrayOutputStream(4096);
+
+            @Override
+            public void write(final int b) throws IOException {
+                if (buffer != null && buffer.size() < maxSize) {
+                    buffer.write(b);
+                } else {
+                    uncacheable();
+                    CapturingResponseWrapper.super.getOutputStream().write(b);
+                }
+            }
+
+            @Override
+            public void write(final byte[] b, final int off, final int len) throws IOException {
+                if (buffer != null && buffer.size() + len <= maxSize) {
+                    buffer.write(b, off, len);
+                } else {
+                    uncacheable();
+                    CapturingResponseWrapper.super.getOutputStream().write(b, off, len);
+                }
+            }
+
+            @Override
+            public void flush() throws IOException {
+                if (buffer == null) {
+                    CapturingResponseWrapper.super.getOutputStream().flush();
+                }
+            }
+
+            @Override
+            public void close() throws IOException {
+                // the handler sends the buffered content, so only close when streaming
+                if (buffer == null) {
+                    CapturingResponseWrapper.super.getOutputStream().close();
+                }
+            }
+
+            @Override
+            public boolean isReady() {
+                return true;
+            }
+
+            @Override
+            public void setWriteListener(final WriteListener writeListener) {
+                throw new UnsupportedOperationException();
+            }
+        }
+    }
+}
@@ -23,8 +23,10 @@
 package org.exist.http.servlets;
 
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
+import java.io.Writer;
 import java.net.URISyntaxException;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
@@ -56,8 +58,10 @@ import org.exist.source.SourceFactory;
 import org.exist.source.StringSource;
 import org.exist.storage.DBBroker;
 import org.exist.util.MimeTable;
+import org.exist.util.serializer.SerializerPool;
 import org.exist.util.serializer.XQuerySerializer;
 import org.exist.xmldb.XmldbURI;
+import org.exist.http.ResponseCacheHandler;
 import org.exist.xquery.CompiledXQuery;
 import org.exist.xquery.Constants;
 import org.exist.xquery.XPathException;
@@ -116,6 +120,7 @@ public class XQueryServlet extends AbstractExistHttpServlet {
     public static final String ATTR_TIMEOUT = "xquery.timeout";
     public static final String ATTR_MAX_NODES = "xquery.max-nodes";
     public static final String ATTR_MODULE_LOAD_PATH = "xquery.module-load-path";
+    public static final String ATTR_RESPONSE_CACHE = "xquery.response-cache";
 
     public final static XmldbURI DEFAULT_URI = XmldbURI.EMBEDDED_SERVER_URI.append(XmldbURI.ROOT_COLLECTION_URI);
     public final static String DEFAULT_CONTENT_TYPE = "text/html";
@@ -436,11 +441,21 @@ public class XQueryServlet extends AbstractExistHttpServlet {
                context.setModuleLoadPath(moduleLoadPath);
             }
 
+            // results passed on in a request attribute are never cached
+            final ResponseCacheHandler cacheHandler = requestAttr == null ?
+                    ResponseCacheHandler.create(broker, source, context, request, response) : null;
+            if (cacheHandler != null && cacheHandler.sendCached()) {
+                getPool().getXQueryPool().returnCompiledXQuery(source, query);
+                output.close();
+                return;
+            }
+            final HttpServletResponse queryResponse = cacheHandler == null ? response : cacheHandler.begin();
+
             final Properties outputProperties = new Properties();
             outputProperties.put("base-uri", collectionURI.toString());
             
             context.declareVariable(RequestModule.PREFIX + ":request", new HttpRequestWrapper(request, getFormEncoding(), getContainerEncoding()));
-            context.declareVariable(ResponseModule.PREFIX + ":response", new HttpResponseWrapper(response));
+            context.declareVariable(ResponseModule.PREFIX + ":response", new HttpResponseWrapper(queryResponse));
             context.declareVariable(SessionModule.PREFIX + ":session", ( session != null ? new HttpSessionWrapper( session ) : null ) );
 
             final String timeoutOpt = (String) request.getAttribute(ATTR_TIMEOUT);
@@ -465,47 +480,63 @@ public class XQueryServlet extends AbstractExistHttpServlet {
 
             DebuggeeFactory.checkForDebugRequest(request, context);
 
-            Sequence resultSequence;
+            boolean success = false;
             try {
-                resultSequence = xquery.execute(broker, query, null, outputProperties);
-                
-            } finally {
-                context.runCleanupTasks();
-                getPool().getXQueryPool().returnCompiledXQuery(source, query);
-            }
+                Sequence resultSequence;
+                try {
+                    resultSequence = xquery.execute(broker, query, null, outputProperties);
 
-            final String mediaType = outputProperties.getProperty(OutputKeys.MEDIA_TYPE);
-            if (mediaType != null) {
-                if (!response.isCommitted())
-                	{if (MimeTable.getInstance().isTextContent(mediaType)) {
-                		response.setContentType(mediaType + "; charset=" + getFormEncoding());
-                        response.setCharacterEncoding(getFormEncoding());
-                    } else
-                		response.setContentType(mediaType);}
-                
-            } else {
-	            String contentType = this.contentType;
-	            try {
-	                contentType = getServletContext().getMimeType(path);
-	                if (contentType == null)
-	                    {contentType = this.contentType;}
-                    
-	            } catch (final Throwable e) {
-	                contentType = this.contentType;
-                    
-	            } finally {
-	                if (MimeTable.getInstance().isTextContent(contentType))
-	                    {contentType += "; charset=" + getFormEncoding();}
-	                response.setContentType(contentType );
-	            }
-            }
-            
-            if (requestAttr != null && (XmldbURI.API_LOCAL.equals(collectionURI.getApiName())) ) {
-                request.setAttribute(requestAttr, resultSequence);
-                
-            } else {
-                XQuerySerializer serializer = new XQuerySerializer(broker, outputProperties, output);
-                serializer.serialize(resultSequence);
+                } finally {
+                    context.runCleanupTasks();
+                    getPool().getXQueryPool().returnCompiledXQuery(source, query);
+                }
+
+                final String mediaType = outputProperties.getProperty(OutputKeys.MEDIA_TYPE);
+                if (mediaType != null) {
+                    if (!response.isCommitted())
+                    	{if (MimeTable.getInstance().isTextContent(mediaType)) {
+                    		response.setContentType(mediaType + "; charset=" + getFormEncoding());
+                            response.setCharacterEncoding(getFormEncoding());
+                        } else
+                    		response.setContentType(mediaType);}
+
+                } else {
+    	            String contentType = this.contentType;
+    	            try {
+    	                contentType = getServletContext().getMimeType(path);
+    	                if (contentType == null)
+    	                    {contentType = this.contentType;}
+
+    	            } catch (final Throwable e) {
+    	                contentType = this.contentType;
+
+    	            } finally {
+    	                if (MimeTable.getInstance().isTextContent(contentType))
+    	                    {contentType += "; charset=" + getFormEncoding();}
+    	                response.setContentType(contentType );
+    	            }
+                }
+
+                if (requestAttr != null && (XmldbURI.API_LOCAL.equals(collectionURI.getApiName())) ) {
+                    request.setAttribute(requestAttr, resultSequence);
+
+                } else {
+                    output.flush();
+                    final OutputStream os = cacheHandler == null ? sout : queryResponse.getOutputStream();
+                    final Writer writer = SerializerPool.getInstance().borrowWriter(os, getFormEncoding());
+                    try {
+                        XQuerySerializer serializer = new XQuerySerializer(broker, outputProperties, writer);
+                        serializer.serialize(resultSequence);
+                        writer.flush();
+                    } finally {
+                        SerializerPool.getInstance().returnWriter(writer);
+                    }
+                }
+                success = true;
+            } finally {
+                if (cacheHandler != null) {
+                    cacheHandler.end(success);
+                }
             }
             
 		} catch (final PermissionDeniedException e) {
@@ -25,16 +25,12 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import org.exist.EXistException;
-import org.exist.collections.Collection;
-import org.exist.dom.persistent.DocumentImpl;
 import org.exist.security.AuthenticationException;
-import org.exist.security.Permission;
 import org.exist.security.PermissionDeniedException;
 import org.exist.security.Subject;
 import org.exist.security.internal.web.HttpAccount;
 import org.exist.storage.BrokerPool;
 import org.exist.storage.DBBroker;
-import org.exist.storage.lock.Lock.LockMode;
 import org.exist.storage.serializers.Serializer;
 import org.exist.storage.serializers.XIncludeFilter;
 import org.exist.util.serializer.Receiver;
@@ -49,6 +45,7 @@ import org.exist.xquery.value.Item;
 import org.exist.xquery.value.NodeValue;
 import org.exist.xquery.value.Type;
 import org.exist.xquery.value.ValueSequence;
+import org.exist.xslt.TemplatesCache;
 import org.exist.xslt.TransformerFactoryAllocator;
 
 import org.xml.sax.InputSource;
@@ -61,18 +58,13 @@ import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
-import javax.xml.transform.Source;
 import javax.xml.transform.Templates;
 import javax.xml.transform.Transformer;
 import javax.xml.transform.TransformerConfigurationException;
 import javax.xml.transform.TransformerException;
-import javax.xml.transform.URIResolver;
-import javax.xml.transform.dom.DOMSource;
 import javax.xml.transform.sax.SAXResult;
 import javax.xml.transform.sax.SAXTransformerFactory;
-import javax.xml.transform.sax.TemplatesHandler;
 import javax.xml.transform.sax.TransformerHandler;
-import javax.xml.transform.stream.StreamSource;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedWriter;
@@ -106,25 +98,6 @@ public class XSLTServlet extends HttpServlet {
 
     private BrokerPool pool;
 
-    private final Map<String, CachedStylesheet> cache = new HashMap<String, CachedStylesheet>();
-    private Boolean caching = null;
-
-    /**
-     * @return Value of TransformerFactoryAllocator.PROPERTY_CACHING_ATTRIBUTE or TRUE if not present.
-     */
-    private boolean isCaching() {
-        if (caching == null) {
-            final Object property = pool.getConfiguration().getProperty(TransformerFactoryAllocator.PROPERTY_CACHING_ATTRIBUTE);
-            if (property != null) {
-                caching = (Boolean) property;
-            } else {
-                caching = true;
-            }
-        }
-        return caching;
-    }
-
-
     @Override
     protected void doPost(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
 
@@ -191,15 +164,18 @@ public class XSLTServlet extends HttpServlet {
         }
 
         final SAXTransformerFactory factory = TransformerFactoryAllocator.getTransformerFactory(pool);
-        final Templates templates = getSource(user, request, response, factory, stylesheet);
-        if (templates == null) {
+        final String stylesheetUri = resolveStylesheet(request, response, stylesheet);
+        if (stylesheetUri == null) {
             return;
         }
+        final Templates templates = getSource(user, stylesheetUri);
 
         //do the transformation
         try (final DBBroker broker = pool.get(Optional.of(user))) {
 
             final TransformerHandler handler = factory.newTransformerHandler(templates);
+            // documents are read as the user of this request, not as the one the stylesheet was compiled for
+            handler.getTransformer().setURIResolver(TemplatesCache.newURIResolver(broker, stylesheetUri));
             setTransformerParameters(request, handler.getTransformer());
 
             final Properties properties = handler.getTransformer().getOutputProperties();
@@ -306,9 +282,8 @@ public class XSLTServlet extends HttpServlet {
     /*
      * Please add comments to this method. make assumption clear. These might not be valid.
      */
-    private Templates getSource(Subject user, HttpServletRequest request, HttpServletResponse response,
-                                SAXTransformerFactory factory, String stylesheet)
-            throws ServletException, IOException {
+    private String resolveStylesheet(HttpServletRequest request, HttpServletResponse response, String stylesheet)
+            throws IOException {
 
         // Check if stylesheet contains an URI. If not, try to resolve from file system
         if (stylesheet.indexOf(':') == Constants.STRING_NOT_FOUND) {
@@ -348,26 +323,30 @@ public class XSLTServlet extends HttpServlet {
             }
         }
 
-        // Try to figure out the base directory of the stylesheet file.
-        // This is required to locate resources imported within the stylesheet.
-        String base;
-        final int p = stylesheet.lastIndexOf("/");
-        if (p != Constants.STRING_NOT_FOUND) {
-            base = stylesheet.substring(0, p);
-        } else {
-            base = stylesheet;
-        }
+        return stylesheet;
+    }
 
+    private Templates getSource(Subject user, String stylesheet) throws ServletException {
         if (LOG.isDebugEnabled()) {
             LOG.debug("Loading stylesheet from " + stylesheet);
         }
 
-        CachedStylesheet cached = cache.get(stylesheet);
-        if (cached == null) {
-            cached = new CachedStylesheet(factory, user, stylesheet, base);
-            cache.put(stylesheet, cached);
+        try (final DBBroker broker = pool.get(Optional.of(user))) {
+            return pool.getTemplatesCache().getTemplates(broker, stylesheet, null, null);
+
+        } catch (final PermissionDeniedException e) {
+            throw new ServletException("Permission denied to read stylesheet: " + stylesheet, e);
+
+        } catch (final EXistException e) {
+            throw new ServletException("Error while reading stylesheet source from db: " + e.getMessage(), e);
+
+        } catch (final TransformerConfigurationException e) {
+            throw new ServletException("Error while compiling stylesheet: " + stylesheet + ": " + e.getMessage(), e);
+
+        } catch (final IOException e) {
+            throw new ServletException("Error while reading stylesheet source from uri: " + stylesheet +
+                    ": " + e.getMessage(), e);
         }
-        return cached.getTemplates(user);
     }
 
     /*
@@ -431,185 +410,4 @@ public class XSLTServlet extends HttpServlet {
             }
         }
     }
-
-    private class CachedStylesheet {
-
-        SAXTransformerFactory factory;
-        long lastModified = -1;
-        Templates templates = null;
-        String uri;
-
-        public CachedStylesheet(SAXTransformerFactory factory, Subject user, String uri, String baseURI) throws ServletException {
-            this.factory = factory;
-            this.uri = uri;
-            if (!baseURI.startsWith("xmldb:exist://")) {
-                factory.setURIResolver(new ExternalResolver(baseURI));
-            }
-            getTemplates(user);
-        }
-
-        public Templates getTemplates(Subject user) throws ServletException {
-            if (uri.startsWith("xmldb:exist://")) {
-                final String docPath = uri.substring("xmldb:exist://".length());
-
-
-                try (final DBBroker broker = pool.get(Optional.of(user))) {
-                    DocumentImpl doc = null;
-                    try {
-                        doc = broker.getXMLResource(XmldbURI.create(docPath), LockMode.READ_LOCK);
-                        if (doc == null) {
-                            throw new ServletException("Stylesheet not found: " + docPath);
-                        }
-
-                        if (!isCaching() || (doc != null && (templates == null
-                                || doc.getMetadata().getLastModified() > lastModified))) {
-                            templates = getSource(broker, doc);
-                        }
-
-                        lastModified = doc.getMetadata().getLastModified();
-                    } finally {
-                        if (doc != null) {
-                            doc.getUpdateLock().release(LockMode.READ_LOCK);
-                        }
-                    }
-                } catch (final PermissionDeniedException e) {
-                    throw new ServletException("Permission denied to read stylesheet: " + uri, e);
-
-                } catch (final EXistException e) {
-                    throw new ServletException("Error while reading stylesheet source from db: " + e.getMessage(), e);
-
-                }
-            } else {
-                try {
-                    final URL url = new URL(uri);
-                    final URLConnection connection = url.openConnection();
-                    long modified = connection.getLastModified();
-
-                    if (!isCaching() || (templates == null || modified > lastModified || modified == 0)) {
-                        LOG.debug("compiling stylesheet " + url.toString());
-                        templates = factory.newTemplates(new StreamSource(connection.getInputStream()));
-                    }
-                    lastModified = modified;
-
-                } catch (final IOException e) {
-                    throw new ServletException("Error while reading stylesheet source from uri: " + uri +
-                            ": " + e.getMessage(), e);
-
-                } catch (final TransformerConfigurationException e) {
-                    throw new ServletException("Error while reading stylesheet source from uri: " + uri +
-                            ": " + e.getMessage(), e);
-                }
-            }
-            return templates;
-        }
-
-        private Templates getSource(DBBroker broker, DocumentImpl stylesheet)
-                throws ServletException {
-            factory.setURIResolver(new DatabaseResolver(broker, stylesheet));
-            try {
-                final TemplatesHandler handler = factory.newTemplatesHandler();
-                handler.startDocument();
-
-                final Serializer serializer = broker.getSerializer();
-                serializer.reset();
-                serializer.setSAXHandlers(handler, null);
-                serializer.toSAX(stylesheet);
-
-                handler.endDocument();
-                return handler.getTemplates();
-
-            } catch (final SAXException e) {
-                throw new ServletException("A SAX exception occurred while compiling the stylesheet: "
-                        + e.getMessage(), e);
-
-            } catch (final TransformerConfigurationException e) {
-                throw new ServletException("A configuration exception occurred while " +
-                        "compiling the stylesheet: " + e.getMessage(), e);
-            }
-        }
-    }
-
-    /*
-     * TODO: create generic resolver for whole database
-     */
-    private static class ExternalResolver implements URIResolver {
-
-        private String baseURI;
-
-        public ExternalResolver(String base) {
-            this.baseURI = base;
-        }
-
-        /* (non-Javadoc)
-         * @see javax.xml.transform.URIResolver#resolve(java.lang.String, java.lang.String)
-         */
-        @Override
-        public Source resolve(String href, String base)
-                throws TransformerException {
-            URL url;
-            try {
-                //TODO : use dedicated function in XmldbURI
-                url = new URL(baseURI + "/" + href);
-                final URLConnection connection = url.openConnection();
-                return new StreamSource(connection.getInputStream());
-
-            } catch (final MalformedURLException e) {
-                return null;
-
-            } catch (final IOException e) {
-                return null;
-            }
-        }
-    }
-
-    /*
-     * TODO: create generic resolver for whole database
-     */
-    private static class DatabaseResolver implements URIResolver {
-
-        DocumentImpl doc;
-        DBBroker broker;
-
-        public DatabaseResolver(DBBroker broker, DocumentImpl myDoc) {
-            this.broker = broker;
-            this.doc = myDoc;
-        }
-
-
-        /* (non-Javadoc)
-         * @see javax.xml.transform.URIResolver#resolve(java.lang.String, java.lang.String)
-         */
-        @Override
-        public Source resolve(String href, String base)
-                throws TransformerException {
-            final Collection collection = doc.getCollection();
-            String path;
-
-            //TODO : use dedicated function in XmldbURI
-            if (href.startsWith("/")) {
-                path = href;
-            } else {
-                path = collection.getURI() + "/" + href;
-            }
-
-            DocumentImpl xslDoc;
-            try {
-                xslDoc = (DocumentImpl) broker.getXMLResource(XmldbURI.create(path));
-            } catch (final PermissionDeniedException e) {
-                throw new TransformerException(e.getMessage(), e);
-            }
-
-            if (xslDoc == null) {
-                LOG.debug("Document " + href + " not found in collection " + collection.getURI());
-                return null;
-            }
-
-            if (!xslDoc.getPermissions().validate(broker.getCurrentSubject(), Permission.READ)) {
-                throw new TransformerException("Insufficient privileges to read resource " + path);
-            }
-
-            final DOMSource source = new DOMSource(xslDoc);
-            return source;
-        }
-    }
 }
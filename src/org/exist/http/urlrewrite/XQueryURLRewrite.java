@@ -431,7 +431,6 @@ public class XQueryURLRewrite extends HttpServlet {
 
     	final String encoding = outputProperties.getProperty(OutputKeys.ENCODING);
         final ServletOutputStream sout = response.getOutputStream();
-        final PrintWriter output = new PrintWriter(new OutputStreamWriter(sout, encoding));
 		if (!response.containsHeader("Content-Type")){
 			String mimeType = outputProperties.getProperty(OutputKeys.MEDIA_TYPE);
 			if (mimeType != null) {
@@ -447,13 +446,12 @@ public class XQueryURLRewrite extends HttpServlet {
 //        response.addHeader( "Cache-Control", "no-cache" );
 
     	try {
-            XQuerySerializer serializer = new XQuerySerializer(broker, outputProperties, output);
+            XQuerySerializer serializer = new XQuerySerializer(broker, outputProperties, sout);
         	serializer.serialize(resultSequence);
     	} catch (final SAXException | XPathException e) {
     		throw new IOException(e);
     	}
-    	output.flush();
-    	output.close();
+    	sout.close();
     }
 
 	private void flushError(HttpServletResponse response, HttpServletResponse wrappedResponse) throws IOException {
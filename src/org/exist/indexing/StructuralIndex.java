@@ -19,6 +19,7 @@
  */
 package org.exist.indexing;
 
+import org.exist.dom.persistent.DocumentImpl;
 import org.exist.dom.persistent.DocumentSet;
 import org.exist.dom.persistent.ExtNodeSet;
 import org.exist.dom.persistent.NodeSet;
@@ -61,4 +62,13 @@ public interface StructuralIndex {
      */
     public NodeSet scanByType(byte type, int axis, NodeTest test, boolean useSelfAsContext, 
             DocumentSet docs, NodeSet contextSet, int contextId);
+
+    /**
+     * Checks if the document contains at least one element in the given namespace.
+     *
+     * @param doc the document to check
+     * @param namespaceURI the namespace URI
+     * @return true if an element in the namespace is found
+     */
+    public boolean hasElementsInNamespace(DocumentImpl doc, String namespaceURI);
 }
@@ -23,6 +23,7 @@ package org.exist.management.impl;
 
 import org.exist.storage.lock.DeadlockDetection;
 import org.exist.storage.lock.LockInfo;
+import org.exist.storage.lock.LockStatistics;
 
 import javax.management.openmbean.*;
 import java.util.Map;
@@ -47,6 +48,97 @@ public class LockManager implements LockManagerMBean {
         }
     }
 
+    @Override
+    public TabularData getLockStatistics() {
+        try {
+            final CompositeType rowType = new CompositeType("lockStatistics", "Provides statistics on all locks of one type",
+                    statisticsItemNames, statisticsItemDescriptions, statisticsItemTypes);
+            final TabularType tabularType = new TabularType("lockStatistics", "Lists statistics for each type of lock", rowType, new String[] {"lockType"});
+            final TabularDataSupport data = new TabularDataSupport(tabularType);
+            for (final LockStatistics.LockType type : LockStatistics.LockType.values()) {
+                final LockStatistics.TypeStatistics stats = LockStatistics.getStatistics(type);
+                final Object[] itemValues = {
+                    type.name(), stats.getAcquisitions(), stats.getContended(),
+                    millis(stats.getWaitTime().getTotal()), millis(stats.getWaitTime().getMax()), stats.getWaitTime().getCounts(),
+                    millis(stats.getHoldTime().getTotal()), millis(stats.getHoldTime().getMax()), stats.getHoldTime().getCounts()
+                };
+                data.put(new CompositeDataSupport(rowType, statisticsItemNames, itemValues));
+            }
+            return data;
+        } catch (final OpenDataException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    @Override
+    public TabularData getContendedResources() {
+        try {
+            final CompositeType rowType = new CompositeType("contendedResource", "Provides statistics on a contended lock",
+                    resourceItemNames, resourceItemDescriptions, resourceItemTypes);
+            final TabularType tabularType = new TabularType("contendedResources", "Lists the most contended locks", rowType, new String[] {"lockType", "id"});
+            final TabularDataSupport data = new TabularDataSupport(tabularType);
+            for (final LockStatistics.ResourceStatistics stats : LockStatistics.getContendedResources(MAX_CONTENDED_RESOURCES)) {
+                final Object[] itemValues = {
+                    stats.getType().name(), stats.getId(), stats.getContended(),
+                    millis(stats.getWaitTime()), millis(stats.getMaxWaitTime())
+                };
+                data.put(new CompositeDataSupport(rowType, resourceItemNames, itemValues));
+            }
+            return data;
+        } catch (final OpenDataException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    @Override
+    public long[] getHistogramBounds() {
+        return LockStatistics.getHistogramBounds();
+    }
+
+    @Override
+    public void resetStatistics() {
+        LockStatistics.reset();
+    }
+
+    private static double millis(final long nanos) {
+        return nanos / 1000000.0;
+    }
+
+    private static final int MAX_CONTENDED_RESOURCES = 20;
+
+    private static final String[] statisticsItemNames = {"lockType", "acquisitions", "contended",
+            "waitTime", "maxWaitTime", "waitHistogram", "holdTime", "maxHoldTime", "holdHistogram"};
+    private static final String[] statisticsItemDescriptions = {
+            "Type of the lock (COLLECTION, DOCUMENT or FILE)",
+            "Number of acquisitions",
+            "Number of acquisitions which had to wait for another thread",
+            "Total time spent waiting for the lock (ms)",
+            "Longest time spent waiting for the lock (ms)",
+            "Number of waits per histogram bucket, see HistogramBounds",
+            "Total time the lock was held (ms)",
+            "Longest time the lock was held (ms)",
+            "Number of holds per histogram bucket, see HistogramBounds"
+    };
+    private static final OpenType<?>[] statisticsItemTypes = {
+            SimpleType.STRING, SimpleType.LONG, SimpleType.LONG,
+            SimpleType.DOUBLE, SimpleType.DOUBLE, ArrayType.getPrimitiveArrayType(long[].class),
+            SimpleType.DOUBLE, SimpleType.DOUBLE, ArrayType.getPrimitiveArrayType(long[].class)
+    };
+
+    private static final String[] resourceItemNames = {"lockType", "id", "contended", "waitTime", "maxWaitTime"};
+    private static final String[] resourceItemDescriptions = {
+            "Type of the lock (COLLECTION, DOCUMENT or FILE)",
+            "Id of the lock (collection or document path, file name)",
+            "Number of acquisitions which had to wait for another thread",
+            "Total time spent waiting for the lock (ms)",
+            "Longest time spent waiting for the lock (ms)"
+    };
+    private static final OpenType<?>[] resourceItemTypes = {
+            SimpleType.STRING, SimpleType.STRING, SimpleType.LONG, SimpleType.DOUBLE, SimpleType.DOUBLE
+    };
+
     private static final String[] itemNames = {"waitingThread", "lockType", "lockMode", "id", "owner", "waitingForRead", "waitingForWrite"};
     private static final String[] itemDescriptions = {            "Name of the thread waiting for the lock",
             "Type of the lock (COLLECTION or RESOURCE)",
@@ -29,4 +29,24 @@ import javax.management.openmbean.TabularData;
 public interface LockManagerMBean {
 
     public TabularData getWaitingThreads();
+
+    /**
+     * Acquisition counts, wait and hold times for each type of lock
+     * (COLLECTION, DOCUMENT or FILE).
+     */
+    public TabularData getLockStatistics();
+
+    /**
+     * The collections, documents and files with the highest accumulated
+     * wait time.
+     */
+    public TabularData getContendedResources();
+
+    /**
+     * Upper bounds of the buckets of the wait and hold time histograms
+     * in microseconds.
+     */
+    public long[] getHistogramBounds();
+
+    public void resetStatistics();
 }
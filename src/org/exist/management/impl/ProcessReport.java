@@ -26,6 +26,7 @@ import org.exist.scheduler.ScheduledJobInfo;
 import org.exist.scheduler.Scheduler;
 import org.exist.storage.BrokerPool;
 import org.exist.storage.ProcessMonitor;
+import org.exist.xquery.QueryResourceUsage;
 import org.exist.xquery.XQueryContext;
 import org.exist.xquery.XQueryWatchDog;
 import org.apache.logging.log4j.LogManager;
@@ -54,7 +55,8 @@ public class ProcessReport implements ProcessReportMBean {
     private static String[] pIndexNames = { "id" };
 
 
-    private static String[] qItemNames = { "id", "sourceType", "sourceKey", "terminating", "requestURI", "thread", "elapsed" };
+    private static String[] qItemNames = { "id", "sourceType", "sourceKey", "terminating", "requestURI", "thread", "elapsed",
+        "pagesRead", "cacheHits", "indexLookups", "nodesMaterialized", "serialized", "lockWait", "brokerWait" };
     private static String[] qItemDescriptions = {
         "XQuery ID",
         "Type of the query source",
@@ -62,7 +64,14 @@ public class ProcessReport implements ProcessReportMBean {
         "Is query terminating?",
         "The URI by which the query was called (if any)",
         "The thread running this query",
-        "The time in milliseconds since the query was started"
+        "The time in milliseconds since the query was started",
+        "The number of pages read from disk",
+        "The number of pages found in the cache",
+        "The number of index lookups",
+        "The number of persistent nodes materialized",
+        "The number of bytes (or characters) serialized",
+        "The time in milliseconds spent waiting for locks",
+        "The time in milliseconds spent waiting for a broker"
     };
 
     private static String[] qIndexNames = { "id" };
@@ -136,7 +145,8 @@ public class ProcessReport implements ProcessReportMBean {
     @Override
     public TabularData getRunningQueries() {
         final OpenType<?>[] itemTypes = { SimpleType.INTEGER, SimpleType.STRING, SimpleType.STRING, SimpleType.BOOLEAN,
-                SimpleType.STRING, SimpleType.STRING, SimpleType.LONG };
+                SimpleType.STRING, SimpleType.STRING, SimpleType.LONG, SimpleType.LONG, SimpleType.LONG, SimpleType.LONG,
+                SimpleType.LONG, SimpleType.LONG, SimpleType.LONG, SimpleType.LONG };
         CompositeType infoType;
         try {
             infoType = new CompositeType("runningQueries", "Lists currently running XQueries",
@@ -149,9 +159,12 @@ public class ProcessReport implements ProcessReportMBean {
                 if (processMonitor.getTrackRequestURI()) {
                     requestURI = ProcessMonitor.getRequestURI(watchdog);
                 }
+                final QueryResourceUsage usage = watchdog.getResourceUsage();
                 final Object[] itemValues = { Integer.valueOf(watchdog.getContext().hashCode()), watchdog.getContext().getSource().type(),
                         watchdog.getContext().getSource().path(), Boolean.valueOf(watchdog.isTerminating()), requestURI,
-                        watchdog.getRunningThread(), System.currentTimeMillis() - watchdog.getStartTime()};
+                        watchdog.getRunningThread(), System.currentTimeMillis() - watchdog.getStartTime(),
+                        usage.getTotalPagesRead(), usage.getTotalCacheHits(), usage.getTotalIndexLookups(),
+                        usage.getNodesMaterialized(), usage.getSerialized(), usage.getLockWaitTime(), usage.getBrokerWaitTime()};
                 data.put(new CompositeDataSupport(infoType, qItemNames, itemValues));
             }
             return data;
@@ -247,6 +260,38 @@ public class ProcessReport implements ProcessReportMBean {
         return processMonitor.getTrackRequestURI();
     }
 
+    /**
+     * Sets the minimum execution time of queries written to the slow query log.
+     * A negative value disables the threshold.
+     *
+     * @param time
+     */
+    @Override
+    public void setSlowQueryTime(long time) {
+        processMonitor.setSlowQueryTime(time);
+    }
+
+    @Override
+    public long getSlowQueryTime() {
+        return processMonitor.getSlowQueryTime();
+    }
+
+    /**
+     * Sets the minimum number of pages read from disk by queries written to the slow query log.
+     * A negative value disables the threshold.
+     *
+     * @param pages
+     */
+    @Override
+    public void setSlowQueryPages(long pages) {
+        processMonitor.setSlowQueryPages(pages);
+    }
+
+    @Override
+    public long getSlowQueryPages() {
+        return processMonitor.getSlowQueryPages();
+    }
+
     /**
      * Configure all settings related to recent query history.
      *
@@ -76,4 +76,24 @@ public interface ProcessReportMBean {
     void setTrackRequestURI(boolean track);
 
     boolean getTrackRequestURI();
+
+    /**
+     * Sets the minimum execution time of queries written to the slow query log.
+     * A negative value disables the threshold.
+     *
+     * @param time
+     */
+    void setSlowQueryTime(long time);
+
+    long getSlowQueryTime();
+
+    /**
+     * Sets the minimum number of pages read from disk by queries written to the slow query log.
+     * A negative value disables the threshold.
+     *
+     * @param pages
+     */
+    void setSlowQueryPages(long pages);
+
+    long getSlowQueryPages();
 }
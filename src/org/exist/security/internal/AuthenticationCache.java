@@ -0,0 +1,227 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2015 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.security.internal;
+
+import net.jcip.annotations.GuardedBy;
+import net.jcip.annotations.ThreadSafe;
+import org.exist.security.AuthenticationException;
+import org.exist.security.MessageDigester;
+import org.exist.security.Subject;
+import org.exist.util.LRUMap;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Iterator;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Caches the results of {@link SecurityManagerImpl#authenticate(String, Object)}, so
+ * clients sending their credentials with every request, e.g. using HTTP Basic
+ * authentication, do not have to be verified by the realm every time. This avoids
+ * computing the password digest and, for realms like LDAP, a round-trip to the
+ * directory server.
+ *
+ * Entries are keyed by the user name and a salted SHA-256 hash of the credentials,
+ * so the credentials themselves are not kept in memory. Successful authentications
+ * are cached for a fixed time. Failed ones are cached as well: repeating the same
+ * wrong credentials fails without asking the realm for a period which doubles with
+ * every further failure, up to {@link #MAX_BACKOFF}. Only credentials given as a
+ * String or char array are cached.
+ *
+ * The security manager removes the entries of an account when it is modified or deleted,
+ * and all entries when a group is modified or deleted.
+ */
+@ThreadSafe
+public class AuthenticationCache {
+
+    public static final String PROPERTY_CACHE_SIZE = "db-connection.security.authentication-cache-size";
+    public static final String PROPERTY_CACHE_TTL = "db-connection.security.authentication-cache-ttl";
+
+    /** default maximum number of cached entries */
+    public static final int DEFAULT_CACHE_SIZE = 1024;
+
+    /** default time in seconds for which an entry is valid */
+    public static final int DEFAULT_CACHE_TTL = 60;
+
+    /** time in milliseconds for which repeated credentials are rejected after the first failure */
+    static final long MIN_BACKOFF = 1000;
+
+    /** maximum time in milliseconds for which repeated credentials are rejected */
+    static final long MAX_BACKOFF = 60000;
+
+    private final int maxSize;
+    private final long ttl;
+    private final byte[] salt = new byte[16];
+
+    @GuardedBy("this") private final LRUMap<String, Entry> entries;
+
+    /**
+     * @param maxSize the maximum number of entries, 0 disables the cache
+     * @param ttl the time in milliseconds for which an entry is valid
+     */
+    public AuthenticationCache(final int maxSize, final long ttl) {
+        this.maxSize = maxSize;
+        this.ttl = ttl;
+        new SecureRandom().nextBytes(salt);
+        this.entries = new LRUMap<>(64, maxSize);
+    }
+
+    public boolean isEnabled() {
+        return maxSize > 0 && ttl > 0;
+    }
+
+    /**
+     * Looks up the result of a previous authentication with the same credentials.
+     *
+     * @param username the name of the account
+     * @param credentials the credentials
+     * @return the subject if the credentials have been verified before, or null if the
+     *      realms have to be asked
+     * @throws AuthenticationException if the same credentials failed recently
+     */
+    public Subject get(final String username, final Object credentials) throws AuthenticationException {
+        final String key = key(username, credentials);
+        if (key == null) {
+            return null;
+        }
+        final long now = System.currentTimeMillis();
+        synchronized (this) {
+            final Entry entry = entries.get(key);
+            if (entry == null) {
+                return null;
+            }
+            if (entry.expires < now) {
+                entries.remove(key);
+                return null;
+            }
+            if (entry.subject != null) {
+                return entry.subject;
+            }
+            if (entry.blockedUntil > now) {
+                throw new AuthenticationException(entry.failureType, entry.failureMessage);
+            }
+            // the back-off period is over, the realms may be asked again
+            return null;
+        }
+    }
+
+    /**
+     * Records a successful authentication.
+     */
+    public void authenticated(final String username, final Object credentials, final Subject subject) {
+        final String key = key(username, credentials);
+        if (key == null) {
+            return;
+        }
+        final Entry entry = new Entry(subject, System.currentTimeMillis() + ttl);
+        synchronized (this) {
+            entries.put(key, entry);
+        }
+    }
+
+    /**
+     * Records a failed authentication. Only failures which will happen again for the same
+     * credentials are recorded, e.g. a wrong password, but not a failure to reach the
+     * directory server.
+     */
+    public void failed(final String username, final Object credentials, final AuthenticationException e) {
+        if (e.getType() != AuthenticationException.WRONG_PASSWORD
+                && e.getType() != AuthenticationException.ACCOUNT_NOT_FOUND
+                && e.getType() != AuthenticationException.ACCOUNT_LOCKED) {
+            return;
+        }
+        final String key = key(username, credentials);
+        if (key == null) {
+            return;
+        }
+        final long now = System.currentTimeMillis();
+        synchronized (this) {
+            Entry entry = entries.get(key);
+            if (entry == null || entry.subject != null) {
+                entry = new Entry(null, 0);
+                entries.put(key, entry);
+            }
+            entry.failures++;
+            entry.failureType = e.getType();
+            entry.failureMessage = e.getMessage();
+            final long backoff = entry.failures > 7 ? MAX_BACKOFF : Math.min(MAX_BACKOFF, MIN_BACKOFF << (entry.failures - 1));
+            entry.blockedUntil = now + backoff;
+            entry.expires = now + Math.max(ttl, backoff);
+        }
+    }
+
+    /**
+     * Removes all entries of an account.
+     *
+     * @param username the name of the account
+     */
+    public synchronized void invalidate(final String username) {
+        final String prefix = username + '\u0000';
+        for (final Iterator<String> i = entries.keySet().iterator(); i.hasNext(); ) {
+            if (i.next().startsWith(prefix)) {
+                i.remove();
+            }
+        }
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    private String key(final String username, final Object credentials) {
+        final String password;
+        if (credentials instanceof String) {
+            password = (String) credentials;
+        } else if (credentials instanceof char[]) {
+            password = String.valueOf((char[]) credentials);
+        } else {
+            return null;
+        }
+        try {
+            final MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(salt);
+            digest.update(password.getBytes(UTF_8));
+            return username + '\u0000' + MessageDigester.byteArrayToHex(digest.digest());
+        } catch (final NoSuchAlgorithmException e) {
+            // every JRE has to support SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static final class Entry {
+        private final Subject subject;
+        private long expires;
+        private int failures = 0;
+        private int failureType;
+        private String failureMessage;
+        private long blockedUntil = 0;
+
+        private Entry(final Subject subject, final long expires) {
+            this.subject = subject;
+            this.expires = expires;
+        }
+    }
+}
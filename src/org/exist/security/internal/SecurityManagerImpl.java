@@ -128,11 +128,34 @@ public class SecurityManagerImpl implements SecurityManager, BrokerPoolService {
     private Collection collection = null;
     
     private Configuration configuration = null;
+
+    private AuthenticationCache authenticationCache = new AuthenticationCache(
+            AuthenticationCache.DEFAULT_CACHE_SIZE, AuthenticationCache.DEFAULT_CACHE_TTL * 1000L);
     
     public SecurityManagerImpl(final Database db) {
         this.db = db;
     }
 
+    @Override
+    public void configure(final org.exist.util.Configuration configuration) {
+        int cacheSize = configuration.getInteger(AuthenticationCache.PROPERTY_CACHE_SIZE);
+        if (cacheSize < 0) {
+            cacheSize = AuthenticationCache.DEFAULT_CACHE_SIZE;
+        }
+        int ttl = configuration.getInteger(AuthenticationCache.PROPERTY_CACHE_TTL);
+        if (ttl < 0) {
+            ttl = AuthenticationCache.DEFAULT_CACHE_TTL;
+        }
+        this.authenticationCache = new AuthenticationCache(cacheSize, ttl * 1000L);
+    }
+
+    /**
+     * @return the cache of verified credentials
+     */
+    public AuthenticationCache getAuthenticationCache() {
+        return authenticationCache;
+    }
+
     @Override
     public void prepare(final BrokerPool brokerPool) throws BrokerPoolServiceException {
         try {
@@ -238,6 +261,8 @@ public class SecurityManagerImpl implements SecurityManager, BrokerPoolService {
         try {
             return findRealmForRealmId(account.getRealmId()).updateAccount(account);
         } finally {
+            // the password or the groups may have changed
+            authenticationCache.invalidate(account.getName());
             lock.unlock();
         }
     }
@@ -257,6 +282,7 @@ public class SecurityManagerImpl implements SecurityManager, BrokerPoolService {
         try {
             return findRealmForRealmId(group.getRealmId()).updateGroup(group);
         } finally {
+            authenticationCache.clear();
             lock.unlock();
         }
     }
@@ -277,6 +303,7 @@ public class SecurityManagerImpl implements SecurityManager, BrokerPoolService {
         try {
             return findRealmForRealmId(group.getRealmId()).deleteGroup(group);
         } finally {
+            authenticationCache.clear();
             lock.unlock();
         }
     }
@@ -301,6 +328,7 @@ public class SecurityManagerImpl implements SecurityManager, BrokerPoolService {
         try {
             return findRealmForRealmId(account.getRealmId()).deleteAccount(account);
         } finally {
+            authenticationCache.invalidate(account.getName());
             lock.unlock();
         }
     }
@@ -430,6 +458,22 @@ public class SecurityManagerImpl implements SecurityManager, BrokerPoolService {
             return subject;
         }
 
+        final boolean useCache = authenticationCache.isEnabled();
+        if (useCache) {
+            final Subject subject = authenticationCache.get(username, credentials);
+            if (subject != null) {
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug("Authenticated from cache as '" + subject + "'.");
+                }
+
+                if (events != null) {
+                    events.authenticated(subject);
+                }
+
+                return subject;
+            }
+        }
+
         for(final Realm realm : realms) {
             try {
                 final Subject subject = realm.authenticate(username, credentials);
@@ -438,6 +482,10 @@ public class SecurityManagerImpl implements SecurityManager, BrokerPoolService {
                     LOG.debug("Authenticated by '" + realm.getId() + "' as '" + subject + "'.");
                 }
 
+                if (useCache) {
+                    authenticationCache.authenticated(username, credentials, subject);
+                }
+
                 if (events != null) {
                     events.authenticated(subject);
                 }
@@ -448,6 +496,9 @@ public class SecurityManagerImpl implements SecurityManager, BrokerPoolService {
                     if (LOG.isDebugEnabled()) {
                         LOG.debug("Realm '" + realm.getId() + "' threw exception for account '" + username + "'. [" + e.getMessage() + "]");
                     }
+                    if (useCache) {
+                        authenticationCache.failed(username, credentials, e);
+                    }
                     throw e;
                 }
             }
@@ -457,10 +508,14 @@ public class SecurityManagerImpl implements SecurityManager, BrokerPoolService {
             LOG.debug("Account '"+username+"' not found, throw error");
         }
 
-        throw new AuthenticationException(
+        final AuthenticationException e = new AuthenticationException(
             AuthenticationException.ACCOUNT_NOT_FOUND,
             "Account [" + username + "] not found"
         );
+        if (useCache) {
+            authenticationCache.failed(username, credentials, e);
+        }
+        throw e;
     }
     
     protected Subject systemSubject = null;
@@ -643,6 +698,8 @@ public class SecurityManagerImpl implements SecurityManager, BrokerPoolService {
 
             return newAccount;
         } finally {
+            // forget earlier failures for the same name
+            authenticationCache.invalidate(newAccount.getName());
             lock.unlock();
         }
     }
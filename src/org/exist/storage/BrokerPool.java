@@ -56,6 +56,7 @@ import org.exist.storage.btree.DBException;
 import org.exist.storage.journal.JournalManager;
 import org.exist.storage.lock.DeadlockDetection;
 import org.exist.storage.lock.FileLockService;
+import org.exist.storage.lock.HierarchicalLockManager;
 import org.exist.storage.recovery.RecoveryManager;
 import org.exist.storage.sync.Sync;
 import org.exist.storage.sync.SyncTask;
@@ -67,6 +68,8 @@ import org.exist.xmldb.ShutdownListener;
 import org.exist.xmldb.XmldbURI;
 import org.exist.xquery.PerformanceStats;
 import org.exist.xquery.XQuery;
+import org.exist.xslt.TemplatesCache;
+import org.exist.xquery.DocumentSetCache;
 
 import java.io.IOException;
 import java.io.PrintWriter;
@@ -240,6 +243,21 @@ public class BrokerPool extends BrokerPools implements BrokerPoolConstants, Data
      */
     private TransactionManager transactionManager = null;
 
+    /**
+     * Writes the dirty pages for fuzzy checkpoints, empty if fuzzy checkpoints are disabled.
+     */
+    private Optional<PageWriter> pageWriter = Optional.empty();
+
+    /**
+     * <code>true</code> if the pages are written in the background by fuzzy checkpoints.
+     */
+    private final boolean fuzzyCheckpoint;
+
+    /**
+     * The maximum number of pages written per second by fuzzy checkpoints.
+     */
+    private final int checkpointRate;
+
     /**
      * Delay (in ms) for running jobs to return when the database instance shuts down.
      */
@@ -293,6 +311,26 @@ public class BrokerPool extends BrokerPools implements BrokerPoolConstants, Data
      */
     private NotificationService notificationService = null;
 
+    /**
+     * Cache for the serialized responses of XQueries called via HTTP
+     */
+    private ResponseCache responseCache = null;
+
+    /**
+     * On-disk cache of compressed serializations of documents delivered via HTTP
+     */
+    private CompressedDocumentCache compressedDocumentCache = null;
+
+    /**
+     * Cache of compiled XSL stylesheets
+     */
+    private TemplatesCache templatesCache = null;
+
+    /**
+     * Cache of the documents resolved by fn:doc() and fn:collection()
+     */
+    private DocumentSetCache documentSetCache = null;
+
     /**
      * The cache in which the database instance may store items.
      */
@@ -330,6 +368,11 @@ public class BrokerPool extends BrokerPools implements BrokerPoolConstants, Data
     //TODO : rename as collectionsCache ?
     private CollectionCache collectionCache;
 
+    /**
+     * The locks on collection paths taken by operations on whole collection subtrees.
+     */
+    private final HierarchicalLockManager collectionLocks = new HierarchicalLockManager();
+
     /**
      * The pool in which the database instance's readers are stored.
      */
@@ -380,6 +423,9 @@ public class BrokerPool extends BrokerPools implements BrokerPoolConstants, Data
         this.recoveryEnabled = conf.getProperty(PROPERTY_RECOVERY_ENABLED, true);
         LOG.info("database instance '" + instanceName + "' is enabled for recovery : " + this.recoveryEnabled);
 
+        this.fuzzyCheckpoint = conf.getProperty(PageWriter.PROPERTY_RECOVERY_FUZZY_CHECKPOINT, true);
+        this.checkpointRate = conf.getProperty(PageWriter.PROPERTY_RECOVERY_CHECKPOINT_RATE, PageWriter.DEFAULT_CHECKPOINT_RATE);
+
         this.minBrokers = conf.getProperty(PROPERTY_MIN_CONNECTIONS, minBrokers);
         this.maxBrokers = conf.getProperty(PROPERTY_MAX_CONNECTIONS, maxBrokers);
 
@@ -459,6 +505,10 @@ public class BrokerPool extends BrokerPools implements BrokerPoolConstants, Data
         this.collectionCache = servicesManager.register(new CollectionCache(this, bufferSize, 0.000001));
         this.collectionCacheMgr = servicesManager.register(new CollectionCacheManager(this, collectionCache));
         this.notificationService = servicesManager.register(new NotificationService());
+        this.responseCache = servicesManager.register(new ResponseCache());
+        this.compressedDocumentCache = servicesManager.register(new CompressedDocumentCache());
+        this.templatesCache = servicesManager.register(new TemplatesCache());
+        this.documentSetCache = servicesManager.register(new DocumentSetCache());
 
         this.journalManager = recoveryEnabled ? Optional.of(new JournalManager()) : Optional.empty();
         if(journalManager.isPresent()) {
@@ -656,6 +706,12 @@ public class BrokerPool extends BrokerPools implements BrokerPoolConstants, Data
 
                     servicesManager.startMultiUserServices(this);
 
+                    if(recoveryEnabled && fuzzyCheckpoint && !isReadOnly()) {
+                        final PageWriter writer = new PageWriter(this, checkpointRate);
+                        writer.start();
+                        pageWriter = Optional.of(writer);
+                    }
+
                     status.process(Event.READY);
 
                     statusReporter.setStatus(SIGNAL_STARTED);
@@ -958,6 +1014,16 @@ public class BrokerPool extends BrokerPools implements BrokerPoolConstants, Data
         return collectionCache;
     }
 
+    /**
+     * Returns the locks on collection paths, which serialize operations on
+     * overlapping collection subtrees.
+     *
+     * @return The lock manager
+     */
+    public HierarchicalLockManager getCollectionLocks() {
+        return collectionLocks;
+    }
+
     /**
      * Returns a cache in which the database instance's may store items.
      *
@@ -983,6 +1049,42 @@ public class BrokerPool extends BrokerPools implements BrokerPoolConstants, Data
         return indexManager;
     }
 
+    /**
+     * Returns the cache for the serialized responses of XQueries called via HTTP.
+     *
+     * @return The cache
+     */
+    public ResponseCache getResponseCache() {
+        return responseCache;
+    }
+
+    /**
+     * Returns the cache for compressed serializations of documents delivered via HTTP.
+     *
+     * @return The cache
+     */
+    public CompressedDocumentCache getCompressedDocumentCache() {
+        return compressedDocumentCache;
+    }
+
+    /**
+     * Returns the cache of compiled XSL stylesheets.
+     *
+     * @return The cache
+     */
+    public TemplatesCache getTemplatesCache() {
+        return templatesCache;
+    }
+
+    /**
+     * Returns the cache of documents resolved by fn:doc() and fn:collection().
+     *
+     * @return The cache
+     */
+    public DocumentSetCache getDocumentSetCache() {
+        return documentSetCache;
+    }
+
     /**
      * Returns a pool in which the database instance's <strong>compiled</strong> XQueries are stored.
      *
@@ -1167,6 +1269,7 @@ public class BrokerPool extends BrokerPools implements BrokerPoolConstants, Data
             }
         }
 
+        final long waitStart = System.nanoTime();
         synchronized(this) {
             //Are there any available brokers ?
             if(inactiveBrokers.isEmpty()) {
@@ -1187,6 +1290,7 @@ public class BrokerPool extends BrokerPools implements BrokerPoolConstants, Data
                     }
             }
             broker = inactiveBrokers.pop();
+            broker.setLeaseWaitTime(System.nanoTime() - waitStart);
             //activate the broker
             activeBrokers.put(Thread.currentThread(), broker);
 
@@ -1245,6 +1349,9 @@ public class BrokerPool extends BrokerPools implements BrokerPoolConstants, Data
             return;
         }
 
+        //the wait belongs to this lease only
+        broker.setLeaseWaitTime(0);
+
         synchronized(this) {
             //Broker is no more used : inactivate it
             for(final DBBroker inactiveBroker : inactiveBrokers) {
@@ -1522,6 +1629,9 @@ public class BrokerPool extends BrokerPools implements BrokerPoolConstants, Data
             //Shutdown the scheduler
             scheduler.shutdown(true);
 
+            //Abandon a fuzzy checkpoint in progress, shutdown writes a checkpoint anyway
+            pageWriter.ifPresent(PageWriter::shutdown);
+
             final java.util.concurrent.locks.Lock lock = transactionManager.getLock();
             try {
                 // wait for currently running system tasks before we shutdown
@@ -1728,6 +1838,45 @@ public class BrokerPool extends BrokerPools implements BrokerPoolConstants, Data
         }
     }
 
+    /**
+     * Executes the periodic major sync. If fuzzy checkpoints are enabled, the pages of the
+     * journalled files are written by the {@link PageWriter} in the background instead, so
+     * transactions are not held up while they are written.
+     *
+     * @param broker A broker responsible for executing the job
+     */
+    public void majorSync(final DBBroker broker) {
+        if(FORCE_CORRUPTION || !pageWriter.isPresent() || !pageWriter.get().checkpoint(false)) {
+            sync(broker, Sync.MAJOR);
+            return;
+        }
+        try {
+            broker.pushSubject(securityManager.getSystemSubject());
+            LOG.debug("Major sync with fuzzy checkpoint");
+            try {
+                indexManager.sync();
+            } catch(final DBException e) {
+                LOG.warn("Failed to sync indexes: " + e.getMessage(), e);
+            }
+            cacheManager.checkCaches();
+
+            if(pluginManager != null) {
+                pluginManager.sync(broker);
+            }
+
+            lastMajorSync = System.currentTimeMillis();
+        } finally {
+            broker.popSubject();
+        }
+    }
+
+    /**
+     * @return the page writer performing fuzzy checkpoints, empty if they are disabled
+     */
+    public Optional<PageWriter> getPageWriter() {
+        return pageWriter;
+    }
+
     public Optional<BrokerWatchdog> getWatchdog() {
         return watchdog;
     }
@@ -1737,6 +1886,18 @@ public class BrokerPool extends BrokerPools implements BrokerPoolConstants, Data
         if(syncRequired) {
             return;
         }
+        // the page writer schedules the checkpoint once it has written the dirty pages
+        if(pageWriter.isPresent() && pageWriter.get().checkpoint(true)) {
+            return;
+        }
+        scheduleCheckpoint();
+    }
+
+    /**
+     * Schedule a checkpoint replacing the journal file. It is
+     * created as soon as no brokers are active.
+     */
+    void scheduleCheckpoint() {
         synchronized(this) {
             syncEvent = Sync.MAJOR;
             syncRequired = true;
@@ -0,0 +1,283 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2015 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.storage;
+
+import com.evolvedbinary.j8fu.function.ConsumerE;
+import net.jcip.annotations.GuardedBy;
+import net.jcip.annotations.ThreadSafe;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.exist.dom.persistent.DocumentImpl;
+import org.exist.dom.persistent.NodeHandle;
+import org.exist.numbering.NodeId;
+import org.exist.util.Configuration;
+import org.exist.util.FileUtils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * On-disk cache of gzip compressed serializations of XML documents, used by the
+ * REST interface to answer requests from clients accepting a gzip content coding
+ * without serializing and compressing the document again.
+ *
+ * A document may be cached in several variants, e.g. with different serialization
+ * parameters. The files are kept in the directory <code>http-cache</code> below the
+ * data directory, which is emptied at startup. The entries of a document are removed
+ * as soon as the {@link NotificationService} reports a change to it. The cache is
+ * bounded by the size of the compressed files; if the limit is exceeded, the least
+ * recently used files are deleted. Documents whose stored size exceeds the maximum
+ * size of an entry are not cached, which the caller has to check with
+ * {@link #accepts(DocumentImpl)} before serializing them. It is disabled by default.
+ */
+@ThreadSafe
+public class CompressedDocumentCache implements BrokerPoolService, UpdateListener {
+
+    private final static Logger LOG = LogManager.getLogger(CompressedDocumentCache.class);
+
+    public static final String CACHE_SIZE_ATTRIBUTE = "compressedDocumentCacheSize";
+    public static final String PROPERTY_CACHE_SIZE = "db-connection.compressed-document-cache-size";
+
+    public static final String MAX_ENTRY_SIZE_ATTRIBUTE = "compressedDocumentCacheMaxEntrySize";
+    public static final String PROPERTY_MAX_ENTRY_SIZE = "db-connection.compressed-document-cache-max-entry-size";
+
+    public static final String CACHE_DIR = "http-cache";
+
+    private long maxSize = 0;
+    private long maxEntrySize = 0;
+    private Path directory = null;
+
+    @GuardedBy("this") private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(64, 0.75f, true);
+    @GuardedBy("this") private final Map<Integer, Set<String>> documentEntries = new HashMap<>();
+    @GuardedBy("this") private long size = 0;
+    @GuardedBy("this") private long nextFile = 0;
+
+    @Override
+    public void configure(final Configuration configuration) {
+        final int cacheSize = configuration.getInteger(PROPERTY_CACHE_SIZE);
+        if (cacheSize > 0) {
+            maxSize = cacheSize * 1024L * 1024L;
+        }
+        // large documents are requested less often than small ones, but a file kept for one of them
+        // would push the files of many small documents out of the cache
+        maxEntrySize = Math.min(maxSize, configuration.getMaxEntrySize(PROPERTY_MAX_ENTRY_SIZE, maxSize));
+        final Path dataDir = (Path) configuration.getProperty(BrokerPool.PROPERTY_DATA_DIR);
+        if (dataDir != null) {
+            directory = dataDir.resolve(CACHE_DIR);
+        }
+    }
+
+    @Override
+    public void prepare(final BrokerPool brokerPool) throws BrokerPoolServiceException {
+        if (directory == null) {
+            maxSize = 0;
+        }
+        if (!isEnabled()) {
+            return;
+        }
+        try {
+            // files left over from the last run cannot be trusted
+            FileUtils.delete(directory);
+            Files.createDirectories(directory);
+        } catch (final IOException e) {
+            throw new BrokerPoolServiceException("Unable to create the cache directory " + directory, e);
+        }
+        brokerPool.getNotificationService().subscribe(this);
+    }
+
+    @Override
+    public void stop(final BrokerPool brokerPool) {
+        clear();
+    }
+
+    /**
+     * @return true if the cache has been enabled by the configuration
+     */
+    public boolean isEnabled() {
+        return maxSize > 0;
+    }
+
+    /**
+     * Checks if the compressed serialization of a document may be cached. The stored size of
+     * the document is used, so the decision is made before the document is serialized.
+     *
+     * @param doc the document
+     * @return true if the document is small enough to be cached
+     */
+    public boolean accepts(final DocumentImpl doc) {
+        return isEnabled() && doc.getContentLength() <= maxEntrySize;
+    }
+
+    /**
+     * Opens the cached compressed serialization of a document.
+     *
+     * @param doc the document
+     * @param variant describes the serialization, e.g. the serialization parameters
+     * @return a channel to read the compressed serialization, or null if it is not cached
+     * @throws IOException if the file cannot be opened
+     */
+    public FileChannel open(final DocumentImpl doc, final String variant) throws IOException {
+        final String key = key(doc, variant);
+        synchronized (this) {
+            final Entry entry = entries.get(key);
+            if (entry == null) {
+                return null;
+            }
+            try {
+                return FileChannel.open(entry.file, StandardOpenOption.READ);
+            } catch (final NoSuchFileException e) {
+                LOG.warn("Cached file " + entry.file + " has been removed");
+                remove(key);
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Compresses the serialization of a document and adds it to the cache. The caller
+     * has to hold a read lock on the document, so it cannot be modified meanwhile, and
+     * should have checked the size of the document with {@link #accepts(DocumentImpl)}.
+     *
+     * @param doc the document
+     * @param variant describes the serialization, e.g. the serialization parameters
+     * @param serializer writes the serialization to the given stream
+     * @throws IOException if the serialization cannot be written
+     */
+    public void store(final DocumentImpl doc, final String variant,
+            final ConsumerE<OutputStream, IOException> serializer) throws IOException {
+        final Path file;
+        synchronized (this) {
+            file = directory.resolve(Long.toString(nextFile++) + ".gz");
+        }
+        final Path tmp = directory.resolve(file.getFileName() + ".tmp");
+        final long fileSize;
+        try {
+            try (final OutputStream os = new GZIPOutputStream(Files.newOutputStream(tmp), 8192)) {
+                serializer.accept(os);
+            }
+            fileSize = Files.size(tmp);
+            Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE);
+        } catch (final IOException | RuntimeException e) {
+            FileUtils.deleteQuietly(tmp);
+            throw e;
+        }
+
+        final String key = key(doc, variant);
+        synchronized (this) {
+            remove(key);
+            entries.put(key, new Entry(doc.getDocId(), file, fileSize));
+            documentEntries.computeIfAbsent(doc.getDocId(), id -> new HashSet<>()).add(key);
+            size += fileSize;
+            while (size > maxSize && !entries.isEmpty()) {
+                remove(entries.keySet().iterator().next());
+            }
+        }
+    }
+
+    private static String key(final DocumentImpl doc, final String variant) {
+        return doc.getDocId() + "-" + doc.getMetadata().getLastModified() + '-' + variant;
+    }
+
+    @GuardedBy("this")
+    private void remove(final String key) {
+        final Entry entry = entries.remove(key);
+        if (entry == null) {
+            return;
+        }
+        size -= entry.size;
+        final Set<String> keys = documentEntries.get(entry.docId);
+        if (keys != null) {
+            keys.remove(key);
+            if (keys.isEmpty()) {
+                documentEntries.remove(entry.docId);
+            }
+        }
+        // readers which already opened the file can still read it on most platforms
+        FileUtils.deleteQuietly(entry.file);
+    }
+
+    public synchronized void clear() {
+        for (final String key : new ArrayList<>(entries.keySet())) {
+            remove(key);
+        }
+    }
+
+    public synchronized long getSize() {
+        return size;
+    }
+
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * @return the maximum stored size of a document whose serialization is cached
+     */
+    public long getMaxEntrySize() {
+        return maxEntrySize;
+    }
+
+    @Override
+    public void documentUpdated(final DocumentImpl document, final int event) {
+        synchronized (this) {
+            final Set<String> keys = documentEntries.get(document.getDocId());
+            if (keys != null) {
+                for (final String key : new ArrayList<>(keys)) {
+                    remove(key);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void nodeMoved(final NodeId oldNodeId, final NodeHandle newNode) {
+        // nothing to do: the document itself is reported as updated
+    }
+
+    @Override
+    public void unsubscribe() {
+        clear();
+    }
+
+    @Override
+    public void debug() {
+        LOG.debug("CompressedDocumentCache: " + entries.size() + " files, " + size + " bytes");
+    }
+
+    private static final class Entry {
+        private final int docId;
+        private final Path file;
+        private final long size;
+
+        private Entry(final int docId, final Path file, final long size) {
+            this.docId = docId;
+            this.file = file;
+            this.size = size;
+        }
+    }
+}
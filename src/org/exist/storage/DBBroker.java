@@ -112,10 +112,16 @@ public abstract class DBBroker extends Observable implements AutoCloseable {
 
     private int referenceCount = 0;
 
+    // nanoseconds the current thread waited for this broker when it was leased
+    private long leaseWaitTime = 0;
+
     protected String id;
 
     protected IndexController indexController;
 
+    // collections opened while tracking is enabled, see trackCollectionAccess(Set)
+    private Set<XmldbURI> accessedCollections = null;
+
     public DBBroker(final BrokerPool pool, final Configuration config) {
         this.config = config;
         final Boolean temp = (Boolean) config.getProperty(NativeValueIndex.PROPERTY_INDEX_CASE_SENSITIVE);
@@ -205,6 +211,32 @@ public abstract class DBBroker extends Observable implements AutoCloseable {
         // do nothing
     }
 
+    /**
+     * Records the URIs of all collections opened by this broker into the given set,
+     * e.g. to find out which collections were read by a query. Pass null to stop
+     * recording. As a broker is bound to a thread, only accesses by the current
+     * thread are recorded.
+     *
+     * @param collections the set to add the collection URIs to, or null
+     * @return the set used before, so nested calls can restore it
+     */
+    public Set<XmldbURI> trackCollectionAccess(final Set<XmldbURI> collections) {
+        final Set<XmldbURI> previous = accessedCollections;
+        accessedCollections = collections;
+        return previous;
+    }
+
+    /**
+     * Called by implementations whenever a collection is opened.
+     *
+     * @param uri the absolute URI of the collection
+     */
+    protected void collectionAccessed(final XmldbURI uri) {
+        if (accessedCollections != null) {
+            accessedCollections.add(uri);
+        }
+    }
+
     /** Observer Design Pattern: List of ContentLoadingObserver objects */
     protected List<ContentLoadingObserver> contentLoadingObservers = new ArrayList<ContentLoadingObserver>();	
 
@@ -815,6 +847,24 @@ public abstract class DBBroker extends Observable implements AutoCloseable {
 		--referenceCount;
 	}
 
+	/**
+	 * Returns the time in nanoseconds the thread holding this broker waited for
+	 * a broker to become available when it leased this one. The wait is only
+	 * returned once, to the first query executed with the lease; nested calls to
+	 * {@link BrokerPool#get(Optional)} reuse the lease and did not wait.
+	 *
+	 * @return the wait time, or 0 if it has been returned already
+	 */
+	public long takeLeaseWaitTime() {
+		final long waitTime = leaseWaitTime;
+		leaseWaitTime = 0;
+		return waitTime;
+	}
+
+	void setLeaseWaitTime(final long leaseWaitTime) {
+		this.leaseWaitTime = leaseWaitTime;
+	}
+
 	public abstract IndexSpec getIndexConfiguration();
 
 	public void setId(String id) {
@@ -61,11 +61,14 @@ import org.exist.storage.index.CollectionStore;
 import org.exist.storage.io.VariableByteInput;
 import org.exist.storage.io.VariableByteOutputStream;
 import org.exist.storage.journal.*;
+import org.exist.storage.lock.HierarchicalLockManager;
+import org.exist.storage.lock.HierarchicalLockManager.PathLock;
 import org.exist.storage.lock.Lock;
 import org.exist.storage.lock.Lock.LockMode;
 import org.exist.storage.serializers.NativeSerializer;
 import org.exist.storage.serializers.Serializer;
 import org.exist.storage.sync.Sync;
+import org.exist.storage.txn.TransactionException;
 import org.exist.storage.txn.TransactionManager;
 import org.exist.storage.txn.Txn;
 import org.exist.util.*;
@@ -172,6 +175,9 @@ public class NativeBroker extends DBBroker {
 
     private int defaultIndexDepth;
 
+    /** document name keys are only needed to load collections on demand */
+    private final boolean storeDocumentNames;
+
     private final Serializer xmlSerializer;
 
     /** used to count the nodes inserted after the last memory check */
@@ -241,6 +247,8 @@ public class NativeBroker extends DBBroker {
             defaultIndexDepth = DEFAULT_INDEX_DEPTH;
         }
 
+        storeDocumentNames = config.getInteger(MutableCollection.PROPERTY_LAZY_LOAD_THRESHOLD) > 0;
+
         final String docIdProp = (String) config.getProperty(BrokerPool.DOC_ID_MODE_PROPERTY);
         if(docIdProp != null) {
             incrementalDocIds = docIdProp.equalsIgnoreCase("incremental");
@@ -671,6 +679,46 @@ public class NativeBroker extends DBBroker {
     private Tuple2<Boolean, Collection> getOrCreateCollectionExplicit(final Txn transaction, XmldbURI name) throws PermissionDeniedException, IOException, TriggerException {
         name = prepend(name.normalizeCollectionPath());
 
+        final HierarchicalLockManager collectionLocks = pool.getCollectionLocks();
+        if(collectionLocks.holdsLocks()) {
+            // a copy or move of an ancestor holds the path locks covering the collection already
+            return getOrCreateCollectionLocked(transaction, name);
+        }
+
+        // the collection usually exists already, so it is looked up in the mode used to open a
+        // collection for writing, and the path is only locked exclusively to create it
+        final PathLock lookupLock;
+        try {
+            lookupLock = collectionLocks.acquire(name, HierarchicalLockManager.Mode.IX);
+        } catch(final LockException e) {
+            throw new IOException("Failed to acquire lock on collection path " + name, e);
+        }
+        try {
+            final Collection collection = getCollection(name);
+            if(collection != null) {
+                return new Tuple2<>(false, collection);
+            }
+        } finally {
+            lookupLock.release();
+        }
+
+        final PathLock pathLock;
+        try {
+            pathLock = collectionLocks.acquire(name, HierarchicalLockManager.Mode.X);
+        } catch(final LockException e) {
+            throw new IOException("Failed to acquire lock on collection path " + name, e);
+        }
+        try {
+            return getOrCreateCollectionLocked(transaction, name);
+        } finally {
+            pathLock.release();
+        }
+    }
+
+    /**
+     * The caller must hold an exclusive path lock on the collection name, or on one of its ancestors.
+     */
+    private Tuple2<Boolean, Collection> getOrCreateCollectionLocked(final Txn transaction, final XmldbURI name) throws PermissionDeniedException, IOException, TriggerException {
         final CollectionCache collectionsCache = pool.getCollectionsCache();
 
         boolean created = false;
@@ -861,49 +909,78 @@ public class NativeBroker extends DBBroker {
 
         final XmldbURI uri = prepend(entry.getUri().toCollectionPathURI());
 
+        final PathLock pathLock;
+        try {
+            pathLock = lockCollectionPath(uri, LockMode.READ_LOCK);
+        } catch(final LockException e) {
+            LOG.warn("Failed to acquire lock on collection path " + uri);
+            return;
+        }
+
         Collection collection;
         final CollectionCache collectionsCache = pool.getCollectionsCache();
-        synchronized(collectionsCache) {
-            collection = collectionsCache.get(uri);
-            if(collection == null) {
-                final Lock lock = collectionsDb.getLock();
-                try {
-                    lock.acquire(LockMode.READ_LOCK);
+        try {
+            synchronized(collectionsCache) {
+                collection = collectionsCache.get(uri);
+                if(collection == null) {
+                    final Lock lock = collectionsDb.getLock();
+                    try {
+                        lock.acquire(LockMode.READ_LOCK);
 
-                    final Value key = new CollectionStore.CollectionKey(uri.toString());
-                    final VariableByteInput is = collectionsDb.getAsStream(key);
-                    if(is == null) {
-                        LOG.warn("Could not read collection entry for: " + uri);
-                        return;
-                    }
+                        final Value key = new CollectionStore.CollectionKey(uri.toString());
+                        final VariableByteInput is = collectionsDb.getAsStream(key);
+                        if(is == null) {
+                            LOG.warn("Could not read collection entry for: " + uri);
+                            return;
+                        }
 
-                    //read the entry details
-                    entry.read(is);
+                        //read the entry details
+                        entry.read(is);
 
-                } catch(final UnsupportedEncodingException e) {
-                    LOG.error("Unable to encode '" + uri + "' in UTF-8");
-                } catch(final LockException e) {
-                    LOG.warn("Failed to acquire lock on " + FileUtils.fileName(collectionsDb.getFile()));
-                } catch(final IOException e) {
-                    LOG.error(e.getMessage(), e);
-                } finally {
-                    lock.release(LockMode.READ_LOCK);
-                }
-            } else {
+                    } catch(final UnsupportedEncodingException e) {
+                        LOG.error("Unable to encode '" + uri + "' in UTF-8");
+                    } catch(final LockException e) {
+                        LOG.warn("Failed to acquire lock on " + FileUtils.fileName(collectionsDb.getFile()));
+                    } catch(final IOException e) {
+                        LOG.error(e.getMessage(), e);
+                    } finally {
+                        lock.release(LockMode.READ_LOCK);
+                    }
+                } else {
 
-                if(!collection.getURI().equalsInternal(uri)) {
-                    LOG.error("The collection received from the cache is not the requested: " + uri +
-                        "; received: " + collection.getURI());
-                    return;
-                }
+                    if(!collection.getURI().equalsInternal(uri)) {
+                        LOG.error("The collection received from the cache is not the requested: " + uri +
+                            "; received: " + collection.getURI());
+                        return;
+                    }
 
-                entry.read(collection);
+                    entry.read(collection);
 
-                collectionsCache.add(collection);
+                    collectionsCache.add(collection);
+                }
+            }
+        } finally {
+            if(pathLock != null) {
+                pathLock.release();
             }
         }
     }
 
+    /**
+     * Recreates the document name keys of a collection, so it can be loaded on
+     * demand the next time it is read from disk.
+     */
+    private void rebuildDocumentNames(final Collection collection) {
+        LOG.info("Rebuilding document names of collection " + collection.getURI());
+        final TransactionManager transact = pool.getTransactionManager();
+        try(final Txn transaction = transact.beginTransaction()) {
+            collectionsDb.rebuildDocumentNames(transaction, pool, collection);
+            transact.commit(transaction);
+        } catch(final TransactionException e) {
+            LOG.warn("Failed to rebuild document names of collection " + collection.getURI() + ": " + e.getMessage(), e);
+        }
+    }
+
     /**
      * Get collection object. If the collection does not exist, null is
      * returned.
@@ -913,53 +990,76 @@ public class NativeBroker extends DBBroker {
      */
     private Collection openCollection(XmldbURI uri, final long address, final LockMode lockMode) throws PermissionDeniedException {
         uri = prepend(uri.toCollectionPathURI());
+        collectionAccessed(uri);
+
+        final PathLock pathLock;
+        try {
+            pathLock = lockCollectionPath(uri, lockMode);
+        } catch(final LockException e) {
+            throw new PermissionDeniedException("Failed to acquire lock on collection path " + uri, e);
+        }
+
         //We *must* declare it here (see below)
         Collection collection;
+        boolean rebuildDocumentNames = false;
         final CollectionCache collectionsCache = pool.getCollectionsCache();
-        synchronized(collectionsCache) {
-            collection = collectionsCache.get(uri);
-            if(collection == null) {
-                final Lock lock = collectionsDb.getLock();
-                try {
-                    lock.acquire(LockMode.READ_LOCK);
-                    VariableByteInput is;
-                    if(address == BFile.UNKNOWN_ADDRESS) {
-                        final Value key = new CollectionStore.CollectionKey(uri.toString());
-                        is = collectionsDb.getAsStream(key);
-                    } else {
-                        is = collectionsDb.getAsStream(address);
-                    }
-                    if(is == null) {
+        try {
+            synchronized(collectionsCache) {
+                collection = collectionsCache.get(uri);
+                if(collection == null) {
+                    final Lock lock = collectionsDb.getLock();
+                    try {
+                        lock.acquire(LockMode.READ_LOCK);
+                        VariableByteInput is;
+                        if(address == BFile.UNKNOWN_ADDRESS) {
+                            final Value key = new CollectionStore.CollectionKey(uri.toString());
+                            is = collectionsDb.getAsStream(key);
+                        } else {
+                            is = collectionsDb.getAsStream(address);
+                        }
+                        if(is == null) {
+                            return null;
+                        }
+                        final MutableCollection loaded = MutableCollection.load(this, uri, is);
+                        rebuildDocumentNames = loaded.hasIncompleteDocumentNames();
+                        collection = loaded;
+
+                        collectionsCache.add(collection);
+
+                        //TODO : rethrow exceptions ? -pb
+                    } catch(final UnsupportedEncodingException e) {
+                        LOG.error("Unable to encode '" + uri + "' in UTF-8");
+                        return null;
+                    } catch(final LockException e) {
+                        LOG.warn("Failed to acquire lock on " + FileUtils.fileName(collectionsDb.getFile()));
                         return null;
+                    } catch(final IOException e) {
+                        LOG.error(e.getMessage(), e);
+                        return null;
+                    } finally {
+                        lock.release(LockMode.READ_LOCK);
+                    }
+                } else {
+                    if(!collection.getURI().equalsInternal(uri)) {
+                        LOG.error("The collection received from the cache is not the requested: " + uri +
+                            "; received: " + collection.getURI());
                     }
-                    collection = MutableCollection.load(this, uri, is);
-
                     collectionsCache.add(collection);
 
-                    //TODO : rethrow exceptions ? -pb
-                } catch(final UnsupportedEncodingException e) {
-                    LOG.error("Unable to encode '" + uri + "' in UTF-8");
-                    return null;
-                } catch(final LockException e) {
-                    LOG.warn("Failed to acquire lock on " + FileUtils.fileName(collectionsDb.getFile()));
-                    return null;
-                } catch(final IOException e) {
-                    LOG.error(e.getMessage(), e);
-                    return null;
-                } finally {
-                    lock.release(LockMode.READ_LOCK);
-                }
-            } else {
-                if(!collection.getURI().equalsInternal(uri)) {
-                    LOG.error("The collection received from the cache is not the requested: " + uri +
-                        "; received: " + collection.getURI());
-                }
-                collectionsCache.add(collection);
-
-                if(!collection.getPermissionsNoLock().validate(getCurrentSubject(), Permission.EXECUTE)) {
-                    throw new PermissionDeniedException("Permission denied to open collection: " + collection.getURI().toString() + " by " + getCurrentSubject().getName());
+                    if(!collection.getPermissionsNoLock().validate(getCurrentSubject(), Permission.EXECUTE)) {
+                        throw new PermissionDeniedException("Permission denied to open collection: " + collection.getURI().toString() + " by " + getCurrentSubject().getName());
+                    }
                 }
             }
+        } finally {
+            if(pathLock != null) {
+                pathLock.release();
+            }
+        }
+
+        //Rebuilding needs a write lock on the store, which was only read locked while loading
+        if(rebuildDocumentNames) {
+            rebuildDocumentNames(collection);
         }
 
         //Important : 
@@ -979,6 +1079,25 @@ public class NativeBroker extends DBBroker {
         return collection;
     }
 
+    /**
+     * Lock the path of a collection in an intention mode while it is opened, so it is
+     * not opened while a copy, move, removal or reindex of one of its ancestors is in
+     * progress. A thread performing such an operation holds path locks already and
+     * does not lock again, see {@link HierarchicalLockManager#holdsLocks()}.
+     *
+     * @param uri the path of the collection
+     * @param lockMode the mode in which the collection is going to be locked
+     * @return the path lock, or null if the current thread holds path locks already
+     */
+    private PathLock lockCollectionPath(final XmldbURI uri, final LockMode lockMode) throws LockException {
+        final HierarchicalLockManager collectionLocks = pool.getCollectionLocks();
+        if(collectionLocks.holdsLocks()) {
+            return null;
+        }
+        return collectionLocks.acquire(uri, lockMode == LockMode.WRITE_LOCK ?
+                HierarchicalLockManager.Mode.IX : HierarchicalLockManager.Mode.IS);
+    }
+
     /**
      * Checks all permissions in the tree to ensure that a copy operation will succeed
      */
@@ -1066,36 +1185,33 @@ public class NativeBroker extends DBBroker {
             throw new PermissionDeniedException("Cannot copy collection '" + collection.getURI() + "' to it child collection '"+destination.getURI()+"'.");
         }
 
-        final CollectionCache collectionsCache = pool.getCollectionsCache();
-        synchronized(collectionsCache) {
-            final Lock lock = collectionsDb.getLock();
-            try {
-                pool.getProcessMonitor().startJob(ProcessMonitor.ACTION_COPY_COLLECTION, collection.getURI());
-                lock.acquire(LockMode.WRITE_LOCK);
-
-                //recheck here because now under 'synchronized(collectionsCache)'
-                if(isSubCollection(collection, destination)) {
-                    throw new PermissionDeniedException("Cannot copy collection '" + collection.getURI() + "' to it child collection '"+destination.getURI()+"'.");
-                }
+        // lock the source tree against changes and the destination tree against any access
+        final PathLock pathLock = pool.getCollectionLocks().acquire(new XmldbURI[] { srcURI, dstURI },
+                new HierarchicalLockManager.Mode[] { HierarchicalLockManager.Mode.S, HierarchicalLockManager.Mode.X });
+        pool.getProcessMonitor().startJob(ProcessMonitor.ACTION_COPY_COLLECTION, collection.getURI());
+        try {
+            //recheck here because now under the path locks
+            if(isSubCollection(collection, destination)) {
+                throw new PermissionDeniedException("Cannot copy collection '" + collection.getURI() + "' to it child collection '"+destination.getURI()+"'.");
+            }
 
-                final XmldbURI parentName = collection.getParentURI();
-                final Collection parent = parentName == null ? collection : getCollection(parentName);
+            final XmldbURI parentName = collection.getParentURI();
+            final Collection parent = parentName == null ? collection : getCollection(parentName);
 
-                final CollectionTrigger trigger = new CollectionTriggers(this, parent);
-                trigger.beforeCopyCollection(this, transaction, collection, dstURI);
+            final CollectionTrigger trigger = new CollectionTriggers(this, parent);
+            trigger.beforeCopyCollection(this, transaction, collection, dstURI);
 
-                //atomically check all permissions in the tree to ensure a copy operation will succeed before starting copying
-                checkPermissionsForCopy(collection, destination.getURI(), newName);
+            //atomically check all permissions in the tree to ensure a copy operation will succeed before starting copying
+            checkPermissionsForCopy(collection, destination.getURI(), newName);
 
-                final DocumentTrigger docTrigger = new DocumentTriggers(this);
+            final DocumentTrigger docTrigger = new DocumentTriggers(this);
 
-                final Collection newCollection = doCopyCollection(transaction, docTrigger, collection, destination, newName, false);
+            final Collection newCollection = doCopyCollection(transaction, docTrigger, collection, destination, newName, false);
 
-                trigger.afterCopyCollection(this, transaction, newCollection, srcURI);
-            } finally {
-                lock.release(LockMode.WRITE_LOCK);
-                pool.getProcessMonitor().endJob();
-            }
+            trigger.afterCopyCollection(this, transaction, newCollection, srcURI);
+        } finally {
+            pathLock.release();
+            pool.getProcessMonitor().endJob();
         }
     }
 
@@ -1267,37 +1383,41 @@ public class NativeBroker extends DBBroker {
          * Which will ensure that collection can be removed and then remove it.
          */
         final XmldbURI movedToCollectionUri = destination.getURI().append(newName);
-        final Collection existingMovedToCollection = getCollection(movedToCollectionUri);
-        if(existingMovedToCollection != null) {
-            removeCollection(transaction, existingMovedToCollection);
-        }
+        final PathLock pathLock = pool.getCollectionLocks().acquire(HierarchicalLockManager.Mode.X, collection.getURI(), movedToCollectionUri);
+        try {
+            final Collection existingMovedToCollection = getCollection(movedToCollectionUri);
+            if(existingMovedToCollection != null) {
+                removeCollection(transaction, existingMovedToCollection);
+            }
 
-        pool.getProcessMonitor().startJob(ProcessMonitor.ACTION_MOVE_COLLECTION, collection.getURI());
+            pool.getProcessMonitor().startJob(ProcessMonitor.ACTION_MOVE_COLLECTION, collection.getURI());
 
-        try {
+            try {
 
-            final XmldbURI srcURI = collection.getURI();
-            final XmldbURI dstURI = destination.getURI().append(newName);
+                final XmldbURI srcURI = collection.getURI();
+                final XmldbURI dstURI = destination.getURI().append(newName);
 
-            final CollectionTrigger trigger = new CollectionTriggers(this, parent);
-            trigger.beforeMoveCollection(this, transaction, collection, dstURI);
+                final CollectionTrigger trigger = new CollectionTriggers(this, parent);
+                trigger.beforeMoveCollection(this, transaction, collection, dstURI);
 
-            // sourceDir must be known in advance, because once moveCollectionRecursive
-            // is called, both collection and destination can point to the same resource
-            final Path fsSourceDir = getCollectionFile(getFsDir(), collection.getURI(), false);
+                // sourceDir must be known in advance, because once moveCollectionRecursive
+                // is called, both collection and destination can point to the same resource
+                final Path fsSourceDir = getCollectionFile(getFsDir(), collection.getURI(), false);
 
-            // Need to move each collection in the source tree individually, so recurse.
-            moveCollectionRecursive(transaction, trigger, collection, destination, newName, false);
+                // Need to move each collection in the source tree individually, so recurse.
+                moveCollectionRecursive(transaction, trigger, collection, destination, newName, false);
 
-            // For binary resources, though, just move the top level directory and all descendants come with it.
-            moveBinaryFork(transaction, fsSourceDir, destination, newName);
+                // For binary resources, though, just move the top level directory and all descendants come with it.
+                moveBinaryFork(transaction, fsSourceDir, destination, newName);
 
-            trigger.afterMoveCollection(this, transaction, collection, srcURI);
+                trigger.afterMoveCollection(this, transaction, collection, srcURI);
 
+            } finally {
+                pool.getProcessMonitor().endJob();
+            }
         } finally {
-            pool.getProcessMonitor().endJob();
+            pathLock.release();
         }
-
     }
 
     private void moveBinaryFork(final Txn transaction, final Path sourceDir, final Collection destination, final XmldbURI newName) throws IOException {
@@ -1353,32 +1473,32 @@ public class NativeBroker extends DBBroker {
 
         final XmldbURI uri = collection.getURI();
         final CollectionCache collectionsCache = pool.getCollectionsCache();
-        synchronized(collectionsCache) {
 
-            final XmldbURI srcURI = collection.getURI();
-            final XmldbURI dstURI = destination.getURI().append(newName);
+        final XmldbURI srcURI = collection.getURI();
+        final XmldbURI dstURI = destination.getURI().append(newName);
 
-            //recheck here because now under 'synchronized(collectionsCache)'
-            if(isSubCollection(collection, destination)) {
-                throw new PermissionDeniedException("Cannot move collection '" + srcURI + "' to it child collection '"+dstURI+"'.");
-            }
+        //recheck here because now under the path locks taken by moveCollection
+        if(isSubCollection(collection, destination)) {
+            throw new PermissionDeniedException("Cannot move collection '" + srcURI + "' to it child collection '"+dstURI+"'.");
+        }
 
-            if(fireTrigger) {
-                trigger.beforeMoveCollection(this, transaction, collection, dstURI);
-            }
+        if(fireTrigger) {
+            trigger.beforeMoveCollection(this, transaction, collection, dstURI);
+        }
 
-            final XmldbURI parentName = collection.getParentURI();
-            final Collection parent = openCollection(parentName, LockMode.WRITE_LOCK);
+        final XmldbURI parentName = collection.getParentURI();
+        final Collection parent = openCollection(parentName, LockMode.WRITE_LOCK);
 
-            if(parent != null) {
-                try {
-                    //TODO : resolve URIs
-                    parent.removeCollection(this, uri.lastSegment());
-                } finally {
-                    parent.release(LockMode.WRITE_LOCK);
-                }
+        if(parent != null) {
+            try {
+                //TODO : resolve URIs
+                parent.removeCollection(this, uri.lastSegment());
+            } finally {
+                parent.release(LockMode.WRITE_LOCK);
             }
+        }
 
+        synchronized(collectionsCache) {
             final Lock lock = collectionsDb.getLock();
             try {
                 lock.acquire(LockMode.WRITE_LOCK);
@@ -1401,23 +1521,23 @@ public class NativeBroker extends DBBroker {
             } finally {
                 lock.release(LockMode.WRITE_LOCK);
             }
+        }
 
-            if(fireTrigger) {
-                trigger.afterMoveCollection(this, transaction, collection, srcURI);
-            }
+        if(fireTrigger) {
+            trigger.afterMoveCollection(this, transaction, collection, srcURI);
+        }
 
-            for(final Iterator<XmldbURI> i = collection.collectionIterator(this); i.hasNext(); ) {
-                final XmldbURI childName = i.next();
-                //TODO : resolve URIs !!! name.resolve(childName)
-                final Collection child = openCollection(uri.append(childName), LockMode.WRITE_LOCK);
-                if(child == null) {
-                    LOG.warn("Child collection " + childName + " not found");
-                } else {
-                    try {
-                        moveCollectionRecursive(transaction, trigger, child, collection, childName, true);
-                    } finally {
-                        child.release(LockMode.WRITE_LOCK);
-                    }
+        for(final Iterator<XmldbURI> i = collection.collectionIterator(this); i.hasNext(); ) {
+            final XmldbURI childName = i.next();
+            //TODO : resolve URIs !!! name.resolve(childName)
+            final Collection child = openCollection(uri.append(childName), LockMode.WRITE_LOCK);
+            if(child == null) {
+                LOG.warn("Child collection " + childName + " not found");
+            } else {
+                try {
+                    moveCollectionRecursive(transaction, trigger, child, collection, childName, true);
+                } finally {
+                    child.release(LockMode.WRITE_LOCK);
                 }
             }
         }
@@ -1481,7 +1601,9 @@ public class NativeBroker extends DBBroker {
             final long start = System.currentTimeMillis();
             final CollectionCache collectionsCache = pool.getCollectionsCache();
 
-            synchronized(collectionsCache) {
+            PathLock pathLock = null;
+            try {
+                pathLock = pool.getCollectionLocks().acquire(collection.getURI(), HierarchicalLockManager.Mode.X);
                 final XmldbURI uri = collection.getURI();
                 final String collName = uri.getRawCollectionPath();
 
@@ -1550,39 +1672,55 @@ public class NativeBroker extends DBBroker {
                     }
                 }
 
-                //Update current state
-                final Lock lock = collectionsDb.getLock();
+                // collect the documents before their metadata is removed below: the documents
+                // of a lazily loaded collection are read from that metadata on demand
+                final List<DocumentImpl> documents = new ArrayList<>();
                 try {
-                    lock.acquire(LockMode.WRITE_LOCK);
-                    // remove the metadata of all documents in the collection
-                    final Value docKey = new CollectionStore.DocumentKey(collection.getId());
-                    final IndexQuery query = new IndexQuery(IndexQuery.TRUNC_RIGHT, docKey);
-                    collectionsDb.removeAll(transaction, query);
-                    // if this is not the root collection remove it...
-                    if(!isRoot) {
-                        final Value key = new CollectionStore.CollectionKey(collName);
-                        //... from the disk
-                        collectionsDb.remove(transaction, key);
-                        //... from the cache
-                        collectionsCache.remove(collection);
-                        //and free its id for any further use
-                        collectionsDb.freeCollectionId(collection.getId());
-                    } else {
-                        //Simply save the collection on disk
-                        //It will remain cached
-                        //and its id well never be made available
-                        saveCollection(transaction, collection);
+                    for (final Iterator<DocumentImpl> i = collection.iterator(this); i.hasNext(); ) {
+                        documents.add(i.next());
                     }
                 } catch(final LockException e) {
-                    LOG.warn("Failed to acquire lock on '" + FileUtils.fileName(collectionsDb.getFile()) + "'");
+                    LOG.error("LockException while removing documents from collection '" + collection.getURI() + "'.", e);
+                    return false;
                 }
-                //catch(ReadOnlyException e) {
-                //throw new PermissionDeniedException(DATABASE_IS_READ_ONLY);
-                //}
-                catch(final BTreeException | IOException e) {
-                    LOG.warn("Exception while removing collection: " + e.getMessage(), e);
-                } finally {
-                    lock.release(LockMode.WRITE_LOCK);
+
+                //Update current state
+                synchronized(collectionsCache) {
+                    final Lock lock = collectionsDb.getLock();
+                    try {
+                        lock.acquire(LockMode.WRITE_LOCK);
+                        // remove the metadata of all documents in the collection
+                        final Value docKey = new CollectionStore.DocumentKey(collection.getId());
+                        final IndexQuery query = new IndexQuery(IndexQuery.TRUNC_RIGHT, docKey);
+                        collectionsDb.removeAll(transaction, query);
+                        collectionsDb.removeAll(transaction, new IndexQuery(IndexQuery.TRUNC_RIGHT,
+                                new CollectionStore.DocumentNameKey(collection.getId())));
+                        // if this is not the root collection remove it...
+                        if(!isRoot) {
+                            final Value key = new CollectionStore.CollectionKey(collName);
+                            //... from the disk
+                            collectionsDb.remove(transaction, key);
+                            //... from the cache
+                            collectionsCache.remove(collection);
+                            //and free its id for any further use
+                            collectionsDb.freeCollectionId(collection.getId());
+                        } else {
+                            //Simply save the collection on disk
+                            //It will remain cached
+                            //and its id well never be made available
+                            saveCollection(transaction, collection);
+                        }
+                    } catch(final LockException e) {
+                        LOG.warn("Failed to acquire lock on '" + FileUtils.fileName(collectionsDb.getFile()) + "'");
+                    }
+                    //catch(ReadOnlyException e) {
+                    //throw new PermissionDeniedException(DATABASE_IS_READ_ONLY);
+                    //}
+                    catch(final BTreeException | IOException e) {
+                        LOG.warn("Exception while removing collection: " + e.getMessage(), e);
+                    } finally {
+                        lock.release(LockMode.WRITE_LOCK);
+                    }
                 }
 
                 //Remove child resources
@@ -1592,58 +1730,52 @@ public class NativeBroker extends DBBroker {
 
                 final DocumentTrigger docTrigger = new DocumentTriggers(this, collection);
 
-                try {
-                    for (final Iterator<DocumentImpl> i = collection.iterator(this); i.hasNext(); ) {
-                        final DocumentImpl doc = i.next();
-
-                        docTrigger.beforeDeleteDocument(this, transaction, doc);
-
-                        //Remove doc's metadata
-                        // WM: now removed in one step. see above.
-                        //removeResourceMetadata(transaction, doc);
-                        //Remove document nodes' index entries
-                        new DOMTransaction(this, domDb, LockMode.WRITE_LOCK) {
-                            @Override
-                            public Object start() {
-                                try {
-                                    final Value ref = new NodeRef(doc.getDocId());
-                                    final IndexQuery query = new IndexQuery(IndexQuery.TRUNC_RIGHT, ref);
-                                    domDb.remove(transaction, query, null);
-                                } catch (final BTreeException e) {
-                                    LOG.warn("btree error while removing document", e);
-                                } catch (final IOException e) {
-                                    LOG.warn("io error while removing document", e);
-                                } catch (final TerminatedException e) {
-                                    LOG.warn("method terminated", e);
-                                }
-                                return null;
+                for (final DocumentImpl doc : documents) {
+                    docTrigger.beforeDeleteDocument(this, transaction, doc);
+
+                    //Remove doc's metadata
+                    // WM: now removed in one step. see above.
+                    //removeResourceMetadata(transaction, doc);
+                    //Remove document nodes' index entries
+                    new DOMTransaction(this, domDb, LockMode.WRITE_LOCK) {
+                        @Override
+                        public Object start() {
+                            try {
+                                final Value ref = new NodeRef(doc.getDocId());
+                                final IndexQuery query = new IndexQuery(IndexQuery.TRUNC_RIGHT, ref);
+                                domDb.remove(transaction, query, null);
+                            } catch (final BTreeException e) {
+                                LOG.warn("btree error while removing document", e);
+                            } catch (final IOException e) {
+                                LOG.warn("io error while removing document", e);
+                            } catch (final TerminatedException e) {
+                                LOG.warn("method terminated", e);
                             }
-                        }.run();
-                        //Remove nodes themselves
-                        new DOMTransaction(this, domDb, LockMode.WRITE_LOCK) {
-                            @Override
-                            public Object start() {
-                                if (doc.getResourceType() == DocumentImpl.BINARY_FILE) {
-                                    final long page = ((BinaryDocument) doc).getPage();
-                                    if (page > Page.NO_PAGE) {
-                                        domDb.removeOverflowValue(transaction, page);
-                                    }
-                                } else {
-                                    final NodeHandle node = (NodeHandle) doc.getFirstChild();
-                                    domDb.removeAll(transaction, node.getInternalAddress());
+                            return null;
+                        }
+                    }.run();
+                    //Remove nodes themselves
+                    new DOMTransaction(this, domDb, LockMode.WRITE_LOCK) {
+                        @Override
+                        public Object start() {
+                            if (doc.getResourceType() == DocumentImpl.BINARY_FILE) {
+                                final long page = ((BinaryDocument) doc).getPage();
+                                if (page > Page.NO_PAGE) {
+                                    domDb.removeOverflowValue(transaction, page);
                                 }
-                                return null;
+                            } else {
+                                final NodeHandle node = (NodeHandle) doc.getFirstChild();
+                                domDb.removeAll(transaction, doc, node.getInternalAddress());
                             }
-                        }.run();
+                            return null;
+                        }
+                    }.run();
 
-                        docTrigger.afterDeleteDocument(this, transaction, doc.getURI());
+                    docTrigger.afterDeleteDocument(this, transaction, doc.getURI());
+                    pool.getNotificationService().notifyUpdate(doc, UpdateListener.REMOVE);
 
-                        //Make doc's id available again
-                        collectionsDb.freeResourceId(doc.getDocId());
-                    }
-                } catch(final LockException e) {
-                    LOG.error("LockException while removing documents from collection '" + collection.getURI() + "'.", e);
-                    return false;
+                    //Make doc's id available again
+                    collectionsDb.freeResourceId(doc.getDocId());
                 }
 
                 //now that the database has been updated, update the binary collections on disk
@@ -1681,6 +1813,13 @@ public class NativeBroker extends DBBroker {
 
                 return true;
 
+            } catch(final LockException e) {
+                LOG.error("LockException while removing collection '" + collection.getURI() + "'", e);
+                return false;
+            } finally {
+                if(pathLock != null) {
+                    pathLock.release();
+                }
             }
         } finally {
             pool.getProcessMonitor().endJob();
@@ -1735,6 +1874,7 @@ public class NativeBroker extends DBBroker {
         } finally {
             lock.release(LockMode.WRITE_LOCK);
         }
+        pool.getNotificationService().notifyCollectionUpdate(collection.getURI());
     }
 
     /**
@@ -1806,8 +1946,9 @@ public class NativeBroker extends DBBroker {
     }
 
     public void reindexCollection(final Txn transaction, final Collection collection, final IndexMode mode) throws PermissionDeniedException, IOException {
-        final CollectionCache collectionsCache = pool.getCollectionsCache();
-        synchronized(collectionsCache) {
+        PathLock pathLock = null;
+        try {
+            pathLock = pool.getCollectionLocks().acquire(collection.getURI(), HierarchicalLockManager.Mode.S);
             if(!collection.getPermissionsNoLock().validate(getCurrentSubject(), Permission.WRITE)) {
                 throw new PermissionDeniedException("Account " + getCurrentSubject().getName() + " have insufficient privileges on collection " + collection.getURI());
             }
@@ -1838,6 +1979,12 @@ public class NativeBroker extends DBBroker {
             } catch(final LockException e) {
                 LOG.error("LockException while reindexing child collections of collection '" + collection.getURI() + ". Skipping...", e);
             }
+        } catch(final LockException e) {
+            LOG.error("LockException while reindexing collection '" + collection.getURI() + "'. Skipping...", e);
+        } finally {
+            if(pathLock != null) {
+                pathLock.release();
+            }
         }
     }
 
@@ -2056,6 +2203,9 @@ public class NativeBroker extends DBBroker {
             doc.write(os);
             final Value key = new CollectionStore.DocumentKey(doc.getCollection().getId(), doc.getResourceType(), doc.getDocId());
             collectionsDb.put(transaction, key, os.data(), true);
+            if(storeDocumentNames) {
+                collectionsDb.storeDocumentName(transaction, doc);
+            }
             //} catch (ReadOnlyException e) {
             //LOG.warn(DATABASE_IS_READ_ONLY);
         } catch(final LockException e) {
@@ -2065,6 +2215,7 @@ public class NativeBroker extends DBBroker {
         } finally {
             lock.release(LockMode.WRITE_LOCK);
         }
+        pool.getNotificationService().notifyCollectionUpdate(doc.getCollection().getURI());
     }
 
     public void storeMetadata(final Txn transaction, final DocumentImpl doc) throws TriggerException {
@@ -2452,83 +2603,94 @@ public class NativeBroker extends DBBroker {
             newName = doc.getFileURI();
         }
 
+        // the destination is locked as for a store, before the monitor of the collection cache is taken
+        final HierarchicalLockManager collectionLocks = pool.getCollectionLocks();
+        final PathLock pathLock = collectionLocks.holdsLocks() ? null : collectionLocks.acquire(
+                new XmldbURI[] { collection.getURI(), destination.getURI() },
+                new HierarchicalLockManager.Mode[] { HierarchicalLockManager.Mode.IS, HierarchicalLockManager.Mode.IX });
         final CollectionCache collectionsCache = pool.getCollectionsCache();
-        synchronized(collectionsCache) {
-            final Lock lock = collectionsDb.getLock();
-            try {
-                lock.acquire(LockMode.WRITE_LOCK);
-                final DocumentImpl oldDoc = destination.getDocument(this, newName);
+        try {
+            synchronized(collectionsCache) {
+                final Lock lock = collectionsDb.getLock();
+                try {
+                    lock.acquire(LockMode.WRITE_LOCK);
+                    final DocumentImpl oldDoc = destination.getDocument(this, newName);
 
-                if(!destination.getPermissionsNoLock().validate(getCurrentSubject(), Permission.EXECUTE)) {
-                    throw new PermissionDeniedException("Account '" + getCurrentSubject().getName() + "' does not have execute access on the destination collection '" + destination.getURI() + "'.");
-                }
+                    if(!destination.getPermissionsNoLock().validate(getCurrentSubject(), Permission.EXECUTE)) {
+                        throw new PermissionDeniedException("Account '" + getCurrentSubject().getName() + "' does not have execute access on the destination collection '" + destination.getURI() + "'.");
+                    }
 
-                if(destination.hasChildCollection(this, newName.lastSegment())) {
-                    throw new EXistException(
-                        "The collection '" + destination.getURI() + "' already has a sub-collection named '" + newName.lastSegment() + "', you cannot create a Document with the same name as an existing collection."
-                    );
-                }
+                    if(destination.hasChildCollection(this, newName.lastSegment())) {
+                        throw new EXistException(
+                            "The collection '" + destination.getURI() + "' already has a sub-collection named '" + newName.lastSegment() + "', you cannot create a Document with the same name as an existing collection."
+                        );
+                    }
 
-                final XmldbURI newURI = destination.getURI().append(newName);
-                final XmldbURI oldUri = doc.getURI();
+                    final XmldbURI newURI = destination.getURI().append(newName);
+                    final XmldbURI oldUri = doc.getURI();
 
-                final DocumentTrigger trigger = new DocumentTriggers(this, collection);
+                    final DocumentTrigger trigger = new DocumentTriggers(this, collection);
 
-                if(oldDoc == null) {
-                    if(!destination.getPermissionsNoLock().validate(getCurrentSubject(), Permission.WRITE)) {
-                        throw new PermissionDeniedException("Account '" + getCurrentSubject().getName() + "' does not have write access on the destination collection '" + destination.getURI() + "'.");
-                    }
-                } else {
-                    //overwrite existing document
+                    if(oldDoc == null) {
+                        if(!destination.getPermissionsNoLock().validate(getCurrentSubject(), Permission.WRITE)) {
+                            throw new PermissionDeniedException("Account '" + getCurrentSubject().getName() + "' does not have write access on the destination collection '" + destination.getURI() + "'.");
+                        }
+                    } else {
+                        //overwrite existing document
 
-                    if(doc.getDocId() == oldDoc.getDocId()) {
-                        throw new EXistException("Cannot copy resource to itself '" + doc.getURI() + "'.");
-                    }
+                        if(doc.getDocId() == oldDoc.getDocId()) {
+                            throw new EXistException("Cannot copy resource to itself '" + doc.getURI() + "'.");
+                        }
 
-                    if(!oldDoc.getPermissions().validate(getCurrentSubject(), Permission.WRITE)) {
-                        throw new PermissionDeniedException("A resource with the same name already exists in the target collection '" + oldDoc.getURI() + "', and you do not have write access on that resource.");
-                    }
+                        if(!oldDoc.getPermissions().validate(getCurrentSubject(), Permission.WRITE)) {
+                            throw new PermissionDeniedException("A resource with the same name already exists in the target collection '" + oldDoc.getURI() + "', and you do not have write access on that resource.");
+                        }
 
-                    trigger.beforeDeleteDocument(this, transaction, oldDoc);
-                    trigger.afterDeleteDocument(this, transaction, newURI);
-                }
+                        trigger.beforeDeleteDocument(this, transaction, oldDoc);
+                        trigger.afterDeleteDocument(this, transaction, newURI);
+                    }
 
-                trigger.beforeCopyDocument(this, transaction, doc, newURI);
+                    trigger.beforeCopyDocument(this, transaction, doc, newURI);
 
-                DocumentImpl newDocument = null;
-                if(doc.getResourceType() == DocumentImpl.BINARY_FILE) {
-                    InputStream is = null;
-                    try {
-                        is = getBinaryResource((BinaryDocument) doc);
-                        newDocument = destination.addBinaryResource(transaction, this, newName, is, doc.getMetadata().getMimeType(), -1);
-                    } finally {
-                        if(is != null) {
-                            is.close();
+                    DocumentImpl newDocument = null;
+                    if(doc.getResourceType() == DocumentImpl.BINARY_FILE) {
+                        InputStream is = null;
+                        try {
+                            is = getBinaryResource((BinaryDocument) doc);
+                            newDocument = destination.addBinaryResource(transaction, this, newName, is, doc.getMetadata().getMimeType(), -1);
+                        } finally {
+                            if(is != null) {
+                                is.close();
+                            }
                         }
+                    } else {
+                        final DocumentImpl newDoc = new DocumentImpl(pool, destination, newName);
+                        newDoc.copyOf(doc, oldDoc != null);
+                        newDoc.setDocId(getNextResourceId(transaction, destination));
+                        newDoc.getUpdateLock().acquire(LockMode.WRITE_LOCK);
+                        try {
+                            copyXMLResource(transaction, doc, newDoc);
+                            destination.addDocument(transaction, this, newDoc);
+                            storeXMLResource(transaction, newDoc);
+                        } finally {
+                            newDoc.getUpdateLock().release(LockMode.WRITE_LOCK);
+                        }
+                        newDocument = newDoc;
                     }
-                } else {
-                    final DocumentImpl newDoc = new DocumentImpl(pool, destination, newName);
-                    newDoc.copyOf(doc, oldDoc != null);
-                    newDoc.setDocId(getNextResourceId(transaction, destination));
-                    newDoc.getUpdateLock().acquire(LockMode.WRITE_LOCK);
-                    try {
-                        copyXMLResource(transaction, doc, newDoc);
-                        destination.addDocument(transaction, this, newDoc);
-                        storeXMLResource(transaction, newDoc);
-                    } finally {
-                        newDoc.getUpdateLock().release(LockMode.WRITE_LOCK);
-                    }
-                    newDocument = newDoc;
-                }
 
-                trigger.afterCopyDocument(this, transaction, newDocument, oldUri);
+                    trigger.afterCopyDocument(this, transaction, newDocument, oldUri);
 
-            } catch(final IOException e) {
-                LOG.warn("An error occurred while copying resource", e);
-            } catch(final TriggerException e) {
-                throw new PermissionDeniedException(e.getMessage(), e);
-            } finally {
-                lock.release(LockMode.WRITE_LOCK);
+                } catch(final IOException e) {
+                    LOG.warn("An error occurred while copying resource", e);
+                } catch(final TriggerException e) {
+                    throw new PermissionDeniedException(e.getMessage(), e);
+                } finally {
+                    lock.release(LockMode.WRITE_LOCK);
+                }
+            }
+        } finally {
+            if(pathLock != null) {
+                pathLock.release();
             }
         }
     }
@@ -2724,7 +2886,7 @@ public class NativeBroker extends DBBroker {
                         @Override
                         public Object start() {
                             final NodeHandle node = (NodeHandle) document.getFirstChild();
-                            domDb.removeAll(transaction, node.getInternalAddress());
+                            domDb.removeAll(transaction, document, node.getInternalAddress());
                             return null;
                         }
                     }.run();
@@ -2828,6 +2990,7 @@ public class NativeBroker extends DBBroker {
             }
             final Value key = new CollectionStore.DocumentKey(document.getCollection().getId(), document.getResourceType(), document.getDocId());
             collectionsDb.remove(transaction, key);
+            collectionsDb.removeDocumentName(transaction, document);
         } catch(final LockException e) {
             LOG.warn("Failed to acquire lock on " + FileUtils.fileName(collectionsDb.getFile()));
         } finally {
@@ -2969,7 +3132,7 @@ public class NativeBroker extends DBBroker {
             new DOMTransaction(this, domDb, LockMode.WRITE_LOCK) {
                 @Override
                 public Object start() {
-                    domDb.removeAll(transaction, firstChild);
+                    domDb.removeAll(transaction, doc, firstChild);
                     try {
                         domDb.flush();
                     } catch(final DBException e) {
@@ -3082,7 +3245,7 @@ public class NativeBroker extends DBBroker {
                     || nodeType == Node.ATTRIBUTE_NODE
                     || nodeType == Node.CDATA_SECTION_NODE
                     || node.getNodeId().getTreeLevel() > defaultIndexDepth) {
-                    address = domDb.add(transaction, data);
+                    address = domDb.add(transaction, doc, data);
                 } else {
                     address = domDb.put(transaction, new NodeRef(doc.getDocId(), node.getNodeId()), data);
                 }
@@ -3110,7 +3273,7 @@ public class NativeBroker extends DBBroker {
                 @Override
                 public Object start() throws ReadOnlyException {
                     if(StorageAddress.hasAddress(internalAddress)) {
-                        domDb.update(transaction, internalAddress, data);
+                        domDb.update(transaction, doc, internalAddress, data);
                     } else {
                         domDb.update(transaction, new NodeRef(doc.getDocId(), node.getNodeId()), data);
                     }
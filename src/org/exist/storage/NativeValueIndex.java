@@ -53,8 +53,11 @@ import org.exist.storage.txn.Txn;
 import org.exist.xquery.Constants;
 import org.exist.xquery.Constants.Comparison;
 import org.exist.xquery.Constants.StringTruncationOperator;
+import org.exist.xquery.PerformanceStats;
+import org.exist.xquery.QueryResourceUsage;
 import org.exist.xquery.TerminatedException;
 import org.exist.xquery.XPathException;
+import org.exist.xquery.regex.CompiledRegex;
 import org.exist.xquery.value.AtomicValue;
 import org.exist.xquery.value.StringValue;
 import org.exist.xquery.value.Type;
@@ -63,6 +66,9 @@ import java.io.IOException;
 import java.nio.file.Path;
 import java.text.Collator;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
 
 /**
  * Maintains an index on typed node values (optionally by QName).
@@ -85,7 +91,12 @@ import java.util.*;
  *  Value => [documentNodes+]
  *
  *
- * indexType - 0x0 = Generic, 0x1 = QName
+ * 3) NGramValue, which is only written if {@link #PROPERTY_INDEX_NGRAMS} is enabled and lists the string keys
+ *  containing an n-gram:
+ *  key => [indexType, collectionId, nGram, stringKey]
+ *  value => [0]
+ *
+ * indexType - 0x0 = Generic, 0x1 = QName, 0x2 = NGram
  *   Generic type is used with ValueSimpleIdx and QName is used with ValueQNameIdx
  *
  * collectionId: 4 bytes i.e. int
@@ -111,6 +122,14 @@ import java.util.*;
  * units: variable with encoded short, The number of units of this DLN
  * nodeIdDeltaData: byte[], The delta bits of this DLN from `deltaOffset` of the previous DLN
  *
+ * nGram: the UTF-8 encoding of {@link #NGRAM_LENGTH} characters, or {@link #NGRAM_LONG_KEY} for keys longer than
+ *   {@link #NGRAM_MAX_KEY_LENGTH} bytes
+ * stringKey: the complete key of a SimpleValue or QNameValue of type xs:string, or its first
+ *   {@link #NGRAM_MAX_KEY_LENGTH} bytes
+ *
+ * A NGramValue key which only consists of [indexType, collectionId] marks a collection for which
+ * every string key has its n-grams.
+ *
  * @author Wolfgang Meier <wolfgang@exist-db.org>
  * @author Adam Retter <adam.retter@googlemail.com>
  */
@@ -134,9 +153,20 @@ public class NativeValueIndex implements ContentLoadingObserver {
     public final static String INDEX_CASE_SENSITIVE_ATTRIBUTE = "caseSensitive";
     public final static String PROPERTY_INDEX_CASE_SENSITIVE = "indexer.case-sensitive";
 
+    public final static String INDEX_NGRAMS_ATTRIBUTE = "value-index-ngrams";
+    public final static String PROPERTY_INDEX_NGRAMS = "indexer.value-index-ngrams";
+
+    private static final String NGRAMS_KEY_IN_CONFIG = "db-connection.values.ngrams";
+
+    static final int NGRAM_LENGTH = 3;
+    static final int NGRAM_MAX_KEY_LENGTH = 256;
+    private static final byte[] NGRAM_LONG_KEY = { (byte) 0xFE };
+    private static final byte[] NGRAM_DATA = { 0 };
+
     public enum IndexType {
         GENERIC((byte)0x0),
-        QNAME((byte)0x1);
+        QNAME((byte)0x1),
+        NGRAM((byte)0x2);
         final byte val;
 
         IndexType(final byte val) {
@@ -186,6 +216,14 @@ public class NativeValueIndex implements ContentLoadingObserver {
 
     private final boolean caseSensitive;
 
+    private final boolean nGrams;
+
+    /**
+     * Caches for each collection if its string keys are completely covered by n-gram entries,
+     * shared by all instances using {@link #dbValues}.
+     */
+    private final Map<Integer, Boolean> nGramCollections;
+
     public NativeValueIndex(final DBBroker broker, final byte id, final Path dataDir, final Configuration config) throws DBException {
         this.broker = broker;
         this.config = config;
@@ -203,6 +241,15 @@ public class NativeValueIndex implements ContentLoadingObserver {
         }
         dbValues = nativeFile;
         caseSensitive = Optional.ofNullable((Boolean) config.getProperty(NativeValueIndex.PROPERTY_INDEX_CASE_SENSITIVE)).orElse(false);
+        nGrams = Optional.ofNullable((Boolean) config.getProperty(NativeValueIndex.PROPERTY_INDEX_NGRAMS)).orElse(false);
+
+        @SuppressWarnings("unchecked")
+        Map<Integer, Boolean> nGramCollections = (Map<Integer, Boolean>) config.getProperty(NGRAMS_KEY_IN_CONFIG);
+        if (nGramCollections == null) {
+            nGramCollections = new ConcurrentHashMap<>();
+            config.setProperty(NGRAMS_KEY_IN_CONFIG, nGramCollections);
+        }
+        this.nGramCollections = nGramCollections;
 
         broker.addContentLoadingObserver(getInstance());
     }
@@ -380,11 +427,13 @@ public class NativeValueIndex implements ContentLoadingObserver {
         }
         final int collectionId = this.doc.getCollection().getId();
 
-        flush(pendingGeneric, key -> new SimpleValue(collectionId, (Indexable) key));
-        flush(pendingQName, key -> new QNameValue(collectionId, key.qname, key.value, broker.getBrokerPool().getSymbols()));
+        final boolean writeNGrams = prepareNGrams(collectionId);
+
+        flush(pendingGeneric, writeNGrams, key -> new SimpleValue(collectionId, (Indexable) key));
+        flush(pendingQName, writeNGrams, key -> new QNameValue(collectionId, key.qname, key.value, broker.getBrokerPool().getSymbols()));
     }
 
-    private <T> void flush(final PendingChanges<T> pending, final FunctionE<T, Value, EXistException> dbKeyFn) {
+    private <T> void flush(final PendingChanges<T> pending, final boolean writeNGrams, final FunctionE<T, Value, EXistException> dbKeyFn) {
         for (final Map.Entry<T, List<NodeId>> entry : pending.changes.entrySet()) {
             final T key = entry.getKey();
 
@@ -422,10 +471,13 @@ public class NativeValueIndex implements ContentLoadingObserver {
                 lock.acquire(LockMode.WRITE_LOCK);
 
                 final Value v = dbKeyFn.apply(key);
+                final boolean newKey = writeNGrams && !dbValues.containsKey(v);
 
                 if (dbValues.append(v, os.data()) == BFile.UNKNOWN_ADDRESS) {
                     LOG.warn("Could not append index data for key '" + key + "'");
                     //TODO : throw exception ?
+                } else if (newKey) {
+                    writeNGrams(v);
                 }
             } catch (final EXistException | IOException e) {
                 LOG.error(e.getMessage(), e);
@@ -445,6 +497,153 @@ public class NativeValueIndex implements ContentLoadingObserver {
         pending.changes.clear();
     }
 
+    /**
+     * Determines if n-grams have to be written for the new keys of a collection.
+     *
+     * A collection which has no keys yet when n-grams are enabled is marked as
+     * covered by n-grams, other collections have to be reindexed first. If n-grams
+     * are disabled, the mark is removed, as the n-grams are not maintained any more.
+     *
+     * @param collectionId the id of the collection
+     * @return true if n-grams have to be written
+     */
+    private boolean prepareNGrams(final int collectionId) {
+        final Boolean complete = nGramCollections.get(collectionId);
+        if (complete != null) {
+            return complete;
+        }
+
+        final Lock lock = dbValues.getLock();
+        try {
+            lock.acquire(LockMode.WRITE_LOCK);
+
+            final Value marker = new NGramValue(collectionId);
+            boolean hasMarker = dbValues.containsKey(marker);
+            if (nGrams && !hasMarker && !hasKeys(collectionId)) {
+                hasMarker = dbValues.put(marker, NGRAM_DATA, false) != BFile.UNKNOWN_ADDRESS;
+            } else if (!nGrams && hasMarker) {
+                dbValues.remove(marker);
+                hasMarker = false;
+            }
+            nGramCollections.put(collectionId, hasMarker);
+            return hasMarker;
+        } catch (final LockException e) {
+            LOG.warn("Failed to acquire lock for '" + FileUtils.fileName(dbValues.getFile()) + "'", e);
+        } catch (final BTreeException | IOException | TerminatedException e) {
+            LOG.error(e.getMessage(), e);
+        } catch (final ReadOnlyException e) {
+            LOG.warn(e.getMessage(), e);
+        } finally {
+            lock.release(LockMode.WRITE_LOCK);
+        }
+        return false;
+    }
+
+    private boolean hasKeys(final int collectionId) throws BTreeException, IOException, TerminatedException {
+        final boolean[] found = { false };
+        final BTreeCallback cb = (value, pointer) -> {
+            found[0] = true;
+            return false;
+        };
+        dbValues.query(new IndexQuery(IndexQuery.TRUNC_RIGHT, new SimpleValue(collectionId)), cb);
+        if (!found[0]) {
+            dbValues.query(new IndexQuery(IndexQuery.TRUNC_RIGHT, new QNameValue(collectionId)), cb);
+        }
+        return found[0];
+    }
+
+    /**
+     * Writes an n-gram entry for every n-gram of a new string key.
+     * Must be called while holding the write lock on {@link #dbValues}.
+     *
+     * @param key a SimpleValue or QNameValue
+     */
+    private void writeNGrams(final Value key) throws ReadOnlyException {
+        final int offset = valueOffset(key);
+        if (key.data()[key.start() + offset] != Type.STRING) {
+            return;
+        }
+        final int collectionId = ByteConversion.byteToInt(key.data(), key.start() + SimpleValue.OFFSET_COLLECTION_ID);
+
+        if (key.getLength() > NGRAM_MAX_KEY_LENGTH) {
+            // long keys are always returned as candidates
+            dbValues.put(new NGramValue(collectionId, NGRAM_LONG_KEY, key, NGRAM_MAX_KEY_LENGTH), NGRAM_DATA, false);
+            return;
+        }
+
+        for (final String gram : nGrams(key, offset)) {
+            dbValues.put(new NGramValue(collectionId, gram.getBytes(UTF_8), key, key.getLength()), NGRAM_DATA, false);
+        }
+    }
+
+    /**
+     * Removes the n-gram entries of a string key which has been removed.
+     * Must be called while holding the write lock on {@link #dbValues}.
+     *
+     * @param key a SimpleValue or QNameValue
+     */
+    private void removeNGrams(final Value key) throws IOException, BTreeException, TerminatedException {
+        final int offset = valueOffset(key);
+        if (key.data()[key.start() + offset] != Type.STRING) {
+            return;
+        }
+        final int collectionId = ByteConversion.byteToInt(key.data(), key.start() + SimpleValue.OFFSET_COLLECTION_ID);
+
+        if (key.getLength() > NGRAM_MAX_KEY_LENGTH) {
+            // the entry is shared by all the keys starting with the same bytes
+            final Value truncated = new Value(Arrays.copyOfRange(key.data(), key.start(), key.start() + NGRAM_MAX_KEY_LENGTH));
+            final boolean[] found = { false };
+            dbValues.query(new IndexQuery(IndexQuery.TRUNC_RIGHT, truncated), (value, pointer) -> {
+                found[0] = true;
+                return false;
+            });
+            if (!found[0]) {
+                dbValues.remove(new NGramValue(collectionId, NGRAM_LONG_KEY, key, NGRAM_MAX_KEY_LENGTH));
+            }
+            return;
+        }
+
+        for (final String gram : nGrams(key, offset)) {
+            dbValues.remove(new NGramValue(collectionId, gram.getBytes(UTF_8), key, key.getLength()));
+        }
+    }
+
+    /**
+     * @return the distinct n-grams of a string key
+     */
+    private static Set<String> nGrams(final Value key, final int offset) {
+        final XMLString term = new XMLString(key.getLength());
+        UTF8.decode(key.data(), key.start() + offset + LENGTH_VALUE_TYPE, key.getLength() - offset - LENGTH_VALUE_TYPE, term);
+        final String s = term.toString();
+        final Set<String> grams = new HashSet<>();
+        for (int i = 0, j = nGramEnd(s, 0); j > 0; i = s.offsetByCodePoints(i, 1), j = nGramEnd(s, i)) {
+            grams.add(s.substring(i, j));
+        }
+        return grams;
+    }
+
+    /**
+     * @return the end of the n-gram starting at {@code start}, or -1 if the string is too short
+     */
+    private static int nGramEnd(final String s, final int start) {
+        int end = start;
+        for (int i = 0; i < NGRAM_LENGTH; i++) {
+            if (end >= s.length()) {
+                return -1;
+            }
+            end += Character.charCount(s.codePointAt(end));
+        }
+        return end;
+    }
+
+    private static int valueOffset(final Value key) {
+        if (key.data()[key.start()] == IndexType.GENERIC.val) {
+            return SimpleValue.OFFSET_VALUE;
+        } else {
+            return QNameValue.OFFSET_VALUE;
+        }
+    }
+
     @Override
     public void remove() {
         if (doc == null || (pendingGeneric.changes.isEmpty() && pendingQName.changes.isEmpty())) {
@@ -539,9 +738,11 @@ public class NativeValueIndex implements ContentLoadingObserver {
                         os.writeFixedInt(nodeIDsLength, os.position() - nodeIDsLength - LENGTH_NODE_IDS);
                     }
 
-//                        if(os.data().size() == 0)
-//                            dbValues.remove(value);
-                    if (dbValues.update(value.getAddress(), searchKey, os.data()) == BFile.UNKNOWN_ADDRESS) {
+                    if (os.data().size() == 0) {
+                        // no nodes left: remove the key and its n-grams
+                        dbValues.remove(searchKey);
+                        removeNGrams(searchKey);
+                    } else if (dbValues.update(value.getAddress(), searchKey, os.data()) == BFile.UNKNOWN_ADDRESS) {
                         LOG.error("Could not update index data for value '" + searchKey + "'");
                         //TODO: throw exception ?
                     }
@@ -552,7 +753,7 @@ public class NativeValueIndex implements ContentLoadingObserver {
                         //TODO : throw exception ?
                     }
                 }
-            } catch (final EXistException | IOException e) {
+            } catch (final EXistException | IOException | BTreeException | TerminatedException e) {
                 LOG.error(e.getMessage(), e);
             } catch (final LockException e) {
                 LOG.warn("Failed to acquire lock for '" + FileUtils.fileName(dbValues.getFile()) + "'", e);
@@ -585,10 +786,20 @@ public class NativeValueIndex implements ContentLoadingObserver {
             // remove QName index
             ref = new QNameValue(collection.getId());
             dbValues.removeAll(null, new IndexQuery(IndexQuery.TRUNC_RIGHT, ref));
+
+            // remove n-grams, the collection is now empty and thus covered by n-grams
+            ref = new NGramValue(collection.getId());
+            dbValues.removeAll(null, new IndexQuery(IndexQuery.TRUNC_RIGHT, ref));
+            if (nGrams) {
+                dbValues.put(ref, NGRAM_DATA, false);
+            }
+            nGramCollections.put(collection.getId(), nGrams);
         } catch (final LockException e) {
             LOG.warn("Failed to acquire lock for '" + FileUtils.fileName(dbValues.getFile()) + "'", e);
         } catch (final BTreeException | IOException e) {
             LOG.error(e.getMessage(), e);
+        } catch (final ReadOnlyException e) {
+            LOG.warn(e.getMessage(), e);
         } finally {
             lock.release(LockMode.WRITE_LOCK);
         }
@@ -605,7 +816,7 @@ public class NativeValueIndex implements ContentLoadingObserver {
             dropIndex(document.getDocId(), pendingQName, key -> new QNameValue(collectionId, key.qname, key.value, broker.getBrokerPool().getSymbols()));
         } catch (final LockException e) {
             LOG.warn("Failed to acquire lock for '" + FileUtils.fileName(dbValues.getFile()) + "'", e);
-        } catch (final IOException e) {
+        } catch (final IOException | BTreeException | TerminatedException e) {
             LOG.error(e.getMessage(), e);
         } catch (final EXistException e) {
             LOG.warn("Exception while removing range index: " + e.getMessage(), e);
@@ -615,7 +826,8 @@ public class NativeValueIndex implements ContentLoadingObserver {
         }
     }
 
-    private <T> void dropIndex(final int docId, final PendingChanges<T> pending, final FunctionE<T, Value, EXistException> dbKeyFn) throws EXistException, IOException {
+    private <T> void dropIndex(final int docId, final PendingChanges<T> pending, final FunctionE<T, Value, EXistException> dbKeyFn)
+            throws EXistException, IOException, BTreeException, TerminatedException {
         for (final Map.Entry<T, List<NodeId>> entry : pending.changes.entrySet()) {
             final T key = entry.getKey();
 
@@ -659,8 +871,9 @@ public class NativeValueIndex implements ContentLoadingObserver {
                 if (os.data().size() == 0) {
 
                     // nothing to store:
-                    // remove the existing key/value pair
+                    // remove the existing key/value pair and its n-grams
                     dbValues.remove(v);
+                    removeNGrams(v);
                 } else {
 
                     // still something to store:
@@ -692,6 +905,7 @@ public class NativeValueIndex implements ContentLoadingObserver {
                 findAll(watchDog, comparison, docs, contextSet, axis, null, value, result);
             }
         }
+        QueryResourceUsage.indexLookup(PerformanceStats.RANGE_IDX_TYPE, result.getLength());
         return result;
     }
 
@@ -699,6 +913,7 @@ public class NativeValueIndex implements ContentLoadingObserver {
         final NodeSet result = new NewArrayNodeSet();
         findAll(watchDog, comparison, docs, contextSet, axis, getDefinedIndexes(docs), value, result);
         findAll(watchDog, comparison, docs, contextSet, axis, null, value, result);
+        QueryResourceUsage.indexLookup(PerformanceStats.RANGE_IDX_TYPE, result.getLength());
         return result;
     }
 
@@ -794,6 +1009,7 @@ public class NativeValueIndex implements ContentLoadingObserver {
             qnames.add(qname);
             matchAll(watchDog, docs, contextSet, axis, expr, qnames, type, flags, caseSensitiveQuery, result, collator, truncation);
         }
+        QueryResourceUsage.indexLookup(PerformanceStats.RANGE_IDX_TYPE, result.getLength());
         return result;
     }
 
@@ -805,6 +1021,7 @@ public class NativeValueIndex implements ContentLoadingObserver {
         final NodeSet result = new NewArrayNodeSet();
         matchAll(watchDog, docs, contextSet, axis, expr, getDefinedIndexes(docs), type, flags, caseSensitiveQuery, result, collator, truncation);
         matchAll(watchDog, docs, contextSet, axis, expr, null, type, flags, caseSensitiveQuery, result, collator, truncation);
+        QueryResourceUsage.indexLookup(PerformanceStats.RANGE_IDX_TYPE, result.getLength());
         return result;
     }
 
@@ -828,31 +1045,34 @@ public class NativeValueIndex implements ContentLoadingObserver {
      */
     public NodeSet matchAll(final XQueryWatchDog watchDog, final DocumentSet docs, final NodeSet contextSet, final int axis, final String expr, final List<QName> qnames, final int type, final int flags, final boolean caseSensitiveQuery, final NodeSet result, final Collator collator, final StringTruncationOperator truncation) throws TerminatedException, EXistException {
         // if the match expression starts with a char sequence, we restrict the index scan to entries starting with
-        // the same sequence. Otherwise, we have to scan the whole index.
+        // the same sequence. If it contains a char sequence, we look up the candidate entries by their n-grams.
+        // Otherwise, we have to scan the whole index.
 
         final StringValue startTerm;
+        String nGramTerm = null;
+        CompiledRegex regex = null;
 
-        if (type == DBBroker.MATCH_REGEXP && expr.startsWith("^") && caseSensitiveQuery == caseSensitive) {
-            final StringBuilder term = new StringBuilder();
-            for (int j = 1; j < expr.length(); j++) {
-                if (Character.isLetterOrDigit(expr.charAt(j))) {
-                    term.append(expr.charAt(j));
-                } else {
-                    break;
-                }
-            }
-
-            if (term.length() > 0) {
-                startTerm = new StringValue(term.toString());
+        if (type == DBBroker.MATCH_REGEXP && collator == null) {
+            regex = RegexMatcher.compile(expr, type, flags);
+            if (regex.getPrefix() != null) {
+                startTerm = new StringValue(regex.getPrefix());
                 LOG.debug("Match will begin index scan at '" + startTerm + "'");
             } else {
                 startTerm = null;
+                nGramTerm = regex.getLiteral();
             }
         } else if (collator == null && (type == DBBroker.MATCH_EXACT || type == DBBroker.MATCH_STARTSWITH)) {
             startTerm = new StringValue(expr);
             LOG.debug("Match will begin index scan at '" + startTerm + "'");
         } else {
             startTerm = null;
+            if (collator == null && (type == DBBroker.MATCH_CONTAINS || type == DBBroker.MATCH_ENDSWITH)) {
+                nGramTerm = expr;
+            }
+        }
+
+        if (!nGrams || (nGramTerm != null && nGramTerm.codePointCount(0, nGramTerm.length()) < NGRAM_LENGTH)) {
+            nGramTerm = null;
         }
 
         // Select appropriate matcher/comparator
@@ -876,7 +1096,7 @@ public class NativeValueIndex implements ContentLoadingObserver {
                     break;
 
                 default:
-                    matcher = new RegexMatcher(expr, type, flags);
+                    matcher = regex != null ? new RegexMatcher(regex, false) : new RegexMatcher(expr, type, flags);
             }
         } else {
             matcher = new CollatorMatcher(expr, truncation, collator);
@@ -901,8 +1121,10 @@ public class NativeValueIndex implements ContentLoadingObserver {
                         //Compute a key for an arbitrary string in the collection
                         searchKey = new SimplePrefixValue(collectionId, Type.STRING);
                     }
-                    final IndexQuery query = new IndexQuery(IndexQuery.TRUNC_RIGHT, searchKey);
-                    dbValues.query(query, cb);
+                    if (nGramTerm == null || !queryNGrams(collectionId, searchKey, nGramTerm, cb)) {
+                        final IndexQuery query = new IndexQuery(IndexQuery.TRUNC_RIGHT, searchKey);
+                        dbValues.query(query, cb);
+                    }
                 } catch (final IOException | BTreeException e) {
                     LOG.error(e.getMessage(), e);
                 } catch (final LockException e) {
@@ -922,8 +1144,10 @@ public class NativeValueIndex implements ContentLoadingObserver {
                             LOG.debug("Searching with QName prefix");
                             searchKey = new QNamePrefixValue(collectionId, qname, Type.STRING, broker.getBrokerPool().getSymbols());
                         }
-                        final IndexQuery query = new IndexQuery(IndexQuery.TRUNC_RIGHT, searchKey);
-                        dbValues.query(query, cb);
+                        if (nGramTerm == null || !queryNGrams(collectionId, searchKey, nGramTerm, cb)) {
+                            final IndexQuery query = new IndexQuery(IndexQuery.TRUNC_RIGHT, searchKey);
+                            dbValues.query(query, cb);
+                        }
                     } catch (final IOException | BTreeException e) {
                         LOG.error(e.getMessage(), e);
                     } catch (final LockException e) {
@@ -937,6 +1161,64 @@ public class NativeValueIndex implements ContentLoadingObserver {
         return result;
     }
 
+    /**
+     * Passes the string keys containing all n-grams of the term to the callback.
+     * Must be called while holding a lock on {@link #dbValues}.
+     *
+     * @param collectionId the id of the collection
+     * @param prefix the prefix of the keys to search
+     * @param term the term the keys must contain
+     * @param cb the callback
+     * @return false if the collection is not covered by n-grams and has to be scanned instead
+     */
+    private boolean queryNGrams(final int collectionId, final Value prefix, final String term, final BTreeCallback cb)
+            throws IOException, BTreeException, TerminatedException {
+        Boolean complete = nGramCollections.get(collectionId);
+        if (complete == null) {
+            complete = dbValues.containsKey(new NGramValue(collectionId));
+            if (complete) {
+                nGramCollections.put(collectionId, true);
+            }
+        }
+        if (!complete) {
+            return false;
+        }
+
+        // look up the keys by non-overlapping n-grams, the last one ends with the term
+        final Set<String> grams = new LinkedHashSet<>();
+        final int length = term.codePointCount(0, term.length());
+        for (int i = 0; i < length; i += NGRAM_LENGTH) {
+            final int start = term.offsetByCodePoints(0, Math.min(i, length - NGRAM_LENGTH));
+            grams.add(term.substring(start, term.offsetByCodePoints(start, NGRAM_LENGTH)));
+        }
+        Set<Value> candidates = null;
+        for (final String gram : grams) {
+            final Set<Value> keys = new TreeSet<>();
+            final Value gramPrefix = new NGramValue(collectionId, gram.getBytes(UTF_8), Value.EMPTY_VALUE, 0);
+            dbValues.query(new IndexQuery(IndexQuery.TRUNC_RIGHT, gramPrefix), new NGramCallback(gramPrefix, prefix, keys));
+            if (candidates == null) {
+                candidates = keys;
+            } else {
+                candidates.retainAll(keys);
+            }
+            if (candidates.isEmpty()) {
+                break;
+            }
+        }
+        final Value longPrefix = new NGramValue(collectionId, NGRAM_LONG_KEY, Value.EMPTY_VALUE, 0);
+        dbValues.query(new IndexQuery(IndexQuery.TRUNC_RIGHT, longPrefix), new NGramCallback(longPrefix, prefix, candidates));
+
+        // the candidates are sorted, so a truncated long key precedes the keys starting with it
+        Value previous = null;
+        for (final Value candidate : candidates) {
+            if (previous == null || !candidate.startsWith(previous)) {
+                dbValues.query(new IndexQuery(IndexQuery.TRUNC_RIGHT, candidate), cb);
+                previous = candidate;
+            }
+        }
+        return true;
+    }
+
     public ValueOccurrences[] scanIndexKeys(final DocumentSet docs, final NodeSet contextSet, final Indexable start) {
         final int type = start.getType();
         final boolean stringType = Type.subTypeOf(type, Type.STRING);
@@ -1108,6 +1390,7 @@ public class NativeValueIndex implements ContentLoadingObserver {
         try {
             lock.acquire(LockMode.WRITE_LOCK);
             config.setProperty(getConfigKeyForFile(), null);
+            config.setProperty(NGRAMS_KEY_IN_CONFIG, null);
             dbValues.closeAndRemove();
         } catch (final LockException e) {
             LOG.warn("Failed to acquire lock for '" + FileUtils.fileName(dbValues.getFile()) + "'", e);
@@ -1122,6 +1405,7 @@ public class NativeValueIndex implements ContentLoadingObserver {
         try {
             lock.acquire(LockMode.WRITE_LOCK);
             config.setProperty(getConfigKeyForFile(), null);
+            config.setProperty(NGRAMS_KEY_IN_CONFIG, null);
             dbValues.close();
         } catch (final LockException e) {
             LOG.warn("Failed to acquire lock for '" + FileUtils.fileName(dbValues.getFile()) + "'", e);
@@ -1348,6 +1632,31 @@ public class NativeValueIndex implements ContentLoadingObserver {
         }
     }
 
+    /**
+     * Collects the string keys referenced by n-gram entries.
+     */
+    private static final class NGramCallback implements BTreeCallback {
+        private final Value gramPrefix;
+        private final Value prefix;
+        private final Set<Value> keys;
+
+        NGramCallback(final Value gramPrefix, final Value prefix, final Set<Value> keys) {
+            this.gramPrefix = gramPrefix;
+            this.prefix = prefix;
+            this.keys = keys;
+        }
+
+        @Override
+        public boolean indexInfo(final Value value, final long pointer) throws TerminatedException {
+            final int start = value.start() + gramPrefix.getLength();
+            final Value key = new Value(Arrays.copyOfRange(value.data(), start, value.start() + value.getLength()));
+            if (key.startsWith(prefix)) {
+                keys.add(key);
+            }
+            return true;
+        }
+    }
+
     private final class IndexScanCallback implements BTreeCallback {
         private final DocumentSet docs;
         private final NodeSet contextSet;
@@ -1579,6 +1888,32 @@ public class NativeValueIndex implements ContentLoadingObserver {
         }
     }
 
+    private static class NGramValue extends Value {
+        static final int OFFSET_IDX_TYPE = 0;
+        static final int LENGTH_IDX_TYPE = 1; //sizeof byte
+        static final int OFFSET_COLLECTION_ID = OFFSET_IDX_TYPE + LENGTH_IDX_TYPE; //1
+        static final int OFFSET_NGRAM = OFFSET_COLLECTION_ID + Collection.LENGTH_COLLECTION_ID; //5
+
+        NGramValue(final int collectionId) {
+            len = OFFSET_NGRAM;
+            data = new byte[len];
+            data[OFFSET_IDX_TYPE] = IndexType.NGRAM.val;
+            ByteConversion.intToByte(collectionId, data, OFFSET_COLLECTION_ID);
+            pos = OFFSET_IDX_TYPE;
+        }
+
+        NGramValue(final int collectionId, final byte[] nGram, final Value key, final int maxKeyLength) {
+            final int keyLength = Math.min(key.getLength(), maxKeyLength);
+            len = OFFSET_NGRAM + nGram.length + keyLength;
+            data = new byte[len];
+            data[OFFSET_IDX_TYPE] = IndexType.NGRAM.val;
+            ByteConversion.intToByte(collectionId, data, OFFSET_COLLECTION_ID);
+            System.arraycopy(nGram, 0, data, OFFSET_NGRAM, nGram.length);
+            System.arraycopy(key.data(), key.start(), data, OFFSET_NGRAM + nGram.length, keyLength);
+            pos = OFFSET_IDX_TYPE;
+        }
+    }
+
     private class ValueIndexStreamListener extends AbstractStreamListener {
         private Deque<XMLString> contentStack = null;
 
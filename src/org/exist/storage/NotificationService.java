@@ -25,6 +25,7 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.exist.dom.persistent.DocumentImpl;
 import org.exist.numbering.NodeId;
+import org.exist.xmldb.XmldbURI;
 
 import java.util.IdentityHashMap;
 import org.exist.dom.persistent.IStoredNode;
@@ -81,6 +82,17 @@ public class NotificationService extends IdentityHashMap<UpdateListener, Object>
 		}
 	}
 
+	/**
+	 * Notify all subscribers that a collection has been stored.
+	 * 
+	 * @param collection the URI of the collection
+	 */
+	public synchronized void notifyCollectionUpdate(XmldbURI collection) {
+		for (final UpdateListener listener : keySet()) {
+	        listener.collectionUpdated(collection);
+		}
+	}
+
     /**
 	 * Notify all subscribers that a node has been moved. Nodes may be moved during a
      * defragmentation run.
@@ -0,0 +1,324 @@
+/*
+ * eXist Open Source Native XML Database
+ * Copyright (C) 2001-2016 The eXist Project
+ * http://exist-db.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.exist.storage;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import net.jcip.annotations.GuardedBy;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.exist.EXistException;
+import org.exist.storage.btree.BTree;
+import org.exist.storage.btree.Paged;
+import org.exist.storage.cache.Cache;
+import org.exist.storage.lock.Lock;
+import org.exist.storage.lock.Lock.LockMode;
+import org.exist.storage.txn.FuzzyCheckpoint;
+import org.exist.util.FileUtils;
+import org.exist.util.LockException;
+
+/**
+ * Background thread which performs fuzzy checkpoints. A fuzzy checkpoint records the
+ * end of the journal as redo LSN together with the running transactions and the pages
+ * of the journalled files which are dirty at this point (the dirty page table). It then
+ * writes these pages in small batches, each under the lock of its file, so transactions
+ * keep running while the checkpoint progresses. The number of pages written per second
+ * can be limited to avoid saturating the disk.
+ *
+ * Once all pages have been written, a {@link FuzzyCheckpoint} record is written to the
+ * journal, which lets recovery start to redo at the redo LSN instead of the last checkpoint.
+ * Replacing the journal file still requires a regular checkpoint, which is scheduled
+ * afterwards if requested and then only needs to write the pages modified in the meantime.
+ */
+public class PageWriter extends Thread {
+
+    private final static Logger LOG = LogManager.getLogger(PageWriter.class);
+
+    public final static String RECOVERY_FUZZY_CHECKPOINT_ATTRIBUTE = "fuzzy-checkpoint";
+    public final static String RECOVERY_CHECKPOINT_RATE_ATTRIBUTE = "checkpoint-rate";
+
+    public final static String PROPERTY_RECOVERY_FUZZY_CHECKPOINT = "db-connection.recovery.fuzzy-checkpoint";
+    public final static String PROPERTY_RECOVERY_CHECKPOINT_RATE = "db-connection.recovery.checkpoint-rate";
+
+    /** default maximum number of pages written per second */
+    public final static int DEFAULT_CHECKPOINT_RATE = 2000;
+
+    /** number of pages written while holding the lock on a file */
+    private final static int BATCH_SIZE = 64;
+
+    private final BrokerPool pool;
+
+    /** maximum number of pages written per second, 0 for no limit */
+    private final int rate;
+
+    @GuardedBy("this") private boolean requested = false;
+    @GuardedBy("this") private boolean running = false;
+    @GuardedBy("this") private boolean switchFiles = false;
+    @GuardedBy("this") private boolean shutdown = false;
+
+    private volatile long checkpoints = 0;
+    private volatile long pagesWritten = 0;
+
+    public PageWriter(final BrokerPool pool, final int rate) {
+        super("exist-page-writer-" + pool.getId());
+        setDaemon(true);
+        this.pool = pool;
+        this.rate = rate;
+    }
+
+    /**
+     * Request a fuzzy checkpoint. If a checkpoint is in progress, no further one is
+     * started, but a switch of the journal files is still scheduled after it.
+     *
+     * @param switchFiles schedule a regular checkpoint replacing the journal file once
+     *     the pages have been written
+     * @return false if the page writer has been shut down
+     */
+    public synchronized boolean checkpoint(final boolean switchFiles) {
+        if (shutdown) {
+            return false;
+        }
+        this.switchFiles |= switchFiles;
+        if (!running) {
+            requested = true;
+            notifyAll();
+        }
+        return true;
+    }
+
+    /**
+     * @return true while a checkpoint has been requested or is in progress
+     */
+    public synchronized boolean isActive() {
+        return requested || running;
+    }
+
+    /**
+     * @return the number of completed fuzzy checkpoints
+     */
+    public long getCheckpoints() {
+        return checkpoints;
+    }
+
+    /**
+     * @return the number of pages written by fuzzy checkpoints
+     */
+    public long getPagesWritten() {
+        return pagesWritten;
+    }
+
+    /**
+     * Stop the page writer. A checkpoint in progress is abandoned, the
+     * regular checkpoint written at shutdown takes its place.
+     */
+    public void shutdown() {
+        synchronized (this) {
+            shutdown = true;
+            notifyAll();
+        }
+        try {
+            join();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            final boolean switchLogFiles;
+            synchronized (this) {
+                while (!requested && !shutdown) {
+                    try {
+                        wait();
+                    } catch (final InterruptedException e) {
+                        shutdown = true;
+                    }
+                }
+                if (shutdown) {
+                    return;
+                }
+                requested = false;
+                running = true;
+            }
+            boolean completed = false;
+            try {
+                completed = writePages();
+            } catch (final Exception e) {
+                LOG.warn("Fuzzy checkpoint failed: " + e.getMessage(), e);
+            } finally {
+                synchronized (this) {
+                    running = false;
+                    switchLogFiles = switchFiles && !shutdown;
+                    switchFiles = false;
+                }
+            }
+            if (switchLogFiles) {
+                // a regular checkpoint is needed to replace the journal file, even if the
+                // fuzzy checkpoint failed
+                pool.scheduleCheckpoint();
+            }
+            if (completed) {
+                checkpoints++;
+            }
+        }
+    }
+
+    /**
+     * Perform a fuzzy checkpoint.
+     *
+     * @return true if the checkpoint has been completed
+     */
+    private boolean writePages() throws EXistException {
+        if (BrokerPool.FORCE_CORRUPTION) {
+            return false;
+        }
+        final long start = System.currentTimeMillis();
+        final FuzzyCheckpoint checkpoint = pool.getTransactionManager().beginFuzzyCheckpoint();
+        if (checkpoint == null) {
+            return false;
+        }
+
+        // record the dirty page table. Any page modified by an entry before the
+        // redo LSN is either dirty now or has been written already
+        final List<BTree> files = new ArrayList<>();
+        final List<DirtyPages> dirtyPages = new ArrayList<>();
+        int total = 0;
+        try (final DBBroker broker = pool.getBroker()) {
+            if (!(broker instanceof NativeBroker)) {
+                return false;
+            }
+            final NativeBroker nativeBroker = (NativeBroker) broker;
+            for (final byte fileId : nativeBroker.getStorageFileIds()) {
+                final BTree file = nativeBroker.getStorage(fileId);
+                if (file == null || file.getLock() == null) {
+                    continue;
+                }
+                files.add(file);
+                final Lock lock = file.getLock();
+                try {
+                    lock.acquire(LockMode.WRITE_LOCK);
+                    for (final Cache<?> cache : file.getCaches()) {
+                        final long[] keys = cache.getDirtyKeys();
+                        if (keys.length > 0) {
+                            dirtyPages.add(new DirtyPages(file, cache, keys));
+                            total += keys.length;
+                        }
+                    }
+                } catch (final LockException e) {
+                    LOG.warn("Failed to acquire lock on " + FileUtils.fileName(file.getFile()) + ". Abandoning fuzzy checkpoint.", e);
+                    return false;
+                } finally {
+                    lock.release(LockMode.WRITE_LOCK);
+                }
+            }
+        }
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Fuzzy checkpoint started. Dirty pages: " + total);
+        }
+
+        long written = 0;
+        for (final DirtyPages pages : dirtyPages) {
+            for (int i = 0; i < pages.keys.length; i += BATCH_SIZE) {
+                if (!throttle(start, written)) {
+                    LOG.info("Fuzzy checkpoint abandoned after writing " + written + " of " + total + " pages");
+                    return false;
+                }
+                final Lock lock = pages.file.getLock();
+                try {
+                    lock.acquire(LockMode.WRITE_LOCK);
+                    // write ahead: the journal entries for the pages have to be written first
+                    pool.getJournalManager().ifPresent(journal -> journal.flush(true, false));
+                    final int end = Math.min(i + BATCH_SIZE, pages.keys.length);
+                    for (int j = i; j < end; j++) {
+                        if (pages.cache.flush(pages.keys[j])) {
+                            written++;
+                        }
+                    }
+                } catch (final LockException e) {
+                    LOG.warn("Failed to acquire lock on " + FileUtils.fileName(pages.file.getFile()) + ". Abandoning fuzzy checkpoint.", e);
+                    return false;
+                } finally {
+                    lock.release(LockMode.WRITE_LOCK);
+                }
+            }
+        }
+
+        for (final BTree file : files) {
+            final Lock lock = file.getLock();
+            try {
+                lock.acquire(LockMode.WRITE_LOCK);
+                final Paged.FileHeader header = file.getFileHeader();
+                if (header.isDirty()) {
+                    header.write();
+                }
+            } catch (final LockException | IOException e) {
+                LOG.warn("Failed to write the header of " + FileUtils.fileName(file.getFile()) + ". Abandoning fuzzy checkpoint.", e);
+                return false;
+            } finally {
+                lock.release(LockMode.WRITE_LOCK);
+            }
+        }
+
+        pool.getTransactionManager().endFuzzyCheckpoint(checkpoint);
+        pagesWritten += written;
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Fuzzy checkpoint completed. Pages written: " + written + " of " + total + " in " +
+                    (System.currentTimeMillis() - start) + "ms");
+        }
+        return true;
+    }
+
+    /**
+     * Wait until writing more pages does not exceed the rate limit.
+     *
+     * @return false if the page writer has been shut down
+     */
+    private synchronized boolean throttle(final long start, final long written) {
+        if (rate > 0) {
+            long delay;
+            while (!shutdown && (delay = start + written * 1000 / rate - System.currentTimeMillis()) > 0) {
+                try {
+                    wait(delay);
+                } catch (final InterruptedException e) {
+                    shutdown = true;
+                }
+            }
+        }
+        return !shutdown;
+    }
+
+    /**
+     * The pages of a cache which were dirty at the start of a checkpoint.
+     */
+    private static class DirtyPages {
+        final BTree file;
+        final Cache<?> cache;
+        final long[] keys;
+
+        DirtyPages(final BTree file, final Cache<?> cache, final long[] keys) {
+            this.file = file;
+            this.cache = cache;
+            this.keys = keys;
+        }
+    }
+}
@@ -28,6 +28,7 @@ import org.exist.http.servlets.RequestWrapper;
 import org.exist.http.urlrewrite.XQueryURLRewrite;
 import org.exist.source.Source;
 import org.exist.util.Configuration;
+import org.exist.xquery.QueryResourceUsage;
 import org.exist.xquery.Variable;
 import org.exist.xquery.XPathException;
 import org.exist.xquery.XQueryWatchDog;
@@ -69,6 +70,8 @@ public class ProcessMonitor implements BrokerPoolService {
 
     private final static Logger LOG = LogManager.getLogger(ProcessMonitor.class);
 
+    private final static Logger SLOW_QUERY_LOG = LogManager.getLogger("xquery.slowqueries");
+
     public final static long QUERY_HISTORY_TIMEOUT = 2 * 60 * 1000; // 2 minutes
     public final static long MIN_TIME = 100;
 
@@ -85,9 +88,15 @@ public class ProcessMonitor implements BrokerPoolService {
 
     private boolean trackRequests = false;
 
+    private volatile long slowQueryTime = -1;
+
+    private volatile long slowQueryPages = -1;
+
 	@Override
     public void configure(final Configuration configuration) {
         this.maxShutdownWait = configuration.getProperty(BrokerPool.PROPERTY_SHUTDOWN_DELAY, BrokerPool.DEFAULT_MAX_SHUTDOWN_WAIT);
+        this.slowQueryTime = configuration.getProperty(XQueryWatchDog.PROPERTY_SLOW_QUERY_TIME, -1L);
+        this.slowQueryPages = configuration.getProperty(XQueryWatchDog.PROPERTY_SLOW_QUERY_PAGES, -1L);
     }
 
     public void startJob(String action) {
@@ -176,6 +185,23 @@ public class ProcessMonitor implements BrokerPoolService {
                 cleanHistory();
             }
         }
+
+        if (found && isSlowQuery(elapsed, watchdog.getResourceUsage())) {
+            final Source source = watchdog.getContext().getSource();
+            final StringBuilder message = new StringBuilder();
+            message.append("Slow query ").append(source == null ? "unknown" : source.path());
+            if (trackRequests) {
+                message.append(" (").append(getRequestURI(watchdog)).append(')');
+            }
+            message.append(" took ").append(elapsed).append(" ms; ").append(watchdog.getResourceUsage());
+            SLOW_QUERY_LOG.info(message.toString());
+        }
+    }
+
+    private boolean isSlowQuery(final long elapsed, final QueryResourceUsage usage) {
+        final long time = slowQueryTime;
+        final long pages = slowQueryPages;
+        return (time > -1 && elapsed >= time) || (pages > -1 && usage.getTotalPagesRead() >= pages);
     }
 
     private void cleanHistory() {
@@ -226,6 +252,34 @@ public class ProcessMonitor implements BrokerPoolService {
         return trackRequests;
     }
 
+    /**
+     * Queries running for at least the given duration (in milliseconds) are logged to the slow query log,
+     * together with the resources they used. A negative value disables the threshold (the default).
+     *
+     * @param time min duration in ms
+     */
+    public void setSlowQueryTime(long time) {
+        this.slowQueryTime = time;
+    }
+
+    public long getSlowQueryTime() {
+        return slowQueryTime;
+    }
+
+    /**
+     * Queries reading at least the given number of pages from disk are logged to the slow query log,
+     * together with the resources they used. A negative value disables the threshold (the default).
+     *
+     * @param pages min number of pages read
+     */
+    public void setSlowQueryPages(long pages) {
+        this.slowQueryPages = pages;
+    }
+
+    public long getSlowQueryPages() {
+        return slowQueryPages;
+    }
+
     public static class QueryHistory implements Delayed {
 
         private final String source;
@@ -25,6 +25,8 @@ import java.util.regex.PatternSyntaxException;
 
 import org.exist.EXistException;
 import org.exist.util.GlobToRegex;
+import org.exist.xquery.regex.CompiledRegex;
+import org.exist.xquery.regex.RegexCache;
 
 /**
  * A {@link org.exist.storage.TermMatcher} that matches index entries against a
@@ -43,19 +45,34 @@ class RegexMatcher implements TermMatcher {
     }
     
     public RegexMatcher(String expr, int type, int flags, boolean matchAll) throws EXistException {
+        this(compile(expr, type, flags), matchAll);
+    }
+
+    RegexMatcher(final CompiledRegex regex, final boolean matchAll) {
+        this.matcher = regex.getPattern().matcher("");
+        this.matchAll = matchAll;
+    }
+
+    /**
+     * Looks up the compiled expression in the shared {@link RegexCache}.
+     *
+     * @param expr the regular expression in Java syntax, or a file glob if type is {@link DBBroker#MATCH_WILDCARDS}
+     * @param type the type of the expression
+     * @param flags the flags for {@link Pattern#compile(String, int)}
+     * @return the compiled expression
+     * @throws EXistException if the expression is invalid
+     */
+    static CompiledRegex compile(String expr, final int type, int flags) throws EXistException {
+        // if expr is a file glob, translate it to a regular expression first
+        if (type == DBBroker.MATCH_WILDCARDS) {
+            expr = GlobToRegex.globToRegexp(expr);
+            flags = Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE;
+        }
         try {
-            // if expr is a file glob, translate it to a regular expression first
-            if (type == DBBroker.MATCH_WILDCARDS) {
-                expr = GlobToRegex.globToRegexp(expr);
-                flags = Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE;
-            }
-            
-            final Pattern pattern = Pattern.compile(expr, flags);
-            matcher = pattern.matcher("");
+            return RegexCache.getInstance().get(expr, flags);
         } catch(final PatternSyntaxException e) {
             throw new EXistException("Invalid regular expression: " + e.getMessage());
         }
-        this.matchAll = matchAll;        
     }
 
 	/*
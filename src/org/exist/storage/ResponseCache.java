@@ -0,0 +1,561 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2015 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.storage;
+
+import net.jcip.annotations.GuardedBy;
+import net.jcip.annotations.ThreadSafe;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.exist.dom.persistent.DocumentImpl;
+import org.exist.dom.persistent.NodeHandle;
+import org.exist.numbering.NodeId;
+import org.exist.source.Source;
+import org.exist.util.Configuration;
+import org.exist.xmldb.XmldbURI;
+import org.exist.xquery.Option;
+
+import java.net.URISyntaxException;
+import java.util.*;
+
+/**
+ * Global cache for the serialized responses of XQueries called via HTTP, e.g. through the
+ * REST interface or the XQueryServlet. A query opts in by declaring the option
+ * <code>exist:response-cache</code>, for example:
+ *
+ * <pre>declare option exist:response-cache "max-age=600 collections=/db/apps/catalogue/data";</pre>
+ *
+ * The contents of the option may be "yes", "no" or a list of the following parameters:
+ * <ul>
+ *     <li>max-age: the number of seconds after which a response expires, {@link #DEFAULT_MAX_AGE}
+ *     by default. A max-age of 0 disables caching. Responses are removed earlier if they are
+ *     invalidated or evicted.</li>
+ *     <li>collections: comma separated list of collections the response depends on in addition
+ *     to the collections read by the query.</li>
+ *     <li>vary: comma separated list of request headers the response depends on.</li>
+ * </ul>
+ *
+ * Responses are keyed by the caller (see {@link org.exist.http.ResponseCacheHandler}). While a
+ * query is executed, the collections it reads are recorded (see
+ * {@link DBBroker#trackCollectionAccess(Set)}), and the keys of the cached responses are indexed
+ * by these collections. A response is invalidated as soon as the {@link NotificationService}
+ * reports a change to a document in one of these collections or in any collection below them,
+ * or a change to one of these collections, their ancestors or their descendants, e.g. because
+ * the permissions of a collection changed or it was moved. The cache is bounded by the number
+ * of bytes of the cached responses. If the limit is exceeded, the least recently used responses
+ * are evicted.
+ */
+@ThreadSafe
+public class ResponseCache implements BrokerPoolService, UpdateListener {
+
+    private final static Logger LOG = LogManager.getLogger(ResponseCache.class);
+
+    public static final String CACHE_SIZE_ATTRIBUTE = "responseCacheSize";
+    public static final String PROPERTY_CACHE_SIZE = "db-connection.response-cache-size";
+
+    public static final String MAX_ENTRY_SIZE_ATTRIBUTE = "responseCacheMaxEntrySize";
+    public static final String PROPERTY_MAX_ENTRY_SIZE = "db-connection.response-cache-max-entry-size";
+
+    /** default size of the cache in megabytes */
+    public static final int DEFAULT_CACHE_SIZE = 16;
+
+    /** default number of seconds after which a response expires */
+    public static final int DEFAULT_MAX_AGE = 3600;
+
+    /**
+     * Approximate number of bytes used by an entry in addition to its content and headers.
+     */
+    private static final int ENTRY_OVERHEAD = 256;
+
+    /**
+     * Maximum number of changes recorded while a response is produced. If more changes
+     * are seen, the response is not cached.
+     */
+    private static final int MAX_PENDING_CHANGES = 64;
+
+    private long maxSize = DEFAULT_CACHE_SIZE * 1024L * 1024L;
+    private long maxEntrySize = maxSize / 4;
+
+    @GuardedBy("this") private final LinkedHashMap<String, CachedResponse> responses = new LinkedHashMap<>(64, 0.75f, true);
+    /** the keys of the cached responses by the paths of the collections they depend on */
+    @GuardedBy("this") private final TreeMap<String, Set<String>> dependents = new TreeMap<>();
+    /** the responses which are being produced */
+    @GuardedBy("this") private final Set<PendingResponse> pending = Collections.newSetFromMap(new IdentityHashMap<>());
+    @GuardedBy("this") private long size = 0;
+    @GuardedBy("this") private int hits = 0;
+    @GuardedBy("this") private int fails = 0;
+
+    @Override
+    public void configure(final Configuration configuration) {
+        final int cacheSize = configuration.getInteger(PROPERTY_CACHE_SIZE);
+        if (cacheSize > -1) {
+            maxSize = cacheSize * 1024L * 1024L;
+        }
+        // the response of a query returning a large document would evict many small responses,
+        // which are just as expensive to produce
+        maxEntrySize = configuration.getMaxEntrySize(PROPERTY_MAX_ENTRY_SIZE, maxSize);
+    }
+
+    @Override
+    public void prepare(final BrokerPool brokerPool) {
+        if (isEnabled()) {
+            brokerPool.getNotificationService().subscribe(this);
+        }
+    }
+
+    /**
+     * @return false if the cache has been disabled by the configuration
+     */
+    public boolean isEnabled() {
+        return maxSize > 0;
+    }
+
+    /**
+     * Returns the cached response for the given key if it is still valid.
+     *
+     * @param broker the broker used to check if the query source has changed
+     * @param key the key of the response
+     * @return the response, or null
+     */
+    public CachedResponse get(final DBBroker broker, final String key) {
+        final CachedResponse response;
+        synchronized (this) {
+            response = responses.get(key);
+            if (response == null) {
+                fails++;
+                return null;
+            }
+            if (response.expires < System.currentTimeMillis()) {
+                remove(key);
+                fails++;
+                return null;
+            }
+        }
+        // the source may have been modified without changing a collection, e.g. if it is a file
+        if (response.source != null && response.source.isValid(broker) != Source.VALID) {
+            synchronized (this) {
+                if (responses.get(key) == response) {
+                    remove(key);
+                }
+                fails++;
+            }
+            return null;
+        }
+        synchronized (this) {
+            hits++;
+        }
+        return response;
+    }
+
+    /**
+     * Starts recording the changes to the database while a response is produced. The result
+     * has to be passed to either {@link #put(String, CachedResponse, PendingResponse)} or
+     * {@link #cancel(PendingResponse)}.
+     *
+     * @return the recorded changes
+     */
+    public synchronized PendingResponse begin() {
+        final PendingResponse response = new PendingResponse();
+        pending.add(response);
+        return response;
+    }
+
+    /**
+     * Stops recording the changes for a response which is not added to the cache.
+     *
+     * @param response the result of {@link #begin()}
+     */
+    public synchronized void cancel(final PendingResponse response) {
+        pending.remove(response);
+    }
+
+    /**
+     * Adds a response to the cache. The response is not cached if one of the collections
+     * it depends on has changed since {@link #begin()} was called, as it may have been
+     * computed from outdated data.
+     *
+     * @param key the key of the response
+     * @param response the response
+     * @param changes the result of {@link #begin()} before the query was executed
+     * @return true if the response was added to the cache
+     */
+    public synchronized boolean put(final String key, final CachedResponse response, final PendingResponse changes) {
+        pending.remove(changes);
+        if (response.size() > maxEntrySize || changes.affects(response)) {
+            return false;
+        }
+        remove(key);
+        responses.put(key, response);
+        size += response.size();
+        for (final String dependency : response.dependencies) {
+            dependents.computeIfAbsent(dependency, path -> new HashSet<>()).add(key);
+        }
+        for (final Iterator<Map.Entry<String, CachedResponse>> i = responses.entrySet().iterator(); size > maxSize && i.hasNext(); ) {
+            final Map.Entry<String, CachedResponse> evicted = i.next();
+            i.remove();
+            removeDependents(evicted.getKey(), evicted.getValue());
+        }
+        return true;
+    }
+
+    @GuardedBy("this")
+    private void remove(final String key) {
+        final CachedResponse old = responses.remove(key);
+        if (old != null) {
+            removeDependents(key, old);
+        }
+    }
+
+    @GuardedBy("this")
+    private void removeDependents(final String key, final CachedResponse response) {
+        size -= response.size();
+        for (final String dependency : response.dependencies) {
+            final Set<String> keys = dependents.get(dependency);
+            if (keys != null) {
+                keys.remove(key);
+                if (keys.isEmpty()) {
+                    dependents.remove(dependency);
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes the responses which depend on the collection with the given path or on one of
+     * its ancestors.
+     */
+    @GuardedBy("this")
+    private void invalidateAncestorsOrSelf(final String path) {
+        for (String ancestor = path; !ancestor.isEmpty(); ancestor = ancestor.substring(0, Math.max(0, ancestor.lastIndexOf('/')))) {
+            invalidate(dependents.get(ancestor));
+        }
+    }
+
+    /**
+     * Removes the responses which depend on a collection below the one with the given path.
+     */
+    @GuardedBy("this")
+    private void invalidateDescendants(final String path) {
+        // the paths of all descendants start with path + '/', and '0' is the character following '/'
+        final SortedMap<String, Set<String>> descendants = dependents.subMap(path + '/', path + '0');
+        while (!descendants.isEmpty()) {
+            invalidate(descendants.get(descendants.firstKey()));
+        }
+    }
+
+    @GuardedBy("this")
+    private void invalidate(final Set<String> keys) {
+        if (keys == null) {
+            return;
+        }
+        // removing a response modifies the set
+        for (final String key : new ArrayList<>(keys)) {
+            remove(key);
+        }
+    }
+
+    public synchronized void clear() {
+        responses.clear();
+        dependents.clear();
+        size = 0;
+    }
+
+    public synchronized long getSize() {
+        return size;
+    }
+
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * @return the maximum number of bytes of a single response
+     */
+    public long getMaxEntrySize() {
+        return maxEntrySize;
+    }
+
+    public synchronized int getHits() {
+        return hits;
+    }
+
+    public synchronized int getFails() {
+        return fails;
+    }
+
+    @Override
+    public void documentUpdated(final DocumentImpl document, final int event) {
+        final org.exist.collections.Collection collection = document.getCollection();
+        if (collection != null && collection.isTempCollection()) {
+            // temporary fragments are not visible to other queries
+            return;
+        }
+        final String path = document.getURI().removeLastSegment().getRawCollectionPath();
+        synchronized (this) {
+            for (final PendingResponse response : pending) {
+                response.documentChanged(path);
+            }
+            invalidateAncestorsOrSelf(path);
+        }
+    }
+
+    @Override
+    public void collectionUpdated(final XmldbURI collection) {
+        final String path = collection.getRawCollectionPath();
+        if (path.equals(XmldbURI.TEMP_COLLECTION)) {
+            return;
+        }
+        synchronized (this) {
+            for (final PendingResponse response : pending) {
+                response.collectionChanged(path);
+            }
+            // the permissions of the collection may have changed or it may have been moved,
+            // which affects the collections below it
+            invalidateAncestorsOrSelf(path);
+            invalidateDescendants(path);
+        }
+    }
+
+    @Override
+    public void nodeMoved(final NodeId oldNodeId, final NodeHandle newNode) {
+        // nothing to do: responses are serialized
+    }
+
+    @Override
+    public void unsubscribe() {
+        clear();
+    }
+
+    @Override
+    public void debug() {
+        LOG.debug("ResponseCache: " + responses.size() + " responses, " + size + " bytes");
+    }
+
+    /**
+     * @return true if path equals ancestor or is a descendant of it
+     */
+    private static boolean isDescendantOrSelf(final String path, final String ancestor) {
+        return path.startsWith(ancestor) &&
+                (path.length() == ancestor.length() || path.charAt(ancestor.length()) == '/');
+    }
+
+    /**
+     * The changes to the database seen while a response is produced.
+     */
+    public static final class PendingResponse {
+        @GuardedBy("ResponseCache.this") private final List<String> changedDocuments = new ArrayList<>();
+        @GuardedBy("ResponseCache.this") private final List<String> changedCollections = new ArrayList<>();
+        @GuardedBy("ResponseCache.this") private boolean overflow = false;
+
+        private PendingResponse() {
+        }
+
+        private void documentChanged(final String path) {
+            record(changedDocuments, path);
+        }
+
+        private void collectionChanged(final String path) {
+            record(changedCollections, path);
+        }
+
+        private void record(final List<String> changes, final String path) {
+            if (changedDocuments.size() + changedCollections.size() >= MAX_PENDING_CHANGES) {
+                overflow = true;
+            } else if (!changes.contains(path)) {
+                changes.add(path);
+            }
+        }
+
+        private boolean affects(final CachedResponse response) {
+            if (overflow) {
+                return true;
+            }
+            for (final String dependency : response.dependencies) {
+                for (final String path : changedDocuments) {
+                    if (isDescendantOrSelf(path, dependency)) {
+                        return true;
+                    }
+                }
+                for (final String path : changedCollections) {
+                    if (isDescendantOrSelf(path, dependency) || isDescendantOrSelf(dependency, path)) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * The caching policy of a query, as declared by the option <code>exist:response-cache</code>.
+     */
+    public static final class Policy {
+        private final long maxAge;
+        private final Set<XmldbURI> collections;
+        private final List<String> vary;
+
+        public Policy(final long maxAge, final Set<XmldbURI> collections, final List<String> vary) {
+            this.maxAge = maxAge;
+            this.collections = collections;
+            this.vary = vary;
+        }
+
+        /**
+         * Parses the contents of the option.
+         *
+         * @param contents the contents of the option
+         * @return the policy, or null if caching is disabled by the option or max-age is 0
+         * @throws IllegalArgumentException if the contents are invalid
+         */
+        public static Policy parse(final String contents) {
+            long maxAge = DEFAULT_MAX_AGE * 1000L;
+            final Set<XmldbURI> collections = new HashSet<>();
+            final List<String> vary = new ArrayList<>();
+            for (final String token : Option.tokenize(contents)) {
+                if ("no".equals(token)) {
+                    return null;
+                } else if ("yes".equals(token)) {
+                    continue;
+                }
+                final String[] param = Option.parseKeyValuePair(token);
+                if (param == null) {
+                    throw new IllegalArgumentException("Invalid parameter for response cache: " + token);
+                }
+                switch (param[0]) {
+                    case "max-age":
+                        try {
+                            maxAge = Long.parseLong(param[1]) * 1000;
+                        } catch (final NumberFormatException e) {
+                            throw new IllegalArgumentException("Invalid max-age for response cache: " + param[1]);
+                        }
+                        if (maxAge < 0) {
+                            throw new IllegalArgumentException("Invalid max-age for response cache: " + param[1]);
+                        }
+                        break;
+                    case "collections":
+                        for (final String collection : param[1].split(",")) {
+                            if (!collection.isEmpty()) {
+                                try {
+                                    collections.add(XmldbURI.xmldbUriFor(collection).toCollectionPathURI());
+                                } catch (final URISyntaxException e) {
+                                    throw new IllegalArgumentException("Invalid collection for response cache: " + collection);
+                                }
+                            }
+                        }
+                        break;
+                    case "vary":
+                        for (final String header : param[1].split(",")) {
+                            if (!header.isEmpty()) {
+                                vary.add(header);
+                            }
+                        }
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown parameter for response cache: " + param[0]);
+                }
+            }
+            if (maxAge == 0) {
+                return null;
+            }
+            return new Policy(maxAge, collections, vary);
+        }
+
+        /**
+         * @return the time in milliseconds after which a response expires
+         */
+        public long getMaxAge() {
+            return maxAge;
+        }
+
+        public Set<XmldbURI> getCollections() {
+            return collections;
+        }
+
+        /**
+         * @return the names of the request headers to be included in the key
+         */
+        public List<String> getVary() {
+            return vary;
+        }
+    }
+
+    /**
+     * A cached response: its content, the headers set while it was produced
+     * and the collections it depends on.
+     */
+    public static final class CachedResponse {
+        private final byte[] content;
+        private final String contentType;
+        private final String etag;
+        private final List<String[]> headers;
+        private final Set<String> dependencies;
+        private final Source source;
+        private final long expires;
+        private final long size;
+
+        /**
+         * @param content the serialized response
+         * @param contentType the content type, or null
+         * @param etag the entity tag of the response
+         * @param headers name/value pairs of the headers to be sent with the response
+         * @param dependencies the collections the response depends on
+         * @param source the source of the query, used to check if it has been modified
+         * @param maxAge the time in milliseconds after which the response expires
+         */
+        public CachedResponse(final byte[] content, final String contentType, final String etag,
+                final List<String[]> headers, final Set<XmldbURI> dependencies, final Source source,
+                final long maxAge) {
+            this.content = content;
+            this.contentType = contentType;
+            this.etag = etag;
+            this.headers = headers;
+            this.dependencies = new HashSet<>();
+            for (final XmldbURI dependency : dependencies) {
+                this.dependencies.add(dependency.getRawCollectionPath());
+            }
+            this.source = source;
+            this.expires = System.currentTimeMillis() + maxAge;
+            long headersSize = 0;
+            for (final String[] header : headers) {
+                headersSize += 2L * (header[0].length() + header[1].length());
+            }
+            this.size = ENTRY_OVERHEAD + content.length + headersSize + 64L * dependencies.size();
+        }
+
+        public byte[] getContent() {
+            return content;
+        }
+
+        public String getContentType() {
+            return contentType;
+        }
+
+        public String getETag() {
+            return etag;
+        }
+
+        public List<String[]> getHeaders() {
+            return headers;
+        }
+
+        private long size() {
+            return size;
+        }
+    }
+}
@@ -3,6 +3,7 @@ package org.exist.storage;
 import org.exist.dom.persistent.DocumentImpl;
 import org.exist.dom.persistent.NodeHandle;
 import org.exist.numbering.NodeId;
+import org.exist.xmldb.XmldbURI;
 
 public interface UpdateListener {
 
@@ -27,6 +28,17 @@ public interface UpdateListener {
 	 */
 	public void documentUpdated(DocumentImpl document, int event);
 
+    /**
+     * Called whenever a collection has been stored, e.g. because a document or sub-collection
+     * was added to or removed from it, its permissions changed, or it was moved. Also called
+     * for the collection of a document whose metadata has been stored.
+     *
+     * @param collection the URI of the collection
+     */
+    default void collectionUpdated(XmldbURI collection) {
+        // most listeners only care about documents
+    }
+
     /**
      * nodeMoved is called after a defragmentation run occurred for a document during which
      * the address and the nodeId of a node may have changed. Defragmentation
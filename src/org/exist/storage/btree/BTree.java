@@ -2591,6 +2591,16 @@ public class BTree extends Paged implements Lockable {
         return new BTreePageHeader();
     }
 
+    /**
+     * Returns the caches holding the pages of this file, so dirty pages
+     * can be written incrementally by the {@link org.exist.storage.PageWriter}.
+     *
+     * @return the caches of this file
+     */
+    public List<Cache<?>> getCaches() {
+        return Collections.singletonList(cache);
+    }
+
     public BufferStats getIndexBufferStats() {
         return new BufferStats(
             cache.getBuffers(),
@@ -78,6 +78,7 @@ import org.exist.storage.journal.Lsn;
 import org.exist.util.ByteConversion;
 import org.exist.util.FileUtils;
 import org.exist.xquery.Constants;
+import org.exist.xquery.QueryResourceUsage;
 
 import java.io.*;
 import java.nio.channels.FileChannel;
@@ -126,6 +127,7 @@ public abstract class Paged implements AutoCloseable {
 
     private RandomAccessFile raf;
     private Path file;
+    private String fileName;
     private final FileHeader fileHeader;
     private boolean readOnly = false;
     private boolean fileIsNew = false;
@@ -381,6 +383,7 @@ public abstract class Paged implements AutoCloseable {
      */
     protected final void setFile(final Path file) throws DBException {
         this.file = file;
+        this.fileName = FileUtils.fileName(file);
         fileIsNew = !Files.exists(file);
         try {
             if ((!Files.exists(file)) || Files.isWritable(file)) {
@@ -908,6 +911,7 @@ public abstract class Paged implements AutoCloseable {
                 // Read the working data
                 final byte[] workData = new byte[header.dataLen];
                 raf.read(workData);
+                QueryResourceUsage.pageRead(fileName);
                 return workData;
             } catch(final Exception e) {
                 LOG.warn("error while reading page: " + getPageInfo(), e);
@@ -96,6 +96,24 @@ public interface Cache<T extends Cacheable> {
      */
     boolean flush();
 
+    /**
+     * Returns the keys of the items which are dirty. Used to
+     * record the dirty pages at the start of a checkpoint.
+     *
+     * @return the keys of the dirty items
+     */
+    long[] getDirtyKeys();
+
+    /**
+     * Write the item with the given key to disk if it is
+     * still in the cache and dirty. The position of the item
+     * in the cache is not changed.
+     *
+     * @param key The key of the item
+     * @return true if the item has been written
+     */
+    boolean flush(long key);
+
     /**
      * Get the size of this cache.
      * 
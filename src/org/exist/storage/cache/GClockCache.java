@@ -24,8 +24,10 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.exist.storage.CacheManager;
 import org.exist.util.hashtable.Long2ObjectHashMap;
+import org.exist.xquery.QueryResourceUsage;
 
 import java.lang.reflect.Array;
+import java.util.Arrays;
 
 /**
  * Cache implementation based on the GClock algorithm. 
@@ -120,6 +122,7 @@ public class GClockCache<T extends Cacheable> implements Cache<T> {
 			accounting.missesIncrement();
 		} else {
 		    accounting.hitIncrement();
+		    QueryResourceUsage.cacheHit(name);
 		}
 		return item;
 	}
@@ -157,6 +160,27 @@ public class GClockCache<T extends Cacheable> implements Cache<T> {
 		return flushed;
 	}
 
+	@Override
+	public long[] getDirtyKeys() {
+		long[] keys = new long[16];
+		int n = 0;
+		for (int i = 0; i < count; i++) {
+			if (items[i] != null && items[i].isDirty()) {
+				if (n == keys.length) {
+					keys = Arrays.copyOf(keys, n * 2);
+				}
+				keys[n++] = items[i].getKey();
+			}
+		}
+		return Arrays.copyOf(keys, n);
+	}
+
+	@Override
+	public boolean flush(final long key) {
+		final T item = map.get(key);
+		return item != null && item.isDirty() && item.sync(false);
+	}
+
 	@Override
 	public boolean hasDirtyItems() {
 	    for(int i = 0; i < count; i++) {
@@ -24,6 +24,9 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.exist.storage.CacheManager;
 import org.exist.util.hashtable.SequencedLongHashMap;
+import org.exist.xquery.QueryResourceUsage;
+
+import java.util.Arrays;
 
 /**
  * A simple cache implementing a Last Recently Used policy. This
@@ -100,6 +103,7 @@ public class LRUCache<T extends Cacheable> implements Cache<T> {
 		    accounting.missesIncrement();
 		} else {
 		    accounting.hitIncrement();
+		    QueryResourceUsage.cacheHit(name);
 		}
 		return obj;
 	}
@@ -121,7 +125,28 @@ public class LRUCache<T extends Cacheable> implements Cache<T> {
 		return flushed;
 	}
 
-	
+	@Override
+	public long[] getDirtyKeys() {
+		long[] keys = new long[16];
+		int n = 0;
+		for(SequencedLongHashMap.Entry<T> next = map.getFirstEntry(); next != null; next = next.getNext()) {
+			final T cacheable = next.getValue();
+			if(cacheable.isDirty()) {
+				if(n == keys.length) {
+					keys = Arrays.copyOf(keys, n * 2);
+				}
+				keys[n++] = cacheable.getKey();
+			}
+		}
+		return Arrays.copyOf(keys, n);
+	}
+
+	@Override
+	public boolean flush(final long key) {
+		final T cacheable = map.get(key);
+		return cacheable != null && cacheable.isDirty() && cacheable.sync(false);
+	}
+
     @Override
     public boolean hasDirtyItems() {
         for(SequencedLongHashMap.Entry<T> next = map.getFirstEntry(); next != null; next = next.getNext()) {
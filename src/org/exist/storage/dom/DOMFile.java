@@ -28,6 +28,7 @@ import java.io.Writer;
 import java.nio.file.Path;
 import java.text.NumberFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import javax.xml.stream.XMLStreamException;
 import javax.xml.stream.XMLStreamReader;
@@ -174,6 +175,8 @@ public class DOMFile extends BTree implements Lockable {
 
     private final Cache<DOMPage> dataCache;
 
+    private final NodeValueCache nodeValueCache;
+
     private final BTreeFileHeader fileHeader;
 
     private Object owner = null;
@@ -194,6 +197,13 @@ public class DOMFile extends BTree implements Lockable {
         fileHeader.setTotalCount(0);
         dataCache = new LRUCache<>(getFileName(), 256, 0.0, 1.0, CacheManager.DATA_CACHE);
         cacheManager.registerCache(dataCache);
+        final int nodeValueCacheSize = config.getInteger(NodeValueCache.PROPERTY_CACHE_SIZE);
+        if (nodeValueCacheSize > 0) {
+            final long maxSize = nodeValueCacheSize * 1024L * 1024L;
+            nodeValueCache = new NodeValueCache(maxSize, config.getMaxEntrySize(NodeValueCache.PROPERTY_MAX_ENTRY_SIZE, maxSize));
+        } else {
+            nodeValueCache = null;
+        }
         final Path file = dataDir.resolve(getFileName());
         setFile(file);
         if (exists()) {
@@ -314,6 +324,9 @@ public class DOMFile extends BTree implements Lockable {
         }
         super.closeAndRemove();
         cacheManager.deregisterCache(dataCache);
+        if (nodeValueCache != null) {
+            nodeValueCache.clear();
+        }
     }
 
     public void setCurrentDocument(final DocumentImpl doc) {
@@ -329,10 +342,16 @@ public class DOMFile extends BTree implements Lockable {
      * current page is full. If the value is larger than the page size, it will
      * be written to an overflow page.
      * 
+     * @param doc the document to which the value belongs
      * @param value the value to append
      * @return the virtual storage address of the value
      */
-    public long add(final Txn transaction, final byte[] value) throws ReadOnlyException {
+    public long add(final Txn transaction, final DocumentImpl doc, final byte[] value) throws ReadOnlyException {
+        invalidateNodeValues(doc);
+        return append(transaction, value);
+    }
+
+    private long append(final Txn transaction, final byte[] value) throws ReadOnlyException {
         if (!lock.isLockedForWrite()) {
             LOG.warn("The file doesn't own a write lock");
         }
@@ -530,6 +549,7 @@ public class DOMFile extends BTree implements Lockable {
         if (!lock.isLockedForWrite()) {
             LOG.warn("The file doesn't own a write lock");
         }
+        invalidateNodeValues(doc);
         // check if we need an overflow page
         boolean isOverflow = false;
         if (LENGTH_TID + LENGTH_DATA_LENGTH + value.length > fileHeader.getWorkSize()) {
@@ -1390,6 +1410,12 @@ public class DOMFile extends BTree implements Lockable {
         } else {
             buf.append(nf1.format(dataCache.getHits()/(float)(dataCache.getFails() + dataCache.getHits())));
         }
+        if (nodeValueCache != null) {
+            buf.append(" Node value cache : ").append(nf2.format(nodeValueCache.getSize()));
+            buf.append(" out of ").append(nf2.format(nodeValueCache.getMaxSize())).append(" bytes");
+            buf.append(" (").append(nodeValueCache.getHits()).append(" hits, ");
+            buf.append(nodeValueCache.getFails()).append(" fails)");
+        }
         LOGSTATS.info(buf.toString());
     }
 
@@ -1398,6 +1424,11 @@ public class DOMFile extends BTree implements Lockable {
             dataCache.getHits(), dataCache.getFails());
     }
 
+    @Override
+    public List<Cache<?>> getCaches() {
+        return Arrays.asList(cache, dataCache);
+    }
+
 
     /**
      * Retrieve a node by key
@@ -1519,7 +1550,8 @@ public class DOMFile extends BTree implements Lockable {
         if (!lock.hasLock()) {
             LOG.warn("The file doesn't own a lock");
         }
-        final long pointer = add(transaction, value);
+        invalidateNodeValues(key);
+        final long pointer = append(transaction, value);
         try {
             addValue(transaction, key, pointer);
         } catch (final BTreeException | IOException e) {
@@ -1560,6 +1592,24 @@ public class DOMFile extends BTree implements Lockable {
     }
 
 
+    /**
+     * Remove the keys matching the query. The nodes can no longer be found by
+     * their key afterwards, so the cached values of the affected document are
+     * discarded. If the query may match the keys of several documents, the
+     * whole node value cache is cleared.
+     */
+    @Override
+    public void remove(final Txn transaction, final IndexQuery query, final BTreeCallback callback)
+            throws IOException, BTreeException, TerminatedException {
+        if (query != null && query.getValue(0).getLength() >= DocumentImpl.LENGTH_DOCUMENT_ID
+                && (query.getOperator() == IndexQuery.TRUNC_RIGHT || query.getOperator() == IndexQuery.EQ)) {
+            invalidateNodeValues(query.getValue(0));
+        } else if (nodeValueCache != null) {
+            nodeValueCache.clear();
+        }
+        super.remove(transaction, query, callback);
+    }
+
     protected byte[] getOverflowValue(final long pointer) {
         if (!lock.hasLock()) {
             LOG.warn("The file doesn't own a lock");
@@ -1648,7 +1698,7 @@ public class DOMFile extends BTree implements Lockable {
         //removeNode(null, pointer);
     //}
 
-    public void removeNode(final Txn transaction, final long pointer) {
+    private void removeNode(final Txn transaction, final long pointer) {
         if (!lock.isLockedForWrite()) {
             LOG.warn("The file doesn't own a write lock");
         }
@@ -1730,6 +1780,7 @@ public class DOMFile extends BTree implements Lockable {
      * page and the occupied space is freed.
      */
     public void remove(final Txn transaction, final Value key, final long pointer) {
+        invalidateNodeValues(key);
         removeNode(transaction, pointer);
         try {
             removeValue(transaction, key);
@@ -1783,10 +1834,11 @@ public class DOMFile extends BTree implements Lockable {
      * Remove a sequence of pages, starting with the page denoted by the passed
      * address pointer p.
      */
-    public void removeAll(final Txn transaction, final long pointer) {
+    public void removeAll(final Txn transaction, final DocumentImpl doc, final long pointer) {
         if (!lock.isLockedForWrite()) {
             LOG.warn("The file doesn't own a write lock");
         }
+        invalidateNodeValues(doc);
         long pageNum = StorageAddress.pageFromPointer(pointer);
         if (pageNum == Page.NO_PAGE) {
             LOG.error("Tried to remove unknown page");
@@ -1855,7 +1907,8 @@ public class DOMFile extends BTree implements Lockable {
                 LOG.warn("Node value not found : " + key);
                 return false;
             }
-            update(transaction, pointer, value);
+            invalidateNodeValues(key);
+            updateValue(transaction, pointer, value);
             return true;
         } catch (final BTreeException | IOException e) {
             //TODO : rethrow exception ? -pb
@@ -1868,7 +1921,13 @@ public class DOMFile extends BTree implements Lockable {
     /**
      * Update the key/value pair where the value is found at address p. 
      */
-    public void update(final Txn transaction, final long pointer, final byte[] value) throws ReadOnlyException {
+    public void update(final Txn transaction, final DocumentImpl doc, final long pointer, final byte[] value)
+            throws ReadOnlyException {
+        invalidateNodeValues(doc);
+        updateValue(transaction, pointer, value);
+    }
+
+    private void updateValue(final Txn transaction, final long pointer, final byte[] value) throws ReadOnlyException {
         if (!lock.isLockedForWrite()) {
             LOG.warn("The file doesn't own a write lock");
         }
@@ -1916,6 +1975,15 @@ public class DOMFile extends BTree implements Lockable {
         if (!lock.hasLock()) {
             LOG.warn("The file doesn't own a lock");
         }
+        // only the values of elements are cached: all other nodes are stored in a single record
+        final boolean cacheable = nodeValueCache != null && node.getNodeType() == Node.ELEMENT_NODE;
+        final DocumentImpl doc = (DocumentImpl) node.getOwnerDocument();
+        if (cacheable) {
+            final String value = nodeValueCache.get(doc.getDocId(), node.getNodeId(), addWhitespace);
+            if (value != null) {
+                return value;
+            }
+        }
         try {
             long address = node.getInternalAddress();
             RecordPos recordPos = null;
@@ -1939,10 +2007,13 @@ public class DOMFile extends BTree implements Lockable {
             // we collect the string values in binary format and append them to a ByteArrayOutputStream
             try(final ByteArrayOutputStream os = new ByteArrayOutputStream()) {
                 // now traverse the tree
-                getNodeValue(broker.getBrokerPool(), (DocumentImpl) node.getOwnerDocument(),
-                        os, recordPos, true, addWhitespace);
+                getNodeValue(broker.getBrokerPool(), doc, os, recordPos, true, addWhitespace);
                 final byte[] data = os.toByteArray();
-                return new String(data, UTF_8);
+                final String value = new String(data, UTF_8);
+                if (cacheable) {
+                    nodeValueCache.put(doc.getDocId(), node.getNodeId(), addWhitespace, value);
+                }
+                return value;
             }
         } catch (final BTreeException e) {
             LOG.error("BTree error while reading node value", e);
@@ -1955,6 +2026,30 @@ public class DOMFile extends BTree implements Lockable {
         return null;
     }
 
+    /**
+     * Discard the cached string values of all nodes of the specified document. Called
+     * by every method which stores, updates or removes a node, as this may change the
+     * string value of all its ancestors.
+     *
+     * @param doc the document which is modified
+     */
+    private void invalidateNodeValues(final DocumentImpl doc) {
+        if (nodeValueCache != null) {
+            nodeValueCache.invalidate(doc.getDocId());
+        }
+    }
+
+    /**
+     * Discard the cached string values of the document whose id is
+     * encoded in the given {@link NodeRef} key.
+     */
+    private void invalidateNodeValues(final Value key) {
+        if (nodeValueCache != null) {
+            nodeValueCache.invalidate(ByteConversion.byteToInt(key.data(),
+                key.start() + NodeRef.OFFSET_DOCUMENT_ID));
+        }
+    }
+
     /**
      * Recursive method to retrieve the string values of the root node
      * and all its descendants.
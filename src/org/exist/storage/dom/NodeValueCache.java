@@ -0,0 +1,178 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2015 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.storage.dom;
+
+import net.jcip.annotations.GuardedBy;
+import org.exist.numbering.NodeId;
+
+import java.util.*;
+
+/**
+ * Caches the string values computed by {@link DOMFile#getNodeValue(org.exist.storage.DBBroker,
+ * org.exist.dom.persistent.IStoredNode, boolean)} for element nodes, keyed by document id and node id.
+ * The cache is bounded by the estimated number of bytes occupied by the cached strings. If the limit
+ * is exceeded, the least recently used values are evicted.
+ *
+ * A change to any node of a document may change the string value of all its ancestors, so
+ * values are invalidated per document: {@link DOMFile} calls {@link #invalidate(int)} from
+ * every method which updates, inserts or removes a node of the document.
+ */
+public class NodeValueCache {
+
+    public static final String CACHE_SIZE_ATTRIBUTE = "nodeValueCacheSize";
+    public static final String PROPERTY_CACHE_SIZE = "db-connection.node-value-cache-size";
+    public static final String MAX_ENTRY_SIZE_ATTRIBUTE = "nodeValueCacheMaxEntrySize";
+    public static final String PROPERTY_MAX_ENTRY_SIZE = "db-connection.node-value-cache-max-entry-size";
+
+    /**
+     * Approximate number of bytes used by an entry in addition to the
+     * characters of the string value and the node id.
+     */
+    private static final int ENTRY_OVERHEAD = 128;
+
+    private final long maxSize;
+    private final long maxEntrySize;
+
+    @GuardedBy("this") private final LinkedHashMap<Key, String> values = new LinkedHashMap<>(256, 0.75f, true);
+    @GuardedBy("this") private final Map<Integer, Set<Key>> documents = new HashMap<>();
+    @GuardedBy("this") private long size = 0;
+    @GuardedBy("this") private int hits = 0;
+    @GuardedBy("this") private int fails = 0;
+
+    /**
+     * @param maxSize the maximum number of bytes to be used by the cached values
+     * @param maxEntrySize the maximum number of bytes used by a single value
+     */
+    public NodeValueCache(final long maxSize, final long maxEntrySize) {
+        this.maxSize = maxSize;
+        this.maxEntrySize = maxEntrySize;
+    }
+
+    public synchronized String get(final int docId, final NodeId nodeId, final boolean addWhitespace) {
+        final String value = values.get(new Key(docId, nodeId, addWhitespace));
+        if (value == null) {
+            fails++;
+        } else {
+            hits++;
+        }
+        return value;
+    }
+
+    public synchronized void put(final int docId, final NodeId nodeId, final boolean addWhitespace, final String value) {
+        final Key key = new Key(docId, nodeId, addWhitespace);
+        final long entrySize = key.size() + 2L * value.length();
+        // the value of the root element of a large document would evict the
+        // values of many smaller elements, which are cheaper to recompute
+        if (entrySize > maxEntrySize) {
+            return;
+        }
+        final String old = values.put(key, value);
+        if (old != null) {
+            size -= key.size() + 2L * old.length();
+        } else {
+            documents.computeIfAbsent(docId, id -> new HashSet<>()).add(key);
+        }
+        size += entrySize;
+        for (final Iterator<Map.Entry<Key, String>> i = values.entrySet().iterator(); size > maxSize && i.hasNext(); ) {
+            final Map.Entry<Key, String> entry = i.next();
+            i.remove();
+            size -= entry.getKey().size() + 2L * entry.getValue().length();
+            final Set<Key> keys = documents.get(entry.getKey().docId);
+            keys.remove(entry.getKey());
+            if (keys.isEmpty()) {
+                documents.remove(entry.getKey().docId);
+            }
+        }
+    }
+
+    /**
+     * Removes all cached values of the given document.
+     *
+     * @param docId the id of the document
+     */
+    public synchronized void invalidate(final int docId) {
+        final Set<Key> keys = documents.remove(docId);
+        if (keys == null) {
+            return;
+        }
+        for (final Key key : keys) {
+            final String value = values.remove(key);
+            size -= key.size() + 2L * value.length();
+        }
+    }
+
+    public synchronized void clear() {
+        values.clear();
+        documents.clear();
+        size = 0;
+    }
+
+    public synchronized long getSize() {
+        return size;
+    }
+
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    public synchronized int getHits() {
+        return hits;
+    }
+
+    public synchronized int getFails() {
+        return fails;
+    }
+
+    private static final class Key {
+        private final int docId;
+        private final byte[] nodeId;
+        private final boolean addWhitespace;
+        private final int hashCode;
+
+        private Key(final int docId, final NodeId nodeId, final boolean addWhitespace) {
+            this.docId = docId;
+            this.nodeId = new byte[nodeId.size()];
+            nodeId.serialize(this.nodeId, 0);
+            this.addWhitespace = addWhitespace;
+            this.hashCode = 31 * (31 * docId + Arrays.hashCode(this.nodeId)) + (addWhitespace ? 1 : 0);
+        }
+
+        private long size() {
+            return ENTRY_OVERHEAD + nodeId.length;
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            final Key other = (Key) obj;
+            return docId == other.docId && addWhitespace == other.addWhitespace && Arrays.equals(nodeId, other.nodeId);
+        }
+    }
+}
@@ -62,6 +62,7 @@ import java.nio.file.Path;
 import java.text.NumberFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
 
@@ -385,6 +386,11 @@ public class BFile extends BTree {
         return flushed;
     }
 
+    @Override
+    public List<Cache<?>> getCaches() {
+        return Arrays.asList(cache, dataCache);
+    }
+
     public BufferStats getDataBufferStats() {
         if (dataCache == null) {
             return null;
@@ -6,17 +6,26 @@
 package org.exist.storage.index;
 
 import org.exist.collections.Collection;
+import org.exist.dom.persistent.BinaryDocument;
 import org.exist.dom.persistent.DocumentImpl;
 import org.exist.storage.BrokerPool;
+import org.exist.storage.btree.BTreeCallback;
+import org.exist.storage.btree.BTreeException;
 import org.exist.storage.btree.DBException;
+import org.exist.storage.btree.IndexQuery;
 import org.exist.storage.btree.Value;
+import org.exist.storage.io.VariableByteInput;
 import org.exist.storage.lock.Lock;
 import org.exist.storage.lock.Lock.LockMode;
+import org.exist.storage.txn.Txn;
 import org.exist.util.*;
+import org.exist.xquery.TerminatedException;
 
 import java.io.IOException;
 import java.io.Writer;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Stack;
 
 /**
@@ -36,6 +45,7 @@ public class CollectionStore extends BFile {
 
     public final static byte KEY_TYPE_COLLECTION = 0;
     public final static byte KEY_TYPE_DOCUMENT = 1;
+    public final static byte KEY_TYPE_DOCUMENT_NAME = 2;
 
     private Stack<Integer> freeResourceIds = new Stack<>();
     private Stack<Integer> freeCollectionIds = new Stack<>();
@@ -143,6 +153,226 @@ public class CollectionStore extends BFile {
         return freeCollectionId;
     }
 
+    /**
+     * Adds or updates the name key of the given document, which maps
+     * the document's name to its type and id. The name keys allow to look up
+     * a single document of a collection or to iterate over the documents in
+     * name order without reading the metadata of all documents.
+     *
+     * The caller must hold a write lock on the store.
+     */
+    public void storeDocumentName(final Txn transaction, final DocumentImpl doc) {
+        final Value key = new DocumentNameKey(doc.getCollection().getId(), doc.getFileURI().getRawCollectionPath());
+        final byte[] data = new byte[DocumentNameKey.LENGTH_VALUE];
+        data[0] = doc.getResourceType();
+        ByteConversion.intToByte(doc.getDocId(), data, 1);
+        put(transaction, key, data, true);
+    }
+
+    /**
+     * Removes the name key of the given document, unless the name has already been
+     * taken over by another document.
+     *
+     * The caller must hold a write lock on the store.
+     */
+    public void removeDocumentName(final Txn transaction, final DocumentImpl doc) {
+        final Value key = new DocumentNameKey(doc.getCollection().getId(), doc.getFileURI().getRawCollectionPath());
+        final Value value = get(key);
+        if (value != null && ByteConversion.byteToInt(value.data(), value.start() + 1) == doc.getDocId()) {
+            remove(transaction, key);
+        }
+    }
+
+    /**
+     * Returns the id of the document with the given name or
+     * {@link DocumentImpl#UNKNOWN_DOCUMENT_ID} if there is none.
+     */
+    public int getDocumentId(final int collectionId, final String name) {
+        final Lock lock = getLock();
+        try {
+            lock.acquire(LockMode.READ_LOCK);
+            final Value value = get(new DocumentNameKey(collectionId, name));
+            if (value == null) {
+                return DocumentImpl.UNKNOWN_DOCUMENT_ID;
+            }
+            return ByteConversion.byteToInt(value.data(), value.start() + 1);
+        } catch (final LockException e) {
+            LOG.warn("Failed to acquire lock on " + FileUtils.fileName(getFile()), e);
+            return DocumentImpl.UNKNOWN_DOCUMENT_ID;
+        } finally {
+            lock.release(LockMode.READ_LOCK);
+        }
+    }
+
+    /**
+     * Reads the document with the given name from the store.
+     *
+     * @return the document or null if the collection does not contain a document with the given name
+     */
+    public DocumentImpl getDocument(final BrokerPool pool, final Collection collection, final String name) {
+        final Lock lock = getLock();
+        try {
+            lock.acquire(LockMode.READ_LOCK);
+            final Value value = get(new DocumentNameKey(collection.getId(), name));
+            if (value == null) {
+                return null;
+            }
+            final byte type = value.data()[value.start()];
+            final int docId = ByteConversion.byteToInt(value.data(), value.start() + 1);
+            final VariableByteInput is = getAsStream(new DocumentKey(collection.getId(), type, docId));
+            if (is == null) {
+                LOG.warn("Document " + name + " of collection " + collection.getURI() + " has a name key but no data");
+                return null;
+            }
+            return readDocument(pool, collection, type, is);
+        } catch (final LockException e) {
+            LOG.warn("Failed to acquire lock on " + FileUtils.fileName(getFile()), e);
+            return null;
+        } catch (final IOException e) {
+            LOG.warn("IOException while reading document data", e);
+            return null;
+        } finally {
+            lock.release(LockMode.READ_LOCK);
+        }
+    }
+
+    /**
+     * Reads a page of documents from the store in the order of their names.
+     *
+     * @param startAfter only documents whose name is greater than this name are returned.
+     *                   Pass an empty string to start with the first document.
+     * @param max the maximum number of documents to return
+     * @return the documents, ordered by name
+     */
+    public List<DocumentImpl> getDocuments(final BrokerPool pool, final Collection collection, final String startAfter,
+            final int max) {
+        final List<DocumentImpl> docs = new ArrayList<>(max);
+        final Lock lock = getLock();
+        try {
+            lock.acquire(LockMode.READ_LOCK);
+            final Value prefix = new DocumentNameKey(collection.getId());
+            final IndexQuery query = new IndexQuery(IndexQuery.GT, new DocumentNameKey(collection.getId(), startAfter));
+            query(query, prefix, (key, pointer) -> {
+                if (docs.size() == max) {
+                    throw new PageFullException();
+                }
+                final Value value = get(pointer);
+                final byte type = value.data()[value.start()];
+                final int docId = ByteConversion.byteToInt(value.data(), value.start() + 1);
+                try {
+                    final VariableByteInput is = getAsStream(new DocumentKey(collection.getId(), type, docId));
+                    if (is != null) {
+                        docs.add(readDocument(pool, collection, type, is));
+                    }
+                } catch (final IOException e) {
+                    LOG.warn("IOException while reading document data", e);
+                }
+                return true;
+            });
+        } catch (final PageFullException e) {
+            // page is complete
+        } catch (final LockException e) {
+            LOG.warn("Failed to acquire lock on " + FileUtils.fileName(getFile()), e);
+        } catch (final IOException | BTreeException | TerminatedException e) {
+            LOG.warn("Exception while reading document data", e);
+        } finally {
+            lock.release(LockMode.READ_LOCK);
+        }
+        return docs;
+    }
+
+    /**
+     * Returns the number of documents in the collection. Only the keys
+     * of the documents are scanned.
+     */
+    public int getDocumentCount(final int collectionId) {
+        return countKeys(new DocumentKey(collectionId));
+    }
+
+    /**
+     * Returns the number of document name keys of the collection. If this differs
+     * from {@link #getDocumentCount(int)}, the name keys need to be rebuilt
+     * with {@link #rebuildDocumentNames(Txn, BrokerPool, Collection)}.
+     */
+    public int getDocumentNameCount(final int collectionId) {
+        return countKeys(new DocumentNameKey(collectionId));
+    }
+
+    private int countKeys(final Value prefix) {
+        final int[] count = { 0 };
+        final Lock lock = getLock();
+        try {
+            lock.acquire(LockMode.READ_LOCK);
+            query(new IndexQuery(IndexQuery.TRUNC_RIGHT, prefix), (key, pointer) -> {
+                count[0]++;
+                return true;
+            });
+        } catch (final LockException e) {
+            LOG.warn("Failed to acquire lock on " + FileUtils.fileName(getFile()), e);
+        } catch (final IOException | BTreeException | TerminatedException e) {
+            LOG.warn("Exception while scanning " + FileUtils.fileName(getFile()), e);
+        } finally {
+            lock.release(LockMode.READ_LOCK);
+        }
+        return count[0];
+    }
+
+    /**
+     * Drops and recreates the document name keys of a collection from the
+     * document entries. Required for collections written while lazy loading was
+     * disabled or by versions which did not maintain name keys.
+     */
+    public void rebuildDocumentNames(final Txn transaction, final BrokerPool pool, final Collection collection) {
+        final Lock lock = getLock();
+        try {
+            lock.acquire(LockMode.WRITE_LOCK);
+            removeAll(transaction, new IndexQuery(IndexQuery.TRUNC_RIGHT, new DocumentNameKey(collection.getId())));
+            final List<DocumentImpl> docs = new ArrayList<>();
+            query(new IndexQuery(IndexQuery.TRUNC_RIGHT, new DocumentKey(collection.getId())), (key, pointer) -> {
+                final byte type = key.data()[key.start() + DocumentKey.OFFSET_DOCUMENT_TYPE];
+                try {
+                    docs.add(readDocument(pool, collection, type, getAsStream(pointer)));
+                } catch (final IOException e) {
+                    LOG.warn("IOException while reading document data", e);
+                }
+                return true;
+            });
+            for (final DocumentImpl doc : docs) {
+                storeDocumentName(transaction, doc);
+            }
+        } catch (final LockException e) {
+            LOG.warn("Failed to acquire lock on " + FileUtils.fileName(getFile()), e);
+        } catch (final IOException | BTreeException | TerminatedException e) {
+            LOG.warn("Exception while rebuilding document names of " + collection.getURI(), e);
+        } finally {
+            lock.release(LockMode.WRITE_LOCK);
+        }
+    }
+
+    private static DocumentImpl readDocument(final BrokerPool pool, final Collection collection, final byte type,
+            final VariableByteInput is) throws IOException {
+        final DocumentImpl doc;
+        if (type == DocumentImpl.BINARY_FILE) {
+            doc = new BinaryDocument(pool);
+        } else {
+            doc = new DocumentImpl(pool);
+        }
+        doc.read(is);
+        doc.setCollection(collection);
+        return doc;
+    }
+
+    /**
+     * Thrown to stop a btree scan once a page of documents is complete.
+     */
+    private static final class PageFullException extends TerminatedException {
+        private static final long serialVersionUID = -3498153424153591046L;
+
+        private PageFullException() {
+            super("page full");
+        }
+    }
+
     protected void dumpValue(Writer writer, Value value) throws IOException {
         //TODO : what does this 5 stand for ?
         if (value.getLength() == 5 + Collection.LENGTH_COLLECTION_ID) {
@@ -208,6 +438,36 @@ public class CollectionStore extends BFile {
         }
     }
 
+    public static class DocumentNameKey extends Value {
+
+        public static final int OFFSET_TYPE = 0;
+        public static final int LENGTH_TYPE = 1; //sizeof byte
+        public static final int OFFSET_COLLECTION_ID = OFFSET_TYPE + LENGTH_TYPE; //1
+        public static final int OFFSET_NAME = OFFSET_COLLECTION_ID + Collection.LENGTH_COLLECTION_ID; //5
+        public static final int LENGTH_VALUE = DocumentKey.LENGTH_DOCUMENT_TYPE + DocumentImpl.LENGTH_DOCUMENT_ID; //5
+
+        public DocumentNameKey(int collectionId) {
+            len = OFFSET_NAME;
+            data = new byte[len];
+            data[OFFSET_TYPE] = KEY_TYPE_DOCUMENT_NAME;
+            ByteConversion.intToByte(collectionId, data, OFFSET_COLLECTION_ID);
+            pos = OFFSET_TYPE;
+        }
+
+        public DocumentNameKey(int collectionId, String name) {
+            len = OFFSET_NAME + UTF8.encoded(name);
+            data = new byte[len];
+            data[OFFSET_TYPE] = KEY_TYPE_DOCUMENT_NAME;
+            ByteConversion.intToByte(collectionId, data, OFFSET_COLLECTION_ID);
+            UTF8.encode(name, data, OFFSET_NAME);
+            pos = OFFSET_TYPE;
+        }
+
+        public static String getName(Value key) {
+            return UTF8.decode(key.data(), key.start() + OFFSET_NAME, key.getLength() - OFFSET_NAME).toString();
+        }
+    }
+
     public static class CollectionKey extends Value {
         
         public static final int OFFSET_TYPE = 0;
@@ -28,10 +28,15 @@ import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.text.DateFormat;
 import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
 
+import net.jcip.annotations.GuardedBy;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.exist.EXistException;
@@ -53,6 +58,24 @@ import org.exist.util.sanity.SanityCheck;
  * 
  * A buffer is used to temporarily buffer journal entries. To guarantee consistency, the buffer will be flushed
  * and the journal is synched after every commit or whenever a db page is written to disk.
+ *
+ * Threads append to the buffer concurrently: a thread reserves space for its entry by atomically advancing
+ * the reserved position of the buffer, which also determines the LSN of the entry, and then copies the entry
+ * into its slice of the buffer without holding a lock. A flush seals the buffer against further reservations,
+ * waits until all entries reserved before have been copied, installs a second buffer for subsequent entries
+ * and writes the sealed buffer to the file. Flushes are serialized by the latch, so entries reach the file in
+ * LSN order.
+ *
+ * A journal file starts with the 8 byte {@link #FILE_MAGIC}, followed by the flushed buffers, each written as a block:
+ *
+ * <pre>[int: fileNumber, int: offset, int: rawLength, int: storedLength, byte: type, int: crc32, byte[] data]</pre>
+ *
+ * The data of a block is either stored as it is or compressed with {@link Deflater}, if compression is enabled.
+ * Offsets of LSNs refer to the uncompressed stream of entries, i.e. offset is the position of the first entry of
+ * a block in that stream. A file replaced during a checkpoint is kept as spare and reused for the next journal,
+ * and files may be preallocated to the size limit, so there may be stale data after the last block. The reader
+ * recognizes the end of the log by the file number, offset and checksum of the blocks
+ * (see {@link JournalBlockChannel}).
  * 
  * Each entry has the structure:
  * 
@@ -80,15 +103,31 @@ public class Journal {
     public final static String RECOVERY_SYNC_ON_COMMIT_ATTRIBUTE = "sync-on-commit";
     public final static String RECOVERY_JOURNAL_DIR_ATTRIBUTE = "journal-dir";
     public final static String RECOVERY_SIZE_LIMIT_ATTRIBUTE = "size"; 
+    public final static String RECOVERY_COMPRESS_ATTRIBUTE = "compress";
+    public final static String RECOVERY_PREALLOCATE_ATTRIBUTE = "preallocate";
 
     public final static String PROPERTY_RECOVERY_SIZE_LIMIT = "db-connection.recovery.size-limit";
     public final static String PROPERTY_RECOVERY_JOURNAL_DIR = "db-connection.recovery.journal-dir";
     public final static String PROPERTY_RECOVERY_SYNC_ON_COMMIT = "db-connection.recovery.sync-on-commit";
+    public final static String PROPERTY_RECOVERY_COMPRESS = "db-connection.recovery.compress";
+    public final static String PROPERTY_RECOVERY_PREALLOCATE = "db-connection.recovery.preallocate";
 
     public final static String LOG_FILE_SUFFIX = "log";
     public final static String BAK_FILE_SUFFIX = ".bak";
 
     public final static String LCK_FILE = "journal.lck";
+
+    /** a journal file replaced during a checkpoint, which will be reused for the next journal */
+    public final static String SPARE_FILE = "journal.spare";
+
+    /** the magic number at the start of a journal file written in blocks */
+    final static long FILE_MAGIC = 0x65584A524E4C0001L;
+    final static int FILE_HEADER_LEN = 8;
+
+    /** the length of the header of each block: fileNumber + offset + rawLength + storedLength + type + crc32 */
+    final static int BLOCK_HEADER_LEN = 21;
+    final static byte BLOCK_STORED = 0;
+    final static byte BLOCK_DEFLATED = 1;
     
     /** the length of the header of each entry: entryType + transactionId + length */
     public final static int LOG_ENTRY_HEADER_LEN = 11;
@@ -97,11 +136,14 @@ public class Journal {
     public final static int LOG_ENTRY_BASE_LEN = LOG_ENTRY_HEADER_LEN + 2;
 
     /** default maximum journal size */
-    public final static int DEFAULT_MAX_SIZE = 10; //MB
+    public final static int DEFAULT_MAX_SIZE = 100; //MB
 
     /** minimal size the journal needs to have to be replaced by a new file during a checkpoint */
     private static final long MIN_REPLACE = 1024 * 1024;
 
+    /** size of the log buffers */
+    private static final int BUFFER_SIZE = 1024 * 1024;
+
     /** 
      * size limit for the journal file. A checkpoint will be triggered if the file
      * exceeds this size limit.
@@ -112,7 +154,6 @@ public class Journal {
 
     /** the current output channel 
      * Only valid after switchFiles() was called at least once! */
-    private FileOutputStream os;
     private FileChannel channel;
 
     /** Synching the journal is done by a background thread */
@@ -131,20 +172,17 @@ public class Journal {
     /** the current file number */
     private int currentFile = 0;
 
-    /** used to keep track of the current position in the file */
-    private int inFilePos = 0;
-
-    /** temp buffer */
-    private ByteBuffer currentBuffer;
+    /** the buffer new entries are appended to, null after shutdown */
+    private volatile LogBuffer currentBuffer;
 
-    /** the last LSN written by the JournalManager */
-    private long currentLsn = Lsn.LSN_INVALID;
+    /** the buffer which will replace the current buffer when it is flushed */
+    @GuardedBy("latch") private ByteBuffer spareBuffer;
 
-    /** the last LSN actually written to the file */
-    private long lastLsnWritten = Lsn.LSN_INVALID;
+    /** the end of the last entry actually written to the file, as an LSN */
+    private volatile long lastLsnWritten = Lsn.LSN_INVALID;
 
-    /** stores the current LSN of the last file sync on the file */ 
-    private long lastSyncLsn = Lsn.LSN_INVALID;
+    /** stores the last written LSN at the last file sync on the file */
+    private volatile long lastSyncLsn = Lsn.LSN_INVALID;
 
     /** set to true while recovery is in progress */
     private boolean inRecovery = false;
@@ -158,13 +196,28 @@ public class Journal {
     private final static boolean DEFAULT_SYNC_ON_COMMIT = true;
     private final boolean syncOnCommit;
 
+    /** if set to true, blocks are compressed before they are written */
+    @ConfigurationFieldAsAttribute("compress")
+    private final boolean compress;
+
+    /** if set to true, new journal files are filled up to the size limit before they are used */
+    @ConfigurationFieldAsAttribute("preallocate")
+    private final boolean preallocate;
+
+    /** compresses the blocks, null if compression is disabled */
+    @GuardedBy("latch") private final Deflater deflater;
+    @GuardedBy("latch") private final byte[] compressed;
+    @GuardedBy("latch") private final ByteBuffer blockHeader = ByteBuffer.allocate(BLOCK_HEADER_LEN);
+    @GuardedBy("latch") private final CRC32 crc = new CRC32();
+
     private final Path fsJournalDir;
 
     public Journal(final BrokerPool pool, final Path directory) throws EXistException {
         this.pool = pool;
         this.fsJournalDir = directory.resolve("fs.journal");
-        // we use a 1 megabyte buffer:
-        currentBuffer = ByteBuffer.allocateDirect(1024 * 1024);
+        // we use two 1 megabyte buffers: one is filled while the other one is written
+        currentBuffer = new LogBuffer(ByteBuffer.allocate(BUFFER_SIZE), 0, 0);
+        spareBuffer = ByteBuffer.allocate(BUFFER_SIZE);
 
         syncThread = new FileSyncThread(latch);
         syncThread.start();
@@ -174,6 +227,16 @@ public class Journal {
             LOG.debug("SyncOnCommit = " + syncOnCommit);
         }
 
+        this.compress = pool.getConfiguration().getProperty(PROPERTY_RECOVERY_COMPRESS, false);
+        this.preallocate = pool.getConfiguration().getProperty(PROPERTY_RECOVERY_PREALLOCATE, false);
+        if (compress) {
+            deflater = new Deflater(Deflater.BEST_SPEED);
+            compressed = new byte[BUFFER_SIZE];
+        } else {
+            deflater = null;
+            compressed = null;
+        }
+
         final Optional<Path> logDir = Optional.ofNullable((Path) pool.getConfiguration().getProperty(PROPERTY_RECOVERY_JOURNAL_DIR));
         if (logDir.isPresent()) {
             Path f = logDir.get();
@@ -225,33 +288,50 @@ public class Journal {
     }
 
     /**
-     * Write a log entry to the journalling log.
+     * Write a log entry to the journalling log. May be called by several threads concurrently.
      * 
      * @param loggable
      * @throws JournalException
      */
-    public synchronized void writeToLog(final Loggable loggable) throws JournalException {
-        if (currentBuffer == null) {
-            throw new JournalException("Database is shut down.");
-        }
+    public void writeToLog(final Loggable loggable) throws JournalException {
         SanityCheck.ASSERT(!inRecovery, "Write to log during recovery. Should not happen!");
         final int size = loggable.getLogSize();
         final int required = size + LOG_ENTRY_BASE_LEN;
-        if (required > currentBuffer.remaining()) {
-            flushToLog(false);
+        if (required > BUFFER_SIZE) {
+            throw new JournalException("Log record exceeds the size of the journal buffer: " + loggable.dump());
+        }
+        while (true) {
+            final LogBuffer buffer = currentBuffer;
+            if (buffer == null) {
+                throw new JournalException("Database is shut down.");
+            }
+            final long offset = buffer.reserved.getAndAdd(required);
+            if (offset + required > BUFFER_SIZE) {
+                // the buffer is full: flush it and retry with the next one
+                buffer.overflow.accumulateAndGet(offset, Math::min);
+                if (!flushBuffer(buffer) && currentBuffer == buffer) {
+                    throw new JournalException("Journal buffer is full and cannot be written: " + loggable.dump());
+                }
+                continue;
+            }
+
+            loggable.setLsn(Lsn.create(buffer.fileNum, buffer.fileOffset + (int) offset + 1));
+            try {
+                final ByteBuffer slice = buffer.buffer.duplicate();
+                slice.limit((int) offset + required).position((int) offset);
+                slice.put(loggable.getLogType());
+                slice.putLong(loggable.getTransactionId());
+                slice.putShort((short) size);
+                loggable.write(slice);
+                slice.putShort((short) (size + LOG_ENTRY_HEADER_LEN));
+            } catch (final BufferOverflowException e) {
+                throw new JournalException("Buffer overflow while writing log record: " + loggable.dump(), e);
+            } finally {
+                buffer.completed.addAndGet(required);
+            }
+            pool.getTransactionManager().trackOperation(loggable.getTransactionId());
+            return;
         }
-        currentLsn = Lsn.create(currentFile, inFilePos + currentBuffer.position() + 1);
-        loggable.setLsn(currentLsn);
-        try {
-            currentBuffer.put(loggable.getLogType());
-            currentBuffer.putLong(loggable.getTransactionId());
-            currentBuffer.putShort((short) loggable.getLogSize());
-            loggable.write(currentBuffer);
-            currentBuffer.putShort((short) (size + LOG_ENTRY_HEADER_LEN));
-        } catch (final BufferOverflowException e) {
-            throw new JournalException("Buffer overflow while writing log record: " + loggable.dump(), e);
-        }
-        pool.getTransactionManager().trackOperation(loggable.getTransactionId());
     }
 
     /**
@@ -280,17 +360,20 @@ public class Journal {
      * @param fsync forces all changes to disk if true and syncMode is set to SYNC_ON_COMMIT.
      * @param forceSync force changes to disk even if syncMode doesn't require it.
      */
-    public synchronized void flushToLog(final boolean fsync, final boolean forceSync) {
+    public void flushToLog(final boolean fsync, final boolean forceSync) {
         if (inRecovery) {
             return;
         }
         flushBuffer();
-        if (forceSync || (fsync && syncOnCommit && currentLsn > lastSyncLsn)) {
+        // the sync thread locks the latch, so it must not be triggered while holding it
+        final long written = lastLsnWritten;
+        if (forceSync || (fsync && syncOnCommit && written > lastSyncLsn)) {
             syncThread.triggerSync();
-            lastSyncLsn = currentLsn;
+            lastSyncLsn = written;
         }
         try {
-            if (channel != null && channel.size() >= journalSizeLimit) {
+            // the file may have been preallocated, so its size does not tell how much has been written
+            if (channel != null && channel.position() >= journalSizeLimit) {
                 pool.triggerCheckpoint();
             }
         } catch (final IOException e) {
@@ -299,36 +382,100 @@ public class Journal {
     }
 
     /**
-     * 
+     * Write all entries appended so far to the file.
      */
     private void flushBuffer() {
-        if (currentBuffer == null || channel == null) {
-            return; // the db has probably been shut down already or not fully initialized
-        }
+        flushBuffer(null);
+    }
+
+    /**
+     * Write the entries of the current buffer to the file, unless it is empty.
+     *
+     * @param full if not null, only flush if this buffer is still the current one
+     * @return false if the buffer could not be flushed because the journal has not been opened yet
+     */
+    private boolean flushBuffer(final LogBuffer full) {
         synchronized (latch) {
-            try {
-                if (currentBuffer.position() > 0) {
-                    currentBuffer.flip();
-                    final int size = currentBuffer.remaining();
-                    while (currentBuffer.hasRemaining()) {
-                        channel.write(currentBuffer);
-                    }
-                    
-                    inFilePos += size;
-                    lastLsnWritten = currentLsn;
-                }
-            } catch (final IOException e) {
-                LOG.warn("Flushing log file failed!", e);
-            } finally {
-                currentBuffer.clear();
+            final LogBuffer buffer = currentBuffer;
+            if (buffer == null || (full != null && buffer != full)) {
+                return true; // the db has been shut down or another thread flushed the buffer already
+            }
+            if (channel == null) {
+                return false; // the db has not been fully initialized
+            }
+            if (full == null && buffer.isEmpty()) {
+                return true;
+            }
+            final int length = buffer.seal();
+            currentBuffer = new LogBuffer(spareBuffer, buffer.fileNum, buffer.fileOffset + length);
+            spareBuffer = write(buffer, length);
+            return true;
+        }
+    }
+
+    /**
+     * Write a sealed buffer to the file.
+     *
+     * @return the byte buffer of the log buffer, cleared for reuse
+     */
+    @GuardedBy("latch")
+    private ByteBuffer write(final LogBuffer buffer, final int length) {
+        final ByteBuffer data = buffer.buffer;
+        try {
+            if (length > 0) {
+                writeBlock(buffer.fileNum, buffer.fileOffset, data.array(), length);
+                lastLsnWritten = Lsn.create(buffer.fileNum, buffer.fileOffset + length);
+            }
+        } catch (final IOException e) {
+            LOG.warn("Flushing log file failed!", e);
+        } finally {
+            data.clear();
+        }
+        return data;
+    }
+
+    /**
+     * Write the entries of a buffer as a block, compressed if compression
+     * is enabled and the data can actually be compressed.
+     */
+    @GuardedBy("latch")
+    private void writeBlock(final int fileNum, final int offset, final byte[] data, final int length) throws IOException {
+        byte[] stored = data;
+        int storedLength = length;
+        byte type = BLOCK_STORED;
+        if (deflater != null) {
+            deflater.reset();
+            deflater.setInput(data, 0, length);
+            deflater.finish();
+            int n = 0;
+            while (!deflater.finished() && n < length) {
+                n += deflater.deflate(compressed, n, length - n);
+            }
+            if (deflater.finished()) {
+                stored = compressed;
+                storedLength = n;
+                type = BLOCK_DEFLATED;
             }
         }
+        blockHeader.clear();
+        blockHeader.putInt(fileNum).putInt(offset).putInt(length).putInt(storedLength).put(type);
+        crc.reset();
+        crc.update(blockHeader.array(), 0, BLOCK_HEADER_LEN - 4);
+        crc.update(stored, 0, storedLength);
+        blockHeader.putInt((int) crc.getValue());
+        blockHeader.flip();
+        final ByteBuffer[] block = { blockHeader, ByteBuffer.wrap(stored, 0, storedLength) };
+        long remaining = BLOCK_HEADER_LEN + storedLength;
+        while (remaining > 0) {
+            remaining -= channel.write(block);
+        }
     }
 
     /**
      * Write a checkpoint record to the journal and flush it. If switchLogFiles is true,
      * a new journal will be started, but only if the file is larger than
-     * {@link #MIN_REPLACE}. The old log is removed.
+     * {@link #MIN_REPLACE}. The old log is kept as {@link #SPARE_FILE} to be reused
+     * by the next journal, or removed if there is a spare already.
      *
      * @param txnId The transaction id
      * @param switchLogFiles Indicates whether a new journal file should be started
@@ -347,7 +494,7 @@ public class Journal {
         try {
             if (switchLogFiles && channel != null && channel.position() > MIN_REPLACE) {
                 final Path oldFile = getFile(currentFile);
-                final RemoveThread rt = new RemoveThread(channel, oldFile);
+                final RemoveThread rt = new RemoveThread(channel, oldFile, dir.resolve(SPARE_FILE));
                 try {
                     switchFiles();
                 } catch (final LogException e) {
@@ -415,31 +562,78 @@ public class Journal {
         }
 
         synchronized (latch) {
+            // entries appended since the last flush still belong to the old file
+            final LogBuffer buffer = currentBuffer;
+            if (buffer != null) {
+                final int length = buffer.seal();
+                currentBuffer = new LogBuffer(spareBuffer, currentFile, 0);
+                if (channel != null) {
+                    spareBuffer = write(buffer, length);
+                } else {
+                    if (length > 0) {
+                        LOG.warn("Discarding " + length + " bytes of journal entries written before the journal was opened");
+                    }
+                    buffer.buffer.clear();
+                    spareBuffer = buffer.buffer;
+                }
+            }
+
             close();
+            channel = null;
             try {
-                //RandomAccessFile raf = new RandomAccessFile(file, "rw");
-                os = new FileOutputStream(file.toFile(), true);
-                channel = os.getChannel();
-                
+                channel = open(file);
                 syncThread.setChannel(channel);
-            } catch (final FileNotFoundException e) {
+            } catch (final IOException e) {
                 throw new LogException("Failed to open new journal: " + file.toAbsolutePath().toString(), e);
             }
         }
-        inFilePos = 0;
     }
 
-    public void close() {
-        if (channel != null) {
+    /**
+     * Open a new journal file, reusing the spare file if there is one, and
+     * write the file header.
+     */
+    @GuardedBy("latch")
+    private FileChannel open(final Path file) throws IOException {
+        final Path spare = dir.resolve(SPARE_FILE);
+        if (Files.exists(spare)) {
             try {
-                channel.close();
+                Files.move(spare, file, StandardCopyOption.ATOMIC_MOVE);
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug("Reusing journal file " + spare.toAbsolutePath().toString());
+                }
             } catch (final IOException e) {
-                LOG.warn("Failed to close journal", e);
+                LOG.warn("Failed to reuse journal file " + spare.toAbsolutePath().toString() + ": " + e.getMessage());
+            }
+        }
+        final FileChannel fc = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        try {
+            if (preallocate && fc.size() < journalSizeLimit) {
+                final ByteBuffer zeros = ByteBuffer.allocate(64 * 1024);
+                long pos = fc.size();
+                while (pos < journalSizeLimit) {
+                    zeros.clear();
+                    pos += fc.write(zeros, pos);
+                }
+                fc.force(true);
+            }
+            final ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_LEN);
+            header.putLong(FILE_MAGIC).flip();
+            fc.position(0);
+            while (header.hasRemaining()) {
+                fc.write(header);
             }
+            return fc;
+        } catch (final IOException e) {
+            fc.close();
+            throw e;
         }
-        if (os != null) {
+    }
+
+    public void close() {
+        if (channel != null) {
             try {
-                os.close();
+                channel.close();
             } catch (final IOException e) {
                 LOG.warn("Failed to close journal", e);
             }
@@ -520,7 +714,12 @@ public class Journal {
         } catch (final InterruptedException e) {
             //Nothing to do
         }
-        currentBuffer = null;
+        synchronized (latch) {
+            currentBuffer = null;
+            if (deflater != null) {
+                deflater.end();
+            }
+        }
     }
 
     /**
@@ -545,14 +744,68 @@ public class Journal {
         return hex + '.' + LOG_FILE_SUFFIX;
     }
 
+    /**
+     * A log buffer which threads append entries to concurrently. A thread reserves
+     * the space for its entry by advancing {@link #reserved}, copies the entry into
+     * the reserved slice and then adds its length to {@link #completed}. Once a
+     * reservation exceeds the capacity, the buffer is full and must be flushed.
+     */
+    private static final class LogBuffer {
+        /** added to the reserved position to seal the buffer against further reservations */
+        private static final long SEALED = 1L << 48;
+
+        private final ByteBuffer buffer;
+        private final int fileNum;
+        /** the position in the journal file at which the buffer starts */
+        private final int fileOffset;
+        /** the bytes reserved, exceeds the capacity once the buffer is full or sealed */
+        private final AtomicLong reserved = new AtomicLong();
+        /** the bytes copied into the buffer by the reserving threads */
+        private final AtomicLong completed = new AtomicLong();
+        /** the offset of the first reservation which did not fit into the buffer */
+        private final AtomicLong overflow = new AtomicLong(Long.MAX_VALUE);
+
+        LogBuffer(final ByteBuffer buffer, final int fileNum, final int fileOffset) {
+            this.buffer = buffer;
+            this.fileNum = fileNum;
+            this.fileOffset = fileOffset;
+        }
+
+        boolean isEmpty() {
+            return reserved.get() == 0;
+        }
+
+        /**
+         * Stop further reservations and wait until all entries reserved
+         * before have been copied into the buffer.
+         *
+         * @return the length of the entries in the buffer
+         */
+        int seal() {
+            long length = reserved.getAndAdd(SEALED);
+            if (length > buffer.capacity()) {
+                // the buffer ends before the first reservation which did not fit
+                while ((length = overflow.get()) > buffer.capacity()) {
+                    Thread.yield();
+                }
+            }
+            while (completed.get() < length) {
+                Thread.yield();
+            }
+            return (int) length;
+        }
+    }
+
     private static class RemoveThread extends Thread {
         final FileChannel channel;
         final Path path;
+        final Path spare;
 
-        RemoveThread(final FileChannel channel, final Path path) {
+        RemoveThread(final FileChannel channel, final Path path, final Path spare) {
             super("RemoveJournalThread");
             this.channel = channel;
             this.path = path;
+            this.spare = spare;
         }
 
         @Override
@@ -564,6 +817,14 @@ public class Journal {
             } catch (final IOException e) {
                 LOG.warn("Exception while closing journal file: " + e.getMessage(), e);
             }
+            if (!Files.exists(spare)) {
+                try {
+                    Files.move(path, spare, StandardCopyOption.ATOMIC_MOVE);
+                    return;
+                } catch (final IOException e) {
+                    LOG.warn("Failed to keep journal file for reuse: " + e.getMessage());
+                }
+            }
             FileUtils.deleteQuietly(path);
         }
     }
@@ -0,0 +1,267 @@
+/*
+ * eXist Open Source Native XML Database
+ * Copyright (C) 2001-2016 The eXist Project
+ * http://exist-db.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.exist.storage.journal;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Read-only view on a journal file written in blocks (see {@link Journal}), which presents
+ * the entries as the contiguous stream they were appended to, so positions in the channel
+ * correspond to the offsets of LSNs.
+ *
+ * The blocks are indexed when the channel is opened. The log ends before the first block
+ * which is incomplete, fails its checksum or does not continue the stream of the file. The
+ * latter is the case for the zeros of a preallocated file and for the blocks left over
+ * from the previous use of a recycled file.
+ */
+final class JournalBlockChannel implements SeekableByteChannel {
+
+    private static final Logger LOG = LogManager.getLogger(JournalBlockChannel.class);
+
+    private final SeekableByteChannel fc;
+    private final Inflater inflater = new Inflater();
+
+    /** logical start, physical position of the data, raw and stored length, and type of each block */
+    private long[] blockStart = new long[16];
+    private long[] blockPosition = new long[16];
+    private int[] rawLength = new int[16];
+    private int[] storedLength = new int[16];
+    private byte[] blockType = new byte[16];
+    private int blocks = 0;
+
+    /** the logical size of the stream */
+    private long size = 0;
+    private long position = 0;
+
+    /** the block currently held in {@link #data}, or -1 */
+    private int current = -1;
+    private byte[] data = new byte[0];
+    private byte[] stored = new byte[0];
+
+    /**
+     * @param fc the channel on the journal file, positioned after the file header
+     * @param fileNumber the number of the journal file
+     */
+    JournalBlockChannel(final SeekableByteChannel fc, final int fileNumber) throws IOException {
+        this.fc = fc;
+        scan(fileNumber);
+    }
+
+    private void scan(final int fileNumber) throws IOException {
+        final ByteBuffer header = ByteBuffer.allocate(Journal.BLOCK_HEADER_LEN);
+        final CRC32 crc = new CRC32();
+        long physical = fc.position();
+        final long fileSize = fc.size();
+        while (physical + Journal.BLOCK_HEADER_LEN <= fileSize) {
+            header.clear();
+            fc.position(physical);
+            if (!readFully(header)) {
+                break;
+            }
+            header.flip();
+            final int blockFile = header.getInt();
+            final int offset = header.getInt();
+            final int raw = header.getInt();
+            final int length = header.getInt();
+            final byte type = header.get();
+            final int checksum = header.getInt();
+            if (blockFile != fileNumber || offset != size || raw <= 0 || length <= 0 ||
+                    (type != Journal.BLOCK_STORED && type != Journal.BLOCK_DEFLATED) ||
+                    (type == Journal.BLOCK_STORED && length != raw) ||
+                    physical + Journal.BLOCK_HEADER_LEN + length > fileSize) {
+                break;
+            }
+            ensureCapacity(length);
+            final ByteBuffer buf = ByteBuffer.wrap(stored, 0, length);
+            if (!readFully(buf)) {
+                break;
+            }
+            crc.reset();
+            crc.update(header.array(), 0, Journal.BLOCK_HEADER_LEN - 4);
+            crc.update(stored, 0, length);
+            if ((int) crc.getValue() != checksum) {
+                LOG.info("Journal block at " + physical + " has an invalid checksum. Assuming end of log.");
+                break;
+            }
+            addBlock(physical + Journal.BLOCK_HEADER_LEN, raw, length, type);
+            physical += Journal.BLOCK_HEADER_LEN + length;
+        }
+    }
+
+    private void addBlock(final long physical, final int raw, final int length, final byte type) {
+        if (blocks == blockStart.length) {
+            final int capacity = blocks * 2;
+            blockStart = Arrays.copyOf(blockStart, capacity);
+            blockPosition = Arrays.copyOf(blockPosition, capacity);
+            rawLength = Arrays.copyOf(rawLength, capacity);
+            storedLength = Arrays.copyOf(storedLength, capacity);
+            blockType = Arrays.copyOf(blockType, capacity);
+        }
+        blockStart[blocks] = size;
+        blockPosition[blocks] = physical;
+        rawLength[blocks] = raw;
+        storedLength[blocks] = length;
+        blockType[blocks] = type;
+        blocks++;
+        size += raw;
+    }
+
+    private void ensureCapacity(final int length) {
+        if (stored.length < length) {
+            stored = new byte[length];
+        }
+    }
+
+    private boolean readFully(final ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining()) {
+            if (fc.read(buf) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Load the given block into {@link #data}.
+     */
+    private void load(final int block) throws IOException {
+        if (block == current) {
+            return;
+        }
+        current = -1;
+        final int length = storedLength[block];
+        final int raw = rawLength[block];
+        ensureCapacity(length);
+        fc.position(blockPosition[block]);
+        if (!readFully(ByteBuffer.wrap(stored, 0, length))) {
+            throw new IOException("Journal block at " + blockPosition[block] + " is incomplete");
+        }
+        if (data.length < raw) {
+            data = new byte[raw];
+        }
+        if (blockType[block] == Journal.BLOCK_DEFLATED) {
+            inflater.reset();
+            inflater.setInput(stored, 0, length);
+            try {
+                int n = 0;
+                while (n < raw && !inflater.finished()) {
+                    final int inflated = inflater.inflate(data, n, raw - n);
+                    if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                        break;
+                    }
+                    n += inflated;
+                }
+                if (n != raw) {
+                    throw new IOException("Journal block at " + blockPosition[block] + " is truncated");
+                }
+            } catch (final DataFormatException e) {
+                throw new IOException("Journal block at " + blockPosition[block] + " is corrupt: " + e.getMessage(), e);
+            }
+        } else {
+            System.arraycopy(stored, 0, data, 0, raw);
+        }
+        current = block;
+    }
+
+    /**
+     * @return the index of the block containing the given logical position
+     */
+    private int findBlock(final long pos) {
+        int low = 0;
+        int high = blocks - 1;
+        while (low < high) {
+            final int mid = (low + high + 1) >>> 1;
+            if (blockStart[mid] <= pos) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    @Override
+    public int read(final ByteBuffer dst) throws IOException {
+        if (position >= size) {
+            return -1;
+        }
+        int read = 0;
+        while (dst.hasRemaining() && position < size) {
+            final int block = findBlock(position);
+            load(block);
+            final int offset = (int) (position - blockStart[block]);
+            final int length = Math.min(dst.remaining(), rawLength[block] - offset);
+            dst.put(data, offset, length);
+            position += length;
+            read += length;
+        }
+        return read;
+    }
+
+    @Override
+    public int write(final ByteBuffer src) {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public long position() {
+        return position;
+    }
+
+    @Override
+    public SeekableByteChannel position(final long newPosition) {
+        this.position = newPosition;
+        return this;
+    }
+
+    /**
+     * @return the length of the entries in the file
+     */
+    @Override
+    public long size() {
+        return size;
+    }
+
+    @Override
+    public SeekableByteChannel truncate(final long size) {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public boolean isOpen() {
+        return fc.isOpen();
+    }
+
+    @Override
+    public void close() throws IOException {
+        inflater.end();
+        fc.close();
+    }
+}
@@ -81,7 +81,7 @@ public class JournalManager implements BrokerPoolService {
      *
      * @param loggable The entry to write in the journal
      */
-    public synchronized void journal(final Loggable loggable) throws JournalException {
+    public void journal(final Loggable loggable) throws JournalException {
         if(!journallingDisabled) {
             journal.writeToLog(loggable);
         }
@@ -95,7 +95,7 @@ public class JournalManager implements BrokerPoolService {
      *
      * @param loggable The entry to write in the journalGroup
      */
-    public synchronized void journalGroup(final Loggable loggable) throws JournalException {
+    public void journalGroup(final Loggable loggable) throws JournalException {
         if(!journallingDisabled) {
             journal.writeToLog(loggable);
             if (!groupCommits) {
@@ -129,8 +129,10 @@ public class JournalManager implements BrokerPoolService {
     /**
      * @see Journal#flushToLog(boolean, boolean)
      */
-    public synchronized void flush(final boolean fsync, final boolean forceSync) {
-        journal.flushToLog(fsync, forceSync);
+    public void flush(final boolean fsync, final boolean forceSync) {
+        if(!journallingDisabled) {
+            journal.flushToLog(fsync, forceSync);
+        }
     }
 
 
@@ -154,7 +156,7 @@ public class JournalManager implements BrokerPoolService {
      * @see Journal#lastWrittenLsn()
      */
     public long lastWrittenLsn() {
-        return journal.lastWrittenLsn();
+        return journallingDisabled ? Lsn.LSN_INVALID : journal.lastWrittenLsn();
     }
 
 
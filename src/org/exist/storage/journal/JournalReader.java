@@ -36,6 +36,7 @@ import org.exist.storage.DBBroker;
 /**
  * Read log entries from the journal file. This class is used during recovery to scan the
  * last journal file. It uses a memory-mapped byte buffer on the file.
+ * Files written in blocks, which may be compressed, are read through a {@link JournalBlockChannel}.
  * Journal entries can be read forward (during redo) or backward (during undo). 
  * 
  * @author wolf
@@ -64,12 +65,50 @@ public class JournalReader {
         this.broker = broker;
         this.fileNumber = fileNumber;
         try {
-            fc = Files.newByteChannel(file, READ);
+            fc = open(file, fileNumber);
         } catch (final IOException e) {
             throw new LogException("Failed to read log file " + file.toAbsolutePath().toString(), e);
         }
     }
 
+    /**
+     * Open a channel on the entries of the file. Files written in blocks are read through
+     * a {@link JournalBlockChannel}, files written by older versions are read directly.
+     */
+    private static SeekableByteChannel open(final Path file, final int fileNumber) throws IOException {
+        final SeekableByteChannel channel = Files.newByteChannel(file, READ);
+        try {
+            final ByteBuffer magic = ByteBuffer.allocate(Journal.FILE_HEADER_LEN);
+            while (magic.hasRemaining() && channel.read(magic) >= 0) {
+                // read the file header
+            }
+            magic.flip();
+            if (magic.remaining() == Journal.FILE_HEADER_LEN && magic.getLong() == Journal.FILE_MAGIC) {
+                return new JournalBlockChannel(channel, fileNumber);
+            }
+            channel.position(0);
+            return channel;
+        } catch (final IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the length of the entries in the file, which are addressed by the
+     * offsets of their LSNs.
+     *
+     * @return the length of the log
+     * @throws LogException
+     */
+    public long size() throws LogException {
+        try {
+            return fc.size();
+        } catch (final IOException e) {
+            throw new LogException("Fatal error while reading journal: " + e.getMessage(), e);
+        }
+    }
+
     /**
      * Returns the next entry found from the current position.
      * 
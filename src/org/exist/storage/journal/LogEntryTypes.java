@@ -24,6 +24,7 @@ import java.util.function.BiFunction;
 
 import org.exist.storage.DBBroker;
 import org.exist.storage.txn.Checkpoint;
+import org.exist.storage.txn.FuzzyCheckpoint;
 import org.exist.storage.txn.TxnAbort;
 import org.exist.storage.txn.TxnCommit;
 import org.exist.storage.txn.TxnStart;
@@ -42,6 +43,7 @@ public class LogEntryTypes {
     public final static byte TXN_COMMIT = 1;
     public final static byte CHECKPOINT = 2;
     public final static byte TXN_ABORT = 3;
+    public final static byte FUZZY_CHECKPOINT = 4;
 
     private final static Int2ObjectHashMap<BiFunction<DBBroker, Long, Loggable>> entryTypes = new Int2ObjectHashMap<>();
 
@@ -51,6 +53,7 @@ public class LogEntryTypes {
         entryTypes.put(TXN_COMMIT, TxnCommit::new);
         entryTypes.put(CHECKPOINT, Checkpoint::new);
         entryTypes.put(TXN_ABORT, TxnAbort::new);
+        entryTypes.put(FUZZY_CHECKPOINT, FuzzyCheckpoint::new);
     }
 
     /**
@@ -31,6 +31,7 @@ import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Deadlock detection for resource and collection locks. The static methods in this class
@@ -56,13 +57,17 @@ import java.util.Map;
  * the meantime, DeadlockDetection is used to detect deadlock situations as the one described
  * above. The lock classes can
  * then try to resolve the deadlock by suspending one thread.
+ *
+ * The waiting threads are kept in concurrent maps, so registering a waiter does not
+ * block other threads. A deadlock check may see a slightly outdated state; the lock
+ * classes repeat the check while they wait.
  */
 public class DeadlockDetection {
 
     private final static Logger LOG = LogManager.getLogger(DeadlockDetection.class);
 
-    private final static Map<Thread, WaitingThread> waitForResource = new HashMap<>();
-    private final static Map<Thread, Lock> waitForCollection = new HashMap<>();
+    private final static Map<Thread, WaitingThread> waitForResource = new ConcurrentHashMap<>();
+    private final static Map<Thread, Lock> waitForCollection = new ConcurrentHashMap<>();
 
     /**
      * Register a thread as waiting for a resource lock.
@@ -71,9 +76,7 @@ public class DeadlockDetection {
      * @param waiter the WaitingThread object which wraps around the thread
      */
     public static void addResourceWaiter(final Thread thread, final WaitingThread waiter) {
-        synchronized (DeadlockDetection.class) {
-            waitForResource.put(thread, waiter);
-        }
+        waitForResource.put(thread, waiter);
     }
 
     /**
@@ -83,18 +86,14 @@ public class DeadlockDetection {
      * @return lock
      */
     public static Lock clearResourceWaiter(final Thread thread) {
-        synchronized (DeadlockDetection.class) {
-            final WaitingThread waiter = waitForResource.remove(thread);
-            if (waiter != null)
-                {return waiter.getLock();}
-            return null;
-        }
+        final WaitingThread waiter = waitForResource.remove(thread);
+        if (waiter != null)
+            {return waiter.getLock();}
+        return null;
     }
 
     public static WaitingThread getResourceWaiter(final Thread thread) {
-        synchronized (DeadlockDetection.class) {
-            return waitForResource.get(thread);
-        }
+        return waitForResource.get(thread);
     }
 
     /**
@@ -109,15 +108,16 @@ public class DeadlockDetection {
      * @return waiting thread
      */
     public static WaitingThread deadlockCheckResource(final Thread threadA, final Thread threadB) {
-        synchronized (DeadlockDetection.class) {
-            //Check if threadB is waiting for a resource lock
-            final WaitingThread waitingThread = waitForResource.get(threadB);
-            //If lock != null, check if thread B waits for a resource lock currently held by thread A
-            if (waitingThread != null) {
-                return waitingThread.getLock().hasLock(threadA) ? waitingThread : null;
-            }
+        if (threadB == null) {
             return null;
         }
+        //Check if threadB is waiting for a resource lock
+        final WaitingThread waitingThread = waitForResource.get(threadB);
+        //If lock != null, check if thread B waits for a resource lock currently held by thread A
+        if (waitingThread != null) {
+            return waitingThread.getLock().hasLock(threadA) ? waitingThread : null;
+        }
+        return null;
     }
 
     /**
@@ -129,53 +129,52 @@ public class DeadlockDetection {
      * @return true if threadB is currently blocked by a lock held by threadA
      */
     public static boolean isBlockedBy(final Thread threadA, final Thread threadB) {
-        synchronized (DeadlockDetection.class) {
-            //Check if threadB is waiting for a resource lock
-            final WaitingThread waitingThread = waitForResource.get(threadB);
-            //If lock != null, check if thread B waits for a resource lock currently held by thread A
-            if (waitingThread != null) {
-                return waitingThread.getLock().hasLock(threadA);
-            }
-            return false;
+        //Check if threadB is waiting for a resource lock
+        final WaitingThread waitingThread = waitForResource.get(threadB);
+        //If lock != null, check if thread B waits for a resource lock currently held by thread A
+        if (waitingThread != null) {
+            return waitingThread.getLock().hasLock(threadA);
         }
+        return false;
     }
 
     public static boolean wouldDeadlock(final Thread waiter, final Thread owner, final List<WaitingThread> waiters) {
-        synchronized (DeadlockDetection.class) {
-            final WaitingThread wt = waitForResource.get(owner);
-            if (wt != null) {
-                if (waiters.contains(wt)) {
-                    // probably a deadlock, but not directly connected to the current thread
-                    // return to avoid endless loop
-                    return false;
-                }
-                waiters.add(wt);
-                final Lock l = wt.getLock();
-                final Thread t = ((MultiReadReentrantLock) l).getWriteLockedThread();
-                if (t == owner) {
-                    return false;
-                }
-                if (t != null) {
-                    if (t == waiter)
-                        {return true;}
-                    return wouldDeadlock(waiter, t, waiters);
-                }
+        if (owner == null) {
+            return false;
+        }
+        final WaitingThread wt = waitForResource.get(owner);
+        if (wt != null) {
+            if (waiters.contains(wt)) {
+                // probably a deadlock, but not directly connected to the current thread
+                // return to avoid endless loop
+                return false;
+            }
+            waiters.add(wt);
+            final Lock l = wt.getLock();
+            final Thread t = ((MultiReadReentrantLock) l).getWriteLockedThread();
+            if (t == owner) {
                 return false;
             }
-            final Lock l = waitForCollection.get(owner);
-            if (l != null) {
-                final Thread t = ((ReentrantReadWriteLock) l).getOwner();
-                if (t == owner) {
-                    return false;
-                }
-                if (t != null) {
-                    if (t == waiter)
-                        {return true;}
-                    return wouldDeadlock(waiter, t, waiters);
-                }
+            if (t != null) {
+                if (t == waiter)
+                    {return true;}
+                return wouldDeadlock(waiter, t, waiters);
             }
             return false;
         }
+        final Lock l = waitForCollection.get(owner);
+        if (l != null) {
+            final Thread t = ((ReentrantReadWriteLock) l).getOwner();
+            if (t == owner) {
+                return false;
+            }
+            if (t != null) {
+                if (t == waiter)
+                    {return true;}
+                return wouldDeadlock(waiter, t, waiters);
+            }
+        }
+        return false;
     }
 
     /**
@@ -185,21 +184,15 @@ public class DeadlockDetection {
      * @param lock the lock object
      */
     public static void addCollectionWaiter(final Thread waiter, final Lock lock) {
-        synchronized (DeadlockDetection.class) {
-            waitForCollection.put(waiter, lock);
-        }
+        waitForCollection.put(waiter, lock);
     }
 
     public static Lock clearCollectionWaiter(final Thread waiter) {
-        synchronized (DeadlockDetection.class) {
-            return waitForCollection.remove(waiter);
-        }
+        return waitForCollection.remove(waiter);
     }
 
     public static Lock isWaitingFor(final Thread waiter) {
-        synchronized (DeadlockDetection.class) {
-            return waitForCollection.get(waiter);
-        }
+        return waitForCollection.get(waiter);
     }
 
     public static Map<String, LockInfo> getWaitingThreads() {
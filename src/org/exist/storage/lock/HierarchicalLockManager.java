@@ -0,0 +1,339 @@
+/*
+ * eXist Open Source Native XML Database
+ * Copyright (C) 2001-2016 The eXist Project
+ * http://exist-db.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.exist.storage.lock;
+
+import net.jcip.annotations.GuardedBy;
+import net.jcip.annotations.ThreadSafe;
+import org.exist.util.LockException;
+import org.exist.xmldb.XmldbURI;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Multi-granularity locks on the collection tree.
+ *
+ * A lock on a collection path in mode {@link Mode#S} or {@link Mode#X} covers the
+ * collection and all its descendants. Before a path is locked, every ancestor is
+ * locked in the corresponding intention mode ({@link Mode#IS} or {@link Mode#IX}),
+ * starting at the root. Operations on disjoint subtrees therefore never block each
+ * other, e.g. moving <code>/db/a/x</code> does not block a copy of <code>/db/a/y</code>,
+ * while an operation on <code>/db/a</code> waits for both.
+ *
+ * Locks are reentrant: the locks a thread already holds never conflict with its own
+ * requests. Deadlocks between path locks are avoided by acquiring them from the root
+ * down and, if several paths are locked at once, in the order of their paths. A thread
+ * which already holds path locks may only request paths covered by them in the same or
+ * a weaker mode. A thread must not wait for a path lock while it holds the monitor of
+ * the collection cache.
+ *
+ * Besides the subtree operations, collections are locked in an intention mode while
+ * they are opened (see {@link #holdsLocks()}), so a collection is not opened while an
+ * operation on one of its ancestors is in progress.
+ *
+ * Grants are not fair: a request is granted as soon as it is compatible with the
+ * locks held by other threads.
+ */
+@ThreadSafe
+public class HierarchicalLockManager {
+
+    /**
+     * The lock modes: intention shared, intention exclusive, shared,
+     * shared with intention exclusive and exclusive.
+     */
+    public enum Mode {
+        IS,
+        IX,
+        S,
+        SIX,
+        X;
+
+        private static final boolean[][] COMPATIBLE = {
+            //            IS     IX     S      SIX    X
+            /* IS  */ { true,  true,  true,  true,  false },
+            /* IX  */ { true,  true,  false, false, false },
+            /* S   */ { true,  false, true,  false, false },
+            /* SIX */ { true,  false, false, false, false },
+            /* X   */ { false, false, false, false, false }
+        };
+
+        private static final Mode[][] JOIN = {
+            //            IS   IX   S    SIX  X
+            /* IS  */ { IS,  IX,  S,   SIX, X },
+            /* IX  */ { IX,  IX,  SIX, SIX, X },
+            /* S   */ { S,   SIX, S,   SIX, X },
+            /* SIX */ { SIX, SIX, SIX, SIX, X },
+            /* X   */ { X,   X,   X,   X,   X }
+        };
+
+        public boolean isCompatible(final Mode other) {
+            return COMPATIBLE[ordinal()][other.ordinal()];
+        }
+
+        /**
+         * @return the weakest mode which grants the rights of both this and the other mode
+         */
+        public Mode join(final Mode other) {
+            return JOIN[ordinal()][other.ordinal()];
+        }
+
+        /**
+         * @return the mode in which the ancestors of a path locked in this mode are locked
+         */
+        public Mode getIntention() {
+            return this == IS || this == S ? IS : IX;
+        }
+    }
+
+    private final Map<String, Node> nodes = new ConcurrentHashMap<>();
+
+    /** the number of path locks held by each thread */
+    private final ThreadLocal<int[]> heldLocks = ThreadLocal.withInitial(() -> new int[1]);
+
+    /**
+     * Lock a collection path and its ancestors.
+     *
+     * @param path the path of the collection
+     * @param mode the mode in which the path is locked
+     * @return the lock, which must be released by the same thread
+     * @throws LockException if the thread is interrupted while waiting
+     */
+    public PathLock acquire(final XmldbURI path, final Mode mode) throws LockException {
+        return acquire(mode, path);
+    }
+
+    /**
+     * Lock several collection paths and their ancestors in the same mode. The paths
+     * are locked in their natural order.
+     *
+     * @param mode the mode in which the paths are locked
+     * @param paths the paths of the collections
+     * @return the lock, which must be released by the same thread
+     * @throws LockException if the thread is interrupted while waiting
+     */
+    public PathLock acquire(final Mode mode, final XmldbURI... paths) throws LockException {
+        final Mode[] modes = new Mode[paths.length];
+        Arrays.fill(modes, mode);
+        return acquire(paths, modes);
+    }
+
+    /**
+     * Lock several collection paths and their ancestors, each in its own mode. If a
+     * collection is covered by more than one of the paths, it is locked once in a mode
+     * granting all of the requested rights, see {@link Mode#join(Mode)}, so that a thread
+     * never has to upgrade a lock it holds.
+     *
+     * @param paths the paths of the collections
+     * @param modes the modes in which the paths are locked, one per path
+     * @return the lock, which must be released by the same thread
+     * @throws LockException if the thread is interrupted while waiting
+     */
+    public PathLock acquire(final XmldbURI[] paths, final Mode[] modes) throws LockException {
+        // an ancestor sorts before its descendants, so iterating the map locks from the root down
+        final SortedMap<String, Mode> requested = new TreeMap<>();
+        for (int i = 0; i < paths.length; i++) {
+            final String path = normalize(paths[i]);
+            final Mode intention = modes[i].getIntention();
+            int end = path.indexOf('/', 1);
+            while (end > 0) {
+                requested.merge(path.substring(0, end), intention, Mode::join);
+                end = path.indexOf('/', end + 1);
+            }
+            requested.merge(path, modes[i], Mode::join);
+        }
+
+        final PathLock lock = new PathLock();
+        heldLocks.get()[0]++;
+        try {
+            for (final Map.Entry<String, Mode> entry : requested.entrySet()) {
+                lock.add(acquireNode(entry.getKey(), entry.getValue()), entry.getValue());
+            }
+        } catch (final LockException e) {
+            lock.release();
+            throw e;
+        }
+        return lock;
+    }
+
+    /**
+     * A thread which holds path locks performs an operation on the subtrees covered by
+     * them. It must not wait for further path locks outside of these subtrees, as that
+     * could deadlock against other subtree operations, so collections it opens are not
+     * locked again.
+     *
+     * @return true if the current thread holds path locks
+     */
+    public boolean holdsLocks() {
+        return heldLocks.get()[0] > 0;
+    }
+
+    private static String normalize(final XmldbURI uri) {
+        String path = uri.toCollectionPathURI().getRawCollectionPath();
+        if (path.length() > 1 && path.endsWith("/")) {
+            path = path.substring(0, path.length() - 1);
+        }
+        return path.startsWith("/") ? path : '/' + path;
+    }
+
+    private Node acquireNode(final String path, final Mode mode) throws LockException {
+        final Thread thread = Thread.currentThread();
+        long waitStart = 0;
+        while (true) {
+            final Node node = nodes.computeIfAbsent(path, Node::new);
+            synchronized (node) {
+                if (node.removed) {
+                    continue;
+                }
+                if (!node.isCompatible(thread, mode)) {
+                    if (waitStart == 0) {
+                        waitStart = System.nanoTime();
+                    }
+                    node.waiters++;
+                    try {
+                        while (!node.isCompatible(thread, mode)) {
+                            node.wait();
+                        }
+                    } catch (final InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new LockException("Interrupted while waiting for lock on collection " + path);
+                    } finally {
+                        node.waiters--;
+                    }
+                }
+                node.grant(thread, mode);
+            }
+            if (waitStart == 0) {
+                LockStatistics.acquired(LockStatistics.LockType.COLLECTION);
+            } else {
+                LockStatistics.acquired(LockStatistics.LockType.COLLECTION, path, System.nanoTime() - waitStart);
+            }
+            return node;
+        }
+    }
+
+    private void releaseNode(final Node node, final Mode mode) {
+        synchronized (node) {
+            node.release(Thread.currentThread(), mode);
+            if (node.holders.isEmpty() && node.waiters == 0) {
+                node.removed = true;
+                nodes.remove(node.path, node);
+            } else {
+                node.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * @return the number of collection paths currently locked or waited for
+     */
+    public int getLockedPaths() {
+        return nodes.size();
+    }
+
+    /**
+     * The locks held on the path of one collection.
+     */
+    private static final class Node {
+        private final String path;
+        @GuardedBy("this") private final int[] granted = new int[Mode.values().length];
+        @GuardedBy("this") private final Map<Thread, int[]> holders = new HashMap<>(4);
+        @GuardedBy("this") private int waiters = 0;
+        @GuardedBy("this") private boolean removed = false;
+
+        private Node(final String path) {
+            this.path = path;
+        }
+
+        private boolean isCompatible(final Thread thread, final Mode mode) {
+            final int[] own = holders.get(thread);
+            for (final Mode held : Mode.values()) {
+                final int others = granted[held.ordinal()] - (own == null ? 0 : own[held.ordinal()]);
+                if (others > 0 && !mode.isCompatible(held)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private void grant(final Thread thread, final Mode mode) {
+            granted[mode.ordinal()]++;
+            holders.computeIfAbsent(thread, t -> new int[Mode.values().length])[mode.ordinal()]++;
+        }
+
+        private void release(final Thread thread, final Mode mode) {
+            final int[] own = holders.get(thread);
+            if (own == null || own[mode.ordinal()] == 0) {
+                throw new IllegalStateException("Thread " + thread.getName() + " does not hold a " + mode +
+                        " lock on collection " + path);
+            }
+            granted[mode.ordinal()]--;
+            if (--own[mode.ordinal()] == 0) {
+                for (final int count : own) {
+                    if (count > 0) {
+                        return;
+                    }
+                }
+                holders.remove(thread);
+            }
+        }
+    }
+
+    /**
+     * The locks acquired by a call to {@link HierarchicalLockManager#acquire(Mode, XmldbURI...)}.
+     * Closing it releases them in reverse order.
+     */
+    public final class PathLock implements AutoCloseable {
+        private final List<Node> lockedNodes = new ArrayList<>(8);
+        private final List<Mode> lockedModes = new ArrayList<>(8);
+        private boolean released = false;
+
+        private PathLock() {
+        }
+
+        private void add(final Node node, final Mode mode) {
+            lockedNodes.add(node);
+            lockedModes.add(mode);
+        }
+
+        public void release() {
+            if (released) {
+                return;
+            }
+            released = true;
+            for (int i = lockedNodes.size() - 1; i >= 0; i--) {
+                releaseNode(lockedNodes.get(i), lockedModes.get(i));
+            }
+            lockedNodes.clear();
+            lockedModes.clear();
+            heldLocks.get()[0]--;
+        }
+
+        @Override
+        public void close() {
+            release();
+        }
+    }
+}
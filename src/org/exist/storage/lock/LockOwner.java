@@ -34,6 +34,7 @@ public class LockOwner {
     public static boolean DEBUG = false;
 
     private final Thread owner;
+    private final long acquired = System.nanoTime();
     private Throwable stack = null;
 
     public LockOwner(Thread owner) {
@@ -49,4 +50,11 @@ public class LockOwner {
     public final Throwable getStack() {
         return stack;
     }
+
+    /**
+     * @return the time at which the lock was acquired, see {@link System#nanoTime()}
+     */
+    public final long getAcquired() {
+        return acquired;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,328 @@
+/*
+ * eXist Open Source Native XML Database
+ * Copyright (C) 2001-2016 The eXist Project
+ * http://exist-db.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.exist.storage.lock;
+
+import net.jcip.annotations.ThreadSafe;
+import org.exist.xquery.QueryResourceUsage;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Collects contention statistics for collection, document and file locks. Like
+ * {@link DeadlockDetection}, the statistics are kept in static fields, as the locks
+ * do not know the database instance they belong to.
+ *
+ * For every type of lock, the number of acquisitions and contended acquisitions is
+ * counted, and the time spent waiting for and holding the lock is recorded in a
+ * histogram. The hold time of an exclusive lock is measured from the first acquire
+ * to the last release by the owning thread, the hold time of a shared read lock
+ * per acquisition.
+ *
+ * Contended acquisitions are also recorded per resource, i.e. per collection URI,
+ * document id or file name. At most {@link #MAX_RESOURCES} resources are tracked;
+ * if a new resource is contended while the table is full, the resource which has
+ * not been contended for the longest time is dropped, so that resources which are
+ * contended repeatedly are kept.
+ *
+ * Uncontended acquisitions only cost a counter increment and reading the clock.
+ */
+@ThreadSafe
+public final class LockStatistics {
+
+    public enum LockType {
+        COLLECTION,
+        DOCUMENT,
+        FILE
+    }
+
+    /** maximum number of contended resources tracked */
+    public static final int MAX_RESOURCES = 1024;
+
+    /**
+     * Number of histogram buckets. Bucket i counts durations below 2^i microseconds,
+     * the last bucket counts all longer durations.
+     */
+    public static final int HISTOGRAM_BUCKETS = 24;
+
+    private static final TypeStatistics[] types = new TypeStatistics[LockType.values().length];
+    static {
+        for (final LockType type : LockType.values()) {
+            types[type.ordinal()] = new TypeStatistics(type);
+        }
+    }
+
+    private static final Map<String, ResourceStatistics> resources = new ConcurrentHashMap<>();
+
+    /** counts the contended acquisitions, orders the resources by their latest contention */
+    private static final AtomicLong contentions = new AtomicLong();
+
+    private LockStatistics() {
+    }
+
+    /**
+     * Record an acquisition which did not have to wait.
+     *
+     * @param type the type of the lock
+     */
+    static void acquired(final LockType type) {
+        types[type.ordinal()].acquisitions.increment();
+    }
+
+    /**
+     * Record an acquisition which had to wait for another thread.
+     *
+     * @param type the type of the lock
+     * @param id the id of the lock
+     * @param waitNanos the time spent waiting
+     */
+    static void acquired(final LockType type, final String id, final long waitNanos) {
+        final TypeStatistics stats = types[type.ordinal()];
+        stats.acquisitions.increment();
+        stats.contended.increment();
+        stats.waitTime.record(waitNanos);
+        QueryResourceUsage.lockWait(waitNanos);
+
+        final String key = type.name() + ':' + id;
+        ResourceStatistics resource = resources.get(key);
+        if (resource == null) {
+            if (resources.size() >= MAX_RESOURCES) {
+                evictLeastRecentlyContended();
+            }
+            resource = resources.computeIfAbsent(key, k -> new ResourceStatistics(type, id));
+        }
+        resource.record(waitNanos);
+    }
+
+    /**
+     * Record the release of a lock.
+     *
+     * @param type the type of the lock
+     * @param holdNanos the time the lock was held
+     */
+    static void released(final LockType type, final long holdNanos) {
+        types[type.ordinal()].holdTime.record(holdNanos);
+    }
+
+    private static void evictLeastRecentlyContended() {
+        ResourceStatistics oldest = null;
+        for (final ResourceStatistics resource : resources.values()) {
+            if (oldest == null || resource.lastContended < oldest.lastContended) {
+                oldest = resource;
+            }
+        }
+        if (oldest != null) {
+            resources.remove(oldest.getType().name() + ':' + oldest.getId(), oldest);
+        }
+    }
+
+    public static TypeStatistics getStatistics(final LockType type) {
+        return types[type.ordinal()];
+    }
+
+    /**
+     * Get the resources with the highest accumulated wait time.
+     *
+     * @param max the maximum number of resources to return
+     * @return the resources, the most contended first
+     */
+    public static List<ResourceStatistics> getContendedResources(final int max) {
+        final List<ResourceStatistics> list = new ArrayList<>(resources.values());
+        list.sort(Comparator.comparingLong(ResourceStatistics::getWaitTime).reversed());
+        return list.size() > max ? new ArrayList<>(list.subList(0, max)) : list;
+    }
+
+    public static void reset() {
+        for (final TypeStatistics stats : types) {
+            stats.reset();
+        }
+        resources.clear();
+    }
+
+    /**
+     * @return the upper bound of each histogram bucket in microseconds, the last bucket is unbounded
+     */
+    public static long[] getHistogramBounds() {
+        final long[] bounds = new long[HISTOGRAM_BUCKETS];
+        for (int i = 0; i < HISTOGRAM_BUCKETS - 1; i++) {
+            bounds[i] = 1L << i;
+        }
+        bounds[HISTOGRAM_BUCKETS - 1] = Long.MAX_VALUE;
+        return bounds;
+    }
+
+    /**
+     * Statistics for all locks of one {@link LockType}.
+     */
+    public static final class TypeStatistics {
+        private final LockType type;
+        private final LongAdder acquisitions = new LongAdder();
+        private final LongAdder contended = new LongAdder();
+        private final Histogram waitTime = new Histogram();
+        private final Histogram holdTime = new Histogram();
+
+        private TypeStatistics(final LockType type) {
+            this.type = type;
+        }
+
+        public LockType getType() {
+            return type;
+        }
+
+        public long getAcquisitions() {
+            return acquisitions.sum();
+        }
+
+        public long getContended() {
+            return contended.sum();
+        }
+
+        public Histogram getWaitTime() {
+            return waitTime;
+        }
+
+        public Histogram getHoldTime() {
+            return holdTime;
+        }
+
+        private void reset() {
+            acquisitions.reset();
+            contended.reset();
+            waitTime.reset();
+            holdTime.reset();
+        }
+    }
+
+    /**
+     * Contention statistics for a single collection, document or file.
+     */
+    public static final class ResourceStatistics {
+        private final LockType type;
+        private final String id;
+        private final LongAdder contended = new LongAdder();
+        private final LongAdder waitTime = new LongAdder();
+        private final AtomicLong maxWaitTime = new AtomicLong();
+        /** the value of {@link #contentions} at the latest contended acquisition */
+        private volatile long lastContended;
+
+        private ResourceStatistics(final LockType type, final String id) {
+            this.type = type;
+            this.id = id;
+            this.lastContended = contentions.incrementAndGet();
+        }
+
+        private void record(final long waitNanos) {
+            lastContended = contentions.incrementAndGet();
+            contended.increment();
+            waitTime.add(waitNanos);
+            maxWaitTime.accumulateAndGet(waitNanos, Math::max);
+        }
+
+        public LockType getType() {
+            return type;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public long getContended() {
+            return contended.sum();
+        }
+
+        /**
+         * @return the accumulated wait time in nanoseconds
+         */
+        public long getWaitTime() {
+            return waitTime.sum();
+        }
+
+        /**
+         * @return the longest wait time in nanoseconds
+         */
+        public long getMaxWaitTime() {
+            return maxWaitTime.get();
+        }
+    }
+
+    /**
+     * A histogram of durations with exponentially growing buckets,
+     * see {@link #HISTOGRAM_BUCKETS}.
+     */
+    public static final class Histogram {
+        private final AtomicLongArray buckets = new AtomicLongArray(HISTOGRAM_BUCKETS);
+        private final LongAdder total = new LongAdder();
+        private final AtomicLong max = new AtomicLong();
+
+        void record(final long nanos) {
+            final long micros = nanos / 1000;
+            final int bucket = Math.min(64 - Long.numberOfLeadingZeros(micros), HISTOGRAM_BUCKETS - 1);
+            buckets.incrementAndGet(bucket);
+            total.add(nanos);
+            if (nanos > max.get()) {
+                max.accumulateAndGet(nanos, Math::max);
+            }
+        }
+
+        public long[] getCounts() {
+            final long[] counts = new long[HISTOGRAM_BUCKETS];
+            for (int i = 0; i < HISTOGRAM_BUCKETS; i++) {
+                counts[i] = buckets.get(i);
+            }
+            return counts;
+        }
+
+        public long getCount() {
+            long count = 0;
+            for (int i = 0; i < HISTOGRAM_BUCKETS; i++) {
+                count += buckets.get(i);
+            }
+            return count;
+        }
+
+        /**
+         * @return the sum of all recorded durations in nanoseconds
+         */
+        public long getTotal() {
+            return total.sum();
+        }
+
+        /**
+         * @return the longest recorded duration in nanoseconds
+         */
+        public long getMax() {
+            return max.get();
+        }
+
+        private void reset() {
+            for (int i = 0; i < HISTOGRAM_BUCKETS; i++) {
+                buckets.set(i, 0);
+            }
+            total.reset();
+            max.set(0);
+        }
+    }
+}
@@ -86,6 +86,12 @@ public class MultiReadReentrantLock implements Lock {
      */
     private final List<WaitingThread> waitingForWriteLock = new ArrayList<>(3);
 
+    /**
+     * The time at which writeLockedThread was granted the write lock,
+     * see {@link LockStatistics}.
+     */
+    private long writeLockedSince;
+
     /**
      * Default constructor.
      */
@@ -157,6 +163,7 @@ public class MultiReadReentrantLock implements Lock {
         if (writeLockedThread == thisThread) {
             // add acquired lock to the current list of read locks
             outstandingReadLocks.add(new LockOwner(thisThread));
+            LockStatistics.acquired(LockStatistics.LockType.DOCUMENT);
             //LOG.debug("Thread already holds a write lock");
             return true;
         }
@@ -164,6 +171,7 @@ public class MultiReadReentrantLock implements Lock {
         waitingForReadLock++;
         if (writeLockedThread != null) {
            if (!waitIfNecessary) {return false;}
+            final long waitStart = System.nanoTime();
             final WaitingThread waiter = new WaitingThread(thisThread, this, this, LockMode.READ_LOCK);
             DeadlockDetection.addResourceWaiter(thisThread, waiter);
             while (writeLockedThread != null) {
@@ -172,7 +180,11 @@ public class MultiReadReentrantLock implements Lock {
                 //LOG.debug("wake up from readLock wait");
             }
             DeadlockDetection.clearResourceWaiter(thisThread);
-        }        waitingForReadLock--;
+            LockStatistics.acquired(LockStatistics.LockType.DOCUMENT, getId(), System.nanoTime() - waitStart);
+        } else {
+            LockStatistics.acquired(LockStatistics.LockType.DOCUMENT);
+        }
+        waitingForReadLock--;
         //Add acquired lock to the current list of read locks
         outstandingReadLocks.add(new LockOwner(thisThread));
         return true;
@@ -187,20 +199,25 @@ public class MultiReadReentrantLock implements Lock {
     private boolean writeLock(boolean waitIfNecessary) throws LockException {
         Thread thisThread = Thread.currentThread();
         WaitingThread waiter;
+        final long waitStart;
         synchronized (this) {
             if (writeLockedThread == thisThread) {
                 outstandingWriteLocks++;
+                LockStatistics.acquired(LockStatistics.LockType.DOCUMENT);
                 return true;
             }
             if (writeLockedThread == null && grantWriteLock()) {
                 writeLockedThread = thisThread;
+                writeLockedSince = System.nanoTime();
                 outstandingWriteLocks++;
+                LockStatistics.acquired(LockStatistics.LockType.DOCUMENT);
                 return true;
             }
             if (!waitIfNecessary) {
                 return false;
             }
             deadlockCheck();
+            waitStart = System.nanoTime();
             waiter = new WaitingThread(thisThread, thisThread, this, LockMode.WRITE_LOCK);
             addWaitingWrite(waiter);
             DeadlockDetection.addResourceWaiter(thisThread, waiter);
@@ -247,6 +264,7 @@ public class MultiReadReentrantLock implements Lock {
             }
             throw new DeadlockException();
         }
+        LockStatistics.acquired(LockStatistics.LockType.DOCUMENT, getId(), System.nanoTime() - waitStart);
         return true;
     }
 
@@ -318,6 +336,7 @@ public class MultiReadReentrantLock implements Lock {
             if (outstandingWriteLocks > 0) {
                 return;
             }
+            LockStatistics.released(LockStatistics.LockType.DOCUMENT, System.nanoTime() - writeLockedSince);
             //If another thread is waiting for a write lock, we immediately 
             //pass control to it. No further checks should be required here.
             if (grantWriteLockAfterRead()) {
@@ -325,6 +344,7 @@ public class MultiReadReentrantLock implements Lock {
                 removeWaitingWrite(waiter);
                 DeadlockDetection.clearResourceWaiter(waiter.getThread());
                 writeLockedThread = waiter.getThread();
+                writeLockedSince = System.nanoTime();
                 synchronized (writeLockedThread) {
                     writeLockedThread.notifyAll();
                 }
@@ -357,6 +377,7 @@ public class MultiReadReentrantLock implements Lock {
                 removeWaitingWrite(waiter);
                 DeadlockDetection.clearResourceWaiter(waiter.getThread());
                 writeLockedThread = waiter.getThread();
+                writeLockedSince = System.nanoTime();
                 synchronized (writeLockedThread) {
                     writeLockedThread.notifyAll();
                 }
@@ -401,6 +422,7 @@ public class MultiReadReentrantLock implements Lock {
             final LockOwner current = outstandingReadLocks.get(i);
             if (current.getOwner() == owner) {
                 outstandingReadLocks.remove(i);
+                LockStatistics.released(LockStatistics.LockType.DOCUMENT, System.nanoTime() - current.getAcquired());
                 --count;
             }
         }
@@ -37,6 +37,7 @@ import java.util.Deque;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.exist.util.LockException;
+import org.exist.xmldb.XmldbURI;
 
 /**
  * A lock with the same semantics as builtin
@@ -68,7 +69,9 @@ public class ReentrantReadWriteLock implements Lock {
     private final static Logger LOG = LogManager.getLogger(ReentrantReadWriteLock.class);
 
     private final Object id_;
+    private final LockStatistics.LockType type;
 	private Thread owner_ = null;
+    private long ownedSince;
     private final Deque<SuspendedWaiter> suspendedThreads = new ArrayDeque<>();
 
     private int holds_ = 0;
@@ -82,6 +85,7 @@ public class ReentrantReadWriteLock implements Lock {
 
     public ReentrantReadWriteLock(final Object id) {
         this.id_ = id;
+        this.type = id instanceof XmldbURI ? LockStatistics.LockType.COLLECTION : LockStatistics.LockType.FILE;
         if (DEBUG) {
             seStack = new ArrayDeque<>();
         } else {
@@ -124,9 +128,11 @@ public class ReentrantReadWriteLock implements Lock {
                     seStack.push(t.getStackTrace());
                 }
                 mode_ = mode;
+                LockStatistics.acquired(type);
                 return true;
             } else if (owner_ == null) {
                 owner_ = caller;
+                ownedSince = System.nanoTime();
                 holds_ = 1;
                 modeStack.push(mode);
                 if (mode== LockMode.WRITE_LOCK) {
@@ -137,6 +143,7 @@ public class ReentrantReadWriteLock implements Lock {
                     seStack.push(t.getStackTrace());
                 }
                 mode_ = mode;
+                LockStatistics.acquired(type);
                 return true;
             } else if ((waitingOnResource = 
                     DeadlockDetection.deadlockCheckResource(caller, owner_)) != null) {
@@ -144,6 +151,7 @@ public class ReentrantReadWriteLock implements Lock {
                 final SuspendedWaiter suspended = new SuspendedWaiter(owner_, mode_, holds_);
                 suspendedThreads.push(suspended);
                 owner_ = caller;
+                ownedSince = System.nanoTime();
                 holds_ = 1;
                 modeStack.push(mode);
                 if (mode== LockMode.WRITE_LOCK) {
@@ -151,8 +159,10 @@ public class ReentrantReadWriteLock implements Lock {
                 }
                 mode_ = mode;
                 listener = waitingOnResource;
+                LockStatistics.acquired(type);
                 return true;
             } else {
+                final long waitStart = System.nanoTime();
                 DeadlockDetection.addCollectionWaiter(caller, this);
                 try {
                     for (;;) {
@@ -162,6 +172,7 @@ public class ReentrantReadWriteLock implements Lock {
                             final SuspendedWaiter suspended = new SuspendedWaiter(owner_, mode_, holds_);
                             suspendedThreads.push(suspended);
                             owner_ = caller;
+                            ownedSince = System.nanoTime();
                             holds_ = 1;
                             modeStack.push(mode);
                             if (mode== LockMode.WRITE_LOCK) {
@@ -170,6 +181,7 @@ public class ReentrantReadWriteLock implements Lock {
                             mode_ = mode;
                             listener = waitingOnResource;
                             DeadlockDetection.clearCollectionWaiter(owner_);
+                            LockStatistics.acquired(type, getId(), System.nanoTime() - waitStart);
                             return true;
                         } else if (caller == owner_) {
                             ++holds_;
@@ -183,9 +195,11 @@ public class ReentrantReadWriteLock implements Lock {
                             }
                             mode_ = mode;
                             DeadlockDetection.clearCollectionWaiter(owner_);
+                            LockStatistics.acquired(type, getId(), System.nanoTime() - waitStart);
                             return true;
                         } else if (owner_ == null) {
                             owner_ = caller;
+                            ownedSince = System.nanoTime();
                             holds_ = 1;
                             modeStack.push(mode);
                             if (mode == LockMode.WRITE_LOCK) {
@@ -197,6 +211,7 @@ public class ReentrantReadWriteLock implements Lock {
                             }
                             mode_ = mode;
                             DeadlockDetection.clearCollectionWaiter(owner_);
+                            LockStatistics.acquired(type, getId(), System.nanoTime() - waitStart);
                             return true;
                         }
                     }
@@ -233,9 +248,11 @@ public class ReentrantReadWriteLock implements Lock {
                     seStack.push(t.getStackTrace());
                 }
                 mode_ = mode;
+                LockStatistics.acquired(type);
                 return true;
             } else if (owner_ == null) {
                 owner_ = caller;
+                ownedSince = System.nanoTime();
                 holds_ = 1;
                 modeStack.push(mode);
                 if (mode == LockMode.WRITE_LOCK) {
@@ -246,6 +263,7 @@ public class ReentrantReadWriteLock implements Lock {
                     seStack.push(t.getStackTrace());
                 }
                 mode_ = mode;
+                LockStatistics.acquired(type);
                 return true;
             } else {
                 return false;
@@ -318,9 +336,11 @@ public class ReentrantReadWriteLock implements Lock {
             seStack.pop();
         }
         if (--holds_ == 0) {
+            LockStatistics.released(type, System.nanoTime() - ownedSince);
             if (!suspendedThreads.isEmpty()) {
                 final SuspendedWaiter suspended = suspendedThreads.pop();
                 owner_ = suspended.thread;
+                ownedSince = System.nanoTime();
                 mode_ = suspended.lockMode;
                 holds_ = suspended.lockCount;
             } else {
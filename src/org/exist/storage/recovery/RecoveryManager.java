@@ -37,6 +37,8 @@ import org.exist.storage.BrokerPool;
 import org.exist.storage.journal.*;
 import org.exist.storage.sync.Sync;
 import org.exist.storage.txn.Checkpoint;
+import org.exist.storage.txn.FuzzyCheckpoint;
+import org.exist.storage.txn.TxnStart;
 import org.exist.util.FileUtils;
 import org.exist.util.ProgressBar;
 import com.evolvedbinary.j8fu.function.SupplierE;
@@ -70,7 +72,9 @@ public class RecoveryManager {
 	 * The method scans the last log file and tries to find the last checkpoint
 	 * record. If the checkpoint record is the last record in the file,
 	 * the database was closed cleanly and is in a consistent state. If not, a
-	 * recovery run is started beginning at the last checkpoint found.
+	 * recovery run is started beginning at the last checkpoint found. If a
+	 * {@link FuzzyCheckpoint} was completed after it, redo starts at the redo LSN
+	 * recorded by the fuzzy checkpoint instead.
 	 *  
 	 * @throws LogException
 	 */
@@ -116,10 +120,11 @@ public class RecoveryManager {
     				reader.position(1);
     				final Long2ObjectHashMap<Loggable> txnsStarted = new Long2ObjectHashMap<>();
 	    			Checkpoint lastCheckpoint = null;
+	    			FuzzyCheckpoint lastFuzzyCheckpoint = null;
 	    			long lastLsn = Lsn.LSN_INVALID;
 	                Loggable next;
 	                try {
-						final ProgressBar progress = new ProgressBar("Scanning journal ", FileUtils.sizeQuietly(last));
+						final ProgressBar progress = new ProgressBar("Scanning journal ", reader.size());
 	        			while ((next = reader.nextEntry()) != null) {
 //	                        LOG.debug(next.dump());
 							progress.set(Lsn.getOffset(next.getLsn()));
@@ -132,6 +137,13 @@ public class RecoveryManager {
 				            } else if (next.getLogType() == LogEntryTypes.CHECKPOINT) {
 				            	txnsStarted.clear();
 	        					lastCheckpoint = (Checkpoint) next;
+	        					lastFuzzyCheckpoint = null;
+				            } else if (next.getLogType() == LogEntryTypes.FUZZY_CHECKPOINT) {
+				            	// the running transactions are still needed for undo, only redo may start later
+				            	final FuzzyCheckpoint fuzzyCheckpoint = (FuzzyCheckpoint) next;
+				            	if (Lsn.getFileNumber(fuzzyCheckpoint.getRedoLsn()) == lastNum) {
+				            		lastFuzzyCheckpoint = fuzzyCheckpoint;
+				            	}
 				            }
 	        				lastLsn = next.getLsn();
 	        			}
@@ -148,9 +160,16 @@ public class RecoveryManager {
 	    					txnsStarted.size() > 0) {
 	    				LOG.info("Dirty transactions: " + txnsStarted.size());
 	    				// starting recovery: reposition the log reader to the last checkpoint
-						if (lastCheckpoint == null)
-						    {reader.position(1);}
-						else {
+	    				final long[] running;
+						if (lastFuzzyCheckpoint != null) {
+						    LOG.info("Redo starts at fuzzy checkpoint of " + lastFuzzyCheckpoint.getDateString());
+						    reader.position(lastFuzzyCheckpoint.getRedoLsn());
+						    running = lastFuzzyCheckpoint.getTransactions();
+						} else if (lastCheckpoint == null) {
+						    reader.position(1);
+						    running = new long[0];
+						} else {
+						    running = new long[0];
 						    reader.position(lastCheckpoint.getLsn());
 						    next = reader.nextEntry();
 						}
@@ -158,7 +177,7 @@ public class RecoveryManager {
                         try {
                             LOG.info("Running recovery...");
                             broker.getBrokerPool().reportStatus("Running recovery...");
-                            doRecovery(txnsStarted.size(), last, reader, lastLsn);
+                            doRecovery(txnsStarted.size(), last, reader, lastLsn, running);
                         } catch (final LogException e) {
                             // if restartOnError == true, we try to bring up the database even if there
                             // are errors. Otherwise, an exception is thrown, which will stop the db initialization
@@ -222,10 +241,12 @@ public class RecoveryManager {
      * @param last
      * @param reader
      * @param lastLsn
+     * @param running the transactions started before the position of the reader
      *
      * @throws LogException
      */
-    private void doRecovery(final int txnCount, final Path last, final JournalReader reader, final long lastLsn) throws LogException {
+    private void doRecovery(final int txnCount, final Path last, final JournalReader reader, final long lastLsn,
+            final long[] running) throws LogException {
         if (LOG.isInfoEnabled()) {
             LOG.info("Running recovery ...");
         }
@@ -234,11 +255,16 @@ public class RecoveryManager {
         try {
             // map to track running transactions
             final Long2ObjectHashMap<Loggable> runningTxns = new Long2ObjectHashMap<>();
+            // redo may start at a fuzzy checkpoint: the transactions running at that time
+            // are undone unless they are committed later on
+            for (final long txnId : running) {
+                runningTxns.put(txnId, new TxnStart(txnId));
+            }
 
             // ------- REDO ---------
             if (LOG.isInfoEnabled())
                 {LOG.info("First pass: redoing " + txnCount + " transactions...");}
-            final ProgressBar progress = new ProgressBar("Redo ", FileUtils.sizeQuietly(last));
+            final ProgressBar progress = new ProgressBar("Redo ", reader.size());
             Loggable next = null;
             int redoCnt = 0;
             try {
@@ -37,6 +37,7 @@ import org.exist.dom.QName;
 import org.exist.dom.persistent.TextImpl;
 import org.exist.numbering.NodeId;
 import org.exist.storage.DBBroker;
+import org.exist.storage.NativeBroker;
 import org.exist.util.Configuration;
 import org.exist.util.serializer.AttrList;
 import org.exist.xquery.value.Type;
@@ -44,7 +45,9 @@ import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 import org.xml.sax.SAXException;
 
+import javax.xml.transform.OutputKeys;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
@@ -74,6 +77,8 @@ public class NativeSerializer extends Serializer {
     private final static Pattern P_ZERO_VALUES = Pattern.compile("0(,0)?");
     private final static Matcher M_ZERO_VALUES = P_ZERO_VALUES.matcher("");
 
+    private StreamingSerializer streamingSerializer = null;
+
     public NativeSerializer(DBBroker broker, Configuration config) {
         this(broker, config, null);
     }
@@ -82,6 +87,37 @@ public class NativeSerializer extends Serializer {
         super(broker, config, chainOfReceivers);
     }
 
+    /**
+     * Streams the document through a {@link StreamingSerializer} if it is serialized
+     * as plain UTF-8 encoded XML: no stylesheet, doctype, node ids, XHTML namespace or custom
+     * match listeners must be involved, and the document must not contain XInclude elements
+     * if these are to be expanded.
+     */
+    @Override
+    public boolean streamDocument(DocumentImpl doc, OutputStream os) throws IOException {
+        if (templates != null || !(broker instanceof NativeBroker) || doc.getResourceType() != DocumentImpl.XML_FILE) {
+            return false;
+        }
+        if (!"xml".equals(getProperty(OutputKeys.METHOD, "xml"))
+                || !"UTF-8".equalsIgnoreCase(getProperty(OutputKeys.ENCODING, "UTF-8"))
+                || getProperty(OutputKeys.DOCTYPE_PUBLIC, null) != null
+                || getProperty(OutputKeys.DOCTYPE_SYSTEM, null) != null
+                || (doc.getDoctype() != null && "yes".equals(getProperty(EXistOutputKeys.OUTPUT_DOCTYPE, "no")))
+                || "yes".equalsIgnoreCase(getProperty(EXistOutputKeys.ENFORCE_XHTML, "no"))
+                || showId != EXIST_ID_NONE
+                || customMatchListeners.getFirst() != null) {
+            return false;
+        }
+        if (expandsXIncludes(doc)) {
+            return false;
+        }
+        if (streamingSerializer == null) {
+            streamingSerializer = new StreamingSerializer((NativeBroker) broker);
+        }
+        streamingSerializer.serialize(doc, outputProperties, os);
+        return true;
+    }
+
     protected void serializeToReceiver(NodeProxy p, boolean generateDocEvent, boolean checkAttributes)
     throws SAXException {
     	if(Type.subTypeOf(p.getType(), Type.DOCUMENT) || p.getNodeId() == NodeId.DOCUMENT_NODE) {
@@ -23,6 +23,7 @@
 package org.exist.storage.serializers;
 
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.StringWriter;
 import java.io.Writer;
 import java.net.URI;
@@ -482,22 +483,7 @@ public abstract class Serializer implements XMLReader {
 		if (templates != null)
 			{applyXSLHandler(writer);}
 		else {
-			//looking for serializer properties in <?exist-serialize?> 
-	    	final NodeList children = doc.getChildNodes();
-	    	for (int i = 0; i < children.getLength(); i++) {
-	    		final StoredNode node = (StoredNode) children.item(i);
-	    		if (node.getNodeType() == Node.PROCESSING_INSTRUCTION_NODE 
-	    				&& "exist-serialize".equals(node.getNodeName())) {
-
-	                final String params[] = ((ProcessingInstructionImpl)node).getData().split(" ");
-	                for(final String param : params) {
-	                    final String opt[] = Option.parseKeyValuePair(param);
-	                    if (opt != null)
-	                    	{outputProperties.setProperty(opt[0], opt[1]);}
-	                }
-	    		}
-	    	}
-
+			setPropertiesFromDocument(doc);
 			setPrettyPrinter(writer, "no".equals(outputProperties.getProperty(OutputKeys.OMIT_XML_DECLARATION, "yes")),
                     null, true); //setPrettyPrinter(writer, false);
 		}
@@ -506,6 +492,86 @@ public abstract class Serializer implements XMLReader {
 		releasePrettyPrinter();
 	}
 
+	/**
+	 *  Serialize a document to the supplied output stream, using the encoding
+	 *  set in the output properties. Documents are written by
+	 *  {@link #streamDocument(DocumentImpl, OutputStream)} if possible.
+	 */
+	public void serialize(DocumentImpl doc, OutputStream os) throws SAXException, IOException {
+		serialize(doc, os, true);
+	}
+
+	public void serialize(DocumentImpl doc, OutputStream os, boolean prepareStylesheet) throws SAXException, IOException {
+		if (prepareStylesheet) {
+            try {
+                prepareStylesheets(doc);
+            } catch (final TransformerConfigurationException e) {
+                throw new SAXException(e.getMessage(), e);
+            }
+        }
+		if (templates == null) {
+			setPropertiesFromDocument(doc);
+			if (streamDocument(doc, os)) {
+				return;
+			}
+		}
+		final Writer writer = SerializerPool.getInstance().borrowWriter(os, outputProperties.getProperty(OutputKeys.ENCODING, "UTF-8"));
+		try {
+			serialize(doc, writer, false);
+			writer.flush();
+		} finally {
+			SerializerPool.getInstance().returnWriter(writer);
+		}
+	}
+
+	/**
+	 *  Writes the document directly to the output stream, bypassing the
+	 *  generation of SAX events, if the current settings allow it. The
+	 *  output has to be identical to the one produced by
+	 *  {@link #serialize(DocumentImpl, Writer)}.
+	 *
+	 *  @return true if the document has been written, false if the document
+	 *  has to be serialized through SAX events
+	 */
+	public boolean streamDocument(DocumentImpl doc, OutputStream os) throws IOException {
+		return false;
+	}
+
+	/**
+	 *  Checks if the serialization of the document includes other resources,
+	 *  i.e. if XIncludes are expanded and the document contains XInclude
+	 *  elements. The serialization may then change without the document
+	 *  itself being modified.
+	 *
+	 *  @return true if XInclude elements of the document will be expanded
+	 */
+	public boolean expandsXIncludes(DocumentImpl doc) {
+		return "yes".equals(getProperty(EXistOutputKeys.EXPAND_XINCLUDES, "yes"))
+			&& doc.getResourceType() == DocumentImpl.XML_FILE
+			&& broker.getStructuralIndex().hasElementsInNamespace(doc, Namespaces.XINCLUDE_NS);
+	}
+
+	/**
+	 *  Reads serializer properties from &lt;?exist-serialize?&gt; processing
+	 *  instructions at the top level of the document.
+	 */
+	private void setPropertiesFromDocument(DocumentImpl doc) {
+    	final NodeList children = doc.getChildNodes();
+    	for (int i = 0; i < children.getLength(); i++) {
+    		final StoredNode node = (StoredNode) children.item(i);
+    		if (node.getNodeType() == Node.PROCESSING_INSTRUCTION_NODE 
+    				&& "exist-serialize".equals(node.getNodeName())) {
+
+                final String params[] = ((ProcessingInstructionImpl)node).getData().split(" ");
+                for(final String param : params) {
+                    final String opt[] = Option.parseKeyValuePair(param);
+                    if (opt != null)
+                    	{outputProperties.setProperty(opt[0], opt[1]);}
+                }
+    		}
+    	}
+	}
+
 	public String serialize(NodeValue n) throws SAXException {
 		final StringWriter out = new StringWriter();
 		serialize(n,out);
@@ -0,0 +1,784 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2015 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.storage.serializers;
+
+import org.exist.Namespaces;
+import org.exist.dom.persistent.DocumentImpl;
+import org.exist.dom.persistent.SymbolTable;
+import org.exist.dom.persistent.NodeHandle;
+import org.exist.dom.persistent.StoredNode;
+import org.exist.numbering.NodeId;
+import org.exist.numbering.NodeIdFactory;
+import org.exist.storage.NativeBroker;
+import org.exist.storage.Signatures;
+import org.exist.storage.btree.Value;
+import org.exist.storage.dom.RawNodeIterator;
+import org.exist.util.ByteConversion;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import org.xml.sax.helpers.NamespaceSupport;
+
+import javax.xml.XMLConstants;
+import javax.xml.transform.OutputKeys;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.*;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Writes a stored document as UTF-8 encoded XML directly from the node records in dom.dbx.
+ * Names are resolved through their {@link SymbolTable} ids, and the UTF-8 data of text and
+ * attribute records is escaped and copied into a reusable byte buffer without creating
+ * node objects or strings.
+ *
+ * The output is the same as the one produced by {@link NativeSerializer} through a
+ * {@link org.exist.util.serializer.SAXSerializer} with method xml: namespace declarations,
+ * escaping and indentation follow the rules of the SAX serializer and the
+ * {@link org.exist.util.serializer.IndentingXMLWriter}. Match highlighting, XInclude expansion,
+ * doctypes and encodings other than UTF-8 are not supported, see
+ * {@link NativeSerializer#streamDocument(DocumentImpl, OutputStream)}.
+ *
+ * An instance is owned by a single serializer and is not thread safe.
+ */
+final class StreamingSerializer {
+
+    private static final int BUFFER_SIZE = 16384;
+
+    private static final byte[] XMLNS = "xmlns".getBytes(UTF_8);
+    private static final byte[] PRESERVE = "preserve".getBytes(UTF_8);
+    private static final byte[] DEFAULT = "default".getBytes(UTF_8);
+    private static final byte[] NBSP = "&#160;".getBytes(UTF_8);
+
+    private static final boolean[] TEXT_SPECIAL_CHARS = new boolean[128];
+    private static final boolean[] ATTR_SPECIAL_CHARS = new boolean[128];
+    static {
+        TEXT_SPECIAL_CHARS['<'] = true;
+        TEXT_SPECIAL_CHARS['>'] = true;
+        TEXT_SPECIAL_CHARS['&'] = true;
+
+        ATTR_SPECIAL_CHARS['<'] = true;
+        ATTR_SPECIAL_CHARS['>'] = true;
+        ATTR_SPECIAL_CHARS['\r'] = true;
+        ATTR_SPECIAL_CHARS['\n'] = true;
+        ATTR_SPECIAL_CHARS['\t'] = true;
+        ATTR_SPECIAL_CHARS['&'] = true;
+        ATTR_SPECIAL_CHARS['"'] = true;
+    }
+
+    private final NativeBroker broker;
+    private final SymbolTable symbols;
+    private final NodeIdFactory nodeFactory;
+
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private int length = 0;
+    private OutputStream os = null;
+
+    // names resolved through the symbol table, indexed by symbol id
+    private String[] names = new String[256];
+    private byte[][] nameBytes = new byte[256][];
+    private String[] namespaceURIs = new String[64];
+    private String[] prefixes = new String[64];
+    private byte[][] prefixBytes = new byte[64][];
+
+    // namespace state, see NativeSerializer and SAXSerializer
+    private final NamespaceSupport nsSupport = new NamespaceSupport();
+    private final Map<String, String> namespaceDecls = new HashMap<>();
+    private final Map<String, String> optionalNamespaceDecls = new HashMap<>();
+    private final Set<String> namespaces = new HashSet<>();
+    private final List<String> declaredPrefixes = new ArrayList<>();
+    private String defaultNamespace = "";
+
+    // writer state, see XMLWriter and IndentingXMLWriter
+    private boolean omitXmlDeclaration;
+    private byte[] xmlDeclaration;
+    private boolean declarationWritten;
+    private boolean tagIsOpen;
+    private boolean indent;
+    private int indentAmount;
+    private int level;
+    private boolean afterTag;
+    private boolean sameline;
+    private boolean whitespacePreserve;
+    private final Deque<Integer> whitespacePreserveStack = new ArrayDeque<>();
+
+    // attributes of the element currently written
+    private Value[] attrValues = new Value[16];
+    private short[] attrNames = new short[16];
+    private String[] attrPrefixes = new String[16];
+    private String[] attrNamespaces = new String[16];
+    private int[] attrDataStart = new int[16];
+
+    StreamingSerializer(final NativeBroker broker) {
+        this.broker = broker;
+        this.symbols = broker.getBrokerPool().getSymbols();
+        this.nodeFactory = broker.getBrokerPool().getNodeFactory();
+    }
+
+    /**
+     * Writes the document to the output stream.
+     *
+     * @param doc the document to serialize
+     * @param outputProperties the output properties, which have to select method xml and encoding UTF-8
+     * @param os the stream to write to. The stream is flushed, but not closed.
+     */
+    void serialize(final DocumentImpl doc, final Properties outputProperties, final OutputStream os) throws IOException {
+        reset(outputProperties, os);
+        try {
+            final NodeList children = doc.getChildNodes();
+            if (children.getLength() > 0) {
+                try (final RawNodeIterator iterator = new RawNodeIterator(broker, broker.getDOMFile(), (NodeHandle) children.item(0))) {
+                    for (int i = 0; i < children.getLength(); i++) {
+                        if (i > 0) {
+                            iterator.seek((NodeHandle) children.item(i));
+                        }
+                        namespaces.clear();
+                        serializeNode(iterator, next(iterator));
+                    }
+                }
+            }
+            flush();
+            os.flush();
+        } finally {
+            this.os = null;
+        }
+    }
+
+    private void reset(final Properties outputProperties, final OutputStream os) {
+        this.os = os;
+        length = 0;
+        nsSupport.reset();
+        namespaceDecls.clear();
+        optionalNamespaceDecls.clear();
+        defaultNamespace = "";
+
+        omitXmlDeclaration = !"no".equals(outputProperties.getProperty(OutputKeys.OMIT_XML_DECLARATION, "yes"));
+        if (!omitXmlDeclaration) {
+            final StringBuilder decl = new StringBuilder("<?xml version=\"")
+                .append(outputProperties.getProperty(OutputKeys.VERSION, "1.0"))
+                .append("\" encoding=\"")
+                .append(outputProperties.getProperty(OutputKeys.ENCODING, "UTF-8"))
+                .append('"');
+            final String standalone = outputProperties.getProperty(OutputKeys.STANDALONE);
+            if (standalone != null) {
+                decl.append(" standalone=\"").append(standalone).append('"');
+            }
+            decl.append("?>\n");
+            xmlDeclaration = decl.toString().getBytes(UTF_8);
+        }
+        declarationWritten = false;
+        tagIsOpen = false;
+
+        indent = "yes".equals(outputProperties.getProperty(OutputKeys.INDENT, "no"));
+        try {
+            indentAmount = Integer.parseInt(outputProperties.getProperty(EXistOutputKeys.INDENT_SPACES, "4"));
+        } catch (final NumberFormatException e) {
+            indentAmount = 4;
+        }
+        level = 0;
+        afterTag = false;
+        sameline = false;
+        whitespacePreserve = false;
+        whitespacePreserveStack.clear();
+    }
+
+    private Value next(final RawNodeIterator iterator) throws IOException {
+        final Value value = iterator.next();
+        if (value == null) {
+            throw new IOException("Unexpected end of document data");
+        }
+        return value;
+    }
+
+    private void serializeNode(final RawNodeIterator iterator, final Value value) throws IOException {
+        final byte[] data = value.data();
+        final int start = value.start();
+        final int end = start + value.getLength();
+        switch (Signatures.getType(data[start])) {
+            case Node.ELEMENT_NODE:
+                serializeElement(iterator, value);
+                break;
+            case Node.TEXT_NODE: {
+                final int offset = skipNodeId(data, start);
+                if (offset == end) {
+                    return;
+                }
+                for (int i = offset; i < end; i++) {
+                    if (data[i] == '\n') {
+                        sameline = false;
+                        break;
+                    }
+                }
+                afterTag = false;
+                beforeContent();
+                writeStored(data, offset, end, TEXT_SPECIAL_CHARS);
+                break;
+            }
+            case Node.CDATA_SECTION_NODE: {
+                final int offset = skipNodeId(data, start);
+                closeStartTag(false);
+                write("<![CDATA[");
+                writeStored(data, offset, end, null);
+                write("]]>");
+                break;
+            }
+            case Node.COMMENT_NODE: {
+                final int offset = skipNodeId(data, start);
+                beforeContent();
+                write("<!--");
+                write(data, offset, end - offset);
+                write("-->");
+                afterTag = true;
+                break;
+            }
+            case Node.PROCESSING_INSTRUCTION_NODE: {
+                int offset = skipNodeId(data, start);
+                final int targetLen = ByteConversion.byteToInt(data, offset);
+                offset += 4;
+                beforeContent();
+                write("<?");
+                write(data, offset, targetLen);
+                offset += targetLen;
+                if (offset < end) {
+                    write((byte) ' ');
+                    write(data, offset, end - offset);
+                }
+                write("?>");
+                afterTag = true;
+                break;
+            }
+            default:
+                throw new IOException("Unexpected node type in document data: " + Signatures.getType(data[start]));
+        }
+    }
+
+    private void serializeElement(final RawNodeIterator iterator, final Value value) throws IOException {
+        final byte[] data = value.data();
+        final int start = value.start();
+        final int end = start + value.getLength();
+        int offset = start;
+        final byte idSizeType = (byte) (data[offset] & 0x03);
+        final boolean hasNamespace = (data[offset] & 0x10) == 0x10;
+        offset += StoredNode.LENGTH_SIGNATURE_LENGTH;
+        final int children = ByteConversion.byteToInt(data, offset);
+        offset += 4;
+        final int dlnLen = ByteConversion.byteToShort(data, offset);
+        offset += NodeId.LENGTH_NODE_ID_UNITS;
+        offset += nodeFactory.lengthInBytes(dlnLen, data, offset);
+        final int attrCount = ByteConversion.byteToShort(data, offset);
+        offset += 2;
+        final short id = (short) Signatures.read(idSizeType, data, offset);
+        offset += Signatures.getLength(idSizeType);
+        String namespaceURI = XMLConstants.NULL_NS_URI;
+        String prefix = XMLConstants.DEFAULT_NS_PREFIX;
+        if (hasNamespace) {
+            final short nsId = ByteConversion.byteToShort(data, offset);
+            offset += 2;
+            final int prefixLen = ByteConversion.byteToShort(data, offset);
+            offset += 2;
+            if (nsId != 0) {
+                namespaceURI = getNamespaceURI(nsId);
+            }
+            if (prefixLen > 0) {
+                prefix = getPrefix(nsId, data, offset, prefixLen);
+            }
+            offset += prefixLen;
+        }
+        final String localName = getName(id);
+
+        // namespace prefixes declared on the element
+        String defaultNS = null;
+        declaredPrefixes.clear();
+        if (end > offset) {
+            final DataInputStream in = new DataInputStream(new ByteArrayInputStream(data, offset, end - offset));
+            final int count = in.readShort();
+            for (int i = 0; i < count; i++) {
+                final String declaredPrefix = in.readUTF();
+                final String uri = getNamespaceURI(in.readShort());
+                if (declaredPrefixes.contains(declaredPrefix)) {
+                    continue;
+                }
+                declaredPrefixes.add(declaredPrefix);
+                if (declaredPrefix.isEmpty()) {
+                    defaultNS = uri;
+                }
+                startPrefixMapping(declaredPrefix, uri);
+                namespaces.add(uri);
+            }
+        }
+        final String ns = defaultNS == null ? namespaceURI : defaultNS;
+        final boolean mapped = ns.length() > 0 && !namespaces.contains(ns);
+        if (mapped) {
+            startPrefixMapping(prefix, ns);
+        }
+        final List<String> endPrefixes = declaredPrefixes.isEmpty() ? Collections.<String>emptyList() : new ArrayList<>(declaredPrefixes);
+
+        // read the attributes
+        if (attrCount > attrValues.length) {
+            final int size = Math.max(attrCount, attrValues.length * 2);
+            attrValues = Arrays.copyOf(attrValues, size);
+            attrNames = Arrays.copyOf(attrNames, size);
+            attrPrefixes = Arrays.copyOf(attrPrefixes, size);
+            attrNamespaces = Arrays.copyOf(attrNamespaces, size);
+            attrDataStart = Arrays.copyOf(attrDataStart, size);
+        }
+        for (int i = 0; i < attrCount; i++) {
+            readAttribute(next(iterator), i);
+        }
+
+        startElement(prefix, namespaceURI, localName, id, attrCount);
+
+        for (int i = attrCount; i < children; i++) {
+            serializeNode(iterator, next(iterator));
+        }
+
+        endElement(prefix, namespaceURI, localName, id);
+        for (final String declaredPrefix : endPrefixes) {
+            optionalNamespaceDecls.remove(declaredPrefix);
+        }
+        if (ns.length() > 0 && !namespaces.contains(ns)) {
+            optionalNamespaceDecls.remove(prefix);
+        }
+    }
+
+    private void readAttribute(final Value value, final int index) throws IOException {
+        final byte[] data = value.data();
+        int offset = value.start();
+        if (Signatures.getType(data[offset]) != Node.ATTRIBUTE_NODE) {
+            throw new IOException("Expected attribute in document data, found node type " + Signatures.getType(data[offset]));
+        }
+        final byte idSizeType = (byte) (data[offset] & 0x03);
+        final boolean hasNamespace = (data[offset] & 0x10) == 0x10;
+        offset = skipNodeId(data, offset);
+        attrNames[index] = (short) Signatures.read(idSizeType, data, offset);
+        offset += Signatures.getLength(idSizeType);
+        String namespaceURI = XMLConstants.NULL_NS_URI;
+        String prefix = XMLConstants.DEFAULT_NS_PREFIX;
+        if (hasNamespace) {
+            final short nsId = ByteConversion.byteToShort(data, offset);
+            offset += 2;
+            final int prefixLen = ByteConversion.byteToShort(data, offset);
+            offset += 2;
+            if (nsId != 0) {
+                namespaceURI = getNamespaceURI(nsId);
+            }
+            if (prefixLen > 0) {
+                prefix = getPrefix(nsId, data, offset, prefixLen);
+            }
+            offset += prefixLen;
+        }
+        attrValues[index] = value;
+        attrPrefixes[index] = prefix;
+        attrNamespaces[index] = namespaceURI;
+        attrDataStart[index] = offset;
+    }
+
+    private void startPrefixMapping(final String prefix, final String namespaceURI) {
+        if (namespaceURI.equals(Namespaces.XML_NS)) {
+            return;
+        }
+        final String ns = nsSupport.getURI(prefix);
+        if (ns == null || !ns.equals(namespaceURI)) {
+            optionalNamespaceDecls.put(prefix, namespaceURI);
+        }
+    }
+
+    private void startElement(final String prefix, final String namespaceURI, final String localName, final short id,
+            final int attrCount) throws IOException {
+        namespaceDecls.clear();
+        nsSupport.pushContext();
+
+        if (afterTag && !isInlineTag(namespaceURI, localName)) {
+            indent();
+        }
+        beforeContent();
+        write((byte) '<');
+        writeQName(prefix, id);
+        tagIsOpen = true;
+        level++;
+        afterTag = true;
+        sameline = true;
+
+        if (nsSupport.getURI(prefix) == null) {
+            namespaceDecls.put(prefix, namespaceURI);
+            nsSupport.declarePrefix(prefix, namespaceURI);
+        }
+        for (int i = 0; i < attrCount; i++) {
+            final String attrPrefix = attrPrefixes[i];
+            if (XMLConstants.XMLNS_ATTRIBUTE.equals(getName(attrNames[i]))) {
+                if (nsSupport.getURI(XMLConstants.DEFAULT_NS_PREFIX) == null) {
+                    final Value value = attrValues[i];
+                    final String uri = new String(value.data(), attrDataStart[i],
+                        value.start() + value.getLength() - attrDataStart[i], UTF_8);
+                    namespaceDecls.put(XMLConstants.DEFAULT_NS_PREFIX, uri);
+                    nsSupport.declarePrefix(XMLConstants.DEFAULT_NS_PREFIX, uri);
+                }
+            } else if (attrPrefix.length() > 0 && nsSupport.getURI(attrPrefix) == null) {
+                namespaceDecls.put(attrPrefix, attrNamespaces[i]);
+                nsSupport.declarePrefix(attrPrefix, attrNamespaces[i]);
+            }
+        }
+        for (final Map.Entry<String, String> entry : optionalNamespaceDecls.entrySet()) {
+            writeNamespace(entry.getKey(), entry.getValue());
+            nsSupport.declarePrefix(entry.getKey(), entry.getValue());
+        }
+        for (final Map.Entry<String, String> entry : namespaceDecls.entrySet()) {
+            if (XMLConstants.XMLNS_ATTRIBUTE.equals(entry.getKey())) {
+                continue;
+            }
+            if (!optionalNamespaceDecls.containsKey(entry.getKey())) {
+                writeNamespace(entry.getKey(), entry.getValue());
+            }
+        }
+        optionalNamespaceDecls.clear();
+        if (prefix.isEmpty() && !namespaceURI.equals(defaultNamespace.isEmpty() ? null : defaultNamespace)) {
+            writeNamespace(XMLConstants.DEFAULT_NS_PREFIX, namespaceURI);
+            nsSupport.declarePrefix(XMLConstants.DEFAULT_NS_PREFIX, namespaceURI);
+        }
+
+        for (int i = 0; i < attrCount; i++) {
+            final byte[] name = getNameBytes(attrNames[i]);
+            if (startsWith(name, XMLNS)) {
+                continue;
+            }
+            final Value value = attrValues[i];
+            final int valueStart = attrDataStart[i];
+            final int valueEnd = value.start() + value.getLength();
+            if ("xml".equals(attrPrefixes[i]) && "space".equals(getName(attrNames[i]))) {
+                pushWhitespacePreserve(value.data(), valueStart, valueEnd);
+            }
+            write((byte) ' ');
+            writeQName(attrPrefixes[i], attrNames[i]);
+            write((byte) '=');
+            write((byte) '"');
+            writeStored(value.data(), valueStart, valueEnd, ATTR_SPECIAL_CHARS);
+            write((byte) '"');
+            attrValues[i] = null;
+        }
+    }
+
+    private void endElement(final String prefix, final String namespaceURI, final String localName, final short id)
+            throws IOException {
+        nsSupport.popContext();
+
+        level--;
+        if (afterTag && !sameline && !isInlineTag(namespaceURI, localName)) {
+            indent();
+        }
+        if (tagIsOpen) {
+            closeStartTag(true);
+        } else {
+            write((byte) '<');
+            write((byte) '/');
+            writeQName(prefix, id);
+            write((byte) '>');
+        }
+        popWhitespacePreserve();
+        sameline = isInlineTag(namespaceURI, localName);
+        afterTag = true;
+
+        final String uri = nsSupport.getURI(XMLConstants.DEFAULT_NS_PREFIX);
+        defaultNamespace = uri == null ? "" : uri;
+    }
+
+    private void writeNamespace(final String prefix, final String namespaceURI) throws IOException {
+        if (prefix.length() > 0) {
+            write(" xmlns:");
+            write(prefix);
+        } else {
+            if (defaultNamespace.equals(namespaceURI)) {
+                return;
+            }
+            write(" xmlns");
+            defaultNamespace = namespaceURI;
+        }
+        write((byte) '=');
+        write((byte) '"');
+        final byte[] uri = namespaceURI.getBytes(UTF_8);
+        writeStored(uri, 0, uri.length, ATTR_SPECIAL_CHARS);
+        write((byte) '"');
+    }
+
+    private void writeQName(final String prefix, final short id) throws IOException {
+        if (prefix.length() > 0) {
+            write(prefix);
+            write((byte) ':');
+        }
+        final byte[] name = getNameBytes(id);
+        write(name, 0, name.length);
+    }
+
+    private static boolean isInlineTag(final String namespaceURI, final String localName) {
+        return Namespaces.EXIST_NS.equals(namespaceURI) && "match".equals(localName);
+    }
+
+    private void pushWhitespacePreserve(final byte[] data, final int start, final int end) {
+        if (regionEquals(data, start, end, PRESERVE)) {
+            whitespacePreserve = true;
+            whitespacePreserveStack.push(-level);
+        } else if (regionEquals(data, start, end, DEFAULT)) {
+            whitespacePreserve = false;
+            whitespacePreserveStack.push(level);
+        }
+    }
+
+    private void popWhitespacePreserve() {
+        if (!whitespacePreserveStack.isEmpty() && Math.abs(whitespacePreserveStack.peek()) > level) {
+            whitespacePreserveStack.pop();
+            whitespacePreserve = !whitespacePreserveStack.isEmpty() && whitespacePreserveStack.peek() < 0;
+        }
+    }
+
+    private void indent() throws IOException {
+        if (!indent || whitespacePreserve) {
+            return;
+        }
+        beforeContent();
+        write((byte) '\n');
+        for (int i = indentAmount * level; i > 0; i--) {
+            write((byte) ' ');
+        }
+        sameline = false;
+    }
+
+    /**
+     * Writes the XML declaration if required and closes a pending start tag,
+     * before any content is written.
+     */
+    private void beforeContent() throws IOException {
+        if (!declarationWritten) {
+            declarationWritten = true;
+            if (!omitXmlDeclaration) {
+                write(xmlDeclaration, 0, xmlDeclaration.length);
+            }
+        }
+        closeStartTag(false);
+    }
+
+    private void closeStartTag(final boolean isEmpty) throws IOException {
+        if (tagIsOpen) {
+            if (isEmpty) {
+                write((byte) '/');
+            }
+            write((byte) '>');
+            tagIsOpen = false;
+        }
+    }
+
+    /**
+     * Copies UTF-8 data read from a node record to the output. Special characters are escaped
+     * like {@link org.exist.util.serializer.XMLWriter} does. Characters outside the BMP are stored
+     * as pairs of encoded surrogates by {@link org.exist.util.UTF8}: these are converted to
+     * proper 4-byte UTF-8 sequences, an unpaired surrogate is replaced by '?' as the
+     * Java UTF-8 encoder would do.
+     *
+     * @param specialChars the ASCII characters which have to be escaped, or null to copy the data as it is
+     */
+    private void writeStored(final byte[] data, final int start, final int end, final boolean[] specialChars)
+            throws IOException {
+        int runStart = start;
+        int i = start;
+        while (i < end) {
+            final int b = data[i] & 0xFF;
+            if (b < 0x80) {
+                if (specialChars == null || !specialChars[b]) {
+                    i++;
+                    continue;
+                }
+                write(data, runStart, i - runStart);
+                writeEscaped((char) b);
+                runStart = ++i;
+            } else if (b == 0xC2 && specialChars != null && i + 1 < end && (data[i + 1] & 0xFF) == 0xA0) {
+                write(data, runStart, i - runStart);
+                write(NBSP, 0, NBSP.length);
+                i += 2;
+                runStart = i;
+            } else if (b == 0xED && i + 2 < end && (data[i + 1] & 0xFF) >= 0xA0) {
+                write(data, runStart, i - runStart);
+                final int high = ((b & 0x0F) << 12) | ((data[i + 1] & 0x3F) << 6) | (data[i + 2] & 0x3F);
+                if (Character.isHighSurrogate((char) high) && i + 5 < end && (data[i + 3] & 0xFF) == 0xED
+                        && (data[i + 4] & 0xFF) >= 0xB0) {
+                    final int low = ((data[i + 3] & 0x0F) << 12) | ((data[i + 4] & 0x3F) << 6) | (data[i + 5] & 0x3F);
+                    final int codePoint = Character.toCodePoint((char) high, (char) low);
+                    write((byte) (0xF0 | (codePoint >> 18)));
+                    write((byte) (0x80 | ((codePoint >> 12) & 0x3F)));
+                    write((byte) (0x80 | ((codePoint >> 6) & 0x3F)));
+                    write((byte) (0x80 | (codePoint & 0x3F)));
+                    i += 6;
+                } else {
+                    write((byte) '?');
+                    i += 3;
+                }
+                runStart = i;
+            } else {
+                i++;
+            }
+        }
+        write(data, runStart, end - runStart);
+    }
+
+    private void writeEscaped(final char ch) throws IOException {
+        switch (ch) {
+            case '<':
+                write("&lt;");
+                break;
+            case '>':
+                write("&gt;");
+                break;
+            case '&':
+                write("&amp;");
+                break;
+            case '\r':
+                write("&#xD;");
+                break;
+            case '\n':
+                write("&#xA;");
+                break;
+            case '\t':
+                write("&#x9;");
+                break;
+            case '"':
+                write("&#34;");
+                break;
+            default:
+                write((byte) ch);
+        }
+    }
+
+    private int skipNodeId(final byte[] data, int offset) {
+        offset += StoredNode.LENGTH_SIGNATURE_LENGTH;
+        final int dlnLen = ByteConversion.byteToShort(data, offset);
+        offset += NodeId.LENGTH_NODE_ID_UNITS;
+        return offset + nodeFactory.lengthInBytes(dlnLen, data, offset);
+    }
+
+    private String getName(final short id) {
+        if (id >= names.length) {
+            final int size = Math.max(id + 1, names.length * 2);
+            names = Arrays.copyOf(names, size);
+            nameBytes = Arrays.copyOf(nameBytes, size);
+        }
+        String name = names[id];
+        if (name == null) {
+            name = symbols.getName(id);
+            names[id] = name;
+            nameBytes[id] = name.getBytes(UTF_8);
+        }
+        return name;
+    }
+
+    private byte[] getNameBytes(final short id) {
+        getName(id);
+        return nameBytes[id];
+    }
+
+    private String getNamespaceURI(final short nsId) {
+        if (nsId >= namespaceURIs.length) {
+            final int size = Math.max(nsId + 1, namespaceURIs.length * 2);
+            namespaceURIs = Arrays.copyOf(namespaceURIs, size);
+            prefixes = Arrays.copyOf(prefixes, size);
+            prefixBytes = Arrays.copyOf(prefixBytes, size);
+        }
+        String uri = namespaceURIs[nsId];
+        if (uri == null) {
+            uri = symbols.getNamespace(nsId);
+            namespaceURIs[nsId] = uri;
+        }
+        return uri;
+    }
+
+    /**
+     * Returns the prefix stored in a node record. The prefix last used with the
+     * namespace is remembered, as the same prefix is usually used throughout a document.
+     */
+    private String getPrefix(final short nsId, final byte[] data, final int start, final int len) {
+        getNamespaceURI(nsId);
+        final byte[] cached = prefixBytes[nsId];
+        if (cached != null && regionEquals(data, start, start + len, cached)) {
+            return prefixes[nsId];
+        }
+        final String prefix = new String(data, start, len, UTF_8);
+        prefixes[nsId] = prefix;
+        prefixBytes[nsId] = Arrays.copyOfRange(data, start, start + len);
+        return prefix;
+    }
+
+    private static boolean regionEquals(final byte[] data, final int start, final int end, final byte[] bytes) {
+        if (end - start != bytes.length) {
+            return false;
+        }
+        for (int i = 0; i < bytes.length; i++) {
+            if (data[start + i] != bytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean startsWith(final byte[] name, final byte[] prefix) {
+        return name.length >= prefix.length && regionEquals(name, 0, prefix.length, prefix);
+    }
+
+    private void write(final String s) throws IOException {
+        final int len = s.length();
+        for (int i = 0; i < len; i++) {
+            final char ch = s.charAt(i);
+            if (ch >= 0x80) {
+                final byte[] bytes = s.getBytes(UTF_8);
+                write(bytes, 0, bytes.length);
+                return;
+            }
+        }
+        if (length + len > buffer.length) {
+            flush();
+        }
+        for (int i = 0; i < len; i++) {
+            buffer[length++] = (byte) s.charAt(i);
+        }
+    }
+
+    private void write(final byte b) throws IOException {
+        if (length == buffer.length) {
+            flush();
+        }
+        buffer[length++] = b;
+    }
+
+    private void write(final byte[] data, final int start, final int len) throws IOException {
+        if (len > buffer.length - length) {
+            flush();
+            if (len > buffer.length) {
+                os.write(data, start, len);
+                return;
+            }
+        }
+        System.arraycopy(data, start, buffer, length, len);
+        length += len;
+    }
+
+    private void flush() throws IOException {
+        if (length > 0) {
+            os.write(buffer, 0, length);
+            length = 0;
+        }
+    }
+}
@@ -102,6 +102,21 @@ public class DataGuide {
         return other;
     }
 
+    /**
+     * Check if the given node path (a path like /root/childA/childB) has been
+     * added to the data guide.
+     *
+     * @param path a path consisting of element names only
+     * @return true if the path is known to the data guide
+     */
+    public boolean hasPath(NodePath path) {
+        NodeStats current = root;
+        for (int i = 0; i < path.length() && current != null; i++) {
+            current = current.getChild(path.getComponent(i));
+        }
+        return current != null;
+    }
+
     public int getMaxParentDepth(QName qname) {
         final NodeStats temp = new NodeStats(qname);
         root.getMaxParentDepth(qname, temp);
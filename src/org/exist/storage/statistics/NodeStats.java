@@ -72,6 +72,18 @@ class NodeStats {
         nodeCount++;
     }
 
+    protected NodeStats getChild(QName qn) {
+        if (children != null) {
+            for (int i = 0; i < children.length; i++) {
+                final NodeStats child = children[i];
+                if (child.qname.equals(qn)) {
+                    return child;
+                }
+            }
+        }
+        return null;
+    }
+
     protected NodeStats addChild(QName qn) {
         if (children != null) {
             for (int i = 0; i < children.length; i++) {
@@ -0,0 +1,373 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2015 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.storage.statistics;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.exist.backup.RawDataBackup;
+import org.exist.dom.persistent.SymbolTable;
+import org.exist.indexing.AbstractIndex;
+import org.exist.indexing.IndexWorker;
+import org.exist.indexing.RawBackupSupport;
+import org.exist.storage.BrokerPool;
+import org.exist.storage.DBBroker;
+import org.exist.storage.ElementValue;
+import org.exist.storage.NodePath;
+import org.exist.storage.btree.BTree;
+import org.exist.storage.btree.DBException;
+import org.exist.storage.btree.IndexQuery;
+import org.exist.storage.btree.Value;
+import org.exist.storage.dom.DOMFile;
+import org.exist.storage.index.BTreeStore;
+import org.exist.storage.lock.Lock;
+import org.exist.storage.lock.Lock.LockMode;
+import org.exist.util.ByteConversion;
+import org.exist.util.DatabaseConfigurationException;
+import org.exist.util.FileUtils;
+import org.exist.util.LockException;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * A path summary index: maps every distinct root-to-element path (like /TEI/text/body/div)
+ * to the ids of the element nodes reached by it, per document. A path consisting of child steps
+ * only can thus be answered with a single range scan instead of a chain of structural joins.
+ *
+ * The btree contains three kinds of keys:
+ *
+ * <pre>
+ * [0, path, documentId, nodeId] -&gt; storage address of the node
+ * [1, documentId, path] -&gt; 0 (paths occurring in a document, used for removal)
+ * [2, path] -&gt; 0 (all paths ever indexed)
+ * [3] -&gt; 0 (present once all documents have been indexed)
+ * </pre>
+ *
+ * The set of known paths is kept in memory as a {@link DataGuide}, which allows the query engine
+ * to prune paths which can never match without touching the index at all. Paths are never removed
+ * from the data guide, so it may report paths which no longer exist, but never misses one.
+ *
+ * The index is not enabled by default. If it is added to an existing database, the database has to
+ * be reindexed before the index can be used. Until then, {@link #isComplete()} returns false and
+ * path expressions are evaluated without the index.
+ */
+public class PathIndex extends AbstractIndex implements RawBackupSupport {
+
+    public final static String ID = PathIndex.class.getName();
+
+    public static final String FILE_NAME = "paths.dbx";
+
+    public static final byte PATH_INDEX_ID = 0x11;
+
+    /**
+     * Elements nested more deeply than this are not indexed. Paths longer than
+     * this limit are never answered from the index.
+     */
+    public static final int MAX_PATH_LENGTH = 32;
+
+    static final byte KEY_TYPE_PATH = 0;
+    static final byte KEY_TYPE_DOCUMENT = 1;
+    static final byte KEY_TYPE_REGISTRY = 2;
+    static final byte KEY_TYPE_COMPLETE = 3;
+
+    private static final Value COMPLETE_KEY = new Value(new byte[] { KEY_TYPE_COMPLETE });
+
+    protected final static Logger LOG = LogManager.getLogger(PathIndex.class);
+
+    protected BTreeStore btree;
+
+    private String fileName = FILE_NAME;
+
+    // true if all documents in the database have been indexed
+    private volatile boolean complete = false;
+
+    // set if the index files are removed in order to rebuild them from scratch
+    private boolean rebuilding = false;
+
+    // the set of all paths found in the index
+    private DataGuide pathSummary = new DataGuide();
+
+    public PathIndex() {
+        //Nothing to do
+    }
+
+    @Override
+    public String getIndexId() {
+        return ID;
+    }
+
+    @Override
+    public void configure(BrokerPool pool, Path dataDir, Element config) throws DatabaseConfigurationException {
+        super.configure(pool, dataDir, config);
+        if (config != null && config.hasAttribute("file")) {
+            fileName = config.getAttribute("file");
+        }
+    }
+
+    @Override
+    public void open() throws DatabaseConfigurationException {
+        final Path file = getDataDir().resolve(fileName);
+        final boolean exists = Files.exists(file);
+        LOG.debug("Creating '" + FileUtils.fileName(file) + "'...");
+        try {
+            btree = new BTreeStore(pool, PATH_INDEX_ID, false, file, pool.getCacheManager());
+        } catch (final DBException e) {
+            LOG.error("Failed to initialize path index: " + e.getMessage(), e);
+            throw new DatabaseConfigurationException(e.getMessage(), e);
+        }
+        if (exists) {
+            loadPathSummary();
+            complete = readComplete();
+        } else if (rebuilding || !Files.exists(getDataDir().resolve(DOMFile.FILE_NAME))) {
+            // the database is either new or will be reindexed from the root collection
+            setComplete();
+        }
+        rebuilding = false;
+        if (!complete) {
+            LOG.warn("The path index has not been built for the existing data. Path expressions " +
+                "are evaluated without it until the database is reindexed.");
+        }
+    }
+
+    private boolean readComplete() throws DatabaseConfigurationException {
+        final Lock lock = btree.getLock();
+        try {
+            lock.acquire(LockMode.READ_LOCK);
+            return btree.findValue(COMPLETE_KEY) != BTree.KEY_NOT_FOUND;
+        } catch (final LockException e) {
+            throw new DatabaseConfigurationException("Failed to lock path index: " + e.getMessage(), e);
+        } catch (final Exception e) {
+            throw new DatabaseConfigurationException("Error while reading path index status: " + e.getMessage(), e);
+        } finally {
+            lock.release(LockMode.READ_LOCK);
+        }
+    }
+
+    /**
+     * Check if all documents have been indexed. If not, the index must not be used
+     * to answer queries as it would miss the nodes of documents stored before the
+     * index was enabled.
+     *
+     * @return true if the index covers all documents in the database
+     */
+    public boolean isComplete() {
+        return complete;
+    }
+
+    /**
+     * Mark the index as covering all documents. Called when the database is reindexed
+     * starting at the root collection.
+     */
+    void setComplete() {
+        if (complete) {
+            return;
+        }
+        final Lock lock = btree.getLock();
+        try {
+            lock.acquire(LockMode.WRITE_LOCK);
+            btree.addValue(COMPLETE_KEY, 0);
+            complete = true;
+        } catch (final LockException e) {
+            LOG.warn("Failed to lock path index: " + e.getMessage(), e);
+        } catch (final Exception e) {
+            LOG.error("Error while writing path index status: " + e.getMessage(), e);
+        } finally {
+            lock.release(LockMode.WRITE_LOCK);
+        }
+    }
+
+    private void loadPathSummary() throws DatabaseConfigurationException {
+        final DataGuide summary = new DataGuide();
+        final IndexQuery query = new IndexQuery(IndexQuery.TRUNC_RIGHT, new Value(new byte[] { KEY_TYPE_REGISTRY }));
+        final Lock lock = btree.getLock();
+        try {
+            lock.acquire(LockMode.READ_LOCK);
+            btree.query(query, (value, pointer) -> {
+                final NodePath path = readPath(value.getData(), 1);
+                if (path != null) {
+                    summary.add(path);
+                }
+                return true;
+            });
+        } catch (final LockException e) {
+            throw new DatabaseConfigurationException("Failed to lock path index: " + e.getMessage(), e);
+        } catch (final Exception e) {
+            LOG.error("Error while loading path summary: " + e.getMessage(), e);
+            throw new DatabaseConfigurationException("Error while loading path summary: " + e.getMessage(), e);
+        } finally {
+            lock.release(LockMode.READ_LOCK);
+        }
+        synchronized (this) {
+            pathSummary = summary;
+        }
+    }
+
+    @Override
+    public void close() throws DBException {
+        btree.close();
+        btree = null;
+    }
+
+    @Override
+    public void sync() throws DBException {
+        if (btree == null)
+            {return;}
+        final Lock lock = btree.getLock();
+        try {
+            lock.acquire(LockMode.WRITE_LOCK);
+            btree.flush();
+        } catch (final LockException e) {
+            LOG.warn("Failed to acquire lock for '" + FileUtils.fileName(btree.getFile()) + "'", e);
+        } catch (final DBException e) {
+            LOG.error(e.getMessage(), e);
+        } finally {
+            lock.release(LockMode.WRITE_LOCK);
+        }
+    }
+
+    @Override
+    public void remove() throws DBException {
+        btree.closeAndRemove();
+        synchronized (this) {
+            pathSummary = new DataGuide();
+        }
+        complete = false;
+        rebuilding = true;
+    }
+
+    @Override
+    public IndexWorker getWorker(DBBroker broker) {
+        return new PathIndexWorker(this);
+    }
+
+    @Override
+    public boolean checkIndex(DBBroker broker) {
+        return false;
+    }
+
+    @Override
+    public BTree getStorage() {
+        return btree;
+    }
+
+    /**
+     * Check if the given path may occur in the database. Returns false
+     * only if the path has never been indexed.
+     *
+     * @param path a path consisting of element names only
+     * @return false if no element in the database can be reached by the path
+     */
+    public synchronized boolean hasPath(NodePath path) {
+        return pathSummary.hasPath(path);
+    }
+
+    /**
+     * Add a new path to the summary. Must be called while holding the
+     * write lock on the btree.
+     */
+    void registerPath(NodePath path) throws IOException, DBException {
+        synchronized (this) {
+            if (pathSummary.hasPath(path)) {
+                return;
+            }
+        }
+        final byte[] key = new byte[1 + pathLength(path)];
+        key[0] = KEY_TYPE_REGISTRY;
+        writePath(path, key, 1);
+        btree.addValue(new Value(key), 0);
+        synchronized (this) {
+            pathSummary.add(path);
+        }
+    }
+
+    public String toString() {
+        synchronized (this) {
+            return pathSummary.toString();
+        }
+    }
+
+    /**
+     * Returns the number of bytes needed to store the given path
+     */
+    static int pathLength(NodePath path) {
+        return 1 + path.length() * 4;
+    }
+
+    int writePath(NodePath path, byte[] data, int offset) {
+        final SymbolTable symbols = pool.getSymbols();
+        data[offset++] = (byte) path.length();
+        for (int i = 0; i < path.length(); i++) {
+            final short sym = symbols.getSymbol(path.getComponent(i).getLocalPart());
+            final short nsSym = symbols.getNSSymbol(path.getComponent(i).getNamespaceURI());
+            ByteConversion.shortToByteH(sym, data, offset);
+            ByteConversion.shortToByteH(nsSym, data, offset + 2);
+            offset += 4;
+        }
+        return offset;
+    }
+
+    NodePath readPath(byte[] data, int offset) {
+        final SymbolTable symbols = pool.getSymbols();
+        final int length = data[offset++];
+        final NodePath path = new NodePath();
+        for (int i = 0; i < length; i++) {
+            final short sym = ByteConversion.byteToShortH(data, offset);
+            final short nsSym = ByteConversion.byteToShortH(data, offset + 2);
+            final String localName = symbols.getName(sym);
+            final String namespaceURI = symbols.getNamespace(nsSym);
+            if (localName == null || namespaceURI == null) {
+                LOG.warn("Unknown symbol found in path index: " + sym + ", " + nsSym);
+                return null;
+            }
+            path.addComponent(symbols.getQName(Node.ELEMENT_NODE, namespaceURI, localName, ""));
+            offset += 4;
+        }
+        return path;
+    }
+
+    /**
+     * Check if all components of the path are elements, i.e. if the path
+     * can be stored in or looked up from the index.
+     */
+    static boolean isIndexable(NodePath path) {
+        if (path.length() == 0 || path.length() > MAX_PATH_LENGTH) {
+            return false;
+        }
+        for (int i = 0; i < path.length(); i++) {
+            if (path.getComponent(i).getNameType() != ElementValue.ELEMENT) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void backupToArchive(RawDataBackup backup) throws IOException {
+        try(final OutputStream os = backup.newEntry(FileUtils.fileName(btree.getFile()))) {
+            btree.backupToStream(os);
+        } finally {
+            backup.closeEntry();
+        }
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2015 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.storage.statistics;
+
+import org.exist.Namespaces;
+import org.exist.dom.QName;
+import org.exist.dom.persistent.NodeProxy;
+import org.exist.dom.persistent.NodeSet;
+import org.exist.numbering.NodeId;
+import org.exist.storage.NodePath;
+import org.exist.xquery.Expression;
+import org.exist.xquery.Pragma;
+import org.exist.xquery.XPathException;
+import org.exist.xquery.XQueryContext;
+import org.exist.xquery.value.Item;
+import org.exist.xquery.value.Sequence;
+
+/**
+ * Evaluates a sequence of child steps by looking up the corresponding path in the
+ * {@link PathIndex}. This is only possible if the context sequence consists of stored
+ * document nodes and the index has been built for all documents. In all other cases,
+ * {@link #eval(Sequence, Item)} returns null and the wrapped steps are evaluated as usual.
+ */
+public class PathIndexPragma extends Pragma {
+
+    public final static QName PATH_INDEX_PRAGMA = new QName("path-index", Namespaces.EXIST_NS, "exist");
+
+    private final XQueryContext context;
+    private final NodePath path;
+    private Expression expression = null;
+
+    public PathIndexPragma(XQueryContext context, NodePath path) throws XPathException {
+        super(PATH_INDEX_PRAGMA, path.toString());
+        this.context = context;
+        this.path = path;
+    }
+
+    @Override
+    public Sequence eval(Sequence contextSequence, Item contextItem) throws XPathException {
+        if (contextItem != null) {
+            contextSequence = contextItem.toSequence();
+        }
+        if (contextSequence == null || contextSequence.isEmpty() || !contextSequence.isPersistentSet()) {
+            return null;
+        }
+        final NodeSet contextSet = contextSequence.toNodeSet();
+        for (final NodeProxy node : contextSet) {
+            if (!NodeId.DOCUMENT_NODE.equals(node.getNodeId())) {
+                return null;
+            }
+        }
+        final PathIndexWorker worker = (PathIndexWorker)
+            context.getBroker().getIndexController().getWorkerByIndexId(PathIndex.ID);
+        if (worker == null || !worker.isUsable()) {
+            return null;
+        }
+        return worker.findElementsByPath(path, contextSet, expression);
+    }
+
+    @Override
+    public void before(XQueryContext context, Expression expression, Sequence contextSequence) throws XPathException {
+        this.expression = expression;
+    }
+
+    @Override
+    public void after(XQueryContext context, Expression expression) throws XPathException {
+        // nothing to do
+    }
+}
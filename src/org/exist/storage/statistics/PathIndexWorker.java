@@ -0,0 +1,527 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2015 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.storage.statistics;
+
+import org.exist.collections.Collection;
+import org.exist.dom.persistent.DocumentImpl;
+import org.exist.dom.persistent.DocumentSet;
+import org.exist.dom.persistent.ElementImpl;
+import org.exist.dom.persistent.IStoredNode;
+import org.exist.dom.persistent.NewArrayNodeSet;
+import org.exist.dom.persistent.NodeProxy;
+import org.exist.dom.persistent.NodeSet;
+import org.exist.indexing.AbstractStreamListener;
+import org.exist.indexing.IndexController;
+import org.exist.indexing.IndexWorker;
+import org.exist.indexing.StreamListener;
+import org.exist.indexing.StreamListener.ReindexMode;
+import org.exist.numbering.NodeId;
+import org.exist.security.PermissionDeniedException;
+import org.exist.storage.DBBroker;
+import org.exist.storage.NodePath;
+import org.exist.storage.btree.BTreeCallback;
+import org.exist.storage.btree.IndexQuery;
+import org.exist.storage.btree.Value;
+import org.exist.storage.lock.Lock;
+import org.exist.storage.lock.Lock.LockMode;
+import org.exist.storage.txn.Txn;
+import org.exist.util.ByteConversion;
+import org.exist.util.DatabaseConfigurationException;
+import org.exist.util.LockException;
+import org.exist.util.Occurrences;
+import org.exist.xquery.Expression;
+import org.exist.xquery.QueryRewriter;
+import org.exist.xquery.TerminatedException;
+import org.exist.xmldb.XmldbURI;
+import org.exist.xquery.XQueryContext;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Worker for the {@link PathIndex}. Collects the element nodes of a document grouped
+ * by their root-to-node path and looks up nodes by path.
+ */
+public class PathIndexWorker implements IndexWorker {
+
+    private final PathIndex index;
+    private ReindexMode mode = ReindexMode.STORE;
+    private DocumentImpl document;
+
+    private final Map<NodePath, List<NodeProxy>> pending = new HashMap<>();
+
+    private final PathStreamListener listener = new PathStreamListener();
+
+    public PathIndexWorker(PathIndex index) {
+        this.index = index;
+    }
+
+    /**
+     * Find all elements reached by the given path, starting at the document nodes
+     * in contextSet.
+     *
+     * @param path the path to look up, consisting of element names only
+     * @param contextSet a node set containing document nodes
+     * @param parent the expression calling this method, used to check for query termination
+     * @return the matching element nodes in document order
+     */
+    public NodeSet findElementsByPath(NodePath path, NodeSet contextSet, Expression parent) {
+        if (!PathIndex.isIndexable(path) || !index.hasPath(path)) {
+            return NodeSet.EMPTY_SET;
+        }
+        final Lock lock = index.btree.getLock();
+        final NewArrayNodeSet result = new NewArrayNodeSet();
+        final FindElementsCallback callback = new FindElementsCallback(path, contextSet, result, parent);
+        final DocumentSet docs = contextSet.getDocumentSet();
+        for (final Range range : getDocIdRanges(docs)) {
+            final byte[] fromKey = computeKey(path, range.start);
+            final byte[] toKey = computeKey(path, range.end + 1);
+            final IndexQuery query = new IndexQuery(IndexQuery.RANGE, new Value(fromKey), new Value(toKey));
+            try {
+                lock.acquire(LockMode.READ_LOCK);
+                index.btree.query(query, callback);
+            } catch (final LockException e) {
+                PathIndex.LOG.warn("Lock problem while searching path index: " + e.getMessage(), e);
+            } catch (final TerminatedException e) {
+                PathIndex.LOG.warn("Query was terminated while searching path index: " + e.getMessage(), e);
+            } catch (final Exception e) {
+                PathIndex.LOG.error("Error while searching path index: " + e.getMessage(), e);
+            } finally {
+                lock.release(LockMode.READ_LOCK);
+            }
+        }
+        return result;
+    }
+
+    private List<Range> getDocIdRanges(final DocumentSet docs) {
+        final List<Range> ranges = new ArrayList<>();
+        Range next = null;
+        for (final Iterator<DocumentImpl> i = docs.getDocumentIterator(); i.hasNext(); ) {
+            final DocumentImpl doc = i.next();
+            if (next == null) {
+                next = new Range(doc.getDocId());
+            } else if (next.end + 1 == doc.getDocId()) {
+                next.end++;
+            } else {
+                ranges.add(next);
+                next = new Range(doc.getDocId());
+            }
+        }
+        if (next != null) {
+            ranges.add(next);
+        }
+        return ranges;
+    }
+
+    private static class Range {
+        int start;
+        int end;
+
+        private Range(int start) {
+            this.start = start;
+            this.end = start;
+        }
+    }
+
+    private class FindElementsCallback implements BTreeCallback {
+        final NodeSet contextSet;
+        final DocumentSet docs;
+        final NewArrayNodeSet result;
+        final Expression parent;
+        final int pathLength;
+
+        FindElementsCallback(NodePath path, NodeSet contextSet, NewArrayNodeSet result, Expression parent) {
+            this.contextSet = contextSet;
+            this.docs = contextSet.getDocumentSet();
+            this.result = result;
+            this.parent = parent;
+            this.pathLength = PathIndex.pathLength(path);
+        }
+
+        @Override
+        public boolean indexInfo(Value value, long pointer) throws TerminatedException {
+            if (parent != null) {
+                parent.getContext().proceed(parent);
+            }
+            final byte[] key = value.getData();
+            final DocumentImpl doc = docs.getDoc(ByteConversion.byteToIntH(key, 1 + pathLength));
+            if (doc != null) {
+                final NodeId nodeId = readNodeId(key, pointer, 5 + pathLength);
+                final NodeProxy storedNode = new NodeProxy(doc, nodeId, Node.ELEMENT_NODE, pointer);
+                final NodeProxy docNode = contextSet.get(doc, NodeId.DOCUMENT_NODE);
+                if (docNode != null) {
+                    storedNode.copyContext(docNode);
+                    if (contextSet.getTrackMatches()) {
+                        storedNode.addMatches(docNode);
+                    }
+                }
+                result.add(storedNode);
+            }
+            return true;
+        }
+    }
+
+    @Override
+    public String getIndexId() {
+        return PathIndex.ID;
+    }
+
+    @Override
+    public String getIndexName() {
+        return index.getIndexName();
+    }
+
+    @Override
+    public Object configure(IndexController controller, NodeList configNodes, Map<String, String> namespaces) throws DatabaseConfigurationException {
+        return null;
+    }
+
+    @Override
+    public void setDocument(DocumentImpl doc) {
+        setDocument(doc, ReindexMode.UNKNOWN);
+    }
+
+    @Override
+    public void setDocument(DocumentImpl doc, ReindexMode mode) {
+        this.document = doc;
+        this.mode = mode;
+    }
+
+    @Override
+    public void setMode(ReindexMode mode) {
+        this.mode = mode;
+    }
+
+    @Override
+    public DocumentImpl getDocument() {
+        return document;
+    }
+
+    @Override
+    public ReindexMode getMode() {
+        return mode;
+    }
+
+    @Override
+    @SuppressWarnings("rawtypes") // the bound of T is declared raw by IndexWorker
+    public <T extends IStoredNode> IStoredNode<T> getReindexRoot(IStoredNode<T> node, NodePath path, boolean insert, boolean includeSelf) {
+        // if a node is inserted, we do not need to reindex the parent
+        return insert ? null : node;
+    }
+
+    @Override
+    public StreamListener getListener() {
+        return listener;
+    }
+
+    @Override
+    @SuppressWarnings("deprecation") // required by IndexWorker
+    public org.exist.indexing.MatchListener getMatchListener(DBBroker broker, NodeProxy proxy) {
+        // not applicable to this index
+        return null;
+    }
+
+    @Override
+    public void flush() {
+        switch (mode) {
+            case STORE:
+                processPending();
+                break;
+            case REMOVE_ALL_NODES:
+                removeDocument(document);
+                break;
+            case REMOVE_SOME_NODES:
+                removeSome();
+        }
+    }
+
+    private void processPending() {
+        if (pending.size() == 0)
+            {return;}
+
+        try {
+            final Lock lock = index.btree.getLock();
+            for (final Map.Entry<NodePath, List<NodeProxy>> entry : pending.entrySet()) {
+                final NodePath path = entry.getKey();
+                try {
+                    lock.acquire(LockMode.WRITE_LOCK);
+                    for (final NodeProxy proxy : entry.getValue()) {
+                        final byte[] key = computeKey(path, document.getDocId(), proxy.getNodeId());
+                        index.btree.addValue(new Value(key), computeValue(proxy));
+                    }
+                    final Value docKey = new Value(computeDocKey(document.getDocId(), path));
+                    if (index.btree.findValue(docKey) == -1) {
+                        index.btree.addValue(docKey, 0);
+                    }
+                    index.registerPath(path);
+                } catch (final LockException e) {
+                    PathIndex.LOG.warn("Failed to lock path index: " + e.getMessage(), e);
+                } catch (final Exception e) {
+                    PathIndex.LOG.warn("Exception caught while writing to path index: " + e.getMessage(), e);
+                } finally {
+                    lock.release(LockMode.WRITE_LOCK);
+                }
+            }
+        } finally {
+            pending.clear();
+        }
+    }
+
+    private void removeSome() {
+        if (pending.size() == 0)
+            {return;}
+
+        try {
+            final Lock lock = index.btree.getLock();
+            for (final Map.Entry<NodePath, List<NodeProxy>> entry : pending.entrySet()) {
+                final NodePath path = entry.getKey();
+                try {
+                    lock.acquire(LockMode.WRITE_LOCK);
+                    for (final NodeProxy proxy : entry.getValue()) {
+                        final byte[] key = computeKey(path, document.getDocId(), proxy.getNodeId());
+                        index.btree.removeValue(new Value(key));
+                    }
+                } catch (final LockException e) {
+                    PathIndex.LOG.warn("Failed to lock path index: " + e.getMessage(), e);
+                } catch (final Exception e) {
+                    PathIndex.LOG.warn("Exception caught while writing to path index: " + e.getMessage(), e);
+                } finally {
+                    lock.release(LockMode.WRITE_LOCK);
+                }
+            }
+        } finally {
+            pending.clear();
+        }
+    }
+
+    private void removeDocument(DocumentImpl docToRemove) {
+        if (index.btree == null)
+            {return;}
+        final List<NodePath> paths = getPathsForDoc(docToRemove);
+        final Lock lock = index.btree.getLock();
+        for (final NodePath path : paths) {
+            final byte[] fromKey = computeKey(path, docToRemove.getDocId());
+            final byte[] toKey = computeKey(path, docToRemove.getDocId() + 1);
+            final IndexQuery query = new IndexQuery(IndexQuery.RANGE, new Value(fromKey), new Value(toKey));
+            try {
+                lock.acquire(LockMode.WRITE_LOCK);
+                index.btree.remove(query, null);
+            } catch (final LockException e) {
+                PathIndex.LOG.warn("Failed to lock path index: " + e.getMessage(), e);
+            } catch (final Exception e) {
+                PathIndex.LOG.warn("Exception caught while removing path index for document " +
+                    docToRemove.getURI() + ": " + e.getMessage(), e);
+            } finally {
+                lock.release(LockMode.WRITE_LOCK);
+            }
+        }
+        final IndexQuery query = new IndexQuery(IndexQuery.RANGE, new Value(computeDocKey(docToRemove.getDocId())),
+            new Value(computeDocKey(docToRemove.getDocId() + 1)));
+        try {
+            lock.acquire(LockMode.WRITE_LOCK);
+            index.btree.remove(query, null);
+        } catch (final LockException e) {
+            PathIndex.LOG.warn("Failed to lock path index: " + e.getMessage(), e);
+        } catch (final Exception e) {
+            PathIndex.LOG.warn("Exception caught while removing path index for document " +
+                docToRemove.getURI() + ": " + e.getMessage(), e);
+        } finally {
+            lock.release(LockMode.WRITE_LOCK);
+        }
+    }
+
+    private List<NodePath> getPathsForDoc(DocumentImpl doc) {
+        final List<NodePath> paths = new ArrayList<>();
+        final IndexQuery query = new IndexQuery(IndexQuery.RANGE, new Value(computeDocKey(doc.getDocId())),
+            new Value(computeDocKey(doc.getDocId() + 1)));
+        final Lock lock = index.btree.getLock();
+        try {
+            lock.acquire(LockMode.READ_LOCK);
+            index.btree.query(query, (value, pointer) -> {
+                final NodePath path = index.readPath(value.getData(), 5);
+                if (path != null) {
+                    paths.add(path);
+                }
+                return true;
+            });
+        } catch (final LockException e) {
+            PathIndex.LOG.warn("Failed to lock path index: " + e.getMessage(), e);
+        } catch (final Exception e) {
+            PathIndex.LOG.warn("Exception caught while reading path index for document " +
+                doc.getURI() + ": " + e.getMessage(), e);
+        } finally {
+            lock.release(LockMode.READ_LOCK);
+        }
+        return paths;
+    }
+
+    @Override
+    public void removeCollection(Collection collection, DBBroker broker, boolean reindex) throws PermissionDeniedException {
+        try {
+            for (final Iterator<DocumentImpl> i = collection.iterator(broker); i.hasNext(); ) {
+                removeDocument(i.next());
+            }
+        } catch (final LockException e) {
+            PathIndex.LOG.error(e);
+        }
+        // reindexing the root collection stores all documents in the index
+        if (reindex && collection.getURI().equals(XmldbURI.ROOT_COLLECTION_URI)) {
+            index.setComplete();
+        }
+    }
+
+    /**
+     * Check if the index can be used to answer queries.
+     *
+     * @return false if documents stored before the index was enabled have not been indexed yet
+     */
+    public boolean isUsable() {
+        return index.isComplete();
+    }
+
+    @Override
+    public boolean checkIndex(DBBroker broker) {
+        return false;
+    }
+
+    /**
+     * Collect the number of elements stored for every path in the given documents.
+     */
+    @Override
+    public Occurrences[] scanIndex(XQueryContext context, DocumentSet docs, NodeSet contextSet, Map<?, ?> hints) {
+        final Map<String, Occurrences> occurrences = new TreeMap<>();
+        for (final Iterator<DocumentImpl> i = docs.getDocumentIterator(); i.hasNext(); ) {
+            final DocumentImpl doc = i.next();
+            for (final NodePath path : getPathsForDoc(doc)) {
+                final String name = path.toString();
+                final IndexQuery query = new IndexQuery(IndexQuery.RANGE, new Value(computeKey(path, doc.getDocId())),
+                    new Value(computeKey(path, doc.getDocId() + 1)));
+                final Lock lock = index.btree.getLock();
+                try {
+                    lock.acquire(LockMode.READ_LOCK);
+                    index.btree.query(query, (value, pointer) -> {
+                        Occurrences oc = occurrences.get(name);
+                        if (oc == null) {
+                            oc = new Occurrences(name);
+                            occurrences.put(name, oc);
+                        }
+                        oc.addDocument(doc);
+                        oc.addOccurrences(1);
+                        return true;
+                    });
+                } catch (final LockException e) {
+                    PathIndex.LOG.warn("Failed to lock path index: " + e.getMessage(), e);
+                } catch (final Exception e) {
+                    PathIndex.LOG.warn("Exception caught while reading path index for document " +
+                        doc.getURI() + ": " + e.getMessage(), e);
+                } finally {
+                    lock.release(LockMode.READ_LOCK);
+                }
+            }
+        }
+        return occurrences.values().toArray(new Occurrences[occurrences.size()]);
+    }
+
+    @Override
+    public QueryRewriter getQueryRewriter(XQueryContext context) {
+        return new PathQueryRewriter(context);
+    }
+
+    private void addNode(NodePath path, NodeProxy proxy) {
+        List<NodeProxy> buf = pending.get(path);
+        if (buf == null) {
+            buf = new ArrayList<>(50);
+            pending.put(new NodePath(path), buf);
+        }
+        buf.add(proxy);
+    }
+
+    private byte[] computeKey(NodePath path, int documentId, NodeId nodeId) {
+        final byte[] data = new byte[5 + PathIndex.pathLength(path) + nodeId.size()];
+        data[0] = PathIndex.KEY_TYPE_PATH;
+        int offset = index.writePath(path, data, 1);
+        ByteConversion.intToByteH(documentId, data, offset);
+        nodeId.serialize(data, offset + 4);
+        return data;
+    }
+
+    private byte[] computeKey(NodePath path, int documentId) {
+        final byte[] data = new byte[5 + PathIndex.pathLength(path)];
+        data[0] = PathIndex.KEY_TYPE_PATH;
+        final int offset = index.writePath(path, data, 1);
+        ByteConversion.intToByteH(documentId, data, offset);
+        return data;
+    }
+
+    private byte[] computeDocKey(int documentId, NodePath path) {
+        final byte[] data = new byte[5 + PathIndex.pathLength(path)];
+        data[0] = PathIndex.KEY_TYPE_DOCUMENT;
+        ByteConversion.intToByteH(documentId, data, 1);
+        index.writePath(path, data, 5);
+        return data;
+    }
+
+    private byte[] computeDocKey(int documentId) {
+        final byte[] data = new byte[5];
+        data[0] = PathIndex.KEY_TYPE_DOCUMENT;
+        ByteConversion.intToByteH(documentId, data, 1);
+        return data;
+    }
+
+    private long computeValue(NodeProxy proxy) {
+        // encode the extra number of bits needed for the node id into the
+        // storage address, as done by the structural index
+        final long address = proxy.getInternalAddress();
+        final short nodeIdLen = (short)(proxy.getNodeId().units() % 8);
+        return address | ((long)(nodeIdLen << 24) & 0xFF000000L);
+    }
+
+    private NodeId readNodeId(byte[] key, long value, int offset) {
+        short bits = (short)((value >>> 24) & 0xFFL);
+        if (bits == 0)
+            {bits = 8;}
+        final int units = (key.length - offset - 1) * 8 + bits;
+        return index.getBrokerPool().getNodeFactory().createFromData(units, key, offset);
+    }
+
+    private class PathStreamListener extends AbstractStreamListener {
+
+        @Override
+        public void startElement(Txn transaction, ElementImpl element, NodePath path) {
+            super.startElement(transaction, element, path);
+            if ((mode == ReindexMode.STORE || mode == ReindexMode.REMOVE_SOME_NODES) &&
+                    PathIndex.isIndexable(path)) {
+                addNode(path, new NodeProxy(document, element.getNodeId(), Node.ELEMENT_NODE,
+                    element.getInternalAddress()));
+            }
+        }
+
+        @Override
+        public IndexWorker getWorker() {
+            return PathIndexWorker.this;
+        }
+    }
+}
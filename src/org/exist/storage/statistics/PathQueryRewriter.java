@@ -0,0 +1,95 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2015 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.storage.statistics;
+
+import org.exist.dom.QName;
+import org.exist.storage.ElementValue;
+import org.exist.storage.NodePath;
+import org.exist.xquery.*;
+import org.exist.xquery.util.ExpressionDumper;
+import org.exist.xquery.value.Type;
+
+/**
+ * Replaces a sequence of two or more child steps like <code>/TEI/text/body/div</code> with a
+ * single lookup in the {@link PathIndex}. The steps are wrapped into an extension expression
+ * with a {@link PathIndexPragma}, which falls back to the original steps if the context is not
+ * a set of stored document nodes.
+ */
+public class PathQueryRewriter extends QueryRewriter {
+
+    public PathQueryRewriter(XQueryContext context) {
+        super(context);
+    }
+
+    @Override
+    public boolean rewritePathExpr(PathExpr path) throws XPathException {
+        // BinaryOp, Predicate and friends extend PathExpr, but are not paths
+        if (path.getClass() != PathExpr.class || path.getParent() instanceof BinaryOp) {
+            return false;
+        }
+        boolean rewritten = false;
+        int start = 0;
+        while (start < path.getLength()) {
+            int end = start;
+            while (end < path.getLength() && isChildElementStep(path.getExpression(end))) {
+                end++;
+            }
+            final int length = end - start;
+            if (length > 1 && length <= PathIndex.MAX_PATH_LENGTH) {
+                final NodePath nodePath = new NodePath();
+                final PathExpr steps = new PathExpr(getContext());
+                final LocationStep[] removed = new LocationStep[length];
+                for (int i = 0; i < length; i++) {
+                    final LocationStep step = (LocationStep) path.getExpression(start + i);
+                    final QName name = step.getTest().getName();
+                    nodePath.addComponent(new QName(name.getLocalPart(), name.getNamespaceURI(), name.getPrefix(),
+                        ElementValue.ELEMENT));
+                    steps.add(step);
+                    removed[i] = step;
+                }
+                final ExtensionExpression extension = new ExtensionExpression(getContext());
+                extension.addPragma(new PathIndexPragma(getContext(), nodePath));
+                extension.setExpression(steps);
+                path.replace(removed[0], extension);
+                for (int i = 1; i < length; i++) {
+                    path.remove(removed[i]);
+                }
+                if (PathIndex.LOG.isTraceEnabled()) {
+                    PathIndex.LOG.trace("Rewritten expression: " + ExpressionDumper.dump(path));
+                }
+                rewritten = true;
+                start++;
+            } else {
+                start = end + 1;
+            }
+        }
+        return rewritten;
+    }
+
+    private static boolean isChildElementStep(Expression expr) {
+        if (!(expr instanceof LocationStep)) {
+            return false;
+        }
+        final LocationStep step = (LocationStep) expr;
+        final NodeTest test = step.getTest();
+        return step.getAxis() == Constants.CHILD_AXIS && !step.hasPredicates() &&
+            test instanceof NameTest && test.getType() == Type.ELEMENT && !test.isWildcardTest();
+    }
+}
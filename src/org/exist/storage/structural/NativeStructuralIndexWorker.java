@@ -127,6 +127,7 @@ public class NativeStructuralIndexWorker implements IndexWorker, StructuralIndex
                 lock.release(LockMode.READ_LOCK);
             }
         }
+        QueryResourceUsage.indexLookup("structural", result.getLength());
         return result;
     }
 
@@ -213,6 +214,7 @@ public class NativeStructuralIndexWorker implements IndexWorker, StructuralIndex
             lock.release(LockMode.READ_LOCK);
         }
         result.updateNoSort();
+        QueryResourceUsage.indexLookup("structural", result.getLength());
         return result;
     }
 
@@ -258,6 +260,7 @@ public class NativeStructuralIndexWorker implements IndexWorker, StructuralIndex
             lock.release(LockMode.READ_LOCK);
         }
         result.sort(true);
+        QueryResourceUsage.indexLookup("structural", result.getLength());
         return result;
     }
 
@@ -298,6 +301,7 @@ public class NativeStructuralIndexWorker implements IndexWorker, StructuralIndex
             }
         }
 //        result.updateNoSort();
+        QueryResourceUsage.indexLookup("structural", result.getLength());
         return result;
     }
     
@@ -585,6 +589,39 @@ public class NativeStructuralIndexWorker implements IndexWorker, StructuralIndex
         return qnames;
     }
 
+    @Override
+    public boolean hasElementsInNamespace(final DocumentImpl doc, final String namespaceURI) {
+        if (index.btree == null) {
+            return false;
+        }
+        final SymbolTable symbols = index.getBrokerPool().getSymbols();
+        final byte[] fromKey = computeDocKey(doc.getDocId());
+        final byte[] toKey = computeDocKey(doc.getDocId() + 1);
+        final IndexQuery query = new IndexQuery(IndexQuery.RANGE, new Value(fromKey), new Value(toKey));
+        final boolean[] found = { false };
+        final Lock lock = index.btree.getLock();
+        try {
+            lock.acquire(LockMode.READ_LOCK);
+            index.btree.query(query, (value, pointer) -> {
+                // compare the namespace symbol only: looking up the qname would create missing symbols
+                final byte[] key = value.getData();
+                if (!found[0] && key[5] == ElementValue.ELEMENT &&
+                        namespaceURI.equals(symbols.getNamespace(ByteConversion.byteToShortH(key, 8)))) {
+                    found[0] = true;
+                }
+                return !found[0];
+            });
+        } catch (final LockException e) {
+            NativeStructuralIndex.LOG.warn("Failed to lock structural index: " + e.getMessage(), e);
+        } catch (final Exception e) {
+            NativeStructuralIndex.LOG.warn("Exception caught while reading structural index for document " +
+                doc.getURI() + ": " + e.getMessage(), e);
+        } finally {
+            lock.release(LockMode.READ_LOCK);
+        }
+        return found[0];
+    }
+
     @Override
     public void removeCollection(Collection collection, DBBroker broker, boolean reindex) throws PermissionDeniedException {
         try {
@@ -87,7 +87,7 @@ public class SyncTask implements SystemTask {
 
         if(System.currentTimeMillis() - pool.getLastMajorSync() >
                 pool.getMajorSyncPeriod()) {
-            pool.sync(broker, Sync.MAJOR);
+            pool.majorSync(broker);
         } else {
             pool.sync(broker, Sync.MINOR);
         }
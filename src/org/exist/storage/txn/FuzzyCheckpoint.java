@@ -0,0 +1,112 @@
+/*
+ * eXist Open Source Native XML Database
+ * Copyright (C) 2001-2016 The eXist Project
+ * http://exist-db.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.exist.storage.txn;
+
+import java.nio.ByteBuffer;
+import java.text.DateFormat;
+import java.util.Arrays;
+import java.util.Date;
+
+import org.exist.storage.DBBroker;
+import org.exist.storage.journal.AbstractLoggable;
+import org.exist.storage.journal.LogEntryTypes;
+import org.exist.storage.journal.Lsn;
+
+/**
+ * Written when a fuzzy checkpoint has completed. All pages which were dirty when the
+ * checkpoint started have been written to disk, so recovery can start to redo at the
+ * redo LSN, which is the end of the journal at the start of the checkpoint. The record
+ * also lists the transactions which were running at that time, as their start records
+ * are found before the redo LSN.
+ *
+ * Unlike a {@link Checkpoint}, a fuzzy checkpoint does not mark the database as clean.
+ */
+public class FuzzyCheckpoint extends AbstractLoggable {
+
+    /** the maximum number of running transactions which can be recorded */
+    public static final int MAX_TRANSACTIONS = (Short.MAX_VALUE - 20) / 8;
+
+    private long redoLsn;
+    private long timestamp;
+    private long[] transactions;
+
+    private final DateFormat df =
+        DateFormat.getDateTimeInstance(DateFormat.MEDIUM, DateFormat.MEDIUM);
+
+    public FuzzyCheckpoint(final long transactionId, final long redoLsn, final long[] transactions) {
+        super(LogEntryTypes.FUZZY_CHECKPOINT, transactionId);
+        this.redoLsn = redoLsn;
+        this.transactions = transactions;
+        this.timestamp = new Date().getTime();
+    }
+
+    public FuzzyCheckpoint(final DBBroker broker, final long transactionId) {
+        super(LogEntryTypes.FUZZY_CHECKPOINT, transactionId);
+    }
+
+    @Override
+    public void write(final ByteBuffer out) {
+        out.putLong(redoLsn);
+        out.putLong(timestamp);
+        out.putShort((short) transactions.length);
+        for (final long txnId : transactions) {
+            out.putLong(txnId);
+        }
+    }
+
+    @Override
+    public void read(final ByteBuffer in) {
+        redoLsn = in.getLong();
+        timestamp = in.getLong();
+        transactions = new long[in.getShort()];
+        for (int i = 0; i < transactions.length; i++) {
+            transactions[i] = in.getLong();
+        }
+    }
+
+    @Override
+    public int getLogSize() {
+        return 18 + 8 * transactions.length;
+    }
+
+    /**
+     * @return the LSN of the first entry which may need to be redone
+     */
+    public long getRedoLsn() {
+        return redoLsn;
+    }
+
+    /**
+     * @return the ids of the transactions running when the checkpoint started
+     */
+    public long[] getTransactions() {
+        return transactions;
+    }
+
+    public String getDateString() {
+        return df.format(new Date(timestamp));
+    }
+
+    @Override
+    public String dump() {
+        return super.dump() + " - fuzzy checkpoint at " + df.format(new Date(timestamp)) +
+                "; redo from " + Lsn.dump(redoLsn) + "; running: " + Arrays.toString(transactions);
+    }
+}
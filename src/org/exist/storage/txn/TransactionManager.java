@@ -29,6 +29,7 @@ import org.exist.security.PermissionDeniedException;
 import org.exist.storage.*;
 import org.exist.storage.journal.JournalException;
 import org.exist.storage.journal.JournalManager;
+import org.exist.storage.journal.Lsn;
 import org.exist.xmldb.XmldbURI;
 
 import java.io.IOException;
@@ -90,7 +91,7 @@ public class TransactionManager implements BrokerPoolService {
      * be logged to disk immediately. 
      */
     public Txn beginTransaction() {
-        return withLock(broker -> {
+        return withLockResult(broker -> {
             final long txnId = nextTxnId++;
             if(LOG.isDebugEnabled()) {
                 LOG.debug("Starting new transaction: " + txnId);
@@ -232,6 +233,52 @@ public class TransactionManager implements BrokerPoolService {
         }
     }
 
+    /**
+     * Start a fuzzy checkpoint (see {@link org.exist.storage.PageWriter}). Flushes the journal
+     * and records its end as the LSN at which recovery may start to redo, together with the
+     * transactions running at this point. No transaction can start or end meanwhile, so an
+     * entry before the redo LSN either belongs to one of these transactions or to a transaction
+     * which has completed.
+     *
+     * @return the record to write once all dirty pages have been written, or null if there
+     *     is no journal or too many transactions are running
+     */
+    public FuzzyCheckpoint beginFuzzyCheckpoint() {
+        if (!journalManager.isPresent()) {
+            return null;
+        }
+        return withLockResult(broker -> {
+            if (transactions.size() > FuzzyCheckpoint.MAX_TRANSACTIONS) {
+                LOG.info("Too many running transactions for a fuzzy checkpoint: " + transactions.size());
+                return null;
+            }
+            journalManager.get().flush(false, false);
+            final long lastLsn = journalManager.get().lastWrittenLsn();
+            if (lastLsn == Lsn.LSN_INVALID) {
+                return null;
+            }
+            final long[] running = transactions.keySet().stream().mapToLong(Long::longValue).toArray();
+            return new FuzzyCheckpoint(nextTxnId++, lastLsn + 1, running);
+        });
+    }
+
+    /**
+     * Complete a fuzzy checkpoint by writing its record to the journal. Must only be
+     * called after all pages which were dirty at the start of the checkpoint have been written.
+     *
+     * @param checkpoint the record returned by {@link #beginFuzzyCheckpoint()}
+     */
+    public void endFuzzyCheckpoint(final FuzzyCheckpoint checkpoint) {
+        if (journalManager.isPresent()) {
+            try {
+                journalManager.get().journal(checkpoint);
+                journalManager.get().flush(true, true);
+            } catch (final JournalException e) {
+                LOG.warn("Failed to write fuzzy checkpoint record: " + e.getMessage(), e);
+            }
+        }
+    }
+
     /**
      * @Deprecated This mixes concerns and should not be here.
      */
@@ -308,7 +355,7 @@ public class TransactionManager implements BrokerPoolService {
      */
     @GuardedBy("lock")
     private void withLock(final Consumer<DBBroker> lockedCn) {
-        withLock(broker -> {
+        withLockResult(broker -> {
             lockedCn.accept(broker);
             return null;
         });
@@ -325,7 +372,7 @@ public class TransactionManager implements BrokerPoolService {
      * @return The result of lockedFn
      */
     @GuardedBy("lock")
-    private <T> T withLock(final Function<DBBroker, T> lockedFn) {
+    private <T> T withLockResult(final Function<DBBroker, T> lockedFn) {
         try(final DBBroker broker = pool.getBroker()) {
             try {
                 lock.lock();
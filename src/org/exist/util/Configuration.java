@@ -22,6 +22,7 @@ package org.exist.util;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import org.exist.collections.MutableCollection;
 import org.exist.backup.SystemExport;
 import org.exist.repo.Deployment;
 
@@ -41,16 +42,21 @@ import org.exist.indexing.IndexManager;
 import org.exist.dom.memtree.SAXAdapter;
 import org.exist.scheduler.JobConfig;
 import org.exist.scheduler.JobException;
+import org.exist.security.internal.AuthenticationCache;
 import org.exist.security.internal.RealmImpl;
 import org.exist.storage.BrokerFactory;
 import org.exist.storage.BrokerPool;
 import org.exist.storage.CollectionCacheManager;
 import org.exist.storage.DBBroker;
+import org.exist.storage.CompressedDocumentCache;
 import org.exist.storage.DefaultCacheManager;
 import org.exist.storage.IndexSpec;
 import org.exist.storage.NativeBroker;
 import org.exist.storage.NativeValueIndex;
+import org.exist.storage.PageWriter;
+import org.exist.storage.ResponseCache;
 import org.exist.storage.XQueryPool;
+import org.exist.storage.dom.NodeValueCache;
 import org.exist.storage.journal.Journal;
 import org.exist.storage.serializers.CustomMatchListenerFactory;
 import org.exist.storage.serializers.Serializer;
@@ -58,10 +64,13 @@ import org.exist.storage.txn.TransactionManager;
 import org.exist.validation.GrammarPool;
 import org.exist.validation.resolver.eXistXMLCatalogResolver;
 import org.exist.xmldb.DatabaseImpl;
+import org.exist.xmlrpc.QueryResultCache;
+import org.exist.xquery.DocumentSetCache;
 import org.exist.xquery.FunctionFactory;
 import org.exist.xquery.PerformanceStats;
 import org.exist.xquery.XQueryContext;
 import org.exist.xquery.XQueryWatchDog;
+import org.exist.xslt.TemplatesCache;
 import org.exist.xslt.TransformerFactoryAllocator;
 
 import java.io.IOException;
@@ -329,6 +338,18 @@ public class Configuration implements ErrorHandler
         config.put( XQueryContext.PROPERTY_XQUERY_RAISE_ERROR_ON_FAILED_RETRIEVAL, Configuration.parseBoolean( raiseErrorOnFailedRetrieval, XQueryContext.XQUERY_RAISE_ERROR_ON_FAILED_RETRIEVAL_DEFAULT ) );
         LOG.debug( XQueryContext.PROPERTY_XQUERY_RAISE_ERROR_ON_FAILED_RETRIEVAL + ": " + config.get( XQueryContext.PROPERTY_XQUERY_RAISE_ERROR_ON_FAILED_RETRIEVAL ) );
 
+        final String documentSetCacheSize = getConfigAttributeValue( xquery, DocumentSetCache.CACHE_SIZE_ATTRIBUTE );
+        if( documentSetCacheSize != null ) {
+
+            try {
+                config.put( DocumentSetCache.PROPERTY_CACHE_SIZE, Integer.valueOf( documentSetCacheSize ) );
+                LOG.debug( DocumentSetCache.PROPERTY_CACHE_SIZE + ": " + config.get( DocumentSetCache.PROPERTY_CACHE_SIZE ) );
+            }
+            catch( final NumberFormatException nfe ) {
+                LOG.warn( nfe );
+            }
+        }
+
         final String trace = getConfigAttributeValue( xquery, PerformanceStats.CONFIG_ATTR_TRACE );
         config.put( PerformanceStats.CONFIG_PROPERTY_TRACE, trace );
 
@@ -536,6 +557,19 @@ public class Configuration implements ErrorHandler
             config.put( TransformerFactoryAllocator.PROPERTY_CACHING_ATTRIBUTE, parseBoolean( cachingValue, false ) );
             LOG.debug( TransformerFactoryAllocator.PROPERTY_CACHING_ATTRIBUTE + ": " + config.get( TransformerFactoryAllocator.PROPERTY_CACHING_ATTRIBUTE ) );
         }
+
+        final String cacheSize = getConfigAttributeValue( transformer, TemplatesCache.CACHE_SIZE_ATTRIBUTE );
+
+        if( cacheSize != null ) {
+
+            try {
+                config.put( TemplatesCache.PROPERTY_CACHE_SIZE, Integer.valueOf( cacheSize ) );
+                LOG.debug( TemplatesCache.PROPERTY_CACHE_SIZE + ": " + config.get( TemplatesCache.PROPERTY_CACHE_SIZE ) );
+            }
+            catch( final NumberFormatException nfe ) {
+                LOG.warn( nfe );
+            }
+        }
     }
 
     private void configureParser(final Element parser) {
@@ -854,6 +888,93 @@ public class Configuration implements ErrorHandler
             }
         }
 
+        final String lazyLoadThreshold = getConfigAttributeValue( con, MutableCollection.LAZY_LOAD_THRESHOLD_ATTRIBUTE );
+
+        if( lazyLoadThreshold != null ) {
+
+            try {
+                config.put( MutableCollection.PROPERTY_LAZY_LOAD_THRESHOLD, Integer.valueOf(lazyLoadThreshold) );
+                LOG.debug( MutableCollection.PROPERTY_LAZY_LOAD_THRESHOLD + ": " + config.get( MutableCollection.PROPERTY_LAZY_LOAD_THRESHOLD ) );
+            }
+            catch( final NumberFormatException nfe ) {
+                LOG.warn( nfe );
+            }
+        }
+
+        String nodeValueCache = getConfigAttributeValue( con, NodeValueCache.CACHE_SIZE_ATTRIBUTE );
+
+        if( nodeValueCache != null ) {
+
+            if( nodeValueCache.endsWith( "M" ) || nodeValueCache.endsWith( "m" ) ) {
+                nodeValueCache = nodeValueCache.substring( 0, nodeValueCache.length() - 1 );
+            }
+
+            try {
+                config.put( NodeValueCache.PROPERTY_CACHE_SIZE, Integer.valueOf(nodeValueCache) );
+                LOG.debug( NodeValueCache.PROPERTY_CACHE_SIZE + ": " + config.get( NodeValueCache.PROPERTY_CACHE_SIZE ) + "m" );
+            }
+            catch( final NumberFormatException nfe ) {
+                LOG.warn( nfe );
+            }
+        }
+
+        configureMaxEntrySize( con, NodeValueCache.MAX_ENTRY_SIZE_ATTRIBUTE, NodeValueCache.PROPERTY_MAX_ENTRY_SIZE );
+
+        String responseCache = getConfigAttributeValue( con, ResponseCache.CACHE_SIZE_ATTRIBUTE );
+
+        if( responseCache != null ) {
+
+            if( responseCache.endsWith( "M" ) || responseCache.endsWith( "m" ) ) {
+                responseCache = responseCache.substring( 0, responseCache.length() - 1 );
+            }
+
+            try {
+                config.put( ResponseCache.PROPERTY_CACHE_SIZE, Integer.valueOf(responseCache) );
+                LOG.debug( ResponseCache.PROPERTY_CACHE_SIZE + ": " + config.get( ResponseCache.PROPERTY_CACHE_SIZE ) + "m" );
+            }
+            catch( final NumberFormatException nfe ) {
+                LOG.warn( nfe );
+            }
+        }
+
+        configureMaxEntrySize( con, ResponseCache.MAX_ENTRY_SIZE_ATTRIBUTE, ResponseCache.PROPERTY_MAX_ENTRY_SIZE );
+
+        String queryResultCache = getConfigAttributeValue( con, QueryResultCache.CACHE_SIZE_ATTRIBUTE );
+
+        if( queryResultCache != null && !queryResultCache.isEmpty() ) {
+
+            if( queryResultCache.endsWith( "M" ) || queryResultCache.endsWith( "m" ) ) {
+                queryResultCache = queryResultCache.substring( 0, queryResultCache.length() - 1 );
+            }
+
+            try {
+                config.put( QueryResultCache.PROPERTY_CACHE_SIZE, Integer.valueOf(queryResultCache) );
+                LOG.debug( QueryResultCache.PROPERTY_CACHE_SIZE + ": " + config.get( QueryResultCache.PROPERTY_CACHE_SIZE ) + "m" );
+            }
+            catch( final NumberFormatException nfe ) {
+                LOG.warn( nfe );
+            }
+        }
+
+        String compressedDocumentCache = getConfigAttributeValue( con, CompressedDocumentCache.CACHE_SIZE_ATTRIBUTE );
+
+        if( compressedDocumentCache != null ) {
+
+            if( compressedDocumentCache.endsWith( "M" ) || compressedDocumentCache.endsWith( "m" ) ) {
+                compressedDocumentCache = compressedDocumentCache.substring( 0, compressedDocumentCache.length() - 1 );
+            }
+
+            try {
+                config.put( CompressedDocumentCache.PROPERTY_CACHE_SIZE, Integer.valueOf(compressedDocumentCache) );
+                LOG.debug( CompressedDocumentCache.PROPERTY_CACHE_SIZE + ": " + config.get( CompressedDocumentCache.PROPERTY_CACHE_SIZE ) + "m" );
+            }
+            catch( final NumberFormatException nfe ) {
+                LOG.warn( nfe );
+            }
+        }
+
+        configureMaxEntrySize( con, CompressedDocumentCache.MAX_ENTRY_SIZE_ATTRIBUTE, CompressedDocumentCache.PROPERTY_MAX_ENTRY_SIZE );
+
         final String pageSize = getConfigAttributeValue( con, NativeBroker.PAGE_SIZE_ATTRIBUTE );
 
         if( pageSize != null ) {
@@ -981,7 +1102,10 @@ public class Configuration implements ErrorHandler
 
         if( securityConf.getLength() > 0 ) {
             final Element security = (Element)securityConf.item( 0 );
-            securityManagerClassName = getConfigAttributeValue( security, "class" );
+            final String className = getConfigAttributeValue( security, "class" );
+            if( className != null ) {
+                securityManagerClassName = className;
+            }
 
             //Unused
             final String encoding = getConfigAttributeValue( security, "password-encoding" );
@@ -998,6 +1122,28 @@ public class Configuration implements ErrorHandler
             } else {
                 LOG.info( "No password realm set, defaulting." );
             }
+
+            final String authCacheSize = getConfigAttributeValue( security, "authentication-cache-size" );
+            if( authCacheSize != null ) {
+                try {
+                    config.put( AuthenticationCache.PROPERTY_CACHE_SIZE, Integer.valueOf( authCacheSize ) );
+                    LOG.debug( AuthenticationCache.PROPERTY_CACHE_SIZE + ": " + config.get( AuthenticationCache.PROPERTY_CACHE_SIZE ) );
+                }
+                catch( final NumberFormatException nfe ) {
+                    LOG.warn( nfe );
+                }
+            }
+
+            final String authCacheTtl = getConfigAttributeValue( security, "authentication-cache-ttl" );
+            if( authCacheTtl != null ) {
+                try {
+                    config.put( AuthenticationCache.PROPERTY_CACHE_TTL, Integer.valueOf( authCacheTtl ) );
+                    LOG.debug( AuthenticationCache.PROPERTY_CACHE_TTL + ": " + config.get( AuthenticationCache.PROPERTY_CACHE_TTL ) );
+                }
+                catch( final NumberFormatException nfe ) {
+                    LOG.warn( nfe );
+                }
+            }
         }
 
         try {
@@ -1059,6 +1205,32 @@ public class Configuration implements ErrorHandler
         setProperty( Journal.PROPERTY_RECOVERY_SYNC_ON_COMMIT, parseBoolean( option, true ) );
         LOG.debug( Journal.PROPERTY_RECOVERY_SYNC_ON_COMMIT + ": " + config.get( Journal.PROPERTY_RECOVERY_SYNC_ON_COMMIT ) );
 
+        option = getConfigAttributeValue( recovery, Journal.RECOVERY_COMPRESS_ATTRIBUTE );
+        setProperty( Journal.PROPERTY_RECOVERY_COMPRESS, parseBoolean( option, false ) );
+        LOG.debug( Journal.PROPERTY_RECOVERY_COMPRESS + ": " + config.get( Journal.PROPERTY_RECOVERY_COMPRESS ) );
+
+        option = getConfigAttributeValue( recovery, Journal.RECOVERY_PREALLOCATE_ATTRIBUTE );
+        setProperty( Journal.PROPERTY_RECOVERY_PREALLOCATE, parseBoolean( option, false ) );
+        LOG.debug( Journal.PROPERTY_RECOVERY_PREALLOCATE + ": " + config.get( Journal.PROPERTY_RECOVERY_PREALLOCATE ) );
+
+        option = getConfigAttributeValue( recovery, PageWriter.RECOVERY_FUZZY_CHECKPOINT_ATTRIBUTE );
+        setProperty( PageWriter.PROPERTY_RECOVERY_FUZZY_CHECKPOINT, parseBoolean( option, true ) );
+        LOG.debug( PageWriter.PROPERTY_RECOVERY_FUZZY_CHECKPOINT + ": " + config.get( PageWriter.PROPERTY_RECOVERY_FUZZY_CHECKPOINT ) );
+
+        option = getConfigAttributeValue( recovery, PageWriter.RECOVERY_CHECKPOINT_RATE_ATTRIBUTE );
+
+        if( option != null ) {
+
+            try {
+                final Integer rate = Integer.valueOf( option );
+                setProperty( PageWriter.PROPERTY_RECOVERY_CHECKPOINT_RATE, rate );
+                LOG.debug( PageWriter.PROPERTY_RECOVERY_CHECKPOINT_RATE + ": " + config.get( PageWriter.PROPERTY_RECOVERY_CHECKPOINT_RATE ) );
+            }
+            catch( final NumberFormatException e ) {
+                throw( new DatabaseConfigurationException( "checkpoint-rate attribute in recovery section needs to be a number" ) );
+            }
+        }
+
         option = getConfigAttributeValue( recovery, BrokerPool.RECOVERY_GROUP_COMMIT_ATTRIBUTE );
         setProperty( BrokerPool.PROPERTY_RECOVERY_GROUP_COMMIT, parseBoolean( option, false ) );
         LOG.debug( BrokerPool.PROPERTY_RECOVERY_GROUP_COMMIT + ": " + config.get( BrokerPool.PROPERTY_RECOVERY_GROUP_COMMIT ) );
@@ -1145,6 +1317,32 @@ public class Configuration implements ErrorHandler
                 LOG.warn( e );
             }
         }
+
+        final String slowQueryTime = getConfigAttributeValue( watchDog, "slow-query-time" );
+
+        if( slowQueryTime != null ) {
+
+            try {
+                config.put( XQueryWatchDog.PROPERTY_SLOW_QUERY_TIME, Long.valueOf(slowQueryTime) );
+                LOG.debug( XQueryWatchDog.PROPERTY_SLOW_QUERY_TIME + ": " + config.get( XQueryWatchDog.PROPERTY_SLOW_QUERY_TIME ) );
+            }
+            catch( final NumberFormatException e ) {
+                LOG.warn( e );
+            }
+        }
+
+        final String slowQueryPages = getConfigAttributeValue( watchDog, "slow-query-pages" );
+
+        if( slowQueryPages != null ) {
+
+            try {
+                config.put( XQueryWatchDog.PROPERTY_SLOW_QUERY_PAGES, Long.valueOf(slowQueryPages) );
+                LOG.debug( XQueryWatchDog.PROPERTY_SLOW_QUERY_PAGES + ": " + config.get( XQueryWatchDog.PROPERTY_SLOW_QUERY_PAGES ) );
+            }
+            catch( final NumberFormatException e ) {
+                LOG.warn( e );
+            }
+        }
     }
 
 
@@ -1362,6 +1560,13 @@ public class Configuration implements ErrorHandler
             LOG.debug( NativeValueIndex.PROPERTY_INDEX_CASE_SENSITIVE + ": " + config.get( NativeValueIndex.PROPERTY_INDEX_CASE_SENSITIVE ) );
         }
 
+        final String valueIndexNGrams = getConfigAttributeValue( indexer, NativeValueIndex.INDEX_NGRAMS_ATTRIBUTE );
+
+        if( valueIndexNGrams != null ) {
+            config.put( NativeValueIndex.PROPERTY_INDEX_NGRAMS, parseBoolean( valueIndexNGrams, false ) );
+            LOG.debug( NativeValueIndex.PROPERTY_INDEX_NGRAMS + ": " + config.get( NativeValueIndex.PROPERTY_INDEX_NGRAMS ) );
+        }
+
         int    depth      = 3;
         final String indexDepth = getConfigAttributeValue( indexer, NativeBroker.INDEX_DEPTH_ATTRIBUTE );
 
@@ -1538,7 +1743,35 @@ public class Configuration implements ErrorHandler
     	
     	return( value );
     }
-    
+
+    /**
+     * Reads the maximum size of a single cache entry in kilobytes, see
+     * {@link #getMaxEntrySize(String, long)}.
+     *
+     * @param  element        The attribute's parent element
+     * @param  attributeName  The name of the attribute
+     * @param  propertyName   The name of the property to set
+     */
+    private void configureMaxEntrySize( final Element element, final String attributeName, final String propertyName )
+    {
+        String maxEntrySize = getConfigAttributeValue( element, attributeName );
+
+        if( maxEntrySize != null && !maxEntrySize.isEmpty() ) {
+
+            if( maxEntrySize.endsWith( "K" ) || maxEntrySize.endsWith( "k" ) ) {
+                maxEntrySize = maxEntrySize.substring( 0, maxEntrySize.length() - 1 );
+            }
+
+            try {
+                config.put( propertyName, Integer.valueOf(maxEntrySize) );
+                LOG.debug( propertyName + ": " + config.get( propertyName ) + "k" );
+            }
+            catch( final NumberFormatException nfe ) {
+                LOG.warn( nfe );
+            }
+        }
+    }
+
     /**
      * Generates a suitable system property name from the given config attribute and parent element.
      *
@@ -1626,6 +1859,20 @@ public class Configuration implements ErrorHandler
                 .orElse(-1);
     }
 
+    /**
+     * Returns the maximum size of a single entry in one of the memory or disk caches,
+     * which is configured in kilobytes. Defaults to a quarter of the cache size.
+     *
+     * @param   name       the name of the property holding the configured size
+     * @param   cacheSize  the size of the cache in bytes
+     *
+     * @return  the maximum size of an entry in bytes
+     */
+    public long getMaxEntrySize(final String name, final long cacheSize) {
+        final int maxEntrySize = getInteger(name);
+        return maxEntrySize > 0 ? maxEntrySize * 1024L : cacheSize / 4;
+    }
+
 
     /**
      * (non-Javadoc).
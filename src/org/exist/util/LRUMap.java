@@ -0,0 +1,71 @@
+/*
+ * eXist Open Source Native XML Database
+ * Copyright (C) 2001-2016 The eXist Project
+ * http://exist-db.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.exist.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import net.jcip.annotations.NotThreadSafe;
+
+/**
+ * A map in access order which removes the least recently used entry
+ * once it holds more than a maximum number of entries.
+ *
+ * @param <K> the type of the keys
+ * @param <V> the type of the values
+ */
+@NotThreadSafe
+public class LRUMap<K, V> extends LinkedHashMap<K, V> {
+
+    private static final long serialVersionUID = -2479011435384346349L;
+
+    private int maxSize;
+
+    /**
+     * @param initialCapacity the initial capacity of the map
+     * @param maxSize the maximum number of entries
+     */
+    public LRUMap(final int initialCapacity, final int maxSize) {
+        super(initialCapacity, 0.75f, true);
+        this.maxSize = maxSize;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Change the maximum number of entries. If the map holds more entries,
+     * the least recently used ones are removed.
+     *
+     * @param maxSize the maximum number of entries
+     */
+    public void setMaxSize(final int maxSize) {
+        this.maxSize = maxSize;
+        while (size() > maxSize) {
+            remove(keySet().iterator().next());
+        }
+    }
+
+    @Override
+    protected boolean removeEldestEntry(final Map.Entry<K, V> eldest) {
+        return size() > maxSize;
+    }
+}
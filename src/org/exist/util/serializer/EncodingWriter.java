@@ -0,0 +1,357 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2015 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.util.serializer;
+
+import org.exist.dom.QName;
+import org.exist.xquery.QueryResourceUsage;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.charset.IllegalCharsetNameException;
+import java.nio.charset.StandardCharsets;
+import java.nio.charset.UnsupportedCharsetException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A writer which encodes characters directly into a byte buffer and writes the buffer
+ * to an output stream when it is full, replacing an {@link java.io.OutputStreamWriter}.
+ * UTF-8, ISO-8859-1 and US-ASCII are supported. Characters which cannot be encoded are
+ * replaced by '?', like the JDK encoders do.
+ *
+ * The encoded bytes of qualified names and namespace declarations are cached, so
+ * {@link XMLWriter} can write them as a single block. Instances are pooled by the
+ * {@link SerializerPool}, see {@link SerializerPool#borrowWriter(OutputStream, String)}.
+ * An instance is not thread safe.
+ */
+public final class EncodingWriter extends Writer {
+
+    private static final int BUFFER_SIZE = 8192;
+
+    /**
+     * Maximum number of cached names or namespace declarations. The caches
+     * are cleared if the limit is exceeded.
+     */
+    private static final int MAX_CACHED = 1024;
+
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private int length = 0;
+    private OutputStream os = null;
+
+    private Charset charset = StandardCharsets.UTF_8;
+    // the highest character which can be written as a single byte, or -1 for UTF-8
+    private int maxChar = -1;
+    // a high surrogate waiting for the low surrogate written with the next call
+    private char highSurrogate = 0;
+
+    private Charset cacheCharset = null;
+    private final Map<QName, CachedBytes> qnames = new HashMap<>();
+    private final Map<String, CachedBytes> namespaces = new HashMap<>();
+    private final Map<String, CachedBytes> defaultNamespaces = new HashMap<>();
+
+    public EncodingWriter() {
+        super();
+    }
+
+    /**
+     * @param encoding the name of an encoding
+     * @return true if the encoding is supported by this writer
+     */
+    public static boolean isSupported(final String encoding) {
+        return getSupportedCharset(encoding) != null;
+    }
+
+    private static Charset getSupportedCharset(final String encoding) {
+        if (encoding == null) {
+            return null;
+        }
+        final Charset charset;
+        try {
+            charset = Charset.forName(encoding);
+        } catch (final IllegalCharsetNameException | UnsupportedCharsetException e) {
+            return null;
+        }
+        if (charset.equals(StandardCharsets.UTF_8) || charset.equals(StandardCharsets.ISO_8859_1)
+                || charset.equals(StandardCharsets.US_ASCII)) {
+            return charset;
+        }
+        return null;
+    }
+
+    /**
+     * Sets the stream to write to and the encoding to use.
+     *
+     * @param os the output stream
+     * @param encoding the encoding, which has to be {@link #isSupported(String) supported}
+     */
+    public void setOutput(final OutputStream os, final String encoding) {
+        final Charset charset = getSupportedCharset(encoding);
+        if (charset == null) {
+            throw new IllegalArgumentException("Unsupported encoding: " + encoding);
+        }
+        this.os = os;
+        this.charset = charset;
+        if (charset.equals(StandardCharsets.ISO_8859_1)) {
+            maxChar = 0xFF;
+        } else if (charset.equals(StandardCharsets.US_ASCII)) {
+            maxChar = 0x7F;
+        } else {
+            maxChar = -1;
+        }
+        if (!charset.equals(cacheCharset)) {
+            qnames.clear();
+            namespaces.clear();
+            defaultNamespaces.clear();
+            cacheCharset = charset;
+        }
+        length = 0;
+        highSurrogate = 0;
+    }
+
+    public Charset getCharset() {
+        return charset;
+    }
+
+    /**
+     * Detaches the writer from its output stream, discarding unwritten data.
+     */
+    public void reset() {
+        os = null;
+        length = 0;
+        highSurrogate = 0;
+    }
+
+    @Override
+    public void write(final int c) throws IOException {
+        if (c < 0x80 && highSurrogate == 0) {
+            if (length == buffer.length) {
+                flushBuffer();
+            }
+            buffer[length++] = (byte) c;
+        } else {
+            writeChar((char) c);
+        }
+    }
+
+    @Override
+    public void write(final char[] cbuf, final int off, final int len) throws IOException {
+        final int end = off + len;
+        for (int i = off; i < end; i++) {
+            final char c = cbuf[i];
+            if (c < 0x80 && highSurrogate == 0) {
+                if (length == buffer.length) {
+                    flushBuffer();
+                }
+                buffer[length++] = (byte) c;
+            } else {
+                writeChar(c);
+            }
+        }
+    }
+
+    @Override
+    public void write(final String str, final int off, final int len) throws IOException {
+        write((CharSequence) str, off, off + len);
+    }
+
+    @Override
+    public void write(final String str) throws IOException {
+        write((CharSequence) str, 0, str.length());
+    }
+
+    /**
+     * Writes a part of a character sequence.
+     *
+     * @param s the characters
+     * @param start the index of the first character
+     * @param end the index after the last character
+     */
+    public void write(final CharSequence s, final int start, final int end) throws IOException {
+        for (int i = start; i < end; i++) {
+            final char c = s.charAt(i);
+            if (c < 0x80 && highSurrogate == 0) {
+                if (length == buffer.length) {
+                    flushBuffer();
+                }
+                buffer[length++] = (byte) c;
+            } else {
+                writeChar(c);
+            }
+        }
+    }
+
+    /**
+     * Writes the qualified name as prefix:local-name, or as local name if it has no prefix.
+     */
+    public void writeQName(final QName qname) throws IOException {
+        final String prefix = qname.getPrefix() == null ? "" : qname.getPrefix();
+        CachedBytes cached = qnames.get(qname);
+        if (cached == null || !cached.key.equals(prefix)) {
+            final String name = prefix.isEmpty() ? qname.getLocalPart() : prefix + ':' + qname.getLocalPart();
+            cached = new CachedBytes(prefix, encode(name));
+            put(qnames, qname, cached);
+        }
+        writeBytes(cached.bytes);
+    }
+
+    /**
+     * Writes a namespace declaration attribute. The namespace URI is written as it is,
+     * so the caller has to make sure it contains no characters which need to be escaped.
+     *
+     * @param prefix the prefix, or the empty string for the default namespace
+     * @param namespaceURI the namespace URI
+     */
+    public void writeNamespaceDeclaration(final String prefix, final String namespaceURI) throws IOException {
+        final Map<String, CachedBytes> cache = prefix.isEmpty() ? defaultNamespaces : namespaces;
+        CachedBytes cached = cache.get(namespaceURI);
+        if (cached == null || !cached.key.equals(prefix)) {
+            final String declaration = prefix.isEmpty() ?
+                " xmlns=\"" + namespaceURI + '"' : " xmlns:" + prefix + "=\"" + namespaceURI + '"';
+            cached = new CachedBytes(prefix, encode(declaration));
+            put(cache, namespaceURI, cached);
+        }
+        writeBytes(cached.bytes);
+    }
+
+    private static <K> void put(final Map<K, CachedBytes> cache, final K key, final CachedBytes value) {
+        if (cache.size() >= MAX_CACHED) {
+            cache.clear();
+        }
+        cache.put(key, value);
+    }
+
+    private byte[] encode(final String s) {
+        if (maxChar < 0) {
+            return s.getBytes(StandardCharsets.UTF_8);
+        }
+        return s.getBytes(charset);
+    }
+
+    private void writeBytes(final byte[] bytes) throws IOException {
+        if (highSurrogate != 0) {
+            highSurrogate = 0;
+            writeByte('?');
+        }
+        if (bytes.length > buffer.length - length) {
+            flushBuffer();
+            if (bytes.length > buffer.length) {
+                os.write(bytes);
+                QueryResourceUsage.serialized(bytes.length);
+                return;
+            }
+        }
+        System.arraycopy(bytes, 0, buffer, length, bytes.length);
+        length += bytes.length;
+    }
+
+    private void writeChar(final char c) throws IOException {
+        if (highSurrogate != 0) {
+            final char high = highSurrogate;
+            highSurrogate = 0;
+            if (Character.isLowSurrogate(c)) {
+                writeCodePoint(Character.toCodePoint(high, c));
+                return;
+            }
+            writeByte('?');
+        }
+        if (Character.isHighSurrogate(c)) {
+            highSurrogate = c;
+        } else if (Character.isLowSurrogate(c)) {
+            writeByte('?');
+        } else {
+            writeCodePoint(c);
+        }
+    }
+
+    private void writeCodePoint(final int cp) throws IOException {
+        if (maxChar >= 0) {
+            writeByte(cp <= maxChar ? cp : '?');
+            return;
+        }
+        if (length + 4 > buffer.length) {
+            flushBuffer();
+        }
+        if (cp < 0x80) {
+            buffer[length++] = (byte) cp;
+        } else if (cp < 0x800) {
+            buffer[length++] = (byte) (0xC0 | (cp >> 6));
+            buffer[length++] = (byte) (0x80 | (cp & 0x3F));
+        } else if (cp < 0x10000) {
+            buffer[length++] = (byte) (0xE0 | (cp >> 12));
+            buffer[length++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+            buffer[length++] = (byte) (0x80 | (cp & 0x3F));
+        } else {
+            buffer[length++] = (byte) (0xF0 | (cp >> 18));
+            buffer[length++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+            buffer[length++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+            buffer[length++] = (byte) (0x80 | (cp & 0x3F));
+        }
+    }
+
+    private void writeByte(final int b) throws IOException {
+        if (length == buffer.length) {
+            flushBuffer();
+        }
+        buffer[length++] = (byte) b;
+    }
+
+    private void flushBuffer() throws IOException {
+        if (length > 0) {
+            os.write(buffer, 0, length);
+            QueryResourceUsage.serialized(length);
+            length = 0;
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        flushBuffer();
+        os.flush();
+    }
+
+    /**
+     * Writes a pending unpaired surrogate, flushes the buffer and closes the output stream.
+     */
+    @Override
+    public void close() throws IOException {
+        if (os == null) {
+            return;
+        }
+        if (highSurrogate != 0) {
+            highSurrogate = 0;
+            writeByte('?');
+        }
+        flushBuffer();
+        os.close();
+        os = null;
+    }
+
+    private static final class CachedBytes {
+        private final String key;
+        private final byte[] bytes;
+
+        private CachedBytes(final String key, final byte[] bytes) {
+            this.key = key;
+            this.bytes = bytes;
+        }
+    }
+}
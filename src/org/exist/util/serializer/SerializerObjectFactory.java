@@ -41,6 +41,8 @@ public class SerializerObjectFactory extends BaseKeyedPoolableObjectFactory {
             {return new SAXSerializer();}
         else if (key == DOMStreamer.class)
             {return new ExtendedDOMStreamer();}
+        else if (key == EncodingWriter.class)
+            {return new EncodingWriter();}
         return null;
     }
 
@@ -49,6 +51,8 @@ public class SerializerObjectFactory extends BaseKeyedPoolableObjectFactory {
             {((SAXSerializer)obj).reset();}
         else if (key == DOMStreamer.class)
             {((DOMStreamer)obj).reset();}
+        else if (key == EncodingWriter.class)
+            {((EncodingWriter)obj).reset();}
     }
 
     public void passivateObject(Object key, Object obj) throws Exception {
@@ -56,5 +60,7 @@ public class SerializerObjectFactory extends BaseKeyedPoolableObjectFactory {
             {((SAXSerializer)obj).reset();}
         else if (key == DOMStreamer.class)
             {((DOMStreamer)obj).reset();}
+        else if (key == EncodingWriter.class)
+            {((EncodingWriter)obj).reset();}
     }
 }
@@ -25,6 +25,11 @@ import org.apache.commons.pool.KeyedPoolableObjectFactory;
 import org.apache.commons.pool.impl.StackKeyedObjectPool;
 import org.exist.storage.serializers.Serializer;
 
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+
 /**
  * @author wolf
  *
@@ -62,6 +67,36 @@ public class SerializerPool extends StackKeyedObjectPool {
         }
     }
     
+    /**
+     * Returns a writer encoding characters to the output stream. For the encodings supported
+     * by {@link EncodingWriter}, a pooled instance is returned, otherwise an
+     * {@link OutputStreamWriter}. The writer has to be flushed by the caller and
+     * should be passed to {@link #returnWriter(Writer)} afterwards.
+     *
+     * @param os the output stream
+     * @param encoding the name of the encoding
+     * @return the writer
+     * @throws UnsupportedEncodingException if the encoding is not supported at all
+     */
+    public Writer borrowWriter(final OutputStream os, final String encoding) throws UnsupportedEncodingException {
+        if (EncodingWriter.isSupported(encoding)) {
+            final EncodingWriter writer = (EncodingWriter) borrowObject(EncodingWriter.class);
+            writer.setOutput(os, encoding);
+            return writer;
+        }
+        return new OutputStreamWriter(os, encoding);
+    }
+
+    /**
+     * Releases a writer obtained from {@link #borrowWriter(OutputStream, String)}.
+     * Data which has not been flushed is discarded.
+     */
+    public void returnWriter(final Writer writer) {
+        if (writer instanceof EncodingWriter) {
+            returnObject(writer);
+        }
+    }
+
     public synchronized void returnObject(Object obj) {
         if (obj == null)
             {return;}
@@ -25,9 +25,11 @@ import java.util.Arrays;
 import java.util.Properties;
 import javax.xml.transform.OutputKeys;
 import javax.xml.transform.TransformerException;
+import org.apache.commons.io.output.ProxyWriter;
 import org.exist.dom.QName;
 import org.exist.util.XMLString;
 import org.exist.util.serializer.encodings.CharacterSet;
+import org.exist.xquery.QueryResourceUsage;
 
 /**
  * Write XML to a writer. This class defines methods similar to SAX. It deals
@@ -46,6 +48,11 @@ public class XMLWriter {
 
     protected Writer writer = null;
 
+    /**
+     * The writer if it is an {@link EncodingWriter}, null otherwise.
+     */
+    private EncodingWriter encodingWriter = null;
+
     protected CharacterSet charSet = null;
 
     protected boolean tagIsOpen = false;
@@ -64,6 +71,11 @@ public class XMLWriter {
 
     private static boolean[] attrSpecialChars;
 
+    /**
+     * The replacement text of escaped characters, indexed by character.
+     */
+    private static final String[] ESCAPES = new String[161];
+
     private String defaultNamespace = "";
 
     static {
@@ -83,6 +95,16 @@ public class XMLWriter {
         attrSpecialChars['\t'] = true;
         attrSpecialChars['&'] = true;
         attrSpecialChars['"'] = true;
+
+        ESCAPES['<'] = "&lt;";
+        ESCAPES['>'] = "&gt;";
+        ESCAPES['&'] = "&amp;";
+        ESCAPES['\r'] = "&#xD;";
+        ESCAPES['\n'] = "&#xA;";
+        ESCAPES['\t'] = "&#x9;";
+        ESCAPES['"'] = "&#34;";
+        // non-breaking space
+        ESCAPES[160] = "&#160;";
     }
 
     public XMLWriter() {
@@ -94,7 +116,8 @@ public class XMLWriter {
 
     public XMLWriter(final Writer writer) {
         this();
-        this.writer = writer;
+        this.encodingWriter = writer instanceof EncodingWriter ? (EncodingWriter) writer : null;
+        this.writer = encodingWriter == null ? countingWriter(writer) : writer;
     }
 
     /**
@@ -118,6 +141,7 @@ public class XMLWriter {
 
     protected void reset() {
         writer = null;
+        encodingWriter = null;
         resetObjectState();
     }
 
@@ -135,9 +159,33 @@ public class XMLWriter {
      * @param writer
      */
     public void setWriter(final Writer writer) {
-        this.writer = writer;
+        this.encodingWriter = writer instanceof EncodingWriter ? (EncodingWriter) writer : null;
+        this.writer = encodingWriter == null ? countingWriter(writer) : writer;
         resetObjectState();
     }
+
+    /**
+     * If a query is running on the current thread, wrap the writer to record the
+     * characters written in the query's {@link QueryResourceUsage}. An
+     * {@link EncodingWriter} records the bytes it writes itself.
+     */
+    private static Writer countingWriter(final Writer writer) {
+        if (writer == null || QueryResourceUsage.current() == null) {
+            return writer;
+        }
+        return new ProxyWriter(writer) {
+            @Override
+            protected void afterWrite(final int n) {
+                QueryResourceUsage.serialized(n);
+            }
+
+            @Override
+            public String toString() {
+                // callers serializing to a StringWriter read the result from getWriter()
+                return out.toString();
+            }
+        };
+    }
     
     protected Writer getWriter() {
         return writer;
@@ -193,12 +241,7 @@ public class XMLWriter {
                 closeStartTag(false);
             }
             writer.write('<');
-            if(qname.getPrefix() != null && qname.getPrefix().length() > 0) {
-                writer.write(qname.getPrefix());
-                writer.write(':');
-            }
-            
-            writer.write(qname.getLocalPart());
+            writeQName(qname);
             tagIsOpen = true;
         } catch(final IOException ioe) {
             throw new TransformerException(ioe.getMessage(), ioe);
@@ -225,11 +268,7 @@ public class XMLWriter {
                 closeStartTag(true);
             } else {
                 writer.write("</");
-                if(qname.getPrefix() != null && qname.getPrefix().length() > 0) {
-                    writer.write(qname.getPrefix());
-                    writer.write(':');
-                }
-                writer.write(qname.getLocalPart());
+                writeQName(qname);
                 writer.write('>');
             }
         } catch(final IOException ioe) {
@@ -247,7 +286,14 @@ public class XMLWriter {
                 throw new TransformerException("Found a namespace declaration outside an element");
             }
 
-            if(prefix != null && prefix.length() > 0) {
+            if(encodingWriter != null && isPlainURI(nsURI)) {
+                if(prefix != null && prefix.length() > 0) {
+                    encodingWriter.writeNamespaceDeclaration(prefix, nsURI);
+                } else if(!defaultNamespace.equals(nsURI)) {
+                    encodingWriter.writeNamespaceDeclaration("", nsURI);
+                    defaultNamespace = nsURI;
+                }
+            } else if(prefix != null && prefix.length() > 0) {
                 writer.write(' ');
                 writer.write("xmlns");
                 writer.write(':');
@@ -298,11 +344,7 @@ public class XMLWriter {
                 // element");
             }
             writer.write(' ');
-            if(qname.getPrefix() != null && qname.getPrefix().length() > 0) {
-                writer.write(qname.getPrefix());
-                writer.write(':');
-            }
-            writer.write(qname.getLocalPart());
+            writeQName(qname);
             writer.write("=\"");
             writeChars(value, true);
             writer.write('"');
@@ -509,34 +551,11 @@ public class XMLWriter {
             }
             
             if(needsEscape(ch)) {
-                switch(ch) {
-                    case '<':
-                        writer.write("&lt;");
-                        break;
-                    case '>':
-                        writer.write("&gt;");
-                        break;
-                    case '&':
-                        writer.write("&amp;");
-                        break;
-                    case '\r':
-                        writer.write("&#xD;");
-                        break;
-                    case '\n':
-                        writer.write("&#xA;");
-                        break;
-                    case '\t':
-                        writer.write("&#x9;");
-                        break;
-                    case '"':
-                        writer.write("&#34;");
-                        break;
-                    // non-breaking space:
-                    case 160:
-                        writer.write("&#160;");
-                        break;
-                    default:
-                        writeCharacterReference(ch);
+                final String escape = ch < ESCAPES.length ? ESCAPES[ch] : null;
+                if(escape != null) {
+                    writer.write(escape);
+                } else {
+                    writeCharacterReference(ch);
                 }
             } else {
                 writer.write(ch);
@@ -547,9 +566,47 @@ public class XMLWriter {
     }
 
     private void writeCharSeq(final CharSequence ch, final int start, final int end) throws IOException {
-        for(int i = start; i < end; i++) {
-            writer.write(ch.charAt(i));
+        if(start == end) {
+            return;
+        }
+        if(encodingWriter != null) {
+            encodingWriter.write(ch, start, end);
+        } else if(ch instanceof String) {
+            writer.write((String) ch, start, end - start);
+        } else {
+            for(int i = start; i < end; i++) {
+                writer.write(ch.charAt(i));
+            }
+        }
+    }
+
+    /**
+     * Writes the qualified name of an element or attribute.
+     */
+    protected void writeQName(final QName qname) throws IOException {
+        if(encodingWriter != null) {
+            encodingWriter.writeQName(qname);
+        } else {
+            if(qname.getPrefix() != null && qname.getPrefix().length() > 0) {
+                writer.write(qname.getPrefix());
+                writer.write(':');
+            }
+            writer.write(qname.getLocalPart());
+        }
+    }
+
+    /**
+     * Checks if the namespace URI can be written without escaping any character.
+     */
+    private static boolean isPlainURI(final String nsURI) {
+        final int len = nsURI.length();
+        for(int i = 0; i < len; i++) {
+            final char ch = nsURI.charAt(i);
+            if(ch >= 128 || attrSpecialChars[ch]) {
+                return false;
+            }
         }
+        return true;
     }
 
     protected void writeCharacterReference(final char charval) throws IOException {
@@ -10,6 +10,8 @@ import org.xml.sax.SAXNotRecognizedException;
 import org.xml.sax.SAXNotSupportedException;
 
 import javax.xml.transform.OutputKeys;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.io.Writer;
 import java.util.Properties;
 
@@ -24,12 +26,27 @@ public class XQuerySerializer {
     private final Properties outputProperties;
     private final DBBroker broker;
     private final Writer writer;
+    private final OutputStream os;
 
     public XQuerySerializer(DBBroker broker, Properties outputProperties, Writer writer) {
         super();
         this.broker = broker;
         this.outputProperties = outputProperties;
         this.writer = writer;
+        this.os = null;
+    }
+
+    /**
+     * Serialize to an output stream, using the encoding set in the output properties.
+     * The characters are encoded by a writer borrowed from the {@link SerializerPool}.
+     * The stream is flushed after serialization, but not closed.
+     */
+    public XQuerySerializer(DBBroker broker, Properties outputProperties, OutputStream os) {
+        super();
+        this.broker = broker;
+        this.outputProperties = outputProperties;
+        this.writer = null;
+        this.os = os;
     }
 
     public void serialize(final Sequence sequence) throws SAXException, XPathException {
@@ -37,10 +54,29 @@ public class XQuerySerializer {
     }
 
     public void serialize(final Sequence sequence, final int start, final int howmany, final boolean wrap, final boolean typed, final long compilationTime, final long executionTime) throws SAXException, XPathException {
+        if (os == null) {
+            serialize(writer, sequence, start, howmany, wrap, typed, compilationTime, executionTime);
+            return;
+        }
+        Writer out = null;
+        try {
+            out = SerializerPool.getInstance().borrowWriter(os, outputProperties.getProperty(OutputKeys.ENCODING, "UTF-8"));
+            serialize(out, sequence, start, howmany, wrap, typed, compilationTime, executionTime);
+            out.flush();
+        } catch (final IOException e) {
+            throw new SAXException(e.getMessage(), e);
+        } finally {
+            if (out != null) {
+                SerializerPool.getInstance().returnWriter(out);
+            }
+        }
+    }
+
+    private void serialize(final Writer writer, final Sequence sequence, final int start, final int howmany, final boolean wrap, final boolean typed, final long compilationTime, final long executionTime) throws SAXException, XPathException {
         if (isJSON()) {
-            serializeJSON(sequence, compilationTime, executionTime);
+            serializeJSON(writer, sequence, compilationTime, executionTime);
         } else {
-            serializeXML(sequence, start, howmany, wrap, typed, compilationTime, executionTime);
+            serializeXML(writer, sequence, start, howmany, wrap, typed, compilationTime, executionTime);
         }
     }
 
@@ -48,7 +84,7 @@ public class XQuerySerializer {
         return "json".equals(outputProperties.getProperty(OutputKeys.METHOD, "xml"));
     }
 
-    private void serializeXML(final Sequence sequence, final int start, final int howmany, final boolean wrap, final boolean typed, final long compilationTime, final long executionTime) throws SAXException, XPathException {
+    private void serializeXML(final Writer writer, final Sequence sequence, final int start, final int howmany, final boolean wrap, final boolean typed, final long compilationTime, final long executionTime) throws SAXException, XPathException {
         final Serializer serializer = broker.getSerializer();
         serializer.reset();
         SAXSerializer sax = null;
@@ -68,11 +104,11 @@ public class XQuerySerializer {
         }
     }
 
-    private void serializeJSON(final Sequence sequence, final long compilationTime, final long executionTime) throws SAXException, XPathException {
+    private void serializeJSON(final Writer writer, final Sequence sequence, final long compilationTime, final long executionTime) throws SAXException, XPathException {
         // backwards compatibility: if the sequence contains a single element, we assume
         // it should be transformed to JSON following the rules of the old JSON writer
         if (sequence.hasOne() && Type.subTypeOf(sequence.getItemType(), Type.ELEMENT)) {
-            serializeXML(sequence, 1, sequence.getItemCount(), false, false, compilationTime, executionTime);
+            serializeXML(writer, sequence, 1, sequence.getItemCount(), false, false, compilationTime, executionTime);
         } else {
             JSONSerializer serializer = new JSONSerializer(broker, outputProperties);
             serializer.serialize(sequence, writer);
@@ -30,7 +30,7 @@ public abstract class AbstractCachedResult {
 
     protected long queryTime = 0;
     protected long creationTimestamp = 0;
-    protected long timestamp = 0;
+    protected volatile long timestamp = 0;
 
     public AbstractCachedResult() {
         this(0);
@@ -71,6 +71,17 @@ public abstract class AbstractCachedResult {
         return creationTimestamp;
     }
 
+    /**
+     * Returns the approximate number of bytes of memory held by
+     * the cached result. Used by {@link QueryResultCache} to limit
+     * the memory used by all cached results.
+     *
+     * @return the estimated size in bytes
+     */
+    public long getEstimatedSize() {
+        return 0;
+    }
+
     /**
      * This abstract method must be used
      * to free internal variables.
@@ -24,11 +24,18 @@ import java.io.IOException;
 import org.exist.xquery.XPathException;
 import org.exist.xquery.value.Sequence;
 
+import java.util.IdentityHashMap;
+import java.util.Map;
 import java.util.Properties;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.exist.dom.memtree.DocumentImpl;
+import org.exist.dom.memtree.NodeImpl;
 import org.exist.xquery.value.BinaryValue;
+import org.exist.xquery.value.Item;
+import org.exist.xquery.value.NodeValue;
+import org.exist.xquery.value.Type;
 
 /**
  * Simple container for the results of a query. Used to cache
@@ -40,11 +47,23 @@ import org.exist.xquery.value.BinaryValue;
 public class QueryResult extends AbstractCachedResult {
 
     private final static Logger LOG = LogManager.getLogger(QueryResult.class);
+
+    // approximate sizes used to estimate the memory held by the result
+    private final static int RESULT_OVERHEAD = 256;
+    private final static int ITEM_OVERHEAD = 64;
+    private final static int IN_MEMORY_NODE_SIZE = 48;
+    // number of items inspected to estimate the size of the whole sequence
+    private final static int SAMPLE_SIZE = 256;
+
     protected Sequence result;
     protected Properties serialization = null;
     // set upon failure
     protected XPathException exception = null;
 
+    private long estimatedSize = RESULT_OVERHEAD;
+    // position of the next item returned by the cursor
+    private int cursor = 0;
+
     public QueryResult(final Sequence result, final Properties outputProperties) {
         this(result, outputProperties, 0);
     }
@@ -53,6 +72,7 @@ public class QueryResult extends AbstractCachedResult {
         super(queryTime);
         this.serialization = outputProperties;
         this.result = result;
+        this.estimatedSize = estimateSize(result);
     }
 
     public QueryResult(final XPathException e) {
@@ -75,6 +95,80 @@ public class QueryResult extends AbstractCachedResult {
         return result;
     }
 
+    @Override
+    public long getEstimatedSize() {
+        return estimatedSize;
+    }
+
+    /**
+     * Advances the cursor of the result by the given number of items.
+     *
+     * @param count the maximum number of items to advance
+     * @return the start and the end position (exclusive) of the items the
+     *     cursor moved over, the start equals the end if all items have been consumed
+     */
+    public synchronized int[] advanceCursor(final int count) {
+        final int start = cursor;
+        final int itemCount = result == null ? 0 : result.getItemCount();
+        cursor = (int) Math.min(itemCount, (long) start + Math.max(0, count));
+        return new int[] { start, cursor };
+    }
+
+    /**
+     * Moves the cursor to the given position.
+     *
+     * @param position the 0-based position of the next item to be returned by the cursor
+     */
+    public synchronized void setCursor(final int position) {
+        cursor = Math.max(0, position);
+    }
+
+    /**
+     * Estimates the memory held by a result sequence from a sample of its items.
+     * Persistent nodes are just references to the database, while in-memory nodes
+     * hold their complete document, which is counted once.
+     */
+    private static long estimateSize(final Sequence result) {
+        if (result == null) {
+            return RESULT_OVERHEAD;
+        }
+        final int itemCount = result.getItemCount();
+        final int sampled = Math.min(itemCount, SAMPLE_SIZE);
+        final Map<DocumentImpl, Boolean> documents = new IdentityHashMap<>();
+        long documentsSize = 0;
+        long itemsSize = 0;
+        for (int i = 0; i < sampled; i++) {
+            // spread the sample over the whole sequence
+            final Item item = result.itemAt((int) ((long) i * itemCount / sampled));
+            if (item == null) {
+                continue;
+            }
+            itemsSize += ITEM_OVERHEAD;
+            if (Type.subTypeOf(item.getType(), Type.NODE)) {
+                if (((NodeValue) item).getImplementationType() == NodeValue.IN_MEMORY_NODE) {
+                    final DocumentImpl doc = ((NodeImpl) item).getOwnerDocument();
+                    if (doc != null && documents.put(doc, Boolean.TRUE) == null) {
+                        documentsSize += (long) doc.getSize() * IN_MEMORY_NODE_SIZE;
+                    }
+                }
+            } else if (!Type.subTypeOf(item.getType(), Type.FUNCTION_REFERENCE)) {
+                try {
+                    itemsSize += 2L * item.getStringValue().length();
+                } catch (final XPathException e) {
+                    // ignore, the item is counted with its overhead only
+                }
+            }
+        }
+        if (sampled > 0 && sampled < itemCount) {
+            // documents shared by many items are counted once, items are extrapolated
+            itemsSize = itemsSize * itemCount / sampled;
+            if (documents.size() == sampled) {
+                documentsSize = documentsSize * itemCount / sampled;
+            }
+        }
+        return RESULT_OVERHEAD + itemsSize + documentsSize;
+    }
+
     @Override
     public void free() {
         if (result != null) {
@@ -21,48 +21,83 @@ package org.exist.xmlrpc;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.exist.util.Configuration;
 
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Used by {@link XmldbRequestProcessorFactory} to cache query results. Each query result
  * is identified by a unique integer id.
+ *
+ * The cache may be accessed concurrently. Besides expiring results which have not been
+ * used for {@link #TIMEOUT} ms, it keeps track of the estimated memory held by the cached
+ * results (see {@link AbstractCachedResult#getEstimatedSize()}). If the total exceeds the
+ * maximum size, the least recently used results are removed. The maximum size is configured
+ * by the queryResultCacheSize attribute of db-connection and defaults to an eighth of the
+ * maximum heap size.
  */
 public class QueryResultCache {
 
     public final static int TIMEOUT = 180000;
 
-    private static final int INITIAL_SIZE = 254;
+    public static final String CACHE_SIZE_ATTRIBUTE = "queryResultCacheSize";
+    public static final String PROPERTY_CACHE_SIZE = "db-connection.query-result-cache-size";
 
-    private AbstractCachedResult[] results;
+    /** by default, the cache may use this fraction of the maximum heap size */
+    private static final int DEFAULT_HEAP_FRACTION = 8;
 
     private static final Logger LOG = LogManager.getLogger(QueryResultCache.class);
 
+    private final ConcurrentMap<Integer, CacheEntry> results = new ConcurrentHashMap<>();
+    private final AtomicInteger nextId = new AtomicInteger(0);
+    private final AtomicLong size = new AtomicLong(0);
+    private final long maxSize;
+
     public QueryResultCache() {
-        results = new AbstractCachedResult[INITIAL_SIZE];
+        this(Runtime.getRuntime().maxMemory() / DEFAULT_HEAP_FRACTION);
+    }
+
+    /**
+     * @param configuration the database configuration holding the size of the cache in megabytes
+     */
+    public QueryResultCache(final Configuration configuration) {
+        this(configuredMaxSize(configuration));
+    }
+
+    /**
+     * @param maxSize the maximum number of bytes to be held by the cached results
+     */
+    public QueryResultCache(final long maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    private static long configuredMaxSize(final Configuration configuration) {
+        final int cacheSize = configuration.getInteger(PROPERTY_CACHE_SIZE);
+        return cacheSize > 0 ? cacheSize * 1024L * 1024L : Runtime.getRuntime().maxMemory() / DEFAULT_HEAP_FRACTION;
     }
 
     public int add(final AbstractCachedResult qr) {
-        for (int i = 0; i < results.length; i++) {
-            if (results[i] == null) {
-                results[i] = qr;
-                return i;
-            }
+        final CacheEntry entry = new CacheEntry(qr);
+        int id;
+        do {
+            id = nextId.getAndUpdate(i -> i == Integer.MAX_VALUE ? 0 : i + 1);
+        } while (results.putIfAbsent(id, entry) != null);
+        if (size.addAndGet(entry.size) > maxSize) {
+            evict(id);
         }
-        // no empty bucket. need to resize.
-        final AbstractCachedResult[] temp = new AbstractCachedResult[(results.length * 3) / 2];
-        System.arraycopy(results, 0, temp, 0, results.length);
-        final int pos = results.length;
-        temp[pos] = qr;
-        results = temp;
-        return pos;
+        return id;
     }
 
     public AbstractCachedResult get(final int pos) {
-        if (pos < 0 || pos >= results.length) {
-            return null;
-        }
-        return results[pos];
+        final CacheEntry entry = results.get(pos);
+        return entry == null ? null : entry.result;
     }
 
     public QueryResult getResult(final int pos) {
@@ -76,42 +111,105 @@ public class QueryResultCache {
     }
 
     public void remove(final int pos) {
-        if (pos > -1 && pos < results.length) {
-            // Perhaps we should not free resources here
-            // but an explicit remove implies you want
-            // to free resources
-
-            if (results[pos] != null) { // Prevent NPE
-                results[pos].free();
-                results[pos] = null;
-            }
+        // Perhaps we should not free resources here
+        // but an explicit remove implies you want
+        // to free resources
+        final CacheEntry entry = results.remove(pos);
+        if (entry != null) {
+            size.addAndGet(-entry.size);
+            entry.result.free();
         }
     }
 
     public void remove(final int pos, final int hash) {
-        if (pos > -1 && pos < results.length && (results[pos] != null && results[pos].hashCode() == hash)) {
+        final CacheEntry entry = results.get(pos);
+        if (entry != null && entry.result.hashCode() == hash && results.remove(pos, entry)) {
             // Perhaps we should not free resources here
             // but an explicit remove implies you want
             // to free resources
-            results[pos].free();
-            results[pos] = null;
+            size.addAndGet(-entry.size);
+            entry.result.free();
         }
     }
 
     public void checkTimestamps() {
         final long now = System.currentTimeMillis();
-        for (int i = 0; i < results.length; i++) {
-            final AbstractCachedResult result = results[i];
-            if (result != null) {
-                if (now - result.getTimestamp() > TIMEOUT) {
-                    if (LOG.isDebugEnabled()) {
-                        LOG.debug("Removing result set " + new Date(result.getTimestamp()).toString());
-                    }
-                    // Here we should not free resources, because they could be still in use
-                    // by other threads, so leave the work to the garbage collector
-                    results[i] = null;
+        for (final Map.Entry<Integer, CacheEntry> entry : results.entrySet()) {
+            final AbstractCachedResult result = entry.getValue().result;
+            if (now - result.getTimestamp() > TIMEOUT) {
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug("Removing result set " + new Date(result.getTimestamp()).toString());
+                }
+                // Here we should not free resources, because they could be still in use
+                // by other threads, so leave the work to the garbage collector
+                discard(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * @return the estimated number of bytes held by the cached results
+     */
+    public long getSize() {
+        return size.get();
+    }
+
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * @return the number of cached results
+     */
+    public int getCount() {
+        return results.size();
+    }
+
+    /**
+     * Removes the least recently used results until the size of the cache is within
+     * its limit again. The result which has just been added is kept, even if it
+     * exceeds the limit on its own.
+     */
+    private void evict(final int added) {
+        // copy the timestamps, they may change while sorting
+        final List<long[]> candidates = new ArrayList<>();
+        for (final Map.Entry<Integer, CacheEntry> entry : results.entrySet()) {
+            if (entry.getKey() != added) {
+                candidates.add(new long[] { entry.getValue().result.getTimestamp(), entry.getKey() });
+            }
+        }
+        candidates.sort((c1, c2) -> Long.compare(c1[0], c2[0]));
+        for (final long[] candidate : candidates) {
+            if (size.get() <= maxSize) {
+                break;
+            }
+            final int id = (int) candidate[1];
+            final CacheEntry entry = results.get(id);
+            if (entry != null) {
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug("Removing result set " + id + " of about " + entry.size
+                        + " bytes: result cache exceeds " + maxSize + " bytes");
                 }
+                // as for expired results, leave freeing the resources to the garbage collector
+                discard(id, entry);
             }
         }
     }
+
+    private void discard(final int id, final CacheEntry entry) {
+        if (results.remove(id, entry)) {
+            size.addAndGet(-entry.size);
+        }
+    }
+
+    private static final class CacheEntry {
+        private final AbstractCachedResult result;
+        // the size is determined once, so it is subtracted exactly when the entry is removed
+        private final long size;
+
+        private CacheEntry(final AbstractCachedResult result) {
+            this.result = result;
+            this.size = result.getEstimatedSize();
+        }
+    }
 }
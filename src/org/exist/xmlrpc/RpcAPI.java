@@ -359,6 +359,29 @@ public interface RpcAPI {
     public Map<String, Object> retrieveAllFirstChunk(int resultId, Map<String, Object> parameters)
             throws EXistException, PermissionDeniedException;
 
+    /**
+     * Retrieve the next items of a cached query result. The result keeps a cursor,
+     * which is moved forward by each call, so a client can page through a large
+     * result without the server serializing it completely. The items are serialized
+     * on demand and wrapped into an exist:result element as done by
+     * {@link #retrieveAll(int, Map)}.
+     *
+     * The returned map contains the serialized items as "data" (compressed if
+     * the "compress" parameter is set), the total number of items as "hits",
+     * the 0-based position of the first returned item as "start", the number of
+     * returned items as "count" and the position of the next item as "position".
+     * "position" equals "hits" once all items have been retrieved.
+     *
+     * @param resultId the id of the cached query result
+     * @param count the maximum number of items to return
+     * @param parameters serialization parameters
+     * @return a <code>Map</code> value
+     * @exception EXistException if the result is unknown or cannot be serialized
+     * @exception PermissionDeniedException Description of the Exception
+     */
+    public Map<String, Object> retrieveNext(int resultId, int count, Map<String, Object> parameters)
+            throws EXistException, PermissionDeniedException;
+
     Map<String, Object> compile(byte[] xquery, Map<String, Object> parameters)  throws EXistException, PermissionDeniedException;
 
     Map<String, Object> queryP(byte[] xpath, Map<String, Object> parameters)
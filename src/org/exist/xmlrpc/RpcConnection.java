@@ -635,8 +635,12 @@ public class RpcConnection implements RpcAPI {
                     final Serializer serializer = broker.getSerializer();
                     serializer.setProperties(toProperties(parameters));
 
-                    try (final Writer writer = new OutputStreamWriter(vtempFile, encoding)) {
+                    final Writer writer = SerializerPool.getInstance().borrowWriter(vtempFile, encoding.name());
+                    try {
                         serializer.serialize(document, writer);
+                        writer.flush();
+                    } finally {
+                        SerializerPool.getInstance().returnWriter(writer);
                     }
                 } else {
                     vtempFile.setTempPostfix(".bin");
@@ -1959,8 +1963,12 @@ public class RpcConnection implements RpcAPI {
                 os = vtempFile;
             }
             try {
-                try (final Writer writer = new OutputStreamWriter(os, getEncoding(parameters))) {
+                final Writer writer = SerializerPool.getInstance().borrowWriter(os, getEncoding(parameters).name());
+                try {
                     serializer.serialize(node, writer);
+                    writer.flush();
+                } finally {
+                    SerializerPool.getInstance().returnWriter(writer);
                 }
             } finally {
                 try {
@@ -2077,7 +2085,8 @@ public class RpcConnection implements RpcAPI {
                 os = vtempFile;
             }
             try {
-                try (final Writer writer = new OutputStreamWriter(os, getEncoding(parameters))) {
+                final Writer writer = SerializerPool.getInstance().borrowWriter(os, getEncoding(parameters).name());
+                try {
                     if (Type.subTypeOf(item.getType(), Type.NODE)) {
                         final NodeValue nodeValue = (NodeValue) item;
                         final Serializer serializer = broker.getSerializer();
@@ -2091,8 +2100,11 @@ public class RpcConnection implements RpcAPI {
                     } else {
                         writer.write(item.getStringValue());
                     }
+                    writer.flush();
                 } catch (final XPathException e) {
                     throw new EXistException(e);
+                } finally {
+                    SerializerPool.getInstance().returnWriter(writer);
                 }
             } finally {
                 try {
@@ -2218,7 +2230,8 @@ public class RpcConnection implements RpcAPI {
                 os = vtempFile;
             }
             try {
-                try (final Writer writer = new OutputStreamWriter(os, getEncoding(parameters))) {
+                final Writer writer = SerializerPool.getInstance().borrowWriter(os, getEncoding(parameters).name());
+                try {
                     handler.setOutput(writer, toProperties(parameters));
 
                     // serialize results
@@ -2255,6 +2268,9 @@ public class RpcConnection implements RpcAPI {
                     handler.endPrefixMapping("exist");
                     handler.endDocument();
                     SerializerPool.getInstance().returnObject(handler);
+                    writer.flush();
+                } finally {
+                    SerializerPool.getInstance().returnWriter(writer);
                 }
             } finally {
                 try {
@@ -2288,6 +2304,77 @@ public class RpcConnection implements RpcAPI {
         });
     }
 
+    @Override
+    public Map<String, Object> retrieveNext(final int resultId, final int count, final Map<String, Object> parameters)
+            throws EXistException, PermissionDeniedException {
+        final boolean compression = useCompression(parameters);
+        return withDb((broker, transaction) -> {
+            final QueryResult qr = factory.resultSets.getResult(resultId);
+            if (qr == null) {
+                throw new EXistException("result set unknown or timed out: " + resultId);
+            }
+            qr.touch();
+            final Sequence sequence = qr.result;
+            if (sequence == null) {
+                throw new EXistException("result set unknown or timed out: " + resultId);
+            }
+            final int[] range = qr.advanceCursor(count);
+            final Serializer serializer = broker.getSerializer();
+            serializer.reset();
+            serializer.setProperties(qr.serialization);
+
+            final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            try {
+                final OutputStream os = compression ? new DeflaterOutputStream(bos) : bos;
+                final Writer writer = SerializerPool.getInstance().borrowWriter(os, getEncoding(parameters).name());
+                final SAXSerializer handler = (SAXSerializer) SerializerPool.getInstance().borrowObject(SAXSerializer.class);
+                try {
+                    handler.setOutput(writer, toProperties(parameters));
+                    handler.startDocument();
+                    handler.startPrefixMapping("exist", Namespaces.EXIST_NS);
+                    handler.startPrefixMapping("xs", Namespaces.SCHEMA_NS);
+                    final AttributesImpl attribs = new AttributesImpl();
+                    attribs.addAttribute("", "hitCount", "hitCount", "CDATA", Integer.toString(sequence.getItemCount()));
+                    attribs.addAttribute("", "start", "start", "CDATA", Integer.toString(range[0] + 1));
+                    attribs.addAttribute("", "count", "count", "CDATA", Integer.toString(range[1] - range[0]));
+                    handler.startElement(Namespaces.EXIST_NS, "result", "exist:result", attribs);
+                    for (int i = range[0]; i < range[1]; i++) {
+                        final Item current = sequence.itemAt(i);
+                        if (Type.subTypeOf(current.getType(), Type.NODE)) {
+                            current.toSAX(broker, handler, null);
+                        } else {
+                            final AttributesImpl typeAttr = new AttributesImpl();
+                            typeAttr.addAttribute("", "type", "type", "CDATA", Type.getTypeName(current.getType()));
+                            handler.startElement(Namespaces.EXIST_NS, "value", "exist:value", typeAttr);
+                            final char[] value = current.toString().toCharArray();
+                            handler.characters(value, 0, value.length);
+                            handler.endElement(Namespaces.EXIST_NS, "value", "exist:value");
+                        }
+                    }
+                    handler.endElement(Namespaces.EXIST_NS, "result", "exist:result");
+                    handler.endPrefixMapping("xs");
+                    handler.endPrefixMapping("exist");
+                    handler.endDocument();
+                    writer.flush();
+                } finally {
+                    SerializerPool.getInstance().returnObject(handler);
+                    SerializerPool.getInstance().returnWriter(writer);
+                }
+                os.close();
+            } catch (final IOException e) {
+                throw new EXistException(e);
+            }
+
+            final Map<String, Object> result = new HashMap<>();
+            result.put("data", bos.toByteArray());
+            result.put("hits", sequence.getItemCount());
+            result.put("start", range[0]);
+            result.put("count", range[1] - range[0]);
+            result.put("position", range[1]);
+            return result;
+        });
+    }
+
     @Override
     public boolean chgrp(final String resource, final String ownerGroup) throws EXistException, PermissionDeniedException, URISyntaxException {
         final XmldbURI uri = XmldbURI.xmldbUriFor(resource);
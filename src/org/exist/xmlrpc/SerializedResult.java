@@ -55,6 +55,16 @@ public class SerializedResult extends AbstractCachedResult {
         return result;
     }
 
+    @Override
+    public long getEstimatedSize() {
+        // content swapped out to a temporary file does not occupy memory
+        final VirtualTempFile vtf = result;
+        if (vtf != null && vtf.getContent() instanceof byte[]) {
+            return vtf.length();
+        }
+        return 0;
+    }
+
     @Override
     public void free() {
         if (result != null) {
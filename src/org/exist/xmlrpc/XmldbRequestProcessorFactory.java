@@ -43,7 +43,7 @@ public class XmldbRequestProcessorFactory implements RequestProcessorFactoryFact
 
     private final boolean useDefaultUser;
     private final BrokerPool brokerPool;
-    protected final QueryResultCache resultSets = new QueryResultCache();
+    protected final QueryResultCache resultSets;
 
     private long lastCheck = System.currentTimeMillis();
 
@@ -58,6 +58,7 @@ public class XmldbRequestProcessorFactory implements RequestProcessorFactoryFact
             this.databaseId = databaseId;
         }
         this.brokerPool = BrokerPool.getInstance(this.databaseId);
+        this.resultSets = new QueryResultCache(brokerPool.getConfiguration());
     }
 
     @Override
@@ -0,0 +1,435 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2015 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.xquery;
+
+import net.jcip.annotations.GuardedBy;
+import net.jcip.annotations.NotThreadSafe;
+import net.jcip.annotations.ThreadSafe;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.exist.collections.Collection;
+import org.exist.dom.persistent.DefaultDocumentSet;
+import org.exist.dom.persistent.DocumentImpl;
+import org.exist.dom.persistent.DocumentSet;
+import org.exist.dom.persistent.MutableDocumentSet;
+import org.exist.dom.persistent.NodeHandle;
+import org.exist.numbering.NodeId;
+import org.exist.security.Permission;
+import org.exist.security.PermissionDeniedException;
+import org.exist.security.Subject;
+import org.exist.storage.BrokerPool;
+import org.exist.storage.BrokerPoolService;
+import org.exist.storage.DBBroker;
+import org.exist.storage.UpdateListener;
+import org.exist.storage.lock.Lock.LockMode;
+import org.exist.util.Configuration;
+import org.exist.util.LRUMap;
+import org.exist.xmldb.XmldbURI;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caches the documents resolved by fn:doc() and fn:collection(), so that a query which calls
+ * them repeatedly, e.g. from a function in a library module, does not have to look up and
+ * lock the collections and documents again on every call.
+ *
+ * There are two levels: every {@link XQueryContext} keeps the documents it resolved in a small
+ * {@link ContextCache}, and optionally the documents are shared between queries in a bounded
+ * cache held by the database. Entries are keyed by the URI and by the user id, groups and
+ * dba role of the current subject, since these determine which documents are visible.
+ *
+ * Both levels are invalidated through the {@link org.exist.storage.NotificationService}: an entry
+ * of the shared cache is removed when a document in one of the collections it covers changes, or
+ * when one of these collections or their ancestors is stored, e.g. because its permissions changed
+ * or it was moved or removed. Every notification records a version for the changed collection, and
+ * entries of the per-query caches are only used while none of the collections they depend on has
+ * changed since they were resolved.
+ *
+ * The shared cache is disabled unless the attribute <code>document-set-cache-size</code>
+ * of the xquery element in conf.xml is set to the maximum number of entries.
+ */
+@ThreadSafe
+public class DocumentSetCache implements BrokerPoolService, UpdateListener {
+
+    private final static Logger LOG = LogManager.getLogger(DocumentSetCache.class);
+
+    public static final String CACHE_SIZE_ATTRIBUTE = "document-set-cache-size";
+    public static final String PROPERTY_CACHE_SIZE = "xquery.document-set-cache-size";
+
+    /** the shared cache is disabled by default */
+    public static final int DEFAULT_CACHE_SIZE = 0;
+
+    /** maximum number of entries cached by a single query */
+    public static final int CONTEXT_CACHE_SIZE = 64;
+
+    /** maximum number of collections whose latest change is tracked */
+    public static final int MAX_TRACKED_CHANGES = 1024;
+
+    private int maxSize = DEFAULT_CACHE_SIZE;
+
+    /** incremented whenever a document or collection changes */
+    private final AtomicLong version = new AtomicLong();
+
+    /** the version of the latest change of each collection, by raw collection path; modified while holding its monitor */
+    private final ConcurrentSkipListMap<String, Long> changes = new ConcurrentSkipListMap<>();
+
+    /**
+     * Changes before this version are no longer tracked per collection: once too many collections
+     * changed, they are forgotten and everything resolved before is considered out of date.
+     */
+    private volatile long trackedSince = 0;
+
+    @GuardedBy("this") private final LRUMap<Key, Entry> entries = new LRUMap<>(64, DEFAULT_CACHE_SIZE);
+
+    @Override
+    public void configure(final Configuration configuration) {
+        final int cacheSize = configuration.getInteger(PROPERTY_CACHE_SIZE);
+        if (cacheSize > -1) {
+            maxSize = cacheSize;
+            synchronized (this) {
+                entries.setMaxSize(cacheSize);
+            }
+        }
+    }
+
+    @Override
+    public void prepare(final BrokerPool brokerPool) {
+        brokerPool.getNotificationService().subscribe(this);
+    }
+
+    /**
+     * @return true if documents are shared between queries
+     */
+    public boolean isShared() {
+        return maxSize > 0;
+    }
+
+    /**
+     * Returns the documents in the given collection which are visible to the current user.
+     *
+     * Must not be used if the documents have to be locked for the query, i.e. in protected mode.
+     *
+     * @param context the context of the calling query
+     * @param uri the URI of the collection
+     * @param recursive true if the documents in sub-collections should be included
+     * @return the documents, which must not be modified, or null if the collection does not exist
+     * @throws PermissionDeniedException if the user may not open the collection
+     */
+    public DocumentSet getDocuments(final XQueryContext context, final XmldbURI uri, final boolean recursive)
+            throws PermissionDeniedException {
+        final DBBroker broker = context.getBroker();
+        final Key key = new Key(recursive ? Key.COLLECTION_RECURSIVE : Key.COLLECTION, uri, broker.getCurrentSubject());
+        return (DocumentSet) get(context, key, () -> {
+            final Collection collection = broker.getCollection(uri);
+            if (collection == null) {
+                return null;
+            }
+            final MutableDocumentSet docs = new DefaultDocumentSet();
+            collection.allDocs(broker, docs, recursive);
+            return new Entry(docs, collection.getURI().getRawCollectionPath(), recursive);
+        });
+    }
+
+    /**
+     * Returns the document with the given URI if the current user may read it.
+     *
+     * Must not be used if the document has to remain locked for the query.
+     *
+     * @param context the context of the calling query
+     * @param uri the absolute URI of the document
+     * @return the document, or null if it does not exist
+     * @throws PermissionDeniedException if the user may not read the document
+     */
+    public DocumentImpl getDocument(final XQueryContext context, final XmldbURI uri) throws PermissionDeniedException {
+        final DBBroker broker = context.getBroker();
+        final Key key = new Key(Key.DOCUMENT, uri, broker.getCurrentSubject());
+        return (DocumentImpl) get(context, key, () -> {
+            final DocumentImpl doc = broker.getXMLResource(uri, LockMode.READ_LOCK);
+            if (doc == null) {
+                return null;
+            }
+            try {
+                if (!doc.getPermissions().validate(broker.getCurrentSubject(), Permission.READ)) {
+                    throw new PermissionDeniedException("Insufficient privileges to read resource " + uri);
+                }
+                return new Entry(doc, doc.getCollection().getURI().getRawCollectionPath(), false);
+            } finally {
+                doc.getUpdateLock().release(LockMode.READ_LOCK);
+            }
+        });
+    }
+
+    private Object get(final XQueryContext context, final Key key, final Loader loader) throws PermissionDeniedException {
+        final long currentVersion = version.get();
+        final ContextCache contextCache = context.getDocumentSetCache();
+        final Resolved resolved = contextCache.get(key);
+        if (resolved != null) {
+            if (!isChangedSince(resolved.entry, resolved.version)) {
+                return resolved.entry.value;
+            }
+            contextCache.remove(key);
+        }
+
+        Entry entry;
+
+        if (isShared()) {
+            synchronized (this) {
+                entry = entries.get(key);
+            }
+            if (entry == null) {
+                entry = loader.load();
+                if (entry == null) {
+                    return null;
+                }
+                synchronized (this) {
+                    // only cache the entry if its collections did not change while it was loaded
+                    if (!isChangedSince(entry, currentVersion)) {
+                        entries.put(key, entry);
+                    }
+                }
+            }
+        } else {
+            entry = loader.load();
+            if (entry == null) {
+                return null;
+            }
+        }
+
+        contextCache.put(key, new Resolved(entry, currentVersion));
+        return entry.value;
+    }
+
+    /**
+     * @return true if a collection the entry depends on may have changed after the given version
+     */
+    private boolean isChangedSince(final Entry entry, final long resolvedVersion) {
+        // the collection itself and its ancestors
+        String path = entry.collectionPath;
+        while (!path.isEmpty()) {
+            final Long changed = changes.get(path);
+            if (changed != null && changed > resolvedVersion) {
+                return true;
+            }
+            path = path.substring(0, Math.max(path.lastIndexOf('/'), 0));
+        }
+        if (entry.recursive) {
+            for (final Long changed : changes.subMap(entry.collectionPath + '/', entry.collectionPath + '0').values()) {
+                if (changed > resolvedVersion) {
+                    return true;
+                }
+            }
+        }
+        // read last, as the tracked changes are cleared after it is advanced
+        return resolvedVersion < trackedSince;
+    }
+
+    /**
+     * Removes the entries which may be affected by a change to the given collection.
+     *
+     * @param collectionPath the path of the collection which changed
+     */
+    public void invalidate(final String collectionPath) {
+        synchronized (changes) {
+            final long changed = version.incrementAndGet();
+            if (changes.size() >= MAX_TRACKED_CHANGES && !changes.containsKey(collectionPath)) {
+                trackedSince = changed;
+                changes.clear();
+            } else {
+                changes.put(collectionPath, changed);
+            }
+        }
+        if (!isShared()) {
+            return;
+        }
+        synchronized (this) {
+            for (final Iterator<Entry> i = entries.values().iterator(); i.hasNext(); ) {
+                if (i.next().isAffectedBy(collectionPath)) {
+                    i.remove();
+                }
+            }
+        }
+    }
+
+    public synchronized int getSize() {
+        return entries.size();
+    }
+
+    public synchronized void clear() {
+        synchronized (changes) {
+            trackedSince = version.incrementAndGet();
+            changes.clear();
+        }
+        entries.clear();
+    }
+
+    @Override
+    public void documentUpdated(final DocumentImpl document, final int event) {
+        invalidate(document.getURI().removeLastSegment().getRawCollectionPath());
+    }
+
+    @Override
+    public void collectionUpdated(final XmldbURI collection) {
+        invalidate(collection.getRawCollectionPath());
+    }
+
+    @Override
+    public void nodeMoved(final NodeId oldNodeId, final NodeHandle newNode) {
+        // nothing to do
+    }
+
+    @Override
+    public void unsubscribe() {
+        clear();
+    }
+
+    @Override
+    public void debug() {
+        LOG.debug("DocumentSetCache: " + getSize() + " entries");
+    }
+
+    /**
+     * @return true if path equals ancestor or is a descendant of it
+     */
+    private static boolean isDescendantOrSelf(final String path, final String ancestor) {
+        return path.startsWith(ancestor) &&
+                (path.length() == ancestor.length() || path.charAt(ancestor.length()) == '/' || ancestor.endsWith("/"));
+    }
+
+    @FunctionalInterface
+    private interface Loader {
+        Entry load() throws PermissionDeniedException;
+    }
+
+    /**
+     * The documents resolved for a key, and the collection they were found in.
+     */
+    private static final class Entry {
+        private final Object value;
+        private final String collectionPath;
+        private final boolean recursive;
+
+        private Entry(final Object value, final String collectionPath, final boolean recursive) {
+            this.value = value;
+            this.collectionPath = collectionPath;
+            this.recursive = recursive;
+        }
+
+        /**
+         * The entry is affected by changes to its own collection, to any ancestor of it,
+         * which might have been moved or had its permissions changed, and, if sub-collections
+         * are included, to any collection below it.
+         */
+        private boolean isAffectedBy(final String changedPath) {
+            return isDescendantOrSelf(collectionPath, changedPath) ||
+                    (recursive && isDescendantOrSelf(changedPath, collectionPath));
+        }
+    }
+
+    /**
+     * Identifies the documents resolved for a URI by a user. Users with the same id and groups,
+     * as well as all users with the dba role, can see the same documents.
+     */
+    private static final class Key {
+        private static final byte DOCUMENT = 0;
+        private static final byte COLLECTION = 1;
+        private static final byte COLLECTION_RECURSIVE = 2;
+
+        private final byte type;
+        private final String uri;
+        private final boolean dba;
+        private final int userId;
+        private final int[] groupIds;
+        private final int hashCode;
+
+        private Key(final byte type, final XmldbURI uri, final Subject subject) {
+            this.type = type;
+            this.uri = uri.toString();
+            this.dba = subject.hasDbaRole();
+            if (dba) {
+                this.userId = -1;
+                this.groupIds = null;
+            } else {
+                this.userId = subject.getId();
+                this.groupIds = subject.getGroupIds().clone();
+                Arrays.sort(groupIds);
+            }
+            this.hashCode = 31 * (31 * (31 * type + this.uri.hashCode()) + userId) + Arrays.hashCode(groupIds);
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            final Key other = (Key) obj;
+            return type == other.type && dba == other.dba && userId == other.userId &&
+                    uri.equals(other.uri) && Arrays.equals(groupIds, other.groupIds);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+
+    /**
+     * An entry resolved by a query, and the version it was resolved at.
+     */
+    private static final class Resolved {
+        private final Entry entry;
+        private final long version;
+
+        private Resolved(final Entry entry, final long version) {
+            this.entry = entry;
+            this.version = version;
+        }
+    }
+
+    /**
+     * The documents resolved by a single query. Entries are only used as long as none of
+     * the collections they depend on changed since they were resolved.
+     */
+    @NotThreadSafe
+    public static final class ContextCache {
+        private final LRUMap<Key, Resolved> values = new LRUMap<>(16, CONTEXT_CACHE_SIZE);
+
+        private Resolved get(final Key key) {
+            return values.get(key);
+        }
+
+        private void put(final Key key, final Resolved resolved) {
+            values.put(key, resolved);
+        }
+
+        private void remove(final Key key) {
+            values.remove(key);
+        }
+
+        public void clear() {
+            values.clear();
+        }
+    }
+}
@@ -37,6 +37,7 @@ public class ForExpr extends BindingExpression {
     private String positionalVariable = null;
     private boolean allowEmpty = false;
     private boolean isOuterFor = true;
+    private boolean numericReturn = false;
 
     public ForExpr(XQueryContext context, boolean allowingEmpty) {
         super(context);
@@ -89,6 +90,7 @@ public class ForExpr extends BindingExpression {
             final AnalyzeContextInfo newContextInfo = new AnalyzeContextInfo(contextInfo);
             newContextInfo.addFlag(SINGLE_STEP_EXECUTION);
             returnExpr.analyze(newContextInfo);
+            numericReturn = Type.subTypeOf(newContextInfo.getStaticReturnType(), Type.NUMBER);
         } finally {
             // restore the local variable stack
             context.popLocalVariables(mark);
@@ -220,6 +222,10 @@ public class ForExpr extends BindingExpression {
         if (callPostEval()) {
             resultSequence = postEval(resultSequence);
         }
+        if (isOuterFor && numericReturn) {
+            // keep numeric results as primitives, e.g. for fn:sum or fn:max
+            resultSequence = NumericSequence.compact(resultSequence);
+        }
 
         context.expressionEnd(this);
         if (context.getProfiler().isEnabled())
@@ -232,7 +238,7 @@ public class ForExpr extends BindingExpression {
         context.proceed(this);
         context.setContextSequencePosition(p, in);
         if (positionalVariable != null) {
-            at.setValue(new IntegerValue(p + 1));
+            at.setValue(IntegerValue.valueOf(p + 1));
         }
         final Sequence contextSequence = contextItem.toSequence();
         // set variable value to current item
@@ -42,6 +42,8 @@ import org.exist.xquery.util.ExpressionDumper;
 import org.exist.xquery.value.AtomicValue;
 import org.exist.xquery.value.BooleanValue;
 import org.exist.xquery.value.Item;
+import org.exist.xquery.value.NumericSequence;
+import org.exist.xquery.value.NumericValue;
 import org.exist.xquery.value.Sequence;
 import org.exist.xquery.value.SequenceIterator;
 import org.exist.xquery.value.StringValue;
@@ -552,6 +554,10 @@ public class GeneralComparison extends BinaryOp implements Optimizable, IndexUse
             }
         } else if( ls.hasOne() && rs.hasOne() && ls.itemAt(0).getType() != Type.ARRAY && rs.itemAt(0).getType() != Type.ARRAY) {
             result = BooleanValue.valueOf( compareAtomic( collator, ls.itemAt( 0 ).atomize(), rs.itemAt( 0 ).atomize() ) );
+        } else if( ( truncation == StringTruncationOperator.NONE ) && ( ls instanceof NumericSequence ) && rs.hasOne() && ( rs.itemAt( 0 ) instanceof NumericValue ) ) {
+
+            //compare the primitive values without creating an item for each of them
+            result = BooleanValue.valueOf( ( (NumericSequence)ls ).compareAny( relation, (NumericValue)rs.itemAt( 0 ) ) );
         } else {
 
             for( final SequenceIterator i1 = Atomize.atomize(ls).iterate(); i1.hasNext(); ) {
@@ -211,6 +211,11 @@ public class ModuleContext extends XQueryContext {
 	public DocumentSet getStaticallyKnownDocuments() throws XPathException {
 		return parentContext.getStaticallyKnownDocuments();
 	}
+
+	@Override
+	public DocumentSetCache.ContextCache getDocumentSetCache() {
+		return parentContext.getDocumentSetCache();
+	}
 	
 	/* (non-Javadoc)
 	 * @see org.exist.xquery.XQueryContext#getModule(java.lang.String)
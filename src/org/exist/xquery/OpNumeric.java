@@ -29,6 +29,7 @@ import org.exist.storage.DBBroker;
 import org.exist.xquery.Constants.ArithmeticOperator;
 import org.exist.xquery.util.ExpressionDumper;
 import org.exist.xquery.value.ComputableValue;
+import org.exist.xquery.value.IntegerValue;
 import org.exist.xquery.value.Item;
 import org.exist.xquery.value.NumericValue;
 import org.exist.xquery.value.Sequence;
@@ -127,44 +128,52 @@ public class OpNumeric extends BinaryOp {
             Item lvalue = lseq.itemAt(0);
             Item rvalue = rseq.itemAt(0);
             try {
-                if (lvalue.getType() == Type.UNTYPED_ATOMIC || lvalue.getType() == Type.ATOMIC)
-                    {lvalue = lvalue.convertTo(Type.NUMBER);}
-                if (rvalue.getType() == Type.UNTYPED_ATOMIC || rvalue.getType() == Type.ATOMIC)
-                    {rvalue = rvalue.convertTo(Type.NUMBER);}
-                if (!(lvalue instanceof ComputableValue))
-                    {throw new XPathException(this, ErrorCodes.XPTY0004, "'" +
-                        Type.getTypeName(lvalue.getType()) + "(" + lvalue + ")' can not be an operand for " +
-                        operator.symbol);}
-                if (!(rvalue instanceof ComputableValue))
-                    {throw new XPathException(this, ErrorCodes.XPTY0004, "'" +
-                        Type.getTypeName(rvalue.getType()) + "(" + rvalue + ")' can not be an operand for " +
-                        operator.symbol);}
-                //TODO : move to implementations
-                if (operator == ArithmeticOperator.DIVISION_INTEGER) {
-                    if (!Type.subTypeOf(lvalue.getType(), Type.NUMBER))
+                if (lvalue instanceof IntegerValue && rvalue instanceof IntegerValue) {
+                    // xs:integer operands need none of the checks below
+                    if (operator == ArithmeticOperator.DIVISION_INTEGER)
+                        {result = ((IntegerValue) lvalue).idiv((IntegerValue) rvalue);}
+                    else
+                        {result = applyOperator((ComputableValue) lvalue, (ComputableValue) rvalue);}
+                } else {
+                    if (lvalue.getType() == Type.UNTYPED_ATOMIC || lvalue.getType() == Type.ATOMIC)
+                        {lvalue = lvalue.convertTo(Type.NUMBER);}
+                    if (rvalue.getType() == Type.UNTYPED_ATOMIC || rvalue.getType() == Type.ATOMIC)
+                        {rvalue = rvalue.convertTo(Type.NUMBER);}
+                    if (!(lvalue instanceof ComputableValue))
                         {throw new XPathException(this, ErrorCodes.XPTY0004, "'" +
-                            Type.getTypeName(lvalue.getType()) + "(" + lvalue + ")' can not be an operand for " + operator.symbol);}
-                    if (!Type.subTypeOf(rvalue.getType(), Type.NUMBER))
+                            Type.getTypeName(lvalue.getType()) + "(" + lvalue + ")' can not be an operand for " +
+                            operator.symbol);}
+                    if (!(rvalue instanceof ComputableValue))
                         {throw new XPathException(this, ErrorCodes.XPTY0004, "'" +
-                            Type.getTypeName(rvalue.getType()) + "(" + rvalue + ")' can not be an operand for " + operator.symbol);}
-                    //If the divisor is (positive or negative) zero, then an error is raised [err:FOAR0001]
-                    if (((NumericValue)rvalue).isZero())
-                        {throw new XPathException(this, ErrorCodes.FOAR0001, "Division by zero");}
-                    //If either operand is NaN then an error is raised [err:FOAR0002].
-                    if (((NumericValue)lvalue).isNaN())
-                        {throw new XPathException(this, ErrorCodes.FOAR0002, "Division of " +
-                            Type.getTypeName(lvalue.getType()) + "(" + lvalue + ")'");}
-                    //If either operand is NaN then an error is raised [err:FOAR0002].
-                    if (((NumericValue)rvalue).isNaN())
-                        {throw new XPathException(this, ErrorCodes.FOAR0002, "Division of " + 
-                            Type.getTypeName(rvalue.getType()) + "(" + rvalue + ")'");}
-                    //If $arg1 is INF or -INF then an error is raised [err:FOAR0002].
-                    if (((NumericValue)lvalue).isInfinite())
-                        {throw new XPathException(this, ErrorCodes.FOAR0002, "Division of " +
-                            Type.getTypeName(lvalue.getType()) + "(" + lvalue + ")'");}
-                    result = ((NumericValue) lvalue).idiv((NumericValue) rvalue);
-                } else {
-                    result = applyOperator((ComputableValue) lvalue, (ComputableValue) rvalue);
+                            Type.getTypeName(rvalue.getType()) + "(" + rvalue + ")' can not be an operand for " +
+                            operator.symbol);}
+                    //TODO : move to implementations
+                    if (operator == ArithmeticOperator.DIVISION_INTEGER) {
+                        if (!Type.subTypeOf(lvalue.getType(), Type.NUMBER))
+                            {throw new XPathException(this, ErrorCodes.XPTY0004, "'" +
+                                Type.getTypeName(lvalue.getType()) + "(" + lvalue + ")' can not be an operand for " + operator.symbol);}
+                        if (!Type.subTypeOf(rvalue.getType(), Type.NUMBER))
+                            {throw new XPathException(this, ErrorCodes.XPTY0004, "'" +
+                                Type.getTypeName(rvalue.getType()) + "(" + rvalue + ")' can not be an operand for " + operator.symbol);}
+                        //If the divisor is (positive or negative) zero, then an error is raised [err:FOAR0001]
+                        if (((NumericValue)rvalue).isZero())
+                            {throw new XPathException(this, ErrorCodes.FOAR0001, "Division by zero");}
+                        //If either operand is NaN then an error is raised [err:FOAR0002].
+                        if (((NumericValue)lvalue).isNaN())
+                            {throw new XPathException(this, ErrorCodes.FOAR0002, "Division of " +
+                                Type.getTypeName(lvalue.getType()) + "(" + lvalue + ")'");}
+                        //If either operand is NaN then an error is raised [err:FOAR0002].
+                        if (((NumericValue)rvalue).isNaN())
+                            {throw new XPathException(this, ErrorCodes.FOAR0002, "Division of " + 
+                                Type.getTypeName(rvalue.getType()) + "(" + rvalue + ")'");}
+                        //If $arg1 is INF or -INF then an error is raised [err:FOAR0002].
+                        if (((NumericValue)lvalue).isInfinite())
+                            {throw new XPathException(this, ErrorCodes.FOAR0002, "Division of " +
+                                Type.getTypeName(lvalue.getType()) + "(" + lvalue + ")'");}
+                        result = ((NumericValue) lvalue).idiv((NumericValue) rvalue);
+                    } else {
+                        result = applyOperator((ComputableValue) lvalue, (ComputableValue) rvalue);
+                    }
                 }
                 //TODO : type-checks on MOD operator : maybe the same ones than above -pb
             } catch (final XPathException e) {
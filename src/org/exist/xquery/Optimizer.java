@@ -180,6 +180,25 @@ public class Optimizer extends DefaultExpressionVisitor {
         }
     }
 
+    @Override
+    public void visitPathExpr(PathExpr expression) {
+        super.visitPathExpr(expression);
+        if (predicates > 0) {
+            return;
+        }
+        // check query rewriters if they want to rewrite the steps of the path
+        for (QueryRewriter rewriter : rewriters) {
+            try {
+                if (rewriter.rewritePathExpr(expression)) {
+                    hasOptimized = true;
+                    break;
+                }
+            } catch (XPathException e) {
+                LOG.warn("Exception called while rewriting path expression: " + e.getMessage(), e);
+            }
+        }
+    }
+
     public void visitFilteredExpr(FilteredExpression filtered) {
         super.visitFilteredExpr(filtered);
 
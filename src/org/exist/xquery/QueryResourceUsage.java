@@ -0,0 +1,273 @@
+/*
+ * eXist Open Source Native XML Database
+ * Copyright (C) 2001-2016 The eXist Project
+ * http://exist-db.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.exist.xquery;
+
+import net.jcip.annotations.ThreadSafe;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The resources used by a single query: pages read from and cache hits in each
+ * database file, lookups and hits per index, persistent nodes materialized, output
+ * written by the serializer, and the time spent waiting for locks and for a broker.
+ *
+ * An instance is owned by the {@link XQueryWatchDog} of a query. While the query is
+ * executed, it is bound to the executing thread (see {@link #bind(QueryResourceUsage)}),
+ * so that the storage layer, which does not know the query it works for, can record
+ * through the static methods of this class. If no query is bound to the current thread,
+ * recording only costs a thread-local lookup.
+ *
+ * The counters may be read by other threads while the query is running.
+ */
+@ThreadSafe
+public class QueryResourceUsage {
+
+    private static final ThreadLocal<QueryResourceUsage> CURRENT = new ThreadLocal<>();
+
+    private final Map<String, Counter> files = new ConcurrentHashMap<>();
+    private final Map<String, Counter> indexes = new ConcurrentHashMap<>();
+    private final LongAdder nodesMaterialized = new LongAdder();
+    private final LongAdder serialized = new LongAdder();
+    private final LongAdder lockWaitTime = new LongAdder();
+    private volatile long brokerWaitTime = 0;
+
+    /**
+     * Bind the given usage to the current thread.
+     *
+     * @param usage the usage to record to, or null to stop recording
+     * @return the usage previously bound to the thread, which should be bound again
+     *     once the query has finished
+     */
+    public static QueryResourceUsage bind(final QueryResourceUsage usage) {
+        final QueryResourceUsage previous = CURRENT.get();
+        if (usage == null) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(usage);
+        }
+        return previous;
+    }
+
+    /**
+     * @return the usage bound to the current thread, or null
+     */
+    public static QueryResourceUsage current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Record that a page of a database file was read from disk.
+     *
+     * @param file the name of the file
+     */
+    public static void pageRead(final String file) {
+        final QueryResourceUsage usage = CURRENT.get();
+        if (usage != null) {
+            usage.counter(usage.files, file).count.increment();
+        }
+    }
+
+    /**
+     * Record that a page of a database file was found in its cache.
+     *
+     * @param file the name of the file
+     */
+    public static void cacheHit(final String file) {
+        final QueryResourceUsage usage = CURRENT.get();
+        if (usage != null) {
+            usage.counter(usage.files, file).hits.increment();
+        }
+    }
+
+    /**
+     * Record a lookup in an index.
+     *
+     * @param index the name of the index
+     * @param hits the number of nodes found
+     */
+    public static void indexLookup(final String index, final int hits) {
+        final QueryResourceUsage usage = CURRENT.get();
+        if (usage != null) {
+            final Counter counter = usage.counter(usage.indexes, index);
+            counter.count.increment();
+            counter.hits.add(hits);
+        }
+    }
+
+    /**
+     * Record that a persistent node was materialized from its stored form.
+     */
+    public static void nodeMaterialized() {
+        final QueryResourceUsage usage = CURRENT.get();
+        if (usage != null) {
+            usage.nodesMaterialized.increment();
+        }
+    }
+
+    /**
+     * Record output written by the serializer.
+     *
+     * @param length the number of bytes, or characters if the output is a character stream
+     */
+    public static void serialized(final long length) {
+        final QueryResourceUsage usage = CURRENT.get();
+        if (usage != null) {
+            usage.serialized.add(length);
+        }
+    }
+
+    /**
+     * Record the time spent waiting for a lock.
+     *
+     * @param nanos the wait time in nanoseconds
+     */
+    public static void lockWait(final long nanos) {
+        final QueryResourceUsage usage = CURRENT.get();
+        if (usage != null) {
+            usage.lockWaitTime.add(nanos);
+        }
+    }
+
+    private Counter counter(final Map<String, Counter> counters, final String name) {
+        final Counter counter = counters.get(name);
+        return counter != null ? counter : counters.computeIfAbsent(name, k -> new Counter());
+    }
+
+    /**
+     * @param nanos the time the thread running the query waited for its broker
+     */
+    public void setBrokerWaitTime(final long nanos) {
+        this.brokerWaitTime = nanos;
+    }
+
+    /**
+     * @return the pages read from disk, by file name
+     */
+    public Map<String, Long> getPagesRead() {
+        final Map<String, Long> map = new TreeMap<>();
+        files.forEach((file, counter) -> map.put(file, counter.count.sum()));
+        return Collections.unmodifiableMap(map);
+    }
+
+    /**
+     * @return the cache hits, by file name
+     */
+    public Map<String, Long> getCacheHits() {
+        final Map<String, Long> map = new TreeMap<>();
+        files.forEach((file, counter) -> map.put(file, counter.hits.sum()));
+        return Collections.unmodifiableMap(map);
+    }
+
+    /**
+     * @return the index lookups, by index name
+     */
+    public Map<String, Long> getIndexLookups() {
+        final Map<String, Long> map = new TreeMap<>();
+        indexes.forEach((index, counter) -> map.put(index, counter.count.sum()));
+        return Collections.unmodifiableMap(map);
+    }
+
+    /**
+     * @return the nodes found by index lookups, by index name
+     */
+    public Map<String, Long> getIndexHits() {
+        final Map<String, Long> map = new TreeMap<>();
+        indexes.forEach((index, counter) -> map.put(index, counter.hits.sum()));
+        return Collections.unmodifiableMap(map);
+    }
+
+    public long getTotalPagesRead() {
+        return files.values().stream().mapToLong(counter -> counter.count.sum()).sum();
+    }
+
+    public long getTotalCacheHits() {
+        return files.values().stream().mapToLong(counter -> counter.hits.sum()).sum();
+    }
+
+    public long getTotalIndexLookups() {
+        return indexes.values().stream().mapToLong(counter -> counter.count.sum()).sum();
+    }
+
+    public long getNodesMaterialized() {
+        return nodesMaterialized.sum();
+    }
+
+    /**
+     * @return the bytes written by the serializer, or characters when serializing to a character stream
+     */
+    public long getSerialized() {
+        return serialized.sum();
+    }
+
+    /**
+     * @return the time spent waiting for locks in milliseconds
+     */
+    public long getLockWaitTime() {
+        return TimeUnit.NANOSECONDS.toMillis(lockWaitTime.sum());
+    }
+
+    /**
+     * @return the time the thread running the query waited for its broker in milliseconds
+     */
+    public long getBrokerWaitTime() {
+        return TimeUnit.NANOSECONDS.toMillis(brokerWaitTime);
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder buf = new StringBuilder();
+        buf.append("pages read: ").append(getTotalPagesRead());
+        buf.append(", cache hits: ").append(getTotalCacheHits());
+        buf.append(" [");
+        appendCounters(buf, files, "read", "hits");
+        buf.append("], index lookups: ").append(getTotalIndexLookups());
+        buf.append(" [");
+        appendCounters(buf, indexes, "lookups", "hits");
+        buf.append("], nodes materialized: ").append(getNodesMaterialized());
+        buf.append(", serialized: ").append(getSerialized());
+        buf.append(", lock wait: ").append(getLockWaitTime()).append(" ms");
+        buf.append(", broker wait: ").append(getBrokerWaitTime()).append(" ms");
+        return buf.toString();
+    }
+
+    private static void appendCounters(final StringBuilder buf, final Map<String, Counter> counters,
+            final String countLabel, final String hitsLabel) {
+        boolean first = true;
+        for (final Map.Entry<String, Counter> entry : new TreeMap<>(counters).entrySet()) {
+            if (!first) {
+                buf.append(", ");
+            }
+            first = false;
+            buf.append(entry.getKey()).append(": ")
+                .append(entry.getValue().count.sum()).append(' ').append(countLabel).append(' ')
+                .append(entry.getValue().hits.sum()).append(' ').append(hitsLabel);
+        }
+    }
+
+    private static final class Counter {
+        private final LongAdder count = new LongAdder();
+        private final LongAdder hits = new LongAdder();
+    }
+}
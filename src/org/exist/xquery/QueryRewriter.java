@@ -48,6 +48,19 @@ public class QueryRewriter {
         return null;
     }
 
+    /**
+     * Rewrite the steps of a path expression to make use of indexes. Called by the optimizer
+     * after all steps of the path have been visited. Path expressions inside predicates are not
+     * passed to this method.
+     *
+     * @param path the path expression to rewrite
+     * @return true if the path expression was modified
+     * @throws XPathException
+     */
+    public boolean rewritePathExpr(PathExpr path) throws XPathException {
+        return false;
+    }
+
     protected XQueryContext getContext() {
         return context;
     }
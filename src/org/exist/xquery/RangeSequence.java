@@ -1,17 +1,22 @@
 package org.exist.xquery;
 
+import java.math.BigInteger;
+
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.exist.dom.persistent.NodeSet;
+import org.exist.xquery.Constants.Comparison;
 import org.exist.xquery.value.AbstractSequence;
 import org.exist.xquery.value.IntegerValue;
 import org.exist.xquery.value.Item;
 import org.exist.xquery.value.MemoryNodeSet;
+import org.exist.xquery.value.NumericSequence;
+import org.exist.xquery.value.NumericValue;
 import org.exist.xquery.value.Sequence;
 import org.exist.xquery.value.SequenceIterator;
 import org.exist.xquery.value.Type;
 
-public class RangeSequence extends AbstractSequence {
+public class RangeSequence extends AbstractSequence implements NumericSequence {
 
 	private final static Logger LOG = LogManager.getLogger(AbstractSequence.class);
 	
@@ -60,7 +65,7 @@ public class RangeSequence extends AbstractSequence {
 
 		public Item nextItem() {
             if (current <= end) {
-                return new IntegerValue(current++);
+                return IntegerValue.valueOf(current++);
             } else {
                 return null;
             }
@@ -82,7 +87,7 @@ public class RangeSequence extends AbstractSequence {
 
         public Item nextItem() {
             if (current >= start) {
-                return new IntegerValue(current--);
+                return IntegerValue.valueOf(current--);
             } else {
                 return null;
             }
@@ -119,13 +124,64 @@ public class RangeSequence extends AbstractSequence {
 	public Item itemAt(int pos) {
 		if (pos <= getItemCount())
 			try {
-				return new IntegerValue(start.getLong() + pos);
+				return IntegerValue.valueOf(start.getLong() + pos);
 			} catch (final XPathException e) {
 				LOG.warn("Unexpected exception when processing result of range expression: " + e.getMessage(), e);
 			}
 		return null;
 	}
 
+	@Override
+	public NumericValue sum() throws XPathException {
+		final long first = start.getLong();
+		final long last = end.getLong();
+		try {
+			// n * (first + last) is always even
+			return IntegerValue.valueOf(Math.multiplyExact(last - first + 1, Math.addExact(first, last)) / 2);
+		} catch (final ArithmeticException e) {
+			final BigInteger n = BigInteger.valueOf(last).subtract(BigInteger.valueOf(first)).add(BigInteger.ONE);
+			return new IntegerValue(n.multiply(BigInteger.valueOf(first).add(BigInteger.valueOf(last))).shiftRight(1));
+		}
+	}
+
+	@Override
+	public NumericValue min() throws XPathException {
+		return IntegerValue.valueOf(start.getLong());
+	}
+
+	@Override
+	public NumericValue max() throws XPathException {
+		return IntegerValue.valueOf(end.getLong());
+	}
+
+	@Override
+	public boolean compareAny(final Comparison operator, final NumericValue other) throws XPathException {
+		if (other instanceof IntegerValue && !((IntegerValue) other).isBig() && !isEmpty()) {
+			final long first = start.getLong();
+			final long last = end.getLong();
+			final long o = other.getLong();
+			switch (operator) {
+				case EQ:
+					return first <= o && o <= last;
+				case NEQ:
+					return first != last || first != o;
+				case GT:
+					return last > o;
+				case GTEQ:
+					return last >= o;
+				case LT:
+					return first < o;
+				case LTEQ:
+					return first <= o;
+			}
+		}
+		for (final SequenceIterator i = iterate(); i.hasNext(); ) {
+			if (((NumericValue) i.nextItem()).compareTo(null, operator, other))
+				{return true;}
+		}
+		return false;
+	}
+
 	public NodeSet toNodeSet() throws XPathException {
 		throw new XPathException("Type error: the sequence cannot be converted into" +
 				" a node set. Item type is xs:integer");
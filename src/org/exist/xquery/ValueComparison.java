@@ -34,6 +34,7 @@ import org.exist.xquery.Constants.StringTruncationOperator;
 import org.exist.xquery.util.ExpressionDumper;
 import org.exist.xquery.value.AtomicValue;
 import org.exist.xquery.value.BooleanValue;
+import org.exist.xquery.value.IntegerValue;
 import org.exist.xquery.value.Item;
 import org.exist.xquery.value.Sequence;
 import org.exist.xquery.value.Type;
@@ -121,6 +122,9 @@ public class ValueComparison extends GeneralComparison {
 	 * and compare them.
 	 */
 	public static boolean compareAtomic(Collator collator, AtomicValue lv, AtomicValue rv, StringTruncationOperator truncation, Comparison relation) throws XPathException {
+		if (truncation == StringTruncationOperator.NONE && lv instanceof IntegerValue && rv instanceof IntegerValue)
+			//xs:integer operands are compared exactly and without any conversion
+			{return lv.compareTo(collator, relation, rv);}
 		int ltype = lv.getType();
 		int rtype = rv.getType();
 		if (ltype == Type.UNTYPED_ATOMIC) {
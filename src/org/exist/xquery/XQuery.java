@@ -207,6 +207,7 @@ public class XQuery {
         if(resetContext) {
             //context.setBroker(broker);
             context.getWatchDog().reset();
+            context.getWatchDog().resetResourceUsage();
         }
 
         if(context.requireDebugMode()) {
@@ -248,6 +249,9 @@ public class XQuery {
             }
             
             context.getProfiler().traceQueryStart();
+            final QueryResourceUsage resourceUsage = context.getWatchDog().getResourceUsage();
+            resourceUsage.setBrokerWaitTime(broker.takeLeaseWaitTime());
+            final QueryResourceUsage previousResourceUsage = QueryResourceUsage.bind(resourceUsage);
             broker.getBrokerPool().getProcessMonitor().queryStarted(context.getWatchDog());
             try {
                 final Sequence result = expression.eval(contextSequence);
@@ -263,6 +267,7 @@ public class XQuery {
                 return result;
             } finally {
                 context.getProfiler().traceQueryEnd(context);
+                QueryResourceUsage.bind(previousResourceUsage);
                 // track query stats before context is reset
                 broker.getBrokerPool().getProcessMonitor().queryCompleted(context.getWatchDog());
                 expression.reset();
@@ -286,6 +286,9 @@ public class XQueryContext implements BinaryValueManager, Context
 
     private LockedDocumentMap                          protectedDocuments            = null;
 
+    /** Documents resolved by fn:doc() and fn:collection() during the query. */
+    private final DocumentSetCache.ContextCache        documentSetCache              = new DocumentSetCache.ContextCache();
+
     /** The profiler instance used by this context. */
     protected Profiler                                 profiler;
 
@@ -1228,6 +1231,18 @@ public class XQueryContext implements BinaryValueManager, Context
     }
 
 
+    /**
+     * Returns the documents resolved by fn:doc() and fn:collection() during the query.
+     *
+     * @return the cache of resolved documents
+     * @see DocumentSetCache
+     */
+    public DocumentSetCache.ContextCache getDocumentSetCache()
+    {
+        return( documentSetCache );
+    }
+
+
     /**
      * Should loaded documents be locked?
      *
@@ -1383,6 +1398,7 @@ public class XQueryContext implements BinaryValueManager, Context
         fragmentStack = new Stack<MemTreeBuilder>();
         callStack.clear();
         protectedDocuments = null;
+        documentSetCache.clear();
 
         if( !keepGlobals ) {
             globalVariables.clear();
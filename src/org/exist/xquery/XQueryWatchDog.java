@@ -45,6 +45,8 @@ public class XQueryWatchDog {
     
     public final static String PROPERTY_QUERY_TIMEOUT = "db-connection.watchdog.query-timeout";
     public final static String PROPERTY_OUTPUT_SIZE_LIMIT = "db-connection.watchdog.output-size-limit";
+    public final static String PROPERTY_SLOW_QUERY_TIME = "db-connection.watchdog.slow-query-time";
+    public final static String PROPERTY_SLOW_QUERY_PAGES = "db-connection.watchdog.slow-query-pages";
 
     private final XQueryContext context;
     
@@ -60,6 +62,8 @@ public class XQueryWatchDog {
 
     private String runningThread = null;
 
+    private volatile QueryResourceUsage resourceUsage = new QueryResourceUsage();
+
     /**
      * 
      */
@@ -197,6 +201,20 @@ public class XQueryWatchDog {
         startTime = System.currentTimeMillis();
         terminate = false;
     }
+
+    /**
+     * @return the resources used by the query since it was last started
+     */
+    public QueryResourceUsage getResourceUsage() {
+        return resourceUsage;
+    }
+
+    /**
+     * Start recording the resources used by the query afresh.
+     */
+    public void resetResourceUsage() {
+        resourceUsage = new QueryResourceUsage();
+    }
     
     public boolean isTerminating()
     {
@@ -43,6 +43,7 @@ import org.exist.util.LockException;
 import org.exist.xmldb.XmldbURI;
 import org.exist.xquery.Cardinality;
 import org.exist.xquery.Dependency;
+import org.exist.xquery.DocumentSetCache;
 import org.exist.xquery.Function;
 import org.exist.xquery.FunctionSignature;
 import org.exist.xquery.Profiler;
@@ -126,11 +127,36 @@ public class ExtCollection extends Function {
         // }
         //Build the document set
         DocumentSet docs = null;
+        boolean cached = false;
         try {
             if (args.size() == 0) {
                 //TODO : add default collection to the context
                 //If the value of the default collection is undefined an error is raised [err:FODC0002].
                 docs = context.getStaticallyKnownDocuments();
+            } else if (!context.inProtectedMode()) {
+                // the documents are not locked for the query, so they can be cached
+                final DocumentSetCache cache = context.getBroker().getBrokerPool().getDocumentSetCache();
+                MutableDocumentSet ndocs = null;
+                for (final String next : args) {
+                    final XmldbURI uri = new AnyURIValue(next).toXmldbURI();
+                    final DocumentSet collDocs = cache.getDocuments(context, uri, includeSubCollections);
+                    if (collDocs == null) {
+                        if (context.isRaiseErrorOnFailedRetrieval()) {
+                            throw new XPathException("FODC0002: can not access collection '" + uri + "'");
+                        }
+                    } else if (args.size() == 1) {
+                        docs = collDocs;
+                    } else {
+                        if (ndocs == null) {
+                            ndocs = new DefaultDocumentSet();
+                        }
+                        ndocs.addAll(collDocs);
+                    }
+                }
+                if (docs == null) {
+                    docs = ndocs == null ? DocumentSet.EMPTY_DOCUMENT_SET : ndocs;
+                }
+                cached = true;
             } else {
                 MutableDocumentSet ndocs = new DefaultDocumentSet();
                 for (final String next : args) {
@@ -141,11 +167,7 @@ public class ExtCollection extends Function {
                             throw new XPathException("FODC0002: can not access collection '" + uri + "'");
                         }
                     } else {
-                        if (context.inProtectedMode())
-                            {context.getProtectedDocs().getDocsByCollection(coll, ndocs);}
-                        else
-                            {coll.allDocs(context.getBroker(), ndocs,
-                                includeSubCollections, context.getProtectedDocs());}
+                        context.getProtectedDocs().getDocsByCollection(coll, ndocs);
                     }
                 }
                 docs = ndocs;
@@ -163,6 +185,11 @@ public class ExtCollection extends Function {
         DocumentImpl doc;
         for (final Iterator<DocumentImpl> i = docs.getDocumentIterator(); i.hasNext();) {
             doc = i.next();
+            if (cached) {
+                // the documents have been checked when they were added to the cache
+                result.add(new NodeProxy(doc));
+                continue;
+            }
             dlock = doc.getUpdateLock();
             boolean lockAcquired = false;
             try {
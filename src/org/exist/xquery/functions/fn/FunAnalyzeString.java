@@ -10,6 +10,7 @@ import org.exist.xquery.Function;
 import org.exist.xquery.FunctionSignature;
 import org.exist.xquery.XPathException;
 import org.exist.xquery.XQueryContext;
+import org.exist.xquery.regex.RegexCache;
 import org.exist.xquery.value.FunctionParameterSequenceType;
 import org.exist.xquery.value.FunctionReturnSequenceType;
 import org.exist.xquery.value.NodeValue;
@@ -100,13 +101,8 @@ public class FunAnalyzeString extends BasicFunction {
     }
 
     private void analyzeString(final MemTreeBuilder builder, final String input, final String pattern, final String flags) throws XPathException {
-        final Pattern ptn;
-        if (flags != null) {
-            final int iFlags = parseStringFlags(flags);
-            ptn = Pattern.compile(pattern, iFlags);
-        } else {
-            ptn = Pattern.compile(pattern);
-        }
+        final int iFlags = flags != null ? parseStringFlags(flags) : 0;
+        final Pattern ptn = RegexCache.getInstance().get(pattern, iFlags).getPattern();
         
         final Matcher matcher = ptn.matcher(input);
         
@@ -40,6 +40,7 @@ import org.exist.xquery.value.FunctionReturnSequenceType;
 import org.exist.xquery.value.FunctionParameterSequenceType;
 import org.exist.xquery.value.IntegerValue;
 import org.exist.xquery.value.Item;
+import org.exist.xquery.value.NumericSequence;
 import org.exist.xquery.value.NumericValue;
 import org.exist.xquery.value.Sequence;
 import org.exist.xquery.value.SequenceIterator;
@@ -92,6 +93,8 @@ public class FunAvg extends Function {
         final Sequence inner = getArgument(0).eval(contextSequence, contextItem);
         if (inner.isEmpty()) {
             result = Sequence.EMPTY_SEQUENCE;
+        } else if (inner instanceof NumericSequence) {
+            result = ((ComputableValue) ((NumericSequence) inner).sum()).div(IntegerValue.valueOf(inner.getItemCount()));
         } else {
             final SequenceIterator iter = inner.iterate();
             Item item = iter.nextItem();
@@ -109,6 +112,11 @@ public class FunAvg extends Function {
             while (iter.hasNext()) {
                 item = iter.nextItem();
                 value = item.atomize();
+                if (sum instanceof IntegerValue && value instanceof IntegerValue) {
+                    //xs:integer values need neither checks nor promotion
+                    sum = sum.plus((IntegerValue) value);
+                    continue;
+                }
                 //Any value of type xdt:untypedAtomic are cast to xs:double
                 if (value.getType() == Type.UNTYPED_ATOMIC) 
                     {value = value.convertTo(Type.DOUBLE);}
@@ -133,7 +141,7 @@ public class FunAvg extends Function {
                     throw new XPathException(this, ErrorCodes.FORG0006, e.getMessage());
                 }
             }
-            result = sum.div(new IntegerValue(inner.getItemCount()));
+            result = sum.div(IntegerValue.valueOf(inner.getItemCount()));
         }
         if (!gotInfinity) {
             if (Type.subTypeOf(result.getItemType(), Type.NUMBER) &&
@@ -29,7 +29,8 @@ import org.exist.storage.DBBroker;
 import org.exist.storage.ElementValue;
 import org.exist.storage.NativeValueIndex;
 import org.exist.xquery.pragmas.Optimize;
-import org.exist.xquery.regex.JDK15RegexTranslator;
+import org.exist.xquery.regex.CompiledRegex;
+import org.exist.xquery.regex.RegexCache;
 import org.exist.xquery.regex.RegexSyntaxException;
 import org.exist.xquery.*;
 import org.exist.xquery.util.Error;
@@ -207,14 +208,6 @@ public class FunMatches extends Function implements Optimizable, IndexUseReporte
         if (LOG.isTraceEnabled())
             {LOG.trace("Using QName index on type " + Type.getTypeName(indexType));}
 		
-        String pattern;
-		
-		if( isCalledAs( "matches-regex" ) ) {
-			pattern = getArgument(1).eval(contextSequence).getStringValue();
-		} else {
-			pattern = translateRegexp(getArgument(1).eval(contextSequence).getStringValue());
-		}
-		
         boolean caseSensitive = true;
         int flags = 0;
         if(getSignature().getArgumentCount() == 3) {
@@ -222,6 +215,8 @@ public class FunMatches extends Function implements Optimizable, IndexUseReporte
             caseSensitive = (flagsArg.indexOf('i') == Constants.STRING_NOT_FOUND);
             flags = parseFlags(flagsArg);
         }
+
+        final String pattern = getRegex(getArgument(1).eval(contextSequence).getStringValue(), flags).pattern();
         try {
             preselectResult = context.getBroker().getValueIndex().match(context.getWatchDog(), contextSequence.getDocumentSet(),
                     useContext ? contextSequence.toNodeSet() : null, NodeSet.DESCENDANT, pattern,
@@ -364,15 +359,10 @@ public class FunMatches extends Function implements Optimizable, IndexUseReporte
         }
         
         Sequence result = null;
-		
-        String pattern;
-		
-		if( isCalledAs( "matches-regex" ) ) {
-			pattern = getArgument(1).eval(contextSequence, contextItem).getStringValue();
-		} else {
-			pattern = translateRegexp(getArgument(1).eval(contextSequence, contextItem).getStringValue());
-		}
-		
+
+        final Pattern regex = getRegex(getArgument(1).eval(contextSequence, contextItem).getStringValue(), flags);
+        final String pattern = regex.pattern();
+
         final NodeSet nodes = input.toNodeSet();
         // get the type of a possible index
 		final int indexType = nodes.getIndexType();
@@ -400,7 +390,7 @@ public class FunMatches extends Function implements Optimizable, IndexUseReporte
                     // else use range index defined on path by default
                 }
             } else
-                {result = evalFallback(nodes, pattern, flags, indexType);}
+                {result = evalFallback(nodes, regex, indexType);}
 
             if (result == null) {
                 final DocumentSet docs = nodes.getDocumentSet();
@@ -421,7 +411,7 @@ public class FunMatches extends Function implements Optimizable, IndexUseReporte
                 }
             }
         } else {
-            result = evalFallback(nodes, pattern, flags, indexType);
+            result = evalFallback(nodes, regex, indexType);
 		}
         
         if (context.getProfiler().isEnabled()) 
@@ -431,40 +421,57 @@ public class FunMatches extends Function implements Optimizable, IndexUseReporte
         
     }
 
-    private Sequence evalFallback(NodeSet nodes, String pattern, int flags, int indexType) throws XPathException {
+    private Sequence evalFallback(NodeSet nodes, Pattern regex, int indexType) throws XPathException {
         Sequence result;
         if (LOG.isTraceEnabled())
             {LOG.trace("fn:matches: can't use existing range index of type " + Type.getTypeName(indexType) + ". Need a string index.");}
         result = new ExtArrayNodeSet();
         for(final NodeProxy node : nodes) {
-            if (match(node.getStringValue(), pattern, flags))
+            if (match(node.getStringValue(), regex))
                 {result.add(node);}
         }
         return result;
     }
 
     /**
-	 * Translates the regular expression from XPath2 syntax to java regex
-	 * syntax.
+	 * Looks up the compiled regular expression in the shared {@link RegexCache}.
+	 * The expression is translated from XPath2 syntax to java regex syntax unless
+	 * the function is called as fn:matches-regex.
 	 * 
-	 * @param pattern
-	 * @return The translated regexp
-	 * @throws XPathException
+	 * @param pattern the regular expression
+	 * @param flags the java regex flags
+	 * @return The compiled regexp
+	 * @throws XPathException if the expression is invalid
 	 */
-	protected String translateRegexp(String pattern) throws XPathException {
-		// convert pattern to Java regex syntax
+	protected Pattern getRegex(String pattern, int flags) throws XPathException {
         try {
-        	final int xmlVersion = 11;
-        	final boolean ignoreWhitespace = false;
-        	final boolean caseBlind = false;
-			pattern = JDK15RegexTranslator.translate(pattern, xmlVersion, true, ignoreWhitespace, caseBlind);
-		} catch (final RegexSyntaxException e) {
-			throw new XPathException(this, "Conversion from XPath2 to Java regular expression " +
-					"syntax failed: " + e.getMessage(), e);
-		}
-		return pattern;
+            if (isCalledAs("matches-regex")) {
+                return RegexCache.getInstance().get(pattern, flags).getPattern();
+            }
+            return getCompiledRegex(pattern, flags).getPattern();
+        } catch (final PatternSyntaxException e) {
+            throw new XPathException(this, ErrorCodes.FORX0001, "Invalid regular expression: " + e.getMessage(), new StringValue(pattern), e);
+        }
 	}
 
+    /**
+     * Looks up the compiled regular expression in XPath2 syntax in the shared {@link RegexCache}.
+     *
+     * @param pattern the regular expression
+     * @param flags the java regex flags
+     * @return The compiled regexp
+     * @throws XPathException if the expression can not be translated to java regex syntax
+     * @throws PatternSyntaxException if the translated expression is invalid
+     */
+    protected CompiledRegex getCompiledRegex(String pattern, int flags) throws XPathException {
+        try {
+            return RegexCache.getInstance().getXPath(pattern, flags);
+        } catch (final RegexSyntaxException e) {
+            throw new XPathException(this, "Conversion from XPath2 to Java regular expression " +
+                    "syntax failed: " + e.getMessage(), e);
+        }
+    }
+
     /**
      * @param contextSequence
      * @param contextItem
@@ -474,43 +481,29 @@ public class FunMatches extends Function implements Optimizable, IndexUseReporte
      */
     private Sequence evalGeneric(Sequence contextSequence, Item contextItem, Sequence stringArg) throws XPathException {
         final String string = stringArg.getStringValue();
-		String pattern;
-		
-		if( isCalledAs( "matches-regex" ) ) {
-			pattern = getArgument(1).eval(contextSequence, contextItem).getStringValue();
-		} else {
-			pattern = translateRegexp(getArgument(1).eval(contextSequence, contextItem).getStringValue());
-		}
-        
+
 		int flags = 0;
         if(getSignature().getArgumentCount() == 3)
             {flags = parseFlags(getArgument(2).eval(contextSequence, contextItem).getStringValue());}
-        
-		return BooleanValue.valueOf(match(string, pattern, flags));
+
+        final Pattern regex = getRegex(getArgument(1).eval(contextSequence, contextItem).getStringValue(), flags);
+		return BooleanValue.valueOf(match(string, regex));
     }
 
     /**
      * @param string
-     * @param pattern
-     * @param flags
-     * @return Whether or not the string matches the given pattern with the given flags     
-     * @throws XPathException
+     * @param regex
+     * @return Whether or not the string matches the given pattern
      */
-    private boolean match(String string, String pattern, int flags) throws XPathException {
-        try {
-			if(pat == null || (!pattern.equals(pat.pattern())) || flags != pat.flags()) {
-				pat = Pattern.compile(pattern, flags);
-				//TODO : make matches('&#x212A;', '[A-Z]', 'i') work !
-                matcher = pat.matcher(string);
-            } else {
-                matcher.reset(string);
-            }
-            
-			return matcher.find();
-			
-		} catch (final PatternSyntaxException e) {
-			throw new XPathException(this, ErrorCodes.FORX0001, "Invalid regular expression: " + e.getMessage(), new StringValue(pattern), e);
-		}
+    private boolean match(String string, Pattern regex) {
+        if (regex != pat) {
+            pat = regex;
+            //TODO : make matches('&#x212A;', '[A-Z]', 'i') work !
+            matcher = pat.matcher(string);
+        } else {
+            matcher.reset(string);
+        }
+        return matcher.find();
     }
 
     protected final static int parseFlags(String s) throws XPathException {
@@ -163,8 +163,6 @@ public class FunReplace extends FunMatches {
         else {        
     		final String string = stringArg.getStringValue();
     		final Sequence patternSeq = getArgument(1).eval(contextSequence, contextItem);
-                final String pattern =
-    			translateRegexp(patternSeq.getStringValue());
             
                 final Sequence replaceSeq = getArgument(2).eval(contextSequence, contextItem);
                 final String replace =
@@ -201,8 +199,9 @@ public class FunReplace extends FunMatches {
     		if (getSignature().getArgumentCount() == 4)
     			{flags =	parseFlags(getArgument(3).eval(contextSequence, contextItem).getStringValue());}
     		try {
-    			if (pat == null || (!pattern.equals(pat.pattern())) || flags != pat.flags()) {
-    				pat = Pattern.compile(pattern, flags);
+    			final Pattern regex = getCompiledRegex(patternSeq.getStringValue(), flags).getPattern();
+    			if (regex != pat) {
+    				pat = regex;
                     matcher = pat.matcher(string);
                 } else {
                     matcher.reset(string);
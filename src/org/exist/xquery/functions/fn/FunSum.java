@@ -38,6 +38,7 @@ import org.exist.xquery.value.FunctionParameterSequenceType;
 import org.exist.xquery.value.FunctionReturnSequenceType;
 import org.exist.xquery.value.IntegerValue;
 import org.exist.xquery.value.Item;
+import org.exist.xquery.value.NumericSequence;
 import org.exist.xquery.value.NumericValue;
 import org.exist.xquery.value.Sequence;
 import org.exist.xquery.value.SequenceIterator;
@@ -97,6 +98,8 @@ public class FunSum extends Function {
 			if(getSignature().getArgumentCount() == 2)
 				{zero = getArgument(1).eval(contextSequence, contextItem);}
 			result = zero;
+		} else if (inner instanceof NumericSequence) {
+			result = ((NumericSequence) inner).sum();
 		} else {
     		final SequenceIterator iter = inner.iterate();
     		Item item = iter.nextItem();
@@ -110,6 +113,12 @@ public class FunSum extends Function {
     			item = iter.nextItem();
     			value = item.atomize();
 
+    			if (sum instanceof IntegerValue && value instanceof IntegerValue) {
+    				//xs:integer values need neither checks nor promotion
+    				sum = sum.plus((IntegerValue) value);
+    				continue;
+    			}
+
             	value = check(value, sum);
     			
         		if (Type.subTypeOf(value.getType(), Type.NUMBER)) {
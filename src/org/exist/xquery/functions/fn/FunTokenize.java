@@ -21,7 +21,6 @@
  */
 package org.exist.xquery.functions.fn;
 
-import java.util.regex.Pattern;
 import java.util.regex.PatternSyntaxException;
 
 import org.exist.dom.QName;
@@ -33,6 +32,7 @@ import org.exist.xquery.FunctionSignature;
 import org.exist.xquery.Profiler;
 import org.exist.xquery.XPathException;
 import org.exist.xquery.XQueryContext;
+import org.exist.xquery.regex.CompiledRegex;
 import org.exist.xquery.value.FunctionParameterSequenceType;
 import org.exist.xquery.value.FunctionReturnSequenceType;
 import org.exist.xquery.value.Item;
@@ -102,19 +102,17 @@ public class FunTokenize extends FunMatches {
                 {result = Sequence.EMPTY_SEQUENCE;}
 
             else {
-                final String pattern = translateRegexp(getArgument(1).eval(contextSequence, contextItem).getStringValue());
-                if (Pattern.matches(pattern, "")) {
-                	throw new XPathException(this, ErrorCodes.FORX0003, "regular expression could match empty string");
-                }
-		
         		int flags = 0;
         		if (getSignature().getArgumentCount() == 3)
         			{flags = parseFlags(getArgument(2).eval(contextSequence, contextItem)
         						.getStringValue());}
+                final String pattern = getArgument(1).eval(contextSequence, contextItem).getStringValue();
         		try {
-        			if (pat == null || (!pattern.equals(pat.pattern())) || flags != pat.flags()) {
-        				pat = Pattern.compile(pattern, flags);
+                    final CompiledRegex regex = getCompiledRegex(pattern, flags);
+                    if (regex.matchesEmptyString()) {
+                        throw new XPathException(this, ErrorCodes.FORX0003, "regular expression could match empty string");
                     }
+                    pat = regex.getPattern();
                     final String[] tokens = pat.split(string, -1);
                     result = new ValueSequence();
 
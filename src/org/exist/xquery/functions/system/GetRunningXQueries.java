@@ -23,6 +23,7 @@
 package org.exist.xquery.functions.system;
 
 import java.util.Date;
+import java.util.Map;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.exist.dom.QName;
@@ -30,6 +31,7 @@ import org.exist.dom.memtree.MemTreeBuilder;
 import org.exist.xquery.BasicFunction;
 import org.exist.xquery.Cardinality;
 import org.exist.xquery.FunctionSignature;
+import org.exist.xquery.QueryResourceUsage;
 import org.exist.xquery.XPathException;
 import org.exist.xquery.XQueryContext;
 import org.exist.xquery.XQueryWatchDog;
@@ -55,7 +57,9 @@ public class GetRunningXQueries extends BasicFunction
 	public final static FunctionSignature signature =
 		new FunctionSignature(
 			new QName( "get-running-xqueries", SystemModule.NAMESPACE_URI, SystemModule.PREFIX ),
-			"Get a list of running XQueries (dba role only).",
+			"Get a list of running XQueries (dba role only). For every query, the resources it has used so far are reported: " +
+			"pages read and cache hits per database file, lookups per index, nodes materialized, output serialized and " +
+			"the time spent waiting for locks and for a broker.",
 			null,
 			new FunctionReturnSequenceType( Type.ITEM, Cardinality.EXACTLY_ONE, "a node containing the list of running XQueries" )
 		);
@@ -121,8 +125,43 @@ public class GetRunningXQueries extends BasicFunction
 		builder.startElement( new QName( "xqueryExpression", NAMESPACE_URI, PREFIX ), null );
 		builder.characters( context.getRootExpression().toString() );
 		builder.endElement();
+
+		getResourceUsage( builder, watchdog.getResourceUsage() );
 		
 		builder.endElement();
 	}
+
+	private void getResourceUsage( MemTreeBuilder builder, QueryResourceUsage usage )
+	{
+		builder.startElement( new QName( "resources", NAMESPACE_URI, PREFIX ), null );
+
+		builder.addAttribute( new QName( "pagesRead", null, null ), String.valueOf( usage.getTotalPagesRead() ) );
+		builder.addAttribute( new QName( "cacheHits", null, null ), String.valueOf( usage.getTotalCacheHits() ) );
+		builder.addAttribute( new QName( "indexLookups", null, null ), String.valueOf( usage.getTotalIndexLookups() ) );
+		builder.addAttribute( new QName( "nodesMaterialized", null, null ), String.valueOf( usage.getNodesMaterialized() ) );
+		builder.addAttribute( new QName( "serialized", null, null ), String.valueOf( usage.getSerialized() ) );
+		builder.addAttribute( new QName( "lockWait", null, null ), String.valueOf( usage.getLockWaitTime() ) );
+		builder.addAttribute( new QName( "brokerWait", null, null ), String.valueOf( usage.getBrokerWaitTime() ) );
+
+		final Map<String, Long> cacheHits = usage.getCacheHits();
+		for( final Map.Entry<String, Long> pagesRead : usage.getPagesRead().entrySet() ) {
+			builder.startElement( new QName( "file", NAMESPACE_URI, PREFIX ), null );
+			builder.addAttribute( new QName( "name", null, null ), pagesRead.getKey() );
+			builder.addAttribute( new QName( "pagesRead", null, null ), String.valueOf( pagesRead.getValue() ) );
+			builder.addAttribute( new QName( "cacheHits", null, null ), String.valueOf( cacheHits.getOrDefault( pagesRead.getKey(), 0L ) ) );
+			builder.endElement();
+		}
+
+		final Map<String, Long> indexHits = usage.getIndexHits();
+		for( final Map.Entry<String, Long> lookups : usage.getIndexLookups().entrySet() ) {
+			builder.startElement( new QName( "index", NAMESPACE_URI, PREFIX ), null );
+			builder.addAttribute( new QName( "name", null, null ), lookups.getKey() );
+			builder.addAttribute( new QName( "lookups", null, null ), String.valueOf( lookups.getValue() ) );
+			builder.addAttribute( new QName( "hits", null, null ), String.valueOf( indexHits.getOrDefault( lookups.getKey(), 0L ) ) );
+			builder.endElement();
+		}
+
+		builder.endElement();
+	}
 	
 }
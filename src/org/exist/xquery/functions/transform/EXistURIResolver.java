@@ -141,7 +141,8 @@ public class EXistURIResolver implements URIResolver {
     private Source urlSource(final String path) throws TransformerException {
         try {
             final URL url = new URL(path);
-            return new StreamSource(url.openStream());
+            // the system id is needed to resolve relative URIs in the module and to record it as a dependency
+            return new StreamSource(url.openStream(), path);
         } catch (final IOException e) {
             throw new TransformerException(e.getMessage(), e);
         }
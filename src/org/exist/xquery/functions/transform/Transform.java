@@ -26,12 +26,10 @@ import org.apache.logging.log4j.Logger;
 import org.exist.dom.QName;
 import org.exist.dom.memtree.DocumentBuilderReceiver;
 import org.exist.dom.memtree.MemTreeBuilder;
-import org.exist.dom.persistent.DocumentImpl;
 import org.exist.dom.persistent.NodeProxy;
 import org.exist.http.servlets.ResponseWrapper;
 import org.exist.numbering.NodeId;
 import org.exist.security.PermissionDeniedException;
-import org.exist.storage.lock.Lock.LockMode;
 import org.exist.storage.serializers.EXistOutputKeys;
 import org.exist.storage.serializers.Serializer;
 import org.exist.storage.serializers.XIncludeFilter;
@@ -41,6 +39,7 @@ import org.exist.xmldb.XmldbURI;
 import org.exist.xquery.*;
 import org.exist.xquery.functions.response.ResponseModule;
 import org.exist.xquery.value.*;
+import org.exist.xslt.TemplatesCache;
 import org.exist.xslt.TransformerFactoryAllocator;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
@@ -57,7 +56,6 @@ import javax.xml.transform.stream.StreamSource;
 import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
@@ -65,7 +63,6 @@ import java.net.URLConnection;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.HashMap;
 import java.util.Map;
 import java.util.Properties;
 
@@ -150,9 +147,6 @@ public class Transform extends BasicFunction {
     };
 
     private static final Logger logger = LogManager.getLogger(Transform.class);
-    private final Map<String, CachedStylesheet> cache = new HashMap<>();
-    private boolean caching = true;
-
     private boolean stopOnError = true;
     private boolean stopOnWarn = false;
 
@@ -162,11 +156,6 @@ public class Transform extends BasicFunction {
      */
     public Transform(XQueryContext context, FunctionSignature signature) {
         super(context, signature);
-
-        final Object property = context.getBroker().getConfiguration().getProperty(TransformerFactoryAllocator.PROPERTY_CACHING_ATTRIBUTE);
-        if (property != null) {
-            caching = (Boolean) property;
-        }
     }
 
     /* (non-Javadoc)
@@ -363,14 +352,11 @@ public class Transform extends BasicFunction {
     private TransformerHandler createHandler(Item stylesheetItem, Properties options, Properties attributes) throws TransformerFactoryConfigurationError, XPathException {
         final SAXTransformerFactory factory = TransformerFactoryAllocator.getTransformerFactory(context.getBroker().getBrokerPool());
 
-        //set any attributes
-        for (final Map.Entry<Object, Object> attribute : attributes.entrySet()) {
-            factory.setAttribute((String) attribute.getKey(), attribute.getValue());
-        }
-
         TransformerHandler handler;
         try {
             Templates templates = null;
+            // resolves calls to document() etc. for the current user; the shared factory must not be changed
+            URIResolver resolver = null;
             if (Type.subTypeOf(stylesheetItem.getType(), Type.NODE)) {
                 final NodeValue stylesheetNode = (NodeValue) stylesheetItem;
                 // if the passed node is a document node or document root element,
@@ -378,12 +364,9 @@ public class Transform extends BasicFunction {
                 if (stylesheetNode.getImplementationType() == NodeValue.PERSISTENT_NODE) {
                     final NodeProxy root = (NodeProxy) stylesheetNode;
                     if (root.getNodeId() == NodeId.DOCUMENT_NODE || root.getNodeId().getTreeLevel() == 1) {
-                        //as this is a persistent node (e.g. a stylesheet stored in the db)
-                        //set the URI Resolver as a DatabaseResolver
-                        factory.setURIResolver(new EXistURIResolver(context.getBroker(), root.getOwnerDocument().getCollection().getURI().toString()));
-
                         final String uri = XmldbURI.XMLDB_URI_PREFIX + context.getBroker().getBrokerPool().getId() + "://" + root.getOwnerDocument().getURI();
-                        templates = getSource(factory, uri);
+                        templates = getSource(uri, attributes);
+                        resolver = TemplatesCache.newURIResolver(context.getBroker(), uri);
                     }
                 }
                 if (templates == null) {
@@ -396,29 +379,20 @@ public class Transform extends BasicFunction {
 						 */
                         if (uri != null) {
                             uri = uri.substring(0, uri.lastIndexOf('/'));
-                            factory.setURIResolver(new EXistURIResolver(context.getBroker(), uri));
+                            resolver = new EXistURIResolver(context.getBroker(), uri);
                         }
                     }
-                    templates = getSource(factory, stylesheetNode);
+                    templates = getSource(stylesheetNode, attributes, resolver);
                 }
             } else {
-                if (stylesheetItem instanceof Document) {
-                    String uri = ((Document) stylesheetItem).getDocumentURI();
-
-					/*
-					 * This must be checked because in the event the stylesheet is 
-					 * an in-memory document, it will cause an NPE
-					 */
-                    if (uri != null) {
-                        uri = uri.substring(0, uri.lastIndexOf('/'));
-                        factory.setURIResolver(new EXistURIResolver(context.getBroker(), uri));
-                    }
-                }
-
-                final String stylesheet = stylesheetItem.getStringValue();
-                templates = getSource(factory, stylesheet);
+                final String stylesheet = resolveStylesheet(stylesheetItem.getStringValue());
+                templates = getSource(stylesheet, attributes);
+                resolver = TemplatesCache.newURIResolver(context.getBroker(), stylesheet);
             }
             handler = factory.newTransformerHandler(templates);
+            if (resolver != null) {
+                handler.getTransformer().setURIResolver(resolver);
+            }
 
             if (options != null) {
                 setParameters(options, handler.getTransformer());
@@ -492,9 +466,11 @@ public class Transform extends BasicFunction {
         }
     }
 
-    private Templates getSource(SAXTransformerFactory factory, String stylesheet)
-            throws XPathException, TransformerConfigurationException {
-        String base;
+    /**
+     * Returns the absolute URI of a stylesheet, which may be given by a path relative to the
+     * current directory or the module load path.
+     */
+    private String resolveStylesheet(String stylesheet) {
         if (stylesheet.indexOf(':') == Constants.STRING_NOT_FOUND) {
             Path f = Paths.get(stylesheet).normalize();
             if (Files.isReadable(f)) {
@@ -507,22 +483,20 @@ public class Transform extends BasicFunction {
                 }
             }
         }
+        return stylesheet;
+    }
 
-        //TODO : use dedicated function in XmldbURI
-        final int p = stylesheet.lastIndexOf("/");
-        if (p != Constants.STRING_NOT_FOUND) {
-            base = stylesheet.substring(0, p);
-        } else {
-            base = stylesheet;
-        }
-
-        CachedStylesheet cached = cache.get(stylesheet);
+    private Templates getSource(String stylesheet, Properties attributes)
+            throws XPathException, TransformerConfigurationException {
         try {
-            if (cached == null) {
-                cached = new CachedStylesheet(factory, stylesheet, base);
-                cache.put(stylesheet, cached);
-            }
-            return cached.getTemplates();
+            final TransformErrorListener errorListener = new TransformErrorListener();
+            final Templates templates = context.getBroker().getBrokerPool().getTemplatesCache()
+                    .getTemplates(context.getBroker(), stylesheet, attributes, errorListener);
+            errorListener.checkForErrors();
+            return templates;
+
+        } catch (final PermissionDeniedException e) {
+            throw new XPathException(this, "Permission denied to read stylesheet: " + stylesheet, e);
 
         } catch (final MalformedURLException e) {
             LOG.debug(e.getMessage(), e);
@@ -533,7 +507,15 @@ public class Transform extends BasicFunction {
         }
     }
 
-    private Templates getSource(SAXTransformerFactory factory, NodeValue stylesheetRoot) throws XPathException, TransformerConfigurationException {
+    private Templates getSource(NodeValue stylesheetRoot, Properties attributes, URIResolver resolver) throws XPathException, TransformerConfigurationException {
+        // compiled with a new factory, as its attributes and URIResolver would otherwise apply to other threads
+        final SAXTransformerFactory factory = TransformerFactoryAllocator.newTransformerFactory(context.getBroker().getBrokerPool());
+        for (final Map.Entry<Object, Object> attribute : attributes.entrySet()) {
+            factory.setAttribute((String) attribute.getKey(), attribute.getValue());
+        }
+        if (resolver != null) {
+            factory.setURIResolver(resolver);
+        }
         final TemplatesHandler handler = factory.newTemplatesHandler();
         try {
             handler.startDocument();
@@ -568,86 +550,6 @@ public class Transform extends BasicFunction {
         }
     }
 
-    //TODO: revisit this class with XmldbURI in mind
-    private class CachedStylesheet {
-
-        SAXTransformerFactory factory;
-        long lastModified = -1;
-        Templates templates = null;
-        String uri;
-
-        public CachedStylesheet(SAXTransformerFactory factory, String uri, String baseURI)
-                throws TransformerConfigurationException, IOException, XPathException {
-            this.factory = factory;
-            this.uri = uri;
-            if (!baseURI.startsWith(XmldbURI.EMBEDDED_SERVER_URI_PREFIX)) {
-                factory.setURIResolver(new ExternalResolver(baseURI));
-            }
-            getTemplates();
-        }
-
-        public Templates getTemplates() throws TransformerConfigurationException, IOException, XPathException {
-            if (uri.startsWith(XmldbURI.EMBEDDED_SERVER_URI_PREFIX)) {
-                final String docPath = uri.substring(XmldbURI.EMBEDDED_SERVER_URI_PREFIX.length());
-                DocumentImpl doc = null;
-                try {
-                    doc = context.getBroker().getXMLResource(XmldbURI.create(docPath), LockMode.READ_LOCK);
-                    if (!caching || (doc != null && (templates == null || doc.getMetadata().getLastModified() > lastModified))) {
-                        templates = getSource(doc);
-                    }
-                    lastModified = doc.getMetadata().getLastModified();
-                } catch (final PermissionDeniedException e) {
-                    throw new XPathException(Transform.this, "Permission denied to read stylesheet: " + uri);
-                } finally {
-                    if (doc != null) {
-                        doc.getUpdateLock().release(LockMode.READ_LOCK);
-                    }
-                }
-
-            } else {
-                final URL url = new URL(uri);
-                final URLConnection connection = url.openConnection();
-                long modified = connection.getLastModified();
-                if (!caching || (templates == null || modified > lastModified || modified == 0)) {
-                    LOG.debug("compiling stylesheet " + url);
-                    try (final InputStream is = connection.getInputStream()) {
-                        templates = factory.newTemplates(new StreamSource(is));
-                    }
-                }
-                lastModified = modified;
-            }
-            return templates;
-        }
-
-        private Templates getSource(DocumentImpl stylesheet)
-                throws XPathException, TransformerConfigurationException {
-            factory.setURIResolver(new EXistURIResolver(context.getBroker(), stylesheet.getCollection().getURI().toString()));
-            final TransformErrorListener errorListener = new TransformErrorListener();
-            factory.setErrorListener(errorListener);
-            final TemplatesHandler handler = factory.newTemplatesHandler();
-
-            try {
-                handler.startDocument();
-                final Serializer serializer = context.getBroker().getSerializer();
-                serializer.reset();
-                serializer.setSAXHandlers(handler, null);
-                serializer.toSAX(stylesheet);
-                handler.endDocument();
-                final Templates t = handler.getTemplates();
-                errorListener.checkForErrors();
-                return t;
-
-            } catch (final Exception e) {
-                if (e instanceof XPathException) {
-                    throw (XPathException) e;
-                }
-                throw new XPathException(Transform.this,
-                        "An exception occurred while compiling the stylesheet: " + stylesheet.getURI() +
-                                ": " + e.getMessage(), e);
-            }
-        }
-    }
-
     private class TransformErrorListener implements ErrorListener {
 
         private final static int NO_ERROR = 0;
@@ -0,0 +1,83 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2016 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.xquery.regex;
+
+import net.jcip.annotations.Immutable;
+
+import java.util.regex.Pattern;
+
+/**
+ * A compiled regular expression as held by the {@link RegexCache}, together
+ * with what is known about the strings it matches.
+ */
+@Immutable
+public final class CompiledRegex {
+
+    private final Pattern pattern;
+    private final boolean anchored;
+    private final String prefix;
+    private final String literal;
+    private final boolean matchesEmptyString;
+
+    CompiledRegex(final Pattern pattern) {
+        this.pattern = pattern;
+        final RegexLiterals literals = new RegexLiterals(pattern.pattern(), pattern.flags());
+        this.anchored = literals.isAnchored();
+        this.prefix = literals.getPrefix();
+        this.literal = literals.getLiteral();
+        this.matchesEmptyString = pattern.matcher("").matches();
+    }
+
+    /**
+     * @return the compiled pattern in Java syntax. Create a new {@link java.util.regex.Matcher}
+     * for every thread using it.
+     */
+    public Pattern getPattern() {
+        return pattern;
+    }
+
+    /**
+     * @return true if the expression only matches at the start of the string
+     */
+    public boolean isAnchored() {
+        return anchored;
+    }
+
+    /**
+     * @return the literal text every match starts with if the expression is anchored, or null
+     */
+    public String getPrefix() {
+        return prefix;
+    }
+
+    /**
+     * @return the longest literal text every match contains, or null
+     */
+    public String getLiteral() {
+        return literal;
+    }
+
+    /**
+     * @return true if the expression matches the empty string
+     */
+    public boolean matchesEmptyString() {
+        return matchesEmptyString;
+    }
+}
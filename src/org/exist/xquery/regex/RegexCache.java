@@ -0,0 +1,179 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2016 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.xquery.regex;
+
+import net.jcip.annotations.GuardedBy;
+import net.jcip.annotations.ThreadSafe;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Process-wide cache of compiled regular expressions, keyed by the expression and its flags.
+ *
+ * Expressions in XPath syntax, as used by fn:matches, fn:replace and fn:tokenize, are
+ * translated by {@link JDK15RegexTranslator} before they are compiled, so the translation
+ * is cached as well. The cache holds at most {@link #DEFAULT_CACHE_SIZE} expressions; if the
+ * limit is exceeded, the least recently used expression is evicted. Invalid expressions are
+ * not cached.
+ */
+@ThreadSafe
+public final class RegexCache {
+
+    /** default maximum number of cached expressions */
+    public static final int DEFAULT_CACHE_SIZE = 512;
+
+    private static final RegexCache INSTANCE = new RegexCache(DEFAULT_CACHE_SIZE);
+
+    private final int maxSize;
+
+    @GuardedBy("this") private final LinkedHashMap<Key, CompiledRegex> entries;
+    @GuardedBy("this") private long hits = 0;
+    @GuardedBy("this") private long misses = 0;
+    @GuardedBy("this") private long evictions = 0;
+
+    RegexCache(final int maxSize) {
+        this.maxSize = maxSize;
+        this.entries = new LinkedHashMap<Key, CompiledRegex>(64, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<Key, CompiledRegex> eldest) {
+                if (size() > RegexCache.this.maxSize) {
+                    evictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    public static RegexCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Returns a compiled regular expression in Java syntax.
+     *
+     * @param regex the regular expression
+     * @param flags the flags, see {@link Pattern#compile(String, int)}
+     * @return the compiled expression
+     * @throws PatternSyntaxException if the expression is invalid
+     */
+    public CompiledRegex get(final String regex, final int flags) {
+        final Key key = new Key(regex, flags, false);
+        CompiledRegex compiled = lookup(key);
+        if (compiled == null) {
+            compiled = new CompiledRegex(Pattern.compile(regex, flags));
+            store(key, compiled);
+        }
+        return compiled;
+    }
+
+    /**
+     * Returns a compiled regular expression in the syntax of XPath 2.0 and XML Schema.
+     *
+     * @param regex the regular expression
+     * @param flags the flags, see {@link Pattern#compile(String, int)}
+     * @return the compiled expression, its pattern is the translation to Java syntax
+     * @throws RegexSyntaxException if the expression can not be translated to Java syntax
+     * @throws PatternSyntaxException if the translated expression is invalid
+     */
+    public CompiledRegex getXPath(final String regex, final int flags) throws RegexSyntaxException {
+        final Key key = new Key(regex, flags, true);
+        CompiledRegex compiled = lookup(key);
+        if (compiled == null) {
+            final int xmlVersion = 11;
+            final boolean ignoreWhitespace = false;
+            final boolean caseBlind = false;
+            final String translated = JDK15RegexTranslator.translate(regex, xmlVersion, true, ignoreWhitespace, caseBlind);
+            compiled = new CompiledRegex(Pattern.compile(translated, flags));
+            store(key, compiled);
+        }
+        return compiled;
+    }
+
+    private synchronized CompiledRegex lookup(final Key key) {
+        final CompiledRegex compiled = entries.get(key);
+        if (compiled == null) {
+            misses++;
+        } else {
+            hits++;
+        }
+        return compiled;
+    }
+
+    private synchronized void store(final Key key, final CompiledRegex compiled) {
+        entries.put(key, compiled);
+    }
+
+    public synchronized int getSize() {
+        return entries.size();
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    private static final class Key {
+        private final String regex;
+        private final int flags;
+        private final boolean xpath;
+
+        Key(final String regex, final int flags, final boolean xpath) {
+            this.regex = regex;
+            this.flags = flags;
+            this.xpath = xpath;
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            final Key other = (Key) obj;
+            return flags == other.flags && xpath == other.xpath && regex.equals(other.regex);
+        }
+
+        @Override
+        public int hashCode() {
+            return (regex.hashCode() * 31 + flags) * 2 + (xpath ? 1 : 0);
+        }
+    }
+}
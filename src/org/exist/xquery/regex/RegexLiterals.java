@@ -0,0 +1,312 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2016 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.xquery.regex;
+
+import java.util.regex.Pattern;
+
+/**
+ * Extracts the literal text a regular expression requires from every string it
+ * matches. The result is kept by {@link CompiledRegex}, e.g. for
+ * {@link org.exist.storage.NativeValueIndex} to restrict the index scan for regular
+ * expression searches.
+ *
+ * The analysis is conservative: if the expression uses a construct which is not
+ * understood, e.g. a top-level alternation or inline flags, no literal is returned.
+ */
+final class RegexLiterals {
+
+    private static final int UNSUPPORTED_FLAGS = Pattern.CASE_INSENSITIVE | Pattern.COMMENTS | Pattern.CANON_EQ;
+
+    private static final String INLINE_FLAGS = "idmsuxU-";
+
+    private boolean anchored = false;
+    private String prefix = null;
+    private String literal = null;
+
+    /**
+     * @param regex a regular expression in Java syntax
+     * @param flags the flags the expression is compiled with, see {@link Pattern#compile(String, int)}
+     */
+    RegexLiterals(final String regex, final int flags) {
+        anchored = (flags & (Pattern.MULTILINE | Pattern.LITERAL)) == 0 && regex.startsWith("^");
+        if ((flags & UNSUPPORTED_FLAGS) != 0) {
+            return;
+        }
+        if ((flags & Pattern.LITERAL) != 0) {
+            if (!regex.isEmpty()) {
+                literal = regex;
+            }
+            return;
+        }
+        parse(regex, anchored);
+    }
+
+    /**
+     * @return true if the expression only matches at the start of the string
+     */
+    boolean isAnchored() {
+        return anchored;
+    }
+
+    /**
+     * @return the literal text every match starts with, or null if the expression
+     * is not anchored at the start of the string
+     */
+    String getPrefix() {
+        return prefix;
+    }
+
+    /**
+     * @return the longest literal text every match contains, or null
+     */
+    String getLiteral() {
+        return literal;
+    }
+
+    private void parse(final String regex, final boolean anchored) {
+        final int len = regex.length();
+        final StringBuilder run = new StringBuilder();
+        String first = null;
+        String longest = "";
+        boolean atStart = true;
+        int i = anchored ? 1 : 0;
+        while (i < len) {
+            final int c = regex.codePointAt(i);
+            int atom = -1;  // the code point if the next atom is a literal character
+            int next;
+            switch (c) {
+                case '\\':
+                    if (i + 1 >= len) {
+                        return;
+                    }
+                    final int e = regex.codePointAt(i + 1);
+                    if (e == 'Q') {
+                        final int end = regex.indexOf("\\E", i + 2);
+                        final String quoted = end < 0 ? regex.substring(i + 2) : regex.substring(i + 2, end);
+                        next = end < 0 ? len : end + 2;
+                        if (quoted.isEmpty()) {
+                            i = next;
+                            continue;
+                        }
+                        // a quantifier following \E only applies to the last character
+                        final int last = quoted.offsetByCodePoints(quoted.length(), -1);
+                        run.append(quoted, 0, last);
+                        atom = quoted.codePointAt(last);
+                    } else if (!Character.isLetterOrDigit(e)) {
+                        atom = e;
+                        next = i + 1 + Character.charCount(e);
+                    } else {
+                        atom = controlEscape(e);
+                        next = skipEscape(regex, i);
+                    }
+                    break;
+
+                case '[':
+                    next = skipClass(regex, i);
+                    break;
+
+                case '(':
+                    next = skipGroup(regex, i);
+                    if (next < 0) {
+                        return;
+                    }
+                    break;
+
+                case '|':
+                case ')':
+                    return;
+
+                default:
+                    if (c != '.' && c != '^' && c != '$') {
+                        atom = c;
+                    }
+                    next = i + Character.charCount(c);
+            }
+
+            final char quantifier = next < len ? regex.charAt(next) : 0;
+            final boolean optional = quantifier == '?' || quantifier == '*' || quantifier == '{';
+            if (atom >= 0 && !optional) {
+                run.appendCodePoint(atom);
+            }
+            if (atom < 0 || optional || quantifier == '+') {
+                // the literal run ends here
+                if (atStart) {
+                    first = run.toString();
+                    atStart = false;
+                }
+                if (run.length() > longest.length()) {
+                    longest = run.toString();
+                }
+                run.setLength(0);
+            }
+            i = optional || quantifier == '+' ? skipQuantifier(regex, next) : next;
+        }
+        if (atStart) {
+            first = run.toString();
+        }
+        if (run.length() > longest.length()) {
+            longest = run.toString();
+        }
+
+        if (anchored && !first.isEmpty()) {
+            prefix = first;
+        }
+        if (!longest.isEmpty()) {
+            literal = longest;
+        }
+    }
+
+    private static int controlEscape(final int c) {
+        switch (c) {
+            case 't':
+                return '\t';
+            case 'n':
+                return '\n';
+            case 'r':
+                return '\r';
+            case 'f':
+                return '\f';
+            case 'a':
+                return '\u0007';
+            case 'e':
+                return '\u001B';
+            default:
+                return -1;
+        }
+    }
+
+    /**
+     * @return the index after the escape sequence starting at {@code i}
+     */
+    private static int skipEscape(final String regex, final int i) {
+        final int len = regex.length();
+        if (i + 1 >= len) {
+            return len;
+        }
+        final char e = regex.charAt(i + 1);
+        int j = i + 2;
+        if (e == 'Q') {
+            final int end = regex.indexOf("\\E", j);
+            return end < 0 ? len : end + 2;
+        }
+        if (j < len && (regex.charAt(j) == '{' || (e == 'k' && regex.charAt(j) == '<'))) {
+            final int end = regex.indexOf(regex.charAt(j) == '{' ? '}' : '>', j);
+            return end < 0 ? len : end + 1;
+        }
+        switch (e) {
+            case 'x':
+                return Math.min(len, j + 2);
+            case 'u':
+                return Math.min(len, j + 4);
+            case 'c':
+            case 'p':
+            case 'P':
+                return Math.min(len, j + 1);
+            case '0':
+                while (j < len && j < i + 5 && regex.charAt(j) >= '0' && regex.charAt(j) <= '7') {
+                    j++;
+                }
+                return j;
+            default:
+                if (e >= '1' && e <= '9') {
+                    while (j < len && Character.isDigit(regex.charAt(j))) {
+                        j++;
+                    }
+                }
+                return j;
+        }
+    }
+
+    /**
+     * @return the index after the character class starting at {@code i}
+     */
+    private static int skipClass(final String regex, final int i) {
+        final int len = regex.length();
+        int j = i + 1;
+        if (j < len && regex.charAt(j) == '^') {
+            j++;
+        }
+        if (j < len && regex.charAt(j) == ']') {
+            j++;
+        }
+        int depth = 1;
+        while (j < len) {
+            final char c = regex.charAt(j);
+            if (c == '\\') {
+                j = skipEscape(regex, j);
+                continue;
+            } else if (c == '[') {
+                depth++;
+            } else if (c == ']' && --depth == 0) {
+                return j + 1;
+            }
+            j++;
+        }
+        return len;
+    }
+
+    /**
+     * @return the index after the group starting at {@code i}, or -1 if the group
+     * changes the flags of the expression
+     */
+    private static int skipGroup(final String regex, final int i) {
+        final int len = regex.length();
+        int depth = 0;
+        int j = i;
+        while (j < len) {
+            final char c = regex.charAt(j);
+            if (c == '\\') {
+                j = skipEscape(regex, j);
+                continue;
+            } else if (c == '[') {
+                j = skipClass(regex, j);
+                continue;
+            } else if (c == '(') {
+                if (j + 2 < len && regex.charAt(j + 1) == '?' && INLINE_FLAGS.indexOf(regex.charAt(j + 2)) >= 0) {
+                    return -1;
+                }
+                depth++;
+            } else if (c == ')' && --depth == 0) {
+                return j + 1;
+            }
+            j++;
+        }
+        return len;
+    }
+
+    /**
+     * @return the index after the quantifier starting at {@code i}
+     */
+    private static int skipQuantifier(final String regex, final int i) {
+        final int len = regex.length();
+        int j = i;
+        if (regex.charAt(j) == '{') {
+            final int end = regex.indexOf('}', j);
+            j = end < 0 ? len : end + 1;
+        } else {
+            j++;
+        }
+        // lazy or possessive quantifier
+        if (j < len && (regex.charAt(j) == '?' || regex.charAt(j) == '+')) {
+            j++;
+        }
+        return j;
+    }
+}
@@ -161,6 +161,21 @@ public class DocUtils {
 					//workaround: ignore Windows issue
 				}
 
+				if(!lockOnLoad)
+				{
+					// the document does not remain locked, so it can be cached
+					final DocumentImpl cachedDoc = context.getBroker().getBrokerPool().getDocumentSetCache().getDocument(context, pathUri);
+					if(cachedDoc == null)
+					{
+						return Sequence.EMPTY_SEQUENCE;
+					}
+					if(cachedDoc.getResourceType() == DocumentImpl.BINARY_FILE)
+					{
+						throw new XPathException("Document " + path + " is a binary resource, not an XML document. Please consider using the function util:binary-doc() to retrieve a reference to it.");
+					}
+					return new NodeProxy(cachedDoc);
+				}
+
 				// try to open the document and acquire a lock
 				doc = context.getBroker().getXMLResource(pathUri, lockType);
 				if(doc != null)
@@ -0,0 +1,184 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2015 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.xquery.value;
+
+import org.exist.dom.persistent.NodeSet;
+import org.exist.xquery.Constants.Comparison;
+import org.exist.xquery.XPathException;
+
+/**
+ * An immutable sequence of xs:double values.
+ * The items are only created when the sequence is iterated.
+ */
+public class DoubleSequence extends AbstractSequence implements NumericSequence {
+
+    private final double[] values;
+
+    public DoubleSequence(final double[] values) {
+        this.values = values;
+    }
+
+    @Override
+    public void add(final Item item) throws XPathException {
+        throw new XPathException("Internal error: adding to an immutable sequence");
+    }
+
+    @Override
+    public void addAll(final Sequence other) throws XPathException {
+        throw new XPathException("Internal error: adding to an immutable sequence");
+    }
+
+    @Override
+    public int getItemType() {
+        return Type.DOUBLE;
+    }
+
+    @Override
+    public SequenceIterator iterate() throws XPathException {
+        return new DoubleSequenceIterator();
+    }
+
+    @Override
+    public SequenceIterator unorderedIterator() throws XPathException {
+        return new DoubleSequenceIterator();
+    }
+
+    @Override
+    public int getItemCount() {
+        return values.length;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return values.length == 0;
+    }
+
+    @Override
+    public boolean hasOne() {
+        return values.length == 1;
+    }
+
+    @Override
+    public boolean hasMany() {
+        return values.length > 1;
+    }
+
+    @Override
+    public Item itemAt(final int pos) {
+        if (pos < 0 || pos >= values.length) {
+            return null;
+        }
+        return new DoubleValue(values[pos]);
+    }
+
+    @Override
+    public NodeSet toNodeSet() throws XPathException {
+        throw new XPathException("Type error: the sequence cannot be converted into" +
+                " a node set. Item type is xs:double");
+    }
+
+    @Override
+    public MemoryNodeSet toMemNodeSet() throws XPathException {
+        throw new XPathException("Type error: the sequence cannot be converted into" +
+                " a node set. Item type is xs:double");
+    }
+
+    @Override
+    public void removeDuplicates() {
+    }
+
+    @Override
+    public NumericValue sum() throws XPathException {
+        double sum = 0;
+        for (final double value : values) {
+            sum += value;
+        }
+        return new DoubleValue(sum);
+    }
+
+    @Override
+    public NumericValue min() throws XPathException {
+        double min = values[0];
+        for (int i = 1; i < values.length; i++) {
+            min = Math.min(min, values[i]);
+        }
+        return new DoubleValue(min);
+    }
+
+    @Override
+    public NumericValue max() throws XPathException {
+        double max = values[0];
+        for (int i = 1; i < values.length; i++) {
+            max = Math.max(max, values[i]);
+        }
+        return new DoubleValue(max);
+    }
+
+    @Override
+    public boolean compareAny(final Comparison operator, final NumericValue other) throws XPathException {
+        final double o = other.getDouble();
+        for (final double value : values) {
+            if (compare(operator, value, o)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Compares two doubles like {@link NumericValue#compareTo(java.text.Collator, Comparison, AtomicValue)},
+     * i.e. NaN is not equal to any value.
+     */
+    static boolean compare(final Comparison operator, final double value, final double other) throws XPathException {
+        switch (operator) {
+            case EQ:
+                return value == other;
+            case NEQ:
+                return value != other;
+            case GT:
+                return value > other;
+            case GTEQ:
+                return value >= other;
+            case LT:
+                return value < other;
+            case LTEQ:
+                return value <= other;
+            default:
+                throw new XPathException("Type error: cannot apply operator to numeric value");
+        }
+    }
+
+    private class DoubleSequenceIterator implements SequenceIterator {
+        private int pos = 0;
+
+        @Override
+        public boolean hasNext() {
+            return pos < values.length;
+        }
+
+        @Override
+        public Item nextItem() {
+            if (pos < values.length) {
+                return new DoubleValue(values[pos++]);
+            }
+            return null;
+        }
+    }
+}
@@ -25,6 +25,8 @@ import java.math.BigDecimal;
 import java.math.BigInteger;
 import java.text.Collator;
 
+import org.exist.xquery.Constants;
+import org.exist.xquery.Constants.Comparison;
 import org.exist.xquery.ErrorCodes;
 import org.exist.xquery.XPathException;
 
@@ -38,41 +40,37 @@ public class IntegerValue extends NumericValue {
 
     //TODO this class should be split into numerous sub classes for each xs: type with proper
     //inheritance as defined by http://www.w3.org/TR/xmlschema-2/#built-in-datatypes
-    
-	public final static IntegerValue ZERO = new IntegerValue(0);
+
+	/* Range of the shared instances returned by {@link #valueOf(long)} */
+	private static final int CACHE_LOW = -128;
+	private static final int CACHE_HIGH = 1024;
+	private static final IntegerValue[] CACHE = new IntegerValue[CACHE_HIGH - CACHE_LOW + 1];
+	static {
+		for (int i = 0; i < CACHE.length; i++) {
+			CACHE[i] = new IntegerValue(CACHE_LOW + i, null, Type.INTEGER);
+		}
+	}
+
+	public final static IntegerValue ZERO = CACHE[-CACHE_LOW];
         
 	private static final BigInteger ZERO_BIGINTEGER = new BigInteger("0");
-	private static final BigInteger ONE_BIGINTEGER = new BigInteger("1");
-	private static final BigInteger MINUS_ONE_BIGINTEGER = new BigInteger("-1");
-	
-    private static final BigInteger LARGEST_LONG  = new BigInteger("9223372036854775807");
-	private static final BigInteger SMALLEST_LONG  = new BigInteger("-9223372036854775808");
-	
+
     private static final BigInteger LARGEST_UNSIGNED_LONG = new BigInteger("18446744073709551615");
-        
-    private static final BigInteger LARGEST_INT  = new BigInteger("2147483647");
-	private static final BigInteger SMALLEST_INT  = new BigInteger("-2147483648");
-        
-    private static final BigInteger LARGEST_UNSIGNED_INT = new BigInteger("4294967295");
-	
-    private static final BigInteger LARGEST_SHORT = new BigInteger("32767");
-	private static final BigInteger SMALLEST_SHORT = new BigInteger("-32768");
-	
-    private static final BigInteger LARGEST_UNSIGNED_SHORT = new BigInteger("65535");
-        
-    private static final BigInteger LARGEST_BYTE = new BigInteger("127");
-	private static final BigInteger SMALLEST_BYTE = new BigInteger("-128");
-        
-    private static final BigInteger LARGEST_UNSIGNED_BYTE = new BigInteger("255");
-	
-	private BigInteger value;
-	// 	private long value;
+
+	/*
+	 * Values which fit into a long are kept in value and bigValue is null.
+	 * Only values outside of the long range are kept as a BigInteger, so
+	 * arithmetic on the common case does not allocate BigIntegers and
+	 * promotes to BigInteger only when a result overflows.
+	 */
+	private long value;
+	private BigInteger bigValue;
 
 	//should default type be NUMBER or LONG ? -shabanovd
 	private int type = Type.INTEGER;
 
 	public IntegerValue(long value) {
-		this.value = BigInteger.valueOf(value); // new BigInteger(value);
+		this.value = value;
 	}
 
 	public IntegerValue(long value, int type) throws XPathException {
@@ -85,19 +83,18 @@ public class IntegerValue extends NumericValue {
 
 	public IntegerValue(String stringValue) throws XPathException {
 		try {
-			value = new BigInteger(StringValue.trimWhitespace(stringValue)); // Long.parseLong(stringValue);
+			setValue(StringValue.trimWhitespace(stringValue));
 		} catch (final NumberFormatException e) {
 				throw new XPathException(ErrorCodes.FORG0001,
 					"failed to convert '" + stringValue + "' to an integer: " + e.getMessage(), e);
-//			}
 		}
 	}
 
 	public IntegerValue(String stringValue, int requiredType) throws XPathException {
 		this.type = requiredType;
 		try {
-			value =  new BigInteger(StringValue.trimWhitespace(stringValue)); // Long.parseLong(stringValue);
-			if (!(checkType(value, type)))
+			setValue(StringValue.trimWhitespace(stringValue));
+			if (!(checkType(type)))
 				{throw new XPathException(ErrorCodes.FORG0001, "can not convert '" + 
 						stringValue + "' to " + Type.getTypeName(type));}
 		} catch (final NumberFormatException e) {
@@ -111,7 +108,7 @@ public class IntegerValue extends NumericValue {
 	 * @param requiredType
 	 */
 	public IntegerValue(BigInteger value, int requiredType) {
-		this.value = value;
+		setValue(value);
 		type = requiredType;
 	}
 
@@ -119,66 +116,155 @@ public class IntegerValue extends NumericValue {
 	 * @param integer
 	 */
 	public IntegerValue(BigInteger integer) {
-		this.value = integer;
+		setValue(integer);
+	}
+
+	private IntegerValue(long value, BigInteger bigValue, int type) {
+		this.value = value;
+		this.bigValue = bigValue;
+		this.type = type;
+	}
+
+	/**
+	 * Returns an xs:integer for the value. Small values are shared
+	 * instances, so callers must not modify the returned value.
+	 *
+	 * @param value the value
+	 * @return an xs:integer
+	 */
+	public static IntegerValue valueOf(long value) {
+		if (value >= CACHE_LOW && value <= CACHE_HIGH) {
+			return CACHE[(int) value - CACHE_LOW];
+		}
+		return new IntegerValue(value, null, Type.INTEGER);
+	}
+
+	/**
+	 * Returns an xs:integer for the value, which is kept as a long
+	 * if it fits.
+	 *
+	 * @param value the value
+	 * @return an xs:integer
+	 */
+	public static IntegerValue valueOf(BigInteger value) {
+		if (value.bitLength() < 64) {
+			return valueOf(value.longValue());
+		}
+		return new IntegerValue(0, value, Type.INTEGER);
+	}
+
+	private void setValue(String stringValue) throws NumberFormatException {
+		// up to 18 characters always fit into a long
+		if (stringValue.length() < 19) {
+			setValue(Long.parseLong(stringValue));
+		} else {
+			setValue(new BigInteger(stringValue));
+		}
+	}
+
+	private void setValue(long value) {
+		this.value = value;
+		this.bigValue = null;
+	}
+
+	private void setValue(BigInteger integer) {
+		if (integer.bitLength() < 64) {
+			this.value = integer.longValue();
+			this.bigValue = null;
+		} else {
+			this.value = 0;
+			this.bigValue = integer;
+		}
+	}
+
+	/**
+	 * Creates the result of an operation on this value, which
+	 * keeps the type of this value.
+	 */
+	private IntegerValue result(long result) {
+		if (type == Type.INTEGER) {
+			return valueOf(result);
+		}
+		return new IntegerValue(result, null, type);
+	}
+
+	private IntegerValue result(BigInteger result) {
+		if (result.bitLength() < 64) {
+			return result(result.longValue());
+		}
+		return new IntegerValue(0, result, type);
+	}
+
+	/**
+	 * @return true if the value does not fit into a long
+	 */
+	public boolean isBig() {
+		return bigValue != null;
+	}
+
+	private BigInteger toBigInteger() {
+		return bigValue != null ? bigValue : BigInteger.valueOf(value);
 	}
 
 	/**
-	 * @param value2
-	 * @param type2
+	 * @param type
 	 * @throws XPathException
 	 */
-	private boolean checkType(BigInteger value2, int type2) throws XPathException {
-            switch (type) {
-		
-                case Type.LONG :
-                    // jmv: add test since now long is not the default implementation anymore:
-                    return value.compareTo(SMALLEST_LONG) >= 0 &&
-                            value.compareTo(LARGEST_LONG ) <= 0;
-                    
-                case Type.UNSIGNED_LONG :
-                    return value.compareTo(ZERO_BIGINTEGER) >= 0 &&
-                            value.compareTo(LARGEST_UNSIGNED_LONG ) <= 0;
-                    
-		case Type.INTEGER :
-		case Type.DECIMAL :
-			return true;
-		
-		case Type.POSITIVE_INTEGER :
-			return value.compareTo(ZERO_BIGINTEGER) == 1; // >0
-		case Type.NON_NEGATIVE_INTEGER :
-			return value.compareTo(MINUS_ONE_BIGINTEGER) == 1; // > -1
-		
-		case Type.NEGATIVE_INTEGER :
-			return value.compareTo(ZERO_BIGINTEGER) == -1 ; // <0
-		case Type.NON_POSITIVE_INTEGER :
-			return value.compareTo(ONE_BIGINTEGER) == -1; // <1
-		
-		case Type.INT :
-			return value.compareTo(SMALLEST_INT) >= 0 &&
-				value.compareTo(LARGEST_INT) <= 0;
-                    
-                case Type.UNSIGNED_INT:
-                    return value.compareTo(ZERO_BIGINTEGER) >= 0 &&
-                            value.compareTo(LARGEST_UNSIGNED_INT) <= 0;
-                        
-		case Type.SHORT :
-			return value.compareTo(SMALLEST_SHORT) >= 0 &&
-				value.compareTo(LARGEST_SHORT) <= 0;
-                    
-                case Type.UNSIGNED_SHORT :
-			return value.compareTo(ZERO_BIGINTEGER) >= 0 &&
-				value.compareTo(LARGEST_UNSIGNED_SHORT) <= 0;
-                    
-		case Type.BYTE :
-			return value.compareTo(SMALLEST_BYTE) >= 0 &&
-					value.compareTo(LARGEST_BYTE) <= 0;
-                    
-                case Type.UNSIGNED_BYTE :
-                        return value.compareTo(ZERO_BIGINTEGER) >= 0 &&
-				value.compareTo(LARGEST_UNSIGNED_BYTE) <= 0;
-            }
-            
-            throw new XPathException("Unknown type: " + Type.getTypeName(type));
+	private boolean checkType(int type) throws XPathException {
+		if (bigValue != null) {
+			// outside of the long range
+			switch (type) {
+				case Type.INTEGER :
+				case Type.DECIMAL :
+					return true;
+				case Type.UNSIGNED_LONG :
+					return bigValue.compareTo(ZERO_BIGINTEGER) >= 0 &&
+						bigValue.compareTo(LARGEST_UNSIGNED_LONG) <= 0;
+				case Type.POSITIVE_INTEGER :
+				case Type.NON_NEGATIVE_INTEGER :
+					return bigValue.signum() > 0;
+				case Type.NEGATIVE_INTEGER :
+				case Type.NON_POSITIVE_INTEGER :
+					return bigValue.signum() < 0;
+				case Type.LONG :
+				case Type.INT :
+				case Type.UNSIGNED_INT :
+				case Type.SHORT :
+				case Type.UNSIGNED_SHORT :
+				case Type.BYTE :
+				case Type.UNSIGNED_BYTE :
+					return false;
+			}
+		} else {
+			switch (type) {
+				case Type.LONG :
+				case Type.INTEGER :
+				case Type.DECIMAL :
+					return true;
+				case Type.UNSIGNED_LONG :
+				case Type.NON_NEGATIVE_INTEGER :
+					return value >= 0;
+				case Type.POSITIVE_INTEGER :
+					return value > 0;
+				case Type.NEGATIVE_INTEGER :
+					return value < 0;
+				case Type.NON_POSITIVE_INTEGER :
+					return value <= 0;
+				case Type.INT :
+					return value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE;
+				case Type.UNSIGNED_INT :
+					return value >= 0 && value <= 4294967295L;
+				case Type.SHORT :
+					return value >= Short.MIN_VALUE && value <= Short.MAX_VALUE;
+				case Type.UNSIGNED_SHORT :
+					return value >= 0 && value <= 65535;
+				case Type.BYTE :
+					return value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE;
+				case Type.UNSIGNED_BYTE :
+					return value >= 0 && value <= 255;
+			}
+		}
+		throw new XPathException("Unknown type: " + Type.getTypeName(type));
 	}
 
 	private final static boolean checkType(long value, int type) throws XPathException {
@@ -229,19 +315,14 @@ public class IntegerValue extends NumericValue {
 	}
 
 	public long getValue() {
-		return value.longValue();
-	}
-
-	public void setValue(long value) {
-		this.value = BigInteger.valueOf(value);
+		return bigValue != null ? bigValue.longValue() : value;
 	}
 
 	/* (non-Javadoc)
 	 * @see org.exist.xquery.value.Item#getStringValue()
 	 */
 	public String getStringValue() {
-		return // Long.toString(value);
-		value.toString();
+		return bigValue != null ? bigValue.toString() : Long.toString(value);
 	}
 	
 	public boolean isNaN() {
@@ -253,18 +334,21 @@ public class IntegerValue extends NumericValue {
 	}
 
 	public boolean isZero() {
-		return value.signum() == 0;
-		//return value.compareTo(ZERO_BIGINTEGER) == Constants.EQUAL;
+		return signum() == 0;
 	}
 
 	public boolean isNegative() {
-        return value.signum()<0;
+        return signum() < 0;
     }
 
     public boolean isPositive() {
-        return value.signum()>0;
+        return signum() > 0;
     }
 
+	private int signum() {
+		return bigValue != null ? bigValue.signum() : Long.signum(value);
+	}
+
 	/* (non-Javadoc)
 	 * @see org.exist.xquery.value.AtomicValue#convertTo(int)
 	 */
@@ -277,7 +361,7 @@ public class IntegerValue extends NumericValue {
 			case Type.ITEM :
 				return this;
 			case Type.DECIMAL :
-				return new DecimalValue(new BigDecimal(value));
+				return new DecimalValue(bigValue != null ? new BigDecimal(bigValue) : BigDecimal.valueOf(value));
 			case Type.UNTYPED_ATOMIC :
 				return new UntypedAtomicValue(getStringValue());				
 			case Type.NUMBER :
@@ -294,21 +378,23 @@ public class IntegerValue extends NumericValue {
 			case Type.UNSIGNED_SHORT :
 			case Type.UNSIGNED_BYTE :
 			case Type.POSITIVE_INTEGER :
-				return new IntegerValue(value, requiredType);
+				if (requiredType == Type.INTEGER && bigValue == null)
+					{return valueOf(value);}
+				return new IntegerValue(value, bigValue, requiredType);
 			case Type.DOUBLE :
-				return new DoubleValue(value.doubleValue());
+				return new DoubleValue(getDouble());
 			case Type.FLOAT:
-			    return new FloatValue(value.floatValue());
+			    return new FloatValue(bigValue != null ? bigValue.floatValue() : (float) value);
 			case Type.STRING :
 				return new StringValue(getStringValue());
 			case Type.BOOLEAN :
-				return (value.compareTo(ZERO_BIGINTEGER) == 0 ) ? BooleanValue.FALSE : BooleanValue.TRUE;
+				return isZero() ? BooleanValue.FALSE : BooleanValue.TRUE;
 			default :
 				throw new XPathException(ErrorCodes.FORG0001,
 					"cannot convert '" 
                     +  Type.getTypeName(this.getType()) 
                     + " (" 
-                    + value 
+                    + getStringValue() 
                     + ")' into " 
                     + Type.getTypeName(requiredType));
 		}
@@ -318,21 +404,21 @@ public class IntegerValue extends NumericValue {
 	 * @see org.exist.xquery.value.NumericValue#getInt()
 	 */
 	public int getInt() throws XPathException {
-		return value.intValue(); // (int) value;
+		return bigValue != null ? bigValue.intValue() : (int) value;
 	}
 
 	/* (non-Javadoc)
 	 * @see org.exist.xquery.value.NumericValue#getLong()
 	 */
 	public long getLong() throws XPathException {
-		return value.longValue();
+		return getValue();
 	}
 
 	/* (non-Javadoc)
 	 * @see org.exist.xquery.value.NumericValue#getDouble()
 	 */
 	public double getDouble() throws XPathException {
-		return value.doubleValue(); // (double) value;
+		return bigValue != null ? bigValue.doubleValue() : (double) value;
 	}
 
 	/* (non-Javadoc)
@@ -372,10 +458,16 @@ public class IntegerValue extends NumericValue {
 	 * @see org.exist.xquery.value.NumericValue#minus(org.exist.xquery.value.NumericValue)
 	 */
 	public ComputableValue minus(ComputableValue other) throws XPathException {
-		if (Type.subTypeOf(other.getType(), Type.INTEGER))
-			// return new IntegerValue(value - ((IntegerValue) other).value, type);
-			{return new IntegerValue( value.subtract( ((IntegerValue) other).value ), type );}
-		else
+		if (other instanceof IntegerValue) {
+			final IntegerValue o = (IntegerValue) other;
+			if (bigValue == null && o.bigValue == null) {
+				final long r = value - o.value;
+				// overflow if the operands have different signs and the sign of the result differs from this value
+				if (((value ^ o.value) & (value ^ r)) >= 0)
+					{return result(r);}
+			}
+			return result(toBigInteger().subtract(o.toBigInteger()));
+		} else
 			{return ((ComputableValue) convertTo(other.getType())).minus(other);}
 	}
 
@@ -383,10 +475,16 @@ public class IntegerValue extends NumericValue {
 	 * @see org.exist.xquery.value.NumericValue#plus(org.exist.xquery.value.NumericValue)
 	 */
 	public ComputableValue plus(ComputableValue other) throws XPathException {
-		if (Type.subTypeOf(other.getType(), Type.INTEGER))
-			// return new IntegerValue(value + ((IntegerValue) other).value, type);
-			{return new IntegerValue( value.add( ((IntegerValue) other).value ), type );}
-		else
+		if (other instanceof IntegerValue) {
+			final IntegerValue o = (IntegerValue) other;
+			if (bigValue == null && o.bigValue == null) {
+				final long r = value + o.value;
+				// overflow if the sign of the result differs from the signs of both operands
+				if (((value ^ r) & (o.value ^ r)) >= 0)
+					{return result(r);}
+			}
+			return result(toBigInteger().add(o.toBigInteger()));
+		} else
 			{return ((ComputableValue) convertTo(other.getType())).plus(other);}
 	}
 
@@ -394,9 +492,19 @@ public class IntegerValue extends NumericValue {
 	 * @see org.exist.xquery.value.NumericValue#mult(org.exist.xquery.value.NumericValue)
 	 */
 	public ComputableValue mult(ComputableValue other) throws XPathException {
-		if(Type.subTypeOf(other.getType(), Type.INTEGER))
-		    {return new IntegerValue( value.multiply( ((IntegerValue) other).value ), type );}
-        else if(Type.subTypeOf(other.getType(), Type.DURATION))
+		if (other instanceof IntegerValue) {
+			final IntegerValue o = (IntegerValue) other;
+			if (bigValue == null && o.bigValue == null) {
+				final long r = value * o.value;
+				// same overflow test as Math.multiplyExact
+				final long ax = Math.abs(value);
+				final long ay = Math.abs(o.value);
+				if (((ax | ay) >>> 31 == 0) ||
+						((o.value == 0 || r / o.value == value) && !(value == Long.MIN_VALUE && o.value == -1)))
+					{return result(r);}
+			}
+			return result(toBigInteger().multiply(o.toBigInteger()));
+		} else if(Type.subTypeOf(other.getType(), Type.DURATION))
             {return other.mult(this);}
         else
             {return ((ComputableValue) convertTo(other.getType())).mult(other);}
@@ -407,11 +515,12 @@ public class IntegerValue extends NumericValue {
 	 */
 	public ComputableValue div(ComputableValue other) throws XPathException {
 		if (other instanceof IntegerValue) {
-			if (((IntegerValue) other).isZero())
+			final IntegerValue o = (IntegerValue) other;
+			if (o.isZero())
 				{throw new XPathException(ErrorCodes.FOAR0001, "division by zero");}
 			//http://www.w3.org/TR/xpath20/#mapping : numeric; but xs:decimal if both operands are xs:integer
-			final BigDecimal d = new BigDecimal(value);			 
-			final BigDecimal od = new BigDecimal(((IntegerValue) other).value);
+			final BigDecimal d = bigValue != null ? new BigDecimal(bigValue) : BigDecimal.valueOf(value);
+			final BigDecimal od = o.bigValue != null ? new BigDecimal(o.bigValue) : BigDecimal.valueOf(o.value);
 			final int scale = Math.max(18, Math.max(d.scale(), od.scale()));	
 			return new DecimalValue(d.divide(od, scale, BigDecimal.ROUND_HALF_DOWN));
 		} else
@@ -422,22 +531,31 @@ public class IntegerValue extends NumericValue {
 	public IntegerValue idiv(NumericValue other) throws XPathException {
 		if (other.isZero())
 			//If the divisor is (positive or negative) zero, then an error is raised [err:FOAR0001]
-		    {throw new XPathException(ErrorCodes.FOAR0001, "division by zero");}		
+		    {throw new XPathException(ErrorCodes.FOAR0001, "division by zero");}
+		if (other instanceof IntegerValue) {
+			// integer division truncates towards zero, just like the division of xs:decimal would
+			final IntegerValue o = (IntegerValue) other;
+			if (bigValue == null && o.bigValue == null && !(value == Long.MIN_VALUE && o.value == -1))
+				{return valueOf(value / o.value);}
+			return valueOf(toBigInteger().divide(o.toBigInteger()));
+		}
 		final ComputableValue result = div(other);
-		return new IntegerValue(((IntegerValue)result.convertTo(Type.INTEGER)).getLong());		
+		final IntegerValue i = (IntegerValue) result.convertTo(Type.INTEGER);
+		return new IntegerValue(i.value, i.bigValue, Type.INTEGER);
 	}
 
 	/* (non-Javadoc)
 	 * @see org.exist.xquery.value.NumericValue#mod(org.exist.xquery.value.NumericValue)
 	 */
 	public NumericValue mod(NumericValue other) throws XPathException {
-		if (Type.subTypeOf(other.getType(), Type.INTEGER)) {
+		if (other instanceof IntegerValue) {
 			if( other.isZero() )
 				{throw new XPathException(ErrorCodes.FOAR0001, "division by zero");}
 
-			// long ov = ((IntegerValue) other).value.longValue();
-			final BigInteger ov =  ((IntegerValue) other).value;
-			return new IntegerValue(value.remainder(ov), type);
+			final IntegerValue o = (IntegerValue) other;
+			if (bigValue == null && o.bigValue == null)
+				{return result(value % o.value);}
+			return result(toBigInteger().remainder(o.toBigInteger()));
 		} else
 			{return ((NumericValue) convertTo(other.getType())).mod(other);}
 	}
@@ -446,34 +564,82 @@ public class IntegerValue extends NumericValue {
 	 * @see org.exist.xquery.value.NumericValue#unaryMinus()
 	 */
 	public NumericValue negate() throws XPathException {
-		return new IntegerValue(value.negate());
+		if (bigValue == null && value != Long.MIN_VALUE)
+			{return valueOf(-value);}
+		return valueOf(toBigInteger().negate());
 	}
 
 	/* (non-Javadoc)
 	 * @see org.exist.xquery.value.NumericValue#abs()
 	 */
 	public NumericValue abs() throws XPathException {
-		// return new IntegerValue(Math.abs(value), type);
-		return new IntegerValue( value.abs(), type);
+		if (bigValue == null && value != Long.MIN_VALUE)
+			{return value < 0 ? result(-value) : this;}
+		return result(toBigInteger().abs());
 	}
 
 	/* (non-Javadoc)
 	 * @see org.exist.xquery.value.NumericValue#max(org.exist.xquery.value.AtomicValue)
 	 */
 	public AtomicValue max(Collator collator, AtomicValue other) throws XPathException {
-		if(Type.subTypeOf(other.getType(), Type.INTEGER))
-			{return new IntegerValue( value.max( ((IntegerValue) other).value) );}
-		else
+		if (other instanceof IntegerValue) {
+			final IntegerValue o = (IntegerValue) other;
+			final IntegerValue max = compareValue(o) >= 0 ? this : o;
+			return new IntegerValue(max.value, max.bigValue, Type.INTEGER);
+		} else
 			{return ((NumericValue) convertTo(other.getType())).max(collator, other);}
 	}
 
 	public AtomicValue min(Collator collator, AtomicValue other) throws XPathException {
-		if(Type.subTypeOf(other.getType(), Type.INTEGER))
-			{return new IntegerValue( value.min( ((IntegerValue) other).value) );}
-		else
+		if (other instanceof IntegerValue) {
+			final IntegerValue o = (IntegerValue) other;
+			final IntegerValue min = compareValue(o) <= 0 ? this : o;
+			return new IntegerValue(min.value, min.bigValue, Type.INTEGER);
+		} else
 			{return ((NumericValue) convertTo(other.getType())).min(collator, other);}
 	}
 
+	/**
+	 * Compares the values of two integers exactly, without converting them to double.
+	 */
+	private int compareValue(final IntegerValue other) {
+		if (bigValue == null && other.bigValue == null)
+			{return Long.compare(value, other.value);}
+		return toBigInteger().compareTo(other.toBigInteger());
+	}
+
+	@Override
+	public boolean compareTo(Collator collator, Comparison operator, AtomicValue other)
+		throws XPathException {
+		if (!(other instanceof IntegerValue))
+			{return super.compareTo(collator, operator, other);}
+		final int cmp = compareValue((IntegerValue) other);
+		switch(operator) {
+			case EQ:
+				return cmp == 0;
+			case NEQ:
+				return cmp != 0;
+			case GT:
+				return cmp > 0;
+			case GTEQ:
+				return cmp >= 0;
+			case LT:
+				return cmp < 0;
+			case LTEQ:
+				return cmp <= 0;
+			default:
+				throw new XPathException("Type error: cannot apply operator to numeric value");
+		}
+	}
+
+	@Override
+	public int compareTo(Collator collator, AtomicValue other) throws XPathException {
+		if (!(other instanceof IntegerValue))
+			{return super.compareTo(collator, other);}
+		final int cmp = compareValue((IntegerValue) other);
+		return cmp == 0 ? Constants.EQUAL : (cmp > 0 ? Constants.SUPERIOR : Constants.INFERIOR);
+	}
+
 	/* (non-Javadoc)
 	 * @see org.exist.xquery.value.Item#conversionPreference(java.lang.Class)
 	 */
@@ -500,17 +666,16 @@ public class IntegerValue extends NumericValue {
 		if(target.isAssignableFrom(IntegerValue.class)) {
 			return (T)this;
                 } else if(target == Long.class || target == long.class) {
-			// ?? jmv: return new Long(value);
-			return (T)Long.valueOf(value.longValue());
+			return (T)Long.valueOf(getValue());
                 } else if(target == Integer.class || target == int.class) {
 			final IntegerValue v = (IntegerValue)convertTo(Type.INT);
-			return (T)Integer.valueOf((int)v.value.intValue());
+			return (T)Integer.valueOf(v.getInt());
 		} else if(target == Short.class || target == short.class) {
 			final IntegerValue v = (IntegerValue)convertTo(Type.SHORT);
-			return (T)Short.valueOf((short)v.value.shortValue());
+			return (T)Short.valueOf((short)v.getInt());
 		} else if(target == Byte.class || target == byte.class) {
 			final IntegerValue v = (IntegerValue)convertTo(Type.BYTE);
-			return (T)Byte.valueOf((byte)v.value.byteValue());
+			return (T)Byte.valueOf((byte)v.getInt());
 		} else if(target == Double.class || target == double.class) {
 			final DoubleValue v = (DoubleValue)convertTo(Type.DOUBLE);
 			return (T)Double.valueOf(v.getValue());
@@ -520,11 +685,9 @@ public class IntegerValue extends NumericValue {
 		} else if(target == Boolean.class || target == boolean.class) {
 			return (T)new BooleanValue(effectiveBooleanValue());
                 } else if(target == String.class) {
-			return (T)value.toString();
-                } else if(target == BigInteger.class) {
-                    return (T)new BigInteger(value.toByteArray());
-                } else if(target == Object.class) {
-			return (T)value; // Long(value);
+			return (T)getStringValue();
+                } else if(target == BigInteger.class || target == Object.class) {
+                    return (T)toBigInteger();
                 }
 		
 		throw new XPathException("cannot convert value of type " + Type.getTypeName(getType()) +
@@ -537,13 +700,13 @@ public class IntegerValue extends NumericValue {
     public int compareTo(Object o) {
         final AtomicValue other = (AtomicValue)o;
         if(Type.subTypeOf(other.getType(), Type.INTEGER))
-            {return value.compareTo(((IntegerValue)other).value);}
+            {return compareValue((IntegerValue)other);}
         else
             {return getType() > other.getType() ? 1 : -1;}
     }
 
     @Override
     public int hashCode() {
-        return value.hashCode();
+        return bigValue != null ? bigValue.hashCode() : Long.hashCode(value);
     }
 }
@@ -0,0 +1,216 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2015 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.xquery.value;
+
+import java.math.BigInteger;
+
+import org.exist.dom.persistent.NodeSet;
+import org.exist.xquery.Constants.Comparison;
+import org.exist.xquery.XPathException;
+
+/**
+ * An immutable sequence of xs:integer values which fit into a long.
+ * The items are only created when the sequence is iterated.
+ */
+public class LongSequence extends AbstractSequence implements NumericSequence {
+
+    private final long[] values;
+
+    public LongSequence(final long[] values) {
+        this.values = values;
+    }
+
+    @Override
+    public void add(final Item item) throws XPathException {
+        throw new XPathException("Internal error: adding to an immutable sequence");
+    }
+
+    @Override
+    public void addAll(final Sequence other) throws XPathException {
+        throw new XPathException("Internal error: adding to an immutable sequence");
+    }
+
+    @Override
+    public int getItemType() {
+        return Type.INTEGER;
+    }
+
+    @Override
+    public SequenceIterator iterate() throws XPathException {
+        return new LongSequenceIterator();
+    }
+
+    @Override
+    public SequenceIterator unorderedIterator() throws XPathException {
+        return new LongSequenceIterator();
+    }
+
+    @Override
+    public int getItemCount() {
+        return values.length;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return values.length == 0;
+    }
+
+    @Override
+    public boolean hasOne() {
+        return values.length == 1;
+    }
+
+    @Override
+    public boolean hasMany() {
+        return values.length > 1;
+    }
+
+    @Override
+    public Item itemAt(final int pos) {
+        if (pos < 0 || pos >= values.length) {
+            return null;
+        }
+        return IntegerValue.valueOf(values[pos]);
+    }
+
+    @Override
+    public NodeSet toNodeSet() throws XPathException {
+        throw new XPathException("Type error: the sequence cannot be converted into" +
+                " a node set. Item type is xs:integer");
+    }
+
+    @Override
+    public MemoryNodeSet toMemNodeSet() throws XPathException {
+        throw new XPathException("Type error: the sequence cannot be converted into" +
+                " a node set. Item type is xs:integer");
+    }
+
+    @Override
+    public void removeDuplicates() {
+    }
+
+    @Override
+    public NumericValue sum() throws XPathException {
+        long sum = 0;
+        int i = 0;
+        for (; i < values.length; i++) {
+            final long r = sum + values[i];
+            if (((sum ^ r) & (values[i] ^ r)) < 0) {
+                break;
+            }
+            sum = r;
+        }
+        if (i == values.length) {
+            return IntegerValue.valueOf(sum);
+        }
+        // the sum does not fit into a long any more
+        BigInteger big = BigInteger.valueOf(sum);
+        for (; i < values.length; i++) {
+            big = big.add(BigInteger.valueOf(values[i]));
+        }
+        return new IntegerValue(big);
+    }
+
+    @Override
+    public NumericValue min() throws XPathException {
+        long min = values[0];
+        for (int i = 1; i < values.length; i++) {
+            if (values[i] < min) {
+                min = values[i];
+            }
+        }
+        return IntegerValue.valueOf(min);
+    }
+
+    @Override
+    public NumericValue max() throws XPathException {
+        long max = values[0];
+        for (int i = 1; i < values.length; i++) {
+            if (values[i] > max) {
+                max = values[i];
+            }
+        }
+        return IntegerValue.valueOf(max);
+    }
+
+    @Override
+    public boolean compareAny(final Comparison operator, final NumericValue other) throws XPathException {
+        if (other instanceof IntegerValue && !((IntegerValue) other).isBig()) {
+            final long o = ((IntegerValue) other).getValue();
+            for (final long value : values) {
+                if (compare(operator, Long.compare(value, o))) {
+                    return true;
+                }
+            }
+            return false;
+        } else if (other instanceof DoubleValue) {
+            // xs:integer is promoted to xs:double
+            final double o = ((DoubleValue) other).getValue();
+            for (final long value : values) {
+                if (DoubleSequence.compare(operator, value, o)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        for (final long value : values) {
+            if (IntegerValue.valueOf(value).compareTo(null, operator, other)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean compare(final Comparison operator, final int cmp) throws XPathException {
+        switch (operator) {
+            case EQ:
+                return cmp == 0;
+            case NEQ:
+                return cmp != 0;
+            case GT:
+                return cmp > 0;
+            case GTEQ:
+                return cmp >= 0;
+            case LT:
+                return cmp < 0;
+            case LTEQ:
+                return cmp <= 0;
+            default:
+                throw new XPathException("Type error: cannot apply operator to numeric value");
+        }
+    }
+
+    private class LongSequenceIterator implements SequenceIterator {
+        private int pos = 0;
+
+        @Override
+        public boolean hasNext() {
+            return pos < values.length;
+        }
+
+        @Override
+        public Item nextItem() {
+            if (pos < values.length) {
+                return IntegerValue.valueOf(values[pos++]);
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2015 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.xquery.value;
+
+import org.exist.xquery.Constants.Comparison;
+import org.exist.xquery.XPathException;
+
+/**
+ * A sequence of numbers of a single type which keeps its values as primitives
+ * instead of {@link NumericValue} objects.
+ *
+ * fn:sum, fn:avg, fn:min, fn:max and general comparisons check for this
+ * interface and compute their result on the primitive values directly.
+ */
+public interface NumericSequence extends Sequence {
+
+    /**
+     * @return the sum of the values, the sequence must not be empty
+     * @throws XPathException in case of a dynamic error
+     */
+    NumericValue sum() throws XPathException;
+
+    /**
+     * @return the smallest value, the sequence must not be empty
+     * @throws XPathException in case of a dynamic error
+     */
+    NumericValue min() throws XPathException;
+
+    /**
+     * @return the largest value, the sequence must not be empty
+     * @throws XPathException in case of a dynamic error
+     */
+    NumericValue max() throws XPathException;
+
+    /**
+     * Checks if any value of the sequence satisfies the comparison
+     * with the given value, as required for a general comparison.
+     *
+     * @param operator the comparison operator, the value of this sequence is the left operand
+     * @param other the right operand
+     * @return true if the comparison is true for at least one value
+     * @throws XPathException in case of a dynamic error
+     */
+    boolean compareAny(Comparison operator, NumericValue other) throws XPathException;
+
+    /**
+     * Returns a {@link LongSequence} or {@link DoubleSequence} with the items of
+     * the given sequence if all of them are xs:integer or all of them are xs:double,
+     * otherwise the sequence itself.
+     *
+     * @param seq the sequence
+     * @return a numeric sequence or the given sequence
+     * @throws XPathException in case of a dynamic error
+     */
+    static Sequence compact(final Sequence seq) throws XPathException {
+        if (seq instanceof NumericSequence || !seq.hasMany()) {
+            return seq;
+        }
+        final int itemType = seq.getItemType();
+        if (itemType == Type.INTEGER) {
+            final int count = seq.getItemCount();
+            final long[] values = new long[count];
+            for (int i = 0; i < count; i++) {
+                final Item item = seq.itemAt(i);
+                if (!(item instanceof IntegerValue) || item.getType() != Type.INTEGER || ((IntegerValue) item).isBig()) {
+                    return seq;
+                }
+                values[i] = ((IntegerValue) item).getValue();
+            }
+            return new LongSequence(values);
+        } else if (itemType == Type.DOUBLE) {
+            final int count = seq.getItemCount();
+            final double[] values = new double[count];
+            for (int i = 0; i < count; i++) {
+                final Item item = seq.itemAt(i);
+                if (!(item instanceof DoubleValue)) {
+                    return seq;
+                }
+                values[i] = ((DoubleValue) item).getValue();
+            }
+            return new DoubleSequence(values);
+        }
+        return seq;
+    }
+}
@@ -0,0 +1,613 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2015 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.xslt;
+
+import net.jcip.annotations.GuardedBy;
+import net.jcip.annotations.ThreadSafe;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.exist.dom.persistent.DocumentImpl;
+import org.exist.dom.persistent.NodeHandle;
+import org.exist.management.Agent;
+import org.exist.management.AgentFactory;
+import org.exist.numbering.NodeId;
+import org.exist.security.Permission;
+import org.exist.security.PermissionDeniedException;
+import org.exist.storage.BrokerPool;
+import org.exist.storage.BrokerPoolService;
+import org.exist.storage.DBBroker;
+import org.exist.storage.UpdateListener;
+import org.exist.storage.lock.Lock.LockMode;
+import org.exist.storage.serializers.Serializer;
+import org.exist.util.Configuration;
+import org.exist.util.DatabaseConfigurationException;
+import org.exist.util.LRUMap;
+import org.exist.xmldb.XmldbURI;
+import org.exist.xquery.functions.transform.EXistURIResolver;
+import org.xml.sax.SAXException;
+
+import javax.xml.transform.ErrorListener;
+import javax.xml.transform.Source;
+import javax.xml.transform.Templates;
+import javax.xml.transform.TransformerConfigurationException;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.URIResolver;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.sax.SAXTransformerFactory;
+import javax.xml.transform.sax.TemplatesHandler;
+import javax.xml.transform.stream.StreamSource;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.net.URLConnection;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+/**
+ * Global cache for compiled XSL stylesheets, shared by the transform module
+ * ({@link org.exist.xquery.functions.transform.Transform}) and the
+ * {@link org.exist.http.servlets.XSLTServlet}.
+ *
+ * Stylesheets are identified by their URI: either a document in the database
+ * (<code>xmldb:exist://</code>) or any URL supported by {@link URLConnection}. While a stylesheet
+ * is compiled, all modules loaded through the URIResolver, e.g. by xsl:import or xsl:include,
+ * are recorded as dependencies of the compiled {@link Templates}. An entry is invalidated as
+ * soon as the {@link org.exist.storage.NotificationService} reports a change to one of the
+ * database documents it depends on. Before a cached entry is returned, the last modified date
+ * of the stylesheet document is compared to the one it was compiled from. External modules
+ * are checked by their last modified date, or by a hash of their contents if the server does
+ * not report one: local files on every request, other URLs at most once every
+ * {@link #EXTERNAL_CHECK_INTERVAL} milliseconds.
+ *
+ * Stylesheets are compiled with a new TransformerFactory, so the URIResolver recording the
+ * modules and the ErrorListener do not affect other threads. The URIResolver used by a compiled
+ * stylesheet at runtime, e.g. for document(), has to be set on every Transformer, see
+ * {@link #newURIResolver(DBBroker, String)}.
+ *
+ * The cache holds at most {@link #DEFAULT_CACHE_SIZE} stylesheets, unless configured otherwise
+ * by the attribute <code>cache-size</code> of the transformer element in conf.xml. If the limit
+ * is exceeded, the least recently used stylesheet is evicted. Setting the attribute
+ * <code>caching</code> to "no" disables the cache.
+ */
+@ThreadSafe
+public class TemplatesCache implements BrokerPoolService, UpdateListener {
+
+    private final static Logger LOG = LogManager.getLogger(TemplatesCache.class);
+
+    public static final String CACHE_SIZE_ATTRIBUTE = "cache-size";
+    public static final String PROPERTY_CACHE_SIZE = "transformer.cache-size";
+
+    /** default maximum number of cached stylesheets */
+    public static final int DEFAULT_CACHE_SIZE = 64;
+
+    /** minimum time in milliseconds between two checks of a module read from a remote URL */
+    public static final long EXTERNAL_CHECK_INTERVAL = 10000;
+
+    private boolean enabled = true;
+    private int maxSize = DEFAULT_CACHE_SIZE;
+
+    @GuardedBy("this") private final LRUMap<String, Entry> entries = new LRUMap<>(64, DEFAULT_CACHE_SIZE);
+    @GuardedBy("this") private long changes = 0;
+    @GuardedBy("this") private int hits = 0;
+    @GuardedBy("this") private int fails = 0;
+    @GuardedBy("this") private int compiles = 0;
+    @GuardedBy("this") private int invalidations = 0;
+    @GuardedBy("this") private long compileTime = 0;
+
+    @Override
+    public void configure(final Configuration configuration) {
+        final Object caching = configuration.getProperty(TransformerFactoryAllocator.PROPERTY_CACHING_ATTRIBUTE);
+        if (caching != null) {
+            enabled = (Boolean) caching;
+        }
+        final int cacheSize = configuration.getInteger(PROPERTY_CACHE_SIZE);
+        if (cacheSize > -1) {
+            maxSize = cacheSize;
+            synchronized (this) {
+                entries.setMaxSize(cacheSize);
+            }
+        }
+    }
+
+    @Override
+    public void prepare(final BrokerPool brokerPool) {
+        if (isEnabled()) {
+            brokerPool.getNotificationService().subscribe(this);
+        }
+        final Agent agent = AgentFactory.getInstance();
+        try {
+            agent.addMBean(brokerPool.getId(), "org.exist.management." + brokerPool.getId() +
+                    ":type=TemplatesCache", new org.exist.management.TemplatesCache(this));
+        } catch (final DatabaseConfigurationException e) {
+            LOG.warn("Exception while registering templates cache mbean.", e);
+        }
+    }
+
+    /**
+     * @return false if the cache has been disabled by the configuration
+     */
+    public boolean isEnabled() {
+        return enabled && maxSize > 0;
+    }
+
+    /**
+     * Returns the compiled stylesheet for the given URI, compiling it if it is not cached
+     * or has been modified.
+     *
+     * For stylesheets stored in the database, the broker is used to read the stylesheet
+     * and the modules it imports, so the current user must be allowed to read them. The
+     * permission to read the stylesheet document is checked on every call.
+     *
+     * @param broker the broker to read stylesheets from the database with
+     * @param uri the absolute URI of the stylesheet
+     * @param attributes the attributes of the TransformerFactory to compile the stylesheet with
+     * @param errorListener the error listener to compile the stylesheet with, or null
+     * @return the compiled stylesheet
+     * @throws TransformerConfigurationException if the stylesheet cannot be found or compiled
+     * @throws PermissionDeniedException if the current user may not read the stylesheet
+     * @throws IOException if an external stylesheet cannot be read
+     */
+    public Templates getTemplates(final DBBroker broker, final String uri, final Properties attributes,
+            final ErrorListener errorListener)
+            throws TransformerConfigurationException, PermissionDeniedException, IOException {
+        final String key = key(uri, attributes);
+        if (uri.startsWith(XmldbURI.EMBEDDED_SERVER_URI_PREFIX)) {
+            final XmldbURI docUri = XmldbURI.create(uri.substring(XmldbURI.EMBEDDED_SERVER_URI_PREFIX.length()));
+            final DocumentImpl doc = broker.getXMLResource(docUri, LockMode.READ_LOCK);
+            if (doc == null) {
+                throw new TransformerConfigurationException("Stylesheet not found: " + docUri);
+            }
+            try {
+                final long lastModified = doc.getMetadata().getLastModified();
+                final Entry cached = get(key, entry -> entry.isValid(doc.getURI(), lastModified));
+                if (cached != null) {
+                    return cached.templates;
+                }
+                return compile(broker, key, uri, attributes, errorListener, doc, null);
+            } finally {
+                doc.getUpdateLock().release(LockMode.READ_LOCK);
+            }
+        } else {
+            final Entry cached = get(key, Entry::isValid);
+            if (cached != null) {
+                return cached.templates;
+            }
+            return compile(broker, key, uri, attributes, errorListener, null, ExternalDependency.read(uri));
+        }
+    }
+
+    /**
+     * Creates the URIResolver for a transformation with the stylesheet loaded from the given URI,
+     * e.g. to resolve calls to document(). Documents in the database are read as the current
+     * user of the broker. The resolver has to be set on every Transformer created from a cached
+     * stylesheet, as the Transformer would otherwise use the one of the factory, which is shared
+     * by all threads.
+     *
+     * @param broker the broker executing the transformation
+     * @param uri the absolute URI of the stylesheet
+     * @return the URIResolver
+     */
+    public static URIResolver newURIResolver(final DBBroker broker, final String uri) {
+        final String path = uri.startsWith(XmldbURI.EMBEDDED_SERVER_URI_PREFIX) ?
+                uri.substring(XmldbURI.EMBEDDED_SERVER_URI_PREFIX.length()) : uri;
+        final int p = path.lastIndexOf('/');
+        return new EXistURIResolver(broker, p > -1 ? path.substring(0, p) : path);
+    }
+
+    /**
+     * Stylesheets compiled with different attributes of the TransformerFactory are cached separately.
+     */
+    private static String key(final String uri, final Properties attributes) {
+        if (attributes == null || attributes.isEmpty()) {
+            return uri;
+        }
+        final StringBuilder key = new StringBuilder(uri);
+        for (final String name : new TreeSet<>(attributes.stringPropertyNames())) {
+            key.append('#').append(name).append('=').append(attributes.getProperty(name));
+        }
+        return key.toString();
+    }
+
+    private Entry get(final String key, final Validator validator) throws IOException {
+        if (!isEnabled()) {
+            return null;
+        }
+        final Entry entry;
+        synchronized (this) {
+            entry = entries.get(key);
+        }
+        if (entry != null && validator.isValid(entry)) {
+            synchronized (this) {
+                hits++;
+            }
+            return entry;
+        }
+        synchronized (this) {
+            if (entry != null && entries.get(key) == entry) {
+                entries.remove(key);
+                invalidations++;
+            }
+            fails++;
+        }
+        return null;
+    }
+
+    /**
+     * Compiles a stylesheet from the given document or external source and adds it to
+     * the cache. A new factory is used for every compilation, since the URIResolver and
+     * ErrorListener have to be set on the factory. Threads compiling the same stylesheet
+     * at the same time do not wait for each other; the last one replaces the cached entry.
+     */
+    private Templates compile(final DBBroker broker, final String key, final String uri, final Properties attributes,
+            final ErrorListener errorListener, final DocumentImpl doc, final ExternalDependency external)
+            throws TransformerConfigurationException, IOException {
+        final long changeCount;
+        synchronized (this) {
+            changeCount = changes;
+        }
+
+        final Entry entry = new Entry();
+        final URIResolver resolver;
+        if (doc != null) {
+            entry.documents.put(doc.getURI(), doc.getMetadata().getLastModified());
+            resolver = new EXistURIResolver(broker, doc.getCollection().getURI().toString());
+        } else {
+            entry.externals.add(external);
+            final int p = uri.lastIndexOf('/');
+            resolver = new ExternalResolver(p > -1 ? uri.substring(0, p) : uri);
+        }
+
+        final SAXTransformerFactory factory = TransformerFactoryAllocator.newTransformerFactory(broker.getBrokerPool());
+        if (attributes != null) {
+            for (final String name : attributes.stringPropertyNames()) {
+                try {
+                    factory.setAttribute(name, attributes.getProperty(name));
+                } catch (final IllegalArgumentException e) {
+                    throw new TransformerConfigurationException("Unsupported attribute of the TransformerFactory: " +
+                            name + ": " + e.getMessage(), e);
+                }
+            }
+        }
+        factory.setURIResolver(new RecordingResolver(resolver, entry));
+        if (errorListener != null) {
+            factory.setErrorListener(errorListener);
+        }
+
+        final long start = System.currentTimeMillis();
+        try {
+            if (doc != null) {
+                LOG.debug("compiling stylesheet " + doc.getURI());
+                final TemplatesHandler handler = factory.newTemplatesHandler();
+                handler.startDocument();
+                final Serializer serializer = broker.getSerializer();
+                serializer.reset();
+                serializer.setSAXHandlers(handler, null);
+                serializer.toSAX(doc);
+                handler.endDocument();
+                entry.templates = handler.getTemplates();
+            } else {
+                LOG.debug("compiling stylesheet " + uri);
+                final StreamSource source = new StreamSource(new ByteArrayInputStream(external.content), uri);
+                entry.templates = factory.newTemplates(source);
+                external.content = null;
+            }
+        } catch (final SAXException e) {
+            throw new TransformerConfigurationException("A SAX exception occurred while compiling the stylesheet: "
+                    + uri + ": " + e.getMessage(), e);
+        }
+
+        synchronized (this) {
+            compiles++;
+            compileTime += System.currentTimeMillis() - start;
+        }
+
+        if (entry.templates != null && isEnabled()) {
+            put(broker, key, entry, changeCount);
+        }
+        return entry.templates;
+    }
+
+    private void put(final DBBroker broker, final String key, final Entry entry, final long changeCount) {
+        synchronized (this) {
+            if (changeCount == changes) {
+                entries.put(key, entry);
+                return;
+            }
+        }
+        // the database has been changed while the stylesheet was compiled: make sure
+        // the modules it was compiled from have not been modified
+        for (final Map.Entry<XmldbURI, Long> dependency : entry.documents.entrySet()) {
+            try {
+                final DocumentImpl doc = broker.getResource(dependency.getKey(), Permission.READ);
+                if (doc == null || doc.getMetadata().getLastModified() != dependency.getValue()) {
+                    return;
+                }
+            } catch (final PermissionDeniedException e) {
+                return;
+            }
+        }
+        synchronized (this) {
+            entries.put(key, entry);
+        }
+    }
+
+    /**
+     * Removes all cached stylesheets.
+     */
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    public synchronized int getSize() {
+        return entries.size();
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * @return the number of requests answered from the cache
+     */
+    public synchronized int getHits() {
+        return hits;
+    }
+
+    /**
+     * @return the number of requests for stylesheets which were not cached or had been modified
+     */
+    public synchronized int getFails() {
+        return fails;
+    }
+
+    /**
+     * @return the number of compiled stylesheets
+     */
+    public synchronized int getCompiles() {
+        return compiles;
+    }
+
+    /**
+     * @return the number of cached stylesheets removed because they or one of their modules changed
+     */
+    public synchronized int getInvalidations() {
+        return invalidations;
+    }
+
+    /**
+     * @return the total time in milliseconds spent compiling stylesheets
+     */
+    public synchronized long getCompileTime() {
+        return compileTime;
+    }
+
+    @Override
+    public void documentUpdated(final DocumentImpl document, final int event) {
+        final XmldbURI uri = document.getURI();
+        synchronized (this) {
+            changes++;
+            for (final Iterator<Entry> i = entries.values().iterator(); i.hasNext(); ) {
+                if (i.next().documents.containsKey(uri)) {
+                    if (LOG.isDebugEnabled()) {
+                        LOG.debug("Invalidating compiled stylesheet: " + uri + " changed");
+                    }
+                    i.remove();
+                    invalidations++;
+                }
+            }
+        }
+    }
+
+    @Override
+    public void nodeMoved(final NodeId oldNodeId, final NodeHandle newNode) {
+        // nothing to do
+    }
+
+    @Override
+    public void unsubscribe() {
+        clear();
+    }
+
+    @Override
+    public void debug() {
+        LOG.debug("TemplatesCache: " + getSize() + " stylesheets, " + getHits() + " hits, " + getCompiles() + " compiles");
+    }
+
+    @FunctionalInterface
+    private interface Validator {
+        boolean isValid(Entry entry) throws IOException;
+    }
+
+    /**
+     * A compiled stylesheet and the modules it was compiled from.
+     */
+    private static final class Entry {
+        private Templates templates;
+        private final Map<XmldbURI, Long> documents = new HashMap<>();
+        private final List<ExternalDependency> externals = new ArrayList<>();
+
+        /**
+         * Checks the stylesheet document and any external modules. Modules stored in the
+         * database are checked through the notifications of the NotificationService.
+         */
+        private boolean isValid(final XmldbURI docUri, final long lastModified) throws IOException {
+            final Long compiled = documents.get(docUri);
+            return compiled != null && compiled == lastModified && isValid();
+        }
+
+        private boolean isValid() throws IOException {
+            for (final ExternalDependency external : externals) {
+                if (!external.isValid()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * A module read from outside the database.
+     */
+    private static final class ExternalDependency {
+        private final String uri;
+        private final long lastModified;
+        private final byte[] hash;
+        private byte[] content;
+        /** the time of the last check of a remote module */
+        private volatile long checked;
+
+        private ExternalDependency(final String uri, final long lastModified, final byte[] hash, final byte[] content) {
+            this.uri = uri;
+            this.lastModified = lastModified;
+            this.hash = hash;
+            this.content = content;
+            this.checked = System.currentTimeMillis();
+        }
+
+        /**
+         * Reads the module. If the last modified date is not known, the hash of the
+         * contents is kept instead.
+         */
+        private static ExternalDependency read(final String uri) throws IOException {
+            final URLConnection connection = new URL(uri).openConnection();
+            final long lastModified = connection.getLastModified();
+            final byte[] content = readContent(connection.getInputStream());
+            return new ExternalDependency(uri, lastModified, lastModified == 0 ? hash(content) : null, content);
+        }
+
+        /**
+         * Checks if the module has been modified. A module which is not a local file is assumed
+         * to be unchanged if it has been checked within the last {@link #EXTERNAL_CHECK_INTERVAL}
+         * milliseconds, so a cache hit does not need a request to the remote server.
+         */
+        private boolean isValid() throws IOException {
+            final URL url = new URL(uri);
+            final boolean local = "file".equals(url.getProtocol());
+            final long now = System.currentTimeMillis();
+            if (!local && now - checked < EXTERNAL_CHECK_INTERVAL) {
+                return true;
+            }
+            final boolean valid = isUnmodified(url);
+            if (valid) {
+                checked = now;
+            }
+            return valid;
+        }
+
+        private boolean isUnmodified(final URL url) throws IOException {
+            final URLConnection connection = url.openConnection();
+            final long modified = connection.getLastModified();
+            if (modified != 0 || hash == null) {
+                // only the headers are needed, but e.g. a file connection has been opened to read them
+                connection.getInputStream().close();
+                return modified != 0 && modified == lastModified;
+            }
+            return Arrays.equals(hash, hash(readContent(connection.getInputStream())));
+        }
+
+        private static byte[] readContent(final InputStream in) throws IOException {
+            try (final InputStream is = in) {
+                final ByteArrayOutputStream os = new ByteArrayOutputStream();
+                final byte[] buf = new byte[4096];
+                int read;
+                while ((read = is.read(buf)) > -1) {
+                    os.write(buf, 0, read);
+                }
+                return os.toByteArray();
+            }
+        }
+
+        private static byte[] hash(final byte[] content) {
+            try {
+                return MessageDigest.getInstance("SHA-256").digest(content);
+            } catch (final NoSuchAlgorithmException e) {
+                // every JRE has to support SHA-256
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    /**
+     * Records the modules resolved while a stylesheet is compiled.
+     */
+    private static final class RecordingResolver implements URIResolver {
+        private final URIResolver resolver;
+        private final Entry entry;
+
+        private RecordingResolver(final URIResolver resolver, final Entry entry) {
+            this.resolver = resolver;
+            this.entry = entry;
+        }
+
+        @Override
+        public Source resolve(final String href, final String base) throws TransformerException {
+            final Source source = resolver.resolve(href, base);
+            if (source instanceof DOMSource && ((DOMSource) source).getNode() instanceof DocumentImpl) {
+                final DocumentImpl doc = (DocumentImpl) ((DOMSource) source).getNode();
+                entry.documents.put(doc.getURI(), doc.getMetadata().getLastModified());
+            } else if (source instanceof StreamSource && source.getSystemId() != null) {
+                final StreamSource streamSource = (StreamSource) source;
+                try {
+                    final URLConnection connection = new URL(source.getSystemId()).openConnection();
+                    final long lastModified = connection.getLastModified();
+                    final byte[] content;
+                    if (streamSource.getInputStream() != null) {
+                        content = ExternalDependency.readContent(streamSource.getInputStream());
+                        streamSource.setInputStream(new ByteArrayInputStream(content));
+                        connection.getInputStream().close();
+                    } else {
+                        content = ExternalDependency.readContent(connection.getInputStream());
+                    }
+                    entry.externals.add(new ExternalDependency(source.getSystemId(), lastModified,
+                            lastModified == 0 ? ExternalDependency.hash(content) : null, null));
+                } catch (final IOException e) {
+                    throw new TransformerException(e.getMessage(), e);
+                }
+            }
+            return source;
+        }
+    }
+
+    /**
+     * Resolves modules relative to the location of an external stylesheet.
+     */
+    private static final class ExternalResolver implements URIResolver {
+        private final String baseURI;
+
+        private ExternalResolver(final String baseURI) {
+            this.baseURI = baseURI;
+        }
+
+        @Override
+        public Source resolve(final String href, final String base) throws TransformerException {
+            final String uri = baseURI + "/" + href;
+            try {
+                final URLConnection connection = new URL(uri).openConnection();
+                return new StreamSource(connection.getInputStream(), uri);
+            } catch (final IOException e) {
+                LOG.warn(e);
+                return null;
+            }
+        }
+    }
+}
@@ -81,7 +81,7 @@ public class TransformerFactoryAllocator {
                 // the instance was not created meanwhile by another thread
                 if (saxTransformerFactory == null) {
                     // Lazy initialisation
-                    saxTransformerFactory = initTransformerFactory(pool);
+                    saxTransformerFactory = newTransformerFactory(pool);
                 }
             }
         }
@@ -89,7 +89,16 @@ public class TransformerFactoryAllocator {
         return saxTransformerFactory;
     }
 
-    private static SAXTransformerFactory initTransformerFactory(final BrokerPool pool) {
+    /**
+     * Creates a new instance of the TransformerFactory defined in conf.xml, configured
+     * like the shared one returned by {@link #getTransformerFactory(BrokerPool)}. Use it
+     * if the URIResolver, ErrorListener or attributes of the factory have to be changed,
+     * as these would otherwise apply to the transformations of other threads.
+     *
+     * @param pool A database broker pool, used for reading the conf.xml configuration
+     * @return A new SAXTransformerFactory
+     */
+    public static SAXTransformerFactory newTransformerFactory(final BrokerPool pool) {
         //Get the transformer class name from conf.xml
         final String transformerFactoryClassName = (String) pool.getConfiguration().getProperty(PROPERTY_TRANSFORMER_CLASS);
 
@@ -0,0 +1,236 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2015 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.collections;
+
+import org.exist.EXistException;
+import org.exist.dom.persistent.DocumentImpl;
+import org.exist.security.PermissionDeniedException;
+import org.exist.storage.BrokerPool;
+import org.exist.storage.DBBroker;
+import org.exist.storage.NativeBroker;
+import org.exist.storage.btree.IndexQuery;
+import org.exist.storage.index.CollectionStore;
+import org.exist.storage.lock.Lock.LockMode;
+import org.exist.storage.txn.TransactionManager;
+import org.exist.storage.txn.Txn;
+import org.exist.test.ExistEmbeddedServer;
+import org.exist.util.LockException;
+import org.exist.xmldb.XmldbURI;
+import org.exist.xquery.XPathException;
+import org.exist.xquery.XQuery;
+import org.exist.xquery.value.Sequence;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Optional;
+
+import static org.exist.util.PropertiesBuilder.propertiesBuilder;
+import static org.junit.Assert.*;
+
+public class LazyCollectionTest {
+
+    private static final XmldbURI TEST_COLLECTION = XmldbURI.ROOT_COLLECTION_URI.append("lazy");
+    private static final int DOC_COUNT = 40;
+
+    @Rule
+    public final ExistEmbeddedServer existEmbeddedServer = new ExistEmbeddedServer(null, null, propertiesBuilder()
+            .put(MutableCollection.PROPERTY_LAZY_LOAD_THRESHOLD, 10)
+            .build(), true);
+
+    @Before
+    public void setUp() throws Exception {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        final TransactionManager transact = pool.getTransactionManager();
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()));
+                final Txn transaction = transact.beginTransaction()) {
+            final Collection collection = broker.getOrCreateCollection(transaction, TEST_COLLECTION);
+            broker.saveCollection(transaction, collection);
+            // store in reverse order to check that documents are returned sorted by name
+            for (int i = DOC_COUNT - 1; i >= 0; i--) {
+                store(broker, transaction, collection, docName(i), "<doc n='" + i + "'/>");
+            }
+            final Collection small = broker.getOrCreateCollection(transaction, XmldbURI.ROOT_COLLECTION_URI.append("small"));
+            broker.saveCollection(transaction, small);
+            store(broker, transaction, small, "single.xml", "<doc/>");
+            transact.commit(transaction);
+        }
+    }
+
+    @Test
+    public void loadLazily() throws EXistException, PermissionDeniedException, LockException {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
+            final MutableCollection collection = reload(broker, TEST_COLLECTION);
+            assertTrue(collection.isLazy());
+            assertFalse(reload(broker, XmldbURI.ROOT_COLLECTION_URI.append("small")).isLazy());
+
+            assertEquals(DOC_COUNT, collection.getDocumentCount(broker));
+            assertFalse(collection.isEmpty(broker));
+
+            final DocumentImpl doc = collection.getDocument(broker, XmldbURI.create(docName(7)));
+            assertNotNull(doc);
+            assertEquals(docName(7), doc.getFileURI().toString());
+            assertSame(collection, doc.getCollection());
+            // the same object has to be returned while the document is in use
+            assertSame(doc, collection.getDocument(broker, XmldbURI.create(docName(7))));
+
+            assertTrue(collection.hasDocument(broker, XmldbURI.create(docName(39))));
+            assertNull(collection.getDocument(broker, XmldbURI.create("missing.xml")));
+
+            assertEquals(expectedNames(DOC_COUNT), names(collection.iterator(broker)));
+        }
+    }
+
+    @Test
+    public void query() throws EXistException, PermissionDeniedException, XPathException, LockException {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
+            assertTrue(reload(broker, TEST_COLLECTION).isLazy());
+            final XQuery xquery = pool.getXQueryService();
+            assertEquals(DOC_COUNT, xquery.execute(broker, "collection('/db/lazy')/doc", null).getItemCount());
+            assertEquals(DOC_COUNT, xquery.execute(broker, "xmldb:get-child-resources('/db/lazy')", null).getItemCount());
+            final Sequence result = xquery.execute(broker, "doc('/db/lazy/" + docName(12) + "')/doc/@n/string()", null);
+            assertEquals("12", result.getStringValue());
+        }
+    }
+
+    @Test
+    public void update() throws EXistException, PermissionDeniedException, XPathException, LockException {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
+            assertTrue(reload(broker, TEST_COLLECTION).isLazy());
+            final XQuery xquery = pool.getXQueryService();
+            xquery.execute(broker, "xmldb:store('/db/lazy', 'added.xml', <doc n='added'/>)", null);
+            xquery.execute(broker, "xmldb:remove('/db/lazy', '" + docName(3) + "')", null);
+            xquery.execute(broker, "xmldb:rename('/db/lazy', '" + docName(4) + "', 'renamed.xml')", null);
+            xquery.execute(broker, "xmldb:store('/db/lazy', '" + docName(5) + "', <doc n='replaced'/>)", null);
+
+            final List<String> expected = expectedNames(DOC_COUNT);
+            expected.remove(docName(3));
+            expected.remove(docName(4));
+            expected.add(0, "added.xml");
+            expected.add("renamed.xml");
+
+            MutableCollection collection = (MutableCollection) broker.getCollection(TEST_COLLECTION);
+            assertEquals(DOC_COUNT, collection.getDocumentCount(broker));
+            assertEquals(expected, names(collection.iterator(broker)));
+
+            collection = reload(broker, TEST_COLLECTION);
+            assertTrue(collection.isLazy());
+            assertEquals(DOC_COUNT, collection.getDocumentCount(broker));
+            assertEquals(expected, names(collection.iterator(broker)));
+            assertEquals("replaced", xquery.execute(broker, "doc('/db/lazy/" + docName(5) + "')/doc/@n/string()", null).getStringValue());
+
+            final CollectionStore store = (CollectionStore) ((NativeBroker) broker).getStorage(NativeBroker.COLLECTIONS_DBX_ID);
+            assertEquals(store.getDocumentCount(collection.getId()), store.getDocumentNameCount(collection.getId()));
+        }
+    }
+
+    @Test
+    public void rebuildDocumentNames() throws Exception {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        final TransactionManager transact = pool.getTransactionManager();
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
+            final CollectionStore store = (CollectionStore) ((NativeBroker) broker).getStorage(NativeBroker.COLLECTIONS_DBX_ID);
+            final int collectionId = broker.getCollection(TEST_COLLECTION).getId();
+            // simulate a collection written by an older version
+            try (final Txn transaction = transact.beginTransaction()) {
+                store.getLock().acquire(LockMode.WRITE_LOCK);
+                try {
+                    store.removeAll(transaction, new IndexQuery(IndexQuery.TRUNC_RIGHT, new CollectionStore.DocumentNameKey(collectionId)));
+                } finally {
+                    store.getLock().release(LockMode.WRITE_LOCK);
+                }
+                transact.commit(transaction);
+            }
+            assertEquals(0, store.getDocumentNameCount(collectionId));
+
+            // the collection is loaded completely and its names are rebuilt afterwards
+            MutableCollection collection = reload(broker, TEST_COLLECTION);
+            assertFalse(collection.isLazy());
+            assertEquals(DOC_COUNT, collection.getDocumentCount(broker));
+            assertEquals(DOC_COUNT, store.getDocumentNameCount(collectionId));
+
+            collection = reload(broker, TEST_COLLECTION);
+            assertTrue(collection.isLazy());
+            assertEquals(expectedNames(DOC_COUNT), names(collection.iterator(broker)));
+        }
+    }
+
+    @Test
+    public void removeCollection() throws EXistException, PermissionDeniedException, XPathException, LockException {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
+            final MutableCollection collection = reload(broker, TEST_COLLECTION);
+            assertTrue(collection.isLazy());
+            final int collectionId = collection.getId();
+            final XQuery xquery = pool.getXQueryService();
+            xquery.execute(broker, "xmldb:remove('/db/lazy')", null);
+            assertNull(broker.getCollection(TEST_COLLECTION));
+
+            final CollectionStore store = (CollectionStore) ((NativeBroker) broker).getStorage(NativeBroker.COLLECTIONS_DBX_ID);
+            assertEquals(0, store.getDocumentCount(collectionId));
+            assertEquals(0, store.getDocumentNameCount(collectionId));
+            // documents have been removed from dom.dbx too
+            assertEquals(0, xquery.execute(broker, "//doc[@n = '12']", null).getItemCount());
+        }
+    }
+
+    private static MutableCollection reload(final DBBroker broker, final XmldbURI uri) throws PermissionDeniedException {
+        final CollectionCache cache = broker.getBrokerPool().getCollectionsCache();
+        synchronized (cache) {
+            final Collection cached = cache.get(uri);
+            if (cached != null) {
+                cache.remove(cached);
+            }
+        }
+        return (MutableCollection) broker.getCollection(uri);
+    }
+
+    private static void store(final DBBroker broker, final Txn transaction, final Collection collection,
+            final String name, final String xml) throws Exception {
+        final IndexInfo info = collection.validateXMLResource(transaction, broker, XmldbURI.create(name), xml);
+        collection.store(transaction, broker, info, xml);
+    }
+
+    private static String docName(final int i) {
+        return String.format("doc-%02d.xml", i);
+    }
+
+    private static List<String> expectedNames(final int count) {
+        final List<String> names = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            names.add(docName(i));
+        }
+        return names;
+    }
+
+    private static List<String> names(final Iterator<DocumentImpl> docs) {
+        final List<String> names = new ArrayList<>();
+        while (docs.hasNext()) {
+            names.add(docs.next().getFileURI().toString());
+        }
+        return names;
+    }
+}
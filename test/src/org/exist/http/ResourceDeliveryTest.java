@@ -0,0 +1,357 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2015 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.http;
+
+import org.exist.collections.Collection;
+import org.exist.collections.IndexInfo;
+import org.exist.storage.BrokerPool;
+import org.exist.storage.CompressedDocumentCache;
+import org.exist.storage.DBBroker;
+import org.exist.storage.txn.TransactionManager;
+import org.exist.storage.txn.Txn;
+import org.exist.test.ExistEmbeddedServer;
+import org.exist.xmldb.XmldbURI;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.zip.GZIPInputStream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.easymock.EasyMock.*;
+import static org.junit.Assert.*;
+
+public class ResourceDeliveryTest {
+
+    private static final XmldbURI TEST_COLLECTION = XmldbURI.ROOT_COLLECTION_URI.append("resource-delivery-test");
+
+    private static Properties cacheProperties() {
+        final Properties properties = new Properties();
+        properties.put(CompressedDocumentCache.PROPERTY_CACHE_SIZE, 1);
+        properties.put(CompressedDocumentCache.PROPERTY_MAX_ENTRY_SIZE, 64);
+        return properties;
+    }
+
+    @ClassRule
+    public static final ExistEmbeddedServer existEmbeddedServer = new ExistEmbeddedServer(null, null, cacheProperties(), true);
+
+    @Before
+    public void clearCache() {
+        existEmbeddedServer.getBrokerPool().getCompressedDocumentCache().clear();
+    }
+
+    @Test
+    public void parseRange() {
+        ResourceDelivery.Range range = ResourceDelivery.parseRange("bytes=0-99", 1000);
+        assertEquals(0, range.getStart());
+        assertEquals(99, range.getEnd());
+        assertEquals(100, range.getLength());
+
+        range = ResourceDelivery.parseRange("bytes=900-", 1000);
+        assertEquals(900, range.getStart());
+        assertEquals(999, range.getEnd());
+
+        range = ResourceDelivery.parseRange("bytes=-100", 1000);
+        assertEquals(900, range.getStart());
+        assertEquals(999, range.getEnd());
+
+        range = ResourceDelivery.parseRange("bytes=500-5000", 1000);
+        assertEquals(999, range.getEnd());
+
+        assertSame(ResourceDelivery.Range.UNSATISFIABLE, ResourceDelivery.parseRange("bytes=1000-", 1000));
+        assertSame(ResourceDelivery.Range.UNSATISFIABLE, ResourceDelivery.parseRange("bytes=-0", 1000));
+        assertNull(ResourceDelivery.parseRange(null, 1000));
+        assertNull(ResourceDelivery.parseRange("items=0-1", 1000));
+        assertNull(ResourceDelivery.parseRange("bytes=0-1,5-6", 1000));
+        assertNull(ResourceDelivery.parseRange("bytes=5-1", 1000));
+        assertNull(ResourceDelivery.parseRange("bytes=a-b", 1000));
+    }
+
+    @Test
+    public void acceptsEncoding() {
+        assertTrue(ResourceDelivery.acceptsEncoding(request(header("Accept-Encoding", "gzip, deflate")), "gzip"));
+        assertTrue(ResourceDelivery.acceptsEncoding(request(header("Accept-Encoding", "br;q=1.0, *;q=0.5")), "gzip"));
+        assertFalse(ResourceDelivery.acceptsEncoding(request(header("Accept-Encoding", "gzip;q=0, *")), "gzip"));
+        assertFalse(ResourceDelivery.acceptsEncoding(request(header("Accept-Encoding", "deflate")), "gzip"));
+        assertFalse(ResourceDelivery.acceptsEncoding(request(new HashMap<>()), "gzip"));
+    }
+
+    @Test
+    public void binaryResource() throws Exception {
+        final byte[] data = new byte[100000];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) i;
+        }
+        storeBinary("data.bin", data);
+        final String path = TEST_COLLECTION.append("data.bin").toString();
+
+        final Response full = get(path, new HashMap<>());
+        assertEquals(0, full.status);
+        assertArrayEquals(data, full.content.toByteArray());
+        assertEquals("bytes", full.headers.get("Accept-Ranges"));
+        final String etag = full.headers.get("ETag");
+        assertNotNull(etag);
+
+        final Response notModified = get(path, header("If-None-Match", etag));
+        assertEquals(HttpServletResponse.SC_NOT_MODIFIED, notModified.status);
+        assertEquals(0, notModified.content.size());
+
+        final Response partial = get(path, header("Range", "bytes=1000-1999"));
+        assertEquals(HttpServletResponse.SC_PARTIAL_CONTENT, partial.status);
+        assertEquals("bytes 1000-1999/100000", partial.headers.get("Content-Range"));
+        assertEquals("1000", partial.headers.get("Content-Length"));
+        assertArrayEquals(Arrays.copyOfRange(data, 1000, 2000), partial.content.toByteArray());
+
+        // the range is ignored if the resource has changed
+        final Map<String, String> ifRange = header("Range", "bytes=1000-1999");
+        ifRange.put("If-Range", "\"outdated\"");
+        final Response changed = get(path, ifRange);
+        assertEquals(0, changed.status);
+        assertEquals(data.length, changed.content.size());
+
+        final Response unsatisfiable = get(path, header("Range", "bytes=200000-"));
+        assertEquals(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE, unsatisfiable.status);
+        assertEquals("bytes */100000", unsatisfiable.headers.get("Content-Range"));
+    }
+
+    @Test
+    public void compressedXmlResource() throws Exception {
+        final CompressedDocumentCache cache = existEmbeddedServer.getBrokerPool().getCompressedDocumentCache();
+        assertTrue(cache.isEnabled());
+        final String path = TEST_COLLECTION.append("data.xml").toString();
+        storeXml("data.xml", "<items><item>1</item></items>");
+
+        final Response identity = get(path, new HashMap<>());
+        assertNull(identity.headers.get("Content-Encoding"));
+        assertEquals("Accept-Encoding", identity.headers.get("Vary"));
+        final String xml = new String(identity.content.toByteArray(), UTF_8);
+        assertTrue(xml.contains("<item>1</item>"));
+
+        final Response gzip = get(path, header("Accept-Encoding", "gzip"));
+        assertEquals("gzip", gzip.headers.get("Content-Encoding"));
+        assertEquals(xml, gunzip(gzip.content.toByteArray()));
+        assertNotEquals(identity.headers.get("ETag"), gzip.headers.get("ETag"));
+        final long size = cache.getSize();
+        assertTrue(size > 0);
+
+        // served from the cache
+        final Response cached = get(path, header("Accept-Encoding", "gzip"));
+        assertEquals(xml, gunzip(cached.content.toByteArray()));
+        assertEquals(gzip.headers.get("ETag"), cached.headers.get("ETag"));
+        assertEquals(size, cache.getSize());
+
+        storeXml("data.xml", "<items><item>2</item></items>");
+        assertEquals(0, cache.getSize());
+        final Response updated = get(path, header("Accept-Encoding", "gzip"));
+        assertTrue(gunzip(updated.content.toByteArray()).contains("<item>2</item>"));
+        assertNotEquals(gzip.headers.get("ETag"), updated.headers.get("ETag"));
+    }
+
+    @Test
+    public void largeXmlResource() throws Exception {
+        final CompressedDocumentCache cache = existEmbeddedServer.getBrokerPool().getCompressedDocumentCache();
+        final StringBuilder xml = new StringBuilder("<items>");
+        for (int i = 0; i < 10000; i++) {
+            xml.append("<item>").append(i).append("</item>");
+        }
+        xml.append("</items>");
+        storeXml("large.xml", xml.toString());
+        final String path = TEST_COLLECTION.append("large.xml").toString();
+
+        final Response identity = get(path, new HashMap<>());
+        final Response gzip = get(path, header("Accept-Encoding", "gzip"));
+        assertNull(gzip.headers.get("Content-Encoding"));
+        assertEquals(identity.headers.get("ETag"), gzip.headers.get("ETag"));
+        assertEquals(identity.content.size(), gzip.content.size());
+        assertEquals(0, cache.getSize());
+    }
+
+    @Test
+    public void xincludeXmlResource() throws Exception {
+        final CompressedDocumentCache cache = existEmbeddedServer.getBrokerPool().getCompressedDocumentCache();
+        storeXml("included.xml", "<item>1</item>");
+        storeXml("including.xml", "<items><xi:include xmlns:xi=\"http://www.w3.org/2001/XInclude\" href=\"included.xml\"/></items>");
+        final String path = TEST_COLLECTION.append("including.xml").toString();
+
+        final Response gzip = get(path, header("Accept-Encoding", "gzip"));
+        assertNull(gzip.headers.get("ETag"));
+        assertNull(gzip.headers.get("Content-Encoding"));
+        assertTrue(new String(gzip.content.toByteArray(), UTF_8).contains(">1</item>"));
+        assertEquals(0, cache.getSize());
+
+        // the serialization changes with the included document
+        storeXml("included.xml", "<item>2</item>");
+        assertTrue(new String(get(path, new HashMap<>()).content.toByteArray(), UTF_8).contains(">2</item>"));
+    }
+
+    @Test
+    public void headXmlResource() throws Exception {
+        storeXml("head.xml", "<items><item>1</item></items>");
+        final String path = TEST_COLLECTION.append("head.xml").toString();
+        for (final Map<String, String> headers : Arrays.asList(new HashMap<String, String>(), header("Accept-Encoding", "gzip"))) {
+            final String etag = get(path, headers).headers.get("ETag");
+            assertNotNull(etag);
+            assertEquals(etag, head(path, headers).headers.get("ETag"));
+        }
+    }
+
+    private static String gunzip(final byte[] data) throws IOException {
+        final ByteArrayOutputStream os = new ByteArrayOutputStream();
+        try (final InputStream is = new GZIPInputStream(new ByteArrayInputStream(data))) {
+            final byte[] buf = new byte[4096];
+            int len;
+            while ((len = is.read(buf)) > -1) {
+                os.write(buf, 0, len);
+            }
+        }
+        return new String(os.toByteArray(), UTF_8);
+    }
+
+    private static Map<String, String> header(final String name, final String value) {
+        final Map<String, String> headers = new HashMap<>();
+        headers.put(name, value);
+        return headers;
+    }
+
+    private static HttpServletRequest request(final Map<String, String> headers) {
+        final HttpServletRequest request = createNiceMock(HttpServletRequest.class);
+        expect(request.getMethod()).andReturn("GET").anyTimes();
+        expect(request.getCharacterEncoding()).andReturn("UTF-8").anyTimes();
+        expect(request.getParameterMap()).andReturn(new HashMap<>()).anyTimes();
+        expect(request.getHeader(anyString())).andAnswer(() -> headers.get((String) getCurrentArguments()[0])).anyTimes();
+        expect(request.getDateHeader(anyString())).andReturn(-1L).anyTimes();
+        replay(request);
+        return request;
+    }
+
+    private static Response get(final String path, final Map<String, String> headers) throws Exception {
+        return execute(path, headers, false);
+    }
+
+    private static Response head(final String path, final Map<String, String> headers) throws Exception {
+        return execute(path, headers, true);
+    }
+
+    private static Response execute(final String path, final Map<String, String> headers, final boolean head) throws Exception {
+        final Response result = new Response();
+        final HttpServletRequest request = request(headers);
+        final HttpServletResponse response = createNiceMock(HttpServletResponse.class);
+        expect(response.getOutputStream()).andReturn(new TestOutputStream(result.content)).anyTimes();
+        response.setHeader(anyString(), anyString());
+        expectLastCall().andAnswer(() -> {
+            result.headers.put((String) getCurrentArguments()[0], (String) getCurrentArguments()[1]);
+            return null;
+        }).anyTimes();
+        response.addHeader(anyString(), anyString());
+        expectLastCall().andAnswer(() -> {
+            result.headers.put((String) getCurrentArguments()[0], (String) getCurrentArguments()[1]);
+            return null;
+        }).anyTimes();
+        response.setStatus(anyInt());
+        expectLastCall().andAnswer(() -> {
+            result.status = (Integer) getCurrentArguments()[0];
+            return null;
+        }).anyTimes();
+        replay(response);
+
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        final RESTServer server = new RESTServer(pool, "UTF-8", "UTF-8", true, false);
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
+            if (head) {
+                server.doHead(broker, request, response, path);
+            } else {
+                server.doGet(broker, request, response, path);
+            }
+        }
+        return result;
+    }
+
+    private static void storeBinary(final String name, final byte[] data) throws Exception {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        final TransactionManager transact = pool.getTransactionManager();
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()));
+                final Txn transaction = transact.beginTransaction()) {
+            final Collection collection = broker.getOrCreateCollection(transaction, TEST_COLLECTION);
+            broker.saveCollection(transaction, collection);
+            collection.addBinaryResource(transaction, broker, XmldbURI.create(name), data, "application/octet-stream");
+            transact.commit(transaction);
+        }
+    }
+
+    private static void storeXml(final String name, final String xml) throws Exception {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        final TransactionManager transact = pool.getTransactionManager();
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()));
+                final Txn transaction = transact.beginTransaction()) {
+            final Collection collection = broker.getOrCreateCollection(transaction, TEST_COLLECTION);
+            broker.saveCollection(transaction, collection);
+            final IndexInfo info = collection.validateXMLResource(transaction, broker, XmldbURI.create(name), xml);
+            collection.store(transaction, broker, info, xml);
+            transact.commit(transaction);
+        }
+    }
+
+    private static class Response {
+        private final ByteArrayOutputStream content = new ByteArrayOutputStream();
+        private final Map<String, String> headers = new HashMap<>();
+        private int status = 0;
+    }
+
+    private static class TestOutputStream extends ServletOutputStream {
+        private final ByteArrayOutputStream os;
+
+        private TestOutputStream(final ByteArrayOutputStream os) {
+            this.os = os;
+        }
+
+        @Override
+        public void write(final int b) throws IOException {
+            os.write(b);
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) throws IOException {
+            os.write(b, off, len);
+        }
+
+        @Override
+        public boolean isReady() {
+            return true;
+        }
+
+        @Override
+        public void setWriteListener(final WriteListener writeListener) {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
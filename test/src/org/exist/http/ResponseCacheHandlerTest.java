@@ -0,0 +1,265 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2015 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.http;
+
+import org.exist.source.StringSource;
+import org.exist.storage.BrokerPool;
+import org.exist.storage.DBBroker;
+import org.exist.storage.ResponseCache;
+import org.exist.test.ExistEmbeddedServer;
+import org.exist.xmldb.XmldbURI;
+import org.exist.xquery.CompiledXQuery;
+import org.exist.xquery.XQuery;
+import org.exist.xquery.XQueryContext;
+import org.exist.xquery.value.Sequence;
+import org.easymock.Capture;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Optional;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.easymock.EasyMock.*;
+import static org.junit.Assert.*;
+
+public class ResponseCacheHandlerTest {
+
+    private static final XmldbURI TEST_COLLECTION = XmldbURI.ROOT_COLLECTION_URI.append("response-cache-test");
+    private static final XmldbURI OTHER_COLLECTION = XmldbURI.ROOT_COLLECTION_URI.append("response-cache-other");
+
+    private static final String QUERY =
+        "declare option exist:response-cache 'yes';\n" +
+        "count(collection('" + TEST_COLLECTION + "')//item)";
+
+    @ClassRule
+    public static final ExistEmbeddedServer existEmbeddedServer = new ExistEmbeddedServer(true);
+
+    @Test
+    public void cacheAndInvalidate() throws Exception {
+        update("xmldb:store('" + TEST_COLLECTION + "', 'one.xml', <items><item>1</item></items>)");
+
+        final Result first = run(QUERY, null);
+        assertFalse(first.fromCache);
+        assertEquals("1", first.content);
+        assertNotNull(first.etag);
+
+        final Result second = run(QUERY, null);
+        assertTrue(second.fromCache);
+        assertEquals("1", second.content);
+        assertEquals(first.etag, second.etag);
+
+        // changes to other collections do not matter
+        update("xmldb:store('" + OTHER_COLLECTION + "', 'other.xml', <items><item>1</item></items>)");
+        assertTrue(run(QUERY, null).fromCache);
+
+        update("xmldb:store('" + TEST_COLLECTION + "', 'two.xml', <items><item>2</item></items>)");
+        final Result third = run(QUERY, null);
+        assertFalse(third.fromCache);
+        assertEquals("2", third.content);
+        assertNotEquals(first.etag, third.etag);
+    }
+
+    @Test
+    public void invalidateOnPermissionChange() throws Exception {
+        update("xmldb:store('" + TEST_COLLECTION + "', 'one.xml', <items><item>1</item></items>)");
+        run(QUERY, null);
+        assertTrue(run(QUERY, null).fromCache);
+
+        update("sm:chmod(xs:anyURI('" + TEST_COLLECTION + "'), 'rwxr-x---')");
+        assertFalse(run(QUERY, null).fromCache);
+        assertTrue(run(QUERY, null).fromCache);
+
+        update("sm:chmod(xs:anyURI('" + TEST_COLLECTION + "/one.xml'), 'rw-r-----')");
+        assertFalse(run(QUERY, null).fromCache);
+    }
+
+    @Test
+    public void invalidateOnMove() throws Exception {
+        update("xmldb:store(xmldb:create-collection('" + TEST_COLLECTION + "', 'sub'), 'one.xml', <items><item>1</item></items>)");
+        run(QUERY, null);
+        assertTrue(run(QUERY, null).fromCache);
+
+        update("xmldb:move('" + TEST_COLLECTION + "/sub', '" + OTHER_COLLECTION + "')");
+        final Result moved = run(QUERY, null);
+        assertFalse(moved.fromCache);
+        assertEquals("0", moved.content);
+    }
+
+    @Test
+    public void notModified() throws Exception {
+        update("xmldb:store('" + TEST_COLLECTION + "', 'one.xml', <items><item>1</item></items>)");
+        final Result first = run(QUERY, null);
+
+        final Result second = run(QUERY, first.etag);
+        assertTrue(second.fromCache);
+        assertEquals(HttpServletResponse.SC_NOT_MODIFIED, second.status);
+        assertEquals("", second.content);
+
+        final Result third = run(QUERY, "\"other\"");
+        assertEquals(0, third.status);
+        assertEquals(first.content, third.content);
+    }
+
+    @Test
+    public void notEnabled() throws Exception {
+        final Result result = run("count(collection('" + TEST_COLLECTION + "')//item)", null);
+        assertFalse(result.fromCache);
+        assertNull(result.etag);
+
+        final Result noMaxAge = run("declare option exist:response-cache 'max-age=0';\n" +
+                "count(collection('" + TEST_COLLECTION + "')//item)", null);
+        assertFalse(noMaxAge.fromCache);
+        assertNull(noMaxAge.etag);
+    }
+
+    @Test
+    public void policy() {
+        assertNull(ResponseCache.Policy.parse("no"));
+        assertNull(ResponseCache.Policy.parse("max-age=0"));
+        assertEquals(ResponseCache.DEFAULT_MAX_AGE * 1000L, ResponseCache.Policy.parse("yes").getMaxAge());
+        final ResponseCache.Policy policy = ResponseCache.Policy.parse("max-age=60 collections=/db/a,/db/b vary=Accept-Language");
+        assertEquals(60000, policy.getMaxAge());
+        assertEquals(2, policy.getCollections().size());
+        assertTrue(policy.getCollections().contains(XmldbURI.create("/db/a")));
+        assertEquals(Collections.singletonList("Accept-Language"), policy.getVary());
+        try {
+            ResponseCache.Policy.parse("unknown=1");
+            fail("expected an IllegalArgumentException");
+        } catch (final IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            ResponseCache.Policy.parse("max-age=-1");
+            fail("expected an IllegalArgumentException");
+        } catch (final IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        update("xmldb:create-collection('/db', '" + TEST_COLLECTION.lastSegment() + "'),\n" +
+                "xmldb:create-collection('/db', '" + OTHER_COLLECTION.lastSegment() + "')");
+    }
+
+    @After
+    public void cleanup() throws Exception {
+        update("for $collection in ('" + TEST_COLLECTION + "', '" + OTHER_COLLECTION + "')\n" +
+                "where xmldb:collection-available($collection)\n" +
+                "return xmldb:remove($collection)");
+    }
+
+    private static Result run(final String query, final String ifNoneMatch) throws Exception {
+        final HttpServletRequest request = createNiceMock(HttpServletRequest.class);
+        expect(request.getMethod()).andReturn("GET").anyTimes();
+        expect(request.getRequestURI()).andReturn("/exist/test.xql").anyTimes();
+        expect(request.getParameterMap()).andReturn(Collections.emptyMap()).anyTimes();
+        expect(request.getHeader("If-None-Match")).andReturn(ifNoneMatch).anyTimes();
+
+        final ByteArrayOutputStream content = new ByteArrayOutputStream();
+        final Capture<String> etag = newCapture();
+        final Capture<Integer> status = newCapture();
+        final HttpServletResponse response = createNiceMock(HttpServletResponse.class);
+        expect(response.getOutputStream()).andReturn(new TestOutputStream(content)).anyTimes();
+        response.setHeader(eq("ETag"), capture(etag));
+        expectLastCall().anyTimes();
+        response.setStatus(captureInt(status));
+        expectLastCall().anyTimes();
+        replay(request, response);
+
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        final Result result = new Result();
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
+            final XQuery xquery = pool.getXQueryService();
+            final StringSource source = new StringSource(query);
+            final CompiledXQuery compiled = xquery.compile(broker, new XQueryContext(pool), source);
+            final ResponseCacheHandler handler = ResponseCacheHandler.create(broker, source, compiled.getContext(), request, response);
+            if (handler != null && handler.sendCached()) {
+                result.fromCache = true;
+            } else {
+                final HttpServletResponse out = handler == null ? response : handler.begin();
+                boolean success = false;
+                try {
+                    final Sequence sequence = xquery.execute(broker, compiled, null);
+                    out.getOutputStream().write(sequence.getStringValue().getBytes(UTF_8));
+                    success = true;
+                } finally {
+                    if (handler != null) {
+                        handler.end(success);
+                    }
+                }
+            }
+        }
+        result.content = new String(content.toByteArray(), UTF_8);
+        result.etag = etag.hasCaptured() ? etag.getValue() : null;
+        result.status = status.hasCaptured() ? status.getValue() : 0;
+        return result;
+    }
+
+    /**
+     * Modifies the database by executing the given XQuery as the system subject.
+     */
+    private static void update(final String query) throws Exception {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
+            final XQuery xquery = pool.getXQueryService();
+            xquery.execute(broker, query, null);
+        }
+    }
+
+    private static class Result {
+        private boolean fromCache = false;
+        private String content;
+        private String etag;
+        private int status;
+    }
+
+    private static class TestOutputStream extends ServletOutputStream {
+        private final ByteArrayOutputStream os;
+
+        private TestOutputStream(final ByteArrayOutputStream os) {
+            this.os = os;
+        }
+
+        @Override
+        public void write(final int b) throws IOException {
+            os.write(b);
+        }
+
+        @Override
+        public boolean isReady() {
+            return true;
+        }
+
+        @Override
+        public void setWriteListener(final WriteListener writeListener) {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
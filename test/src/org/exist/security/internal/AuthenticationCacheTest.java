@@ -0,0 +1,137 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2015 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.security.internal;
+
+import org.exist.security.Account;
+import org.exist.security.AuthenticationException;
+import org.exist.security.SecurityManager;
+import org.exist.security.Subject;
+import org.exist.security.internal.aider.UserAider;
+import org.exist.storage.BrokerPool;
+import org.exist.storage.DBBroker;
+import org.exist.test.ExistEmbeddedServer;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+import java.util.Optional;
+
+import static org.easymock.EasyMock.createNiceMock;
+import static org.junit.Assert.*;
+
+public class AuthenticationCacheTest {
+
+    @ClassRule
+    public static final ExistEmbeddedServer existEmbeddedServer = new ExistEmbeddedServer(true);
+
+    @Test
+    public void cacheAndExpire() throws Exception {
+        final AuthenticationCache cache = new AuthenticationCache(10, 200);
+        final Subject subject = createNiceMock(Subject.class);
+        assertNull(cache.get("user", "secret"));
+        cache.authenticated("user", "secret", subject);
+        assertSame(subject, cache.get("user", "secret"));
+        assertSame(subject, cache.get("user", "secret".toCharArray()));
+        assertNull(cache.get("user", "other"));
+        assertNull(cache.get("other", "secret"));
+
+        Thread.sleep(300);
+        assertNull(cache.get("user", "secret"));
+    }
+
+    @Test
+    public void bounded() throws Exception {
+        final AuthenticationCache cache = new AuthenticationCache(10, 60000);
+        final Subject subject = createNiceMock(Subject.class);
+        for (int i = 0; i < 20; i++) {
+            cache.authenticated("user" + i, "secret", subject);
+        }
+        assertEquals(10, cache.size());
+        assertNull(cache.get("user0", "secret"));
+        assertSame(subject, cache.get("user19", "secret"));
+
+        cache.invalidate("user19");
+        assertNull(cache.get("user19", "secret"));
+        assertSame(subject, cache.get("user18", "secret"));
+    }
+
+    @Test
+    public void backoff() throws Exception {
+        final AuthenticationCache cache = new AuthenticationCache(10, 60000);
+        cache.failed("user", "wrong", new AuthenticationException(AuthenticationException.WRONG_PASSWORD, "wrong"));
+        try {
+            cache.get("user", "wrong");
+            fail("expected an AuthenticationException");
+        } catch (final AuthenticationException e) {
+            assertEquals(AuthenticationException.WRONG_PASSWORD, e.getType());
+        }
+        // other credentials are verified by the realm
+        assertNull(cache.get("user", "right"));
+
+        // failures which may not happen again are not cached
+        cache.failed("other", "secret", new AuthenticationException(AuthenticationException.UNNOWN_EXCEPTION, "no connection"));
+        assertNull(cache.get("other", "secret"));
+
+        Thread.sleep(AuthenticationCache.MIN_BACKOFF + 100);
+        assertNull(cache.get("user", "wrong"));
+    }
+
+    @Test
+    public void invalidatedByPasswordChange() throws Exception {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        final SecurityManager sm = pool.getSecurityManager();
+        try (final DBBroker broker = pool.get(Optional.of(sm.getSystemSubject()))) {
+            final UserAider user = new UserAider("auth-cache-test");
+            user.setPassword("first");
+            sm.addAccount(broker, user);
+
+            final Subject subject = sm.authenticate("auth-cache-test", "first");
+            assertTrue(subject.isAuthenticated());
+            assertSame(subject, sm.authenticate("auth-cache-test", "first"));
+
+            try {
+                sm.authenticate("auth-cache-test", "second");
+                fail("expected an AuthenticationException");
+            } catch (final AuthenticationException e) {
+                assertEquals(AuthenticationException.WRONG_PASSWORD, e.getType());
+            }
+
+            final Account account = sm.getAccount("auth-cache-test");
+            account.setPassword("second");
+            sm.updateAccount(account);
+
+            final Subject changed = sm.authenticate("auth-cache-test", "second");
+            assertTrue(changed.isAuthenticated());
+            try {
+                sm.authenticate("auth-cache-test", "first");
+                fail("expected an AuthenticationException");
+            } catch (final AuthenticationException e) {
+                assertEquals(AuthenticationException.WRONG_PASSWORD, e.getType());
+            }
+
+            sm.deleteAccount("auth-cache-test");
+            try {
+                sm.authenticate("auth-cache-test", "second");
+                fail("expected an AuthenticationException");
+            } catch (final AuthenticationException e) {
+                assertEquals(AuthenticationException.ACCOUNT_NOT_FOUND, e.getType());
+            }
+        }
+    }
+}
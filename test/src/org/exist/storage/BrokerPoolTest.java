@@ -97,4 +97,25 @@ public class BrokerPoolTest {
             assertEquals("Expected `guest` user, but was: " + broker1.getCurrentSubject().getName(), guestUser.getId(), broker1.getCurrentSubject().getId());
         }
     }
+
+    @Test
+    public void leaseWaitTimeReportedOnce() throws EXistException {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        final DBBroker leased;
+        try(final DBBroker broker1 = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
+            leased = broker1;
+            broker1.setLeaseWaitTime(1000);
+
+            //a nested lease did not wait, the wait is reported once for the outer lease
+            try(final DBBroker broker2 = pool.getBroker()) {
+                assertEquals(1000, broker2.takeLeaseWaitTime());
+                assertEquals(0, broker2.takeLeaseWaitTime());
+            }
+
+            broker1.setLeaseWaitTime(1000);
+        }
+
+        //the wait of a released lease is not reported for the next one
+        assertEquals(0, leased.takeLeaseWaitTime());
+    }
 }
@@ -30,6 +30,7 @@ import java.util.List;
 import java.util.Optional;
 
 import org.exist.EXistException;
+import org.exist.dom.persistent.DocumentImpl;
 import org.exist.numbering.NodeId;
 import org.exist.numbering.NodeIdFactory;
 import org.exist.storage.btree.BTreeException;
@@ -73,6 +74,11 @@ public class DOMFileRecoverTest {
 
             final TransactionManager mgr = pool.getTransactionManager();
 
+            final DocumentImpl doc500 = new DocumentImpl(pool);
+            doc500.setDocId(500);
+            final DocumentImpl doc501 = new DocumentImpl(pool);
+            doc501.setDocId(501);
+
             long firstToRemove = -1;
 
             try(final Txn txn = mgr.beginTransaction()) {
@@ -95,7 +101,7 @@ public class DOMFileRecoverTest {
                 IndexQuery idx = new IndexQuery(IndexQuery.TRUNC_RIGHT, ref);
                 assertNotNull(idx);
                 domDb.remove(txn, idx, null);
-                domDb.removeAll(txn, firstToRemove);
+                domDb.removeAll(txn, doc500, firstToRemove);
 
                 // put some more
                 for (int i = 1; i <= 10000; i++) {
@@ -133,7 +139,7 @@ public class DOMFileRecoverTest {
 
                 final IndexQuery idx = new IndexQuery(IndexQuery.TRUNC_RIGHT, new NativeBroker.NodeRef(501));
                 domDb.remove(txn, idx, null);
-                domDb.removeAll(txn, firstToRemove);
+                domDb.removeAll(txn, doc501, firstToRemove);
 
                 // Don't commit...
                 mgr.commit(txn);
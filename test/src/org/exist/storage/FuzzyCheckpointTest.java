@@ -0,0 +1,125 @@
+/*
+ * eXist Open Source Native XML Database
+ * Copyright (C) 2001-2016 The eXist Project
+ * http://exist-db.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.exist.storage;
+
+import org.exist.EXistException;
+import org.exist.collections.Collection;
+import org.exist.collections.IndexInfo;
+import org.exist.dom.persistent.DocumentImpl;
+import org.exist.security.PermissionDeniedException;
+import org.exist.storage.lock.Lock.LockMode;
+import org.exist.storage.txn.TransactionManager;
+import org.exist.storage.txn.Txn;
+import org.exist.test.ExistEmbeddedServer;
+import org.exist.test.TestConstants;
+import org.exist.xmldb.XmldbURI;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.util.Optional;
+
+import static org.junit.Assert.*;
+
+/**
+ * Crash the database after a fuzzy checkpoint and check that recovery, which starts
+ * to redo at the checkpoint, redoes committed and undoes uncommitted transactions.
+ */
+public class FuzzyCheckpointTest {
+
+    private static final XmldbURI UNCOMMITTED_COLLECTION_URI = TestConstants.TEST_COLLECTION_URI.append("uncommitted");
+
+    @Rule
+    public final ExistEmbeddedServer existEmbeddedServer = new ExistEmbeddedServer();
+
+    @After
+    public void resetCorruption() {
+        BrokerPool.FORCE_CORRUPTION = false;
+    }
+
+    @Test
+    public void recoverFromFuzzyCheckpoint() throws Exception {
+        BrokerPool.FORCE_CORRUPTION = false;
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        assertTrue(pool.getPageWriter().isPresent());
+        final PageWriter pageWriter = pool.getPageWriter().get();
+        final long checkpoints = pageWriter.getCheckpoints();
+        final TransactionManager transact = pool.getTransactionManager();
+
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
+            try (final Txn transaction = transact.beginTransaction()) {
+                store(broker, transaction, TestConstants.TEST_COLLECTION_URI, "before.xml");
+                transact.commit(transaction);
+            }
+
+            // the following transaction is running during the checkpoint and will not be
+            // committed. It will thus be rolled back by recovery
+            final Txn uncommitted = transact.beginTransaction();
+            store(broker, uncommitted, UNCOMMITTED_COLLECTION_URI, "uncommitted.xml");
+
+            assertTrue(pageWriter.checkpoint(false));
+            for (int i = 0; i < 500 && pageWriter.isActive(); i++) {
+                Thread.sleep(10);
+            }
+            assertFalse(pageWriter.isActive());
+            assertEquals(checkpoints + 1, pageWriter.getCheckpoints());
+            assertTrue(pageWriter.getPagesWritten() > 0);
+
+            try (final Txn transaction = transact.beginTransaction()) {
+                store(broker, transaction, TestConstants.TEST_COLLECTION_URI, "after.xml");
+                transact.commit(transaction);
+            }
+
+            pool.getJournalManager().get().flush(true, false);
+            BrokerPool.FORCE_CORRUPTION = true;
+        }
+
+        existEmbeddedServer.restart();
+        BrokerPool.FORCE_CORRUPTION = false;
+
+        final BrokerPool restarted = existEmbeddedServer.getBrokerPool();
+        try (final DBBroker broker = restarted.get(Optional.of(restarted.getSecurityManager().getSystemSubject()))) {
+            assertStored(broker, TestConstants.TEST_COLLECTION_URI.append("before.xml"), true);
+            assertStored(broker, TestConstants.TEST_COLLECTION_URI.append("after.xml"), true);
+            assertStored(broker, UNCOMMITTED_COLLECTION_URI.append("uncommitted.xml"), false);
+        }
+    }
+
+    private static void store(final DBBroker broker, final Txn transaction, final XmldbURI collectionUri,
+            final String name) throws Exception {
+        final Collection collection = broker.getOrCreateCollection(transaction, collectionUri);
+        broker.saveCollection(transaction, collection);
+        final String xml = "<test><name>" + name + "</name></test>";
+        final IndexInfo info = collection.validateXMLResource(transaction, broker, XmldbURI.create(name), xml);
+        collection.store(transaction, broker, info, xml);
+    }
+
+    private static void assertStored(final DBBroker broker, final XmldbURI uri, final boolean stored)
+            throws EXistException, PermissionDeniedException {
+        final DocumentImpl doc = broker.getXMLResource(uri, LockMode.READ_LOCK);
+        try {
+            assertEquals("Document " + uri, stored, doc != null);
+        } finally {
+            if (doc != null) {
+                doc.getUpdateLock().release(LockMode.READ_LOCK);
+            }
+        }
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2015 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.storage;
+
+import org.exist.collections.Collection;
+import org.exist.storage.lock.HierarchicalLockManager;
+import org.exist.storage.txn.TransactionManager;
+import org.exist.storage.txn.Txn;
+import org.exist.test.ExistEmbeddedServer;
+import org.exist.xmldb.XmldbURI;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.Assert.*;
+
+public class GetOrCreateCollectionTest {
+
+    private static final XmldbURI TEST_COLLECTION = XmldbURI.ROOT_COLLECTION_URI.append("get-or-create-test");
+
+    @ClassRule
+    public static final ExistEmbeddedServer existEmbeddedServer = new ExistEmbeddedServer(true);
+
+    @Test
+    public void existingCollectionWhileOpenedForWrite() throws Exception {
+        final XmldbURI uri = TEST_COLLECTION.append("existing");
+        assertTrue(getOrCreate(uri));
+
+        // another thread opening the collection for writing must not block the lookup
+        final HierarchicalLockManager.PathLock lock = existEmbeddedServer.getBrokerPool().getCollectionLocks()
+                .acquire(uri, HierarchicalLockManager.Mode.IX);
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            final Future<Boolean> created = executor.submit(() -> getOrCreate(uri));
+            assertFalse(created.get(10, TimeUnit.SECONDS));
+        } finally {
+            lock.release();
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void createWaitsForSubtreeOperation() throws Exception {
+        final XmldbURI uri = TEST_COLLECTION.append("created");
+
+        // a collection is not created inside a subtree locked by another thread
+        final HierarchicalLockManager.PathLock lock = existEmbeddedServer.getBrokerPool().getCollectionLocks()
+                .acquire(TEST_COLLECTION, HierarchicalLockManager.Mode.X);
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            final Future<Boolean> created = executor.submit(() -> getOrCreate(uri));
+            try {
+                created.get(500, TimeUnit.MILLISECONDS);
+                fail("The collection was created while its parent was locked exclusively");
+            } catch (final TimeoutException e) {
+                // expected
+            }
+            lock.release();
+            assertTrue(created.get(10, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * @return true if the collection was created
+     */
+    private static boolean getOrCreate(final XmldbURI uri) throws Exception {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        final TransactionManager transact = pool.getTransactionManager();
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()));
+                final Txn transaction = transact.beginTransaction()) {
+            final boolean exists = broker.getCollection(uri) != null;
+            final Collection collection = broker.getOrCreateCollection(transaction, uri);
+            assertNotNull(collection);
+            broker.saveCollection(transaction, collection);
+            transact.commit(transaction);
+            return !exists;
+        }
+    }
+}
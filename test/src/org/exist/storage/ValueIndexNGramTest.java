@@ -0,0 +1,194 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2016 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.storage;
+
+import org.exist.collections.Collection;
+import org.exist.collections.IndexInfo;
+import org.exist.storage.btree.IndexQuery;
+import org.exist.storage.btree.Value;
+import org.exist.storage.lock.Lock;
+import org.exist.storage.lock.Lock.LockMode;
+import org.exist.storage.txn.TransactionManager;
+import org.exist.storage.txn.Txn;
+import org.exist.test.ExistEmbeddedServer;
+import org.exist.util.ByteConversion;
+import org.exist.xmldb.XmldbURI;
+import org.exist.xquery.value.Sequence;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+import java.util.Optional;
+import java.util.Properties;
+
+import static org.junit.Assert.*;
+
+public class ValueIndexNGramTest {
+
+    private static final XmldbURI TEST_COLLECTION = XmldbURI.ROOT_COLLECTION_URI.append("value-ngram-test");
+
+    private static final String COLLECTION_CONFIG =
+        "<collection xmlns=\"http://exist-db.org/collection-config/1.0\">" +
+        "   <index>" +
+        "       <create path=\"//item/name\" type=\"xs:string\"/>" +
+        "       <create qname=\"@code\" type=\"xs:string\"/>" +
+        "   </index>" +
+        "</collection>";
+
+    private static final String LONG_NAME = new String(new char[300]).replace('\0', 'x') + "berg";
+
+    private static final String XML =
+        "<items>" +
+        "   <item code=\"abc-1\"><name>Berlin</name></item>" +
+        "   <item code=\"abc-2\"><name>Bern</name></item>" +
+        "   <item code=\"xyz-1\"><name>Hamburg</name></item>" +
+        "   <item code=\"xyz-2\"><name>Bremen</name></item>" +
+        "   <item code=\"abcd\"><name>Lindenberg</name></item>" +
+        "   <item code=\"long\"><name>" + LONG_NAME + "</name></item>" +
+        "</items>";
+
+    private static final Properties CONFIG = new Properties();
+    static {
+        CONFIG.put(NativeValueIndex.PROPERTY_INDEX_NGRAMS, true);
+    }
+
+    @ClassRule
+    public static final ExistEmbeddedServer existEmbeddedServer = new ExistEmbeddedServer(null, null, CONFIG, true);
+
+    @BeforeClass
+    public static void setUp() throws Exception {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        final TransactionManager transact = pool.getTransactionManager();
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()));
+                final Txn transaction = transact.beginTransaction()) {
+            final Collection collection = broker.getOrCreateCollection(transaction, TEST_COLLECTION);
+            broker.saveCollection(transaction, collection);
+            pool.getConfigurationManager().addConfiguration(transaction, broker, collection, COLLECTION_CONFIG);
+
+            final IndexInfo info = collection.validateXMLResource(transaction, broker, XmldbURI.create("items.xml"), XML);
+            collection.store(transaction, broker, info, XML);
+            transact.commit(transaction);
+        }
+    }
+
+    @Test
+    public void contains() throws Exception {
+        assertEquals("2", count("//item[contains(name, 'ber')]"));
+        assertEquals("1", count("//item[contains(name, 'erli')]"));
+        assertEquals("0", count("//item[contains(name, 'xyz')]"));
+        assertEquals("1", count("//item[contains(name, 'xxxxxxb')]"));
+        // too short for n-grams
+        assertEquals("4", count("//item[contains(name, 'er')]"));
+        assertEquals("3", count("//item[contains(@code, 'abc')]"));
+    }
+
+    @Test
+    public void endsWith() throws Exception {
+        assertEquals("2", count("//item[ends-with(name, 'berg')]"));
+        assertEquals("1", count("//item[ends-with(name, 'urg')]"));
+        assertEquals("0", count("//item[ends-with(name, 'Ber')]"));
+        assertEquals("2", count("//item[ends-with(@code, '-1')]"));
+    }
+
+    @Test
+    public void matches() throws Exception {
+        assertEquals("1", count("//item[matches(name, 'nde.berg')]"));
+        assertEquals("2", count("//item[matches(name, 'berg$')]"));
+        assertEquals("2", count("//item[matches(name, '^Ber')]"));
+        assertEquals("4", count("//item[matches(name, 'BER', 'i')]"));
+        assertEquals("2", count("//item[matches(name, 'Ber(lin|n)')]"));
+        assertEquals("3", count("//item[matches(@code, 'abc')]"));
+    }
+
+    @Test
+    public void reindex() throws Exception {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
+            broker.reindexCollection(TEST_COLLECTION);
+        }
+        assertEquals("2", count("//item[contains(name, 'ber')]"));
+        assertEquals("2", count("//item[ends-with(name, 'berg')]"));
+        assertEquals("1", count("//item[matches(name, 'nde.berg')]"));
+    }
+
+    @Test
+    public void removeNGrams() throws Exception {
+        final int before = countNGrams();
+
+        final XmldbURI docUri = TEST_COLLECTION.append("removed.xml");
+        query("xmldb:store('" + TEST_COLLECTION + "', 'removed.xml', " +
+                "<items><item code='tmp-1'><name>Zaragoza</name></item><item code='tmp-2'><name>" + LONG_NAME + "z</name></item></items>)");
+        try {
+            final int stored = countNGrams();
+            assertTrue(stored > before);
+            assertEquals("1", count("//item[contains(name, 'ragoz')]"));
+
+            // removing the last node of a key removes its n-grams
+            query("update value doc('" + docUri + "')//item[@code = 'tmp-1']/name with 'Bern'");
+            assertTrue(countNGrams() < stored);
+            assertEquals("0", count("//item[contains(name, 'ragoz')]"));
+        } finally {
+            query("xmldb:remove('" + TEST_COLLECTION + "', 'removed.xml')");
+        }
+
+        // the entry of long keys is shared with the long name of items.xml
+        assertEquals(before, countNGrams());
+        assertEquals("1", count("//item[contains(name, 'xxxxxxb')]"));
+    }
+
+    private static int countNGrams() throws Exception {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
+            final NativeValueIndex index = broker.getValueIndex();
+            final int collectionId = broker.getCollection(TEST_COLLECTION).getId();
+            final byte[] prefix = new byte[5];
+            prefix[0] = NativeValueIndex.IndexType.NGRAM.val;
+            ByteConversion.intToByte(collectionId, prefix, 1);
+            final int[] count = { 0 };
+            final Lock lock = index.dbValues.getLock();
+            lock.acquire(LockMode.READ_LOCK);
+            try {
+                index.dbValues.query(new IndexQuery(IndexQuery.TRUNC_RIGHT, new Value(prefix)), (value, pointer) -> {
+                    count[0]++;
+                    return true;
+                });
+            } finally {
+                lock.release(LockMode.READ_LOCK);
+            }
+            return count[0];
+        }
+    }
+
+    private static void query(final String query) throws Exception {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
+            pool.getXQueryService().execute(broker, query, null);
+        }
+    }
+
+    private static String count(final String path) throws Exception {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
+            final Sequence result = pool.getXQueryService().execute(broker,
+                    "count(collection('" + TEST_COLLECTION + "')" + path + ")", null);
+            return result.getStringValue();
+        }
+    }
+}
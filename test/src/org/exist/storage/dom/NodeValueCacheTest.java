@@ -0,0 +1,123 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2015 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.storage.dom;
+
+import org.exist.EXistException;
+import org.exist.numbering.DLN;
+import org.exist.numbering.NodeId;
+import org.exist.security.PermissionDeniedException;
+import org.exist.storage.BrokerPool;
+import org.exist.storage.DBBroker;
+import org.exist.test.ExistEmbeddedServer;
+import org.exist.xquery.XPathException;
+import org.exist.xquery.XQuery;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.util.Optional;
+
+import static org.exist.util.PropertiesBuilder.propertiesBuilder;
+import static org.junit.Assert.*;
+
+public class NodeValueCacheTest {
+
+    @Rule
+    public final ExistEmbeddedServer existEmbeddedServer = new ExistEmbeddedServer(null, null, propertiesBuilder()
+            .put(NodeValueCache.PROPERTY_CACHE_SIZE, 1)
+            .build(), true);
+
+    @Test
+    public void evictLeastRecentlyUsed() {
+        final NodeValueCache cache = new NodeValueCache(4096, 1024);
+        final String value = new String(new char[256]);
+        final int count = 20;
+        for (int i = 0; i < count; i++) {
+            cache.put(1, nodeId(i), false, value);
+        }
+        assertTrue(cache.getSize() <= cache.getMaxSize());
+        assertNull(cache.get(1, nodeId(0), false));
+        assertEquals(value, cache.get(1, nodeId(count - 1), false));
+        assertNull(cache.get(1, nodeId(count - 1), true));
+
+        // values larger than the maximum entry size are never cached
+        cache.put(1, nodeId(count), false, new String(new char[1024]));
+        assertNull(cache.get(1, nodeId(count), false));
+    }
+
+    @Test
+    public void invalidateDocument() {
+        final NodeValueCache cache = new NodeValueCache(1024 * 1024, 1024);
+        cache.put(1, nodeId(1), false, "a");
+        cache.put(1, nodeId(2), false, "b");
+        cache.put(2, nodeId(1), false, "c");
+        cache.invalidate(1);
+        assertNull(cache.get(1, nodeId(1), false));
+        assertNull(cache.get(1, nodeId(2), false));
+        assertEquals("c", cache.get(2, nodeId(1), false));
+        cache.invalidate(2);
+        assertEquals(0, cache.getSize());
+    }
+
+    @Test
+    public void updateNodes() throws EXistException, PermissionDeniedException, XPathException {
+        execute("xmldb:store('/db', 'test.xml', <a><b>one</b><c><d>two</d></c></a>)");
+        assertEquals("onetwo", execute("string(doc('/db/test.xml')/a)"));
+        assertEquals("onetwo", execute("string(doc('/db/test.xml')/a)"));
+        assertEquals("two", execute("string(doc('/db/test.xml')/a/c)"));
+
+        execute("update value doc('/db/test.xml')/a/c/d with 'three'");
+        assertEquals("onethree", execute("string(doc('/db/test.xml')/a)"));
+        assertEquals("three", execute("string(doc('/db/test.xml')/a/c)"));
+
+        execute("update insert <e>four</e> into doc('/db/test.xml')/a/c");
+        assertEquals("onethreefour", execute("string(doc('/db/test.xml')/a)"));
+
+        execute("update delete doc('/db/test.xml')/a/b");
+        assertEquals("threefour", execute("string(doc('/db/test.xml')/a)"));
+
+        execute("update replace doc('/db/test.xml')/a/c/e with <f>five</f>");
+        assertEquals("threefive", execute("string(doc('/db/test.xml')/a)"));
+        assertEquals(1, Integer.parseInt(execute("count(doc('/db/test.xml')/a[. = 'threefive'])")));
+    }
+
+    @Test
+    public void replaceDocument() throws EXistException, PermissionDeniedException, XPathException {
+        execute("xmldb:store('/db', 'test.xml', <a><b>one</b></a>)");
+        assertEquals("one", execute("string(doc('/db/test.xml')/a)"));
+        execute("xmldb:remove('/db', 'test.xml')");
+        // the document id of the removed document is reused
+        execute("xmldb:store('/db', 'test.xml', <a><b>two</b></a>)");
+        assertEquals("two", execute("string(doc('/db/test.xml')/a)"));
+        execute("xmldb:store('/db', 'test.xml', <a><b>three</b></a>)");
+        assertEquals("three", execute("string(doc('/db/test.xml')/a)"));
+    }
+
+    private String execute(final String query) throws EXistException, PermissionDeniedException, XPathException {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
+            final XQuery xquery = pool.getXQueryService();
+            return xquery.execute(broker, query, null).getStringValue();
+        }
+    }
+
+    private static NodeId nodeId(final int i) {
+        return new DLN("1." + (i + 1));
+    }
+}
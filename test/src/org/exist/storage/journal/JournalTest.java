@@ -0,0 +1,227 @@
+/*
+ * eXist Open Source Native XML Database
+ * Copyright (C) 2001-2016 The eXist Project
+ * http://exist-db.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.exist.storage.journal;
+
+import org.exist.storage.BrokerPool;
+import org.exist.storage.DBBroker;
+import org.exist.storage.txn.Checkpoint;
+import org.exist.test.ExistEmbeddedServer;
+import org.exist.util.Configuration;
+import org.junit.ClassRule;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class JournalTest {
+
+    private static final int THREADS = 8;
+    private static final int ENTRIES_PER_THREAD = 10000;
+
+    @ClassRule
+    public static final ExistEmbeddedServer existEmbeddedServer = new ExistEmbeddedServer(true);
+
+    @Rule
+    public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    /**
+     * Threads append concurrently while another thread keeps flushing. Every entry
+     * must be found in the file at the position given by its LSN.
+     */
+    @Test
+    public void concurrentAppend() throws Exception {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        final Journal journal = createJournal(pool, false);
+        journal.setCurrentFileNum(0);
+        journal.switchFiles();
+
+        final AtomicReference<Throwable> error = new AtomicReference<>();
+        final AtomicBoolean writing = new AtomicBoolean(true);
+        final CountDownLatch start = new CountDownLatch(1);
+        final List<Thread> writers = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+            final int thread = i;
+            writers.add(new Thread(() -> {
+                try {
+                    start.await();
+                    for (int j = 0; j < ENTRIES_PER_THREAD; j++) {
+                        journal.writeToLog(new Checkpoint(thread * ENTRIES_PER_THREAD + j));
+                    }
+                } catch (final Throwable t) {
+                    error.compareAndSet(null, t);
+                }
+            }));
+        }
+        final Thread flusher = new Thread(() -> {
+            while (writing.get()) {
+                journal.flushToLog(true);
+            }
+        });
+        writers.forEach(Thread::start);
+        flusher.start();
+        start.countDown();
+        for (final Thread writer : writers) {
+            writer.join();
+        }
+        writing.set(false);
+        flusher.join();
+        journal.flushToLog(true);
+        assertNull(error.get());
+
+        final boolean[] found = new boolean[THREADS * ENTRIES_PER_THREAD];
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
+            final JournalReader reader = new JournalReader(broker, journal.getFile(1), 1);
+            try {
+                Loggable entry;
+                int count = 0;
+                while ((entry = reader.nextEntry()) != null) {
+                    // a checkpoint record stores the LSN it was written with
+                    assertEquals(entry.getLsn(), ((Checkpoint) entry).getStoredLsn());
+                    assertFalse(found[(int) entry.getTransactionId()]);
+                    found[(int) entry.getTransactionId()] = true;
+                    count++;
+                }
+                assertEquals(THREADS * ENTRIES_PER_THREAD, count);
+            } finally {
+                reader.close();
+            }
+        }
+        assertEquals(Lsn.create(1, THREADS * ENTRIES_PER_THREAD * (Journal.LOG_ENTRY_BASE_LEN + 16)), journal.lastWrittenLsn());
+        journal.shutdown(0, false);
+    }
+
+    @Test
+    public void compressedBlocks() throws Exception {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        final Journal journal = createJournal(pool, true);
+        journal.setCurrentFileNum(0);
+        journal.switchFiles();
+        final int entries = 50000;
+        for (int i = 0; i < entries; i++) {
+            journal.writeToLog(new Checkpoint(i));
+            if (i % 5000 == 0) {
+                journal.flushToLog(true);
+            }
+        }
+        journal.flushToLog(true);
+
+        final long length = (long) entries * (Journal.LOG_ENTRY_BASE_LEN + 16);
+        assertEquals(Lsn.create(1, (int) length), journal.lastWrittenLsn());
+        assertTrue(Files.size(journal.getFile(1)) < length / 2);
+        assertEquals(entries, readEntries(pool, journal, 1));
+        journal.shutdown(0, false);
+    }
+
+    /**
+     * A journal replaced during a checkpoint is reused for the next journal. The
+     * entries left over from its previous use must not be read.
+     */
+    @Test
+    public void reuseReplacedFile() throws Exception {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        final Journal journal = createJournal(pool, false);
+        journal.setCurrentFileNum(0);
+        journal.switchFiles();
+        final Path spare = temporaryFolder.getRoot().toPath().resolve(Journal.SPARE_FILE);
+
+        // fill the first file beyond the minimum size for replacing it
+        final int entries = 100000;
+        for (int i = 0; i < entries; i++) {
+            journal.writeToLog(new Checkpoint(i));
+        }
+        journal.checkpoint(0, true);
+        final long size = awaitSpare(spare);
+        assertFalse(Files.exists(journal.getFile(1)));
+
+        for (int i = 0; i < entries; i++) {
+            journal.writeToLog(new Checkpoint(i));
+        }
+        journal.checkpoint(0, true);
+        awaitSpare(spare);
+
+        // the third file reuses the first one
+        for (int i = 0; i < 10; i++) {
+            journal.writeToLog(new Checkpoint(i));
+        }
+        journal.flushToLog(true);
+        assertTrue(Files.size(journal.getFile(3)) >= size);
+        assertEquals(10, readEntries(pool, journal, 3));
+        journal.shutdown(0, false);
+    }
+
+    private static long awaitSpare(final Path spare) throws Exception {
+        for (int i = 0; i < 500 && !Files.exists(spare); i++) {
+            Thread.sleep(10);
+        }
+        assertTrue(Files.exists(spare));
+        return Files.size(spare);
+    }
+
+    /**
+     * Read all checkpoint records of a journal file.
+     *
+     * @return the number of records
+     */
+    private static int readEntries(final BrokerPool pool, final Journal journal, final int fileNum) throws Exception {
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
+            final JournalReader reader = new JournalReader(broker, journal.getFile(fileNum), fileNum);
+            try {
+                Loggable entry;
+                int count = 0;
+                while ((entry = reader.nextEntry()) != null) {
+                    assertEquals(entry.getLsn(), ((Checkpoint) entry).getStoredLsn());
+                    count++;
+                }
+                return count;
+            } finally {
+                reader.close();
+            }
+        }
+    }
+
+    /**
+     * Create a journal in a temporary directory, next to the journal of the database.
+     */
+    private Journal createJournal(final BrokerPool pool, final boolean compress) throws Exception {
+        final Configuration config = pool.getConfiguration();
+        final Object journalDir = config.getProperty(Journal.PROPERTY_RECOVERY_JOURNAL_DIR);
+        final Object compressJournal = config.getProperty(Journal.PROPERTY_RECOVERY_COMPRESS);
+        config.setProperty(Journal.PROPERTY_RECOVERY_JOURNAL_DIR, temporaryFolder.getRoot().toPath());
+        config.setProperty(Journal.PROPERTY_RECOVERY_COMPRESS, compress);
+        try {
+            final Journal journal = new Journal(pool, temporaryFolder.getRoot().toPath());
+            journal.initialize();
+            return journal;
+        } finally {
+            config.setProperty(Journal.PROPERTY_RECOVERY_JOURNAL_DIR, journalDir);
+            config.setProperty(Journal.PROPERTY_RECOVERY_COMPRESS, compressJournal);
+        }
+    }
+}
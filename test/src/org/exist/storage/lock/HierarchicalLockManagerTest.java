@@ -0,0 +1,151 @@
+/*
+ * eXist Open Source Native XML Database
+ * Copyright (C) 2001-2016 The eXist Project
+ * http://exist-db.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.exist.storage.lock;
+
+import org.exist.storage.lock.HierarchicalLockManager.Mode;
+import org.exist.storage.lock.HierarchicalLockManager.PathLock;
+import org.exist.util.LockException;
+import org.exist.xmldb.XmldbURI;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class HierarchicalLockManagerTest {
+
+    private static final XmldbURI A = XmldbURI.create("/db/a");
+    private static final XmldbURI A_X = XmldbURI.create("/db/a/x");
+    private static final XmldbURI A_Y = XmldbURI.create("/db/a/y");
+
+    @Test
+    public void compatibility() {
+        assertTrue(Mode.IS.isCompatible(Mode.SIX));
+        assertTrue(Mode.IX.isCompatible(Mode.IX));
+        assertTrue(Mode.S.isCompatible(Mode.S));
+        assertFalse(Mode.S.isCompatible(Mode.IX));
+        assertFalse(Mode.SIX.isCompatible(Mode.S));
+        assertFalse(Mode.X.isCompatible(Mode.IS));
+
+        assertEquals(Mode.SIX, Mode.S.join(Mode.IX));
+        assertEquals(Mode.IX, Mode.IS.join(Mode.IX));
+        assertEquals(Mode.X, Mode.X.join(Mode.IS));
+    }
+
+    @Test
+    public void siblingsDoNotBlock() throws Exception {
+        final HierarchicalLockManager locks = new HierarchicalLockManager();
+        try(final PathLock lock = locks.acquire(A_X, Mode.X)) {
+            assertTrue(canLockFromOtherThread(locks, A_Y, Mode.X));
+            assertTrue(canLockFromOtherThread(locks, A, Mode.IX));
+        }
+    }
+
+    @Test
+    public void ancestorBlocksDescendant() throws Exception {
+        final HierarchicalLockManager locks = new HierarchicalLockManager();
+        try(final PathLock lock = locks.acquire(A, Mode.X)) {
+            assertFalse(canLockFromOtherThread(locks, A_X, Mode.S));
+        }
+        try(final PathLock lock = locks.acquire(A, Mode.S)) {
+            assertTrue(canLockFromOtherThread(locks, A_X, Mode.S));
+            assertFalse(canLockFromOtherThread(locks, A_X, Mode.X));
+        }
+        try(final PathLock lock = locks.acquire(A_X, Mode.S)) {
+            assertFalse(canLockFromOtherThread(locks, A, Mode.X));
+        }
+    }
+
+    @Test
+    public void waiterIsGrantedOnRelease() throws Exception {
+        final HierarchicalLockManager locks = new HierarchicalLockManager();
+        final PathLock lock = locks.acquire(A, Mode.X);
+        final CountDownLatch acquired = new CountDownLatch(1);
+        final Thread other = new Thread(() -> {
+            try(final PathLock otherLock = locks.acquire(A_X, Mode.X)) {
+                acquired.countDown();
+            } catch (final LockException e) {
+                fail(e.getMessage());
+            }
+        });
+        other.start();
+        assertFalse(acquired.await(100, TimeUnit.MILLISECONDS));
+        lock.release();
+        assertTrue(acquired.await(5, TimeUnit.SECONDS));
+        other.join();
+        assertEquals(0, locks.getLockedPaths());
+    }
+
+    @Test
+    public void reentrant() throws Exception {
+        final HierarchicalLockManager locks = new HierarchicalLockManager();
+        try(final PathLock lock = locks.acquire(new XmldbURI[] { A, A_X }, new Mode[] { Mode.S, Mode.X })) {
+            try(final PathLock nested = locks.acquire(A_X, Mode.X)) {
+                assertFalse(canLockFromOtherThread(locks, A_X, Mode.IS));
+            }
+            assertTrue(canLockFromOtherThread(locks, A_Y, Mode.S));
+            assertFalse(canLockFromOtherThread(locks, A_Y, Mode.X));
+        }
+        assertEquals(0, locks.getLockedPaths());
+    }
+
+    @Test
+    public void holdsLocks() throws Exception {
+        final HierarchicalLockManager locks = new HierarchicalLockManager();
+        assertFalse(locks.holdsLocks());
+        final PathLock lock = locks.acquire(A, Mode.S);
+        final PathLock nested = locks.acquire(A_X, Mode.IS);
+        nested.release();
+        nested.release();
+        assertTrue(locks.holdsLocks());
+        lock.release();
+        assertFalse(locks.holdsLocks());
+    }
+
+    @Test
+    public void normalizedPaths() throws Exception {
+        final HierarchicalLockManager locks = new HierarchicalLockManager();
+        try(final PathLock lock = locks.acquire(XmldbURI.create("xmldb:exist:///db/a/"), Mode.X)) {
+            assertEquals(2, locks.getLockedPaths());
+            assertFalse(canLockFromOtherThread(locks, A, Mode.IS));
+        }
+        assertEquals(0, locks.getLockedPaths());
+    }
+
+    /**
+     * @return true if another thread can lock the path without waiting
+     */
+    private static boolean canLockFromOtherThread(final HierarchicalLockManager locks, final XmldbURI path, final Mode mode) throws InterruptedException {
+        final CountDownLatch acquired = new CountDownLatch(1);
+        final Thread other = new Thread(() -> {
+            try(final PathLock lock = locks.acquire(path, mode)) {
+                acquired.countDown();
+            } catch (final LockException e) {
+                // interrupted
+            }
+        });
+        other.start();
+        final boolean result = acquired.await(100, TimeUnit.MILLISECONDS);
+        other.interrupt();
+        other.join();
+        return result;
+    }
+}
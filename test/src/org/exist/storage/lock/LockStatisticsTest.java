@@ -0,0 +1,151 @@
+/*
+ * eXist Open Source Native XML Database
+ * Copyright (C) 2001-2016 The eXist Project
+ * http://exist-db.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.exist.storage.lock;
+
+import org.exist.storage.lock.Lock.LockMode;
+import org.exist.storage.lock.LockStatistics.LockType;
+import org.exist.storage.lock.LockStatistics.ResourceStatistics;
+import org.exist.storage.lock.LockStatistics.TypeStatistics;
+import org.exist.util.LockException;
+import org.exist.xmldb.XmldbURI;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.*;
+
+public class LockStatisticsTest {
+
+    @Before
+    public void reset() {
+        LockStatistics.reset();
+    }
+
+    @Test
+    public void uncontended() throws LockException {
+        final Lock lock = new ReentrantReadWriteLock(XmldbURI.create("/db/uncontended"));
+        lock.acquire(LockMode.WRITE_LOCK);
+        lock.acquire(LockMode.READ_LOCK);
+        lock.release(LockMode.READ_LOCK);
+        lock.release(LockMode.WRITE_LOCK);
+
+        final TypeStatistics stats = LockStatistics.getStatistics(LockType.COLLECTION);
+        assertEquals(2, stats.getAcquisitions());
+        assertEquals(0, stats.getContended());
+        assertEquals(1, stats.getHoldTime().getCount());
+        assertEquals(0, stats.getWaitTime().getCount());
+        assertEquals(0, LockStatistics.getStatistics(LockType.FILE).getAcquisitions());
+        assertTrue(LockStatistics.getContendedResources(10).isEmpty());
+    }
+
+    @Test
+    public void contendedCollection() throws Exception {
+        final Lock lock = new ReentrantReadWriteLock(XmldbURI.create("/db/contended"));
+        contend(lock);
+
+        final TypeStatistics stats = LockStatistics.getStatistics(LockType.COLLECTION);
+        assertEquals(2, stats.getAcquisitions());
+        assertEquals(1, stats.getContended());
+        assertEquals(2, stats.getHoldTime().getCount());
+        assertTrue(stats.getWaitTime().getMax() > 0);
+
+        final List<ResourceStatistics> resources = LockStatistics.getContendedResources(10);
+        assertEquals(1, resources.size());
+        assertEquals(LockType.COLLECTION, resources.get(0).getType());
+        assertEquals("/db/contended", resources.get(0).getId());
+        assertEquals(1, resources.get(0).getContended());
+    }
+
+    @Test
+    public void contendedDocument() throws Exception {
+        final Lock lock = new MultiReadReentrantLock(XmldbURI.create("/db/test.xml"));
+        contend(lock);
+
+        final TypeStatistics stats = LockStatistics.getStatistics(LockType.DOCUMENT);
+        assertEquals(2, stats.getAcquisitions());
+        assertEquals(1, stats.getContended());
+        assertEquals(2, stats.getHoldTime().getCount());
+
+        final List<ResourceStatistics> resources = LockStatistics.getContendedResources(10);
+        assertEquals(1, resources.size());
+        assertEquals("/db/test.xml", resources.get(0).getId());
+    }
+
+    @Test
+    public void evictLeastRecentlyContended() {
+        // a resource with short waits which keeps being contended
+        LockStatistics.acquired(LockType.FILE, "hot", 1);
+        int hot = 1;
+        for (int i = 0; i < LockStatistics.MAX_RESOURCES * 2; i++) {
+            LockStatistics.acquired(LockType.FILE, "cold-" + i, 1000);
+            if (i % 100 == 0) {
+                LockStatistics.acquired(LockType.FILE, "hot", 1);
+                hot++;
+            }
+        }
+
+        final List<ResourceStatistics> resources = LockStatistics.getContendedResources(LockStatistics.MAX_RESOURCES * 2);
+        assertTrue(resources.size() <= LockStatistics.MAX_RESOURCES);
+        final ResourceStatistics hotResource = resources.stream().filter(r -> r.getId().equals("hot")).findFirst().get();
+        assertEquals(hot, hotResource.getContended());
+        // the newest resources are kept
+        assertTrue(resources.stream().anyMatch(r -> r.getId().equals("cold-" + (LockStatistics.MAX_RESOURCES * 2 - 1))));
+        assertFalse(resources.stream().anyMatch(r -> r.getId().equals("cold-0")));
+    }
+
+    @Test
+    public void histogram() {
+        final LockStatistics.Histogram histogram = new LockStatistics.Histogram();
+        histogram.record(500);
+        histogram.record(1500);
+        histogram.record(3000);
+        histogram.record(Long.MAX_VALUE);
+        final long[] counts = histogram.getCounts();
+        assertEquals(1, counts[0]);
+        assertEquals(1, counts[1]);
+        assertEquals(1, counts[2]);
+        assertEquals(1, counts[LockStatistics.HISTOGRAM_BUCKETS - 1]);
+        assertEquals(Long.MAX_VALUE, histogram.getMax());
+    }
+
+    /**
+     * Holds a write lock on the given lock while another thread waits for it.
+     */
+    private static void contend(final Lock lock) throws Exception {
+        lock.acquire(LockMode.WRITE_LOCK);
+        final CountDownLatch started = new CountDownLatch(1);
+        final Thread other = new Thread(() -> {
+            started.countDown();
+            try {
+                lock.acquire(LockMode.WRITE_LOCK);
+                lock.release(LockMode.WRITE_LOCK);
+            } catch (final LockException e) {
+                fail(e.getMessage());
+            }
+        });
+        other.start();
+        started.await();
+        Thread.sleep(100);
+        lock.release(LockMode.WRITE_LOCK);
+        other.join();
+    }
+}
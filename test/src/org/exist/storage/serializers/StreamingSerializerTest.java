@@ -0,0 +1,161 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2015 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.storage.serializers;
+
+import org.exist.collections.Collection;
+import org.exist.collections.IndexInfo;
+import org.exist.dom.persistent.DocumentImpl;
+import org.exist.storage.BrokerPool;
+import org.exist.storage.DBBroker;
+import org.exist.storage.txn.TransactionManager;
+import org.exist.storage.txn.Txn;
+import org.exist.test.ExistEmbeddedServer;
+import org.exist.xmldb.XmldbURI;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+import javax.xml.transform.OutputKeys;
+import java.io.ByteArrayOutputStream;
+import java.io.StringWriter;
+import java.util.Optional;
+import java.util.Properties;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.*;
+
+public class StreamingSerializerTest {
+
+    private static final XmldbURI TEST_COLLECTION = XmldbURI.ROOT_COLLECTION_URI.append("streaming");
+
+    private static final String[] DOCUMENTS = {
+        "<a><b>one</b><c/><d x='1' y='&lt;&amp;&quot;&#9;'>two &amp; three &lt; four &gt;</d></a>",
+
+        "<?xml-stylesheet href='test.xsl' type='text/xsl'?>\n" +
+        "<!-- leading comment -->\n" +
+        "<root xmlns='http://example.com/default' xmlns:p='http://example.com/p'>" +
+            "<p:child p:attr='v' plain='w'>text<p:grandchild/></p:child>" +
+            "<child xmlns=''><nested xmlns:q='http://example.com/q'><q:inner/></nested></child>" +
+            "<?pi some data?><?empty?><!--comment--><![CDATA[<raw & data>]]>" +
+        "</root>",
+
+        "<doc xml:space='preserve'>\n  <keep>  </keep>\n  <mixed>a<b>b</b>c</mixed>" +
+            "<nospace xml:space='default'><x><y/></x></nospace></doc>",
+
+        "<text>nbsp umlaut äö euro € clef 𝄞 line\nbreak\r\ttab</text>",
+
+        "<deep><l1><l2><l3><l4>leaf</l4></l3><l3 a='b'/></l2></l1><empty></empty></deep>",
+
+        "<x:root xmlns:x='http://example.com/x' xmlns:y='http://example.com/y'>" +
+            "<y:a x:att='1'><x:b y:att='2'/></y:a><c/></x:root>"
+    };
+
+    @ClassRule
+    public static final ExistEmbeddedServer existEmbeddedServer = new ExistEmbeddedServer(true);
+
+    @Before
+    public void setUp() throws Exception {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        final TransactionManager transact = pool.getTransactionManager();
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()));
+                final Txn transaction = transact.beginTransaction()) {
+            final Collection collection = broker.getOrCreateCollection(transaction, TEST_COLLECTION);
+            broker.saveCollection(transaction, collection);
+            for (int i = 0; i < DOCUMENTS.length; i++) {
+                store(broker, transaction, collection, "test" + i + ".xml", DOCUMENTS[i]);
+            }
+            store(broker, transaction, collection, "xinclude.xml",
+                "<doc xmlns:xi='http://www.w3.org/2001/XInclude'><xi:include href='test0.xml'/></doc>");
+            transact.commit(transaction);
+        }
+    }
+
+    @Test
+    public void sameOutputAsSAXSerializer() throws Exception {
+        for (int i = 0; i < DOCUMENTS.length; i++) {
+            for (final String indent : new String[] { "no", "yes" }) {
+                for (final String omitDeclaration : new String[] { "no", "yes" }) {
+                    final Properties properties = new Properties();
+                    properties.setProperty(OutputKeys.INDENT, indent);
+                    properties.setProperty(OutputKeys.OMIT_XML_DECLARATION, omitDeclaration);
+                    properties.setProperty(EXistOutputKeys.INDENT_SPACES, "2");
+                    assertSameOutput("test" + i + ".xml", properties);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void fallbackToSAX() throws Exception {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
+            final Serializer serializer = broker.getSerializer();
+            final ByteArrayOutputStream os = new ByteArrayOutputStream();
+
+            serializer.reset();
+            assertTrue(serializer.streamDocument(getDocument(broker, "test0.xml"), os));
+
+            serializer.reset();
+            assertFalse(serializer.streamDocument(getDocument(broker, "xinclude.xml"), os));
+            serializer.setProperty(EXistOutputKeys.EXPAND_XINCLUDES, "no");
+            assertTrue(serializer.streamDocument(getDocument(broker, "xinclude.xml"), os));
+
+            serializer.reset();
+            serializer.setProperty(OutputKeys.ENCODING, "ISO-8859-1");
+            assertFalse(serializer.streamDocument(getDocument(broker, "test0.xml"), os));
+
+            serializer.reset();
+            serializer.setProperty(OutputKeys.METHOD, "html");
+            assertFalse(serializer.streamDocument(getDocument(broker, "test0.xml"), os));
+            serializer.reset();
+        }
+    }
+
+    private void assertSameOutput(final String docName, final Properties properties) throws Exception {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
+            final DocumentImpl doc = getDocument(broker, docName);
+            final Serializer serializer = broker.getSerializer();
+
+            serializer.reset();
+            serializer.setProperties(properties);
+            final StringWriter expected = new StringWriter();
+            serializer.serialize(doc, expected);
+
+            serializer.reset();
+            serializer.setProperties(properties);
+            final ByteArrayOutputStream actual = new ByteArrayOutputStream();
+            assertTrue(serializer.streamDocument(doc, actual));
+            serializer.reset();
+
+            assertEquals(docName + " " + properties, expected.toString(), new String(actual.toByteArray(), UTF_8));
+        }
+    }
+
+    private static DocumentImpl getDocument(final DBBroker broker, final String name) throws Exception {
+        return broker.getCollection(TEST_COLLECTION).getDocument(broker, XmldbURI.create(name));
+    }
+
+    private static void store(final DBBroker broker, final Txn transaction, final Collection collection,
+            final String name, final String xml) throws Exception {
+        final IndexInfo info = collection.validateXMLResource(transaction, broker, XmldbURI.create(name), xml);
+        collection.store(transaction, broker, info, xml);
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2015 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.storage.statistics;
+
+import org.exist.EXistException;
+import org.exist.collections.Collection;
+import org.exist.collections.IndexInfo;
+import org.exist.dom.QName;
+import org.exist.indexing.IndexManager;
+import org.exist.dom.persistent.DefaultDocumentSet;
+import org.exist.dom.persistent.DocumentImpl;
+import org.exist.dom.persistent.DocumentSet;
+import org.exist.dom.persistent.NewArrayNodeSet;
+import org.exist.dom.persistent.NodeProxy;
+import org.exist.dom.persistent.NodeSet;
+import org.exist.security.PermissionDeniedException;
+import org.exist.storage.BrokerPool;
+import org.exist.storage.DBBroker;
+import org.exist.storage.NodePath;
+import org.exist.storage.txn.TransactionManager;
+import org.exist.storage.txn.Txn;
+import org.exist.test.ExistEmbeddedServer;
+import org.exist.util.Configuration;
+import org.exist.util.LockException;
+import org.exist.xmldb.XmldbURI;
+import org.exist.xquery.XPathException;
+import org.exist.xquery.XQuery;
+import org.exist.xquery.value.Sequence;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+import java.util.Iterator;
+import java.util.Optional;
+
+import static org.exist.util.PropertiesBuilder.propertiesBuilder;
+import static org.junit.Assert.*;
+
+public class PathIndexTest {
+
+    private static final String XML1 =
+        "<TEI><text><body>" +
+        "   <div><head>One</head><p>a</p><div><head>Nested</head></div></div>" +
+        "   <div><head>Two</head><p>b</p></div>" +
+        "</body></text></TEI>";
+
+    private static final String XML2 =
+        "<TEI><text><body>" +
+        "   <div><head>Three</head></div>" +
+        "</body><back><div><head>Appendix</head></div></back></text></TEI>";
+
+    private static final String NO_OPTIMIZE = "declare option exist:optimize 'enable=no';";
+
+    @ClassRule
+    public static final ExistEmbeddedServer existEmbeddedServer = new ExistEmbeddedServer(null, null, propertiesBuilder()
+            .put(IndexManager.PROPERTY_INDEXER_MODULES, new Configuration.IndexModuleConfig[] {
+                new Configuration.IndexModuleConfig("path-index", PathIndex.class.getName(), null)
+            }).build(), true);
+
+    @BeforeClass
+    public static void setUp() throws Exception {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        final TransactionManager transact = pool.getTransactionManager();
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()));
+                final Txn transaction = transact.beginTransaction()) {
+            final Collection root = broker.getOrCreateCollection(transaction, XmldbURI.create(XmldbURI.ROOT_COLLECTION + "/test"));
+            broker.saveCollection(transaction, root);
+            store(broker, transaction, root, "test1.xml", XML1);
+            store(broker, transaction, root, "test2.xml", XML2);
+            transact.commit(transaction);
+        }
+    }
+
+    private static void store(DBBroker broker, Txn transaction, Collection collection, String name, String xml) throws Exception {
+        final IndexInfo info = collection.validateXMLResource(transaction, broker, XmldbURI.create(name), xml);
+        collection.store(transaction, broker, info, xml);
+    }
+
+    @Test
+    public void findElementsByPath() throws EXistException, PermissionDeniedException, LockException {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
+            final PathIndexWorker worker = (PathIndexWorker) broker.getIndexController().getWorkerByIndexId(PathIndex.ID);
+            assertNotNull(worker);
+
+            final NodeSet docs = documentNodes(broker);
+            assertEquals(3, worker.findElementsByPath(path("TEI", "text", "body", "div"), docs, null).getLength());
+            assertEquals(3, worker.findElementsByPath(path("TEI", "text", "body", "div", "head"), docs, null).getLength());
+            assertEquals(1, worker.findElementsByPath(path("TEI", "text", "body", "div", "div"), docs, null).getLength());
+            assertEquals(0, worker.findElementsByPath(path("TEI", "text", "div"), docs, null).getLength());
+        }
+    }
+
+    @Test
+    public void pathSummary() {
+        final PathIndex index = (PathIndex) existEmbeddedServer.getBrokerPool().getIndexManager().getIndexById(PathIndex.ID);
+        assertTrue(index.hasPath(path("TEI", "text", "back", "div", "head")));
+        assertFalse(index.hasPath(path("TEI", "text", "appendix")));
+        assertFalse(index.hasPath(path("text", "body")));
+    }
+
+    @Test
+    public void queryChildPath() throws EXistException, PermissionDeniedException, XPathException {
+        assertQuery(3, "collection('/db/test')/TEI/text/body/div/head");
+        assertQuery(1, "collection('/db/test')/TEI/text/back/div/head");
+        assertQuery(0, "collection('/db/test')/TEI/text/front/div");
+        assertQuery(1, "collection('/db/test')/TEI/text/body/div/div/head[. = 'Nested']");
+        assertQuery(2, "collection('/db/test')/TEI/text/body/div[p]/head");
+        assertQuery(5, "for $doc in collection('/db/test') return $doc/TEI/text//div/head/string()");
+        assertQuery(2, "doc('/db/test/test1.xml')/TEI/text/body/div/head");
+        // context is not a document node
+        assertQuery(3, "collection('/db/test')/TEI/text/body/div/head/text()");
+        assertQuery(1, "collection('/db/test')//div[head = 'Nested']/head");
+        // in-memory nodes
+        assertQuery(1, "let $a := <a><b><c/></b></a> return $a/b/c");
+    }
+
+    @Test
+    public void update() throws EXistException, PermissionDeniedException, XPathException {
+        assertQuery(2, "doc('/db/test/test2.xml')/TEI/text/*/div/head");
+        execute("update insert <div><head>Four</head></div> into doc('/db/test/test2.xml')/TEI/text/body");
+        assertQuery(3, "doc('/db/test/test2.xml')/TEI/text/*/div/head");
+        assertQuery(2, "doc('/db/test/test2.xml')/TEI/text/body/div/head");
+        execute("update delete doc('/db/test/test2.xml')/TEI/text/body/div[head = 'Four']");
+        assertQuery(1, "doc('/db/test/test2.xml')/TEI/text/body/div/head");
+        execute("update rename doc('/db/test/test2.xml')/TEI/text/back as 'front'");
+        assertQuery(0, "doc('/db/test/test2.xml')/TEI/text/back/div/head");
+        assertQuery(1, "doc('/db/test/test2.xml')/TEI/text/front/div/head");
+        execute("update rename doc('/db/test/test2.xml')/TEI/text/front as 'back'");
+        assertQuery(1, "doc('/db/test/test2.xml')/TEI/text/back/div/head");
+    }
+
+    private static void assertQuery(int expected, String query) throws EXistException, PermissionDeniedException, XPathException {
+        assertEquals(query, expected, execute(query).getItemCount());
+        assertEquals(query, expected, execute(NO_OPTIMIZE + query).getItemCount());
+    }
+
+    private static Sequence execute(String query) throws EXistException, PermissionDeniedException, XPathException {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
+            final XQuery xquery = pool.getXQueryService();
+            return xquery.execute(broker, query, null);
+        }
+    }
+
+    private static NodeSet documentNodes(DBBroker broker) throws PermissionDeniedException, LockException {
+        final Collection collection = broker.getCollection(XmldbURI.create("/db/test"));
+        final DocumentSet docs = collection.allDocs(broker, new DefaultDocumentSet(), false);
+        final NewArrayNodeSet nodes = new NewArrayNodeSet();
+        for (final Iterator<DocumentImpl> i = docs.getDocumentIterator(); i.hasNext(); ) {
+            nodes.add(new NodeProxy(i.next()));
+        }
+        return nodes;
+    }
+
+    private static NodePath path(String... names) {
+        final NodePath path = new NodePath();
+        for (final String name : names) {
+            path.addComponent(new QName(name, ""));
+        }
+        return path;
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2015 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.util.serializer;
+
+import org.exist.dom.QName;
+import org.exist.util.XMLString;
+import org.junit.Test;
+
+import javax.xml.transform.OutputKeys;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Properties;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class EncodingWriterTest {
+
+    private static final String[] ENCODINGS = { "UTF-8", "ISO-8859-1", "US-ASCII" };
+
+    @Test
+    public void sameBytesAsOutputStreamWriter() throws IOException {
+        final Random random = new Random(42);
+        for (final String encoding : ENCODINGS) {
+            for (int n = 0; n < 50; n++) {
+                final char[] chars = randomChars(random, random.nextInt(20000));
+                final ByteArrayOutputStream expected = new ByteArrayOutputStream();
+                final ByteArrayOutputStream actual = new ByteArrayOutputStream();
+                try (final Writer writer = new OutputStreamWriter(expected, encoding)) {
+                    write(writer, chars, new Random(n));
+                }
+                final EncodingWriter writer = new EncodingWriter();
+                writer.setOutput(actual, encoding);
+                write(writer, chars, new Random(n));
+                writer.close();
+                assertArrayEquals(encoding, expected.toByteArray(), actual.toByteArray());
+            }
+        }
+    }
+
+    @Test
+    public void supportedEncodings() {
+        assertTrue(EncodingWriter.isSupported("utf-8"));
+        assertTrue(EncodingWriter.isSupported("UTF8"));
+        assertTrue(EncodingWriter.isSupported("ISO-8859-1"));
+        assertFalse(EncodingWriter.isSupported("UTF-16"));
+        assertFalse(EncodingWriter.isSupported("no-such-encoding"));
+        assertFalse(EncodingWriter.isSupported(null));
+    }
+
+    @Test
+    public void sameOutputAsXMLWriter() throws Exception {
+        for (final String encoding : ENCODINGS) {
+            final Properties properties = new Properties();
+            properties.setProperty(OutputKeys.ENCODING, encoding);
+            properties.setProperty(OutputKeys.OMIT_XML_DECLARATION, "no");
+
+            final ByteArrayOutputStream expected = new ByteArrayOutputStream();
+            try (final Writer writer = new OutputStreamWriter(expected, encoding)) {
+                writeDocument(new XMLWriter(writer), properties);
+            }
+
+            final ByteArrayOutputStream actual = new ByteArrayOutputStream();
+            final Writer writer = SerializerPool.getInstance().borrowWriter(actual, encoding);
+            assertTrue(writer instanceof EncodingWriter);
+            try {
+                // write twice to use the cached names
+                writeDocument(new XMLWriter(writer), properties);
+                writer.flush();
+                actual.reset();
+                writeDocument(new XMLWriter(writer), properties);
+                writer.flush();
+            } finally {
+                SerializerPool.getInstance().returnWriter(writer);
+            }
+            assertEquals(encoding, new String(expected.toByteArray(), encoding), new String(actual.toByteArray(), encoding));
+        }
+    }
+
+    private static void writeDocument(final XMLWriter xmlWriter, final Properties properties) throws Exception {
+        xmlWriter.setOutputProperties(properties);
+        xmlWriter.startDocument();
+        final QName root = new QName("root", "http://example.com/ns");
+        xmlWriter.startElement(root);
+        xmlWriter.namespace("", "http://example.com/ns");
+        xmlWriter.namespace("p", "http://example.com/p");
+        xmlWriter.namespace("q", "http://example.com/q?a=1&b=\"2\"");
+        xmlWriter.attribute(new QName("att", "http://example.com/p", "p"), "a < b & \"c\"\n\té");
+        xmlWriter.characters("text with <markup> & entities, nbsp , umlaut ä, euro €, clef 𝄞");
+        final QName child = new QName("child", "http://example.com/p", "p");
+        xmlWriter.startElement(child);
+        xmlWriter.attribute(new QName("plain", ""), "value");
+        xmlWriter.endElement(child);
+        // same name with another prefix
+        final QName other = new QName("child", "http://example.com/p", "other");
+        xmlWriter.startElement(other);
+        xmlWriter.namespace("other", "http://example.com/p");
+        final XMLString s = new XMLString("xml string > text".toCharArray());
+        xmlWriter.characters(s);
+        xmlWriter.endElement(other);
+        xmlWriter.comment("comment ä");
+        xmlWriter.processingInstruction("pi", "data");
+        final char[] cdata = "<cdata>".toCharArray();
+        xmlWriter.cdataSection(cdata, 0, cdata.length);
+        xmlWriter.endElement(root);
+        xmlWriter.endDocument();
+    }
+
+    private static char[] randomChars(final Random random, final int length) {
+        final char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            switch (random.nextInt(6)) {
+                case 0:
+                    chars[i] = (char) (0x80 + random.nextInt(0x780));
+                    break;
+                case 1:
+                    chars[i] = (char) (0x800 + random.nextInt(0xD000));
+                    break;
+                case 2:
+                    // surrogates, paired or not
+                    chars[i] = (char) (0xD800 + random.nextInt(0x800));
+                    if (random.nextBoolean() && Character.isHighSurrogate(chars[i]) && i + 1 < length) {
+                        chars[++i] = (char) (0xDC00 + random.nextInt(0x400));
+                    }
+                    break;
+                default:
+                    chars[i] = (char) random.nextInt(0x80);
+            }
+        }
+        return chars;
+    }
+
+    /**
+     * Writes the characters in chunks of random size, using the different write methods.
+     */
+    private static void write(final Writer writer, final char[] chars, final Random random) throws IOException {
+        int pos = 0;
+        while (pos < chars.length) {
+            final int len = Math.min(chars.length - pos, random.nextInt(100));
+            switch (random.nextInt(3)) {
+                case 0:
+                    writer.write(chars, pos, len);
+                    break;
+                case 1:
+                    writer.write(new String(chars, pos, len));
+                    break;
+                default:
+                    for (int i = pos; i < pos + len; i++) {
+                        writer.write(chars[i]);
+                    }
+            }
+            pos += len;
+        }
+    }
+}
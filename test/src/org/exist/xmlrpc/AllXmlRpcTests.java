@@ -6,7 +6,8 @@ import org.junit.runners.Suite;
 @RunWith(Suite.class)
 @Suite.SuiteClasses({
     XmlRpcTest.class,
-    QuerySessionTest.class
+    QuerySessionTest.class,
+    QueryResultCacheTest.class
 })
 public class AllXmlRpcTests {
 }
@@ -0,0 +1,182 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2015 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.xmlrpc;
+
+import org.exist.xquery.value.IntegerValue;
+import org.exist.xquery.value.StringValue;
+import org.exist.xquery.value.ValueSequence;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.*;
+
+public class QueryResultCacheTest {
+
+    @Test
+    public void addGetRemove() {
+        final QueryResultCache cache = new QueryResultCache();
+        final SizedResult first = new SizedResult(100);
+        final SizedResult second = new SizedResult(200);
+        final int id1 = cache.add(first);
+        final int id2 = cache.add(second);
+        assertNotEquals(id1, id2);
+        assertSame(first, cache.get(id1));
+        assertSame(second, cache.get(id2));
+        assertNull(cache.getResult(id1));
+        assertEquals(300, cache.getSize());
+
+        // wrong hash code
+        cache.remove(id1, first.hashCode() + 1);
+        assertSame(first, cache.get(id1));
+
+        cache.remove(id1, first.hashCode());
+        assertNull(cache.get(id1));
+        assertTrue(first.freed);
+        assertEquals(200, cache.getSize());
+
+        cache.remove(id2);
+        assertNull(cache.get(id2));
+        assertEquals(0, cache.getSize());
+        assertEquals(0, cache.getCount());
+    }
+
+    @Test
+    public void evictLeastRecentlyUsed() {
+        final QueryResultCache cache = new QueryResultCache(1000);
+        final SizedResult[] results = new SizedResult[4];
+        final int[] ids = new int[results.length];
+        for (int i = 0; i < results.length; i++) {
+            results[i] = new SizedResult(300);
+            results[i].timestamp = i;
+            ids[i] = cache.add(results[i]);
+        }
+        // the oldest result had to go
+        assertNull(cache.get(ids[0]));
+        assertEquals(900, cache.getSize());
+
+        // use the second result, so the third becomes the oldest
+        results[1].timestamp = 10;
+        final int big = cache.add(new SizedResult(400));
+        assertNull(cache.get(ids[2]));
+        assertSame(results[1], cache.get(ids[1]));
+        assertSame(results[3], cache.get(ids[3]));
+        assertNotNull(cache.get(big));
+        assertEquals(1000, cache.getSize());
+
+        // a single result exceeding the limit is kept
+        final int huge = cache.add(new SizedResult(5000));
+        assertNotNull(cache.get(huge));
+        assertEquals(1, cache.getCount());
+        assertEquals(5000, cache.getSize());
+    }
+
+    @Test
+    public void concurrentAccess() throws Exception {
+        final QueryResultCache cache = new QueryResultCache();
+        final Set<Integer> ids = ConcurrentHashMap.newKeySet();
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            final List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < 1000; i++) {
+                        final SizedResult result = new SizedResult(10);
+                        final int id = cache.add(result);
+                        assertSame(result, cache.get(id));
+                        if (i % 2 == 0) {
+                            cache.remove(id);
+                        } else {
+                            assertTrue(ids.add(id));
+                        }
+                    }
+                    return null;
+                }));
+            }
+            for (final Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(4000, cache.getCount());
+        assertEquals(40000, cache.getSize());
+    }
+
+    @Test
+    public void cursor() throws Exception {
+        final ValueSequence sequence = new ValueSequence();
+        for (int i = 0; i < 10; i++) {
+            sequence.add(new IntegerValue(i));
+        }
+        final QueryResult result = new QueryResult(sequence, new Properties());
+        assertArrayEquals(new int[] { 0, 4 }, result.advanceCursor(4));
+        assertArrayEquals(new int[] { 4, 8 }, result.advanceCursor(4));
+        assertArrayEquals(new int[] { 8, 10 }, result.advanceCursor(4));
+        assertArrayEquals(new int[] { 10, 10 }, result.advanceCursor(4));
+        result.setCursor(3);
+        assertArrayEquals(new int[] { 3, 4 }, result.advanceCursor(1));
+    }
+
+    @Test
+    public void estimatedSize() throws Exception {
+        final ValueSequence small = new ValueSequence();
+        final ValueSequence large = new ValueSequence();
+        for (int i = 0; i < 1000; i++) {
+            small.add(new StringValue("x"));
+            large.add(new StringValue(new String(new char[1000])));
+        }
+        final long smallSize = new QueryResult(small, new Properties()).getEstimatedSize();
+        final long largeSize = new QueryResult(large, new Properties()).getEstimatedSize();
+        assertTrue(largeSize >= 2 * 1000 * 1000);
+        assertTrue(smallSize < largeSize / 10);
+    }
+
+    private static class SizedResult extends AbstractCachedResult {
+        private final long size;
+        private boolean freed = false;
+
+        private SizedResult(final long size) {
+            this.size = size;
+        }
+
+        @Override
+        public long getEstimatedSize() {
+            return size;
+        }
+
+        @Override
+        public void free() {
+            freed = true;
+        }
+
+        @Override
+        public Object getResult() {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2015 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.xquery;
+
+import org.exist.dom.persistent.DocumentSet;
+import org.exist.storage.BrokerPool;
+import org.exist.storage.DBBroker;
+import org.exist.test.ExistEmbeddedServer;
+import org.exist.xmldb.XmldbURI;
+import org.exist.xquery.value.Sequence;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+import java.util.Optional;
+import java.util.Properties;
+
+import static org.junit.Assert.*;
+
+public class DocumentSetCacheTest {
+
+    private static final XmldbURI TEST_COLLECTION = XmldbURI.ROOT_COLLECTION_URI.append("document-set-cache-test");
+
+    private static final Properties CONFIG = new Properties();
+    static {
+        CONFIG.put(DocumentSetCache.PROPERTY_CACHE_SIZE, 16);
+    }
+
+    @ClassRule
+    public static final ExistEmbeddedServer existEmbeddedServer = new ExistEmbeddedServer(null, null, CONFIG, true);
+
+    @BeforeClass
+    public static void createCollection() throws Exception {
+        execute("xmldb:create-collection('" + XmldbURI.ROOT_COLLECTION + "', '" + TEST_COLLECTION.lastSegment() + "')");
+    }
+
+    @Test
+    public void collectionInvalidatedByChanges() throws Exception {
+        final XmldbURI root = TEST_COLLECTION.append("collection");
+        store(root, "a.xml", "<a/>");
+
+        final DocumentSetCache cache = existEmbeddedServer.getBrokerPool().getDocumentSetCache();
+        final String query = "count(collection('" + root + "'))";
+        assertEquals("1", execute(query));
+        assertTrue(cache.getSize() > 0);
+        assertEquals("1", execute(query));
+
+        // repeated calls within a query see the same documents
+        assertEquals("1 1 1", execute("string-join(for $i in 1 to 3 return string(count(collection('" + root + "'))), ' ')"));
+
+        store(root, "b.xml", "<b/>");
+        assertEquals("2", execute(query));
+
+        store(root.append("sub"), "c.xml", "<c/>");
+        assertEquals("3", execute(query));
+
+        // changes within the query are visible to later calls
+        assertEquals("3 4", execute("let $before := count(collection('" + root + "')) " +
+                "let $stored := xmldb:store('" + root + "', 'd.xml', <d/>) " +
+                "return string-join((string($before), string(count(collection('" + root + "')))), ' ')"));
+
+        execute("xmldb:remove('" + root.append("sub") + "')");
+        assertEquals("3", execute(query));
+    }
+
+    @Test
+    public void docInvalidatedByChanges() throws Exception {
+        final XmldbURI root = TEST_COLLECTION.append("doc");
+        store(root, "a.xml", "<a>first</a>");
+
+        final String query = "string(doc('" + root.append("a.xml") + "'))";
+        assertEquals("first", execute(query));
+        assertEquals("first", execute(query));
+
+        store(root, "a.xml", "<a>second</a>");
+        assertEquals("second", execute(query));
+
+        execute("xmldb:rename('" + root + "', 'a.xml', 'b.xml')");
+        assertEquals("", execute(query));
+        assertEquals("second", execute("string(doc('" + root.append("b.xml") + "'))"));
+    }
+
+    @Test
+    public void contextCacheKeptOnUnrelatedChanges() throws Exception {
+        final XmldbURI root = TEST_COLLECTION.append("context");
+        store(root, "a.xml", "<a/>");
+
+        // not shared between queries, so only the cache of the context is used
+        final DocumentSetCache cache = new DocumentSetCache();
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
+            final XQueryContext context = new XQueryContext(pool);
+            final DocumentSet docs = cache.getDocuments(context, root, true);
+            assertEquals(1, docs.getDocumentCount());
+            assertSame(docs, cache.getDocuments(context, root, true));
+
+            cache.invalidate(TEST_COLLECTION.append("other").getRawCollectionPath());
+            assertSame(docs, cache.getDocuments(context, root, true));
+
+            // sub-collections of a recursive lookup
+            cache.invalidate(root.append("sub").getRawCollectionPath());
+            final DocumentSet changed = cache.getDocuments(context, root, true);
+            assertNotSame(docs, changed);
+
+            // ancestors
+            cache.invalidate(TEST_COLLECTION.getRawCollectionPath());
+            assertNotSame(changed, cache.getDocuments(context, root, true));
+        }
+    }
+
+    private static String execute(final String query) throws Exception {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
+            final Sequence result = pool.getXQueryService().execute(broker, query, null);
+            return result.getStringValue();
+        }
+    }
+
+    private static void store(final XmldbURI collectionUri, final String name, final String xml) throws Exception {
+        execute("xmldb:store(xmldb:create-collection('" + collectionUri.removeLastSegment() + "', '" +
+                collectionUri.lastSegment() + "'), '" + name + "', " + xml + ")");
+    }
+}
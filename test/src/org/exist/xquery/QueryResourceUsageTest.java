@@ -0,0 +1,144 @@
+/*
+ * eXist Open Source Native XML Database
+ * Copyright (C) 2001-2016 The eXist Project
+ * http://exist-db.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.exist.xquery;
+
+import org.exist.collections.Collection;
+import org.exist.collections.IndexInfo;
+import org.exist.storage.BrokerPool;
+import org.exist.storage.DBBroker;
+import org.exist.storage.txn.TransactionManager;
+import org.exist.storage.txn.Txn;
+import org.exist.test.ExistEmbeddedServer;
+import org.exist.xmldb.XmldbURI;
+import org.exist.xquery.value.Sequence;
+import org.junit.After;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+import java.util.Optional;
+
+import static org.junit.Assert.*;
+
+public class QueryResourceUsageTest {
+
+    private static final XmldbURI TEST_COLLECTION = XmldbURI.ROOT_COLLECTION_URI.append("resource-usage-test");
+
+    @ClassRule
+    public static final ExistEmbeddedServer existEmbeddedServer = new ExistEmbeddedServer(true);
+
+    @BeforeClass
+    public static void storeDocument() throws Exception {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        final TransactionManager transact = pool.getTransactionManager();
+        final String xml = "<a><b>one</b><b>two</b><c><b>three</b></c></a>";
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()));
+                final Txn transaction = transact.beginTransaction()) {
+            final Collection collection = broker.getOrCreateCollection(transaction, TEST_COLLECTION);
+            broker.saveCollection(transaction, collection);
+            final IndexInfo info = collection.validateXMLResource(transaction, broker, XmldbURI.create("test.xml"), xml);
+            collection.store(transaction, broker, info, xml);
+            transact.commit(transaction);
+        }
+    }
+
+    @After
+    public void unbind() {
+        QueryResourceUsage.bind(null);
+    }
+
+    @Test
+    public void recordsToBoundUsage() {
+        final QueryResourceUsage usage = new QueryResourceUsage();
+        QueryResourceUsage.pageRead("dom.dbx");
+        assertNull(QueryResourceUsage.bind(usage));
+
+        QueryResourceUsage.pageRead("dom.dbx");
+        QueryResourceUsage.pageRead("dom.dbx");
+        QueryResourceUsage.cacheHit("dom.dbx");
+        QueryResourceUsage.cacheHit("values.dbx");
+        QueryResourceUsage.indexLookup("range", 3);
+        QueryResourceUsage.indexLookup("range", 2);
+        QueryResourceUsage.nodeMaterialized();
+        QueryResourceUsage.serialized(100);
+
+        assertEquals(2, usage.getTotalPagesRead());
+        assertEquals(2, usage.getTotalCacheHits());
+        assertEquals(Long.valueOf(2), usage.getPagesRead().get("dom.dbx"));
+        assertEquals(Long.valueOf(0), usage.getPagesRead().get("values.dbx"));
+        assertEquals(Long.valueOf(1), usage.getCacheHits().get("values.dbx"));
+        assertEquals(Long.valueOf(2), usage.getIndexLookups().get("range"));
+        assertEquals(Long.valueOf(5), usage.getIndexHits().get("range"));
+        assertEquals(1, usage.getNodesMaterialized());
+        assertEquals(100, usage.getSerialized());
+    }
+
+    @Test
+    public void restoresPreviousUsage() {
+        final QueryResourceUsage outer = new QueryResourceUsage();
+        final QueryResourceUsage inner = new QueryResourceUsage();
+        QueryResourceUsage.bind(outer);
+
+        final QueryResourceUsage previous = QueryResourceUsage.bind(inner);
+        assertSame(outer, previous);
+        QueryResourceUsage.nodeMaterialized();
+        QueryResourceUsage.bind(previous);
+        QueryResourceUsage.nodeMaterialized();
+        QueryResourceUsage.nodeMaterialized();
+
+        assertEquals(1, inner.getNodesMaterialized());
+        assertEquals(2, outer.getNodesMaterialized());
+
+        QueryResourceUsage.bind(null);
+        assertNull(QueryResourceUsage.current());
+        QueryResourceUsage.nodeMaterialized();
+        assertEquals(2, outer.getNodesMaterialized());
+    }
+
+    @Test
+    public void recordsQueryExecution() throws Exception {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        final XQuery xquery = pool.getXQueryService();
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
+            final XQueryContext context = new XQueryContext(pool);
+            final CompiledXQuery compiled = xquery.compile(broker, context,
+                    "collection('" + TEST_COLLECTION + "')//b/string()");
+            final Sequence result = xquery.execute(broker, compiled, null);
+            assertEquals(3, result.getItemCount());
+
+            final QueryResourceUsage usage = context.getWatchDog().getResourceUsage();
+            assertTrue(usage.getIndexLookups().get("structural") > 0);
+            assertEquals(Long.valueOf(3), usage.getIndexHits().get("structural"));
+            assertTrue(usage.getTotalPagesRead() + usage.getTotalCacheHits() > 0);
+            assertNull(QueryResourceUsage.current());
+        }
+    }
+
+    @Test
+    public void reportedByRunningQueries() throws Exception {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
+            final Sequence result = pool.getXQueryService().execute(broker,
+                    "declare namespace system='http://exist-db.org/xquery/system';" +
+                    "count(system:get-running-xqueries()//system:resources[@pagesRead])", null);
+            assertEquals("1", result.getStringValue());
+        }
+    }
+}
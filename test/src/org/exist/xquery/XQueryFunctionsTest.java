@@ -211,6 +211,21 @@ public class XQueryFunctionsTest {
         result = existEmbeddedServer.executeQuery("declare variable $c { sum((), 3) }; $c");
         r = (String) result.getResource(0).getContent();
         assertEquals("3", r);
+
+        result = existEmbeddedServer.executeQuery("sum(1 to 100000)");
+        r = (String) result.getResource(0).getContent();
+        assertEquals("5000050000", r);
+
+        result = existEmbeddedServer.executeQuery("let $s := for $i in 1 to 1000 return $i * 2 return (sum($s), max($s), avg($s), $s = 2000, $s > 2000)");
+        assertEquals("1001000", result.getResource(0).getContent());
+        assertEquals("2000", result.getResource(1).getContent());
+        assertEquals("1001", result.getResource(2).getContent());
+        assertEquals("true", result.getResource(3).getContent());
+        assertEquals("false", result.getResource(4).getContent());
+
+        result = existEmbeddedServer.executeQuery("sum(for $i in 1 to 4 return $i div 2e0)");
+        r = (String) result.getResource(0).getContent();
+        assertEquals("5", r);
     }
 
     @Test
@@ -0,0 +1,189 @@
+package org.exist.xquery.modules.sql;
+
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.mock;
+import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.verify;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.exist.dom.QName;
+import org.exist.xquery.XPathException;
+import org.exist.xquery.XQueryContext;
+import org.exist.xquery.value.*;
+import org.junit.Test;
+import org.w3c.dom.Element;
+
+import java.sql.*;
+import java.util.Collections;
+
+/**
+ * Unit Tests for sql:execute-streaming
+ */
+public class ExecuteStreamingFunctionTest {
+
+    // the function that will be tested
+    final static QName functionName = new QName( "execute-streaming", SQLModule.NAMESPACE_URI, SQLModule.PREFIX );
+
+    private final static String SQL = "SELECT NAME FROM BLA";
+
+
+    @Test
+    public void testStreamAndReuse() throws SQLException, XPathException {
+
+        // iterates the rows, then uses the same result again
+
+        XQueryContext context = new ExecuteFunctionTest.XQueryContextStub();
+
+        Connection connection = mock(Connection.class);
+        Statement stmt = mock(Statement.class);
+        ResultSet rs = mock(ResultSet.class);
+        ResultSetMetaData rsmd = mock(ResultSetMetaData.class);
+
+        expectStatement(connection, stmt, rs, rsmd);
+        expect(rs.next()).andReturn(true).times(2).andReturn(false).once();
+        expect(rs.getRow()).andReturn(1).andReturn(2);
+        expect(rs.getString(1)).andReturn("first").andReturn("second");
+        expect(rs.wasNull()).andStubReturn(false);
+        rs.close();
+        stmt.close();
+        connection.close();
+
+        replay(connection, stmt, rs, rsmd);
+
+        Sequence res = execute(context, connection);
+
+        SequenceIterator i = res.iterate();
+        Item first = i.nextItem();
+        Item second = i.nextItem();
+        assertFalse(i.hasNext());
+        assertEquals("first", first.getStringValue());
+        assertEquals("second", second.getStringValue());
+
+        // the rows read while streaming are used again, the result set is not read twice
+        assertEquals(2, res.getItemCount());
+        assertSame(first, res.itemAt(0));
+        i = res.iterate();
+        assertSame(first, i.nextItem());
+        assertSame(second, i.nextItem());
+        assertFalse(i.hasNext());
+        assertEquals(2, res.toMemNodeSet().getItemCount());
+
+        new SQLModule(Collections.emptyMap()).reset(context);
+
+        verify(connection, stmt, rs, rsmd);
+    }
+
+
+
+    @Test
+    public void testCloseUnreadRows() throws SQLException, XPathException {
+
+        // reads the first row only; the remaining rows are discarded when the query finishes
+
+        XQueryContext context = new ExecuteFunctionTest.XQueryContextStub();
+
+        Connection connection = mock(Connection.class);
+        Statement stmt = mock(Statement.class);
+        ResultSet rs = mock(ResultSet.class);
+        ResultSetMetaData rsmd = mock(ResultSetMetaData.class);
+
+        expectStatement(connection, stmt, rs, rsmd);
+        expect(rs.next()).andReturn(true).once();
+        expect(rs.getRow()).andReturn(1);
+        expect(rs.getString(1)).andReturn("first");
+        expect(rs.wasNull()).andStubReturn(false);
+        rs.close();
+        stmt.close();
+        connection.close();
+
+        replay(connection, stmt, rs, rsmd);
+
+        Sequence res = execute(context, connection);
+
+        assertFalse(res.isEmpty());
+        assertEquals("first", res.itemAt(0).getStringValue());
+
+        new SQLModule(Collections.emptyMap()).reset(context);
+
+        verify(connection, stmt, rs, rsmd);
+
+        // the result is not silently truncated
+        try {
+            res.iterate();
+            fail("Iterating a closed result with unread rows should fail");
+        } catch (final XPathException e) {
+            assertTrue(e.getMessage().contains("closed before all of its rows were read"));
+        }
+    }
+
+
+
+    @Test
+    public void testUpdateCount() throws SQLException, XPathException {
+
+        XQueryContext context = new ExecuteFunctionTest.XQueryContextStub();
+        final String sql = "DELETE FROM BLA";
+
+        Connection connection = mock(Connection.class);
+        Statement stmt = mock(Statement.class);
+
+        expect(connection.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)).andReturn(stmt);
+        stmt.setFetchSize(100);
+        expect(stmt.execute(sql)).andReturn(false);
+        expect(stmt.getUpdateCount()).andReturn(3);
+        stmt.close();
+
+        replay(connection, stmt);
+
+        final long connId = SQLModule.storeConnection( context, connection );
+        ExecuteStreamingFunction execute = new ExecuteStreamingFunction(context,
+                ExecuteFunctionTest.signatureByArity(ExecuteStreamingFunction.signatures, functionName, 4));
+
+        Sequence res = execute.eval(new Sequence[] {
+                new IntegerValue(connId),
+                new StringValue(sql),
+                new BooleanValue(false),
+                new IntegerValue(100)
+        }, Sequence.EMPTY_SEQUENCE);
+
+        assertEquals(1, res.getItemCount());
+        Element result = (Element) ((NodeValue) res.itemAt(0)).getNode();
+        assertEquals("sql:result", result.getNodeName());
+        assertEquals("3", result.getAttribute("updateCount"));
+
+        verify(connection, stmt);
+    }
+
+
+    private static void expectStatement(Connection connection, Statement stmt, ResultSet rs, ResultSetMetaData rsmd) throws SQLException {
+        expect(connection.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)).andReturn(stmt);
+        stmt.setFetchSize(100);
+        expect(stmt.execute(SQL)).andReturn(true);
+        expect(stmt.getResultSet()).andReturn(rs);
+        expect(rs.getMetaData()).andReturn(rsmd);
+
+        expect(rsmd.getColumnCount()).andStubReturn(1);
+        expect(rsmd.getColumnLabel(1)).andStubReturn("NAME");
+        expect(rsmd.getColumnTypeName(1)).andStubReturn("VARCHAR(100)");
+        expect(rsmd.getColumnType(1)).andStubReturn(Types.VARCHAR);
+    }
+
+
+    private static Sequence execute(XQueryContext context, Connection connection) throws XPathException {
+        final long connId = SQLModule.storeConnection( context, connection );
+        ExecuteStreamingFunction execute = new ExecuteStreamingFunction(context,
+                ExecuteFunctionTest.signatureByArity(ExecuteStreamingFunction.signatures, functionName, 4));
+
+        return execute.eval(new Sequence[] {
+                new IntegerValue(connId),
+                new StringValue(SQL),
+                new BooleanValue(false),
+                new IntegerValue(100)
+        }, Sequence.EMPTY_SEQUENCE);
+    }
+
+}
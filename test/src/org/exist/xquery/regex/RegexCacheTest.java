@@ -0,0 +1,68 @@
+package org.exist.xquery.regex;
+
+import org.junit.Test;
+
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import static org.junit.Assert.*;
+
+public class RegexCacheTest {
+
+    @Test
+    public void reuse() throws RegexSyntaxException {
+        final RegexCache cache = new RegexCache(16);
+        final CompiledRegex regex = cache.get("^ab+c", 0);
+        assertSame(regex, cache.get("^ab+c", 0));
+        assertNotSame(regex, cache.get("^ab+c", Pattern.CASE_INSENSITIVE));
+        assertNotSame(regex, cache.getXPath("^ab+c", 0));
+        assertEquals(1, cache.getHits());
+        assertEquals(3, cache.getMisses());
+        assertEquals(3, cache.getSize());
+    }
+
+    @Test
+    public void metadata() throws RegexSyntaxException {
+        final RegexCache cache = new RegexCache(16);
+        final CompiledRegex regex = cache.getXPath("^Ber\\p{L}+", 0);
+        assertTrue(regex.isAnchored());
+        assertEquals("Ber", regex.getPrefix());
+        assertFalse(regex.matchesEmptyString());
+
+        final CompiledRegex unanchored = cache.get("a*b?", 0);
+        assertFalse(unanchored.isAnchored());
+        assertNull(unanchored.getPrefix());
+        assertTrue(unanchored.matchesEmptyString());
+    }
+
+    @Test
+    public void evictLeastRecentlyUsed() {
+        final RegexCache cache = new RegexCache(2);
+        final CompiledRegex a = cache.get("a", 0);
+        cache.get("b", 0);
+        cache.get("a", 0);
+        cache.get("c", 0);
+        assertEquals(2, cache.getSize());
+        assertEquals(1, cache.getEvictions());
+        assertSame(a, cache.get("a", 0));
+        assertEquals(2, cache.getHits());
+    }
+
+    @Test
+    public void invalidNotCached() {
+        final RegexCache cache = new RegexCache(16);
+        try {
+            cache.get("a(b", 0);
+            fail("expected PatternSyntaxException");
+        } catch (final PatternSyntaxException e) {
+            // expected
+        }
+        try {
+            cache.getXPath("\\k", 0);
+            fail("expected RegexSyntaxException");
+        } catch (final RegexSyntaxException e) {
+            // expected
+        }
+        assertEquals(0, cache.getSize());
+    }
+}
@@ -0,0 +1,40 @@
+package org.exist.xquery.regex;
+
+import org.junit.Test;
+
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.*;
+
+public class RegexLiteralsTest {
+
+    @Test
+    public void prefix() {
+        assertEquals("abc", new RegexLiterals("^abc", 0).getPrefix());
+        assertEquals("ab", new RegexLiterals("^abc?", 0).getPrefix());
+        assertEquals("abc", new RegexLiterals("^abc+d", 0).getPrefix());
+        assertEquals("a.b", new RegexLiterals("^a\\.b.*", 0).getPrefix());
+        assertEquals("a b", new RegexLiterals("^a b[0-9]", 0).getPrefix());
+        assertEquals("a*b", new RegexLiterals("^\\Qa*b\\E", 0).getPrefix());
+        assertNull(new RegexLiterals("abc", 0).getPrefix());
+        assertNull(new RegexLiterals("^a?bc", 0).getPrefix());
+        assertNull(new RegexLiterals("^(ab)c", 0).getPrefix());
+        assertNull(new RegexLiterals("^abc|def", 0).getPrefix());
+        assertNull(new RegexLiterals("^abc", Pattern.MULTILINE).getPrefix());
+        assertNull(new RegexLiterals("^abc", Pattern.CASE_INSENSITIVE).getPrefix());
+    }
+
+    @Test
+    public void literal() {
+        assertEquals("hello", new RegexLiterals("hello", 0).getLiteral());
+        assertEquals("world", new RegexLiterals("a.*world[0-9]+", 0).getLiteral());
+        assertEquals("defg", new RegexLiterals("ab?c\\ddefgh*", 0).getLiteral());
+        assertEquals("xyz", new RegexLiterals("(a|b)xyz", 0).getLiteral());
+        assertEquals("a(b", new RegexLiterals("a(b", Pattern.LITERAL).getLiteral());
+        assertEquals("\u00e9t\u00e9", new RegexLiterals("\\p{L}\u00e9t\u00e9", 0).getLiteral());
+        assertNull(new RegexLiterals("abc|def", 0).getLiteral());
+        assertNull(new RegexLiterals("(?i)abc", 0).getLiteral());
+        assertNull(new RegexLiterals("xyz(?i:abc)", 0).getLiteral());
+        assertNull(new RegexLiterals("[abc]*", 0).getLiteral());
+    }
+}
@@ -0,0 +1,104 @@
+package org.exist.xquery.value;
+
+import java.math.BigInteger;
+
+import org.exist.xquery.Constants.Comparison;
+import org.exist.xquery.XPathException;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class IntegerValueTest {
+
+    private static final BigInteger MAX = BigInteger.valueOf(Long.MAX_VALUE);
+    private static final BigInteger MIN = BigInteger.valueOf(Long.MIN_VALUE);
+
+    @Test
+    public void interned() {
+        assertSame(IntegerValue.valueOf(1), IntegerValue.valueOf(1));
+        assertSame(IntegerValue.ZERO, IntegerValue.valueOf(0));
+        assertEquals(IntegerValue.valueOf(100000), IntegerValue.valueOf(100000));
+    }
+
+    @Test
+    public void plusOverflow() throws XPathException {
+        final IntegerValue max = new IntegerValue(Long.MAX_VALUE);
+        assertEquals(MAX.add(BigInteger.ONE).toString(), max.plus(new IntegerValue(1)).getStringValue());
+        assertEquals(MAX.add(MAX).toString(), max.plus(max).getStringValue());
+
+        // back into the long range
+        final ComputableValue big = max.plus(new IntegerValue(1));
+        assertEquals(Long.MAX_VALUE, ((IntegerValue) big.minus(new IntegerValue(1))).getLong());
+    }
+
+    @Test
+    public void minusOverflow() throws XPathException {
+        final IntegerValue min = new IntegerValue(Long.MIN_VALUE);
+        assertEquals(MIN.subtract(BigInteger.ONE).toString(), min.minus(new IntegerValue(1)).getStringValue());
+        assertEquals(MIN.negate().toString(), IntegerValue.ZERO.minus(min).getStringValue());
+    }
+
+    @Test
+    public void multOverflow() throws XPathException {
+        final IntegerValue max = new IntegerValue(Long.MAX_VALUE);
+        assertEquals(MAX.multiply(MAX).toString(), max.mult(max).getStringValue());
+        assertEquals(MIN.negate().toString(),
+                new IntegerValue(Long.MIN_VALUE).mult(new IntegerValue(-1)).getStringValue());
+        assertEquals("-6", new IntegerValue(2).mult(new IntegerValue(-3)).getStringValue());
+        assertEquals("4294967296", new IntegerValue(65536).mult(new IntegerValue(65536)).getStringValue());
+    }
+
+    @Test
+    public void idivAndMod() throws XPathException {
+        assertEquals("-3", new IntegerValue(-7).idiv(new IntegerValue(2)).getStringValue());
+        assertEquals("-1", new IntegerValue(-7).mod(new IntegerValue(2)).getStringValue());
+        assertEquals(MIN.negate().toString(),
+                new IntegerValue(Long.MIN_VALUE).idiv(new IntegerValue(-1)).getStringValue());
+        assertEquals("0", new IntegerValue(Long.MIN_VALUE).mod(new IntegerValue(-1)).getStringValue());
+        final IntegerValue big = new IntegerValue("100000000000000000000");
+        assertEquals("10000000000", big.idiv(new IntegerValue(10000000000L)).getStringValue());
+        assertEquals("7", new IntegerValue("100000000000000000007").mod(new IntegerValue(10)).getStringValue());
+    }
+
+    @Test(expected = XPathException.class)
+    public void idivByZero() throws XPathException {
+        new IntegerValue(1).idiv(IntegerValue.ZERO);
+    }
+
+    @Test
+    public void negateAndAbs() throws XPathException {
+        assertEquals(MIN.negate().toString(), new IntegerValue(Long.MIN_VALUE).negate().getStringValue());
+        assertEquals(MIN.negate().toString(), new IntegerValue(Long.MIN_VALUE).abs().getStringValue());
+        assertEquals("5", new IntegerValue(-5).abs().getStringValue());
+    }
+
+    @Test
+    public void compareExactly() throws XPathException {
+        // both convert to the same double
+        final IntegerValue a = new IntegerValue(9007199254740993L);
+        final IntegerValue b = new IntegerValue(9007199254740992L);
+        assertTrue(a.compareTo(null, Comparison.GT, b));
+        assertFalse(a.compareTo(null, Comparison.EQ, b));
+        assertFalse(a.equals(b));
+        assertTrue(a.compareTo(b) > 0);
+
+        final IntegerValue big = new IntegerValue("9223372036854775808");
+        assertTrue(big.compareTo(null, Comparison.GT, new IntegerValue(Long.MAX_VALUE)));
+        assertEquals(big, new IntegerValue(MAX.add(BigInteger.ONE)));
+        assertEquals(big.hashCode(), new IntegerValue(MAX.add(BigInteger.ONE)).hashCode());
+    }
+
+    @Test
+    public void parse() throws XPathException {
+        assertEquals(42, new IntegerValue(" +42 ").getLong());
+        assertEquals("-9223372036854775808", new IntegerValue("-9223372036854775808").getStringValue());
+        assertEquals(new IntegerValue(7), new IntegerValue("0000000000000000000000007"));
+        assertEquals(new BigInteger("123456789012345678901234567890"),
+                new IntegerValue("123456789012345678901234567890").toJavaObject(BigInteger.class));
+    }
+
+    @Test(expected = XPathException.class)
+    public void parseInvalid() throws XPathException {
+        new IntegerValue("12a");
+    }
+}
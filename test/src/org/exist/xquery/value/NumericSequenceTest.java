@@ -0,0 +1,85 @@
+package org.exist.xquery.value;
+
+import org.exist.xquery.Constants.Comparison;
+import org.exist.xquery.RangeSequence;
+import org.exist.xquery.XPathException;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class NumericSequenceTest {
+
+    @Test
+    public void compactIntegers() throws XPathException {
+        final ValueSequence seq = new ValueSequence();
+        seq.add(new IntegerValue(3));
+        seq.add(new IntegerValue(-7));
+        seq.add(new IntegerValue(12));
+        final Sequence compacted = NumericSequence.compact(seq);
+        assertTrue(compacted instanceof LongSequence);
+        assertEquals(3, compacted.getItemCount());
+        assertEquals("-7", compacted.itemAt(1).getStringValue());
+        assertEquals("8", ((NumericSequence) compacted).sum().getStringValue());
+        assertEquals("-7", ((NumericSequence) compacted).min().getStringValue());
+        assertEquals("12", ((NumericSequence) compacted).max().getStringValue());
+    }
+
+    @Test
+    public void compactKeepsMixedSequences() throws XPathException {
+        final ValueSequence seq = new ValueSequence();
+        seq.add(new IntegerValue(3));
+        seq.add(new DoubleValue(1.5));
+        assertSame(seq, NumericSequence.compact(seq));
+
+        final ValueSequence big = new ValueSequence();
+        big.add(new IntegerValue(3));
+        big.add(new IntegerValue("100000000000000000000"));
+        assertSame(big, NumericSequence.compact(big));
+    }
+
+    @Test
+    public void sumOverflow() throws XPathException {
+        final LongSequence seq = new LongSequence(new long[] { Long.MAX_VALUE, Long.MAX_VALUE, -Long.MAX_VALUE });
+        assertEquals(Long.toString(Long.MAX_VALUE), seq.sum().getStringValue());
+
+        final LongSequence over = new LongSequence(new long[] { Long.MAX_VALUE, 1 });
+        assertEquals("9223372036854775808", over.sum().getStringValue());
+    }
+
+    @Test
+    public void doubles() throws XPathException {
+        final DoubleSequence seq = new DoubleSequence(new double[] { 1.5, -2.0, 4.0 });
+        assertEquals(3.5, ((DoubleValue) seq.sum()).getValue(), 0);
+        assertEquals(-2.0, ((DoubleValue) seq.min()).getValue(), 0);
+        assertTrue(seq.compareAny(Comparison.GT, new IntegerValue(3)));
+        assertFalse(seq.compareAny(Comparison.EQ, new IntegerValue(3)));
+
+        final DoubleSequence nan = new DoubleSequence(new double[] { 1.0, Double.NaN });
+        assertTrue(((DoubleValue) nan.max()).isNaN());
+        assertFalse(nan.compareAny(Comparison.EQ, DoubleValue.NaN));
+    }
+
+    @Test
+    public void compareAny() throws XPathException {
+        final LongSequence seq = new LongSequence(new long[] { 1, 5, 9 });
+        assertTrue(seq.compareAny(Comparison.EQ, new IntegerValue(5)));
+        assertFalse(seq.compareAny(Comparison.EQ, new IntegerValue(4)));
+        assertTrue(seq.compareAny(Comparison.LT, new IntegerValue(2)));
+        assertFalse(seq.compareAny(Comparison.GT, new IntegerValue(9)));
+        assertTrue(seq.compareAny(Comparison.GT, new DoubleValue(8.5)));
+        assertTrue(seq.compareAny(Comparison.LT, new IntegerValue("100000000000000000000")));
+    }
+
+    @Test
+    public void range() throws XPathException {
+        final RangeSequence range = new RangeSequence(new IntegerValue(1), new IntegerValue(1000000));
+        assertEquals("500000500000", range.sum().getStringValue());
+        assertEquals("1", range.min().getStringValue());
+        assertEquals("1000000", range.max().getStringValue());
+        assertTrue(range.compareAny(Comparison.EQ, new IntegerValue(1000000)));
+        assertFalse(range.compareAny(Comparison.GT, new IntegerValue(1000000)));
+
+        final RangeSequence large = new RangeSequence(new IntegerValue(Long.MAX_VALUE - 1), new IntegerValue(Long.MAX_VALUE));
+        assertEquals("18446744073709551613", large.sum().getStringValue());
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2015 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.xslt;
+
+import org.exist.storage.BrokerPool;
+import org.exist.storage.DBBroker;
+import org.exist.test.ExistEmbeddedServer;
+import org.exist.xmldb.XmldbURI;
+import org.junit.ClassRule;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Templates;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.URIResolver;
+import javax.xml.transform.sax.SAXTransformerFactory;
+import javax.xml.transform.stream.StreamResult;
+import javax.xml.transform.stream.StreamSource;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Optional;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.*;
+
+public class TemplatesCacheTest {
+
+    private static final XmldbURI TEST_COLLECTION = XmldbURI.ROOT_COLLECTION_URI.append("templates-cache-test");
+
+    @ClassRule
+    public static final ExistEmbeddedServer existEmbeddedServer = new ExistEmbeddedServer(true);
+
+    @Rule
+    public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void cacheAndInvalidateOnImportChange() throws Exception {
+        storeStylesheets("first");
+
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        final TemplatesCache cache = pool.getTemplatesCache();
+        final String uri = XmldbURI.EMBEDDED_SERVER_URI_PREFIX + TEST_COLLECTION.append("main.xsl");
+
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
+            final int compiles = cache.getCompiles();
+            final int hits = cache.getHits();
+
+            final Templates templates = cache.getTemplates(broker, uri, null, null);
+            assertEquals("<p>first</p>", transform(templates));
+            assertSame(templates, cache.getTemplates(broker, uri, null, null));
+            assertEquals(compiles + 1, cache.getCompiles());
+            assertEquals(hits + 1, cache.getHits());
+
+            // changing the imported module invalidates the stylesheet
+            storeStylesheets("second");
+            final Templates changed = cache.getTemplates(broker, uri, null, null);
+            assertNotSame(templates, changed);
+            assertEquals("<p>second</p>", transform(changed));
+            assertEquals(compiles + 2, cache.getCompiles());
+        }
+    }
+
+    @Test
+    public void sharedFactoryUnchanged() throws Exception {
+        storeStylesheets("first");
+
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        final String uri = XmldbURI.EMBEDDED_SERVER_URI_PREFIX + TEST_COLLECTION.append("main.xsl");
+        final SAXTransformerFactory factory = TransformerFactoryAllocator.getTransformerFactory(pool);
+        final URIResolver resolver = factory.getURIResolver();
+
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
+            pool.getTemplatesCache().clear();
+            final Templates templates = pool.getTemplatesCache().getTemplates(broker, uri, null, null);
+            assertEquals("<p>first</p>", transform(templates));
+        }
+
+        // resolvers of a compilation are bound to its broker and must not leak into the shared factory
+        assertSame(resolver, factory.getURIResolver());
+    }
+
+    @Test
+    public void externalStylesheet() throws Exception {
+        final Path dir = temporaryFolder.getRoot().toPath();
+        final Path main = dir.resolve("main.xsl");
+        final Path module = dir.resolve("module.xsl");
+        Files.write(main, stylesheet("module.xsl").getBytes(UTF_8));
+        Files.write(module, module("first").getBytes(UTF_8));
+
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        final TemplatesCache cache = pool.getTemplatesCache();
+        final String uri = main.toUri().toASCIIString();
+
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
+            final Templates templates = cache.getTemplates(broker, uri, null, null);
+            assertEquals("<p>first</p>", transform(templates));
+            assertSame(templates, cache.getTemplates(broker, uri, null, null));
+
+            Files.write(module, module("second").getBytes(UTF_8));
+            Files.setLastModifiedTime(module, FileTime.fromMillis(Files.getLastModifiedTime(module).toMillis() + 10000));
+            final Templates changed = cache.getTemplates(broker, uri, null, null);
+            assertNotSame(templates, changed);
+            assertEquals("<p>second</p>", transform(changed));
+        }
+    }
+
+    private static String stylesheet(final String module) {
+        return "<xsl:stylesheet xmlns:xsl='http://www.w3.org/1999/XSL/Transform' version='1.0'>" +
+                "<xsl:import href='" + module + "'/>" +
+                "<xsl:template match='/'><p><xsl:call-template name='module'/></p></xsl:template>" +
+                "</xsl:stylesheet>";
+    }
+
+    private static String module(final String text) {
+        return "<xsl:stylesheet xmlns:xsl='http://www.w3.org/1999/XSL/Transform' version='1.0'>" +
+                "<xsl:template name='module'>" + text + "</xsl:template>" +
+                "</xsl:stylesheet>";
+    }
+
+    private static String transform(final Templates templates) throws Exception {
+        final Transformer transformer = templates.newTransformer();
+        transformer.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
+        final StringWriter writer = new StringWriter();
+        transformer.transform(new StreamSource(new StringReader("<empty/>")), new StreamResult(writer));
+        return writer.toString();
+    }
+
+    private static void storeStylesheets(final String text) throws Exception {
+        final String collection = TEST_COLLECTION.toString();
+        execute("xmldb:create-collection('" + XmldbURI.ROOT_COLLECTION + "', '" + TEST_COLLECTION.lastSegment() + "'), " +
+                "xmldb:create-collection('" + collection + "', 'lib'), " +
+                "xmldb:store('" + collection + "', 'main.xsl', " + stylesheet("lib/module.xsl") + "), " +
+                "xmldb:store('" + collection + "/lib', 'module.xsl', " + module(text) + ")");
+    }
+
+    private static void execute(final String query) throws Exception {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
+            pool.getXQueryService().execute(broker, query, null);
+        }
+    }
+}